@@ -0,0 +1,241 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.KeyStore;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+import javax.mail.MessagingException;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.wss4j.common.ext.WSSecurityException;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.http.CHttpHeader;
+import com.helger.commons.http.HttpHeaderMap;
+import com.helger.commons.io.file.FileHelper;
+import com.helger.commons.mime.CMimeType;
+import com.helger.phase4.CAS4;
+import com.helger.phase4.client.AS4ClientBuiltMessage;
+import com.helger.phase4.client.AS4ClientUserMessage;
+import com.helger.phase4.crypto.AS4CryptoFactoryInMemoryKeyStore;
+import com.helger.phase4.crypto.ECryptoAlgorithmCrypt;
+import com.helger.phase4.crypto.ECryptoAlgorithmSign;
+import com.helger.phase4.crypto.ECryptoAlgorithmSignDigest;
+import com.helger.phase4.crypto.IAS4CryptoFactory;
+import com.helger.phase4.messaging.domain.MessageHelperMethods;
+import com.helger.phase4.soap.ESoapVersion;
+import com.helger.phase4.util.AS4ResourceHelper;
+import com.helger.security.keystore.EKeyStoreType;
+import com.helger.security.keystore.KeyStoreHelper;
+
+/**
+ * Shared helper methods for the benchmarks. Uses the same dummy key store as
+ * the tests in phase4-test.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@Immutable
+public final class AS4BenchmarkHelper
+{
+  public static final String KEY_STORE_PATH = "keys/dummy-pw-test.jks";
+  public static final String KEY_STORE_PASSWORD = "test";
+  public static final String KEY_ALIAS = "ph-as4";
+  public static final String KEY_PASSWORD = "test";
+
+  public static final String INITIATOR_ID = "BenchmarkInitiator";
+  public static final String RESPONDER_ID = "BenchmarkResponder";
+  public static final String SERVICE_TYPE = "MyServiceType";
+  public static final String SERVICE = "OrderPaper";
+  public static final String ACTION = "AnAction";
+  public static final String AGREEMENT_REF = "urn:as4:agreements:benchmark";
+
+  private AS4BenchmarkHelper ()
+  {}
+
+  /**
+   * @return A new in-memory crypto factory based on the dummy key store. The
+   *         key store is also used as the trust store.
+   */
+  @Nonnull
+  public static IAS4CryptoFactory createCryptoFactory ()
+  {
+    final KeyStore aKeyStore = KeyStoreHelper.loadKeyStore (EKeyStoreType.JKS, KEY_STORE_PATH, KEY_STORE_PASSWORD).getKeyStore ();
+    if (aKeyStore == null)
+      throw new IllegalStateException ("Failed to load key store '" + KEY_STORE_PATH + "'");
+    return new AS4CryptoFactoryInMemoryKeyStore (aKeyStore, KEY_ALIAS, KEY_PASSWORD, aKeyStore);
+  }
+
+  /**
+   * Create the provided number of attachment files with the provided size.
+   *
+   * @param aDir
+   *        The directory in which the files should be created. May not be
+   *        <code>null</code>.
+   * @param nCount
+   *        The number of files to create.
+   * @param nSize
+   *        The size of each file in bytes.
+   * @return The list of created files. Never <code>null</code>.
+   * @throws IOException
+   *         on write error
+   */
+  @Nonnull
+  public static ICommonsList <File> createAttachmentFiles (@Nonnull final File aDir,
+                                                          final int nCount,
+                                                          final long nSize) throws IOException
+  {
+    final byte [] aBuf = new byte [64 * 1024];
+    for (int i = 0; i < aBuf.length; ++i)
+      aBuf[i] = (byte) ('a' + i % 26);
+
+    final ICommonsList <File> ret = new CommonsArrayList <> (nCount);
+    for (int i = 0; i < nCount; ++i)
+    {
+      final File aFile = new File (aDir, "attachment-" + i + "-" + nSize + ".bin");
+      if (!aFile.exists () || aFile.length () != nSize)
+        try (final OutputStream aOS = FileHelper.getBufferedOutputStream (aFile))
+        {
+          if (aOS == null)
+            throw new IOException ("Failed to open '" + aFile.getAbsolutePath () + "' for writing");
+          long nRemaining = nSize;
+          while (nRemaining > 0)
+          {
+            final int nChunk = (int) Math.min (nRemaining, aBuf.length);
+            aOS.write (aBuf, 0, nChunk);
+            nRemaining -= nChunk;
+          }
+        }
+      ret.add (aFile);
+    }
+    return ret;
+  }
+
+  /**
+   * Create a valid user message with the provided attachments and security.
+   *
+   * @param aResHelper
+   *        The resource helper to use. May not be <code>null</code>.
+   * @param aCryptoFactory
+   *        The crypto factory to use. May not be <code>null</code>.
+   * @param eSecurity
+   *        The security to apply. May not be <code>null</code>.
+   * @param aAttachments
+   *        The attachments to add. May not be <code>null</code>.
+   * @return The ready to build client. Never <code>null</code>.
+   * @throws IOException
+   *         If an attachment cannot be added
+   */
+  @Nonnull
+  public static AS4ClientUserMessage createUserMessage (@Nonnull final AS4ResourceHelper aResHelper,
+                                                        @Nonnull final IAS4CryptoFactory aCryptoFactory,
+                                                        @Nonnull final EAS4BenchmarkSecurity eSecurity,
+                                                        @Nonnull final Iterable <File> aAttachments) throws IOException
+  {
+    final AS4ClientUserMessage aClient = new AS4ClientUserMessage (aResHelper);
+    aClient.setSoapVersion (ESoapVersion.SOAP_12);
+    aClient.setAS4CryptoFactory (aCryptoFactory);
+    aClient.setPModeID ("default-" + INITIATOR_ID + "-" + RESPONDER_ID);
+    aClient.setAction (ACTION);
+    aClient.setServiceType (SERVICE_TYPE);
+    aClient.setServiceValue (SERVICE);
+    aClient.setConversationID (MessageHelperMethods.createRandomConversationID ());
+    aClient.setAgreementRefValue (AGREEMENT_REF);
+    aClient.setFromRole (CAS4.DEFAULT_ROLE);
+    aClient.setFromPartyID (INITIATOR_ID);
+    aClient.setToRole (CAS4.DEFAULT_ROLE);
+    aClient.setToPartyID (RESPONDER_ID);
+    aClient.ebms3Properties ()
+           .addAll (MessageHelperMethods.createEbms3Property (CAS4.ORIGINAL_SENDER, "C1-benchmark"),
+                    MessageHelperMethods.createEbms3Property (CAS4.FINAL_RECIPIENT, "C4-benchmark"));
+    for (final File aFile : aAttachments)
+      aClient.addAttachment (aFile, CMimeType.APPLICATION_OCTET_STREAM, null);
+
+    if (eSecurity.isSign ())
+      aClient.signingParams ()
+             .setAlgorithmSign (ECryptoAlgorithmSign.RSA_SHA_256)
+             .setAlgorithmSignDigest (ECryptoAlgorithmSignDigest.DIGEST_SHA_256);
+    if (eSecurity.isEncrypt ())
+      aClient.cryptParams ().setAlgorithmCrypt (ECryptoAlgorithmCrypt.AES_128_GCM).setAlias (KEY_ALIAS);
+    return aClient;
+  }
+
+  /**
+   * Get the HTTP headers that are sent together with the built message.
+   *
+   * @param aBuiltMsg
+   *        The built message. May not be <code>null</code>.
+   * @return A new header map. Never <code>null</code>.
+   */
+  @Nonnull
+  public static HttpHeaderMap getHttpHeaders (@Nonnull final AS4ClientBuiltMessage aBuiltMsg)
+  {
+    final HttpHeaderMap ret = new HttpHeaderMap ();
+    final HttpEntity aEntity = aBuiltMsg.getHttpEntity ();
+    final Header aContentType = aEntity.getContentType ();
+    if (aContentType != null)
+      ret.setContentType (aContentType.getValue ());
+    if (aEntity.getContentLength () >= 0)
+      ret.setContentLength (aEntity.getContentLength ());
+    final HttpHeaderMap aCustomHeaders = aBuiltMsg.getCustomHeaders ();
+    if (aCustomHeaders != null)
+      ret.setAllHeaders (aCustomHeaders);
+    return ret;
+  }
+
+  /**
+   * Build the message and write the serialized form to the provided file.
+   *
+   * @param aClient
+   *        The client to build. May not be <code>null</code>.
+   * @param aFile
+   *        The target file. May not be <code>null</code>.
+   * @return The HTTP headers to be used when sending the file. Never
+   *         <code>null</code>.
+   * @throws IOException
+   *         on write error
+   * @throws WSSecurityException
+   *         on signing or encryption error
+   * @throws MessagingException
+   *         on MIME error
+   */
+  @Nonnull
+  public static HttpHeaderMap buildMessageToFile (@Nonnull final AS4ClientUserMessage aClient,
+                                                  @Nonnull final File aFile) throws IOException,
+                                                                             WSSecurityException,
+                                                                             MessagingException
+  {
+    final AS4ClientBuiltMessage aBuiltMsg = aClient.buildMessage (MessageHelperMethods.createRandomMessageID (), null);
+    try (final OutputStream aOS = FileHelper.getBufferedOutputStream (aFile))
+    {
+      if (aOS == null)
+        throw new IOException ("Failed to open '" + aFile.getAbsolutePath () + "' for writing");
+      aBuiltMsg.getHttpEntity ().writeTo (aOS);
+    }
+    final HttpHeaderMap ret = getHttpHeaders (aBuiltMsg);
+    // Content length is known now
+    ret.setHeader (CHttpHeader.CONTENT_LENGTH, Long.toString (aFile.length ()));
+    return ret;
+  }
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.benchmark;
+
+import javax.annotation.concurrent.Immutable;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Main class of the benchmark JAR. Accepts all the regular JMH command line
+ * options, but defaults to writing the results as JSON to
+ * {@value #DEFAULT_RESULT_FILE} so that they can be tracked for regressions.
+ * <br>
+ * Example: <code>java -jar target/phase4-benchmarks.jar BuildUserMessage -p m_nAttachmentSize=1024</code>
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@Immutable
+public final class AS4BenchmarkRunner
+{
+  public static final String DEFAULT_RESULT_FILE = "target/jmh-result.json";
+
+  private AS4BenchmarkRunner ()
+  {}
+
+  public static void main (final String [] aArgs) throws Exception
+  {
+    final CommandLineOptions aCmdLineOptions = new CommandLineOptions (aArgs);
+    if (aCmdLineOptions.shouldHelp ())
+    {
+      aCmdLineOptions.showHelp ();
+      return;
+    }
+    if (aCmdLineOptions.shouldList ())
+    {
+      new Runner (aCmdLineOptions).list ();
+      return;
+    }
+
+    final OptionsBuilder aOB = new OptionsBuilder ();
+    aOB.parent (aCmdLineOptions);
+    if (!aCmdLineOptions.getResultFormat ().hasValue ())
+      aOB.resultFormat (ResultFormatType.JSON);
+    if (!aCmdLineOptions.getResult ().hasValue ())
+      aOB.result (DEFAULT_RESULT_FILE);
+    new Runner (aOB.build ()).run ();
+  }
+}
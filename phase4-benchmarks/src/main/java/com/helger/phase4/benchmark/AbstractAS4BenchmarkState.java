@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.benchmark;
+
+import java.io.File;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.phase4.crypto.IAS4CryptoFactory;
+import com.helger.photon.app.mock.PhotonAppWebTestRule;
+
+/**
+ * Base class for all benchmark states. Sets up the global web scope (as the
+ * tests do), creates the in-memory crypto factory and provides a working
+ * directory for temporary files.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+public abstract class AbstractAS4BenchmarkState
+{
+  private PhotonAppWebTestRule m_aScopeRule;
+  protected IAS4CryptoFactory m_aCryptoFactory;
+  protected File m_aWorkDir;
+
+  @Setup (Level.Trial)
+  public final void setUpScope ()
+  {
+    m_aScopeRule = new PhotonAppWebTestRule ();
+    m_aScopeRule.before ();
+    m_aCryptoFactory = AS4BenchmarkHelper.createCryptoFactory ();
+    m_aWorkDir = new File ("target/benchmark-work").getAbsoluteFile ();
+    FileOperationManager.INSTANCE.createDirRecursiveIfNotExisting (m_aWorkDir);
+  }
+
+  @TearDown (Level.Trial)
+  public final void tearDownScope ()
+  {
+    if (m_aScopeRule != null)
+    {
+      m_aScopeRule.after ();
+      m_aScopeRule = null;
+    }
+  }
+}
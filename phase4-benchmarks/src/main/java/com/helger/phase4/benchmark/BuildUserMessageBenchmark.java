@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.benchmark;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.io.stream.CountingOutputStream;
+import com.helger.commons.io.stream.NullOutputStream;
+import com.helger.phase4.client.AS4ClientBuiltMessage;
+import com.helger.phase4.client.AS4ClientUserMessage;
+import com.helger.phase4.messaging.domain.MessageHelperMethods;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+/**
+ * Benchmark for {@link AS4ClientUserMessage#buildMessage(String, com.helger.phase4.client.IAS4ClientBuildMessageCallback)}
+ * including the serialization of the resulting HTTP entity, as this is where
+ * MIME messages are assembled.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@State (Scope.Benchmark)
+@BenchmarkMode (Mode.AverageTime)
+@OutputTimeUnit (TimeUnit.MILLISECONDS)
+@Warmup (iterations = 3, time = 2)
+@Measurement (iterations = 5, time = 2)
+@Fork (value = 1, jvmArgsAppend = "-Xmx2g")
+public class BuildUserMessageBenchmark extends AbstractAS4BenchmarkState
+{
+  @Param ({ "PLAIN", "SIGNED", "SIGNED_ENCRYPTED" })
+  public EAS4BenchmarkSecurity m_eSecurity;
+
+  @Param ({ "1", "10" })
+  public int m_nAttachmentCount;
+
+  @Param ({ "1024", "1048576", "104857600" })
+  public long m_nAttachmentSize;
+
+  private ICommonsList <File> m_aAttachments;
+
+  @Setup (Level.Trial)
+  public void setUp () throws Exception
+  {
+    m_aAttachments = AS4BenchmarkHelper.createAttachmentFiles (m_aWorkDir, m_nAttachmentCount, m_nAttachmentSize);
+  }
+
+  @Benchmark
+  public long buildMessage () throws Exception
+  {
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final AS4ClientUserMessage aClient = AS4BenchmarkHelper.createUserMessage (aResHelper,
+                                                                                 m_aCryptoFactory,
+                                                                                 m_eSecurity,
+                                                                                 m_aAttachments);
+      final AS4ClientBuiltMessage aBuiltMsg = aClient.buildMessage (MessageHelperMethods.createRandomMessageID (), null);
+      try (final CountingOutputStream aCOS = new CountingOutputStream (new NullOutputStream ()))
+      {
+        aBuiltMsg.getHttpEntity ().writeTo (aCOS);
+        return aCOS.getBytesWritten ();
+      }
+    }
+  }
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.benchmark;
+
+import java.time.OffsetDateTime;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.state.EContinue;
+import com.helger.phase4.duplicate.IAS4DuplicateItem;
+import com.helger.phase4.duplicate.IAS4DuplicateManager;
+import com.helger.phase4.mgr.IManagerFactory;
+import com.helger.phase4.mgr.ManagerFactoryInMemory;
+import com.helger.phase4.mgr.ManagerFactoryPersistingFileSystem;
+
+/**
+ * Benchmark for the operations of the {@link IAS4DuplicateManager}
+ * implementations, with a pre-filled manager.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@State (Scope.Benchmark)
+@BenchmarkMode (Mode.AverageTime)
+@OutputTimeUnit (TimeUnit.MICROSECONDS)
+@Warmup (iterations = 3, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+public class DuplicateManagerBenchmark extends AbstractAS4BenchmarkState
+{
+  private static final String PROFILE_ID = "profile";
+  private static final String PMODE_ID = "pmode";
+
+  @Param ({ "false", "true" })
+  public boolean m_bPersistent;
+
+  @Param ({ "1000", "10000" })
+  public int m_nExistingEntries;
+
+  private final AtomicLong m_aCounter = new AtomicLong ();
+  private IAS4DuplicateManager m_aMgr;
+  private String m_sExistingID;
+  private OffsetDateTime m_aBeforeAll;
+
+  @Setup (Level.Trial)
+  public void setUp () throws Exception
+  {
+    final IManagerFactory aFactory = m_bPersistent ? new ManagerFactoryPersistingFileSystem () : new ManagerFactoryInMemory ();
+    m_aMgr = aFactory.createDuplicateManager ();
+    m_aBeforeAll = OffsetDateTime.now ().minusDays (1);
+    for (int i = 0; i < m_nExistingEntries; ++i)
+      m_aMgr.registerAndCheck ("existing-" + i, PROFILE_ID, PMODE_ID);
+    // Use the middle one to be fair to linear searches
+    m_sExistingID = "existing-" + (m_nExistingEntries / 2);
+  }
+
+  @Benchmark
+  public EContinue registerNew ()
+  {
+    return m_aMgr.registerAndCheck ("new-" + m_aCounter.incrementAndGet (), PROFILE_ID, PMODE_ID);
+  }
+
+  @Benchmark
+  public EContinue registerDuplicate ()
+  {
+    return m_aMgr.registerAndCheck (m_sExistingID, PROFILE_ID, PMODE_ID);
+  }
+
+  @Benchmark
+  public IAS4DuplicateItem getItemOfMessageID ()
+  {
+    return m_aMgr.getItemOfMessageID (m_sExistingID);
+  }
+
+  @Benchmark
+  public ICommonsList <String> evictNothing ()
+  {
+    // Scans all entries but evicts nothing
+    return m_aMgr.evictAllItemsBefore (m_aBeforeAll);
+  }
+}
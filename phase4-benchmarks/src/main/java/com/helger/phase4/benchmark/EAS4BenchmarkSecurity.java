@@ -0,0 +1,52 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.benchmark;
+
+/**
+ * The security applied to the user messages used in the benchmarks.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+public enum EAS4BenchmarkSecurity
+{
+  /** Neither signed nor encrypted */
+  PLAIN (false, false),
+  /** Signed only */
+  SIGNED (true, false),
+  /** Signed and encrypted */
+  SIGNED_ENCRYPTED (true, true);
+
+  private final boolean m_bSign;
+  private final boolean m_bEncrypt;
+
+  EAS4BenchmarkSecurity (final boolean bSign, final boolean bEncrypt)
+  {
+    m_bSign = bSign;
+    m_bEncrypt = bEncrypt;
+  }
+
+  public boolean isSign ()
+  {
+    return m_bSign;
+  }
+
+  public boolean isEncrypt ()
+  {
+    return m_bEncrypt;
+  }
+}
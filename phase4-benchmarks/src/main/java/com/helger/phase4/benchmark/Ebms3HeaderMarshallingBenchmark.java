@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.helger.phase4.ebms3header.Ebms3Messaging;
+import com.helger.phase4.ebms3header.Ebms3UserMessage;
+import com.helger.phase4.marshaller.Ebms3JAXBPool;
+import com.helger.phase4.marshaller.Ebms3ReaderBuilder;
+import com.helger.phase4.marshaller.Ebms3WriterBuilder;
+import com.helger.phase4.messaging.domain.MessageHelperMethods;
+
+/**
+ * Benchmark for reading and writing the ebMS3 Messaging header with and
+ * without the {@link Ebms3JAXBPool} and with and without XML Schema
+ * validation. Run with <code>-prof gc</code> to see the allocation per
+ * operation.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@State (Scope.Benchmark)
+@BenchmarkMode (Mode.AverageTime)
+@OutputTimeUnit (TimeUnit.MICROSECONDS)
+@Warmup (iterations = 3, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+public class Ebms3HeaderMarshallingBenchmark extends AbstractAS4BenchmarkState
+{
+  @Param ({ "false", "true" })
+  public boolean m_bPooled;
+
+  @Param ({ "false", "true" })
+  public boolean m_bValidate;
+
+  private Ebms3Messaging m_aMessaging;
+  private byte [] m_aBytes;
+
+  @Setup (Level.Trial)
+  public void setUp ()
+  {
+    final Ebms3UserMessage aUserMsg = new Ebms3UserMessage ();
+    aUserMsg.setMessageInfo (MessageHelperMethods.createEbms3MessageInfo ());
+    aUserMsg.setPartyInfo (MessageHelperMethods.createEbms3PartyInfo (AS4BenchmarkHelper.INITIATOR_ID,
+                                                                      AS4BenchmarkHelper.INITIATOR_ID,
+                                                                      AS4BenchmarkHelper.RESPONDER_ID,
+                                                                      AS4BenchmarkHelper.RESPONDER_ID));
+    aUserMsg.setCollaborationInfo (MessageHelperMethods.createEbms3CollaborationInfo (null,
+                                                                                      AS4BenchmarkHelper.AGREEMENT_REF,
+                                                                                      AS4BenchmarkHelper.SERVICE_TYPE,
+                                                                                      AS4BenchmarkHelper.SERVICE,
+                                                                                      AS4BenchmarkHelper.ACTION,
+                                                                                      "conversation"));
+    m_aMessaging = new Ebms3Messaging ();
+    m_aMessaging.addUserMessage (aUserMsg);
+    m_aBytes = Ebms3WriterBuilder.ebms3Messaging ().getAsBytes (m_aMessaging);
+    Ebms3JAXBPool.warmUp ();
+  }
+
+  @Benchmark
+  public Ebms3Messaging read ()
+  {
+    final Ebms3ReaderBuilder <Ebms3Messaging> aBuilder = Ebms3ReaderBuilder.ebms3Messaging ().setUseSchema (m_bValidate);
+    if (!m_bPooled)
+    {
+      // Any customizer disables the pool
+      aBuilder.setUnmarshallerCustomizer (x -> {});
+    }
+    return aBuilder.read (m_aBytes);
+  }
+
+  @Benchmark
+  public byte [] write ()
+  {
+    final Ebms3WriterBuilder <Ebms3Messaging> aBuilder = Ebms3WriterBuilder.ebms3Messaging ().setUseSchema (m_bValidate);
+    if (!m_bPooled)
+    {
+      // Any customizer disables the pool
+      aBuilder.setMarshallerCustomizer (x -> {});
+    }
+    return aBuilder.getAsBytes (m_aMessaging);
+  }
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.helger.phase4.messaging.domain.MessageHelperMethods;
+import com.helger.phase4.messaging.id.AS4RandomUUIDMessageIDGenerator;
+import com.helger.phase4.messaging.id.AS4TimeOrderedMessageIDGenerator;
+import com.helger.phase4.messaging.id.IAS4MessageIDGeneratorSPI;
+
+/**
+ * Contention benchmark for the message ID generators. All available cores
+ * create message IDs concurrently - use the JMH option <code>-t</code> to
+ * change the number of threads.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@State (Scope.Benchmark)
+@BenchmarkMode (Mode.Throughput)
+@OutputTimeUnit (TimeUnit.MICROSECONDS)
+@Warmup (iterations = 3, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+@Threads (Threads.MAX)
+public class MessageIDGeneratorBenchmark extends AbstractAS4BenchmarkState
+{
+  @Param ({ "random-uuid", "time-ordered" })
+  public String m_sGenerator;
+
+  private IAS4MessageIDGeneratorSPI m_aGenerator;
+
+  @Setup (Level.Trial)
+  public void setUp ()
+  {
+    m_aGenerator = "time-ordered".equals (m_sGenerator) ? new AS4TimeOrderedMessageIDGenerator ()
+                                                        : new AS4RandomUUIDMessageIDGenerator ();
+    MessageHelperMethods.setMessageIDGenerator (m_aGenerator);
+  }
+
+  @Benchmark
+  public String createUniqueID ()
+  {
+    return m_aGenerator.createUniqueID ();
+  }
+
+  @Benchmark
+  public String createRandomMessageID ()
+  {
+    return MessageHelperMethods.createRandomMessageID ();
+  }
+}
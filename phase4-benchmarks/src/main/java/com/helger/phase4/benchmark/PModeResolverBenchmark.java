@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.helger.phase4.mgr.MetaAS4Manager;
+import com.helger.phase4.model.pmode.DefaultPMode;
+import com.helger.phase4.model.pmode.IPMode;
+import com.helger.phase4.model.pmode.resolve.DefaultPModeResolver;
+import com.helger.phase4.model.pmode.resolve.IPModeResolver;
+
+/**
+ * Benchmark for the P-Mode resolution as performed for every incoming user
+ * message, using the {@link DefaultPModeResolver} on top of the P-Mode
+ * manager configured in <code>application.properties</code>.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@State (Scope.Benchmark)
+@BenchmarkMode (Mode.AverageTime)
+@OutputTimeUnit (TimeUnit.MICROSECONDS)
+@Warmup (iterations = 3, time = 1)
+@Measurement (iterations = 5, time = 1)
+@Fork (1)
+public class PModeResolverBenchmark extends AbstractAS4BenchmarkState
+{
+  private static final String UNKNOWN = "unknown";
+
+  @Param ({ "10", "1000" })
+  public int m_nExistingPModes;
+
+  private final IPModeResolver m_aResolverWithFallback = new DefaultPModeResolver (true);
+  private final IPModeResolver m_aResolverWithoutFallback = new DefaultPModeResolver (false);
+  private String m_sExistingID;
+
+  @Setup (Level.Trial)
+  public void setUp ()
+  {
+    // No default profile - otherwise the fallback is never reached
+    MetaAS4Manager.getProfileMgr ().setDefaultProfileID (null);
+    for (int i = 0; i < m_nExistingPModes; ++i)
+      DefaultPMode.getOrCreateDefaultPMode ("initiator-" + i, "responder-" + i, null, true);
+    final int nMiddle = m_nExistingPModes / 2;
+    m_sExistingID = DefaultPMode.getOrCreateDefaultPMode ("initiator-" + nMiddle, "responder-" + nMiddle, null, false).getID ();
+  }
+
+  @Benchmark
+  public IPMode resolveByID ()
+  {
+    return m_aResolverWithFallback.getPModeOfID (m_sExistingID,
+                                                 AS4BenchmarkHelper.SERVICE,
+                                                 AS4BenchmarkHelper.ACTION,
+                                                 AS4BenchmarkHelper.INITIATOR_ID,
+                                                 AS4BenchmarkHelper.RESPONDER_ID,
+                                                 null,
+                                                 null);
+  }
+
+  @Benchmark
+  public IPMode resolveNotFound ()
+  {
+    // Full scan for ID and service/action
+    return m_aResolverWithoutFallback.getPModeOfID (UNKNOWN,
+                                                    UNKNOWN,
+                                                    UNKNOWN,
+                                                    AS4BenchmarkHelper.INITIATOR_ID,
+                                                    AS4BenchmarkHelper.RESPONDER_ID,
+                                                    null,
+                                                    null);
+  }
+
+  @Benchmark
+  public IPMode resolveDefaultFallback ()
+  {
+    // Full scan and creation of the default P-Mode
+    return m_aResolverWithFallback.getPModeOfID (UNKNOWN,
+                                                 UNKNOWN,
+                                                 UNKNOWN,
+                                                 AS4BenchmarkHelper.INITIATOR_ID,
+                                                 AS4BenchmarkHelper.RESPONDER_ID,
+                                                 null,
+                                                 null);
+  }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.benchmark;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.http.HttpHeaderMap;
+import com.helger.commons.io.file.FileHelper;
+import com.helger.phase4.attachment.IAS4IncomingAttachmentFactory;
+import com.helger.phase4.client.AS4ClientUserMessage;
+import com.helger.phase4.messaging.EAS4MessageMode;
+import com.helger.phase4.servlet.AS4IncomingHandler;
+import com.helger.phase4.servlet.AS4IncomingMessageMetadata;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+/**
+ * Benchmark for <code>AS4IncomingHandler.parseAS4Message</code>. The message is built once per trial and read from disk for every
+ * invocation. Signature verification and decryption are not part of parsing -
+ * see {@link RequestHandlerRoundTripBenchmark} for that.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@State (Scope.Benchmark)
+@BenchmarkMode (Mode.AverageTime)
+@OutputTimeUnit (TimeUnit.MILLISECONDS)
+@Warmup (iterations = 3, time = 2)
+@Measurement (iterations = 5, time = 2)
+@Fork (value = 1, jvmArgsAppend = "-Xmx2g")
+public class ParseAS4MessageBenchmark extends AbstractAS4BenchmarkState
+{
+  @Param ({ "PLAIN", "SIGNED", "SIGNED_ENCRYPTED" })
+  public EAS4BenchmarkSecurity m_eSecurity;
+
+  @Param ({ "1", "10" })
+  public int m_nAttachmentCount;
+
+  @Param ({ "1024", "1048576", "104857600" })
+  public long m_nAttachmentSize;
+
+  private File m_aMessageFile;
+  private HttpHeaderMap m_aHttpHeaders;
+
+  @Setup (Level.Trial)
+  public void setUp () throws Exception
+  {
+    m_aMessageFile = new File (m_aWorkDir, "parse-" + m_eSecurity + "-" + m_nAttachmentCount + "-" + m_nAttachmentSize + ".msg");
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final ICommonsList <File> aAttachments = AS4BenchmarkHelper.createAttachmentFiles (m_aWorkDir,
+                                                                                         m_nAttachmentCount,
+                                                                                         m_nAttachmentSize);
+      final AS4ClientUserMessage aClient = AS4BenchmarkHelper.createUserMessage (aResHelper,
+                                                                                 m_aCryptoFactory,
+                                                                                 m_eSecurity,
+                                                                                 aAttachments);
+      m_aHttpHeaders = AS4BenchmarkHelper.buildMessageToFile (aClient, m_aMessageFile);
+    }
+  }
+
+  @Benchmark
+  public void parseMessage (final Blackhole aBH) throws Exception
+  {
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      AS4IncomingHandler.parseAS4Message (IAS4IncomingAttachmentFactory.DEFAULT_INSTANCE,
+                                          aResHelper,
+                                          new AS4IncomingMessageMetadata (EAS4MessageMode.REQUEST),
+                                          FileHelper.getBufferedInputStream (m_aMessageFile),
+                                          m_aHttpHeaders.getClone (),
+                                          (aHttpHeaders, aSoapDocument, eSoapVersion, aIncomingAttachments) -> {
+                                            aBH.consume (aSoapDocument);
+                                            aBH.consume (aIncomingAttachments.size ());
+                                          },
+                                          null);
+    }
+  }
+}
@@ -0,0 +1,226 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Node;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.http.HttpHeaderMap;
+import com.helger.commons.io.IHasInputStream;
+import com.helger.commons.io.file.FileHelper;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.io.stream.NullOutputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.mime.IMimeType;
+import com.helger.phase4.attachment.IAS4IncomingAttachmentFactory;
+import com.helger.phase4.attachment.WSS4JAttachment;
+import com.helger.phase4.client.AS4ClientUserMessage;
+import com.helger.phase4.ebms3header.Ebms3Error;
+import com.helger.phase4.ebms3header.Ebms3SignalMessage;
+import com.helger.phase4.ebms3header.Ebms3UserMessage;
+import com.helger.phase4.messaging.EAS4MessageMode;
+import com.helger.phase4.messaging.IAS4IncomingMessageMetadata;
+import com.helger.phase4.mgr.MetaAS4Manager;
+import com.helger.phase4.model.pmode.DefaultPMode;
+import com.helger.phase4.model.pmode.IPMode;
+import com.helger.phase4.model.pmode.resolve.DefaultPModeResolver;
+import com.helger.phase4.model.pmode.resolve.IPModeResolver;
+import com.helger.phase4.servlet.AS4IncomingMessageMetadata;
+import com.helger.phase4.servlet.AS4RequestHandler;
+import com.helger.phase4.servlet.IAS4MessageState;
+import com.helger.phase4.servlet.IAS4ResponseAbstraction;
+import com.helger.phase4.servlet.spi.AS4MessageProcessorResult;
+import com.helger.phase4.servlet.spi.AS4SignalMessageProcessorResult;
+import com.helger.phase4.servlet.spi.IAS4ServletMessageProcessorSPI;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+/**
+ * Benchmark for a full {@link AS4RequestHandler} round-trip: parsing,
+ * signature verification, decryption, processing of all attachments and
+ * creation of the synchronous receipt. The incoming message is built once per
+ * trial and the duplicate manager is cleared before every invocation, so that
+ * the same message can be received over and over again.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@State (Scope.Benchmark)
+@BenchmarkMode (Mode.AverageTime)
+@OutputTimeUnit (TimeUnit.MILLISECONDS)
+@Warmup (iterations = 3, time = 2)
+@Measurement (iterations = 5, time = 2)
+@Fork (value = 1, jvmArgsAppend = "-Xmx2g")
+public class RequestHandlerRoundTripBenchmark extends AbstractAS4BenchmarkState
+{
+  /**
+   * Message processor SPI that reads all attachments and returns success.
+   */
+  private static final class DrainingProcessorSPI implements IAS4ServletMessageProcessorSPI
+  {
+    @Nonnull
+    public AS4MessageProcessorResult processAS4UserMessage (@Nonnull final IAS4IncomingMessageMetadata aMessageMetadata,
+                                                            @Nonnull final HttpHeaderMap aHttpHeaders,
+                                                            @Nonnull final Ebms3UserMessage aUserMessage,
+                                                            @Nonnull final IPMode aPMode,
+                                                            final Node aPayload,
+                                                            final ICommonsList <WSS4JAttachment> aIncomingAttachments,
+                                                            @Nonnull final IAS4MessageState aState,
+                                                            @Nonnull final ICommonsList <Ebms3Error> aProcessingErrorMessages)
+    {
+      if (aIncomingAttachments != null)
+        for (final WSS4JAttachment aAttachment : aIncomingAttachments)
+          StreamHelper.copyInputStreamToOutputStream (aAttachment.getSourceStream (), new NullOutputStream ());
+      return AS4MessageProcessorResult.createSuccess ();
+    }
+
+    @Nonnull
+    public AS4SignalMessageProcessorResult processAS4SignalMessage (@Nonnull final IAS4IncomingMessageMetadata aMessageMetadata,
+                                                                    @Nonnull final HttpHeaderMap aHttpHeaders,
+                                                                    @Nonnull final Ebms3SignalMessage aSignalMessage,
+                                                                    final IPMode aPMode,
+                                                                    @Nonnull final IAS4MessageState aState,
+                                                                    @Nonnull final ICommonsList <Ebms3Error> aProcessingErrorMessages)
+    {
+      return AS4SignalMessageProcessorResult.createSuccess ();
+    }
+  }
+
+  /**
+   * Response that keeps the response bytes in memory.
+   */
+  private static final class BenchmarkResponse implements IAS4ResponseAbstraction
+  {
+    private int m_nStatus = 200;
+    private byte [] m_aContent;
+
+    public void setContent (@Nonnull final byte [] aBytes, @Nonnull final Charset aCharset)
+    {
+      m_aContent = aBytes;
+    }
+
+    public void setContent (@Nonnull final HttpHeaderMap aHeaderMap, @Nonnull final IHasInputStream aHasIS)
+    {
+      try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ())
+      {
+        StreamHelper.copyInputStreamToOutputStream (aHasIS.getInputStream (), aBAOS);
+        m_aContent = aBAOS.toByteArray ();
+      }
+    }
+
+    public void setMimeType (@Nonnull final IMimeType aMimeType)
+    {}
+
+    public void setStatus (final int nStatusCode)
+    {
+      m_nStatus = nStatusCode;
+    }
+  }
+
+  @Param ({ "PLAIN", "SIGNED", "SIGNED_ENCRYPTED" })
+  public EAS4BenchmarkSecurity m_eSecurity;
+
+  @Param ({ "1", "10" })
+  public int m_nAttachmentCount;
+
+  @Param ({ "1024", "1048576", "104857600" })
+  public long m_nAttachmentSize;
+
+  private final IPModeResolver m_aPModeResolver = new DefaultPModeResolver (true);
+  private final ICommonsList <IAS4ServletMessageProcessorSPI> m_aProcessors = new CommonsArrayList <> (new DrainingProcessorSPI ());
+  private File m_aMessageFile;
+  private HttpHeaderMap m_aHttpHeaders;
+
+  @Setup (Level.Trial)
+  public void setUp () throws Exception
+  {
+    // Ensure the PMode referenced by the messages exists
+    DefaultPMode.getOrCreateDefaultPMode (AS4BenchmarkHelper.INITIATOR_ID, AS4BenchmarkHelper.RESPONDER_ID, null, true);
+
+    m_aMessageFile = new File (m_aWorkDir,
+                               "roundtrip-" + m_eSecurity + "-" + m_nAttachmentCount + "-" + m_nAttachmentSize + ".msg");
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final ICommonsList <File> aAttachments = AS4BenchmarkHelper.createAttachmentFiles (m_aWorkDir,
+                                                                                         m_nAttachmentCount,
+                                                                                         m_nAttachmentSize);
+      final AS4ClientUserMessage aClient = AS4BenchmarkHelper.createUserMessage (aResHelper,
+                                                                                 m_aCryptoFactory,
+                                                                                 m_eSecurity,
+                                                                                 aAttachments);
+      m_aHttpHeaders = AS4BenchmarkHelper.buildMessageToFile (aClient, m_aMessageFile);
+    }
+
+    // Make sure we measure the success path and not the error handling
+    final BenchmarkResponse aResponse = _handle ();
+    final String sResponse = aResponse.m_aContent == null ? "" : new String (aResponse.m_aContent, StandardCharsets.UTF_8);
+    if (aResponse.m_nStatus != 200 || !sResponse.contains ("Receipt") || sResponse.contains ("Error"))
+      throw new IllegalStateException ("Round-trip did not create a receipt. Status " + aResponse.m_nStatus + ": " + sResponse);
+  }
+
+  @Setup (Level.Invocation)
+  public void clearDuplicates ()
+  {
+    // The same message ID is received repeatedly
+    MetaAS4Manager.getIncomingDuplicateMgr ().clearCache ();
+  }
+
+  @Nonnull
+  private BenchmarkResponse _handle () throws Exception
+  {
+    final BenchmarkResponse aResponse = new BenchmarkResponse ();
+    try (final AS4RequestHandler aHandler = new AS4RequestHandler (m_aCryptoFactory,
+                                                                   m_aPModeResolver,
+                                                                   IAS4IncomingAttachmentFactory.DEFAULT_INSTANCE,
+                                                                   new AS4IncomingMessageMetadata (EAS4MessageMode.REQUEST));
+         final InputStream aIS = FileHelper.getBufferedInputStream (m_aMessageFile))
+    {
+      if (aIS == null)
+        throw new IOException ("Failed to open '" + m_aMessageFile.getAbsolutePath () + "'");
+      aHandler.setProcessorSupplier ( () -> m_aProcessors);
+      aHandler.handleRequest (aIS, m_aHttpHeaders.getClone (), aResponse);
+    }
+    return aResponse;
+  }
+
+  @Benchmark
+  public byte [] roundTrip () throws Exception
+  {
+    return _handle ().m_aContent;
+  }
+}
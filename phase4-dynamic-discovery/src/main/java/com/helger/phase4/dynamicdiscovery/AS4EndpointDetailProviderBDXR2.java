@@ -18,6 +18,9 @@ package com.helger.phase4.dynamicdiscovery;
 
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -51,9 +54,12 @@ public class AS4EndpointDetailProviderBDXR2 implements IAS4EndpointDetailProvide
   public static final ISMPTransportProfile DEFAULT_TRANSPORT_PROFILE = ESMPTransportProfile.TRANSPORT_PROFILE_BDXR_AS4;
 
   private static final Logger LOGGER = LoggerFactory.getLogger (AS4EndpointDetailProviderBDXR2.class);
+  private static final AS4EndpointLookupCache <EndpointType> SHARED_ENDPOINT_CACHE = new AS4EndpointLookupCache <> (AS4EndpointDetailProviderBDXR2::_getExpiration,
+                                                                                                                     EndpointType::clone);
 
   private final IBDXR2ServiceMetadataProvider m_aSMPClient;
   private ISMPTransportProfile m_aTP = DEFAULT_TRANSPORT_PROFILE;
+  private AS4EndpointLookupCache <EndpointType> m_aEndpointCache;
   private EndpointType m_aEndpoint;
 
   public AS4EndpointDetailProviderBDXR2 (@Nonnull final IBDXR2ServiceMetadataProvider aSMPClient)
@@ -99,6 +105,35 @@ public class AS4EndpointDetailProviderBDXR2 implements IAS4EndpointDetailProvide
     return this;
   }
 
+  /**
+   * @return The endpoint cache to be used. May be <code>null</code>.
+   * @since 1.3.2
+   */
+  @Nullable
+  public final AS4EndpointLookupCache <EndpointType> getEndpointCache ()
+  {
+    return m_aEndpointCache;
+  }
+
+  /**
+   * Set the endpoint cache to be used. By default no cache is used and every
+   * instance performs its own SMP lookup. This only has an effect if it is
+   * called prior to
+   * {@link #init(IDocumentTypeIdentifier, IProcessIdentifier, IParticipantIdentifier)}.
+   *
+   * @param aEndpointCache
+   *        The cache to be used. May be <code>null</code>.
+   * @return this for chaining.
+   * @see #getSharedEndpointCache()
+   * @since 1.3.2
+   */
+  @Nonnull
+  public final AS4EndpointDetailProviderBDXR2 setEndpointCache (@Nullable final AS4EndpointLookupCache <EndpointType> aEndpointCache)
+  {
+    m_aEndpointCache = aEndpointCache;
+    return this;
+  }
+
   /**
    * @return The endpoint resolved. May only be non-<code>null</code> if
    *         {@link #init(IDocumentTypeIdentifier, IProcessIdentifier, IParticipantIdentifier)}
@@ -134,7 +169,15 @@ public class AS4EndpointDetailProviderBDXR2 implements IAS4EndpointDetailProvide
       // Perform SMP lookup
       try
       {
-        m_aEndpoint = m_aSMPClient.getEndpoint (aReceiverID, aDocTypeID, aProcID, m_aTP);
+        if (m_aEndpointCache != null)
+          m_aEndpoint = m_aEndpointCache.getOrLoad (AS4EndpointLookupKey.create (AS4EndpointLookupKey.getSMPID (m_aSMPClient),
+                                                                                            aReceiverID,
+                                                                                            aDocTypeID,
+                                                                                            aProcID,
+                                                                                            m_aTP),
+                                                    () -> m_aSMPClient.getEndpoint (aReceiverID, aDocTypeID, aProcID, m_aTP));
+        else
+          m_aEndpoint = m_aSMPClient.getEndpoint (aReceiverID, aDocTypeID, aProcID, m_aTP);
         if (m_aEndpoint == null)
           throw new Phase4SMPException ("Failed to resolve SMP endpoint (" +
                                         aReceiverID.getURIEncoded () +
@@ -195,4 +238,22 @@ public class AS4EndpointDetailProviderBDXR2 implements IAS4EndpointDetailProvide
       throw new Phase4Exception ("Failed to determine the destination URL from the SMP endpoint: " + m_aEndpoint);
     return sDestURL;
   }
+
+  @Nullable
+  private static Instant _getExpiration (@Nonnull final EndpointType aEndpoint)
+  {
+    final LocalDate aDate = aEndpoint.getExpirationDateValueLocal ();
+    return aDate == null ? null : aDate.atStartOfDay ().toInstant (ZoneOffset.UTC);
+  }
+
+  /**
+   * @return The process-wide endpoint cache for this SMP specification, with
+   *         default settings. Never <code>null</code>.
+   * @since 1.3.2
+   */
+  @Nonnull
+  public static AS4EndpointLookupCache <EndpointType> getSharedEndpointCache ()
+  {
+    return SHARED_ENDPOINT_CACHE;
+  }
 }
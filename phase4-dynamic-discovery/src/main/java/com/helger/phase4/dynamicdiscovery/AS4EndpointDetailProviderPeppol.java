@@ -18,6 +18,7 @@ package com.helger.phase4.dynamicdiscovery;
 
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.time.Instant;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -27,12 +28,15 @@ import org.slf4j.LoggerFactory;
 
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.datetime.XMLOffsetDateTime;
 import com.helger.commons.string.StringHelper;
 import com.helger.peppol.smp.ESMPTransportProfile;
 import com.helger.peppol.smp.ISMPTransportProfile;
 import com.helger.peppolid.IDocumentTypeIdentifier;
 import com.helger.peppolid.IParticipantIdentifier;
 import com.helger.peppolid.IProcessIdentifier;
+import com.helger.phase4.crypto.AS4CertificateInternPool;
+import com.helger.phase4.crypto.AS4InternedCertificate;
 import com.helger.phase4.util.Phase4Exception;
 import com.helger.smpclient.exception.SMPClientException;
 import com.helger.smpclient.peppol.ISMPServiceMetadataProvider;
@@ -51,9 +55,12 @@ public class AS4EndpointDetailProviderPeppol implements IAS4EndpointDetailProvid
   public static final ISMPTransportProfile DEFAULT_TRANSPORT_PROFILE = ESMPTransportProfile.TRANSPORT_PROFILE_PEPPOL_AS4_V2;
 
   private static final Logger LOGGER = LoggerFactory.getLogger (AS4EndpointDetailProviderPeppol.class);
+  private static final AS4EndpointLookupCache <EndpointType> SHARED_ENDPOINT_CACHE = new AS4EndpointLookupCache <> (AS4EndpointDetailProviderPeppol::_getExpiration,
+                                                                                                                     EndpointType::clone);
 
   private final ISMPServiceMetadataProvider m_aSMPClient;
   private ISMPTransportProfile m_aTP = DEFAULT_TRANSPORT_PROFILE;
+  private AS4EndpointLookupCache <EndpointType> m_aEndpointCache;
   private EndpointType m_aEndpoint;
 
   public AS4EndpointDetailProviderPeppol (@Nonnull final ISMPServiceMetadataProvider aSMPClient)
@@ -99,6 +106,35 @@ public class AS4EndpointDetailProviderPeppol implements IAS4EndpointDetailProvid
     return this;
   }
 
+  /**
+   * @return The endpoint cache to be used. May be <code>null</code>.
+   * @since 1.3.2
+   */
+  @Nullable
+  public final AS4EndpointLookupCache <EndpointType> getEndpointCache ()
+  {
+    return m_aEndpointCache;
+  }
+
+  /**
+   * Set the endpoint cache to be used. By default no cache is used and every
+   * instance performs its own SMP lookup. This only has an effect if it is
+   * called prior to
+   * {@link #init(IDocumentTypeIdentifier, IProcessIdentifier, IParticipantIdentifier)}.
+   *
+   * @param aEndpointCache
+   *        The cache to be used. May be <code>null</code>.
+   * @return this for chaining.
+   * @see #getSharedEndpointCache()
+   * @since 1.3.2
+   */
+  @Nonnull
+  public final AS4EndpointDetailProviderPeppol setEndpointCache (@Nullable final AS4EndpointLookupCache <EndpointType> aEndpointCache)
+  {
+    m_aEndpointCache = aEndpointCache;
+    return this;
+  }
+
   /**
    * @return The endpoint resolved. May only be non-<code>null</code> if
    *         {@link #init(IDocumentTypeIdentifier, IProcessIdentifier, IParticipantIdentifier)}
@@ -134,7 +170,15 @@ public class AS4EndpointDetailProviderPeppol implements IAS4EndpointDetailProvid
       // Perform SMP lookup
       try
       {
-        m_aEndpoint = m_aSMPClient.getEndpoint (aReceiverID, aDocTypeID, aProcID, m_aTP);
+        if (m_aEndpointCache != null)
+          m_aEndpoint = m_aEndpointCache.getOrLoad (AS4EndpointLookupKey.create (AS4EndpointLookupKey.getSMPID (m_aSMPClient),
+                                                                                            aReceiverID,
+                                                                                            aDocTypeID,
+                                                                                            aProcID,
+                                                                                            m_aTP),
+                                                    () -> m_aSMPClient.getEndpoint (aReceiverID, aDocTypeID, aProcID, m_aTP));
+        else
+          m_aEndpoint = m_aSMPClient.getEndpoint (aReceiverID, aDocTypeID, aProcID, m_aTP);
         if (m_aEndpoint == null)
           throw new Phase4SMPException ("Failed to resolve SMP endpoint (" +
                                         aReceiverID.getURIEncoded () +
@@ -178,7 +222,9 @@ public class AS4EndpointDetailProviderPeppol implements IAS4EndpointDetailProvid
   {
     try
     {
-      return SMPClientReadOnly.getEndpointCertificate (m_aEndpoint);
+      // Each distinct certificate is parsed only once
+      final AS4InternedCertificate aCert = AS4CertificateInternPool.getDefaultInstance ().intern (m_aEndpoint.getCertificate ());
+      return aCert == null ? null : aCert.getCertificate ();
     }
     catch (final CertificateException ex)
     {
@@ -193,6 +239,24 @@ public class AS4EndpointDetailProviderPeppol implements IAS4EndpointDetailProvid
     final String sDestURL = SMPClientReadOnly.getEndpointAddress (m_aEndpoint);
     if (StringHelper.hasNoText (sDestURL))
       throw new Phase4Exception ("Failed to determine the destination URL from the SMP endpoint: " + m_aEndpoint);
-    return sDestURL;
+    return AS4CertificateInternPool.getDefaultInstance ().internEndpointURL (sDestURL);
+  }
+
+  @Nullable
+  private static Instant _getExpiration (@Nonnull final EndpointType aEndpoint)
+  {
+    final XMLOffsetDateTime aDT = aEndpoint.getServiceExpirationDate ();
+    return aDT == null ? null : aDT.toInstant ();
+  }
+
+  /**
+   * @return The process-wide endpoint cache for this SMP specification, with
+   *         default settings. Never <code>null</code>.
+   * @since 1.3.2
+   */
+  @Nonnull
+  public static AS4EndpointLookupCache <EndpointType> getSharedEndpointCache ()
+  {
+    return SHARED_ENDPOINT_CACHE;
   }
 }
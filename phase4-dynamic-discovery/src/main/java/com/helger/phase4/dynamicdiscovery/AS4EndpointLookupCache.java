@@ -0,0 +1,488 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dynamicdiscovery;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.map.LRUMap;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.concurrent.ExecutorServiceHelper;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.functional.IThrowingSupplier;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * A size bounded cache for resolved SMP endpoints that may be shared between
+ * multiple {@link IAS4EndpointDetailProvider} instances. Features:
+ * <ul>
+ * <li>Positive results are cached for a configurable time, but never beyond
+ * the expiration date of the endpoint itself.</li>
+ * <li>Negative results (no endpoint or an SMP client error) are cached for a
+ * shorter time, to avoid hammering an SMP that has no match.</li>
+ * <li>Positive results that are about to expire are refreshed in the
+ * background, while the old value is still served.</li>
+ * <li>Hit, miss and eviction counters.</li>
+ * </ul>
+ * The keys contain the SMP identity, so a cache may be shared between
+ * providers using different SMPs or SMLs. If a value copier is provided,
+ * callers always receive a copy of the cached value, so that modifications
+ * don't affect other callers.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ * @param <T>
+ *        The endpoint type, depending on the SMP specification
+ */
+@ThreadSafe
+public class AS4EndpointLookupCache <T> implements AutoCloseable
+{
+  public static final int DEFAULT_MAX_SIZE = 10_000;
+  public static final Duration DEFAULT_TTL = Duration.ofHours (1);
+  public static final Duration DEFAULT_NEGATIVE_TTL = Duration.ofMinutes (1);
+  public static final int DEFAULT_REFRESH_AHEAD_PERCENTAGE = 80;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4EndpointLookupCache.class);
+
+  private static final class CacheEntry <T>
+  {
+    private final T m_aValue;
+    private final Exception m_aException;
+    // Postponed after a failed refresh
+    private volatile long m_nRefreshAfterMS;
+    private final long m_nExpiresMS;
+    private final AtomicBoolean m_aRefreshing = new AtomicBoolean (false);
+
+    CacheEntry (@Nullable final T aValue, @Nullable final Exception aException, final long nRefreshAfterMS, final long nExpiresMS)
+    {
+      m_aValue = aValue;
+      m_aException = aException;
+      m_nRefreshAfterMS = nRefreshAfterMS;
+      m_nExpiresMS = nExpiresMS;
+    }
+
+    boolean isPositive ()
+    {
+      return m_aValue != null;
+    }
+  }
+
+  private final Duration m_aTTL;
+  private final Duration m_aNegativeTTL;
+  private final int m_nRefreshAheadPercentage;
+  private final Function <? super T, Instant> m_aExpirationExtractor;
+  private final UnaryOperator <T> m_aValueCopier;
+  private final SimpleLock m_aLock = new SimpleLock ();
+  @GuardedBy ("m_aLock")
+  private final LRUMap <AS4EndpointLookupKey, CacheEntry <T>> m_aMap;
+  private final ExecutorService m_aRefreshExecutor;
+  private final AtomicLong m_aHitCount = new AtomicLong ();
+  private final AtomicLong m_aNegativeHitCount = new AtomicLong ();
+  private final AtomicLong m_aMissCount = new AtomicLong ();
+  private final AtomicLong m_aRefreshCount = new AtomicLong ();
+  private final AtomicLong m_aEvictionCount = new AtomicLong ();
+
+  /**
+   * Constructor with default settings.
+   *
+   * @param aExpirationExtractor
+   *        An optional function to extract the expiration date of an endpoint.
+   *        May be <code>null</code>. If the function returns <code>null</code>
+   *        the endpoint is considered to not expire.
+   */
+  public AS4EndpointLookupCache (@Nullable final Function <? super T, Instant> aExpirationExtractor)
+  {
+    this (aExpirationExtractor, null);
+  }
+
+  /**
+   * Constructor with default settings.
+   *
+   * @param aExpirationExtractor
+   *        An optional function to extract the expiration date of an endpoint.
+   *        May be <code>null</code>. If the function returns <code>null</code>
+   *        the endpoint is considered to not expire.
+   * @param aValueCopier
+   *        An optional function to create a copy of a cached value, before it
+   *        is returned to the caller. May be <code>null</code> in which case
+   *        the cached value itself is returned.
+   */
+  public AS4EndpointLookupCache (@Nullable final Function <? super T, Instant> aExpirationExtractor,
+                                 @Nullable final UnaryOperator <T> aValueCopier)
+  {
+    this (DEFAULT_MAX_SIZE,
+          DEFAULT_TTL,
+          DEFAULT_NEGATIVE_TTL,
+          DEFAULT_REFRESH_AHEAD_PERCENTAGE,
+          aExpirationExtractor,
+          aValueCopier);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param nMaxSize
+   *        The maximum number of entries in the cache. Must be &gt; 0. If the
+   *        cache is full, the least recently used entry is evicted.
+   * @param aTTL
+   *        The time to live of positive results. May not be <code>null</code>.
+   * @param aNegativeTTL
+   *        The time to live of negative results. May not be <code>null</code>.
+   * @param nRefreshAheadPercentage
+   *        The percentage of the TTL after which a positive result is
+   *        refreshed in the background upon access. Must be between 1 and 100.
+   *        Use 100 to disable background refreshing.
+   * @param aExpirationExtractor
+   *        An optional function to extract the expiration date of an endpoint.
+   *        May be <code>null</code>. If the function returns <code>null</code>
+   *        the endpoint is considered to not expire.
+   */
+  public AS4EndpointLookupCache (@Nonnegative final int nMaxSize,
+                                 @Nonnull final Duration aTTL,
+                                 @Nonnull final Duration aNegativeTTL,
+                                 @Nonnegative final int nRefreshAheadPercentage,
+                                 @Nullable final Function <? super T, Instant> aExpirationExtractor)
+  {
+    this (nMaxSize, aTTL, aNegativeTTL, nRefreshAheadPercentage, aExpirationExtractor, null);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param nMaxSize
+   *        The maximum number of entries in the cache. Must be &gt; 0. If the
+   *        cache is full, the least recently used entry is evicted.
+   * @param aTTL
+   *        The time to live of positive results. May not be <code>null</code>.
+   * @param aNegativeTTL
+   *        The time to live of negative results. May not be <code>null</code>.
+   * @param nRefreshAheadPercentage
+   *        The percentage of the TTL after which a positive result is
+   *        refreshed in the background upon access. Must be between 1 and 100.
+   *        Use 100 to disable background refreshing.
+   * @param aExpirationExtractor
+   *        An optional function to extract the expiration date of an endpoint.
+   *        May be <code>null</code>. If the function returns <code>null</code>
+   *        the endpoint is considered to not expire.
+   * @param aValueCopier
+   *        An optional function to create a copy of a cached value, before it
+   *        is returned to the caller. May be <code>null</code> in which case
+   *        the cached value itself is returned.
+   */
+  public AS4EndpointLookupCache (@Nonnegative final int nMaxSize,
+                                 @Nonnull final Duration aTTL,
+                                 @Nonnull final Duration aNegativeTTL,
+                                 @Nonnegative final int nRefreshAheadPercentage,
+                                 @Nullable final Function <? super T, Instant> aExpirationExtractor,
+                                 @Nullable final UnaryOperator <T> aValueCopier)
+  {
+    ValueEnforcer.isGT0 (nMaxSize, "MaxSize");
+    ValueEnforcer.notNull (aTTL, "TTL");
+    ValueEnforcer.isFalse (aTTL.isNegative (), "TTL may not be negative");
+    ValueEnforcer.notNull (aNegativeTTL, "NegativeTTL");
+    ValueEnforcer.isFalse (aNegativeTTL.isNegative (), "NegativeTTL may not be negative");
+    ValueEnforcer.isBetweenInclusive (nRefreshAheadPercentage, "RefreshAheadPercentage", 1, 100);
+    m_aTTL = aTTL;
+    m_aNegativeTTL = aNegativeTTL;
+    m_nRefreshAheadPercentage = nRefreshAheadPercentage;
+    m_aExpirationExtractor = aExpirationExtractor;
+    m_aValueCopier = aValueCopier;
+    m_aMap = new LRUMap <AS4EndpointLookupKey, CacheEntry <T>> (nMaxSize)
+    {
+      @Override
+      protected void onRemoveEldestEntry (@Nonnegative final int nSize, @Nonnull final Map.Entry <AS4EndpointLookupKey, CacheEntry <T>> aEntry)
+      {
+        m_aEvictionCount.incrementAndGet ();
+      }
+    };
+    final ThreadPoolExecutor aExecutor = new ThreadPoolExecutor (1,
+                                                                 1,
+                                                                 60,
+                                                                 TimeUnit.SECONDS,
+                                                                 new LinkedBlockingQueue <> (),
+                                                                 new BasicThreadFactory.Builder ().namingPattern ("phase4-smp-refresh-%d")
+                                                                                                  .daemon (true)
+                                                                                                  .build ());
+    aExecutor.allowCoreThreadTimeOut (true);
+    m_aRefreshExecutor = aExecutor;
+  }
+
+  /**
+   * @return The current time in milliseconds. Overridable for testing.
+   */
+  protected long getCurrentTimeMillis ()
+  {
+    return System.currentTimeMillis ();
+  }
+
+  @Nonnull
+  private CacheEntry <T> _createEntry (@Nullable final T aValue, @Nullable final Exception aException, final long nNowMS)
+  {
+    if (aValue == null)
+    {
+      // Negative result
+      final long nExpiresMS = nNowMS + m_aNegativeTTL.toMillis ();
+      return new CacheEntry <> (null, aException, nExpiresMS, nExpiresMS);
+    }
+
+    long nExpiresMS = nNowMS + m_aTTL.toMillis ();
+    if (m_aExpirationExtractor != null)
+    {
+      final Instant aEndpointExpiration = m_aExpirationExtractor.apply (aValue);
+      if (aEndpointExpiration != null)
+        nExpiresMS = Math.min (nExpiresMS, aEndpointExpiration.toEpochMilli ());
+    }
+    final long nRefreshAfterMS = nNowMS + (nExpiresMS - nNowMS) * m_nRefreshAheadPercentage / 100;
+    return new CacheEntry <> (aValue, null, nRefreshAfterMS, nExpiresMS);
+  }
+
+  @Nonnull
+  private <EX extends Exception> CacheEntry <T> _load (@Nonnull final IThrowingSupplier <? extends T, EX> aLoader)
+  {
+    T aValue = null;
+    Exception aException = null;
+    try
+    {
+      aValue = aLoader.get ();
+    }
+    catch (final RuntimeException ex)
+    {
+      // Don't cache programming errors
+      throw ex;
+    }
+    catch (final Exception ex)
+    {
+      aException = ex;
+    }
+    return _createEntry (aValue, aException, getCurrentTimeMillis ());
+  }
+
+  @Nullable
+  @SuppressWarnings ("unchecked")
+  private <EX extends Exception> T _unwrap (@Nonnull final CacheEntry <T> aEntry) throws EX
+  {
+    if (aEntry.m_aException != null)
+      throw (EX) aEntry.m_aException;
+    final T aValue = aEntry.m_aValue;
+    // Never hand out the cached object itself, if possible
+    return aValue != null && m_aValueCopier != null ? m_aValueCopier.apply (aValue) : aValue;
+  }
+
+  private <EX extends Exception> void _refreshInBackground (@Nonnull final AS4EndpointLookupKey aKey,
+                                                            @Nonnull final CacheEntry <T> aOldEntry,
+                                                            @Nonnull final IThrowingSupplier <? extends T, EX> aLoader)
+  {
+    try
+    {
+      m_aRefreshExecutor.execute ( () -> {
+        try
+        {
+          final CacheEntry <T> aNewEntry = _load (aLoader);
+          if (aNewEntry.isPositive ())
+          {
+            m_aRefreshCount.incrementAndGet ();
+            m_aLock.locked ( () -> m_aMap.put (aKey, aNewEntry));
+          }
+          else
+          {
+            // Keep serving the old value until it expires, but don't retry
+            // before the negative TTL passed
+            aOldEntry.m_nRefreshAfterMS = getCurrentTimeMillis () + m_aNegativeTTL.toMillis ();
+            LOGGER.warn ("Background refresh of SMP endpoint " + aKey + " failed - keeping the old value");
+          }
+        }
+        catch (final RuntimeException ex)
+        {
+          aOldEntry.m_nRefreshAfterMS = getCurrentTimeMillis () + m_aNegativeTTL.toMillis ();
+          LOGGER.error ("Error in background refresh of SMP endpoint " + aKey, ex);
+        }
+        finally
+        {
+          // Allow the next refresh, if the old entry is still in use
+          aOldEntry.m_aRefreshing.set (false);
+        }
+      });
+    }
+    catch (final RejectedExecutionException ex)
+    {
+      // Cache was closed
+      aOldEntry.m_aRefreshing.set (false);
+    }
+  }
+
+  /**
+   * Get the cached value for the provided key or resolve it with the provided
+   * loader.
+   *
+   * @param <EX>
+   *        The exception type that may be thrown by the loader
+   * @param aKey
+   *        The cache key. May not be <code>null</code>.
+   * @param aLoader
+   *        The loader to be used on a cache miss or for refreshing. May not be
+   *        <code>null</code>.
+   * @return The cached or loaded value. May be <code>null</code> if the loader
+   *         returned <code>null</code>, or if a negative result is cached.
+   * @throws EX
+   *         If the loader threw an exception, or if a previous loader
+   *         exception is cached.
+   */
+  @Nullable
+  public <EX extends Exception> T getOrLoad (@Nonnull final AS4EndpointLookupKey aKey,
+                                             @Nonnull final IThrowingSupplier <? extends T, EX> aLoader) throws EX
+  {
+    ValueEnforcer.notNull (aKey, "Key");
+    ValueEnforcer.notNull (aLoader, "Loader");
+
+    final long nNowMS = getCurrentTimeMillis ();
+    final CacheEntry <T> aEntry = m_aLock.lockedGet ( () -> m_aMap.get (aKey));
+    if (aEntry != null && nNowMS < aEntry.m_nExpiresMS)
+    {
+      if (aEntry.isPositive ())
+      {
+        m_aHitCount.incrementAndGet ();
+        if (nNowMS >= aEntry.m_nRefreshAfterMS && aEntry.m_aRefreshing.compareAndSet (false, true))
+          _refreshInBackground (aKey, aEntry, aLoader);
+      }
+      else
+        m_aNegativeHitCount.incrementAndGet ();
+      return _unwrap (aEntry);
+    }
+
+    m_aMissCount.incrementAndGet ();
+    final CacheEntry <T> aNewEntry = _load (aLoader);
+    m_aLock.locked ( () -> m_aMap.put (aKey, aNewEntry));
+    return _unwrap (aNewEntry);
+  }
+
+  /**
+   * Remove the entry with the provided key.
+   *
+   * @param aKey
+   *        The key to remove. May be <code>null</code>.
+   */
+  public void remove (@Nullable final AS4EndpointLookupKey aKey)
+  {
+    if (aKey != null)
+      m_aLock.locked ( () -> m_aMap.remove (aKey));
+  }
+
+  /**
+   * Remove all entries.
+   */
+  public void clear ()
+  {
+    m_aLock.locked (m_aMap::clear);
+  }
+
+  /**
+   * @return The number of entries currently in the cache, including expired
+   *         ones.
+   */
+  @Nonnegative
+  public int size ()
+  {
+    return m_aLock.lockedInt (m_aMap::size);
+  }
+
+  /**
+   * @return The number of lookups answered with a cached positive result.
+   */
+  @Nonnegative
+  public final long getHitCount ()
+  {
+    return m_aHitCount.get ();
+  }
+
+  /**
+   * @return The number of lookups answered with a cached negative result.
+   */
+  @Nonnegative
+  public final long getNegativeHitCount ()
+  {
+    return m_aNegativeHitCount.get ();
+  }
+
+  /**
+   * @return The number of lookups that required a synchronous SMP query.
+   */
+  @Nonnegative
+  public final long getMissCount ()
+  {
+    return m_aMissCount.get ();
+  }
+
+  /**
+   * @return The number of successful background refreshes.
+   */
+  @Nonnegative
+  public final long getRefreshCount ()
+  {
+    return m_aRefreshCount.get ();
+  }
+
+  /**
+   * @return The number of entries evicted because the cache was full.
+   */
+  @Nonnegative
+  public final long getEvictionCount ()
+  {
+    return m_aEvictionCount.get ();
+  }
+
+  /**
+   * Stop the background refresh thread.
+   */
+  public void close ()
+  {
+    ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (m_aRefreshExecutor);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("TTL", m_aTTL)
+                                       .append ("NegativeTTL", m_aNegativeTTL)
+                                       .append ("RefreshAheadPercentage", m_nRefreshAheadPercentage)
+                                       .append ("HitCount", getHitCount ())
+                                       .append ("NegativeHitCount", getNegativeHitCount ())
+                                       .append ("MissCount", getMissCount ())
+                                       .append ("RefreshCount", getRefreshCount ())
+                                       .append ("EvictionCount", getEvictionCount ())
+                                       .getToString ();
+  }
+}
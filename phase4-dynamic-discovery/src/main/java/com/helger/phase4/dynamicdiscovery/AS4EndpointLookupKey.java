@@ -0,0 +1,197 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dynamicdiscovery;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.hashcode.HashCodeGenerator;
+import com.helger.commons.hashcode.IHashCodeGenerator;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.peppol.smp.ISMPTransportProfile;
+import com.helger.peppolid.IDocumentTypeIdentifier;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.peppolid.IProcessIdentifier;
+import com.helger.phase4.util.AS4InstanceIDHelper;
+import com.helger.smpclient.httpclient.AbstractGenericSMPClient;
+
+/**
+ * The key for the {@link AS4EndpointLookupCache}, consisting of the SMP
+ * identity, receiver, document type, process and transport profile. The SMP
+ * identity ensures, that lookups performed with different SMP locators don't
+ * share their results.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@Immutable
+public final class AS4EndpointLookupKey
+{
+  private final String m_sSMPID;
+  private final String m_sReceiverID;
+  private final String m_sDocTypeID;
+  private final String m_sProcessID;
+  private final String m_sTransportProfileID;
+  // status vars
+  private transient int m_nHashCode = IHashCodeGenerator.ILLEGAL_HASHCODE;
+
+  public AS4EndpointLookupKey (@Nonnull @Nonempty final String sSMPID,
+                               @Nonnull @Nonempty final String sReceiverID,
+                               @Nonnull @Nonempty final String sDocTypeID,
+                               @Nonnull @Nonempty final String sProcessID,
+                               @Nonnull @Nonempty final String sTransportProfileID)
+  {
+    ValueEnforcer.notEmpty (sSMPID, "SMPID");
+    ValueEnforcer.notEmpty (sReceiverID, "ReceiverID");
+    ValueEnforcer.notEmpty (sDocTypeID, "DocTypeID");
+    ValueEnforcer.notEmpty (sProcessID, "ProcessID");
+    ValueEnforcer.notEmpty (sTransportProfileID, "TransportProfileID");
+    m_sSMPID = sSMPID;
+    m_sReceiverID = sReceiverID;
+    m_sDocTypeID = sDocTypeID;
+    m_sProcessID = sProcessID;
+    m_sTransportProfileID = sTransportProfileID;
+  }
+
+  /**
+   * @return The identity of the SMP or SML used for the lookup. Neither
+   *         <code>null</code> nor empty.
+   */
+  @Nonnull
+  @Nonempty
+  public String getSMPID ()
+  {
+    return m_sSMPID;
+  }
+
+  /**
+   * @return The URI encoded receiver participant ID. Neither <code>null</code>
+   *         nor empty.
+   */
+  @Nonnull
+  @Nonempty
+  public String getReceiverID ()
+  {
+    return m_sReceiverID;
+  }
+
+  /**
+   * @return The URI encoded document type ID. Neither <code>null</code> nor
+   *         empty.
+   */
+  @Nonnull
+  @Nonempty
+  public String getDocTypeID ()
+  {
+    return m_sDocTypeID;
+  }
+
+  /**
+   * @return The URI encoded process ID. Neither <code>null</code> nor empty.
+   */
+  @Nonnull
+  @Nonempty
+  public String getProcessID ()
+  {
+    return m_sProcessID;
+  }
+
+  /**
+   * @return The transport profile ID. Neither <code>null</code> nor empty.
+   */
+  @Nonnull
+  @Nonempty
+  public String getTransportProfileID ()
+  {
+    return m_sTransportProfileID;
+  }
+
+  @Override
+  public boolean equals (final Object o)
+  {
+    if (o == this)
+      return true;
+    if (o == null || !getClass ().equals (o.getClass ()))
+      return false;
+    final AS4EndpointLookupKey rhs = (AS4EndpointLookupKey) o;
+    return m_sSMPID.equals (rhs.m_sSMPID) &&
+           m_sReceiverID.equals (rhs.m_sReceiverID) &&
+           m_sDocTypeID.equals (rhs.m_sDocTypeID) &&
+           m_sProcessID.equals (rhs.m_sProcessID) &&
+           m_sTransportProfileID.equals (rhs.m_sTransportProfileID);
+  }
+
+  @Override
+  public int hashCode ()
+  {
+    int ret = m_nHashCode;
+    if (ret == IHashCodeGenerator.ILLEGAL_HASHCODE)
+      ret = m_nHashCode = new HashCodeGenerator (this).append (m_sSMPID)
+                                                      .append (m_sReceiverID)
+                                                      .append (m_sDocTypeID)
+                                                      .append (m_sProcessID)
+                                                      .append (m_sTransportProfileID)
+                                                      .getHashCode ();
+    return ret;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("SMPID", m_sSMPID)
+                                       .append ("ReceiverID", m_sReceiverID)
+                                       .append ("DocTypeID", m_sDocTypeID)
+                                       .append ("ProcessID", m_sProcessID)
+                                       .append ("TransportProfileID", m_sTransportProfileID)
+                                       .getToString ();
+  }
+
+  /**
+   * Get the SMP identity of the provided SMP client to be used in the key.
+   * Clients using a fixed SMP are identified by their SMP URL, all other
+   * clients by a unique ID per instance, so that they never share results.
+   *
+   * @param aSMPClient
+   *        The SMP client used for the lookup. May not be <code>null</code>.
+   * @return The SMP identity and never <code>null</code>.
+   */
+  @Nonnull
+  @Nonempty
+  public static String getSMPID (@Nonnull final Object aSMPClient)
+  {
+    ValueEnforcer.notNull (aSMPClient, "SMPClient");
+    if (aSMPClient instanceof AbstractGenericSMPClient <?>)
+      return "smp:" + ((AbstractGenericSMPClient <?>) aSMPClient).getSMPHostURI ();
+    return "instance:" + AS4InstanceIDHelper.getInstanceID (aSMPClient);
+  }
+
+  @Nonnull
+  public static AS4EndpointLookupKey create (@Nonnull @Nonempty final String sSMPID,
+                                             @Nonnull final IParticipantIdentifier aReceiverID,
+                                             @Nonnull final IDocumentTypeIdentifier aDocTypeID,
+                                             @Nonnull final IProcessIdentifier aProcID,
+                                             @Nonnull final ISMPTransportProfile aTP)
+  {
+    return new AS4EndpointLookupKey (sSMPID,
+                                     aReceiverID.getURIEncoded (),
+                                     aDocTypeID.getURIEncoded (),
+                                     aProcID.getURIEncoded (),
+                                     aTP.getID ());
+  }
+}
@@ -0,0 +1,335 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dynamicdiscovery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+
+import com.helger.commons.datetime.PDTFactory;
+import com.helger.commons.datetime.XMLOffsetDateTime;
+import com.helger.peppol.smp.ISMPTransportProfile;
+import com.helger.peppolid.IDocumentTypeIdentifier;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.peppolid.IProcessIdentifier;
+import com.helger.peppolid.factory.PeppolIdentifierFactory;
+import com.helger.smpclient.exception.SMPClientException;
+import com.helger.smpclient.exception.SMPClientNotFoundException;
+import com.helger.smpclient.peppol.ISMPServiceMetadataProvider;
+import com.helger.xsds.peppol.smp1.EndpointType;
+import com.helger.xsds.peppol.smp1.SignedServiceMetadataType;
+
+/**
+ * Test class for class {@link AS4EndpointLookupCache}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4EndpointLookupCacheTest
+{
+  private static final IDocumentTypeIdentifier DOCTYPE = PeppolIdentifierFactory.INSTANCE.createDocumentTypeIdentifierWithDefaultScheme ("doctype");
+  private static final IProcessIdentifier PROCESS = PeppolIdentifierFactory.INSTANCE.createProcessIdentifierWithDefaultScheme ("process");
+
+  /**
+   * An in-JVM SMP stand-in that counts the lookups.
+   */
+  private static final class MockSMP implements ISMPServiceMetadataProvider
+  {
+    private final AtomicInteger m_aLookups = new AtomicInteger ();
+    private volatile EndpointType m_aEndpoint = new EndpointType ();
+    private volatile SMPClientException m_aException;
+
+    public SignedServiceMetadataType getServiceMetadataOrNull (final IParticipantIdentifier aServiceGroupID,
+                                                               final IDocumentTypeIdentifier aDocumentTypeID)
+    {
+      throw new UnsupportedOperationException ();
+    }
+
+    @Override
+    public EndpointType getEndpoint (final IParticipantIdentifier aServiceGroupID,
+                                     final IDocumentTypeIdentifier aDocumentTypeID,
+                                     final IProcessIdentifier aProcessID,
+                                     final ISMPTransportProfile aTransportProfile) throws SMPClientException
+    {
+      m_aLookups.incrementAndGet ();
+      if (m_aException != null)
+        throw m_aException;
+      return m_aEndpoint;
+    }
+  }
+
+  private static final class TestCache extends AS4EndpointLookupCache <EndpointType>
+  {
+    private final AtomicLong m_aNow = new AtomicLong (1_000_000);
+
+    TestCache (final int nMaxSize)
+    {
+      super (nMaxSize,
+             Duration.ofMinutes (10),
+             Duration.ofMinutes (1),
+             100,
+             x -> x.getServiceExpirationDate () == null ? null : x.getServiceExpirationDate ().toInstant ());
+    }
+
+    @Override
+    protected long getCurrentTimeMillis ()
+    {
+      return m_aNow.get ();
+    }
+
+    void advance (@Nonnull final Duration aDuration)
+    {
+      m_aNow.addAndGet (aDuration.toMillis ());
+    }
+  }
+
+  @Nonnull
+  private static IParticipantIdentifier _pid (@Nonnull final String sValue)
+  {
+    return PeppolIdentifierFactory.INSTANCE.createParticipantIdentifierWithDefaultScheme (sValue);
+  }
+
+  @Nonnull
+  private static EndpointType _lookup (@Nonnull final MockSMP aSMP,
+                                       @Nonnull final AS4EndpointLookupCache <EndpointType> aCache,
+                                       @Nonnull final String sReceiver) throws Exception
+  {
+    final AS4EndpointDetailProviderPeppol aProvider = new AS4EndpointDetailProviderPeppol (aSMP).setEndpointCache (aCache);
+    aProvider.init (DOCTYPE, PROCESS, _pid (sReceiver));
+    return aProvider.getEndpoint ();
+  }
+
+  @Test
+  public void testHitAndExpiry () throws Exception
+  {
+    final MockSMP aSMP = new MockSMP ();
+    try (final TestCache aCache = new TestCache (100))
+    {
+      final EndpointType e1 = _lookup (aSMP, aCache, "9915:a");
+      assertSame (e1, _lookup (aSMP, aCache, "9915:a"));
+      assertSame (e1, _lookup (aSMP, aCache, "9915:a"));
+      assertEquals (1, aSMP.m_aLookups.get ());
+      assertEquals (1, aCache.getMissCount ());
+      assertEquals (2, aCache.getHitCount ());
+
+      // Different key
+      _lookup (aSMP, aCache, "9915:b");
+      assertEquals (2, aSMP.m_aLookups.get ());
+
+      // TTL expired
+      aCache.advance (Duration.ofMinutes (11));
+      _lookup (aSMP, aCache, "9915:a");
+      assertEquals (3, aSMP.m_aLookups.get ());
+    }
+  }
+
+  @Test
+  public void testEndpointExpirationLimitsTTL () throws Exception
+  {
+    final MockSMP aSMP = new MockSMP ();
+    try (final TestCache aCache = new TestCache (100))
+    {
+      final EndpointType aEndpoint = new EndpointType ();
+      aEndpoint.setServiceExpirationDate (XMLOffsetDateTime.of (PDTFactory.createOffsetDateTime (aCache.getCurrentTimeMillis () +
+                                                                                                 Duration.ofMinutes (2).toMillis ())));
+      aSMP.m_aEndpoint = aEndpoint;
+      _lookup (aSMP, aCache, "9915:a");
+      aCache.advance (Duration.ofMinutes (1));
+      _lookup (aSMP, aCache, "9915:a");
+      assertEquals (1, aSMP.m_aLookups.get ());
+      aCache.advance (Duration.ofMinutes (2));
+      _lookup (aSMP, aCache, "9915:a");
+      assertEquals (2, aSMP.m_aLookups.get ());
+    }
+  }
+
+  @Test
+  public void testNegativeCaching () throws Exception
+  {
+    final MockSMP aSMP = new MockSMP ();
+    aSMP.m_aException = new SMPClientNotFoundException (new UnknownHostException ("smp.example.org"));
+    try (final TestCache aCache = new TestCache (100))
+    {
+      for (int i = 0; i < 3; ++i)
+        try
+        {
+          _lookup (aSMP, aCache, "9915:a");
+          fail ();
+        }
+        catch (final Phase4SMPException ex)
+        {
+          // expected
+          assertNotNull (ex.getCause ());
+        }
+      assertEquals (1, aSMP.m_aLookups.get ());
+      assertEquals (2, aCache.getNegativeHitCount ());
+
+      // Negative TTL expired
+      aSMP.m_aException = null;
+      aCache.advance (Duration.ofMinutes (2));
+      assertNotNull (_lookup (aSMP, aCache, "9915:a"));
+      assertEquals (2, aSMP.m_aLookups.get ());
+    }
+  }
+
+  @Test
+  public void testEviction () throws Exception
+  {
+    final MockSMP aSMP = new MockSMP ();
+    try (final TestCache aCache = new TestCache (2))
+    {
+      _lookup (aSMP, aCache, "9915:a");
+      _lookup (aSMP, aCache, "9915:b");
+      _lookup (aSMP, aCache, "9915:c");
+      assertEquals (2, aCache.size ());
+      assertEquals (1, aCache.getEvictionCount ());
+
+      // "a" was evicted
+      _lookup (aSMP, aCache, "9915:a");
+      assertEquals (4, aSMP.m_aLookups.get ());
+    }
+  }
+
+  @Test
+  public void testBackgroundRefresh () throws Exception
+  {
+    final MockSMP aSMP = new MockSMP ();
+    try (final AS4EndpointLookupCache <EndpointType> aCache = new AS4EndpointLookupCache <> (10,
+                                                                                            Duration.ofMillis (200),
+                                                                                            Duration.ofMinutes (1),
+                                                                                            1,
+                                                                                            null))
+    {
+      final EndpointType e1 = _lookup (aSMP, aCache, "9915:a");
+      final EndpointType e2 = new EndpointType ();
+      aSMP.m_aEndpoint = e2;
+      Thread.sleep (20);
+
+      // Still served from the cache, but a refresh is triggered
+      assertSame (e1, _lookup (aSMP, aCache, "9915:a"));
+      int nWait = 0;
+      while (aCache.getRefreshCount () == 0 && nWait++ < 500)
+        Thread.sleep (10);
+      assertEquals (1, aCache.getRefreshCount ());
+      assertSame (e2, _lookup (aSMP, aCache, "9915:a"));
+      assertEquals (1, aCache.getMissCount ());
+    }
+  }
+
+  @Test
+  public void testNoCache () throws Exception
+  {
+    final MockSMP aSMP = new MockSMP ();
+    final AS4EndpointDetailProviderPeppol aProvider = new AS4EndpointDetailProviderPeppol (aSMP);
+    assertNull (aProvider.getEndpointCache ());
+    aProvider.init (DOCTYPE, PROCESS, _pid ("9915:a"));
+    new AS4EndpointDetailProviderPeppol (aSMP).init (DOCTYPE, PROCESS, _pid ("9915:a"));
+    assertEquals (2, aSMP.m_aLookups.get ());
+    assertNotNull (AS4EndpointDetailProviderPeppol.getSharedEndpointCache ());
+  }
+
+  @Test
+  public void testRefreshRetriedAfterFailure () throws Exception
+  {
+    final MockSMP aSMP = new MockSMP ();
+    try (final AS4EndpointLookupCache <EndpointType> aCache = new AS4EndpointLookupCache <> (10,
+                                                                                            Duration.ofSeconds (10),
+                                                                                            Duration.ZERO,
+                                                                                            1,
+                                                                                            null))
+    {
+      final EndpointType e1 = _lookup (aSMP, aCache, "9915:a");
+      aSMP.m_aException = new SMPClientNotFoundException (new UnknownHostException ("smp.example.org"));
+      Thread.sleep (200);
+
+      // Failing refresh
+      assertSame (e1, _lookup (aSMP, aCache, "9915:a"));
+      int nWait = 0;
+      while (aSMP.m_aLookups.get () < 2 && nWait++ < 500)
+        Thread.sleep (10);
+      assertEquals (2, aSMP.m_aLookups.get ());
+      Thread.sleep (50);
+
+      // The next access triggers a new refresh
+      final EndpointType e2 = new EndpointType ();
+      aSMP.m_aEndpoint = e2;
+      aSMP.m_aException = null;
+      assertSame (e1, _lookup (aSMP, aCache, "9915:a"));
+      nWait = 0;
+      while (aCache.getRefreshCount () == 0 && nWait++ < 500)
+        Thread.sleep (10);
+      assertEquals (1, aCache.getRefreshCount ());
+      assertSame (e2, _lookup (aSMP, aCache, "9915:a"));
+    }
+  }
+
+  @Test
+  public void testDifferentSMPsDontShare () throws Exception
+  {
+    final MockSMP aSMP1 = new MockSMP ();
+    final MockSMP aSMP2 = new MockSMP ();
+    try (final TestCache aCache = new TestCache (100))
+    {
+      assertSame (aSMP1.m_aEndpoint, _lookup (aSMP1, aCache, "9915:a"));
+      assertSame (aSMP2.m_aEndpoint, _lookup (aSMP2, aCache, "9915:a"));
+      assertEquals (1, aSMP1.m_aLookups.get ());
+      assertEquals (1, aSMP2.m_aLookups.get ());
+      assertEquals (2, aCache.size ());
+    }
+  }
+
+  @Test
+  public void testValueCopier () throws Exception
+  {
+    final MockSMP aSMP = new MockSMP ();
+    aSMP.m_aEndpoint.setServiceDescription ("original");
+    try (final AS4EndpointLookupCache <EndpointType> aCache = new AS4EndpointLookupCache <> (null, EndpointType::clone))
+    {
+      final EndpointType e1 = _lookup (aSMP, aCache, "9915:a");
+      assertNotSame (aSMP.m_aEndpoint, e1);
+      assertEquals (aSMP.m_aEndpoint, e1);
+
+      // Modifications don't affect the cache
+      e1.setServiceDescription ("modified");
+      final EndpointType e2 = _lookup (aSMP, aCache, "9915:a");
+      assertNotSame (e1, e2);
+      assertEquals ("original", e2.getServiceDescription ());
+      assertEquals (1, aSMP.m_aLookups.get ());
+    }
+  }
+
+  @Test
+  public void testSMPIDPerInstance ()
+  {
+    final MockSMP aSMP1 = new MockSMP ();
+    final MockSMP aSMP2 = new MockSMP ();
+    assertEquals (AS4EndpointLookupKey.getSMPID (aSMP1), AS4EndpointLookupKey.getSMPID (aSMP1));
+    assertNotEquals (AS4EndpointLookupKey.getSMPID (aSMP1), AS4EndpointLookupKey.getSMPID (aSMP2));
+  }
+}
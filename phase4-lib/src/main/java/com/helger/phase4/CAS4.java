@@ -61,6 +61,14 @@ public final class CAS4
   public static final String ORIGINAL_SENDER = "originalSender";
   public static final String FINAL_RECIPIENT = "finalRecipient";
 
+  /**
+   * The HTTP header of a pull request, that contains the number of seconds
+   * the client is willing to wait for a message.
+   *
+   * @since 1.3.2
+   */
+  public static final String HTTP_HEADER_PULL_WAIT = "X-phase4-Pull-Wait";
+
   // Defaults
   public static final String DEFAULT_ROLE = "http://docs.oasis-open.org/ebxml-msg/ebms/v3.0/ns/core/200704/defaultRole";
   public static final String DEFAULT_RESPONDER_URL = "http://docs.oasis-open.org/ebxml-msg/ebms/v3.0/ns/core/200704/responder";
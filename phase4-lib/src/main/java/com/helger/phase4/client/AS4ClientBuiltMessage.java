@@ -49,6 +49,26 @@ public final class AS4ClientBuiltMessage
     m_aCustomHeaders = null;
   }
 
+  /**
+   * Constructor for an XML message with additional HTTP headers.
+   *
+   * @param sMessageID
+   *        The AS4 message ID. May neither be <code>null</code> nor empty.
+   * @param aHttpEntity
+   *        The HTTP entity to send. May not be <code>null</code>.
+   * @param aCustomHeaders
+   *        The additional HTTP headers to send. May be <code>null</code>.
+   * @since 1.3.2
+   */
+  public AS4ClientBuiltMessage (@Nonnull @Nonempty final String sMessageID,
+                                @Nonnull final HttpXMLEntity aHttpEntity,
+                                @Nullable final HttpHeaderMap aCustomHeaders)
+  {
+    m_sMessageID = ValueEnforcer.notEmpty (sMessageID, "MessageID");
+    m_aHttpEntity = ValueEnforcer.notNull (aHttpEntity, "HttpEntity");
+    m_aCustomHeaders = aCustomHeaders == null ? null : aCustomHeaders.getClone ();
+  }
+
   public AS4ClientBuiltMessage (@Nonnull @Nonempty final String sMessageID,
                                 @Nonnull final HttpMimeMessageEntity aHttpEntity) throws MessagingException
   {
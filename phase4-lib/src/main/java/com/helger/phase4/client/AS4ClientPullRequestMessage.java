@@ -16,6 +16,8 @@
  */
 package com.helger.phase4.client;
 
+import java.time.Duration;
+
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.WillNotClose;
@@ -23,8 +25,11 @@ import javax.annotation.WillNotClose;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.w3c.dom.Document;
 
+import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.http.HttpHeaderMap;
 import com.helger.commons.string.StringHelper;
+import com.helger.phase4.CAS4;
 import com.helger.phase4.crypto.IAS4CryptoFactory;
 import com.helger.phase4.ebms3header.Ebms3MessageInfo;
 import com.helger.phase4.http.HttpXMLEntity;
@@ -42,6 +47,7 @@ import com.helger.phase4.util.AS4ResourceHelper;
 public class AS4ClientPullRequestMessage extends AbstractAS4ClientSignalMessage <AS4ClientPullRequestMessage>
 {
   private String m_sMPC;
+  private Duration m_aPullWait;
 
   public AS4ClientPullRequestMessage (@Nonnull @WillNotClose final AS4ResourceHelper aResHelper)
   {
@@ -61,6 +67,39 @@ public class AS4ClientPullRequestMessage extends AbstractAS4ClientSignalMessage
     return this;
   }
 
+  /**
+   * @return The duration the server should wait for a message, if none is
+   *         available. May be <code>null</code>.
+   * @since 1.3.2
+   */
+  @Nullable
+  public final Duration getPullWait ()
+  {
+    return m_aPullWait;
+  }
+
+  /**
+   * Set the duration the server should wait for a message, if none is
+   * available (long polling). This is transmitted in the HTTP header
+   * {@link CAS4#HTTP_HEADER_PULL_WAIT} with second precision, and is only
+   * considered by phase4 servers that have long polling enabled. Make sure the
+   * socket timeout of the HTTP client exceeds this duration.
+   *
+   * @param aPullWait
+   *        The wait duration. May be <code>null</code> to not wait. Must not
+   *        be negative.
+   * @return this for chaining
+   * @since 1.3.2
+   */
+  @Nonnull
+  public final AS4ClientPullRequestMessage setPullWait (@Nullable final Duration aPullWait)
+  {
+    if (aPullWait != null)
+      ValueEnforcer.isFalse (aPullWait.isNegative (), "PullWait may not be negative");
+    m_aPullWait = aPullWait;
+    return this;
+  }
+
   private void _checkMandatoryAttributes ()
   {
     if (getSoapVersion () == null)
@@ -113,7 +152,14 @@ public class AS4ClientPullRequestMessage extends AbstractAS4ClientSignalMessage
       aDoc = aSignedDoc;
     }
 
+    HttpHeaderMap aCustomHeaders = null;
+    if (m_aPullWait != null && m_aPullWait.getSeconds () > 0)
+    {
+      aCustomHeaders = new HttpHeaderMap ();
+      aCustomHeaders.setHeader (CAS4.HTTP_HEADER_PULL_WAIT, Long.toString (m_aPullWait.getSeconds ()));
+    }
+
     // Wrap SOAP XML
-    return new AS4ClientBuiltMessage (sMessageID, new HttpXMLEntity (aDoc, getSoapVersion ().getMimeType ()));
+    return new AS4ClientBuiltMessage (sMessageID, new HttpXMLEntity (aDoc, getSoapVersion ().getMimeType ()), aCustomHeaders);
   }
 }
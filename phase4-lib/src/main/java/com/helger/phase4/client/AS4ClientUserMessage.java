@@ -19,6 +19,7 @@ package com.helger.phase4.client;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.security.cert.X509Certificate;
 import java.util.function.Function;
 
 import javax.annotation.Nonnull;
@@ -27,6 +28,8 @@ import javax.annotation.WillNotClose;
 import javax.annotation.concurrent.NotThreadSafe;
 import javax.mail.MessagingException;
 
+import org.apache.http.HttpEntity;
+import org.apache.http.util.EntityUtils;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,7 +41,10 @@ import com.helger.commons.annotation.Nonempty;
 import com.helger.commons.annotation.ReturnsMutableObject;
 import com.helger.commons.collection.impl.CommonsArrayList;
 import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.http.CHttpHeader;
+import com.helger.commons.http.HttpHeaderMap;
 import com.helger.commons.io.file.FilenameHelper;
+import com.helger.commons.mime.CMimeType;
 import com.helger.commons.mime.IMimeType;
 import com.helger.commons.string.StringHelper;
 import com.helger.phase4.CAS4;
@@ -63,6 +69,9 @@ import com.helger.phase4.messaging.mime.AS4MimeMessage;
 import com.helger.phase4.messaging.mime.MimeMessageCreator;
 import com.helger.phase4.model.pmode.IPMode;
 import com.helger.phase4.model.pmode.leg.PModeLeg;
+import com.helger.phase4.reliability.AS4OutboundMessage;
+import com.helger.phase4.reliability.AS4OutboundMessageStoreRegistry;
+import com.helger.phase4.reliability.IAS4OutboundMessageStore;
 import com.helger.phase4.util.AS4ResourceHelper;
 import com.helger.xml.serialize.write.XMLWriter;
 
@@ -104,6 +113,7 @@ public class AS4ClientUserMessage extends AbstractAS4Client <AS4ClientUserMessag
   private boolean m_bUseLeg1 = true;
   private IPMode m_aPMode;
   private Function <AS4ClientUserMessage, String> m_aPModeIDFactory = x -> x.getFromPartyID () + "-" + x.getToPartyID ();
+  private IAS4OutboundMessageStore m_aOutboundMessageStore;
 
   public AS4ClientUserMessage (@Nonnull @WillNotClose final AS4ResourceHelper aResHelper)
   {
@@ -562,6 +572,74 @@ public class AS4ClientUserMessage extends AbstractAS4Client <AS4ClientUserMessag
     return this;
   }
 
+  /**
+   * @return The outbound message store in which all sent messages are tracked
+   *         until a Receipt is received. May be <code>null</code>.
+   * @since 1.3.2
+   */
+  @Nullable
+  public final IAS4OutboundMessageStore getOutboundMessageStore ()
+  {
+    return m_aOutboundMessageStore;
+  }
+
+  /**
+   * Set the outbound message store in which all sent messages are tracked
+   * until a Receipt is received. The retransmission parameters are taken from
+   * the reception awareness of the P-Mode set.
+   *
+   * @param aOutboundMessageStore
+   *        The store to use. May be <code>null</code> to not track messages.
+   * @return this for chaining
+   * @since 1.3.2
+   */
+  @Nonnull
+  public final AS4ClientUserMessage setOutboundMessageStore (@Nullable final IAS4OutboundMessageStore aOutboundMessageStore)
+  {
+    m_aOutboundMessageStore = aOutboundMessageStore;
+    return this;
+  }
+
+  @Override
+  protected boolean isRepeatableEntityRequired ()
+  {
+    // The entity is read for tracking
+    return m_aOutboundMessageStore != null;
+  }
+
+  @Override
+  protected void onBeforeSendMessage (@Nonnull final String sURL,
+                                      @Nonnull final AS4ClientBuiltMessage aBuiltMsg,
+                                      @Nonnull final HttpEntity aHttpEntity) throws IOException
+  {
+    if (m_aOutboundMessageStore != null)
+    {
+      final HttpHeaderMap aCustomHeaders = aBuiltMsg.getCustomHeaders ();
+      String sContentType = aHttpEntity.getContentType () != null ? aHttpEntity.getContentType ().getValue () : null;
+      if (StringHelper.hasNoText (sContentType) && aCustomHeaders != null)
+        sContentType = aCustomHeaders.getFirstHeaderValue (CHttpHeader.CONTENT_TYPE);
+      if (StringHelper.hasNoText (sContentType))
+        sContentType = CMimeType.APPLICATION_OCTET_STREAM.getAsString ();
+
+      // Only signals signed with the receiver certificate are accepted
+      final X509Certificate aReceiverCert = cryptParams ().getCertificate ();
+      final AS4OutboundMessage aMessage = AS4OutboundMessage.createForPMode (aBuiltMsg.getMessageID (),
+                                                                             m_aPMode,
+                                                                             sURL,
+                                                                             aReceiverCert == null ? null
+                                                                                                   : AS4OutboundMessage.getCertificateID (aReceiverCert),
+                                                                             sContentType,
+                                                                             aCustomHeaders);
+      if (aMessage != null)
+      {
+        AS4OutboundMessageStoreRegistry.registerStore (m_aOutboundMessageStore);
+        m_aOutboundMessageStore.track (aMessage, EntityUtils.toByteArray (aHttpEntity));
+      }
+      else
+        LOGGER.info ("Not tracking message '" + aBuiltMsg.getMessageID () + "' because reception awareness is disabled");
+    }
+  }
+
   private void _checkMandatoryAttributes ()
   {
     if (StringHelper.hasNoText (m_sAction))
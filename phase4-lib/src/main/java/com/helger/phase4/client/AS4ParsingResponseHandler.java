@@ -0,0 +1,169 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.WillClose;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ResponseHandler;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.httpclient.response.ResponseHandlerHttpEntity;
+import com.helger.phase4.util.Phase4Exception;
+
+/**
+ * A {@link ResponseHandler} that parses the AS4 response directly from the
+ * HTTP response stream, instead of reading it into a byte array first. This
+ * avoids keeping the complete response on the heap.<br>
+ * Parsing errors are not propagated as {@link IOException}s, because that
+ * would trigger an HTTP retry of the already successfully sent message.
+ * Instead they are remembered and can be rethrown with
+ * {@link #checkParseException()} after the transmission finished.
+ *
+ * @author Philip Helger
+ * @param <T>
+ *        The parsed response type
+ * @since 1.3.2
+ */
+@NotThreadSafe
+public class AS4ParsingResponseHandler <T> implements ResponseHandler <T>
+{
+  /**
+   * The parser for the response stream.
+   *
+   * @param <T>
+   *        The parsed response type
+   */
+  @FunctionalInterface
+  public interface IResponseParser <T>
+  {
+    /**
+     * Parse the response.
+     *
+     * @param aHttpResponse
+     *        The HTTP response to take the headers from. Never
+     *        <code>null</code>.
+     * @param aResponseIS
+     *        The non-empty response stream. Must be closed by the parser.
+     *        Never <code>null</code>.
+     * @return The parsed object. May be <code>null</code>.
+     * @throws Phase4Exception
+     *         In case parsing fails
+     */
+    @Nullable
+    T parse (@Nonnull HttpResponse aHttpResponse, @Nonnull @WillClose InputStream aResponseIS) throws Phase4Exception;
+  }
+
+  private final IResponseParser <T> m_aParser;
+  private boolean m_bResponseEmpty = true;
+  private Phase4Exception m_aParseException;
+
+  public AS4ParsingResponseHandler (@Nonnull final IResponseParser <T> aParser)
+  {
+    ValueEnforcer.notNull (aParser, "Parser");
+    m_aParser = aParser;
+  }
+
+  /**
+   * @return <code>true</code> if the last response had no or an empty body.
+   */
+  public final boolean isResponseEmpty ()
+  {
+    return m_bResponseEmpty;
+  }
+
+  /**
+   * @return The exception that occurred parsing the last response or
+   *         <code>null</code> if there was none.
+   */
+  @Nullable
+  public final Phase4Exception getParseException ()
+  {
+    return m_aParseException;
+  }
+
+  /**
+   * Rethrow the exception that occurred parsing the last response, if any.
+   *
+   * @throws Phase4Exception
+   *         The exception from parsing
+   */
+  public final void checkParseException () throws Phase4Exception
+  {
+    if (m_aParseException != null)
+      throw m_aParseException;
+  }
+
+  @Nullable
+  public T handleResponse (@Nonnull final HttpResponse aHttpResponse) throws IOException
+  {
+    // The handler is invoked once per HTTP retry
+    m_bResponseEmpty = true;
+    m_aParseException = null;
+
+    // throws an ExtendedHttpResponseException on exception
+    final HttpEntity aEntity = ResponseHandlerHttpEntity.INSTANCE.handleResponse (aHttpResponse);
+    if (aEntity == null)
+      return null;
+
+    final InputStream aContentIS = aEntity.getContent ();
+    if (aContentIS == null)
+      return null;
+
+    // Closing the content stream releases the connection
+    final PushbackInputStream aIS = new PushbackInputStream (aContentIS);
+    try
+    {
+      // Chunked responses don't have a content length
+      final int nFirstByte = aIS.read ();
+      if (nFirstByte < 0)
+        return null;
+      aIS.unread (nFirstByte);
+      m_bResponseEmpty = false;
+
+      return m_aParser.parse (aHttpResponse, aIS);
+    }
+    catch (final Phase4Exception ex)
+    {
+      m_aParseException = ex;
+      return null;
+    }
+    finally
+    {
+      StreamHelper.close (aIS);
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("Parser", m_aParser)
+                                       .append ("ResponseEmpty", m_bResponseEmpty)
+                                       .append ("ParseException", m_aParseException)
+                                       .getToString ();
+  }
+}
@@ -412,6 +412,41 @@ public abstract class AbstractAS4Client <IMPLTYPE extends AbstractAS4Client <IMP
                                                                                                           WSSecurityException,
                                                                                                           MessagingException;
 
+  /**
+   * @return <code>true</code> if the built HTTP entity must be repeatable,
+   *         independent of the retry and dumping settings. This is e.g. the
+   *         case if the entity is read in
+   *         {@link #onBeforeSendMessage(String, AS4ClientBuiltMessage, HttpEntity)}.
+   *         The default is <code>false</code>.
+   * @since 1.3.2
+   */
+  protected boolean isRepeatableEntityRequired ()
+  {
+    return false;
+  }
+
+  /**
+   * Callback method that is invoked after the message was built and before it
+   * is sent. Override this method to e.g. remember the message for later
+   * retransmission. The default implementation does nothing.
+   *
+   * @param sURL
+   *        The URL the message is sent to. Never <code>null</code>.
+   * @param aBuiltMsg
+   *        The built message. Never <code>null</code>.
+   * @param aHttpEntity
+   *        The HTTP entity that is sent. It is repeatable, if
+   *        {@link #isRepeatableEntityRequired()} returns <code>true</code>.
+   *        Never <code>null</code>.
+   * @throws IOException
+   *         in case of an error
+   * @since 1.3.2
+   */
+  protected void onBeforeSendMessage (@Nonnull final String sURL,
+                                      @Nonnull final AS4ClientBuiltMessage aBuiltMsg,
+                                      @Nonnull final HttpEntity aHttpEntity) throws IOException
+  {}
+
   /**
    * Send the AS4 client message created by
    * {@link #buildMessage(String, IAS4ClientBuildMessageCallback)} to the
@@ -459,12 +494,17 @@ public abstract class AbstractAS4Client <IMPLTYPE extends AbstractAS4Client <IMP
     HttpEntity aBuiltEntity = aBuiltMsg.getHttpEntity ();
     final HttpHeaderMap aBuiltHttpHeaders = aBuiltMsg.getCustomHeaders ();
 
-    if (m_aHttpRetrySettings.isRetryEnabled () || aOutgoingDumper != null || AS4DumpManager.getOutgoingDumper () != null)
+    if (m_aHttpRetrySettings.isRetryEnabled () ||
+        aOutgoingDumper != null ||
+        AS4DumpManager.getOutgoingDumper () != null ||
+        isRepeatableEntityRequired ())
     {
       // Ensure a repeatable entity is provided
       aBuiltEntity = m_aResHelper.createRepeatableHttpEntity (aBuiltEntity);
     }
 
+    onBeforeSendMessage (sURL, aBuiltMsg, aBuiltEntity);
+
     // Keep the HTTP response status line for external evaluation
     final Wrapper <StatusLine> aStatusLineKeeper = new Wrapper <> ();
     // Keep the HTTP response headers for external evaluation
@@ -65,6 +65,33 @@ public final class AS4Configuration
 
   public static final long DEFAULT_PHASE4_INCOMING_DUPLICATEDISPOSAL_MINUTES = 10;
 
+  /**
+   * The boolean property to enable XML Schema validation of the ebMS headers
+   * of incoming messages.
+   *
+   * @since 1.3.2
+   */
+  public static final String PROPERTY_PHASE4_INCOMING_SCHEMAVALIDATION = "phase4.incoming.schemavalidation";
+  public static final boolean DEFAULT_PHASE4_INCOMING_SCHEMAVALIDATION = true;
+
+  /**
+   * The boolean property to enable XML Schema validation of the ebMS headers
+   * of outgoing messages.
+   *
+   * @since 1.3.2
+   */
+  public static final String PROPERTY_PHASE4_OUTGOING_SCHEMAVALIDATION = "phase4.outgoing.schemavalidation";
+  public static final boolean DEFAULT_PHASE4_OUTGOING_SCHEMAVALIDATION = true;
+
+  /**
+   * The boolean property to create signed receipts with non-repudiation
+   * information from pre-rendered templates instead of via JAXB.
+   *
+   * @since 1.3.2
+   */
+  public static final String PROPERTY_PHASE4_OUTGOING_RECEIPT_TEMPLATE = "phase4.outgoing.receipt.template";
+  public static final boolean DEFAULT_PHASE4_OUTGOING_RECEIPT_TEMPLATE = true;
+
   private static final Logger LOGGER = LoggerFactory.getLogger (AS4Configuration.class);
 
   /**
@@ -219,6 +246,43 @@ public final class AS4Configuration
     return StringParser.parseBool (sValue, DEFAULT_PHASE4_WSS4J_SYNCSECURITY);
   }
 
+  /**
+   * @return <code>true</code> if the ebMS headers of incoming messages should
+   *         be validated against the XML Schemas. Only disable this for
+   *         trusted traffic. Default is
+   *         {@value #DEFAULT_PHASE4_INCOMING_SCHEMAVALIDATION}.
+   * @since 1.3.2
+   */
+  public static boolean isIncomingSchemaValidation ()
+  {
+    final String sValue = getConfig ().getAsString (PROPERTY_PHASE4_INCOMING_SCHEMAVALIDATION);
+    return StringParser.parseBool (sValue, DEFAULT_PHASE4_INCOMING_SCHEMAVALIDATION);
+  }
+
+  /**
+   * @return <code>true</code> if the ebMS headers of outgoing messages should
+   *         be validated against the XML Schemas. Default is
+   *         {@value #DEFAULT_PHASE4_OUTGOING_SCHEMAVALIDATION}.
+   * @since 1.3.2
+   */
+  public static boolean isOutgoingSchemaValidation ()
+  {
+    final String sValue = getConfig ().getAsString (PROPERTY_PHASE4_OUTGOING_SCHEMAVALIDATION);
+    return StringParser.parseBool (sValue, DEFAULT_PHASE4_OUTGOING_SCHEMAVALIDATION);
+  }
+
+  /**
+   * @return <code>true</code> if receipts with non-repudiation information
+   *         should be created from pre-rendered templates. Default is
+   *         {@value #DEFAULT_PHASE4_OUTGOING_RECEIPT_TEMPLATE}.
+   * @since 1.3.2
+   */
+  public static boolean isOutgoingReceiptTemplate ()
+  {
+    final String sValue = getConfig ().getAsString (PROPERTY_PHASE4_OUTGOING_RECEIPT_TEMPLATE);
+    return StringParser.parseBool (sValue, DEFAULT_PHASE4_OUTGOING_RECEIPT_TEMPLATE);
+  }
+
   @Nullable
   public static String getAS4ProfileID ()
   {
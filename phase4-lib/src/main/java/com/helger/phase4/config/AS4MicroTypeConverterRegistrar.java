@@ -50,6 +50,8 @@ import com.helger.phase4.model.pmode.leg.PModePayloadProfile;
 import com.helger.phase4.model.pmode.leg.PModePayloadProfileMicroTypeConverter;
 import com.helger.phase4.model.pmode.leg.PModeProperty;
 import com.helger.phase4.model.pmode.leg.PModePropertyMicroTypeConverter;
+import com.helger.phase4.outbound.AS4OutboundQueueItem;
+import com.helger.phase4.outbound.AS4OutboundQueueItemMicroTypeConverter;
 import com.helger.xml.microdom.convert.IMicroTypeConverterRegistrarSPI;
 import com.helger.xml.microdom.convert.IMicroTypeConverterRegistry;
 
@@ -80,5 +82,6 @@ public final class AS4MicroTypeConverterRegistrar implements IMicroTypeConverter
     aRegistry.registerMicroElementTypeConverter (PModeReceptionAwareness.class, new PModeReceptionAwarenessMicroTypeConverter ());
     aRegistry.registerMicroElementTypeConverter (MPC.class, new MPCMicroTypeConverter ());
     aRegistry.registerMicroElementTypeConverter (AS4DuplicateItem.class, new AS4DuplicateItemMicroTypeConverter ());
+    aRegistry.registerMicroElementTypeConverter (AS4OutboundQueueItem.class, new AS4OutboundQueueItemMicroTypeConverter ());
   }
 }
@@ -0,0 +1,209 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.crypto;
+
+import java.io.IOException;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.wss4j.common.crypto.CryptoType;
+import org.apache.wss4j.common.crypto.Merlin;
+import org.apache.wss4j.common.crypto.PasswordEncryptor;
+import org.apache.wss4j.common.ext.WSSecurityException;
+
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.equals.EqualsHelper;
+
+/**
+ * A special WSS4J {@link Merlin} that caches the resolved private keys and the
+ * certificate chains per key store alias. The default {@link Merlin}
+ * implementation reads the private key from the key store for every signing
+ * and decryption operation, which is costly for password protected keys.
+ * Private keys are cached together with the password used, so that a different
+ * password is always checked by the key store. All caches are cleared when the
+ * key store or the trust store is changed.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@ThreadSafe
+public class AS4CachingMerlin extends Merlin
+{
+  /**
+   * A private key resolved by alias, together with the password that was used
+   * to resolve it.
+   */
+  private static final class CachedPrivateKey
+  {
+    private final String m_sPassword;
+    private final PrivateKey m_aKey;
+
+    CachedPrivateKey (@Nullable final String sPassword, @Nonnull final PrivateKey aKey)
+    {
+      m_sPassword = sPassword;
+      m_aKey = aKey;
+    }
+  }
+
+  private final SimpleLock m_aLock = new SimpleLock ();
+  private final Map <String, CachedPrivateKey> m_aPrivateKeyByAlias = new ConcurrentHashMap <> ();
+  private final Map <String, X509Certificate []> m_aCertChainByAlias = new ConcurrentHashMap <> ();
+
+  /**
+   * Constructor that does not load anything.
+   *
+   * @param bLoadCACerts
+   *        <code>true</code> to load the cacerts of the Java runtime as the
+   *        trust store.
+   * @param sCACertsPassword
+   *        The password of the Java runtime cacerts.
+   */
+  public AS4CachingMerlin (final boolean bLoadCACerts, @Nullable final String sCACertsPassword)
+  {
+    super (bLoadCACerts, sCACertsPassword);
+    // Merlin caches per alias only, ignoring the password
+    setEnablePrivateKeyCaching (false);
+  }
+
+  /**
+   * Constructor that loads the key store and trust store from the provided
+   * properties, like {@link Merlin} does.
+   *
+   * @param aProperties
+   *        The WSS4J Merlin properties. May be <code>null</code>.
+   * @param aClassLoader
+   *        The class loader used to resolve relative paths. May be
+   *        <code>null</code>.
+   * @param aPasswordEncryptor
+   *        The optional password encryptor. May be <code>null</code>.
+   * @throws WSSecurityException
+   *         If loading failed
+   * @throws IOException
+   *         If reading failed
+   */
+  public AS4CachingMerlin (@Nullable final Properties aProperties,
+                           @Nullable final ClassLoader aClassLoader,
+                           @Nullable final PasswordEncryptor aPasswordEncryptor) throws WSSecurityException, IOException
+  {
+    super (aProperties, aClassLoader, aPasswordEncryptor);
+  }
+
+  @Override
+  public void loadProperties (@Nullable final Properties aProperties,
+                              @Nullable final ClassLoader aClassLoader,
+                              @Nullable final PasswordEncryptor aPasswordEncryptor) throws WSSecurityException, IOException
+  {
+    super.loadProperties (aProperties, aClassLoader, aPasswordEncryptor);
+    // Merlin caches per alias only, ignoring the password
+    setEnablePrivateKeyCaching (false);
+  }
+
+  /**
+   * Remove all cached private keys and certificate chains.
+   */
+  public void clearCache ()
+  {
+    // Called from the Merlin constructor before the fields are initialized
+    if (m_aLock != null)
+      m_aLock.locked ( () -> {
+        m_aPrivateKeyByAlias.clear ();
+        m_aCertChainByAlias.clear ();
+      });
+  }
+
+  @Override
+  public void setKeyStore (@Nullable final KeyStore aKeyStore)
+  {
+    super.setKeyStore (aKeyStore);
+    clearCache ();
+  }
+
+  @Override
+  public void setTrustStore (@Nullable final KeyStore aTrustStore)
+  {
+    super.setTrustStore (aTrustStore);
+    clearCache ();
+  }
+
+  @Override
+  @Nullable
+  public X509Certificate [] getX509Certificates (@Nullable final CryptoType aCryptoType) throws WSSecurityException
+  {
+    if (aCryptoType == null || aCryptoType.getType () != CryptoType.TYPE.ALIAS || aCryptoType.getAlias () == null)
+      return super.getX509Certificates (aCryptoType);
+
+    final String sAlias = aCryptoType.getAlias ();
+    X509Certificate [] ret = m_aCertChainByAlias.get (sAlias);
+    if (ret == null)
+    {
+      ret = m_aLock.lockedGetThrowing ( () -> {
+        X509Certificate [] aChain = m_aCertChainByAlias.get (sAlias);
+        if (aChain == null)
+        {
+          aChain = super.getX509Certificates (aCryptoType);
+          // Unknown aliases are not cached
+          if (aChain != null && aChain.length > 0)
+            m_aCertChainByAlias.put (sAlias, aChain);
+        }
+        return aChain;
+      });
+      if (ret == null)
+        return null;
+    }
+    // Don't expose the cached array
+    return ret.clone ();
+  }
+
+  /**
+   * {@inheritDoc}<br>
+   * This method is also used by
+   * {@link #getPrivateKey(X509Certificate, javax.security.auth.callback.CallbackHandler)}
+   * with the password resolved by the callback handler, so the keys resolved
+   * by certificate are cached per alias and password as well.
+   */
+  @Override
+  @Nullable
+  public PrivateKey getPrivateKey (@Nonnull final String sAlias, @Nullable final String sPassword) throws WSSecurityException
+  {
+    CachedPrivateKey aEntry = m_aPrivateKeyByAlias.get (sAlias);
+    if (aEntry == null || !EqualsHelper.equals (aEntry.m_sPassword, sPassword))
+    {
+      // Not yet resolved or resolved with a different password - let the key
+      // store decide whether the password is valid
+      aEntry = m_aLock.lockedGetThrowing ( () -> {
+        final CachedPrivateKey aCached = m_aPrivateKeyByAlias.get (sAlias);
+        if (aCached != null && EqualsHelper.equals (aCached.m_sPassword, sPassword))
+          return aCached;
+        final PrivateKey aKey = super.getPrivateKey (sAlias, sPassword);
+        if (aKey == null)
+          return null;
+        final CachedPrivateKey aNew = new CachedPrivateKey (sPassword, aKey);
+        m_aPrivateKeyByAlias.put (sAlias, aNew);
+        return aNew;
+      });
+    }
+    return aEntry == null ? null : aEntry.m_aKey;
+  }
+}
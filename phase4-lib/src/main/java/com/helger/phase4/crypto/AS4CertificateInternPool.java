@@ -0,0 +1,277 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.crypto;
+
+import java.security.MessageDigest;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.map.LRUMap;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.security.certificate.CertificateHelper;
+import com.helger.security.messagedigest.EMessageDigestAlgorithm;
+
+/**
+ * A pool of parsed certificates, keyed by their SHA-256 fingerprint. SMP
+ * responses contain the endpoint certificates as strings or bytes, and
+ * parsing them into {@link X509Certificate} objects for every message is
+ * costly. With this pool each distinct certificate is parsed only once and the
+ * same instance (including cached check results) is shared. Additionally
+ * endpoint URLs can be interned.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@ThreadSafe
+public class AS4CertificateInternPool
+{
+  public static final int DEFAULT_MAX_SIZE = 10_000;
+
+  private static final AS4CertificateInternPool DEFAULT_INSTANCE = new AS4CertificateInternPool (DEFAULT_MAX_SIZE);
+
+  private final SimpleLock m_aLock = new SimpleLock ();
+  // Fast path by the original string representation
+  @GuardedBy ("m_aLock")
+  private final LRUMap <String, AS4InternedCertificate> m_aByString;
+  @GuardedBy ("m_aLock")
+  private final LRUMap <String, AS4InternedCertificate> m_aByFingerprint;
+  @GuardedBy ("m_aLock")
+  private final LRUMap <String, String> m_aEndpointURLs;
+  private final AtomicLong m_aHitCount = new AtomicLong ();
+  private final AtomicLong m_aMissCount = new AtomicLong ();
+
+  /**
+   * Constructor
+   *
+   * @param nMaxSize
+   *        The maximum number of distinct certificates. Must be &gt; 0.
+   */
+  public AS4CertificateInternPool (@Nonnegative final int nMaxSize)
+  {
+    ValueEnforcer.isGT0 (nMaxSize, "MaxSize");
+    m_aByString = new LRUMap <> (nMaxSize);
+    m_aByFingerprint = new LRUMap <> (nMaxSize);
+    m_aEndpointURLs = new LRUMap <> (nMaxSize);
+  }
+
+  /**
+   * @return The process-wide default instance. Never <code>null</code>.
+   */
+  @Nonnull
+  public static AS4CertificateInternPool getDefaultInstance ()
+  {
+    return DEFAULT_INSTANCE;
+  }
+
+  @Nonnull
+  private static String _getFingerprint (@Nonnull final byte [] aEncoded)
+  {
+    final MessageDigest aMD = EMessageDigestAlgorithm.SHA_256.createMessageDigest ();
+    return StringHelper.getHexEncoded (aMD.digest (aEncoded));
+  }
+
+  @Nonnull
+  private AS4InternedCertificate _intern (@Nonnull final X509Certificate aCert,
+                                          @Nonnull final byte [] aEncoded,
+                                          @Nonnull final String sFingerprint)
+  {
+    return m_aLock.lockedGet ( () -> {
+      final AS4InternedCertificate aExisting = m_aByFingerprint.get (sFingerprint);
+      if (aExisting != null)
+        return aExisting;
+      final AS4InternedCertificate aNew = new AS4InternedCertificate (aCert, aEncoded, sFingerprint);
+      m_aByFingerprint.put (sFingerprint, aNew);
+      return aNew;
+    });
+  }
+
+  /**
+   * Get the interned certificate of the provided string representation (PEM
+   * or plain Base64).
+   *
+   * @param sCertString
+   *        The certificate string, e.g. from an SMP response. May be
+   *        <code>null</code>.
+   * @return <code>null</code> if the string is empty or contains no
+   *         certificate.
+   * @throws CertificateException
+   *         If the certificate cannot be parsed
+   */
+  @Nullable
+  public AS4InternedCertificate intern (@Nullable final String sCertString) throws CertificateException
+  {
+    if (StringHelper.hasNoText (sCertString))
+      return null;
+
+    AS4InternedCertificate ret = m_aLock.lockedGet ( () -> m_aByString.get (sCertString));
+    if (ret != null)
+    {
+      m_aHitCount.incrementAndGet ();
+      return ret;
+    }
+
+    m_aMissCount.incrementAndGet ();
+    final X509Certificate aCert = CertificateHelper.convertStringToCertficate (sCertString);
+    if (aCert == null)
+      return null;
+    final byte [] aEncoded = aCert.getEncoded ();
+    ret = _intern (aCert, aEncoded, _getFingerprint (aEncoded));
+    final AS4InternedCertificate aFinalRet = ret;
+    m_aLock.locked ( () -> m_aByString.put (sCertString, aFinalRet));
+    return ret;
+  }
+
+  /**
+   * Get the interned certificate of the provided DER encoded bytes.
+   *
+   * @param aEncoded
+   *        The DER encoded certificate. May be <code>null</code>.
+   * @return <code>null</code> if the bytes are empty.
+   * @throws CertificateException
+   *         If the certificate cannot be parsed
+   */
+  @Nullable
+  public AS4InternedCertificate intern (@Nullable final byte [] aEncoded) throws CertificateException
+  {
+    if (aEncoded == null || aEncoded.length == 0)
+      return null;
+
+    final String sFingerprint = _getFingerprint (aEncoded);
+    final AS4InternedCertificate ret = m_aLock.lockedGet ( () -> m_aByFingerprint.get (sFingerprint));
+    if (ret != null)
+    {
+      m_aHitCount.incrementAndGet ();
+      return ret;
+    }
+
+    m_aMissCount.incrementAndGet ();
+    final X509Certificate aCert = CertificateHelper.convertByteArrayToCertficateDirect (aEncoded);
+    if (aCert == null)
+      return null;
+    return _intern (aCert, aEncoded.clone (), sFingerprint);
+  }
+
+  /**
+   * Get the interned version of the provided certificate.
+   *
+   * @param aCert
+   *        The certificate to intern. May be <code>null</code>.
+   * @return <code>null</code> if the certificate is <code>null</code>.
+   * @throws CertificateEncodingException
+   *         If the certificate cannot be encoded
+   */
+  @Nullable
+  public AS4InternedCertificate intern (@Nullable final X509Certificate aCert) throws CertificateEncodingException
+  {
+    if (aCert == null)
+      return null;
+
+    final byte [] aEncoded = aCert.getEncoded ();
+    final String sFingerprint = _getFingerprint (aEncoded);
+    final AS4InternedCertificate ret = m_aLock.lockedGet ( () -> m_aByFingerprint.get (sFingerprint));
+    if (ret != null)
+    {
+      m_aHitCount.incrementAndGet ();
+      return ret;
+    }
+
+    m_aMissCount.incrementAndGet ();
+    return _intern (aCert, aEncoded, sFingerprint);
+  }
+
+  /**
+   * Get the interned version of the provided endpoint URL, so that equal
+   * endpoint URLs share the same String instance.
+   *
+   * @param sEndpointURL
+   *        The endpoint URL. May be <code>null</code>.
+   * @return The interned endpoint URL. <code>null</code> if the parameter was
+   *         <code>null</code>.
+   */
+  @Nullable
+  public String internEndpointURL (@Nullable final String sEndpointURL)
+  {
+    if (sEndpointURL == null)
+      return null;
+    return m_aLock.lockedGet ( () -> {
+      final String ret = m_aEndpointURLs.get (sEndpointURL);
+      if (ret != null)
+        return ret;
+      m_aEndpointURLs.put (sEndpointURL, sEndpointURL);
+      return sEndpointURL;
+    });
+  }
+
+  /**
+   * @return The number of distinct certificates in the pool.
+   */
+  @Nonnegative
+  public int size ()
+  {
+    return m_aLock.lockedInt (m_aByFingerprint::size);
+  }
+
+  /**
+   * Remove all entries.
+   */
+  public void clear ()
+  {
+    m_aLock.locked ( () -> {
+      m_aByString.clear ();
+      m_aByFingerprint.clear ();
+      m_aEndpointURLs.clear ();
+    });
+  }
+
+  /**
+   * @return The number of lookups that didn't require parsing.
+   */
+  @Nonnegative
+  public final long getHitCount ()
+  {
+    return m_aHitCount.get ();
+  }
+
+  /**
+   * @return The number of lookups that required parsing.
+   */
+  @Nonnegative
+  public final long getMissCount ()
+  {
+    return m_aMissCount.get ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("Size", size ())
+                                       .append ("Hits", getHitCount ())
+                                       .append ("Misses", getMissCount ())
+                                       .getToString ();
+  }
+}
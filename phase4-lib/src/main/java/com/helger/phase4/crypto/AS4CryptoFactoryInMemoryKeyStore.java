@@ -20,13 +20,13 @@ import java.security.KeyStore;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
 
 import org.apache.wss4j.common.crypto.Crypto;
-import org.apache.wss4j.common.crypto.Merlin;
 
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.concurrent.SimpleLock;
 import com.helger.security.keystore.KeyStoreHelper;
 
 /**
@@ -37,7 +37,7 @@ import com.helger.security.keystore.KeyStoreHelper;
  * @author Philip Helger
  * @since 0.9.7
  */
-@Immutable
+@ThreadSafe
 public class AS4CryptoFactoryInMemoryKeyStore implements IAS4CryptoFactory
 {
   private final KeyStore m_aKeyStore;
@@ -45,9 +45,10 @@ public class AS4CryptoFactoryInMemoryKeyStore implements IAS4CryptoFactory
   private final String m_sKeyPassword;
   private final KeyStore m_aTrustStore;
 
+  private final SimpleLock m_aLock = new SimpleLock ();
   // Lazy initialized
-  private Merlin m_aCrypto;
-  private KeyStore.PrivateKeyEntry m_aPK;
+  private volatile AS4CachingMerlin m_aCrypto;
+  private volatile KeyStore.PrivateKeyEntry m_aPK;
 
   /**
    * Default constructor.
@@ -87,14 +88,22 @@ public class AS4CryptoFactoryInMemoryKeyStore implements IAS4CryptoFactory
   @Nonnull
   public final Crypto getCrypto ()
   {
-    Merlin ret = m_aCrypto;
+    AS4CachingMerlin ret = m_aCrypto;
     if (ret == null)
     {
-      // This constructor does not load anything from a file
-      // Load cacerts only if no trust store is configured
-      ret = m_aCrypto = new Merlin (m_aTrustStore == null, "changeit");
-      ret.setKeyStore (m_aKeyStore);
-      ret.setTrustStore (m_aTrustStore);
+      ret = m_aLock.lockedGet ( () -> {
+        AS4CachingMerlin aCrypto = m_aCrypto;
+        if (aCrypto == null)
+        {
+          // This constructor does not load anything from a file
+          // Load cacerts only if no trust store is configured
+          aCrypto = new AS4CachingMerlin (m_aTrustStore == null, "changeit");
+          aCrypto.setKeyStore (m_aKeyStore);
+          aCrypto.setTrustStore (m_aTrustStore);
+          m_aCrypto = aCrypto;
+        }
+        return aCrypto;
+      });
     }
     return ret;
   }
@@ -111,8 +120,16 @@ public class AS4CryptoFactoryInMemoryKeyStore implements IAS4CryptoFactory
     KeyStore.PrivateKeyEntry ret = m_aPK;
     if (ret == null)
     {
-      ret = m_aPK = KeyStoreHelper.loadPrivateKey (m_aKeyStore, "in-memory KeyStore", m_sKeyAlias, m_sKeyPassword.toCharArray ())
-                                  .getKeyEntry ();
+      ret = m_aLock.lockedGet ( () -> {
+        KeyStore.PrivateKeyEntry aPK = m_aPK;
+        if (aPK == null)
+          aPK = m_aPK = KeyStoreHelper.loadPrivateKey (m_aKeyStore,
+                                                       "in-memory KeyStore",
+                                                       m_sKeyAlias,
+                                                       m_sKeyPassword.toCharArray ())
+                                      .getKeyEntry ();
+        return aPK;
+      });
     }
     return ret;
   }
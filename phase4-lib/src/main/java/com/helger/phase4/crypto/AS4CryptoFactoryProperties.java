@@ -16,31 +16,42 @@
  */
 package com.helger.phase4.crypto;
 
+import java.io.IOException;
 import java.security.KeyStore;
 import java.security.cert.X509Certificate;
+import java.util.Properties;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
 
 import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.crypto.CryptoFactory;
+import org.apache.wss4j.common.crypto.Merlin;
 import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.Loader;
 
 import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.OverrideOnDemand;
 import com.helger.commons.annotation.ReturnsMutableObject;
 import com.helger.commons.collection.ArrayHelper;
+import com.helger.commons.concurrent.SimpleLock;
 import com.helger.commons.io.resource.ClassPathResource;
 import com.helger.commons.string.StringHelper;
 import com.helger.security.keystore.KeyStoreHelper;
 
 /**
- * phase4 crypto factory settings based on {@link AS4CryptoProperties}
+ * phase4 crypto factory settings based on {@link AS4CryptoProperties}.<br>
+ * All key material is lazily loaded exactly once, even under concurrent first
+ * access. If the default Merlin crypto provider is used, the created
+ * {@link Crypto} is an {@link AS4CachingMerlin} that shares the key store and
+ * trust store of this class and caches resolved private keys and certificate
+ * chains.
  *
  * @author Philip Helger+
  * @since 0.11.0
  */
-@Immutable
+@ThreadSafe
 public class AS4CryptoFactoryProperties implements IAS4CryptoFactory
 {
   private static final AS4CryptoFactoryProperties DEFAULT_INSTANCE = new AS4CryptoFactoryProperties (AS4CryptoProperties.createFromConfig ());
@@ -56,12 +67,13 @@ public class AS4CryptoFactoryProperties implements IAS4CryptoFactory
     return DEFAULT_INSTANCE;
   }
 
+  private final SimpleLock m_aLock = new SimpleLock ();
   private final AS4CryptoProperties m_aCryptoProps;
   // Lazy initialized
-  private Crypto m_aCrypto;
-  private KeyStore m_aKeyStore;
-  private KeyStore.PrivateKeyEntry m_aPK;
-  private KeyStore m_aTrustStore;
+  private volatile Crypto m_aCrypto;
+  private volatile KeyStore m_aKeyStore;
+  private volatile KeyStore.PrivateKeyEntry m_aPK;
+  private volatile KeyStore m_aTrustStore;
 
   /**
    * This constructor takes the crypto properties directly. See the
@@ -112,9 +124,49 @@ public class AS4CryptoFactoryProperties implements IAS4CryptoFactory
     }
   }
 
+  @Nonnull
+  private Crypto _createCrypto ()
+  {
+    final String sCryptoProvider = m_aCryptoProps.getCryptoProvider ();
+    final Properties aProps = m_aCryptoProps.getAsProperties ();
+    if (aProps == null || (StringHelper.hasText (sCryptoProvider) && !Merlin.class.getName ().equals (sCryptoProvider)))
+    {
+      // Custom crypto provider - cannot share the key material
+      return createCrypto (m_aCryptoProps);
+    }
+
+    // Don't let Merlin load the stores a second time
+    final KeyStore aKeyStore = getKeyStore ();
+    if (aKeyStore != null)
+      aProps.remove (AS4CryptoProperties.KEYSTORE_FILE);
+    final KeyStore aTrustStore = StringHelper.hasText (m_aCryptoProps.getTrustStorePath ()) &&
+                                 StringHelper.hasNoText (m_aCryptoProps.getTrustStoreProvider ()) ? getTrustStore ()
+                                                                                                  : null;
+    if (aTrustStore != null)
+    {
+      aProps.remove (AS4CryptoProperties.TRUSTSTORE_FILE);
+      aProps.remove (AS4CryptoProperties.LOAD_CACERTS);
+    }
+
+    try
+    {
+      // Same class loader as used by CryptoFactory
+      final AS4CachingMerlin ret = new AS4CachingMerlin (aProps, Loader.getClassLoader (CryptoFactory.class), null);
+      if (aKeyStore != null)
+        ret.setKeyStore (aKeyStore);
+      if (aTrustStore != null)
+        ret.setTrustStore (aTrustStore);
+      return ret;
+    }
+    catch (final WSSecurityException | IOException ex)
+    {
+      throw new IllegalStateException ("Failed to create Crypto instance", ex);
+    }
+  }
+
   /**
    * Lazily create a {@link Crypto} instance using the properties from
-   * {@link #cryptoProperties()}.
+   * {@link #cryptoProperties()}. The instance is created only once.
    *
    * @return A {@link Crypto} instance and never <code>null</code>.
    */
@@ -123,20 +175,46 @@ public class AS4CryptoFactoryProperties implements IAS4CryptoFactory
   {
     Crypto ret = m_aCrypto;
     if (ret == null)
-      ret = m_aCrypto = createCrypto (m_aCryptoProps);
+    {
+      ret = m_aLock.lockedGet ( () -> {
+        Crypto aCrypto = m_aCrypto;
+        if (aCrypto == null)
+          aCrypto = m_aCrypto = _createCrypto ();
+        return aCrypto;
+      });
+    }
     return ret;
   }
 
+  /**
+   * Load the key store. This method is invoked at most once per successful
+   * load.
+   *
+   * @return The loaded key store or <code>null</code> if loading failed.
+   * @since 1.3.2
+   */
+  @Nullable
+  @OverrideOnDemand
+  protected KeyStore loadKeyStore ()
+  {
+    return KeyStoreHelper.loadKeyStore (m_aCryptoProps.getKeyStoreType (),
+                                        m_aCryptoProps.getKeyStorePath (),
+                                        m_aCryptoProps.getKeyStorePassword ())
+                         .getKeyStore ();
+  }
+
   @Nullable
   public final KeyStore getKeyStore ()
   {
     KeyStore ret = m_aKeyStore;
     if (ret == null)
     {
-      ret = m_aKeyStore = KeyStoreHelper.loadKeyStore (m_aCryptoProps.getKeyStoreType (),
-                                                       m_aCryptoProps.getKeyStorePath (),
-                                                       m_aCryptoProps.getKeyStorePassword ())
-                                        .getKeyStore ();
+      ret = m_aLock.lockedGet ( () -> {
+        KeyStore aKeyStore = m_aKeyStore;
+        if (aKeyStore == null)
+          aKeyStore = m_aKeyStore = loadKeyStore ();
+        return aKeyStore;
+      });
     }
     return ret;
   }
@@ -147,16 +225,24 @@ public class AS4CryptoFactoryProperties implements IAS4CryptoFactory
     KeyStore.PrivateKeyEntry ret = m_aPK;
     if (ret == null)
     {
-      final KeyStore aKeyStore = getKeyStore ();
-      if (aKeyStore != null)
-      {
-        final String sKeyPassword = m_aCryptoProps.getKeyPassword ();
-        ret = m_aPK = KeyStoreHelper.loadPrivateKey (aKeyStore,
-                                                     m_aCryptoProps.getKeyStorePath (),
-                                                     m_aCryptoProps.getKeyAlias (),
-                                                     sKeyPassword == null ? ArrayHelper.EMPTY_CHAR_ARRAY : sKeyPassword.toCharArray ())
-                                    .getKeyEntry ();
-      }
+      ret = m_aLock.lockedGet ( () -> {
+        KeyStore.PrivateKeyEntry aPK = m_aPK;
+        if (aPK == null)
+        {
+          final KeyStore aKeyStore = getKeyStore ();
+          if (aKeyStore != null)
+          {
+            final String sKeyPassword = m_aCryptoProps.getKeyPassword ();
+            aPK = m_aPK = KeyStoreHelper.loadPrivateKey (aKeyStore,
+                                                         m_aCryptoProps.getKeyStorePath (),
+                                                         m_aCryptoProps.getKeyAlias (),
+                                                         sKeyPassword == null ? ArrayHelper.EMPTY_CHAR_ARRAY
+                                                                              : sKeyPassword.toCharArray ())
+                                        .getKeyEntry ();
+          }
+        }
+        return aPK;
+      });
     }
     return ret;
   }
@@ -185,16 +271,35 @@ public class AS4CryptoFactoryProperties implements IAS4CryptoFactory
     return aPK == null ? null : (X509Certificate) aPK.getCertificate ();
   }
 
+  /**
+   * Load the trust store. This method is invoked at most once per successful
+   * load.
+   *
+   * @return The loaded trust store or <code>null</code> if loading failed.
+   * @since 1.3.2
+   */
+  @Nullable
+  @OverrideOnDemand
+  protected KeyStore loadTrustStore ()
+  {
+    return KeyStoreHelper.loadKeyStore (m_aCryptoProps.getTrustStoreType (),
+                                        m_aCryptoProps.getTrustStorePath (),
+                                        m_aCryptoProps.getTrustStorePassword ())
+                         .getKeyStore ();
+  }
+
   @Nullable
   public final KeyStore getTrustStore ()
   {
     KeyStore ret = m_aTrustStore;
     if (ret == null)
     {
-      ret = m_aTrustStore = KeyStoreHelper.loadKeyStore (m_aCryptoProps.getTrustStoreType (),
-                                                         m_aCryptoProps.getTrustStorePath (),
-                                                         m_aCryptoProps.getTrustStorePassword ())
-                                          .getKeyStore ();
+      ret = m_aLock.lockedGet ( () -> {
+        KeyStore aTrustStore = m_aTrustStore;
+        if (aTrustStore == null)
+          aTrustStore = m_aTrustStore = loadTrustStore ();
+        return aTrustStore;
+      });
     }
     return ret;
   }
@@ -0,0 +1,455 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.crypto;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.wss4j.common.crypto.Crypto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableObject;
+import com.helger.commons.callback.CallbackList;
+import com.helger.commons.collection.ArrayHelper;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.concurrent.ExecutorServiceHelper;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.commons.state.ESuccess;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.security.keystore.KeyStoreHelper;
+import com.helger.security.keystore.LoadedKey;
+import com.helger.security.keystore.LoadedKeyStore;
+
+/**
+ * An implementation of {@link IAS4CryptoFactory} based on
+ * {@link AS4CryptoProperties} that reloads the key store and the trust store
+ * when the underlying files change. This allows to rotate certificates without
+ * restarting the application.<br>
+ * All key material is loaded together into an immutable snapshot, which is
+ * swapped in atomically after it was loaded completely. Sign, verify and
+ * decrypt operations that are in flight continue with the {@link Crypto} they
+ * already retrieved and are never blocked. If the changed files cannot be
+ * loaded (e.g. because they are still written), the previous key material
+ * stays in use. Each snapshot has its own {@link AS4CachingMerlin}, so the
+ * cached private keys and certificate chains are reset with every reload.<br>
+ * The files are checked for changes regularly after {@link #start()} was
+ * called. Alternatively {@link #checkForChanges()} can be called manually.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@ThreadSafe
+public class AS4CryptoFactoryReloadable implements IAS4CryptoFactory, AutoCloseable
+{
+  public static final Duration DEFAULT_CHECK_INTERVAL = Duration.ofSeconds (10);
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4CryptoFactoryReloadable.class);
+
+  /**
+   * The key material loaded together from the same file versions.
+   */
+  private static final class KeyMaterial
+  {
+    private final String m_sFingerprint;
+    private final KeyStore m_aKeyStore;
+    private final KeyStore.PrivateKeyEntry m_aPK;
+    private final KeyStore m_aTrustStore;
+    private final AS4CachingMerlin m_aCrypto;
+
+    KeyMaterial (@Nonnull final String sFingerprint,
+                 @Nonnull final KeyStore aKeyStore,
+                 @Nonnull final KeyStore.PrivateKeyEntry aPK,
+                 @Nullable final KeyStore aTrustStore,
+                 @Nonnull final AS4CachingMerlin aCrypto)
+    {
+      m_sFingerprint = sFingerprint;
+      m_aKeyStore = aKeyStore;
+      m_aPK = aPK;
+      m_aTrustStore = aTrustStore;
+      m_aCrypto = aCrypto;
+    }
+  }
+
+  private final AS4CryptoProperties m_aCryptoProps;
+  private final File m_aKeyStoreFile;
+  private final File m_aTrustStoreFile;
+  private final Duration m_aCheckInterval;
+  private final ScheduledExecutorService m_aExecutor;
+  private final CallbackList <IAS4CryptoFactoryReloadCallback> m_aReloadCallbacks = new CallbackList <> ();
+  private final AtomicLong m_aReloadCount = new AtomicLong ();
+  private final SimpleLock m_aLock = new SimpleLock ();
+  @GuardedBy ("m_aLock")
+  private boolean m_bStarted = false;
+  @GuardedBy ("m_aLock")
+  private String m_sFailedFingerprint;
+  private volatile KeyMaterial m_aKeyMaterial;
+
+  /**
+   * Constructor with the default check interval.
+   *
+   * @param aCryptoProps
+   *        The properties to be used. May not be <code>null</code>. The key
+   *        store and the optional trust store must be files. Note: the object
+   *        is cloned internally to avoid outside modification.
+   * @throws IllegalArgumentException
+   *         If the key store or trust store is not a file
+   * @throws IllegalStateException
+   *         If the initial key material cannot be loaded
+   */
+  public AS4CryptoFactoryReloadable (@Nonnull final AS4CryptoProperties aCryptoProps)
+  {
+    this (aCryptoProps, DEFAULT_CHECK_INTERVAL);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aCryptoProps
+   *        The properties to be used. May not be <code>null</code>. The key
+   *        store and the optional trust store must be files. Note: the object
+   *        is cloned internally to avoid outside modification.
+   * @param aCheckInterval
+   *        The interval in which the files are checked for changes. May not be
+   *        <code>null</code> and must be positive.
+   * @throws IllegalArgumentException
+   *         If the key store or trust store is not a file
+   * @throws IllegalStateException
+   *         If the initial key material cannot be loaded
+   */
+  public AS4CryptoFactoryReloadable (@Nonnull final AS4CryptoProperties aCryptoProps, @Nonnull final Duration aCheckInterval)
+  {
+    ValueEnforcer.notNull (aCryptoProps, "CryptoProps");
+    ValueEnforcer.notNull (aCheckInterval, "CheckInterval");
+    ValueEnforcer.isTrue ( () -> !aCheckInterval.isNegative () && !aCheckInterval.isZero (), "CheckInterval must be positive");
+    m_aCryptoProps = aCryptoProps.getClone ();
+
+    m_aKeyStoreFile = _getFile (m_aCryptoProps.getKeyStorePath ());
+    if (m_aKeyStoreFile == null)
+      throw new IllegalArgumentException ("The key store '" + m_aCryptoProps.getKeyStorePath () + "' must be a file");
+    final String sTrustStorePath = m_aCryptoProps.getTrustStorePath ();
+    if (StringHelper.hasText (sTrustStorePath))
+    {
+      m_aTrustStoreFile = _getFile (sTrustStorePath);
+      if (m_aTrustStoreFile == null)
+        throw new IllegalArgumentException ("The trust store '" + sTrustStorePath + "' must be a file");
+    }
+    else
+      m_aTrustStoreFile = null;
+    m_aCheckInterval = aCheckInterval;
+
+    final ScheduledThreadPoolExecutor aExecutor = new ScheduledThreadPoolExecutor (1,
+                                                                                   new BasicThreadFactory.Builder ().namingPattern ("phase4-keystore-reload-%d")
+                                                                                                                    .daemon (true)
+                                                                                                                    .build ());
+    aExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy (false);
+    aExecutor.setContinueExistingPeriodicTasksAfterShutdownPolicy (false);
+    m_aExecutor = aExecutor;
+
+    m_aKeyMaterial = _loadKeyMaterial (_getFingerprint ());
+  }
+
+  @Nullable
+  private static File _getFile (@Nullable final String sPath)
+  {
+    if (StringHelper.hasNoText (sPath))
+      return null;
+
+    // Same order as in KeyStoreHelper
+    final File aClassPathFile = ClassPathResource.getAsFile (sPath);
+    if (aClassPathFile != null && aClassPathFile.isFile ())
+      return aClassPathFile.getAbsoluteFile ();
+    final File aFile = new File (sPath);
+    return aFile.isFile () ? aFile.getAbsoluteFile () : null;
+  }
+
+  @Nonnull
+  private static String _getFingerprint (@Nullable final File aFile)
+  {
+    if (aFile == null)
+      return "";
+    try
+    {
+      // The file key changes, if a new file is moved in place
+      final BasicFileAttributes aAttrs = Files.readAttributes (aFile.toPath (), BasicFileAttributes.class);
+      return aAttrs.lastModifiedTime () + "/" + aAttrs.size () + "/" + aAttrs.fileKey ();
+    }
+    catch (final IOException ex)
+    {
+      // E.g. deleted while being replaced
+      return "error";
+    }
+  }
+
+  @Nonnull
+  private String _getFingerprint ()
+  {
+    return _getFingerprint (m_aKeyStoreFile) + "|" + _getFingerprint (m_aTrustStoreFile);
+  }
+
+  @Nonnull
+  private KeyMaterial _loadKeyMaterial (@Nonnull final String sFingerprint)
+  {
+    final String sKeyStorePath = m_aKeyStoreFile.getAbsolutePath ();
+    final LoadedKeyStore aLKS = KeyStoreHelper.loadKeyStore (m_aCryptoProps.getKeyStoreType (),
+                                                             sKeyStorePath,
+                                                             m_aCryptoProps.getKeyStorePassword ());
+    if (aLKS.isFailure ())
+      throw new IllegalStateException ("Failed to load key store '" + sKeyStorePath + "': " + aLKS.getErrorText (Locale.US));
+    final KeyStore aKeyStore = aLKS.getKeyStore ();
+
+    // Ensure the configured key is usable, before the key store is swapped in
+    final String sKeyPassword = m_aCryptoProps.getKeyPassword ();
+    final LoadedKey <KeyStore.PrivateKeyEntry> aLK = KeyStoreHelper.loadPrivateKey (aKeyStore,
+                                                                                    sKeyStorePath,
+                                                                                    m_aCryptoProps.getKeyAlias (),
+                                                                                    sKeyPassword == null ? ArrayHelper.EMPTY_CHAR_ARRAY
+                                                                                                         : sKeyPassword.toCharArray ());
+    if (aLK.isFailure ())
+      throw new IllegalStateException ("Failed to load private key from '" + sKeyStorePath + "': " + aLK.getErrorText (Locale.US));
+
+    KeyStore aTrustStore = null;
+    if (m_aTrustStoreFile != null)
+    {
+      final String sTrustStorePath = m_aTrustStoreFile.getAbsolutePath ();
+      final LoadedKeyStore aLTS = KeyStoreHelper.loadKeyStore (m_aCryptoProps.getTrustStoreType (),
+                                                               sTrustStorePath,
+                                                               m_aCryptoProps.getTrustStorePassword ());
+      if (aLTS.isFailure ())
+        throw new IllegalStateException ("Failed to load trust store '" + sTrustStorePath + "': " + aLTS.getErrorText (Locale.US));
+      aTrustStore = aLTS.getKeyStore ();
+    }
+
+    // This constructor does not load anything from a file
+    // Load cacerts only if no trust store is configured
+    final AS4CachingMerlin aCrypto = new AS4CachingMerlin (aTrustStore == null &&
+                                                           m_aCryptoProps.getLoadCACerts ().getAsBooleanValue (false),
+                                                           "changeit");
+    aCrypto.setKeyStore (aKeyStore);
+    if (aTrustStore != null)
+      aCrypto.setTrustStore (aTrustStore);
+    return new KeyMaterial (sFingerprint, aKeyStore, aLK.getKeyEntry (), aTrustStore, aCrypto);
+  }
+
+  /**
+   * @return The crypto properties as created in the constructor. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableObject
+  public final AS4CryptoProperties cryptoProperties ()
+  {
+    return m_aCryptoProps;
+  }
+
+  /**
+   * @return The callbacks that are invoked after new key material was swapped
+   *         in. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableObject
+  public final CallbackList <IAS4CryptoFactoryReloadCallback> reloadCallbacks ()
+  {
+    return m_aReloadCallbacks;
+  }
+
+  /**
+   * @return The number of successful reloads since construction. Always &ge;
+   *         0.
+   */
+  @Nonnegative
+  public final long getReloadCount ()
+  {
+    return m_aReloadCount.get ();
+  }
+
+  /**
+   * Reload the key store and trust store unconditionally. If loading fails, the
+   * previous key material stays in use.
+   *
+   * @return {@link ESuccess#SUCCESS} if the new key material is in use.
+   */
+  @Nonnull
+  public ESuccess reload ()
+  {
+    final KeyMaterial aNew = m_aLock.lockedGet ( () -> {
+      final String sFingerprint = _getFingerprint ();
+      try
+      {
+        final KeyMaterial ret = _loadKeyMaterial (sFingerprint);
+        // Readers see either the old or the new key material
+        m_aKeyMaterial = ret;
+        m_sFailedFingerprint = null;
+        return ret;
+      }
+      catch (final IllegalStateException ex)
+      {
+        m_sFailedFingerprint = sFingerprint;
+        LOGGER.warn ("Failed to reload the key material - keeping the previous one: " + ex.getMessage ());
+        return null;
+      }
+    });
+    if (aNew == null)
+      return ESuccess.FAILURE;
+
+    m_aReloadCount.incrementAndGet ();
+    LOGGER.info ("Reloaded the key material from '" +
+                 m_aKeyStoreFile.getAbsolutePath () +
+                 "'" +
+                 (m_aTrustStoreFile == null ? "" : " and '" + m_aTrustStoreFile.getAbsolutePath () + "'"));
+    m_aReloadCallbacks.forEach (x -> x.onReloaded (this));
+    return ESuccess.SUCCESS;
+  }
+
+  /**
+   * Check if the key store or trust store file changed and reload them if so.
+   * This method is called regularly after {@link #start()} was called.
+   *
+   * @return <code>true</code> if new key material was swapped in,
+   *         <code>false</code> if nothing changed or loading failed.
+   */
+  public boolean checkForChanges ()
+  {
+    final String sFingerprint = _getFingerprint ();
+    if (sFingerprint.equals (m_aKeyMaterial.m_sFingerprint))
+      return false;
+    // Don't retry the same broken files over and over
+    if (sFingerprint.equals (m_aLock.lockedGet ( () -> m_sFailedFingerprint)))
+      return false;
+    return reload ().isSuccess ();
+  }
+
+  private void _scheduledCheck ()
+  {
+    try
+    {
+      checkForChanges ();
+    }
+    catch (final RuntimeException ex)
+    {
+      // Don't cancel the periodic task
+      LOGGER.error ("Error checking the key material for changes", ex);
+    }
+  }
+
+  /**
+   * Start checking the files for changes. Calling this method more than once
+   * has no effect.
+   */
+  public void start ()
+  {
+    if (m_aLock.lockedBoolean ( () -> {
+      if (m_bStarted)
+        return false;
+      m_bStarted = true;
+      return true;
+    }))
+    {
+      final long nCheckMS = m_aCheckInterval.toMillis ();
+      m_aExecutor.scheduleWithFixedDelay (this::_scheduledCheck, nCheckMS, nCheckMS, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Stop checking the files for changes. The current key material stays in
+   * use.
+   */
+  public void close ()
+  {
+    ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (m_aExecutor);
+  }
+
+  /**
+   * @return The {@link Crypto} of the current key material. Never
+   *         <code>null</code>. Keep the returned object for the duration of a
+   *         single operation, to not mix different key material versions.
+   */
+  @Nonnull
+  public final Crypto getCrypto ()
+  {
+    return m_aKeyMaterial.m_aCrypto;
+  }
+
+  @Nonnull
+  public final KeyStore getKeyStore ()
+  {
+    return m_aKeyMaterial.m_aKeyStore;
+  }
+
+  @Nonnull
+  public final KeyStore.PrivateKeyEntry getPrivateKeyEntry ()
+  {
+    return m_aKeyMaterial.m_aPK;
+  }
+
+  @Nullable
+  public final String getKeyAlias ()
+  {
+    return m_aCryptoProps.getKeyAlias ();
+  }
+
+  @Nullable
+  public final String getKeyPassword ()
+  {
+    return m_aCryptoProps.getKeyPassword ();
+  }
+
+  /**
+   * @return The public certificate of the current private key entry. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public final X509Certificate getCertificate ()
+  {
+    return (X509Certificate) m_aKeyMaterial.m_aPK.getCertificate ();
+  }
+
+  @Nullable
+  public final KeyStore getTrustStore ()
+  {
+    return m_aKeyMaterial.m_aTrustStore;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("KeyStoreFile", m_aKeyStoreFile)
+                                       .append ("TrustStoreFile", m_aTrustStoreFile)
+                                       .append ("CheckInterval", m_aCheckInterval)
+                                       .append ("ReloadCount", getReloadCount ())
+                                       .getToString ();
+  }
+}
@@ -0,0 +1,205 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.crypto;
+
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.annotation.ReturnsMutableObject;
+import com.helger.commons.collection.ArrayHelper;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * A parsed certificate contained in an {@link AS4CertificateInternPool},
+ * together with its encoded form and cached check results.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@ThreadSafe
+public final class AS4InternedCertificate
+{
+  private static final class CachedCheck
+  {
+    private final Object m_aResult;
+    private final long m_nExpiresMS;
+
+    CachedCheck (@Nullable final Object aResult, final long nExpiresMS)
+    {
+      m_aResult = aResult;
+      m_nExpiresMS = nExpiresMS;
+    }
+  }
+
+  private final X509Certificate m_aCertificate;
+  private final byte [] m_aEncoded;
+  private final String m_sFingerprint;
+  private final Map <String, CachedCheck> m_aChecks = new ConcurrentHashMap <> ();
+
+  AS4InternedCertificate (@Nonnull final X509Certificate aCertificate,
+                          @Nonnull final byte [] aEncoded,
+                          @Nonnull @Nonempty final String sFingerprint)
+  {
+    m_aCertificate = aCertificate;
+    m_aEncoded = aEncoded;
+    m_sFingerprint = sFingerprint;
+  }
+
+  /**
+   * @return The parsed certificate. Never <code>null</code>.
+   */
+  @Nonnull
+  public X509Certificate getCertificate ()
+  {
+    return m_aCertificate;
+  }
+
+  /**
+   * @return A copy of the DER encoded certificate. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public byte [] getEncoded ()
+  {
+    return ArrayHelper.getCopy (m_aEncoded);
+  }
+
+  /**
+   * @return The DER encoded certificate. Never <code>null</code>. Don't
+   *         modify it.
+   */
+  @Nonnull
+  @ReturnsMutableObject
+  public byte [] getEncodedNoCopy ()
+  {
+    return m_aEncoded;
+  }
+
+  /**
+   * @return The hex encoded SHA-256 fingerprint of the certificate. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  @Nonempty
+  public String getFingerprint ()
+  {
+    return m_sFingerprint;
+  }
+
+  /**
+   * Get the cached result of a check of this certificate (e.g. a revocation
+   * check), or perform the check and cache the result. The result is never
+   * cached beyond the expiration date of the certificate.
+   *
+   * @param <T>
+   *        The result type
+   * @param sCheckID
+   *        The ID of the check, to differentiate different checks. May neither
+   *        be <code>null</code> nor empty.
+   * @param aTTL
+   *        The duration for which the result is cached. May not be
+   *        <code>null</code>.
+   * @param aCheck
+   *        The check to perform if no cached result is present. May not be
+   *        <code>null</code>.
+   * @return The check result.
+   */
+  @Nullable
+  public <T> T getCachedCheckResult (@Nonnull @Nonempty final String sCheckID,
+                                     @Nonnull final Duration aTTL,
+                                     @Nonnull final Supplier <? extends T> aCheck)
+  {
+    return getCachedCheckResult (sCheckID, aTTL, aCheck, x -> true);
+  }
+
+  /**
+   * Get the cached result of a check of this certificate (e.g. a revocation
+   * check), or perform the check and cache the result if it is considered
+   * cacheable. The result is never cached beyond the expiration date of the
+   * certificate.
+   *
+   * @param <T>
+   *        The result type
+   * @param sCheckID
+   *        The ID of the check, to differentiate different checks. May neither
+   *        be <code>null</code> nor empty.
+   * @param aTTL
+   *        The duration for which the result is cached. May not be
+   *        <code>null</code>.
+   * @param aCheck
+   *        The check to perform if no cached result is present. May not be
+   *        <code>null</code>.
+   * @param aIsCacheable
+   *        The predicate to decide whether a new check result should be
+   *        cached or not. May not be <code>null</code>.
+   * @return The check result.
+   */
+  @SuppressWarnings ("unchecked")
+  @Nullable
+  public <T> T getCachedCheckResult (@Nonnull @Nonempty final String sCheckID,
+                                     @Nonnull final Duration aTTL,
+                                     @Nonnull final Supplier <? extends T> aCheck,
+                                     @Nonnull final Predicate <? super T> aIsCacheable)
+  {
+    ValueEnforcer.notEmpty (sCheckID, "CheckID");
+    ValueEnforcer.notNull (aTTL, "TTL");
+    ValueEnforcer.notNull (aCheck, "Check");
+    ValueEnforcer.notNull (aIsCacheable, "IsCacheable");
+
+    final long nNowMS = System.currentTimeMillis ();
+    final CachedCheck aCached = m_aChecks.get (sCheckID);
+    if (aCached != null && nNowMS < aCached.m_nExpiresMS)
+      return (T) aCached.m_aResult;
+
+    final T ret = aCheck.get ();
+    if (aIsCacheable.test (ret))
+    {
+      final long nExpiresMS = Math.min (nNowMS + aTTL.toMillis (), m_aCertificate.getNotAfter ().getTime ());
+      m_aChecks.put (sCheckID, new CachedCheck (ret, nExpiresMS));
+    }
+    else
+      m_aChecks.remove (sCheckID);
+    return ret;
+  }
+
+  /**
+   * Remove all cached check results.
+   */
+  public void clearCachedCheckResults ()
+  {
+    m_aChecks.clear ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("Fingerprint", m_sFingerprint)
+                                       .append ("Subject", m_aCertificate.getSubjectX500Principal ().getName ())
+                                       .getToString ();
+  }
+}
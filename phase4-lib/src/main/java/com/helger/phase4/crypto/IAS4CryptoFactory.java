@@ -22,6 +22,10 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.CryptoType;
+import org.apache.wss4j.common.ext.WSSecurityException;
+
+import com.helger.commons.string.StringHelper;
 
 /**
  * The basic phase4 crypto interface.
@@ -77,4 +81,39 @@ public interface IAS4CryptoFactory
    */
   @Nullable
   KeyStore getTrustStore ();
+
+  /**
+   * Eagerly load all key material and resolve the private key and certificate
+   * chain of the configured key alias. This avoids the loading costs on the
+   * first message and detects configuration errors early. Call this e.g. on
+   * application startup.
+   *
+   * @throws IllegalStateException
+   *         If the key material could not be resolved
+   * @since 1.3.2
+   */
+  default void warmUp ()
+  {
+    final Crypto aCrypto = getCrypto ();
+    getKeyStore ();
+    getPrivateKeyEntry ();
+    getTrustStore ();
+
+    final String sKeyAlias = getKeyAlias ();
+    if (StringHelper.hasText (sKeyAlias))
+    {
+      try
+      {
+        // Prime the caches used for signing
+        final CryptoType aCryptoType = new CryptoType (CryptoType.TYPE.ALIAS);
+        aCryptoType.setAlias (sKeyAlias);
+        aCrypto.getX509Certificates (aCryptoType);
+        aCrypto.getPrivateKey (sKeyAlias, getKeyPassword ());
+      }
+      catch (final WSSecurityException ex)
+      {
+        throw new IllegalStateException ("Failed to resolve the key material for alias '" + sKeyAlias + "'", ex);
+      }
+    }
+  }
 }
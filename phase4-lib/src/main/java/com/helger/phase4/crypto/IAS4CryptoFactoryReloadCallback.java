@@ -0,0 +1,41 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.crypto;
+
+import javax.annotation.Nonnull;
+
+import com.helger.commons.callback.ICallback;
+
+/**
+ * Callback interface that is invoked after an
+ * {@link AS4CryptoFactoryReloadable} swapped in newly loaded key material.
+ * Use it to reset caches that depend on the old key material.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@FunctionalInterface
+public interface IAS4CryptoFactoryReloadCallback extends ICallback
+{
+  /**
+   * Called after the new key material is in use.
+   *
+   * @param aCryptoFactory
+   *        The crypto factory that was reloaded. Never <code>null</code>.
+   */
+  void onReloaded (@Nonnull AS4CryptoFactoryReloadable aCryptoFactory);
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.http;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.conn.socket.LayeredConnectionSocketFactory;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.httpclient.HttpClientFactory;
+import com.helger.httpclient.HttpClientSettings;
+
+/**
+ * A special {@link HttpClientFactory} that shares a single connection pool
+ * between all HTTP clients it creates. By default each AS4 message is sent
+ * with a new HTTP client and therefore a new connection. When sending many
+ * messages to the same receivers, this factory allows to reuse the
+ * connections (including the TLS handshake).<br>
+ * Call {@link #close()} when the factory is no longer needed, to close all
+ * pooled connections.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@ThreadSafe
+public class AS4PooledHttpClientFactory extends HttpClientFactory implements AutoCloseable
+{
+  public static final int DEFAULT_MAX_TOTAL = 100;
+  public static final int DEFAULT_MAX_PER_ROUTE = 10;
+
+  private final int m_nMaxTotal;
+  private final int m_nMaxPerRoute;
+  private final SimpleLock m_aLock = new SimpleLock ();
+  @GuardedBy ("m_aLock")
+  private HttpClientConnectionManager m_aConnectionManager;
+
+  public AS4PooledHttpClientFactory ()
+  {
+    this (new HttpClientSettings ());
+  }
+
+  public AS4PooledHttpClientFactory (@Nonnull final HttpClientSettings aSettings)
+  {
+    this (aSettings, DEFAULT_MAX_TOTAL, DEFAULT_MAX_PER_ROUTE);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aSettings
+   *        The HTTP client settings to use. May not be <code>null</code>.
+   * @param nMaxTotal
+   *        The maximum number of pooled connections. Must be &gt; 0.
+   * @param nMaxPerRoute
+   *        The maximum number of pooled connections per destination. Must be
+   *        &gt; 0.
+   */
+  public AS4PooledHttpClientFactory (@Nonnull final HttpClientSettings aSettings,
+                                     @Nonnegative final int nMaxTotal,
+                                     @Nonnegative final int nMaxPerRoute)
+  {
+    super (aSettings);
+    ValueEnforcer.isGT0 (nMaxTotal, "MaxTotal");
+    ValueEnforcer.isGT0 (nMaxPerRoute, "MaxPerRoute");
+    m_nMaxTotal = nMaxTotal;
+    m_nMaxPerRoute = nMaxPerRoute;
+  }
+
+  @Override
+  @Nullable
+  public HttpClientConnectionManager createConnectionManager (@Nonnull final LayeredConnectionSocketFactory aSSLFactory)
+  {
+    return m_aLock.lockedGet ( () -> {
+      if (m_aConnectionManager == null)
+      {
+        m_aConnectionManager = super.createConnectionManager (aSSLFactory);
+        if (m_aConnectionManager instanceof PoolingHttpClientConnectionManager)
+        {
+          final PoolingHttpClientConnectionManager aPool = (PoolingHttpClientConnectionManager) m_aConnectionManager;
+          aPool.setMaxTotal (m_nMaxTotal);
+          aPool.setDefaultMaxPerRoute (m_nMaxPerRoute);
+        }
+      }
+      return m_aConnectionManager;
+    });
+  }
+
+  @Override
+  @Nonnull
+  public HttpClientBuilder createHttpClientBuilder ()
+  {
+    // Closing the HTTP client must not close the shared pool
+    return super.createHttpClientBuilder ().setConnectionManagerShared (true);
+  }
+
+  /**
+   * Close all pooled connections.
+   */
+  public void close ()
+  {
+    m_aLock.locked ( () -> {
+      if (m_aConnectionManager != null)
+      {
+        m_aConnectionManager.shutdown ();
+        m_aConnectionManager = null;
+      }
+    });
+  }
+}
@@ -50,6 +50,8 @@ import com.helger.httpclient.IHttpClientProvider;
 import com.helger.phase4.client.IAS4RetryCallback;
 import com.helger.phase4.dump.AS4DumpManager;
 import com.helger.phase4.dump.IAS4OutgoingDumper;
+import com.helger.phase4.jfr.AS4HttpPostEvent;
+import com.helger.phase4.jfr.AS4JFR;
 import com.helger.phase4.messaging.EAS4MessageMode;
 import com.helger.phase4.util.MultiOutputStream;
 
@@ -243,6 +245,34 @@ public class BasicHttpPoster implements IHttpPoster
     };
   }
 
+  private static void _commitPostEvent (@Nullable final AS4HttpPostEvent aEvent,
+                                        @Nonnull final String sURL,
+                                        @Nonnull final String sMessageID,
+                                        final int nTry,
+                                        final int nMaxTries,
+                                        @Nonnull final HttpEntity aHttpEntity,
+                                        @Nullable final IOException aException,
+                                        final long nDelayBeforeRetryMillis)
+  {
+    if (aEvent != null)
+    {
+      aEvent.end ();
+      if (aEvent.shouldCommit ())
+      {
+        aEvent.m_sURL = sURL;
+        aEvent.m_sMessageID = sMessageID;
+        aEvent.m_nTry = nTry;
+        aEvent.m_nMaxTries = nMaxTries;
+        aEvent.m_nRequestSize = aHttpEntity.getContentLength ();
+        aEvent.m_bSuccess = aException == null;
+        if (aException != null)
+          aEvent.m_sException = aException.getClass ().getName () + ": " + aException.getMessage ();
+        aEvent.m_nDelayBeforeRetry = nDelayBeforeRetryMillis;
+        aEvent.commit ();
+      }
+    }
+  }
+
   @Nonnull
   public <T> T sendGenericMessageWithRetries (@Nonnull final String sURL,
                                               @Nullable final HttpHeaderMap aCustomHttpHeaders,
@@ -273,6 +303,9 @@ public class BasicHttpPoster implements IHttpPoster
           if (nTry > 0)
             LOGGER.info ("Retry #" + nTry + "/" + nMaxRetries + " for sending message with ID '" + sMessageID + "'");
 
+          final AS4HttpPostEvent aEvent = AS4JFR.isAvailable () ? new AS4HttpPostEvent () : null;
+          if (aEvent != null)
+            aEvent.begin ();
           try
           {
             // Create a new one every time (for new filename, new timestamp,
@@ -285,13 +318,18 @@ public class BasicHttpPoster implements IHttpPoster
                                                                        aDumpOSHolder);
 
             // Dump only for the first try - the remaining tries
-            return sendGenericMessage (sURL, aCustomHttpHeaders, aDumpingEntity, aResponseHandler);
+            final T ret = sendGenericMessage (sURL, aCustomHttpHeaders, aDumpingEntity, aResponseHandler);
+            _commitPostEvent (aEvent, sURL, sMessageID, nTry, nMaxTries, aHttpEntity, null, 0);
+            return ret;
           }
           catch (final IOException ex)
           {
             // Last try? -> propagate exception
             if (nTry == nMaxTries - 1)
+            {
+              _commitPostEvent (aEvent, sURL, sMessageID, nTry, nMaxTries, aHttpEntity, ex, 0);
               throw ex;
+            }
 
             // After the first retry, increase the waiting time
             if (nTry > 1)
@@ -312,6 +350,7 @@ public class BasicHttpPoster implements IHttpPoster
                              " - retrying was explicitly stopped by the RetryCallback");
 
                 // Propagate Exception as if it would be the last retry
+                _commitPostEvent (aEvent, sURL, sMessageID, nTry, nMaxTries, aHttpEntity, ex, 0);
                 throw ex;
               }
 
@@ -326,6 +365,7 @@ public class BasicHttpPoster implements IHttpPoster
                          " - waiting " +
                          aDurationBeforeRetry.toMillis () +
                          " ms, than retrying");
+            _commitPostEvent (aEvent, sURL, sMessageID, nTry, nMaxTries, aHttpEntity, ex, aDurationBeforeRetry.toMillis ());
 
             // Sleep and try again afterwards
             ThreadHelper.sleep (aDurationBeforeRetry.toMillis ());
@@ -347,10 +387,20 @@ public class BasicHttpPoster implements IHttpPoster
                                                                    0,
                                                                    aDumpOSHolder);
 
+        final AS4HttpPostEvent aEvent = AS4JFR.isAvailable () ? new AS4HttpPostEvent () : null;
+        if (aEvent != null)
+          aEvent.begin ();
         try
         {
           // Send without retry
-          return sendGenericMessage (sURL, aCustomHttpHeaders, aDumpingEntity, aResponseHandler);
+          final T ret = sendGenericMessage (sURL, aCustomHttpHeaders, aDumpingEntity, aResponseHandler);
+          _commitPostEvent (aEvent, sURL, sMessageID, 0, 1, aHttpEntity, null, 0);
+          return ret;
+        }
+        catch (final IOException ex)
+        {
+          _commitPostEvent (aEvent, sURL, sMessageID, 0, 1, aHttpEntity, ex, 0);
+          throw ex;
         }
         finally
         {
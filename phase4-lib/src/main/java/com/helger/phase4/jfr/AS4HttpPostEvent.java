@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event for a single outgoing HTTP POST attempt. Each retry results in a
+ * separate event.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@Name (AS4JFR.EVENT_NAME_PREFIX + "HttpPost")
+@Label ("AS4 HTTP POST")
+@Description ("A single outgoing HTTP POST attempt")
+@Category ({ AS4JFR.CATEGORY, "HTTP" })
+@StackTrace (false)
+public class AS4HttpPostEvent extends Event
+{
+  @Label ("URL")
+  @Name ("url")
+  public String m_sURL;
+
+  @Label ("Message ID")
+  @Name ("messageID")
+  public String m_sMessageID;
+
+  @Label ("Try")
+  @Description ("0-based index of the attempt; values greater than 0 are retries")
+  @Name ("attempt")
+  public int m_nTry;
+
+  @Label ("Max Tries")
+  @Name ("maxTries")
+  public int m_nMaxTries;
+
+  @Label ("Request Size")
+  @Description ("The HTTP entity content length or -1 if unknown")
+  @DataAmount
+  @Name ("requestSize")
+  public long m_nRequestSize = -1;
+
+  @Label ("Success")
+  @Name ("success")
+  public boolean m_bSuccess;
+
+  @Label ("Exception")
+  @Name ("exception")
+  public String m_sException;
+
+  @Label ("Delay before Retry")
+  @Description ("The time waited after this attempt before the next retry")
+  @Timespan (Timespan.MILLISECONDS)
+  @Name ("delayBeforeRetry")
+  public long m_nDelayBeforeRetry;
+}
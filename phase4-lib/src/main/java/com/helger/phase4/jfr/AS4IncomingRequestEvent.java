@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event that spans the handling of a single incoming AS4 request, from
+ * reading the HTTP request until the response was applied.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@Name (AS4JFR.EVENT_NAME_PREFIX + "IncomingRequest")
+@Label ("AS4 Incoming Request")
+@Description ("Handling of a single incoming AS4 request")
+@Category ({ AS4JFR.CATEGORY, "Incoming" })
+@StackTrace (false)
+public class AS4IncomingRequestEvent extends Event
+{
+  @Label ("Message ID")
+  @Name ("messageID")
+  public String m_sMessageID;
+
+  @Label ("Profile ID")
+  @Name ("profileID")
+  public String m_sProfileID;
+
+  @Label ("PMode ID")
+  @Name ("pmodeID")
+  public String m_sPModeID;
+
+  @Label ("SOAP Version")
+  @Name ("soapVersion")
+  public String m_sSoapVersion;
+
+  @Label ("Request Size")
+  @Description ("The HTTP Content-Length of the request or -1 if unknown")
+  @DataAmount
+  @Name ("requestSize")
+  public long m_nRequestSize = -1;
+
+  @Label ("Attachment Count")
+  @Name ("attachmentCount")
+  public int m_nAttachmentCount;
+
+  @Label ("Error Count")
+  @Name ("errorCount")
+  public int m_nErrorCount;
+
+  @Label ("Response Message ID")
+  @Name ("responseMessageID")
+  public String m_sResponseMessageID;
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.jfr;
+
+import javax.annotation.concurrent.Immutable;
+
+import org.slf4j.LoggerFactory;
+
+import com.helger.phase4.CAS4;
+
+/**
+ * Constants for the Java Flight Recorder (JFR) events emitted by phase4. All
+ * events are disabled unless a JFR recording is active, so they may stay in
+ * the hot paths.<br>
+ * The event classes extend <code>jdk.jfr.Event</code> which is not available
+ * on all Java 8 runtimes. They may therefore only be instantiated if
+ * {@link #isAvailable()} returns <code>true</code>.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@Immutable
+public final class AS4JFR
+{
+  /** The top-level JFR category of all phase4 events */
+  public static final String CATEGORY = CAS4.LIB_NAME;
+  /** The prefix of all phase4 JFR event names */
+  public static final String EVENT_NAME_PREFIX = "com.helger.phase4.";
+
+  /**
+   * Holder class, so that the check is performed once upon first usage.
+   */
+  private static final class AvailabilityHolder
+  {
+    private static final boolean AVAILABLE = _isAvailable ();
+
+    private static boolean _isAvailable ()
+    {
+      try
+      {
+        Class.forName ("jdk.jfr.Event");
+        return true;
+      }
+      catch (final ClassNotFoundException | LinkageError ex)
+      {
+        LoggerFactory.getLogger (AS4JFR.class).info ("JFR is not available in this Java runtime - no phase4 JFR events are emitted");
+        return false;
+      }
+    }
+  }
+
+  private AS4JFR ()
+  {}
+
+  /**
+   * @return <code>true</code> if the Java runtime supports JFR and the phase4
+   *         event classes can be used, <code>false</code> otherwise.
+   */
+  public static boolean isAvailable ()
+  {
+    return AvailabilityHolder.AVAILABLE;
+  }
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for the WSS4J signing of an outgoing AS4 message.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@Name (AS4JFR.EVENT_NAME_PREFIX + "Sign")
+@Label ("AS4 Sign")
+@Description ("Signing of an AS4 message")
+@Category ({ AS4JFR.CATEGORY, "Crypto" })
+@StackTrace (false)
+public class AS4SignEvent extends Event
+{
+  @Label ("Messaging ID")
+  @Description ("The ID of the signed ebMS Messaging element")
+  @Name ("messagingID")
+  public String m_sMessagingID;
+
+  @Label ("Attachment Count")
+  @Name ("attachmentCount")
+  public int m_nAttachmentCount;
+
+  @Label ("Signature Algorithm")
+  @Name ("algorithm")
+  public String m_sAlgorithm;
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for the creation of a temporary (spool) file by the
+ * {@link com.helger.phase4.util.AS4ResourceHelper}. If content is spooled
+ * into the file, the duration covers writing as well.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@Name (AS4JFR.EVENT_NAME_PREFIX + "TempFile")
+@Label ("AS4 Temporary File")
+@Description ("Creation of a temporary file, optionally including spooling content into it")
+@Category ({ AS4JFR.CATEGORY, "IO" })
+@StackTrace (false)
+public class AS4TempFileEvent extends Event
+{
+  @Label ("Path")
+  @Name ("path")
+  public String m_sPath;
+
+  @Label ("Spooled Size")
+  @Description ("The number of bytes spooled into the file or -1 if only the file was created")
+  @DataAmount
+  @Name ("size")
+  public long m_nSize = -1;
+}
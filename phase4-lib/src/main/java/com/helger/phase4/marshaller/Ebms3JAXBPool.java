@@ -0,0 +1,199 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.marshaller;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.bind.ValidationEventHandler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.functional.IThrowingSupplier;
+import com.helger.jaxb.validation.LoggingValidationEventHandler;
+
+/**
+ * A pool of JAXB {@link Marshaller} and {@link Unmarshaller} objects per
+ * {@link EEbms3DocumentType}. Creating them is expensive compared to the
+ * marshalling of the small ebMS headers, but they are not thread-safe. So each
+ * builder borrows one for a single read or write, and returns it afterwards.
+ * Used by {@link Ebms3ReaderBuilder} and {@link Ebms3WriterBuilder}.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@ThreadSafe
+public final class Ebms3JAXBPool
+{
+  /** The maximum number of idle objects per document type and direction */
+  public static final int MAX_IDLE_PER_TYPE = 64;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (Ebms3JAXBPool.class);
+
+  /**
+   * A pooled unmarshaller together with its original event handler.
+   */
+  static final class PooledUnmarshaller
+  {
+    final Unmarshaller m_aUnmarshaller;
+    final ValidationEventHandler m_aDefaultEventHandler;
+
+    PooledUnmarshaller (@Nonnull final Unmarshaller aUnmarshaller) throws JAXBException
+    {
+      m_aUnmarshaller = aUnmarshaller;
+      // Same as in JAXBReaderBuilder
+      m_aDefaultEventHandler = new LoggingValidationEventHandler ().andThen (aUnmarshaller.getEventHandler ());
+    }
+  }
+
+  /**
+   * A pooled marshaller together with its original event handler.
+   */
+  static final class PooledMarshaller
+  {
+    final Marshaller m_aMarshaller;
+    final ValidationEventHandler m_aDefaultEventHandler;
+
+    PooledMarshaller (@Nonnull final Marshaller aMarshaller) throws JAXBException
+    {
+      m_aMarshaller = aMarshaller;
+      // Same as in JAXBWriterBuilder
+      m_aDefaultEventHandler = new LoggingValidationEventHandler ().andThen (aMarshaller.getEventHandler ());
+    }
+  }
+
+  // Filled once and never modified
+  private static final Map <EEbms3DocumentType, BlockingQueue <PooledUnmarshaller>> UNMARSHALLERS = new EnumMap <> (EEbms3DocumentType.class);
+  private static final Map <EEbms3DocumentType, BlockingQueue <PooledMarshaller>> MARSHALLERS = new EnumMap <> (EEbms3DocumentType.class);
+  static
+  {
+    for (final EEbms3DocumentType e : EEbms3DocumentType.values ())
+    {
+      UNMARSHALLERS.put (e, new ArrayBlockingQueue <> (MAX_IDLE_PER_TYPE));
+      MARSHALLERS.put (e, new ArrayBlockingQueue <> (MAX_IDLE_PER_TYPE));
+    }
+  }
+
+  private Ebms3JAXBPool ()
+  {}
+
+  @Nonnull
+  static PooledUnmarshaller borrowUnmarshaller (@Nonnull final EEbms3DocumentType eDocType,
+                                                @Nonnull final IThrowingSupplier <JAXBContext, JAXBException> aContextSupplier) throws JAXBException
+  {
+    final PooledUnmarshaller ret = UNMARSHALLERS.get (eDocType).poll ();
+    if (ret != null)
+      return ret;
+    return new PooledUnmarshaller (aContextSupplier.get ().createUnmarshaller ());
+  }
+
+  static void returnUnmarshaller (@Nonnull final EEbms3DocumentType eDocType, @Nonnull final PooledUnmarshaller aPooled)
+  {
+    // Don't keep references to the objects of the last caller
+    aPooled.m_aUnmarshaller.setSchema (null);
+    try
+    {
+      aPooled.m_aUnmarshaller.setEventHandler (aPooled.m_aDefaultEventHandler);
+    }
+    catch (final JAXBException ex)
+    {
+      return;
+    }
+    UNMARSHALLERS.get (eDocType).offer (aPooled);
+  }
+
+  @Nonnull
+  static PooledMarshaller borrowMarshaller (@Nonnull final EEbms3DocumentType eDocType,
+                                            @Nonnull final IThrowingSupplier <JAXBContext, JAXBException> aContextSupplier) throws JAXBException
+  {
+    final PooledMarshaller ret = MARSHALLERS.get (eDocType).poll ();
+    if (ret != null)
+      return ret;
+    return new PooledMarshaller (aContextSupplier.get ().createMarshaller ());
+  }
+
+  static void returnMarshaller (@Nonnull final EEbms3DocumentType eDocType, @Nonnull final PooledMarshaller aPooled)
+  {
+    // Don't keep references to the objects of the last caller
+    aPooled.m_aMarshaller.setSchema (null);
+    try
+    {
+      aPooled.m_aMarshaller.setEventHandler (aPooled.m_aDefaultEventHandler);
+    }
+    catch (final JAXBException ex)
+    {
+      return;
+    }
+    MARSHALLERS.get (eDocType).offer (aPooled);
+  }
+
+  /**
+   * @param eDocType
+   *        The document type to check. May not be <code>null</code>.
+   * @return The number of idle unmarshallers of the document type.
+   */
+  @Nonnegative
+  public static int getIdleUnmarshallerCount (@Nonnull final EEbms3DocumentType eDocType)
+  {
+    return UNMARSHALLERS.get (eDocType).size ();
+  }
+
+  /**
+   * @param eDocType
+   *        The document type to check. May not be <code>null</code>.
+   * @return The number of idle marshallers of the document type.
+   */
+  @Nonnegative
+  public static int getIdleMarshallerCount (@Nonnull final EEbms3DocumentType eDocType)
+  {
+    return MARSHALLERS.get (eDocType).size ();
+  }
+
+  /**
+   * Compile the XML Schemas and create the JAXB contexts and one marshaller
+   * and unmarshaller of all {@link EEbms3DocumentType}s, so that the first
+   * message does not pay for it. Calling this method more than once has no
+   * effect.
+   */
+  public static void warmUp ()
+  {
+    for (final EEbms3DocumentType eDocType : EEbms3DocumentType.values ())
+    {
+      // The schema is cached inside the document type
+      eDocType.getSchema ();
+      try
+      {
+        new Ebms3ReaderBuilder <> (eDocType, eDocType.getImplementationClass ()).warmUp ();
+        new Ebms3WriterBuilder <> (eDocType).warmUp ();
+      }
+      catch (final JAXBException ex)
+      {
+        LOGGER.error ("Failed to warm up JAXB for " + eDocType, ex);
+      }
+    }
+  }
+}
@@ -17,7 +17,11 @@
 package com.helger.phase4.marshaller;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.bind.ValidationEventHandler;
 
 import com.helger.jaxb.builder.JAXBReaderBuilder;
 import com.helger.phase4.ebms3header.Ebms3Messaging;
@@ -25,7 +29,10 @@ import com.helger.phase4.soap11.Soap11Envelope;
 import com.helger.phase4.soap12.Soap12Envelope;
 
 /**
- * A reader builder for Ebms documents.
+ * A reader builder for Ebms documents.<br>
+ * Since 1.3.2 the unmarshallers are taken from the {@link Ebms3JAXBPool},
+ * unless a custom unmarshaller customizer is set or the JAXB context cache is
+ * disabled.
  *
  * @author Philip Helger
  * @param <JAXBTYPE>
@@ -39,6 +46,71 @@ public class Ebms3ReaderBuilder <JAXBTYPE> extends JAXBReaderBuilder <JAXBTYPE,
     super (eDocType, aImplClass);
   }
 
+  private Ebms3JAXBPool.PooledUnmarshaller m_aBorrowed;
+
+  @Nonnull
+  private EEbms3DocumentType _getDocType ()
+  {
+    return (EEbms3DocumentType) m_aDocType;
+  }
+
+  private boolean _isUsePool ()
+  {
+    // A customizer may change the unmarshaller in unknown ways
+    return isUseJAXBContextCache () && getUnmarshallerCustomizer () == null;
+  }
+
+  @Override
+  @Nonnull
+  protected Unmarshaller createUnmarshaller () throws JAXBException
+  {
+    if (!_isUsePool ())
+      return super.createUnmarshaller ();
+
+    final Ebms3JAXBPool.PooledUnmarshaller aPooled = Ebms3JAXBPool.borrowUnmarshaller (_getDocType (), this::getJAXBContext);
+    final Unmarshaller ret = aPooled.m_aUnmarshaller;
+    final ValidationEventHandler aEventHandler = getValidationEventHandler ();
+    ret.setEventHandler (aEventHandler != null ? aEventHandler : aPooled.m_aDefaultEventHandler);
+    // null if schema validation is disabled
+    ret.setSchema (getSchema ());
+    m_aBorrowed = aPooled;
+    return ret;
+  }
+
+  @Override
+  @Nullable
+  public JAXBTYPE read (@Nonnull final IJAXBUnmarshaller <JAXBTYPE> aHandler)
+  {
+    JAXBTYPE ret = null;
+    try
+    {
+      ret = super.read (aHandler);
+      return ret;
+    }
+    finally
+    {
+      final Ebms3JAXBPool.PooledUnmarshaller aBorrowed = m_aBorrowed;
+      if (aBorrowed != null)
+      {
+        m_aBorrowed = null;
+        // Don't reuse an unmarshaller that failed
+        if (ret != null)
+          Ebms3JAXBPool.returnUnmarshaller (_getDocType (), aBorrowed);
+      }
+    }
+  }
+
+  /**
+   * Create the JAXB context and put an unmarshaller into the pool.
+   *
+   * @throws JAXBException
+   *         in case of error
+   */
+  void warmUp () throws JAXBException
+  {
+    Ebms3JAXBPool.returnUnmarshaller (_getDocType (), Ebms3JAXBPool.borrowUnmarshaller (_getDocType (), this::getJAXBContext));
+  }
+
   @Nonnull
   public static Ebms3ReaderBuilder <Ebms3Messaging> ebms3Messaging ()
   {
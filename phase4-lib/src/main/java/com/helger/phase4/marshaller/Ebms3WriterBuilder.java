@@ -16,9 +16,17 @@
  */
 package com.helger.phase4.marshaller;
 
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
 import javax.annotation.Nonnull;
 import javax.annotation.concurrent.NotThreadSafe;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.ValidationEventHandler;
 
+import com.helger.commons.state.ESuccess;
+import com.helger.jaxb.JAXBMarshallerHelper;
 import com.helger.jaxb.builder.JAXBWriterBuilder;
 import com.helger.phase4.ebms3header.Ebms3Messaging;
 import com.helger.phase4.ebms3header.NonRepudiationInformation;
@@ -26,7 +34,9 @@ import com.helger.phase4.soap11.Soap11Envelope;
 import com.helger.phase4.soap12.Soap12Envelope;
 
 /**
- * A reader builder for Ebms documents.
+ * A writer builder for Ebms documents.<br>
+ * Since 1.3.2 the marshallers are taken from the {@link Ebms3JAXBPool}, if
+ * only the namespace context, the formatting and the charset are customized.
  *
  * @author Philip Helger
  * @param <JAXBTYPE>
@@ -41,6 +51,80 @@ public class Ebms3WriterBuilder <JAXBTYPE> extends JAXBWriterBuilder <JAXBTYPE,
     setNamespaceContext (new Ebms3NamespaceHandler ());
   }
 
+  private Ebms3JAXBPool.PooledMarshaller m_aBorrowed;
+
+  @Nonnull
+  private EEbms3DocumentType _getDocType ()
+  {
+    return (EEbms3DocumentType) m_aDocType;
+  }
+
+  private boolean _isUsePool ()
+  {
+    // Only the properties that are set on every use are supported
+    return isUseJAXBContextCache () &&
+           getMarshallerCustomizer () == null &&
+           getNamespaceContext () != null &&
+           getIndentString () == null &&
+           getSchemaLocation () == null &&
+           getNoNamespaceSchemaLocation () == null;
+  }
+
+  @Override
+  @Nonnull
+  protected Marshaller createMarshaller () throws JAXBException
+  {
+    if (!_isUsePool ())
+      return super.createMarshaller ();
+
+    final Ebms3JAXBPool.PooledMarshaller aPooled = Ebms3JAXBPool.borrowMarshaller (_getDocType (), this::getJAXBContext);
+    final Marshaller ret = aPooled.m_aMarshaller;
+    final ValidationEventHandler aEventHandler = getValidationEventHandler ();
+    ret.setEventHandler (aEventHandler != null ? aEventHandler : aPooled.m_aDefaultEventHandler);
+    JAXBMarshallerHelper.setSunNamespacePrefixMapper (ret, getNamespaceContext ());
+    JAXBMarshallerHelper.setFormattedOutput (ret, isFormattedOutput ());
+    final Charset aCharset = getCharset ();
+    JAXBMarshallerHelper.setEncoding (ret, aCharset != null ? aCharset : StandardCharsets.UTF_8);
+    // null if schema validation is disabled
+    ret.setSchema (getSchema ());
+    m_aBorrowed = aPooled;
+    return ret;
+  }
+
+  @Override
+  @Nonnull
+  public ESuccess write (@Nonnull final JAXBTYPE aObject, @Nonnull final IJAXBMarshaller <JAXBTYPE> aMarshallerFunc)
+  {
+    ESuccess ret = ESuccess.FAILURE;
+    try
+    {
+      ret = super.write (aObject, aMarshallerFunc);
+      return ret;
+    }
+    finally
+    {
+      final Ebms3JAXBPool.PooledMarshaller aBorrowed = m_aBorrowed;
+      if (aBorrowed != null)
+      {
+        m_aBorrowed = null;
+        // Don't reuse a marshaller that failed
+        if (ret.isSuccess ())
+          Ebms3JAXBPool.returnMarshaller (_getDocType (), aBorrowed);
+      }
+    }
+  }
+
+  /**
+   * Create the JAXB context and put a marshaller into the pool.
+   *
+   * @throws JAXBException
+   *         in case of error
+   */
+  void warmUp () throws JAXBException
+  {
+    Ebms3JAXBPool.returnMarshaller (_getDocType (), Ebms3JAXBPool.borrowMarshaller (_getDocType (), this::getJAXBContext));
+  }
+
   @Nonnull
   public static Ebms3WriterBuilder <Ebms3Messaging> ebms3Messaging ()
   {
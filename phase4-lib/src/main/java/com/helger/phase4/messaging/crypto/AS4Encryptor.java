@@ -46,6 +46,8 @@ import com.helger.phase4.attachment.WSS4JAttachmentCallbackHandler;
 import com.helger.phase4.config.AS4Configuration;
 import com.helger.phase4.crypto.AS4CryptParams;
 import com.helger.phase4.crypto.IAS4CryptoFactory;
+import com.helger.phase4.jfr.AS4EncryptEvent;
+import com.helger.phase4.jfr.AS4JFR;
 import com.helger.phase4.messaging.domain.MessageHelperMethods;
 import com.helger.phase4.messaging.mime.AS4MimeMessage;
 import com.helger.phase4.messaging.mime.MimeMessageCreator;
@@ -67,6 +69,25 @@ public final class AS4Encryptor
   private AS4Encryptor ()
   {}
 
+  private static void _commitEvent (@Nullable final AS4EncryptEvent aEvent,
+                                    final boolean bMime,
+                                    @Nullable final ICommonsList <WSS4JAttachment> aAttachments,
+                                    @Nonnull final AS4CryptParams aCryptParams)
+  {
+    if (aEvent != null)
+    {
+      aEvent.end ();
+      if (aEvent.shouldCommit ())
+      {
+        aEvent.m_bMime = bMime;
+        aEvent.m_nAttachmentCount = CollectionHelper.getSize (aAttachments);
+        if (aCryptParams.getAlgorithmCrypt () != null)
+          aEvent.m_sAlgorithm = aCryptParams.getAlgorithmCrypt ().getID ();
+        aEvent.commit ();
+      }
+    }
+  }
+
   @Nonnull
   private static WSSecEncrypt _createEncrypt (@Nonnull final WSSecHeader aSecHeader, @Nonnull final AS4CryptParams aCryptParams)
   {
@@ -153,16 +174,26 @@ public final class AS4Encryptor
     ValueEnforcer.notNull (aDoc, "XMLDoc");
     ValueEnforcer.notNull (aCryptParams, "CryptParams");
 
-    if (AS4Configuration.isWSS4JSynchronizedSecurity ())
+    final AS4EncryptEvent aEvent = AS4JFR.isAvailable () ? new AS4EncryptEvent () : null;
+    if (aEvent != null)
+      aEvent.begin ();
+    try
     {
-      // Synchronize
-      return WSSSynchronizer.call ( () -> _encryptSoapBodyPayload (aCryptoFactory, eSoapVersion, aDoc, bMustUnderstand, aCryptParams));
-    }
+      if (AS4Configuration.isWSS4JSynchronizedSecurity ())
+      {
+        // Synchronize
+        return WSSSynchronizer.call ( () -> _encryptSoapBodyPayload (aCryptoFactory, eSoapVersion, aDoc, bMustUnderstand, aCryptParams));
+      }
 
-    // Ensure WSSConfig is initialized
-    WSSConfigManager.getInstance ();
+      // Ensure WSSConfig is initialized
+      WSSConfigManager.getInstance ();
 
-    return _encryptSoapBodyPayload (aCryptoFactory, eSoapVersion, aDoc, bMustUnderstand, aCryptParams);
+      return _encryptSoapBodyPayload (aCryptoFactory, eSoapVersion, aDoc, bMustUnderstand, aCryptParams);
+    }
+    finally
+    {
+      _commitEvent (aEvent, false, null, aCryptParams);
+    }
   }
 
   @Nonnull
@@ -245,21 +276,31 @@ public final class AS4Encryptor
     ValueEnforcer.notNull (aResHelper, "ResHelper");
     ValueEnforcer.notNull (aCryptParams, "CryptParams");
 
-    if (AS4Configuration.isWSS4JSynchronizedSecurity ())
+    final AS4EncryptEvent aEvent = AS4JFR.isAvailable () ? new AS4EncryptEvent () : null;
+    if (aEvent != null)
+      aEvent.begin ();
+    try
     {
-      // Synchronize
-      return WSSSynchronizer.call ( () -> _encryptMimeMessage (eSoapVersion,
-                                                               aDoc,
-                                                               aAttachments,
-                                                               aCryptoFactory,
-                                                               bMustUnderstand,
-                                                               aResHelper,
-                                                               aCryptParams));
-    }
+      if (AS4Configuration.isWSS4JSynchronizedSecurity ())
+      {
+        // Synchronize
+        return WSSSynchronizer.call ( () -> _encryptMimeMessage (eSoapVersion,
+                                                                 aDoc,
+                                                                 aAttachments,
+                                                                 aCryptoFactory,
+                                                                 bMustUnderstand,
+                                                                 aResHelper,
+                                                                 aCryptParams));
+      }
 
-    // Ensure WSSConfig is initialized
-    WSSConfigManager.getInstance ();
+      // Ensure WSSConfig is initialized
+      WSSConfigManager.getInstance ();
 
-    return _encryptMimeMessage (eSoapVersion, aDoc, aAttachments, aCryptoFactory, bMustUnderstand, aResHelper, aCryptParams);
+      return _encryptMimeMessage (eSoapVersion, aDoc, aAttachments, aCryptoFactory, bMustUnderstand, aResHelper, aCryptParams);
+    }
+    finally
+    {
+      _commitEvent (aEvent, true, aAttachments, aCryptParams);
+    }
   }
 }
@@ -39,6 +39,8 @@ import com.helger.phase4.attachment.WSS4JAttachmentCallbackHandler;
 import com.helger.phase4.config.AS4Configuration;
 import com.helger.phase4.crypto.AS4SigningParams;
 import com.helger.phase4.crypto.IAS4CryptoFactory;
+import com.helger.phase4.jfr.AS4JFR;
+import com.helger.phase4.jfr.AS4SignEvent;
 import com.helger.phase4.messaging.domain.MessageHelperMethods;
 import com.helger.phase4.soap.ESoapVersion;
 import com.helger.phase4.util.AS4ResourceHelper;
@@ -158,29 +160,50 @@ public final class AS4Signer
     ValueEnforcer.notNull (aResHelper, "ResHelper");
     ValueEnforcer.notNull (aSigningParams, "SigningParams");
 
-    if (AS4Configuration.isWSS4JSynchronizedSecurity ())
+    final AS4SignEvent aEvent = AS4JFR.isAvailable () ? new AS4SignEvent () : null;
+    if (aEvent != null)
+      aEvent.begin ();
+    try
     {
-      // Synchronize
-      return WSSSynchronizer.call ( () -> _createSignedMessage (aCryptoFactory,
-                                                                aPreSigningMessage,
-                                                                eSoapVersion,
-                                                                sMessagingID,
-                                                                aAttachments,
-                                                                aResHelper,
-                                                                bMustUnderstand,
-                                                                aSigningParams));
+      if (AS4Configuration.isWSS4JSynchronizedSecurity ())
+      {
+        // Synchronize
+        return WSSSynchronizer.call ( () -> _createSignedMessage (aCryptoFactory,
+                                                                  aPreSigningMessage,
+                                                                  eSoapVersion,
+                                                                  sMessagingID,
+                                                                  aAttachments,
+                                                                  aResHelper,
+                                                                  bMustUnderstand,
+                                                                  aSigningParams));
+      }
+
+      // Ensure WSSConfig is initialized
+      WSSConfigManager.getInstance ();
+
+      return _createSignedMessage (aCryptoFactory,
+                                   aPreSigningMessage,
+                                   eSoapVersion,
+                                   sMessagingID,
+                                   aAttachments,
+                                   aResHelper,
+                                   bMustUnderstand,
+                                   aSigningParams);
+    }
+    finally
+    {
+      if (aEvent != null)
+      {
+        aEvent.end ();
+        if (aEvent.shouldCommit ())
+        {
+          aEvent.m_sMessagingID = sMessagingID;
+          aEvent.m_nAttachmentCount = CollectionHelper.getSize (aAttachments);
+          if (aSigningParams.getAlgorithmSign () != null)
+            aEvent.m_sAlgorithm = aSigningParams.getAlgorithmSign ().getID ();
+          aEvent.commit ();
+        }
+      }
     }
-
-    // Ensure WSSConfig is initialized
-    WSSConfigManager.getInstance ();
-
-    return _createSignedMessage (aCryptoFactory,
-                                 aPreSigningMessage,
-                                 eSoapVersion,
-                                 sMessagingID,
-                                 aAttachments,
-                                 aResHelper,
-                                 bMustUnderstand,
-                                 aSigningParams);
   }
 }
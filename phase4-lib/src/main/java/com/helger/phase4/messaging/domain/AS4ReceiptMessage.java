@@ -29,6 +29,7 @@ import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.collection.impl.CommonsArrayList;
 import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.phase4.CAS4;
+import com.helger.phase4.config.AS4Configuration;
 import com.helger.phase4.ebms3header.Ebms3MessageInfo;
 import com.helger.phase4.ebms3header.Ebms3Receipt;
 import com.helger.phase4.ebms3header.Ebms3SignalMessage;
@@ -73,9 +74,18 @@ public class AS4ReceiptMessage extends AbstractAS4Message <AS4ReceiptMessage>
     return m_aSignalMessage;
   }
 
+  /**
+   * Get all <code>ds:Reference</code> elements of the signature of the passed
+   * SOAP document.
+   *
+   * @param aUserMessage
+   *        The SOAP document of the user message. May be <code>null</code>.
+   * @return A non-<code>null</code> but maybe empty list.
+   * @since 1.3.2
+   */
   @Nonnull
   @ReturnsMutableCopy
-  private static ICommonsList <Node> _getAllReferences (@Nullable final Node aUserMessage)
+  public static ICommonsList <Node> getAllDSReferences (@Nullable final Node aUserMessage)
   {
     final ICommonsList <Node> aDSRefs = new CommonsArrayList <> ();
     Node aNext = XMLHelper.getFirstChildElementOfName (aUserMessage, "Envelope");
@@ -127,7 +137,7 @@ public class AS4ReceiptMessage extends AbstractAS4Message <AS4ReceiptMessage>
                                           @Nonnull final boolean bShouldUseNonRepudiation)
   {
     // Only for signed messages
-    final ICommonsList <Node> aDSRefs = _getAllReferences (aSoapDocument);
+    final ICommonsList <Node> aDSRefs = getAllDSReferences (aSoapDocument);
 
     final Ebms3SignalMessage aSignalMessage = new Ebms3SignalMessage ();
 
@@ -157,6 +167,7 @@ public class AS4ReceiptMessage extends AbstractAS4Message <AS4ReceiptMessage>
       }
 
       aEbms3Receipt.addAny (Ebms3WriterBuilder.nonRepudiationInformation ()
+                                              .setUseSchema (AS4Configuration.isOutgoingSchemaValidation ())
                                               .getAsDocument (aNonRepudiationInformation)
                                               .getDocumentElement ());
     }
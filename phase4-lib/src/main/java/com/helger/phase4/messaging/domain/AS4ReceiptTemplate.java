@@ -0,0 +1,337 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.messaging.domain;
+
+import java.time.OffsetDateTime;
+import java.util.Base64;
+import java.util.EnumMap;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.xml.XMLConstants;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.datetime.XMLOffsetDateTime;
+import com.helger.commons.string.StringHelper;
+import com.helger.jaxb.adapter.AdapterXMLOffsetDateTime;
+import com.helger.phase4.CAS4;
+import com.helger.phase4.ebms3header.Ebms3Receipt;
+import com.helger.phase4.ebms3header.Ebms3SignalMessage;
+import com.helger.phase4.ebms3header.MessagePartNRInformation;
+import com.helger.phase4.ebms3header.NonRepudiationInformation;
+import com.helger.phase4.marshaller.Ebms3WriterBuilder;
+import com.helger.phase4.soap.ESoapVersion;
+import com.helger.xml.XMLHelper;
+import com.helger.xsds.xmldsig.DigestMethodType;
+import com.helger.xsds.xmldsig.ReferenceType;
+
+/**
+ * Pre-rendered template for receipts with non-repudiation information. The
+ * SOAP document of a receipt is rendered once per SOAP version via JAXB, and
+ * for each receipt only the IDs, the timestamp and the <code>ds:Reference</code>
+ * elements are filled into a copy of it. The created document is equivalent to
+ * the one created by
+ * {@link AS4ReceiptMessage#create(ESoapVersion, String, com.helger.phase4.ebms3header.Ebms3UserMessage, Node, boolean)}
+ * with non-repudiation enabled and <code>mustUnderstand</code> set to
+ * <code>true</code>, and can be passed to the signing step directly.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@ThreadSafe
+public final class AS4ReceiptTemplate
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4ReceiptTemplate.class);
+  private static final AdapterXMLOffsetDateTime DT_ADAPTER = new AdapterXMLOffsetDateTime ();
+  private static final Map <ESoapVersion, AS4ReceiptTemplate> INSTANCES = new EnumMap <> (ESoapVersion.class);
+  static
+  {
+    for (final ESoapVersion e : ESoapVersion.values ())
+      INSTANCES.put (e, new AS4ReceiptTemplate (e));
+  }
+
+  private final ESoapVersion m_eSoapVersion;
+  private final SimpleLock m_aLock = new SimpleLock ();
+  // Read only, but DOM nodes may not be accessed concurrently
+  private final Document m_aTemplate;
+
+  private AS4ReceiptTemplate (@Nonnull final ESoapVersion eSoapVersion)
+  {
+    m_eSoapVersion = eSoapVersion;
+
+    // A dummy reference that is replaced for each receipt
+    final DigestMethodType aDigestMethod = new DigestMethodType ();
+    aDigestMethod.setAlgorithm ("urn:dummy");
+    final ReferenceType aReference = new ReferenceType ();
+    aReference.setURI ("#dummy");
+    aReference.setDigestMethod (aDigestMethod);
+    aReference.setDigestValue (new byte [1]);
+    final MessagePartNRInformation aMessagePartNRInformation = new MessagePartNRInformation ();
+    aMessagePartNRInformation.setReference (aReference);
+    final NonRepudiationInformation aNonRepudiationInformation = new NonRepudiationInformation ();
+    aNonRepudiationInformation.addMessagePartNRInformation (aMessagePartNRInformation);
+
+    final Ebms3SignalMessage aSignalMessage = new Ebms3SignalMessage ();
+    aSignalMessage.setMessageInfo (MessageHelperMethods.createEbms3MessageInfo ("dummy", "dummy", OffsetDateTime.now ()));
+    final Ebms3Receipt aEbms3Receipt = new Ebms3Receipt ();
+    aEbms3Receipt.addAny (Ebms3WriterBuilder.nonRepudiationInformation ().getAsDocument (aNonRepudiationInformation).getDocumentElement ());
+    aSignalMessage.setReceipt (aEbms3Receipt);
+
+    m_aTemplate = new AS4ReceiptMessage (eSoapVersion, aSignalMessage).setMustUnderstand (true).getAsSoapDocument ();
+  }
+
+  /**
+   * @param eSoapVersion
+   *        The SOAP version to use. May not be <code>null</code>.
+   * @return The template for the provided SOAP version. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public static AS4ReceiptTemplate getInstance (@Nonnull final ESoapVersion eSoapVersion)
+  {
+    ValueEnforcer.notNull (eSoapVersion, "SoapVersion");
+    return INSTANCES.get (eSoapVersion);
+  }
+
+  /**
+   * @return The SOAP version of this template. Never <code>null</code>.
+   */
+  @Nonnull
+  public ESoapVersion getSoapVersion ()
+  {
+    return m_eSoapVersion;
+  }
+
+  @Nonnull
+  private static Element _getChild (@Nonnull final Node aParent, @Nonnull final String sNamespaceURI, @Nonnull final String sLocalName)
+  {
+    final Element ret = XMLHelper.getFirstChildElementOfName (aParent, sNamespaceURI, sLocalName);
+    if (ret == null)
+      throw new IllegalStateException ("Receipt template is missing element {" + sNamespaceURI + "}" + sLocalName);
+    return ret;
+  }
+
+  @Nonnull
+  private static Element _createElement (@Nonnull final Document aDoc, @Nonnull final Element aSibling, @Nonnull final String sLocalName)
+  {
+    final String sPrefix = aSibling.getPrefix ();
+    return aDoc.createElementNS (aSibling.getNamespaceURI (), StringHelper.hasText (sPrefix) ? sPrefix + ":" + sLocalName : sLocalName);
+  }
+
+  private static void _copyAttribute (@Nonnull final Element aSrc, @Nonnull final Element aDst, @Nonnull final String sAttrName)
+  {
+    // All attributes of the xmldsig elements are unqualified
+    if (aSrc.hasAttributeNS (null, sAttrName))
+      aDst.setAttributeNS (null, sAttrName, aSrc.getAttributeNS (null, sAttrName));
+  }
+
+  private static void _declareNamespace (@Nonnull final Element aElement, @Nonnull final Node aNode)
+  {
+    final String sNamespaceURI = aNode.getNamespaceURI ();
+    if (sNamespaceURI != null && !XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals (sNamespaceURI))
+    {
+      final String sPrefix = aNode.getPrefix ();
+      final String sAttrName = StringHelper.hasText (sPrefix) ? XMLConstants.XMLNS_ATTRIBUTE + ":" + sPrefix : XMLConstants.XMLNS_ATTRIBUTE;
+      if (!aElement.hasAttribute (sAttrName))
+        aElement.setAttributeNS (XMLConstants.XMLNS_ATTRIBUTE_NS_URI, sAttrName, sNamespaceURI);
+    }
+  }
+
+  private static void _declareAllNamespaces (@Nonnull final Element aElement)
+  {
+    // The namespace declarations may be located on ancestors in the source
+    // document, which are not imported
+    _declareNamespace (aElement, aElement);
+    final NamedNodeMap aAttrs = aElement.getAttributes ();
+    for (int i = 0; i < aAttrs.getLength (); ++i)
+    {
+      final Attr aAttr = (Attr) aAttrs.item (i);
+      if (aAttr.getPrefix () != null)
+        _declareNamespace (aElement, aAttr);
+    }
+    for (final Element aChild : XMLHelper.getChildElementIterator (aElement))
+      _declareAllNamespaces (aChild);
+  }
+
+  /**
+   * Copy the mixed content of the source element, as JAXB does for
+   * <code>xs:any</code> content: text and elements are retained, comments and
+   * processing instructions are dropped.
+   */
+  private static void _copyMixedContent (@Nonnull final Document aDoc, @Nonnull final Element aSrc, @Nonnull final Element aDst)
+  {
+    for (Node aChild = aSrc.getFirstChild (); aChild != null; aChild = aChild.getNextSibling ())
+    {
+      switch (aChild.getNodeType ())
+      {
+        case Node.ELEMENT_NODE:
+        {
+          final Element aCopy = (Element) aDoc.importNode (aChild, true);
+          _declareAllNamespaces (aCopy);
+          aDst.appendChild (aCopy);
+          break;
+        }
+        case Node.TEXT_NODE:
+        case Node.CDATA_SECTION_NODE:
+          aDst.appendChild (aDoc.createTextNode (aChild.getNodeValue ()));
+          break;
+        default:
+          // ignore
+          break;
+      }
+    }
+  }
+
+  /**
+   * Create the copy of a <code>ds:Reference</code> element, the way it would
+   * look after a JAXB round trip.
+   *
+   * @return <code>null</code> if the source reference is not valid
+   */
+  @Nullable
+  private static Element _createReference (@Nonnull final Document aDoc, @Nonnull final Element aRefProto, @Nonnull final Element aSrcRef)
+  {
+    final Element aSrcDigestMethod = XMLHelper.getFirstChildElementOfName (aSrcRef, CAS4.DS_NS, "DigestMethod");
+    final Element aSrcDigestValue = XMLHelper.getFirstChildElementOfName (aSrcRef, CAS4.DS_NS, "DigestValue");
+    if (aSrcDigestMethod == null || !aSrcDigestMethod.hasAttributeNS (null, "Algorithm") || aSrcDigestValue == null)
+      return null;
+
+    final String sDigestValue;
+    try
+    {
+      // JAXB re-encodes the base64 value
+      sDigestValue = Base64.getEncoder ().encodeToString (Base64.getMimeDecoder ().decode (aSrcDigestValue.getTextContent ()));
+    }
+    catch (final IllegalArgumentException ex)
+    {
+      return null;
+    }
+
+    // Shallow copy for the namespace declarations
+    final Element aRef = (Element) aRefProto.cloneNode (false);
+    aRef.removeAttributeNS (null, "URI");
+    _copyAttribute (aSrcRef, aRef, "Id");
+    _copyAttribute (aSrcRef, aRef, "URI");
+    _copyAttribute (aSrcRef, aRef, "Type");
+
+    final Element aSrcTransforms = XMLHelper.getFirstChildElementOfName (aSrcRef, CAS4.DS_NS, "Transforms");
+    if (aSrcTransforms != null)
+    {
+      final Element aTransforms = (Element) aRef.appendChild (_createElement (aDoc, aRefProto, "Transforms"));
+      for (final Element aSrcTransform : XMLHelper.getChildElementIteratorNS (aSrcTransforms, CAS4.DS_NS, "Transform"))
+      {
+        final Element aTransform = (Element) aTransforms.appendChild (_createElement (aDoc, aRefProto, "Transform"));
+        _copyAttribute (aSrcTransform, aTransform, "Algorithm");
+        _copyMixedContent (aDoc, aSrcTransform, aTransform);
+      }
+    }
+
+    final Element aDigestMethod = (Element) aRef.appendChild (_createElement (aDoc, aRefProto, "DigestMethod"));
+    _copyAttribute (aSrcDigestMethod, aDigestMethod, "Algorithm");
+    _copyMixedContent (aDoc, aSrcDigestMethod, aDigestMethod);
+
+    aRef.appendChild (_createElement (aDoc, aRefProto, "DigestValue")).appendChild (aDoc.createTextNode (sDigestValue));
+    return aRef;
+  }
+
+  /**
+   * Create a new receipt SOAP document from this template.
+   *
+   * @param sMessagingID
+   *        The <code>wsu:Id</code> of the Messaging element, needed for
+   *        signing. May neither be <code>null</code> nor empty.
+   * @param sMessageID
+   *        The message ID of the receipt. May neither be <code>null</code> nor
+   *        empty.
+   * @param sRefToMessageID
+   *        The ID of the message to be acknowledged. May be <code>null</code>.
+   * @param aTimestamp
+   *        The timestamp of the receipt. May not be <code>null</code>.
+   * @param aDSRefs
+   *        The <code>ds:Reference</code> elements of the received message. May
+   *        neither be <code>null</code> nor empty.
+   * @return <code>null</code> if one of the references is invalid. In that
+   *         case {@link AS4ReceiptMessage} must be used.
+   */
+  @Nullable
+  public Document createSoapDocument (@Nonnull @Nonempty final String sMessagingID,
+                                      @Nonnull @Nonempty final String sMessageID,
+                                      @Nullable final String sRefToMessageID,
+                                      @Nonnull final XMLOffsetDateTime aTimestamp,
+                                      @Nonnull @Nonempty final Iterable <? extends Node> aDSRefs)
+  {
+    ValueEnforcer.notEmpty (sMessagingID, "MessagingID");
+    ValueEnforcer.notEmpty (sMessageID, "MessageID");
+    ValueEnforcer.notNull (aTimestamp, "Timestamp");
+    ValueEnforcer.notNull (aDSRefs, "DSRefs");
+
+    final Document aDoc = m_aLock.lockedGet ( () -> (Document) m_aTemplate.cloneNode (true));
+
+    final Element aHeader = _getChild (aDoc.getDocumentElement (),
+                                       m_eSoapVersion.getNamespaceURI (),
+                                       m_eSoapVersion.getHeaderElementName ());
+    final Element aMessaging = _getChild (aHeader, CAS4.EBMS_NS, "Messaging");
+    aMessaging.getAttributeNodeNS (CAS4.WSU_NS, "Id").setValue (sMessagingID);
+
+    final Element aSignalMessage = _getChild (aMessaging, CAS4.EBMS_NS, "SignalMessage");
+    final Element aMessageInfo = _getChild (aSignalMessage, CAS4.EBMS_NS, "MessageInfo");
+    _getChild (aMessageInfo, CAS4.EBMS_NS, "Timestamp").setTextContent (DT_ADAPTER.marshal (aTimestamp));
+    _getChild (aMessageInfo, CAS4.EBMS_NS, "MessageId").setTextContent (sMessageID);
+    final Element aRefToMessageID = _getChild (aMessageInfo, CAS4.EBMS_NS, "RefToMessageId");
+    if (StringHelper.hasText (sRefToMessageID))
+      aRefToMessageID.setTextContent (sRefToMessageID);
+    else
+      aMessageInfo.removeChild (aRefToMessageID);
+
+    final Element aReceipt = _getChild (aSignalMessage, CAS4.EBMS_NS, "Receipt");
+    final Element aNRI = _getChild (aReceipt, CAS4.EBBP_NS, "NonRepudiationInformation");
+    final Element aPartProto = _getChild (aNRI, CAS4.EBBP_NS, "MessagePartNRInformation");
+    final Element aRefProto = _getChild (aPartProto, CAS4.DS_NS, "Reference");
+    aNRI.removeChild (aPartProto);
+
+    int nCount = 0;
+    for (final Node aDSRef : aDSRefs)
+    {
+      final Element aRef = _createReference (aDoc, aRefProto, (Element) aDSRef);
+      if (aRef == null)
+      {
+        LOGGER.warn ("Cannot use the receipt template for ds:Reference with URI '" +
+                     ((Element) aDSRef).getAttribute ("URI") +
+                     "'");
+        return null;
+      }
+      final Element aPart = (Element) aNRI.appendChild (aPartProto.cloneNode (false));
+      aPart.appendChild (aRef);
+      nCount++;
+    }
+    if (nCount == 0)
+      throw new IllegalArgumentException ("At least one ds:Reference must be provided");
+    return aDoc;
+  }
+}
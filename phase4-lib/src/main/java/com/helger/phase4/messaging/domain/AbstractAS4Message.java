@@ -28,6 +28,7 @@ import com.helger.commons.annotation.Nonempty;
 import com.helger.commons.string.ToStringGenerator;
 import com.helger.commons.traits.IGenericImplTrait;
 import com.helger.phase4.CAS4;
+import com.helger.phase4.config.AS4Configuration;
 import com.helger.phase4.ebms3header.Ebms3Messaging;
 import com.helger.phase4.marshaller.Ebms3WriterBuilder;
 import com.helger.phase4.soap.ESoapVersion;
@@ -103,8 +104,10 @@ public abstract class AbstractAS4Message <IMPLTYPE extends AbstractAS4Message <I
   @Nonnull
   public final Document getAsSoapDocument (@Nullable final Node aPayload)
   {
+    final boolean bValidate = AS4Configuration.isOutgoingSchemaValidation ();
+
     // Convert to DOM Node
-    final Document aEbms3Document = Ebms3WriterBuilder.ebms3Messaging ().getAsDocument (m_aMessaging);
+    final Document aEbms3Document = Ebms3WriterBuilder.ebms3Messaging ().setUseSchema (bValidate).getAsDocument (m_aMessaging);
     if (aEbms3Document == null)
       throw new IllegalStateException ("Failed to write EBMS3 Messaging to XML");
 
@@ -121,7 +124,7 @@ public abstract class AbstractAS4Message <IMPLTYPE extends AbstractAS4Message <I
         aSoapEnv.getHeader ().addAny (aEbms3Document.getDocumentElement ());
         if (aRealPayload != null)
           aSoapEnv.getBody ().addAny (aRealPayload);
-        return Ebms3WriterBuilder.soap11 ().getAsDocument (aSoapEnv);
+        return Ebms3WriterBuilder.soap11 ().setUseSchema (bValidate).getAsDocument (aSoapEnv);
       }
       case SOAP_12:
       {
@@ -132,7 +135,7 @@ public abstract class AbstractAS4Message <IMPLTYPE extends AbstractAS4Message <I
         aSoapEnv.getHeader ().addAny (aEbms3Document.getDocumentElement ());
         if (aRealPayload != null)
           aSoapEnv.getBody ().addAny (aRealPayload);
-        return Ebms3WriterBuilder.soap12 ().getAsDocument (aSoapEnv);
+        return Ebms3WriterBuilder.soap12 ().setUseSchema (bValidate).getAsDocument (aSoapEnv);
       }
       default:
         throw new IllegalStateException ("Unsupported SOAP version " + m_eSoapVersion);
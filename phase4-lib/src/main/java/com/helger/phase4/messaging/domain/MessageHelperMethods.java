@@ -41,6 +41,7 @@ import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.collection.impl.ICommonsSet;
 import com.helger.commons.datetime.XMLOffsetDateTime;
 import com.helger.commons.http.HttpHeaderMap;
+import com.helger.commons.lang.ServiceLoaderHelper;
 import com.helger.commons.regex.RegExHelper;
 import com.helger.commons.string.StringHelper;
 import com.helger.commons.url.EURLProtocol;
@@ -60,6 +61,8 @@ import com.helger.phase4.ebms3header.Ebms3PayloadInfo;
 import com.helger.phase4.ebms3header.Ebms3Property;
 import com.helger.phase4.ebms3header.Ebms3Service;
 import com.helger.phase4.ebms3header.Ebms3To;
+import com.helger.phase4.messaging.id.AS4RandomUUIDMessageIDGenerator;
+import com.helger.phase4.messaging.id.IAS4MessageIDGeneratorSPI;
 import com.helger.phase4.mgr.MetaAS4Manager;
 
 /**
@@ -84,6 +87,12 @@ public final class MessageHelperMethods
   public static final String MESSAGE_ID_SUFFIX_REGEX = "^[a-zA-Z0-9\\._\\-]+$";
 
   private static String s_sCustomMessageIDSuffix = null;
+  private static volatile IAS4MessageIDGeneratorSPI s_aMessageIDGenerator;
+  static
+  {
+    final IAS4MessageIDGeneratorSPI aSPI = ServiceLoaderHelper.getFirstSPIImplementation (IAS4MessageIDGeneratorSPI.class);
+    s_aMessageIDGenerator = aSPI != null ? aSPI : new AS4RandomUUIDMessageIDGenerator ();
+  }
 
   private MessageHelperMethods ()
   {}
@@ -129,13 +138,42 @@ public final class MessageHelperMethods
     s_sCustomMessageIDSuffix = StringHelper.trimStart (sSuffix, '.');
   }
 
+  /**
+   * @return The message ID generator used in {@link #createRandomMessageID()}.
+   *         Never <code>null</code>.
+   * @since 1.3.2
+   */
+  @Nonnull
+  public static IAS4MessageIDGeneratorSPI getMessageIDGenerator ()
+  {
+    return s_aMessageIDGenerator;
+  }
+
+  /**
+   * Set the message ID generator to be used in
+   * {@link #createRandomMessageID()}. By default the first
+   * {@link IAS4MessageIDGeneratorSPI} implementation found via the
+   * ServiceLoader is used, or {@link AS4RandomUUIDMessageIDGenerator} if none
+   * is present.
+   *
+   * @param aMessageIDGenerator
+   *        The generator to be used. May not be <code>null</code>.
+   * @since 1.3.2
+   */
+  public static void setMessageIDGenerator (@Nonnull final IAS4MessageIDGeneratorSPI aMessageIDGenerator)
+  {
+    ValueEnforcer.notNull (aMessageIDGenerator, "MessageIDGenerator");
+    s_aMessageIDGenerator = aMessageIDGenerator;
+  }
+
   /**
    * Create a new random AS4 Message ID. Every call results in a new unique
    * message ID. The layout of a created message ID is like this:
-   * <code>UUID@phase4[.customSuffix]</code> where <code>UUID</code> is a random
-   * UID, "@phase4" is a constant, non-changeable value and
-   * <code>customSuffix</code> is the optional suffix to be set via
-   * {@link #setCustomMessageIDSuffix(String)}.
+   * <code>UUID@phase4[.customSuffix]</code> where <code>UUID</code> is the
+   * unique ID created by the {@link #getMessageIDGenerator() message ID
+   * generator} (a random UUID by default), "@phase4" is a constant,
+   * non-changeable value and <code>customSuffix</code> is the optional suffix
+   * to be set via {@link #setCustomMessageIDSuffix(String)}.
    *
    * @return A new random AS4 Message ID. Neither <code>null</code> nor empty.
    */
@@ -143,7 +181,9 @@ public final class MessageHelperMethods
   @Nonempty
   public static String createRandomMessageID ()
   {
-    return UUID.randomUUID ().toString () + "@" + StringHelper.getConcatenatedOnDemand (CAS4.LIB_NAME, '.', s_sCustomMessageIDSuffix);
+    return s_aMessageIDGenerator.createUniqueID () +
+           "@" +
+           StringHelper.getConcatenatedOnDemand (CAS4.LIB_NAME, '.', s_sCustomMessageIDSuffix);
   }
 
   /**
@@ -272,6 +312,21 @@ public final class MessageHelperMethods
     return aDesc;
   }
 
+  /**
+   * Get the error description that is used when a message with an already
+   * received message ID is rejected.
+   *
+   * @param sMessageID
+   *        The duplicate message ID. May not be <code>null</code>.
+   * @return The description text. Never <code>null</code>.
+   * @since 1.3.2
+   */
+  @Nonnull
+  public static String getDuplicateMessageErrorText (@Nonnull final String sMessageID)
+  {
+    return "Another message with the same Message ID '" + sMessageID + "' was already received!";
+  }
+
   @Nonnull
   public static Ebms3Property createEbms3Property (@Nonnull @Nonempty final String sName, @Nonnull final String sValue)
   {
@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.messaging.id;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.annotation.Nonempty;
+
+/**
+ * A high-throughput message ID generator that creates time-ordered UUIDs in
+ * the layout of UUID version 7 (RFC 9562):
+ * <ul>
+ * <li>48 bits Unix time in milliseconds</li>
+ * <li>4 bits version (7)</li>
+ * <li>12 bits per-thread sequence counter</li>
+ * <li>2 bits variant</li>
+ * <li>22 bits per-thread slot number, starting at a random value per JVM</li>
+ * <li>40 bits random taken from the per-thread random generator</li>
+ * </ul>
+ * No shared state is touched on the hot path and no {@link java.security.SecureRandom}
+ * is used. Uniqueness within a JVM is guaranteed, because every thread gets its
+ * own slot number and the timestamp/sequence pair of a thread never repeats
+ * (if the sequence overflows within one millisecond, the timestamp is
+ * advanced, so the IDs of a thread are strictly monotonic even if the clock
+ * goes backwards).<br>
+ * Uniqueness across JVMs is only probabilistic and much weaker than for random
+ * UUIDs (122 random bits): two IDs of different JVMs with the same timestamp
+ * and sequence number only differ if the slot numbers or the 40 random bits
+ * differ. Use {@link AS4RandomUUIDMessageIDGenerator} if many independent nodes
+ * create message IDs for the same receiver at a high rate.<br>
+ * Note: slot numbers are reused after 2<sup>22</sup> threads were created.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@ThreadSafe
+public class AS4TimeOrderedMessageIDGenerator implements IAS4MessageIDGeneratorSPI
+{
+  private static final int SLOT_BITS = 22;
+  private static final int SEQUENCE_MAX = 0xfff;
+  private static final long TIMESTAMP_MASK = 0xffff_ffff_ffffL;
+  private static final long RANDOM_MASK = 0xff_ffff_ffffL;
+
+  // Random start, so that different JVMs don't use the same slot numbers
+  private static final AtomicInteger SLOT_COUNTER = new AtomicInteger (ThreadLocalRandom.current ().nextInt ());
+
+  private static final class PerThreadState
+  {
+    private final long m_nSlotBits;
+    private long m_nLastMillis = -1;
+    private int m_nSequence;
+
+    PerThreadState ()
+    {
+      m_nSlotBits = (SLOT_COUNTER.getAndIncrement () & ((1L << SLOT_BITS) - 1)) << 40;
+    }
+  }
+
+  private static final ThreadLocal <PerThreadState> STATE = ThreadLocal.withInitial (PerThreadState::new);
+
+  /**
+   * @return A new time-ordered UUID. Never <code>null</code>.
+   */
+  @Nonnull
+  public static UUID createUUID ()
+  {
+    final PerThreadState aState = STATE.get ();
+    final long nNow = System.currentTimeMillis ();
+    if (nNow > aState.m_nLastMillis)
+    {
+      aState.m_nLastMillis = nNow;
+      aState.m_nSequence = 0;
+    }
+    else
+    {
+      // Same millisecond or clock went backwards - stay monotonic
+      if (aState.m_nSequence == SEQUENCE_MAX)
+      {
+        aState.m_nLastMillis++;
+        aState.m_nSequence = 0;
+      }
+      else
+        aState.m_nSequence++;
+    }
+
+    final long nMSB = ((aState.m_nLastMillis & TIMESTAMP_MASK) << 16) | 0x7000L | aState.m_nSequence;
+    final long nLSB = 0x8000_0000_0000_0000L | aState.m_nSlotBits | (ThreadLocalRandom.current ().nextLong () & RANDOM_MASK);
+    return new UUID (nMSB, nLSB);
+  }
+
+  @Nonnull
+  @Nonempty
+  public String createUniqueID ()
+  {
+    return createUUID ().toString ();
+  }
+}
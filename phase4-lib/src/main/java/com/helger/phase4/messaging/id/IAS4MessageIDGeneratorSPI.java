@@ -0,0 +1,46 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.messaging.id;
+
+import javax.annotation.Nonnull;
+
+import com.helger.commons.annotation.IsSPIInterface;
+import com.helger.commons.annotation.Nonempty;
+
+/**
+ * SPI interface for creating the unique part of AS4 message IDs. The first
+ * implementation found via the ServiceLoader is used, if none is present
+ * {@link AS4RandomUUIDMessageIDGenerator} is used. Implementations must be
+ * thread-safe.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@IsSPIInterface
+@FunctionalInterface
+public interface IAS4MessageIDGeneratorSPI
+{
+  /**
+   * Create a new unique ID. Every call must return a different value. The
+   * result is used as the part before the <code>@</code> of AS4 message IDs.
+   *
+   * @return A new unique ID. Neither <code>null</code> nor empty.
+   */
+  @Nonnull
+  @Nonempty
+  String createUniqueID ();
+}
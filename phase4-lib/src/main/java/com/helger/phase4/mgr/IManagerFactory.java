@@ -23,7 +23,13 @@ import javax.annotation.Nonnull;
 import com.helger.phase4.duplicate.IAS4DuplicateManager;
 import com.helger.phase4.model.mpc.IMPCManager;
 import com.helger.phase4.model.pmode.IPModeManager;
+import com.helger.phase4.mpcqueue.AS4MPCQueueManagerInMemory;
+import com.helger.phase4.mpcqueue.IAS4MPCQueueManager;
+import com.helger.phase4.outbound.AS4OutboundQueueManagerInMemory;
+import com.helger.phase4.outbound.IAS4OutboundQueueManager;
 import com.helger.phase4.profile.IAS4ProfileManager;
+import com.helger.phase4.reliability.AS4OutboundMessageStoreInMemory;
+import com.helger.phase4.reliability.IAS4OutboundMessageStore;
 import com.helger.phase4.util.Phase4Exception;
 
 /**
@@ -67,6 +73,45 @@ public interface IManagerFactory extends Serializable
   @Nonnull
   IAS4ProfileManager createProfileManager () throws Phase4Exception;
 
+  /**
+   * @return A new {@link IAS4OutboundQueueManager} instance. The default
+   *         implementation returns an in-memory version.
+   * @throws Phase4Exception
+   *         on error
+   * @since 1.3.2
+   */
+  @Nonnull
+  default IAS4OutboundQueueManager createOutboundQueueManager () throws Phase4Exception
+  {
+    return new AS4OutboundQueueManagerInMemory ();
+  }
+
+  /**
+   * @return A new {@link IAS4MPCQueueManager} instance. The default
+   *         implementation returns an in-memory version.
+   * @throws Phase4Exception
+   *         on error
+   * @since 1.3.2
+   */
+  @Nonnull
+  default IAS4MPCQueueManager createMPCQueueManager () throws Phase4Exception
+  {
+    return new AS4MPCQueueManagerInMemory ();
+  }
+
+  /**
+   * @return A new {@link IAS4OutboundMessageStore} instance. The default
+   *         implementation returns an in-memory version.
+   * @throws Phase4Exception
+   *         on error
+   * @since 1.3.2
+   */
+  @Nonnull
+  default IAS4OutboundMessageStore createOutboundMessageStore () throws Phase4Exception
+  {
+    return new AS4OutboundMessageStoreInMemory ();
+  }
+
   /**
    * @return A new {@link IAS4TimestampManager} instance
    */
@@ -24,8 +24,14 @@ import com.helger.phase4.model.mpc.IMPCManager;
 import com.helger.phase4.model.mpc.MPCManagerInMemory;
 import com.helger.phase4.model.pmode.IPModeManager;
 import com.helger.phase4.model.pmode.PModeManagerInMemory;
+import com.helger.phase4.mpcqueue.AS4MPCQueueManagerInMemory;
+import com.helger.phase4.mpcqueue.IAS4MPCQueueManager;
+import com.helger.phase4.outbound.AS4OutboundQueueManagerInMemory;
+import com.helger.phase4.outbound.IAS4OutboundQueueManager;
 import com.helger.phase4.profile.AS4ProfileManager;
 import com.helger.phase4.profile.IAS4ProfileManager;
+import com.helger.phase4.reliability.AS4OutboundMessageStoreInMemory;
+import com.helger.phase4.reliability.IAS4OutboundMessageStore;
 
 /**
  * Implementation of {@link IManagerFactory} creating managers that are
@@ -54,6 +60,24 @@ public class ManagerFactoryInMemory implements IManagerFactory
     return new AS4DuplicateManagerInMemory ();
   }
 
+  @Nonnull
+  public IAS4OutboundQueueManager createOutboundQueueManager ()
+  {
+    return new AS4OutboundQueueManagerInMemory ();
+  }
+
+  @Nonnull
+  public IAS4MPCQueueManager createMPCQueueManager ()
+  {
+    return new AS4MPCQueueManagerInMemory ();
+  }
+
+  @Nonnull
+  public IAS4OutboundMessageStore createOutboundMessageStore ()
+  {
+    return new AS4OutboundMessageStoreInMemory ();
+  }
+
   @Nonnull
   public IAS4ProfileManager createProfileManager ()
   {
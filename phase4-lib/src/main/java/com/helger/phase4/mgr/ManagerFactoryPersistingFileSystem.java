@@ -16,6 +16,8 @@
  */
 package com.helger.phase4.mgr;
 
+import java.io.IOException;
+
 import javax.annotation.Nonnull;
 
 import com.helger.dao.DAOException;
@@ -25,9 +27,16 @@ import com.helger.phase4.model.mpc.IMPCManager;
 import com.helger.phase4.model.mpc.MPCManager;
 import com.helger.phase4.model.pmode.IPModeManager;
 import com.helger.phase4.model.pmode.PModeManager;
+import com.helger.phase4.mpcqueue.AS4MPCQueueManager;
+import com.helger.phase4.mpcqueue.IAS4MPCQueueManager;
+import com.helger.phase4.outbound.AS4OutboundQueueManager;
+import com.helger.phase4.outbound.IAS4OutboundQueueManager;
 import com.helger.phase4.profile.AS4ProfileManager;
 import com.helger.phase4.profile.IAS4ProfileManager;
+import com.helger.phase4.reliability.AS4OutboundMessageStore;
+import com.helger.phase4.reliability.IAS4OutboundMessageStore;
 import com.helger.phase4.util.Phase4Exception;
+import com.helger.photon.app.io.WebFileIO;
 
 /**
  * Implementation of {@link IManagerFactory} creating managers that are
@@ -41,6 +50,10 @@ public class ManagerFactoryPersistingFileSystem implements IManagerFactory
   private static final String MPC_XML = "as4-mpc.xml";
   private static final String PMODE_XML = "as4-pmode.xml";
   private static final String INCOMING_DUPLICATE_XML = "as4-duplicate-incoming.xml";
+  private static final String OUTBOUND_QUEUE_XML = "as4-outbound-queue.xml";
+  private static final String OUTBOUND_QUEUE_PAYLOAD_DIR = "as4-outbound-queue";
+  private static final String MPC_QUEUE_DIR = "as4-mpc-queue";
+  private static final String OUTBOUND_MESSAGE_DIR = "as4-outbound-messages";
 
   @Nonnull
   public IMPCManager createMPCManager () throws Phase4Exception
@@ -81,6 +94,45 @@ public class ManagerFactoryPersistingFileSystem implements IManagerFactory
     }
   }
 
+  @Nonnull
+  public IAS4OutboundQueueManager createOutboundQueueManager () throws Phase4Exception
+  {
+    try
+    {
+      return new AS4OutboundQueueManager (OUTBOUND_QUEUE_XML, OUTBOUND_QUEUE_PAYLOAD_DIR);
+    }
+    catch (final DAOException ex)
+    {
+      throw new Phase4Exception ("Error creating AS4OutboundQueueManager", ex);
+    }
+  }
+
+  @Nonnull
+  public IAS4MPCQueueManager createMPCQueueManager () throws Phase4Exception
+  {
+    try
+    {
+      return new AS4MPCQueueManager (WebFileIO.getDataIO ().getFile (MPC_QUEUE_DIR));
+    }
+    catch (final IOException ex)
+    {
+      throw new Phase4Exception ("Error creating AS4MPCQueueManager", ex);
+    }
+  }
+
+  @Nonnull
+  public IAS4OutboundMessageStore createOutboundMessageStore () throws Phase4Exception
+  {
+    try
+    {
+      return new AS4OutboundMessageStore (WebFileIO.getDataIO ().getFile (OUTBOUND_MESSAGE_DIR));
+    }
+    catch (final IOException ex)
+    {
+      throw new Phase4Exception ("Error creating AS4OutboundMessageStore", ex);
+    }
+  }
+
   @Nonnull
   public IAS4ProfileManager createProfileManager ()
   {
@@ -29,7 +29,10 @@ import com.helger.phase4.config.AS4Configuration;
 import com.helger.phase4.duplicate.IAS4DuplicateManager;
 import com.helger.phase4.model.mpc.IMPCManager;
 import com.helger.phase4.model.pmode.IPModeManager;
+import com.helger.phase4.mpcqueue.IAS4MPCQueueManager;
+import com.helger.phase4.outbound.IAS4OutboundQueueManager;
 import com.helger.phase4.profile.IAS4ProfileManager;
+import com.helger.phase4.reliability.IAS4OutboundMessageStore;
 import com.helger.scope.IScope;
 import com.helger.scope.singleton.AbstractGlobalSingleton;
 
@@ -88,6 +91,9 @@ public final class MetaAS4Manager extends AbstractGlobalSingleton
   private IPModeManager m_aPModeMgr;
   private IAS4DuplicateManager m_aIncomingDuplicateMgr;
   private IAS4ProfileManager m_aProfileMgr;
+  private IAS4OutboundQueueManager m_aOutboundQueueMgr;
+  private IAS4MPCQueueManager m_aMPCQueueMgr;
+  private IAS4OutboundMessageStore m_aOutboundMessageStore;
 
   @Deprecated
   @UsedViaReflection
@@ -106,6 +112,9 @@ public final class MetaAS4Manager extends AbstractGlobalSingleton
       m_aPModeMgr = s_aFactory.createPModeManager ();
       m_aIncomingDuplicateMgr = s_aFactory.createDuplicateManager ();
       m_aProfileMgr = s_aFactory.createProfileManager ();
+      m_aOutboundQueueMgr = s_aFactory.createOutboundQueueManager ();
+      m_aMPCQueueMgr = s_aFactory.createMPCQueueManager ();
+      m_aOutboundMessageStore = s_aFactory.createOutboundMessageStore ();
 
       // Validate content
       m_aPModeMgr.validateAllPModes ();
@@ -118,6 +127,15 @@ public final class MetaAS4Manager extends AbstractGlobalSingleton
     }
   }
 
+  @Override
+  protected void onBeforeDestroy (@Nonnull final IScope aScopeToBeDestroyed) throws Exception
+  {
+    if (m_aMPCQueueMgr instanceof AutoCloseable)
+      ((AutoCloseable) m_aMPCQueueMgr).close ();
+    if (m_aOutboundMessageStore instanceof AutoCloseable)
+      ((AutoCloseable) m_aOutboundMessageStore).close ();
+  }
+
   @Nonnull
   public static MetaAS4Manager getInstance ()
   {
@@ -148,6 +166,37 @@ public final class MetaAS4Manager extends AbstractGlobalSingleton
     return getInstance ().m_aProfileMgr;
   }
 
+  /**
+   * @return The outbound queue manager. Never <code>null</code>.
+   * @since 1.3.2
+   */
+  @Nonnull
+  public static IAS4OutboundQueueManager getOutboundQueueMgr ()
+  {
+    return getInstance ().m_aOutboundQueueMgr;
+  }
+
+  /**
+   * @return The MPC queue manager for pull requests. Never <code>null</code>.
+   * @since 1.3.2
+   */
+  @Nonnull
+  public static IAS4MPCQueueManager getMPCQueueMgr ()
+  {
+    return getInstance ().m_aMPCQueueMgr;
+  }
+
+  /**
+   * @return The store of the sent messages waiting for a Receipt. Never
+   *         <code>null</code>.
+   * @since 1.3.2
+   */
+  @Nonnull
+  public static IAS4OutboundMessageStore getOutboundMessageStore ()
+  {
+    return getInstance ().m_aOutboundMessageStore;
+  }
+
   @Nonnull
   public static IAS4TimestampManager getTimestampMgr ()
   {
@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.mpcqueue;
+
+import java.time.Duration;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * The result of leasing a message from an MPC queue. The message stays
+ * invisible for other pull requests until the visibility timeout expired. If
+ * no receipt was received until then, the message is delivered again.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@Immutable
+public class AS4MPCQueueLease
+{
+  private final AS4MPCQueueMessage m_aMessage;
+  private final int m_nDeliveryCount;
+  private final Duration m_aVisibilityTimeout;
+
+  public AS4MPCQueueLease (@Nonnull final AS4MPCQueueMessage aMessage,
+                           @Nonnegative final int nDeliveryCount,
+                           @Nonnull final Duration aVisibilityTimeout)
+  {
+    ValueEnforcer.notNull (aMessage, "Message");
+    ValueEnforcer.isGT0 (nDeliveryCount, "DeliveryCount");
+    ValueEnforcer.notNull (aVisibilityTimeout, "VisibilityTimeout");
+    m_aMessage = aMessage;
+    m_nDeliveryCount = nDeliveryCount;
+    m_aVisibilityTimeout = aVisibilityTimeout;
+  }
+
+  /**
+   * @return The leased message. Never <code>null</code>.
+   */
+  @Nonnull
+  public final AS4MPCQueueMessage getMessage ()
+  {
+    return m_aMessage;
+  }
+
+  /**
+   * @return How often the message was delivered, including this delivery.
+   *         Always &gt; 0. Values &gt; 1 indicate a redelivery.
+   */
+  @Nonnegative
+  public final int getDeliveryCount ()
+  {
+    return m_nDeliveryCount;
+  }
+
+  /**
+   * @return <code>true</code> if this is not the first delivery of the
+   *         message.
+   */
+  public final boolean isRedelivery ()
+  {
+    return m_nDeliveryCount > 1;
+  }
+
+  /**
+   * @return The duration for which the message is not delivered again. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public final Duration getVisibilityTimeout ()
+  {
+    return m_aVisibilityTimeout;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("Message", m_aMessage)
+                                       .append ("DeliveryCount", m_nDeliveryCount)
+                                       .append ("VisibilityTimeout", m_aVisibilityTimeout)
+                                       .getToString ();
+  }
+}
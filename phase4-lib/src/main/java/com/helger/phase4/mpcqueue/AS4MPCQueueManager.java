@@ -0,0 +1,468 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.mpcqueue;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.charset.CharsetHelper;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.io.file.SimpleFileIO;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.mime.MimeTypeParser;
+import com.helger.commons.state.EChange;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.StringParser;
+import com.helger.phase4.attachment.EAS4CompressionMode;
+import com.helger.phase4.attachment.Phase4OutgoingAttachment;
+import com.helger.phase4.ebms3header.Ebms3Messaging;
+import com.helger.phase4.ebms3header.Ebms3UserMessage;
+import com.helger.phase4.marshaller.Ebms3ReaderBuilder;
+import com.helger.phase4.marshaller.Ebms3WriterBuilder;
+import com.helger.phase4.util.AS4IOHelper;
+
+/**
+ * Persistent implementation of {@link IAS4MPCQueueManager}. Every message is
+ * stored in a separate file, and all additions and removals are appended to a
+ * journal file. Only the index of the queued messages is kept in memory - the
+ * messages itself are read from disk when they are leased. On startup the
+ * journal is replayed and rewritten with the remaining entries only. Leases
+ * are not persisted, so after a restart all unacknowledged messages are
+ * visible again.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@ThreadSafe
+public class AS4MPCQueueManager extends AbstractAS4MPCQueueManager implements AutoCloseable
+{
+  /** The number of removals after which the journal is compacted */
+  public static final int COMPACTION_THRESHOLD = 10_000;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4MPCQueueManager.class);
+  private static final String JOURNAL_FILENAME = "journal.bin";
+  private static final String JOURNAL_TMP_FILENAME = "journal.tmp";
+  private static final String MESSAGE_DIR = "messages";
+  private static final String MESSAGE_SUFFIX = ".msg";
+  private static final byte RECORD_ADD = '+';
+  private static final byte RECORD_REMOVE = '-';
+  private static final int MESSAGE_FORMAT_VERSION = 1;
+
+  private final Path m_aJournalFile;
+  private final File m_aMessageDir;
+  private final boolean m_bSyncWrites;
+
+  private final SimpleLock m_aJournalLock = new SimpleLock ();
+  @GuardedBy ("m_aJournalLock")
+  private FileChannel m_aJournal;
+  @GuardedBy ("m_aJournalLock")
+  private int m_nRemovalsSinceCompaction = 0;
+
+  /**
+   * Constructor with default settings. Writes are synced to disk.
+   *
+   * @param aDirectory
+   *        The directory to store the data in. May not be <code>null</code>.
+   * @throws IOException
+   *         If the existing data could not be read
+   */
+  public AS4MPCQueueManager (@Nonnull final File aDirectory) throws IOException
+  {
+    this (aDirectory, DEFAULT_MAX_MESSAGES_PER_MPC, true);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aDirectory
+   *        The directory to store the data in. May not be <code>null</code>.
+   * @param nMaxMessagesPerMPC
+   *        The maximum number of messages per MPC. Must be &gt; 0.
+   * @param bSyncWrites
+   *        <code>true</code> to sync newly queued messages to disk before
+   *        {@link #enqueue(AS4MPCQueueMessage)} returns. Removals are never
+   *        synced, as a lost removal only results in a redelivery.
+   * @throws IOException
+   *         If the existing data could not be read
+   */
+  public AS4MPCQueueManager (@Nonnull final File aDirectory,
+                             @Nonnegative final int nMaxMessagesPerMPC,
+                             final boolean bSyncWrites) throws IOException
+  {
+    super (nMaxMessagesPerMPC);
+    ValueEnforcer.notNull (aDirectory, "Directory");
+
+    m_aJournalFile = new File (aDirectory, JOURNAL_FILENAME).toPath ();
+    m_aMessageDir = new File (aDirectory, MESSAGE_DIR);
+    m_bSyncWrites = bSyncWrites;
+    Files.createDirectories (m_aMessageDir.toPath ());
+
+    m_aJournalLock.lockedThrowing ( () -> {
+      _restore ();
+      // Start with a clean journal
+      _compact ();
+    });
+  }
+
+  @Nonnull
+  private File _getMessageFile (final long nSequence)
+  {
+    return new File (m_aMessageDir, Long.toString (nSequence) + MESSAGE_SUFFIX);
+  }
+
+  private static final class JournalRecord
+  {
+    private final long m_nSequence;
+    private final String m_sMessageID;
+    private final String m_sMPCID;
+    private final String m_sPModeID;
+
+    JournalRecord (final long nSequence, final String sMessageID, final String sMPCID, final String sPModeID)
+    {
+      m_nSequence = nSequence;
+      m_sMessageID = sMessageID;
+      m_sMPCID = sMPCID;
+      m_sPModeID = sPModeID;
+    }
+  }
+
+  @GuardedBy ("m_aJournalLock")
+  private void _restore () throws IOException
+  {
+    final ICommonsOrderedMap <Long, JournalRecord> aRecords = new CommonsLinkedHashMap <> ();
+    long nMaxSequence = 0;
+    if (Files.exists (m_aJournalFile))
+    {
+      final byte [] aBytes = Files.readAllBytes (m_aJournalFile);
+      try (final DataInputStream aDIS = new DataInputStream (new NonBlockingByteArrayInputStream (aBytes)))
+      {
+        while (true)
+        {
+          final int nType = aDIS.read ();
+          if (nType < 0)
+            break;
+          final long nSequence = aDIS.readLong ();
+          nMaxSequence = Math.max (nMaxSequence, nSequence);
+          if (nType == RECORD_ADD)
+          {
+            final String sMessageID = aDIS.readUTF ();
+            final String sMPCID = aDIS.readUTF ();
+            final String sPModeID = aDIS.readUTF ();
+            aRecords.put (Long.valueOf (nSequence),
+                          new JournalRecord (nSequence, sMessageID, sMPCID, StringHelper.hasText (sPModeID) ? sPModeID : null));
+          }
+          else
+            if (nType == RECORD_REMOVE)
+              aRecords.remove (Long.valueOf (nSequence));
+            else
+              throw new IOException ("Unexpected journal record type " + nType);
+        }
+      }
+      catch (final EOFException ex)
+      {
+        // Incomplete last record, e.g. after a crash - the message was never
+        // confirmed to be queued
+        LOGGER.warn ("The MPC queue journal '" + m_aJournalFile + "' ends with an incomplete record - ignoring it");
+      }
+    }
+
+    // Delete all message files that are not referenced
+    final File [] aMessageFiles = m_aMessageDir.listFiles ();
+    if (aMessageFiles != null)
+      for (final File aFile : aMessageFiles)
+      {
+        final String sName = aFile.getName ();
+        final long nSequence = sName.endsWith (MESSAGE_SUFFIX) ? StringParser.parseLong (StringHelper.trimEnd (sName, MESSAGE_SUFFIX),
+                                                                                          -1)
+                                                               : -1;
+        nMaxSequence = Math.max (nMaxSequence, nSequence);
+        if (!aRecords.containsKey (Long.valueOf (nSequence)))
+          AS4IOHelper.getFileOperationManager ().deleteFileIfExisting (aFile);
+      }
+    ensureNextSequence (nMaxSequence + 1);
+
+    // Order by sequence to restore the FIFO order
+    final ICommonsList <JournalRecord> aSorted = new CommonsArrayList <> (aRecords.values ());
+    aSorted.sort ( (x, y) -> Long.compare (x.m_nSequence, y.m_nSequence));
+    int nRestored = 0;
+    for (final JournalRecord aRecord : aSorted)
+    {
+      if (!_getMessageFile (aRecord.m_nSequence).isFile ())
+      {
+        LOGGER.warn ("The file of queued message '" + aRecord.m_sMessageID + "' is missing - ignoring it");
+        continue;
+      }
+      if (internalAdd (new QueueEntry (aRecord.m_nSequence, aRecord.m_sMessageID, aRecord.m_sMPCID, aRecord.m_sPModeID, null)).isChanged ())
+        nRestored++;
+    }
+    if (nRestored > 0)
+      LOGGER.info ("Restored " + nRestored + " queued MPC messages from '" + m_aJournalFile.getParent () + "'");
+  }
+
+  @Nonnull
+  private static byte [] _getAddRecord (@Nonnull final QueueEntry aEntry) throws IOException
+  {
+    try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ();
+         final DataOutputStream aDOS = new DataOutputStream (aBAOS))
+    {
+      aDOS.write (RECORD_ADD);
+      aDOS.writeLong (aEntry.getSequence ());
+      aDOS.writeUTF (aEntry.getMessageID ());
+      aDOS.writeUTF (aEntry.getMPCID ());
+      aDOS.writeUTF (StringHelper.getNotNull (aEntry.getPModeID ()));
+      aDOS.flush ();
+      return aBAOS.toByteArray ();
+    }
+  }
+
+  @Nonnull
+  private static byte [] _getRemoveRecord (final long nSequence)
+  {
+    final ByteBuffer aBB = ByteBuffer.allocate (1 + Long.BYTES);
+    aBB.put (RECORD_REMOVE);
+    aBB.putLong (nSequence);
+    return aBB.array ();
+  }
+
+  private static void _writeFully (@Nonnull final FileChannel aChannel, @Nonnull final byte [] aBytes) throws IOException
+  {
+    final ByteBuffer aBB = ByteBuffer.wrap (aBytes);
+    while (aBB.hasRemaining ())
+      aChannel.write (aBB);
+  }
+
+  /**
+   * Rewrite the journal with the currently queued entries only.
+   */
+  @GuardedBy ("m_aJournalLock")
+  private void _compact () throws IOException
+  {
+    final Path aTmpFile = m_aJournalFile.resolveSibling (JOURNAL_TMP_FILENAME);
+    try (final FileChannel aTmp = FileChannel.open (aTmpFile,
+                                                    StandardOpenOption.CREATE,
+                                                    StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING))
+    {
+      for (final QueueEntry aEntry : internalGetAll ())
+        _writeFully (aTmp, _getAddRecord (aEntry));
+      aTmp.force (false);
+    }
+
+    if (m_aJournal != null)
+      m_aJournal.close ();
+    Files.move (aTmpFile, m_aJournalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    m_aJournal = FileChannel.open (m_aJournalFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    m_nRemovalsSinceCompaction = 0;
+  }
+
+  @Nonnull
+  private static byte [] _serializeMessage (@Nonnull final AS4MPCQueueMessage aMessage) throws IOException
+  {
+    final Ebms3Messaging aMessaging = new Ebms3Messaging ();
+    aMessaging.addUserMessage (aMessage.getUserMessage ());
+    final byte [] aMessagingBytes = Ebms3WriterBuilder.ebms3Messaging ().getAsBytes (aMessaging);
+    if (aMessagingBytes == null)
+      throw new IOException ("Failed to serialize the user message '" + aMessage.getMessageID () + "'");
+
+    try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ();
+         final DataOutputStream aDOS = new DataOutputStream (aBAOS))
+    {
+      aDOS.writeInt (MESSAGE_FORMAT_VERSION);
+      aDOS.writeInt (aMessagingBytes.length);
+      aDOS.write (aMessagingBytes);
+
+      final ICommonsList <Phase4OutgoingAttachment> aAttachments = aMessage.getAllAttachments ();
+      aDOS.writeInt (aAttachments.size ());
+      for (final Phase4OutgoingAttachment aAttachment : aAttachments)
+      {
+        final byte [] aData;
+        if (aAttachment.hasDataBytes ())
+          aData = aAttachment.getDataBytes ().getAllBytes ();
+        else
+        {
+          aData = SimpleFileIO.getAllFileBytes (aAttachment.getDataFile ());
+          if (aData == null)
+            throw new IOException ("Failed to read attachment file " + aAttachment.getDataFile ().getAbsolutePath ());
+        }
+        aDOS.writeUTF (StringHelper.getNotNull (aAttachment.getContentID ()));
+        aDOS.writeUTF (StringHelper.getNotNull (aAttachment.getFilename ()));
+        aDOS.writeUTF (aAttachment.getMimeType ().getAsString ());
+        aDOS.writeUTF (aAttachment.getCompressionMode () == null ? "" : aAttachment.getCompressionMode ().getID ());
+        aDOS.writeUTF (aAttachment.getCharset () == null ? "" : aAttachment.getCharset ().name ());
+        aDOS.writeInt (aData.length);
+        aDOS.write (aData);
+      }
+      aDOS.flush ();
+      return aBAOS.toByteArray ();
+    }
+  }
+
+  @Nonnull
+  private static AS4MPCQueueMessage _deserializeMessage (@Nonnull final QueueEntry aEntry, @Nonnull final byte [] aBytes) throws IOException
+  {
+    try (final DataInputStream aDIS = new DataInputStream (new NonBlockingByteArrayInputStream (aBytes)))
+    {
+      final int nVersion = aDIS.readInt ();
+      if (nVersion != MESSAGE_FORMAT_VERSION)
+        throw new IOException ("Unsupported message format version " + nVersion);
+
+      final byte [] aMessagingBytes = new byte [aDIS.readInt ()];
+      aDIS.readFully (aMessagingBytes);
+      // We wrote it ourselves - no need to validate it again
+      final Ebms3Messaging aMessaging = Ebms3ReaderBuilder.ebms3Messaging ().setUseSchema (false).read (aMessagingBytes);
+      if (aMessaging == null || aMessaging.getUserMessageCount () != 1)
+        throw new IOException ("Failed to read the user message");
+      final Ebms3UserMessage aUserMessage = aMessaging.getUserMessageAtIndex (0);
+
+      final int nAttachments = aDIS.readInt ();
+      final ICommonsList <Phase4OutgoingAttachment> aAttachments = new CommonsArrayList <> (nAttachments);
+      for (int i = 0; i < nAttachments; ++i)
+      {
+        final String sContentID = aDIS.readUTF ();
+        final String sFilename = aDIS.readUTF ();
+        final String sMimeType = aDIS.readUTF ();
+        final String sCompressionMode = aDIS.readUTF ();
+        final String sCharset = aDIS.readUTF ();
+        final byte [] aData = new byte [aDIS.readInt ()];
+        aDIS.readFully (aData);
+
+        final Charset aCharset = StringHelper.hasText (sCharset) ? CharsetHelper.getCharsetFromNameOrNull (sCharset) : null;
+        aAttachments.add (Phase4OutgoingAttachment.builder ()
+                                                  .data (aData)
+                                                  .contentID (StringHelper.hasText (sContentID) ? sContentID : null)
+                                                  .filename (StringHelper.hasText (sFilename) ? sFilename : null)
+                                                  .mimeType (MimeTypeParser.safeParseMimeType (sMimeType))
+                                                  .compression (EAS4CompressionMode.getFromIDOrNull (sCompressionMode))
+                                                  .charset (aCharset)
+                                                  .build ());
+      }
+      return new AS4MPCQueueMessage (aEntry.getMPCID (), aEntry.getPModeID (), aUserMessage, aAttachments);
+    }
+  }
+
+  @Override
+  @Nonnull
+  protected EChange internalEnqueue (@Nonnull final AS4MPCQueueMessage aMessage, final long nSequence)
+  {
+    final QueueEntry aEntry = new QueueEntry (nSequence, aMessage.getMessageID (), aMessage.getMPCID (), aMessage.getPModeID (), null);
+    final File aMessageFile = _getMessageFile (nSequence);
+    try
+    {
+      // Write the message first, so that the journal never references a
+      // missing file
+      try (final FileChannel aChannel = FileChannel.open (aMessageFile.toPath (),
+                                                          StandardOpenOption.CREATE_NEW,
+                                                          StandardOpenOption.WRITE))
+      {
+        _writeFully (aChannel, _serializeMessage (aMessage));
+        if (m_bSyncWrites)
+          aChannel.force (false);
+      }
+
+      final EChange ret = m_aJournalLock.lockedGetThrowing ( () -> {
+        if (!canAdd (aEntry.getMPCID (), aEntry.getMessageID ()))
+          return EChange.UNCHANGED;
+
+        _writeFully (m_aJournal, _getAddRecord (aEntry));
+        if (m_bSyncWrites)
+          m_aJournal.force (false);
+        return internalAdd (aEntry);
+      });
+      if (ret.isUnchanged ())
+        AS4IOHelper.getFileOperationManager ().deleteFileIfExisting (aMessageFile);
+      return ret;
+    }
+    catch (final IOException ex)
+    {
+      AS4IOHelper.getFileOperationManager ().deleteFileIfExisting (aMessageFile);
+      throw new UncheckedIOException ("Failed to queue message '" + aMessage.getMessageID () + "'", ex);
+    }
+  }
+
+  @Override
+  @Nullable
+  protected AS4MPCQueueMessage readMessage (@Nonnull final QueueEntry aEntry)
+  {
+    final File aMessageFile = _getMessageFile (aEntry.getSequence ());
+    try
+    {
+      return _deserializeMessage (aEntry, Files.readAllBytes (aMessageFile.toPath ()));
+    }
+    catch (final IOException | RuntimeException ex)
+    {
+      LOGGER.error ("Failed to read queued message from " + aMessageFile.getAbsolutePath (), ex);
+      return null;
+    }
+  }
+
+  @Override
+  protected void onRemoved (@Nonnull final QueueEntry aEntry)
+  {
+    try
+    {
+      m_aJournalLock.lockedThrowing ( () -> {
+        _writeFully (m_aJournal, _getRemoveRecord (aEntry.getSequence ()));
+        m_nRemovalsSinceCompaction++;
+        if (m_nRemovalsSinceCompaction >= COMPACTION_THRESHOLD && m_nRemovalsSinceCompaction >= size ())
+          _compact ();
+      });
+    }
+    catch (final IOException ex)
+    {
+      // The message may be delivered again after a restart
+      LOGGER.error ("Failed to journal the removal of queued message '" + aEntry.getMessageID () + "'", ex);
+    }
+    AS4IOHelper.getFileOperationManager ().deleteFileIfExisting (_getMessageFile (aEntry.getSequence ()));
+  }
+
+  public void close () throws IOException
+  {
+    m_aJournalLock.lockedThrowing ( () -> {
+      if (m_aJournal != null)
+      {
+        m_aJournal.close ();
+        m_aJournal = null;
+      }
+    });
+  }
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.mpcqueue;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.state.EChange;
+
+/**
+ * In-memory implementation of {@link IAS4MPCQueueManager}. Queued messages
+ * are lost when the application is stopped.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@ThreadSafe
+public class AS4MPCQueueManagerInMemory extends AbstractAS4MPCQueueManager
+{
+  public AS4MPCQueueManagerInMemory ()
+  {
+    this (DEFAULT_MAX_MESSAGES_PER_MPC);
+  }
+
+  public AS4MPCQueueManagerInMemory (@Nonnegative final int nMaxMessagesPerMPC)
+  {
+    super (nMaxMessagesPerMPC);
+  }
+
+  @Override
+  @Nonnull
+  protected EChange internalEnqueue (@Nonnull final AS4MPCQueueMessage aMessage, final long nSequence)
+  {
+    return internalAdd (new QueueEntry (nSequence, aMessage.getMessageID (), aMessage.getMPCID (), aMessage.getPModeID (), aMessage));
+  }
+
+  @Override
+  @Nullable
+  protected AS4MPCQueueMessage readMessage (@Nonnull final QueueEntry aEntry)
+  {
+    return aEntry.getMessage ();
+  }
+
+  @Override
+  protected void onRemoved (@Nonnull final QueueEntry aEntry)
+  {
+    // Nothing to clean up
+  }
+}
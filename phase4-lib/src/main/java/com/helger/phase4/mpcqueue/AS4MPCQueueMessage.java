@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.mpcqueue;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.attachment.Phase4OutgoingAttachment;
+import com.helger.phase4.ebms3header.Ebms3UserMessage;
+
+/**
+ * A single user message that waits in an MPC queue until it is pulled.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@Immutable
+public class AS4MPCQueueMessage
+{
+  private final String m_sMPCID;
+  private final String m_sPModeID;
+  private final Ebms3UserMessage m_aUserMessage;
+  private final ICommonsList <Phase4OutgoingAttachment> m_aAttachments;
+
+  /**
+   * Constructor
+   *
+   * @param sMPCID
+   *        The ID of the MPC the message is queued in. May neither be
+   *        <code>null</code> nor empty.
+   * @param sPModeID
+   *        The ID of the PMode to be used for the pull request. May be
+   *        <code>null</code>.
+   * @param aUserMessage
+   *        The user message to be returned. It must contain a message ID. May
+   *        not be <code>null</code>.
+   * @param aAttachments
+   *        The attachments to be returned together with the user message. May
+   *        be <code>null</code>.
+   */
+  public AS4MPCQueueMessage (@Nonnull @Nonempty final String sMPCID,
+                             @Nullable final String sPModeID,
+                             @Nonnull final Ebms3UserMessage aUserMessage,
+                             @Nullable final Iterable <? extends Phase4OutgoingAttachment> aAttachments)
+  {
+    ValueEnforcer.notEmpty (sMPCID, "MPCID");
+    ValueEnforcer.notNull (aUserMessage, "UserMessage");
+    ValueEnforcer.notNull (aUserMessage.getMessageInfo (), "UserMessage.MessageInfo");
+    ValueEnforcer.notEmpty (aUserMessage.getMessageInfo ().getMessageId (), "UserMessage.MessageInfo.MessageId");
+    m_sMPCID = sMPCID;
+    m_sPModeID = sPModeID;
+    m_aUserMessage = aUserMessage;
+    m_aAttachments = new CommonsArrayList <> (aAttachments);
+  }
+
+  /**
+   * @return The ID of the MPC the message is queued in. Neither
+   *         <code>null</code> nor empty.
+   */
+  @Nonnull
+  @Nonempty
+  public final String getMPCID ()
+  {
+    return m_sMPCID;
+  }
+
+  /**
+   * @return The ID of the PMode to be used. May be <code>null</code>.
+   */
+  @Nullable
+  public final String getPModeID ()
+  {
+    return m_sPModeID;
+  }
+
+  /**
+   * @return <code>true</code> if a PMode ID is present, <code>false</code> if
+   *         not.
+   */
+  public final boolean hasPModeID ()
+  {
+    return StringHelper.hasText (m_sPModeID);
+  }
+
+  /**
+   * @return The user message to be returned. Never <code>null</code>.
+   */
+  @Nonnull
+  public final Ebms3UserMessage getUserMessage ()
+  {
+    return m_aUserMessage;
+  }
+
+  /**
+   * @return The AS4 message ID of the contained user message. Neither
+   *         <code>null</code> nor empty.
+   */
+  @Nonnull
+  @Nonempty
+  public final String getMessageID ()
+  {
+    return m_aUserMessage.getMessageInfo ().getMessageId ();
+  }
+
+  /**
+   * @return A copy of all attachments. Never <code>null</code> but maybe
+   *         empty.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public final ICommonsList <Phase4OutgoingAttachment> getAllAttachments ()
+  {
+    return m_aAttachments.getClone ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("MPCID", m_sMPCID)
+                                       .append ("PModeID", m_sPModeID)
+                                       .append ("MessageID", getMessageID ())
+                                       .append ("Attachments", m_aAttachments)
+                                       .getToString ();
+  }
+}
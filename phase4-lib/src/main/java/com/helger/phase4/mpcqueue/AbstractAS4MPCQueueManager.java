@@ -0,0 +1,812 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.mpcqueue;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.CommonsTreeMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.collection.impl.ICommonsNavigableMap;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.commons.equals.EqualsHelper;
+import com.helger.commons.state.EChange;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.wrapper.Wrapper;
+
+/**
+ * Abstract base implementation of {@link IAS4MPCQueueManager} that keeps the
+ * index of all queued messages in memory. Per MPC the visible messages are
+ * ordered by their enqueue sequence, so that expired leases return to their
+ * original position. Implementations decide where the messages itself are
+ * stored.<br>
+ * Long polling leases don't block a thread - they wait in a list per MPC and
+ * are woken up by the next queued message or by a timer. The per MPC data is
+ * only kept for MPCs with queued messages or waiting leases.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@ThreadSafe
+public abstract class AbstractAS4MPCQueueManager implements IAS4MPCQueueManager
+{
+  /** The default maximum number of messages per MPC */
+  public static final int DEFAULT_MAX_MESSAGES_PER_MPC = 100_000;
+  /** The default maximum number of concurrently waiting leases */
+  public static final int DEFAULT_MAX_WAITING_LEASES = 1_000;
+  /** The default delay after which a message that could not be read is retried */
+  public static final Duration DEFAULT_READ_RETRY_DELAY = Duration.ofSeconds (5);
+  /** The maximum delay after which a message that could not be read is retried */
+  public static final Duration MAX_READ_RETRY_DELAY = Duration.ofMinutes (10);
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AbstractAS4MPCQueueManager.class);
+
+  /**
+   * The index entry of a single queued message.
+   *
+   * @author Philip Helger
+   */
+  protected static final class QueueEntry
+  {
+    private final long m_nSequence;
+    private final String m_sMessageID;
+    private final String m_sMPCID;
+    private final String m_sPModeID;
+    private final AS4MPCQueueMessage m_aMessage;
+
+    // Status fields - guarded by the lock of the manager
+    private boolean m_bLeased;
+    private boolean m_bRemoved;
+    private int m_nLeaseGeneration;
+    private int m_nDeliveryCount;
+    private String m_sLeaseOwnerID;
+    private int m_nReadFailures;
+
+    public QueueEntry (final long nSequence,
+                       @Nonnull @Nonempty final String sMessageID,
+                       @Nonnull @Nonempty final String sMPCID,
+                       @Nullable final String sPModeID,
+                       @Nullable final AS4MPCQueueMessage aMessage)
+    {
+      m_nSequence = nSequence;
+      m_sMessageID = sMessageID;
+      m_sMPCID = sMPCID;
+      m_sPModeID = sPModeID;
+      m_aMessage = aMessage;
+    }
+
+    /**
+     * @return The unique sequence number of the entry. It defines the FIFO
+     *         order inside an MPC.
+     */
+    public long getSequence ()
+    {
+      return m_nSequence;
+    }
+
+    @Nonnull
+    @Nonempty
+    public String getMessageID ()
+    {
+      return m_sMessageID;
+    }
+
+    @Nonnull
+    @Nonempty
+    public String getMPCID ()
+    {
+      return m_sMPCID;
+    }
+
+    @Nullable
+    public String getPModeID ()
+    {
+      return m_sPModeID;
+    }
+
+    /**
+     * @return The message, if the implementation keeps it in memory.
+     *         <code>null</code> otherwise.
+     */
+    @Nullable
+    public AS4MPCQueueMessage getMessage ()
+    {
+      return m_aMessage;
+    }
+  }
+
+  private static final class LeaseRef
+  {
+    private final QueueEntry m_aEntry;
+    private final int m_nLeaseGeneration;
+    private final int m_nDeliveryCount;
+    private final long m_nExpirationNanos;
+
+    LeaseRef (@Nonnull final QueueEntry aEntry, final long nExpirationNanos)
+    {
+      m_aEntry = aEntry;
+      m_nLeaseGeneration = aEntry.m_nLeaseGeneration;
+      m_nDeliveryCount = aEntry.m_nDeliveryCount;
+      m_nExpirationNanos = nExpirationNanos;
+    }
+
+    boolean isCurrent ()
+    {
+      // Outdated if the entry was removed or leased again in the meantime
+      return !m_aEntry.m_bRemoved && m_aEntry.m_bLeased && m_aEntry.m_nLeaseGeneration == m_nLeaseGeneration;
+    }
+  }
+
+  private static final class Waiter
+  {
+    private final String m_sMPCID;
+    private final Runnable m_aCallback;
+    // Guarded by the lock of the manager
+    private ScheduledFuture <?> m_aTimeout;
+
+    Waiter (@Nonnull final String sMPCID, @Nonnull final Runnable aCallback)
+    {
+      m_sMPCID = sMPCID;
+      m_aCallback = aCallback;
+    }
+
+    void invoke ()
+    {
+      try
+      {
+        m_aCallback.run ();
+      }
+      catch (final RuntimeException ex)
+      {
+        LOGGER.error ("Failed to invoke the waiter callback of MPC '" + m_sMPCID + "'", ex);
+      }
+    }
+  }
+
+  private static final class Channel
+  {
+    // Waiting for a new message - in FIFO order
+    private final ArrayDeque <Waiter> m_aWaiters = new ArrayDeque <> ();
+    // Visible entries by sequence
+    private final ICommonsNavigableMap <Long, QueueEntry> m_aVisible = new CommonsTreeMap <> ();
+    // Leases ordered by expiration - may contain outdated leases
+    private final PriorityQueue <LeaseRef> m_aLeases = new PriorityQueue <> (Comparator.comparingLong (x -> x.m_nExpirationNanos));
+    private int m_nCount;
+    private String m_sLastPModeID;
+
+    boolean isUnused ()
+    {
+      // Nothing that needs to be remembered
+      return m_nCount == 0 && m_aWaiters.isEmpty () && m_sLastPModeID == null;
+    }
+
+    void restoreExpiredLeases (final long nNowNanos)
+    {
+      LeaseRef aLease;
+      while ((aLease = m_aLeases.peek ()) != null)
+      {
+        if (aLease.isCurrent ())
+        {
+          if (aLease.m_nExpirationNanos - nNowNanos > 0)
+          {
+            // All others expire later
+            break;
+          }
+
+          // Make visible again at the original position
+          final QueueEntry aEntry = aLease.m_aEntry;
+          aEntry.m_bLeased = false;
+          m_aVisible.put (Long.valueOf (aEntry.m_nSequence), aEntry);
+          if (LOGGER.isDebugEnabled ())
+            LOGGER.debug ("Lease of message '" + aEntry.m_sMessageID + "' in MPC '" + aEntry.m_sMPCID + "' expired");
+        }
+        m_aLeases.poll ();
+      }
+    }
+  }
+
+  private final int m_nMaxMessagesPerMPC;
+  private final AtomicLong m_aNextSequence = new AtomicLong (1);
+  private final SimpleReadWriteLock m_aRWLock = new SimpleReadWriteLock ();
+  @GuardedBy ("m_aRWLock")
+  private final ICommonsMap <String, QueueEntry> m_aEntries = new CommonsHashMap <> ();
+  @GuardedBy ("m_aRWLock")
+  private final ICommonsMap <String, Channel> m_aChannels = new CommonsHashMap <> ();
+  @GuardedBy ("m_aRWLock")
+  private int m_nWaitingLeases;
+  private volatile int m_nMaxWaitingLeases = DEFAULT_MAX_WAITING_LEASES;
+  private volatile Duration m_aReadRetryDelay = DEFAULT_READ_RETRY_DELAY;
+  @GuardedBy ("m_aRWLock")
+  private ScheduledThreadPoolExecutor m_aWaitTimer;
+
+  /**
+   * Constructor
+   *
+   * @param nMaxMessagesPerMPC
+   *        The maximum number of messages per MPC. This limits the memory
+   *        usage. Must be &gt; 0.
+   */
+  protected AbstractAS4MPCQueueManager (@Nonnegative final int nMaxMessagesPerMPC)
+  {
+    ValueEnforcer.isGT0 (nMaxMessagesPerMPC, "MaxMessagesPerMPC");
+    m_nMaxMessagesPerMPC = nMaxMessagesPerMPC;
+  }
+
+  /**
+   * @return The maximum number of messages per MPC. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getMaxMessagesPerMPC ()
+  {
+    return m_nMaxMessagesPerMPC;
+  }
+
+  /**
+   * @return The maximum number of leases that may wait concurrently for a new
+   *         message. Always &ge; 0.
+   */
+  @Nonnegative
+  public final int getMaxWaitingLeases ()
+  {
+    return m_nMaxWaitingLeases;
+  }
+
+  /**
+   * Set the maximum number of leases that may wait concurrently for a new
+   * message. Waiting leases don't block a thread, but each of them keeps a
+   * request open. If the maximum is reached, additional leases don't wait.
+   *
+   * @param nMaxWaitingLeases
+   *        The maximum number of waiting leases. Must be &ge; 0. Use 0 to
+   *        disable waiting.
+   */
+  public final void setMaxWaitingLeases (@Nonnegative final int nMaxWaitingLeases)
+  {
+    ValueEnforcer.isGE0 (nMaxWaitingLeases, "MaxWaitingLeases");
+    m_nMaxWaitingLeases = nMaxWaitingLeases;
+  }
+
+  /**
+   * @return The delay after which a message that could not be read is made
+   *         visible again. Never <code>null</code>.
+   */
+  @Nonnull
+  public final Duration getReadRetryDelay ()
+  {
+    return m_aReadRetryDelay;
+  }
+
+  /**
+   * Set the delay after which a message that could not be read is made
+   * visible again. The delay is doubled with every further failure up to
+   * {@link #MAX_READ_RETRY_DELAY}. The message is never discarded because of a
+   * read error.
+   *
+   * @param aReadRetryDelay
+   *        The initial retry delay. May not be <code>null</code> and must be
+   *        &gt; 0.
+   */
+  public final void setReadRetryDelay (@Nonnull final Duration aReadRetryDelay)
+  {
+    ValueEnforcer.notNull (aReadRetryDelay, "ReadRetryDelay");
+    ValueEnforcer.isTrue (aReadRetryDelay.compareTo (Duration.ZERO) > 0, "ReadRetryDelay must be > 0");
+    m_aReadRetryDelay = aReadRetryDelay;
+  }
+
+  /**
+   * @return The next unique sequence number to be used.
+   */
+  protected final long getNextSequence ()
+  {
+    return m_aNextSequence.getAndIncrement ();
+  }
+
+  /**
+   * Make sure the next sequence number is at least the provided value. This
+   * is needed when restoring persisted entries.
+   *
+   * @param nMinNextSequence
+   *        The minimum next sequence number.
+   */
+  protected final void ensureNextSequence (final long nMinNextSequence)
+  {
+    m_aNextSequence.accumulateAndGet (nMinNextSequence, Math::max);
+  }
+
+  /**
+   * @return The number of MPCs for which data is kept. Only for testing.
+   */
+  @Nonnegative
+  final int getChannelCount ()
+  {
+    return m_aRWLock.readLockedInt (m_aChannels::size);
+  }
+
+  @Nonnegative
+  public int size ()
+  {
+    return m_aRWLock.readLockedInt (m_aEntries::size);
+  }
+
+  @Nonnegative
+  public int getQueuedCount (@Nullable final String sMPCID)
+  {
+    if (StringHelper.hasNoText (sMPCID))
+      return 0;
+
+    return m_aRWLock.readLockedInt ( () -> {
+      final Channel aChannel = m_aChannels.get (sMPCID);
+      return aChannel == null ? 0 : aChannel.m_nCount;
+    });
+  }
+
+  public boolean containsMessage (@Nullable final String sMessageID)
+  {
+    if (StringHelper.hasNoText (sMessageID))
+      return false;
+    return m_aRWLock.readLockedBoolean ( () -> m_aEntries.containsKey (sMessageID));
+  }
+
+  @Nullable
+  public String getPModeIDOfMPC (@Nullable final String sMPCID)
+  {
+    if (StringHelper.hasNoText (sMPCID))
+      return null;
+
+    return m_aRWLock.readLockedGet ( () -> {
+      final Channel aChannel = m_aChannels.get (sMPCID);
+      if (aChannel == null)
+        return null;
+      final Map.Entry <Long, QueueEntry> aFirst = aChannel.m_aVisible.firstEntry ();
+      if (aFirst != null && StringHelper.hasText (aFirst.getValue ().m_sPModeID))
+        return aFirst.getValue ().m_sPModeID;
+      return aChannel.m_sLastPModeID;
+    });
+  }
+
+  /**
+   * Check if a message can be added to the index.
+   *
+   * @param sMPCID
+   *        The MPC ID. May not be <code>null</code>.
+   * @param sMessageID
+   *        The message ID. May not be <code>null</code>.
+   * @return <code>true</code> if the message ID is not yet queued and the MPC
+   *         is not full.
+   */
+  protected final boolean canAdd (@Nonnull final String sMPCID, @Nonnull final String sMessageID)
+  {
+    return m_aRWLock.readLockedBoolean ( () -> _canAdd (sMPCID, sMessageID));
+  }
+
+  @GuardedBy ("m_aRWLock")
+  private boolean _canAdd (@Nonnull final String sMPCID, @Nonnull final String sMessageID)
+  {
+    if (m_aEntries.containsKey (sMessageID))
+    {
+      LOGGER.warn ("A message with ID '" + sMessageID + "' is already queued");
+      return false;
+    }
+    final Channel aChannel = m_aChannels.get (sMPCID);
+    if (aChannel != null && aChannel.m_nCount >= m_nMaxMessagesPerMPC)
+    {
+      LOGGER.warn ("The queue of MPC '" + sMPCID + "' is full (" + m_nMaxMessagesPerMPC + " messages)");
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Add an entry to the index. After this call, the entry may be leased.
+   *
+   * @param aEntry
+   *        The entry to add. May not be <code>null</code>.
+   * @return {@link EChange#UNCHANGED} if the message ID is already queued or
+   *         the MPC is full.
+   */
+  @Nonnull
+  protected final EChange internalAdd (@Nonnull final QueueEntry aEntry)
+  {
+    ValueEnforcer.notNull (aEntry, "Entry");
+
+    final Wrapper <Waiter> aWokenUp = new Wrapper <> ();
+    final EChange ret = m_aRWLock.writeLockedGet ( () -> {
+      if (!_canAdd (aEntry.m_sMPCID, aEntry.m_sMessageID))
+        return EChange.UNCHANGED;
+
+      m_aEntries.put (aEntry.m_sMessageID, aEntry);
+      final Channel aChannel = m_aChannels.computeIfAbsent (aEntry.m_sMPCID, k -> new Channel ());
+      aChannel.m_aVisible.put (Long.valueOf (aEntry.m_nSequence), aEntry);
+      aChannel.m_nCount++;
+      if (StringHelper.hasText (aEntry.m_sPModeID))
+        aChannel.m_sLastPModeID = aEntry.m_sPModeID;
+      // Wake up one waiting lease
+      aWokenUp.set (_pollWaiter (aChannel));
+      return EChange.CHANGED;
+    });
+
+    // Invoke outside of the lock
+    final Waiter aWaiter = aWokenUp.get ();
+    if (aWaiter != null)
+      aWaiter.invoke ();
+    return ret;
+  }
+
+  @GuardedBy ("m_aRWLock")
+  @Nullable
+  private Waiter _pollWaiter (@Nonnull final Channel aChannel)
+  {
+    final Waiter ret = aChannel.m_aWaiters.pollFirst ();
+    if (ret != null)
+    {
+      m_nWaitingLeases--;
+      ret.m_aTimeout.cancel (false);
+    }
+    return ret;
+  }
+
+  @GuardedBy ("m_aRWLock")
+  private void _remove (@Nonnull final QueueEntry aEntry)
+  {
+    m_aEntries.remove (aEntry.m_sMessageID);
+    final Channel aChannel = m_aChannels.get (aEntry.m_sMPCID);
+    if (!aEntry.m_bLeased)
+      aChannel.m_aVisible.remove (Long.valueOf (aEntry.m_nSequence));
+    aChannel.m_nCount--;
+    if (aChannel.isUnused ())
+      m_aChannels.remove (aEntry.m_sMPCID);
+    // Pending lease references become outdated
+    aEntry.m_bRemoved = true;
+  }
+
+  /**
+   * Remove an entry from the index.
+   *
+   * @param sMessageID
+   *        The message ID of the entry to remove. May be <code>null</code>.
+   * @return The removed entry or <code>null</code> if no such entry is
+   *         contained.
+   */
+  @Nullable
+  protected final QueueEntry internalRemove (@Nullable final String sMessageID)
+  {
+    if (StringHelper.hasNoText (sMessageID))
+      return null;
+
+    return m_aRWLock.writeLockedGet ( () -> {
+      final QueueEntry aEntry = m_aEntries.get (sMessageID);
+      if (aEntry != null)
+        _remove (aEntry);
+      return aEntry;
+    });
+  }
+
+  /**
+   * @return All entries of the index, ordered by sequence number. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  protected final ICommonsList <QueueEntry> internalGetAll ()
+  {
+    final ICommonsList <QueueEntry> ret = m_aRWLock.readLockedGet ( () -> new CommonsArrayList <> (m_aEntries.values ()));
+    ret.sort (Comparator.comparingLong (QueueEntry::getSequence));
+    return ret;
+  }
+
+  /**
+   * Store a new message and add it to the index via
+   * {@link #internalAdd(QueueEntry)}.
+   *
+   * @param aMessage
+   *        The message to be queued. May not be <code>null</code>.
+   * @param nSequence
+   *        The sequence number to use.
+   * @return {@link EChange#UNCHANGED} if the message was not queued.
+   */
+  @Nonnull
+  protected abstract EChange internalEnqueue (@Nonnull AS4MPCQueueMessage aMessage, long nSequence);
+
+  /**
+   * Read the message of an index entry.
+   *
+   * @param aEntry
+   *        The entry to read the message from. May not be <code>null</code>.
+   * @return <code>null</code> if the message could not be read. In that case
+   *         the entry stays queued and is made visible again after the read
+   *         retry delay.
+   */
+  @Nullable
+  protected abstract AS4MPCQueueMessage readMessage (@Nonnull QueueEntry aEntry);
+
+  /**
+   * Called after an entry was removed from the index, because it was
+   * acknowledged.
+   *
+   * @param aEntry
+   *        The removed entry. Never <code>null</code>.
+   */
+  protected abstract void onRemoved (@Nonnull QueueEntry aEntry);
+
+  @Nonnull
+  public final EChange enqueue (@Nonnull final AS4MPCQueueMessage aMessage)
+  {
+    ValueEnforcer.notNull (aMessage, "Message");
+
+    // Fast check to avoid unnecessary work
+    if (!canAdd (aMessage.getMPCID (), aMessage.getMessageID ()))
+      return EChange.UNCHANGED;
+
+    final EChange ret = internalEnqueue (aMessage, getNextSequence ());
+    if (ret.isChanged () && LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Queued message '" + aMessage.getMessageID () + "' in MPC '" + aMessage.getMPCID () + "'");
+    return ret;
+  }
+
+  @Nullable
+  public final AS4MPCQueueLease lease (@Nullable final String sMPCID,
+                                       @Nullable final String sLeaseOwnerID,
+                                       @Nonnull final Duration aVisibilityTimeout)
+  {
+    ValueEnforcer.notNull (aVisibilityTimeout, "VisibilityTimeout");
+    ValueEnforcer.isFalse (aVisibilityTimeout.isNegative (), "VisibilityTimeout may not be negative");
+
+    if (StringHelper.hasNoText (sMPCID))
+      return null;
+
+    final long nTimeoutNanos = aVisibilityTimeout.toNanos ();
+    while (true)
+    {
+      final LeaseRef aLease = m_aRWLock.writeLockedGet ( () -> {
+        final Channel aChannel = m_aChannels.get (sMPCID);
+        if (aChannel == null)
+          return null;
+
+        final long nNow = System.nanoTime ();
+        aChannel.restoreExpiredLeases (nNow);
+
+        final Map.Entry <Long, QueueEntry> aFirst = aChannel.m_aVisible.pollFirstEntry ();
+        if (aFirst == null)
+          return null;
+
+        final QueueEntry aEntry = aFirst.getValue ();
+        aEntry.m_bLeased = true;
+        aEntry.m_nLeaseGeneration++;
+        aEntry.m_nDeliveryCount++;
+        aEntry.m_sLeaseOwnerID = sLeaseOwnerID;
+        final LeaseRef ret = new LeaseRef (aEntry, nNow + nTimeoutNanos);
+        aChannel.m_aLeases.add (ret);
+        return ret;
+      });
+      if (aLease == null)
+        return null;
+
+      // Read outside of the lock
+      final QueueEntry aEntry = aLease.m_aEntry;
+      final AS4MPCQueueMessage aMessage = readMessage (aEntry);
+      if (aMessage != null)
+      {
+        if (aLease.m_nDeliveryCount > 1)
+          LOGGER.info ("Redelivering message '" +
+                       aEntry.m_sMessageID +
+                       "' of MPC '" +
+                       sMPCID +
+                       "' (delivery " +
+                       aLease.m_nDeliveryCount +
+                       ")");
+        return new AS4MPCQueueLease (aMessage, aLease.m_nDeliveryCount, aVisibilityTimeout);
+      }
+
+      // Keep the entry, but hide it for a while and try the next one
+      final Duration aRetryDelay = m_aRWLock.writeLockedGet ( () -> {
+        if (!aLease.isCurrent ())
+          return null;
+        final Channel aChannel = m_aChannels.get (sMPCID);
+        if (aChannel == null)
+          return null;
+
+        aEntry.m_nReadFailures++;
+        final Duration aDelay = _getReadRetryDelay (aEntry.m_nReadFailures);
+        // The message was not delivered
+        aEntry.m_nDeliveryCount--;
+        // Outdate the current lease and replace it
+        aEntry.m_nLeaseGeneration++;
+        aChannel.m_aLeases.add (new LeaseRef (aEntry, System.nanoTime () + aDelay.toNanos ()));
+        return aDelay;
+      });
+      if (aRetryDelay != null)
+        LOGGER.error ("Failed to read queued message '" +
+                      aEntry.m_sMessageID +
+                      "' of MPC '" +
+                      sMPCID +
+                      "' - retrying in " +
+                      aRetryDelay.toMillis () +
+                      " ms");
+    }
+  }
+
+  @Nonnull
+  private Duration _getReadRetryDelay (final int nReadFailures)
+  {
+    Duration ret = m_aReadRetryDelay;
+    for (int i = 1; i < nReadFailures && ret.compareTo (MAX_READ_RETRY_DELAY) < 0; ++i)
+      ret = ret.multipliedBy (2);
+    return ret.compareTo (MAX_READ_RETRY_DELAY) < 0 ? ret : MAX_READ_RETRY_DELAY;
+  }
+
+  @GuardedBy ("m_aRWLock")
+  @Nonnull
+  private ScheduledThreadPoolExecutor _getWaitTimer ()
+  {
+    if (m_aWaitTimer == null)
+    {
+      final ScheduledThreadPoolExecutor aTimer = new ScheduledThreadPoolExecutor (1,
+                                                                                 new BasicThreadFactory.Builder ().namingPattern ("phase4-mpc-wait-%d")
+                                                                                                                  .daemon (true)
+                                                                                                                  .build ());
+      // Timeouts are usually cancelled, because a message arrived
+      aTimer.setRemoveOnCancelPolicy (true);
+      // Don't keep an idle thread
+      aTimer.setKeepAliveTime (1, TimeUnit.MINUTES);
+      aTimer.allowCoreThreadTimeOut (true);
+      m_aWaitTimer = aTimer;
+    }
+    return m_aWaitTimer;
+  }
+
+  private void _onWaitTimeout (@Nonnull final Waiter aWaiter)
+  {
+    final boolean bRemoved = m_aRWLock.writeLockedBoolean ( () -> {
+      final Channel aChannel = m_aChannels.get (aWaiter.m_sMPCID);
+      if (aChannel == null || !aChannel.m_aWaiters.remove (aWaiter))
+      {
+        // Already woken up
+        return false;
+      }
+      m_nWaitingLeases--;
+      if (aChannel.isUnused ())
+        m_aChannels.remove (aWaiter.m_sMPCID);
+      return true;
+    });
+    if (bRemoved)
+      aWaiter.invoke ();
+  }
+
+  public final boolean awaitMessage (@Nullable final String sMPCID, @Nonnull final Duration aMaxWait, @Nonnull final Runnable aCallback)
+  {
+    ValueEnforcer.notNull (aMaxWait, "MaxWait");
+    ValueEnforcer.isFalse (aMaxWait.isNegative (), "MaxWait may not be negative");
+    ValueEnforcer.notNull (aCallback, "Callback");
+
+    if (StringHelper.hasNoText (sMPCID) || aMaxWait.isZero ())
+      return false;
+
+    final Waiter aWaiter = new Waiter (sMPCID, aCallback);
+    return m_aRWLock.writeLockedBoolean ( () -> {
+      long nWaitNanos = aMaxWait.toNanos ();
+      Channel aChannel = m_aChannels.get (sMPCID);
+      if (aChannel != null)
+      {
+        final long nNow = System.nanoTime ();
+        aChannel.restoreExpiredLeases (nNow);
+        if (aChannel.m_aVisible.isNotEmpty ())
+        {
+          // Lease directly
+          return false;
+        }
+
+        // Wake up latest when the next lease expires
+        final LeaseRef aNextLease = aChannel.m_aLeases.peek ();
+        if (aNextLease != null)
+          nWaitNanos = Math.min (nWaitNanos, Math.max (aNextLease.m_nExpirationNanos - nNow, 1));
+      }
+
+      if (m_nWaitingLeases >= m_nMaxWaitingLeases)
+      {
+        LOGGER.warn ("Too many waiting leases (" + m_nWaitingLeases + ") - not waiting for a message in MPC '" + sMPCID + "'");
+        return false;
+      }
+
+      if (aChannel == null)
+      {
+        // Removed again when the last waiter leaves
+        aChannel = new Channel ();
+        m_aChannels.put (sMPCID, aChannel);
+      }
+      aChannel.m_aWaiters.addLast (aWaiter);
+      m_nWaitingLeases++;
+      aWaiter.m_aTimeout = _getWaitTimer ().schedule ( () -> _onWaitTimeout (aWaiter), nWaitNanos, TimeUnit.NANOSECONDS);
+      return true;
+    });
+  }
+
+  @Nonnull
+  public final EChange acknowledge (@Nullable final String sMessageID, @Nullable final String sSenderID)
+  {
+    if (StringHelper.hasNoText (sMessageID))
+      return EChange.UNCHANGED;
+
+    final QueueEntry aEntry = m_aRWLock.writeLockedGet ( () -> {
+      final QueueEntry aQueued = m_aEntries.get (sMessageID);
+      if (aQueued == null)
+        return null;
+      if (aQueued.m_nDeliveryCount == 0)
+      {
+        LOGGER.warn ("Ignoring acknowledgement of message '" + sMessageID + "' of MPC '" + aQueued.m_sMPCID + "' that was never leased");
+        return null;
+      }
+      if (!EqualsHelper.equals (aQueued.m_sLeaseOwnerID, sSenderID))
+      {
+        LOGGER.warn ("Ignoring acknowledgement of message '" +
+                     sMessageID +
+                     "' of MPC '" +
+                     aQueued.m_sMPCID +
+                     "' from '" +
+                     sSenderID +
+                     "' because it was leased by '" +
+                     aQueued.m_sLeaseOwnerID +
+                     "'");
+        return null;
+      }
+      _remove (aQueued);
+      return aQueued;
+    });
+    if (aEntry == null)
+      return EChange.UNCHANGED;
+
+    onRemoved (aEntry);
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Acknowledged message '" + sMessageID + "' of MPC '" + aEntry.m_sMPCID + "'");
+    return EChange.CHANGED;
+  }
+
+  @Nonnull
+  public final EChange acknowledge (@Nullable final String sMessageID)
+  {
+    final QueueEntry aEntry = internalRemove (sMessageID);
+    if (aEntry == null)
+      return EChange.UNCHANGED;
+
+    onRemoved (aEntry);
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Acknowledged message '" + sMessageID + "' of MPC '" + aEntry.m_sMPCID + "'");
+    return EChange.CHANGED;
+  }
+}
@@ -0,0 +1,208 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.mpcqueue;
+
+import java.time.Duration;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.state.EChange;
+
+/**
+ * Base interface for the queue of user messages that wait to be pulled. There
+ * is one FIFO channel per MPC. A pull request leases the oldest visible message
+ * of its MPC. The message stays invisible until the visibility timeout
+ * expired, and is delivered again, if no receipt was received until then.
+ * Only a receipt of the party that leased the message removes it.<br>
+ * The queue performs no authorisation itself. The
+ * {@link com.helger.phase4.servlet.AS4RequestHandler} only leases a message
+ * after a message processor SPI accepted the pull request.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+public interface IAS4MPCQueueManager
+{
+  /** The default visibility timeout of leased messages */
+  Duration DEFAULT_VISIBILITY_TIMEOUT = Duration.ofMinutes (5);
+
+  /**
+   * @return <code>true</code> if no message is queued in any MPC,
+   *         <code>false</code> otherwise.
+   */
+  default boolean isEmpty ()
+  {
+    return size () == 0;
+  }
+
+  /**
+   * @return The number of queued messages of all MPCs, including the leased
+   *         ones. Always &ge; 0.
+   */
+  @Nonnegative
+  int size ();
+
+  /**
+   * Get the number of queued messages of a single MPC.
+   *
+   * @param sMPCID
+   *        The MPC ID to check. May be <code>null</code>.
+   * @return The number of queued messages of the MPC, including the leased
+   *         ones. Always &ge; 0.
+   */
+  @Nonnegative
+  int getQueuedCount (@Nullable String sMPCID);
+
+  /**
+   * Check if a message with the provided AS4 message ID is queued.
+   *
+   * @param sMessageID
+   *        The message ID to check. May be <code>null</code>.
+   * @return <code>true</code> if it is queued (leased or not),
+   *         <code>false</code> otherwise.
+   */
+  boolean containsMessage (@Nullable String sMessageID);
+
+  /**
+   * Get the PMode ID to be used for a pull request on the provided MPC. This is
+   * the PMode ID of the oldest visible message or, if there is none, the
+   * PMode ID of the last message that was queued for it.
+   *
+   * @param sMPCID
+   *        The MPC ID to check. May be <code>null</code>.
+   * @return <code>null</code> if no message with a PMode ID was ever queued
+   *         for the MPC.
+   */
+  @Nullable
+  String getPModeIDOfMPC (@Nullable String sMPCID);
+
+  /**
+   * Append a message at the end of the queue of its MPC.
+   *
+   * @param aMessage
+   *        The message to queue. May not be <code>null</code>.
+   * @return {@link EChange#UNCHANGED} if a message with the same message ID is
+   *         already queued, or if the queue of the MPC is full.
+   */
+  @Nonnull
+  EChange enqueue (@Nonnull AS4MPCQueueMessage aMessage);
+
+  /**
+   * Lease the oldest visible message of the provided MPC.
+   *
+   * @param sMPCID
+   *        The MPC to lease from. May be <code>null</code>.
+   * @param sLeaseOwnerID
+   *        The ID of the party that leases the message. Only this party may
+   *        acknowledge it via {@link #acknowledge(String, String)}. May be
+   *        <code>null</code> if the party is unknown.
+   * @param aVisibilityTimeout
+   *        The duration after which the message is delivered again, if it was
+   *        not acknowledged. May not be <code>null</code>.
+   * @return <code>null</code> if no visible message is contained.
+   */
+  @Nullable
+  AS4MPCQueueLease lease (@Nullable String sMPCID, @Nullable String sLeaseOwnerID, @Nonnull Duration aVisibilityTimeout);
+
+  /**
+   * Lease the oldest visible message of the provided MPC for an unknown party.
+   *
+   * @param sMPCID
+   *        The MPC to lease from. May be <code>null</code>.
+   * @param aVisibilityTimeout
+   *        The duration after which the message is delivered again, if it was
+   *        not acknowledged. May not be <code>null</code>.
+   * @return <code>null</code> if no visible message is contained.
+   */
+  @Nullable
+  default AS4MPCQueueLease lease (@Nullable final String sMPCID, @Nonnull final Duration aVisibilityTimeout)
+  {
+    return lease (sMPCID, (String) null, aVisibilityTimeout);
+  }
+
+  /**
+   * Lease the oldest visible message of the provided MPC, using the
+   * {@link #DEFAULT_VISIBILITY_TIMEOUT}.
+   *
+   * @param sMPCID
+   *        The MPC to lease from. May be <code>null</code>.
+   * @return <code>null</code> if no visible message is contained.
+   */
+  @Nullable
+  default AS4MPCQueueLease lease (@Nullable final String sMPCID)
+  {
+    return lease (sMPCID, DEFAULT_VISIBILITY_TIMEOUT);
+  }
+
+  /**
+   * Wait for a message of the provided MPC without blocking the current
+   * thread. This is the basis for long polling pull requests. If no visible
+   * message is contained, the callback is registered and invoked exactly once
+   * - either when a new message was queued for the MPC, when a lease of the MPC
+   * expired, or when the maximum wait duration passed. The callback must not
+   * block, because it may be invoked from the thread that queues a message.
+   * The default implementation does not wait.
+   *
+   * @param sMPCID
+   *        The MPC to wait for. May be <code>null</code>.
+   * @param aMaxWait
+   *        The maximum duration to wait for a message. May not be
+   *        <code>null</code>.
+   * @param aCallback
+   *        The callback to be invoked once. May not be <code>null</code>.
+   * @return <code>true</code> if the callback was registered,
+   *         <code>false</code> if a message is already visible or if waiting is
+   *         not possible. In the latter case the callback is never invoked and
+   *         the caller should lease directly.
+   */
+  default boolean awaitMessage (@Nullable final String sMPCID, @Nonnull final Duration aMaxWait, @Nonnull final Runnable aCallback)
+  {
+    return false;
+  }
+
+  /**
+   * Acknowledge the message with the provided message ID, usually because a
+   * receipt for it was received. The message is only removed from the queue,
+   * if it was leased before and if the acknowledging party is the party that
+   * leased it last.
+   *
+   * @param sMessageID
+   *        The AS4 message ID of the queued message. May be <code>null</code>.
+   * @param sSenderID
+   *        The ID of the party that acknowledges the message. Must match the
+   *        lease owner ID provided to
+   *        {@link #lease(String, String, Duration)}. May be
+   *        <code>null</code>.
+   * @return {@link EChange#UNCHANGED} if no such message is queued, if it was
+   *         never leased or if it was leased by another party.
+   */
+  @Nonnull
+  EChange acknowledge (@Nullable String sMessageID, @Nullable String sSenderID);
+
+  /**
+   * Remove the message with the provided message ID from the queue,
+   * independent of any lease. This is meant for administrative purposes.
+   *
+   * @param sMessageID
+   *        The AS4 message ID of the queued message. May be <code>null</code>.
+   * @return {@link EChange#UNCHANGED} if no such message is queued.
+   */
+  @Nonnull
+  EChange acknowledge (@Nullable String sMessageID);
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.outbound;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.w3c.dom.Document;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.httpclient.response.ResponseHandlerXml;
+import com.helger.phase4.dump.IAS4OutgoingDumper;
+import com.helger.phase4.http.AS4HttpDebug;
+import com.helger.phase4.http.BasicHttpPoster;
+import com.helger.phase4.http.HttpRetrySettings;
+import com.helger.xml.serialize.write.XMLWriter;
+
+/**
+ * Default implementation of {@link IAS4OutboundQueueSender} that sends the
+ * message via HTTP POST using a {@link BasicHttpPoster}.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+public class AS4OutboundQueueHttpSender implements IAS4OutboundQueueSender
+{
+  private final BasicHttpPoster m_aHttpPoster;
+  private IAS4OutgoingDumper m_aOutgoingDumper;
+
+  public AS4OutboundQueueHttpSender ()
+  {
+    this (new BasicHttpPoster ());
+  }
+
+  public AS4OutboundQueueHttpSender (@Nonnull final BasicHttpPoster aHttpPoster)
+  {
+    ValueEnforcer.notNull (aHttpPoster, "HttpPoster");
+    m_aHttpPoster = aHttpPoster;
+  }
+
+  /**
+   * @return The HTTP poster used. Never <code>null</code>.
+   */
+  @Nonnull
+  public final BasicHttpPoster getHttpPoster ()
+  {
+    return m_aHttpPoster;
+  }
+
+  /**
+   * @return The specific outgoing dumper to be used. May be <code>null</code>
+   *         in which case the global one is used.
+   */
+  @Nullable
+  public final IAS4OutgoingDumper getOutgoingDumper ()
+  {
+    return m_aOutgoingDumper;
+  }
+
+  /**
+   * @param aOutgoingDumper
+   *        The specific outgoing dumper to be used. May be <code>null</code>
+   *        in which case the global one is used.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final AS4OutboundQueueHttpSender setOutgoingDumper (@Nullable final IAS4OutgoingDumper aOutgoingDumper)
+  {
+    m_aOutgoingDumper = aOutgoingDumper;
+    return this;
+  }
+
+  public void sendMessage (@Nonnull final IAS4OutboundQueueItem aItem, @Nonnull final byte [] aPayload) throws Exception
+  {
+    final ByteArrayEntity aHttpEntity = new ByteArrayEntity (aPayload, ContentType.parse (aItem.getContentType ()));
+
+    // Retries are handled by the scheduler
+    final Document aResponse = m_aHttpPoster.sendGenericMessageWithRetries (aItem.getTargetURL (),
+                                                                            null,
+                                                                            aHttpEntity,
+                                                                            aItem.getMessageID (),
+                                                                            new HttpRetrySettings (),
+                                                                            new ResponseHandlerXml (),
+                                                                            m_aOutgoingDumper,
+                                                                            null);
+    AS4HttpDebug.debug ( () -> "SEND-RESPONSE [async sent] received: " +
+                               XMLWriter.getNodeAsString (aResponse, AS4HttpDebug.getDebugXMLWriterSettings ()));
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("HttpPoster", m_aHttpPoster)
+                                       .append ("OutgoingDumper", m_aOutgoingDumper)
+                                       .getToString ();
+  }
+}
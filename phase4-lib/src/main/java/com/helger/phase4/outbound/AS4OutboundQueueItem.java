@@ -0,0 +1,200 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.outbound;
+
+import java.time.OffsetDateTime;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.equals.EqualsHelper;
+import com.helger.commons.hashcode.HashCodeGenerator;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.mgr.MetaAS4Manager;
+
+/**
+ * This class represents a single message waiting in the outbound queue.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+public class AS4OutboundQueueItem implements IAS4OutboundQueueItem
+{
+  private final OffsetDateTime m_aDT;
+  private final String m_sMessageID;
+  private final String m_sRefToMessageID;
+  private final String m_sPModeID;
+  private final String m_sTargetURL;
+  private final String m_sContentType;
+  private final int m_nMaxRetries;
+  private final long m_nRetryIntervalMS;
+  private int m_nAttemptCount;
+
+  public AS4OutboundQueueItem (@Nonnull @Nonempty final String sMessageID,
+                               @Nullable final String sRefToMessageID,
+                               @Nullable final String sPModeID,
+                               @Nonnull @Nonempty final String sTargetURL,
+                               @Nonnull @Nonempty final String sContentType,
+                               @Nonnegative final int nMaxRetries,
+                               @Nonnegative final long nRetryIntervalMS)
+  {
+    this (MetaAS4Manager.getTimestampMgr ().getCurrentDateTime (),
+          sMessageID,
+          sRefToMessageID,
+          sPModeID,
+          sTargetURL,
+          sContentType,
+          nMaxRetries,
+          nRetryIntervalMS,
+          0);
+  }
+
+  protected AS4OutboundQueueItem (@Nonnull final OffsetDateTime aDT,
+                                  @Nonnull @Nonempty final String sMessageID,
+                                  @Nullable final String sRefToMessageID,
+                                  @Nullable final String sPModeID,
+                                  @Nonnull @Nonempty final String sTargetURL,
+                                  @Nonnull @Nonempty final String sContentType,
+                                  @Nonnegative final int nMaxRetries,
+                                  @Nonnegative final long nRetryIntervalMS,
+                                  @Nonnegative final int nAttemptCount)
+  {
+    m_aDT = ValueEnforcer.notNull (aDT, "DT");
+    m_sMessageID = ValueEnforcer.notEmpty (sMessageID, "MessageID");
+    m_sRefToMessageID = sRefToMessageID;
+    m_sPModeID = sPModeID;
+    m_sTargetURL = ValueEnforcer.notEmpty (sTargetURL, "TargetURL");
+    m_sContentType = ValueEnforcer.notEmpty (sContentType, "ContentType");
+    m_nMaxRetries = ValueEnforcer.isGE0 (nMaxRetries, "MaxRetries");
+    m_nRetryIntervalMS = ValueEnforcer.isGE0 (nRetryIntervalMS, "RetryIntervalMS");
+    m_nAttemptCount = ValueEnforcer.isGE0 (nAttemptCount, "AttemptCount");
+  }
+
+  @Nonnull
+  public final OffsetDateTime getCreationDateTime ()
+  {
+    return m_aDT;
+  }
+
+  @Nonnull
+  @Nonempty
+  public final String getID ()
+  {
+    return m_sMessageID;
+  }
+
+  @Nullable
+  public final String getRefToMessageID ()
+  {
+    return m_sRefToMessageID;
+  }
+
+  @Nullable
+  public final String getPModeID ()
+  {
+    return m_sPModeID;
+  }
+
+  @Nonnull
+  @Nonempty
+  public final String getTargetURL ()
+  {
+    return m_sTargetURL;
+  }
+
+  @Nonnull
+  @Nonempty
+  public final String getContentType ()
+  {
+    return m_sContentType;
+  }
+
+  @Nonnegative
+  public final int getMaxRetries ()
+  {
+    return m_nMaxRetries;
+  }
+
+  @Nonnegative
+  public final long getRetryIntervalMS ()
+  {
+    return m_nRetryIntervalMS;
+  }
+
+  @Nonnegative
+  public final int getAttemptCount ()
+  {
+    return m_nAttemptCount;
+  }
+
+  final void incAttemptCount ()
+  {
+    m_nAttemptCount++;
+  }
+
+  @Override
+  public boolean equals (final Object o)
+  {
+    if (o == this)
+      return true;
+    if (o == null || !getClass ().equals (o.getClass ()))
+      return false;
+    final AS4OutboundQueueItem rhs = (AS4OutboundQueueItem) o;
+    // DT not contained!
+    return m_sMessageID.equals (rhs.m_sMessageID) &&
+           EqualsHelper.equals (m_sRefToMessageID, rhs.m_sRefToMessageID) &&
+           EqualsHelper.equals (m_sPModeID, rhs.m_sPModeID) &&
+           m_sTargetURL.equals (rhs.m_sTargetURL) &&
+           m_sContentType.equals (rhs.m_sContentType) &&
+           m_nMaxRetries == rhs.m_nMaxRetries &&
+           m_nRetryIntervalMS == rhs.m_nRetryIntervalMS &&
+           m_nAttemptCount == rhs.m_nAttemptCount;
+  }
+
+  @Override
+  public int hashCode ()
+  {
+    // DT not contained!
+    return new HashCodeGenerator (this).append (m_sMessageID)
+                                       .append (m_sRefToMessageID)
+                                       .append (m_sPModeID)
+                                       .append (m_sTargetURL)
+                                       .append (m_sContentType)
+                                       .append (m_nMaxRetries)
+                                       .append (m_nRetryIntervalMS)
+                                       .append (m_nAttemptCount)
+                                       .getHashCode ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("DT", m_aDT)
+                                       .append ("MessageID", m_sMessageID)
+                                       .appendIfNotNull ("RefToMessageID", m_sRefToMessageID)
+                                       .appendIfNotNull ("PModeID", m_sPModeID)
+                                       .append ("TargetURL", m_sTargetURL)
+                                       .append ("ContentType", m_sContentType)
+                                       .append ("MaxRetries", m_nMaxRetries)
+                                       .append ("RetryIntervalMS", m_nRetryIntervalMS)
+                                       .append ("AttemptCount", m_nAttemptCount)
+                                       .getToString ();
+  }
+}
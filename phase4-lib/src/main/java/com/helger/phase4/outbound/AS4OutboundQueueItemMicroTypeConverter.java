@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.outbound;
+
+import java.time.OffsetDateTime;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.string.StringParser;
+import com.helger.xml.microdom.IMicroElement;
+import com.helger.xml.microdom.MicroElement;
+import com.helger.xml.microdom.convert.IMicroTypeConverter;
+
+/**
+ * Micro type converter for class {@link AS4OutboundQueueItem}.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+public final class AS4OutboundQueueItemMicroTypeConverter implements IMicroTypeConverter <AS4OutboundQueueItem>
+{
+  private static final String ATTR_DT = "dt";
+  private static final String ATTR_MESSAGE_ID = "msgid";
+  private static final String ATTR_REF_TO_MESSAGE_ID = "reftomsgid";
+  private static final String ATTR_PMODE_ID = "pmodeid";
+  private static final String ATTR_TARGET_URL = "targeturl";
+  private static final String ATTR_CONTENT_TYPE = "contenttype";
+  private static final String ATTR_MAX_RETRIES = "maxretries";
+  private static final String ATTR_RETRY_INTERVAL_MS = "retryintervalms";
+  private static final String ATTR_ATTEMPT_COUNT = "attemptcount";
+
+  @Nonnull
+  public IMicroElement convertToMicroElement (@Nonnull final AS4OutboundQueueItem aValue,
+                                              @Nullable final String sNamespaceURI,
+                                              @Nonnull final String sTagName)
+  {
+    final IMicroElement ret = new MicroElement (sNamespaceURI, sTagName);
+    ret.setAttributeWithConversion (ATTR_DT, aValue.getCreationDateTime ());
+    ret.setAttribute (ATTR_MESSAGE_ID, aValue.getMessageID ());
+    ret.setAttribute (ATTR_REF_TO_MESSAGE_ID, aValue.getRefToMessageID ());
+    ret.setAttribute (ATTR_PMODE_ID, aValue.getPModeID ());
+    ret.setAttribute (ATTR_TARGET_URL, aValue.getTargetURL ());
+    ret.setAttribute (ATTR_CONTENT_TYPE, aValue.getContentType ());
+    ret.setAttribute (ATTR_MAX_RETRIES, aValue.getMaxRetries ());
+    ret.setAttribute (ATTR_RETRY_INTERVAL_MS, aValue.getRetryIntervalMS ());
+    ret.setAttribute (ATTR_ATTEMPT_COUNT, aValue.getAttemptCount ());
+    return ret;
+  }
+
+  @Nonnull
+  public AS4OutboundQueueItem convertToNative (@Nonnull final IMicroElement aElement)
+  {
+    final OffsetDateTime aODT = aElement.getAttributeValueWithConversion (ATTR_DT, OffsetDateTime.class);
+    final String sMsgID = aElement.getAttributeValue (ATTR_MESSAGE_ID);
+    final String sRefToMsgID = aElement.getAttributeValue (ATTR_REF_TO_MESSAGE_ID);
+    final String sPModeID = aElement.getAttributeValue (ATTR_PMODE_ID);
+    final String sTargetURL = aElement.getAttributeValue (ATTR_TARGET_URL);
+    final String sContentType = aElement.getAttributeValue (ATTR_CONTENT_TYPE);
+    final int nMaxRetries = StringParser.parseInt (aElement.getAttributeValue (ATTR_MAX_RETRIES), 0);
+    final long nRetryIntervalMS = StringParser.parseLong (aElement.getAttributeValue (ATTR_RETRY_INTERVAL_MS), 0);
+    final int nAttemptCount = StringParser.parseInt (aElement.getAttributeValue (ATTR_ATTEMPT_COUNT), 0);
+    return new AS4OutboundQueueItem (aODT,
+                                     sMsgID,
+                                     sRefToMsgID,
+                                     sPModeID,
+                                     sTargetURL,
+                                     sContentType,
+                                     nMaxRetries,
+                                     nRetryIntervalMS,
+                                     nAttemptCount);
+  }
+}
@@ -0,0 +1,210 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.outbound;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.io.file.FilenameHelper;
+import com.helger.commons.io.file.SimpleFileIO;
+import com.helger.commons.state.EChange;
+import com.helger.commons.string.StringHelper;
+import com.helger.dao.DAOException;
+import com.helger.phase4.util.AS4IOHelper;
+import com.helger.photon.app.dao.AbstractPhotonMapBasedWALDAO;
+
+/**
+ * Persistent implementation of {@link IAS4OutboundQueueManager}. The items
+ * are stored in a write-ahead-log based XML file, and the payloads are stored
+ * as separate files, so that all pending messages can be recovered after a
+ * crash. Both the payloads and the write-ahead-log are synced to disk before
+ * an operation returns.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@ThreadSafe
+public class AS4OutboundQueueManager extends AbstractPhotonMapBasedWALDAO <IAS4OutboundQueueItem, AS4OutboundQueueItem> implements
+                                     IAS4OutboundQueueManager
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4OutboundQueueManager.class);
+
+  private final String m_sPayloadDirectory;
+
+  /**
+   * Constructor
+   *
+   * @param sFilename
+   *        The filename of the XML file with the queue items, relative to the
+   *        data directory. May neither be <code>null</code> nor empty.
+   * @param sPayloadDirectory
+   *        The directory where the payloads are stored, relative to the data
+   *        directory. May neither be <code>null</code> nor empty.
+   * @throws DAOException
+   *         In case reading the existing data fails
+   */
+  public AS4OutboundQueueManager (@Nonnull @Nonempty final String sFilename,
+                                  @Nonnull @Nonempty final String sPayloadDirectory) throws DAOException
+  {
+    super (AS4OutboundQueueItem.class, ValueEnforcer.notEmpty (sFilename, "Filename"));
+    ValueEnforcer.notEmpty (sPayloadDirectory, "PayloadDirectory");
+    m_sPayloadDirectory = sPayloadDirectory;
+    getIO ().createDirectory (sPayloadDirectory, true);
+  }
+
+  @Nonnull
+  private File _getPayloadFile (@Nonnull final String sID)
+  {
+    return getIO ().getFile (m_sPayloadDirectory + "/" + FilenameHelper.getAsSecureValidASCIIFilename (sID) + ".bin");
+  }
+
+  private static void _writeAndSync (@Nonnull final File aFile, @Nonnull final byte [] aBytes) throws IOException
+  {
+    try (final FileChannel aChannel = FileChannel.open (aFile.toPath (),
+                                                        StandardOpenOption.CREATE,
+                                                        StandardOpenOption.WRITE,
+                                                        StandardOpenOption.TRUNCATE_EXISTING))
+    {
+      final ByteBuffer aBB = ByteBuffer.wrap (aBytes);
+      while (aBB.hasRemaining ())
+        aChannel.write (aBB);
+      aChannel.force (false);
+    }
+  }
+
+  private void _syncWAL ()
+  {
+    final String sFilename = getFilenameProvider ().get ();
+    if (sFilename == null)
+      return;
+
+    // The WAL file is written by the base class without sync upon each
+    // modification
+    final File aWALFile = getIO ().getFile (sFilename + ".wal");
+    if (aWALFile.exists ())
+      try (final FileChannel aChannel = FileChannel.open (aWALFile.toPath (), StandardOpenOption.WRITE))
+      {
+        aChannel.force (false);
+      }
+      catch (final IOException ex)
+      {
+        throw new IllegalStateException ("Failed to sync outbound queue WAL file " + aWALFile.getAbsolutePath (), ex);
+      }
+  }
+
+  @Nullable
+  public IAS4OutboundQueueItem getItemOfID (@Nullable final String sID)
+  {
+    return getOfID (sID);
+  }
+
+  @Nonnull
+  public EChange addItem (@Nonnull final AS4OutboundQueueItem aItem, @Nonnull final byte [] aPayload)
+  {
+    ValueEnforcer.notNull (aItem, "Item");
+    ValueEnforcer.notNull (aPayload, "Payload");
+
+    final String sID = aItem.getID ();
+    if (containsWithID (sID))
+      return EChange.UNCHANGED;
+
+    // Write the payload first, so that an item never exists without payload
+    final File aPayloadFile = _getPayloadFile (sID);
+    try
+    {
+      _writeAndSync (aPayloadFile, aPayload);
+    }
+    catch (final IOException ex)
+    {
+      throw new IllegalStateException ("Failed to write outbound payload to " + aPayloadFile.getAbsolutePath (), ex);
+    }
+
+    try
+    {
+      m_aRWLock.writeLocked ( () -> {
+        internalCreateItem (aItem);
+        _syncWAL ();
+      });
+    }
+    catch (final IllegalArgumentException ex)
+    {
+      // ID already in use - concurrently added
+      return EChange.UNCHANGED;
+    }
+    return EChange.CHANGED;
+  }
+
+  @Nullable
+  public byte [] getPayload (@Nullable final String sID)
+  {
+    if (StringHelper.hasNoText (sID) || !containsWithID (sID))
+      return null;
+
+    final File aPayloadFile = _getPayloadFile (sID);
+    final byte [] ret = SimpleFileIO.getAllFileBytes (aPayloadFile);
+    if (ret == null)
+      LOGGER.error ("Failed to read outbound payload from " + aPayloadFile.getAbsolutePath ());
+    return ret;
+  }
+
+  @Nonnull
+  public EChange onFailedAttempt (@Nullable final String sID)
+  {
+    final AS4OutboundQueueItem aItem = getOfID (sID);
+    if (aItem == null)
+      return EChange.UNCHANGED;
+
+    m_aRWLock.writeLocked ( () -> {
+      aItem.incAttemptCount ();
+      internalUpdateItem (aItem);
+      _syncWAL ();
+    });
+    return EChange.CHANGED;
+  }
+
+  @Nonnull
+  public EChange removeItem (@Nullable final String sID)
+  {
+    if (StringHelper.hasNoText (sID))
+      return EChange.UNCHANGED;
+
+    final AS4OutboundQueueItem aDeleted = m_aRWLock.writeLockedGet ( () -> {
+      final AS4OutboundQueueItem ret = internalDeleteItem (sID);
+      if (ret != null)
+        _syncWAL ();
+      return ret;
+    });
+    if (aDeleted == null)
+      return EChange.UNCHANGED;
+
+    // Delete the payload after the item
+    AS4IOHelper.getFileOperationManager ().deleteFileIfExisting (_getPayloadFile (sID));
+    return EChange.CHANGED;
+  }
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.outbound;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.commons.state.EChange;
+import com.helger.commons.string.StringHelper;
+
+/**
+ * In-memory implementation of {@link IAS4OutboundQueueManager}. Queued
+ * messages are lost when the application is stopped.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@ThreadSafe
+public class AS4OutboundQueueManagerInMemory implements IAS4OutboundQueueManager
+{
+  private final SimpleReadWriteLock m_aRWLock = new SimpleReadWriteLock ();
+  @GuardedBy ("m_aRWLock")
+  private final ICommonsMap <String, AS4OutboundQueueItem> m_aMap = new CommonsHashMap <> ();
+  @GuardedBy ("m_aRWLock")
+  private final ICommonsMap <String, byte []> m_aPayloads = new CommonsHashMap <> ();
+
+  public AS4OutboundQueueManagerInMemory ()
+  {}
+
+  public boolean isEmpty ()
+  {
+    return m_aRWLock.readLockedBoolean (m_aMap::isEmpty);
+  }
+
+  @Nonnegative
+  public int size ()
+  {
+    return m_aRWLock.readLockedInt (m_aMap::size);
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IAS4OutboundQueueItem> getAll ()
+  {
+    return m_aRWLock.readLockedGet ( () -> new CommonsArrayList <> (m_aMap.values ()));
+  }
+
+  @Nullable
+  public IAS4OutboundQueueItem getItemOfID (@Nullable final String sID)
+  {
+    if (StringHelper.hasNoText (sID))
+      return null;
+    return m_aRWLock.readLockedGet ( () -> m_aMap.get (sID));
+  }
+
+  @Nonnull
+  public EChange addItem (@Nonnull final AS4OutboundQueueItem aItem, @Nonnull final byte [] aPayload)
+  {
+    ValueEnforcer.notNull (aItem, "Item");
+    ValueEnforcer.notNull (aPayload, "Payload");
+
+    return m_aRWLock.writeLockedGet ( () -> {
+      final String sID = aItem.getID ();
+      if (m_aMap.containsKey (sID))
+        return EChange.UNCHANGED;
+      m_aMap.put (sID, aItem);
+      m_aPayloads.put (sID, aPayload);
+      return EChange.CHANGED;
+    });
+  }
+
+  @Nullable
+  public byte [] getPayload (@Nullable final String sID)
+  {
+    if (StringHelper.hasNoText (sID))
+      return null;
+    return m_aRWLock.readLockedGet ( () -> m_aPayloads.get (sID));
+  }
+
+  @Nonnull
+  public EChange onFailedAttempt (@Nullable final String sID)
+  {
+    if (StringHelper.hasNoText (sID))
+      return EChange.UNCHANGED;
+
+    return m_aRWLock.writeLockedGet ( () -> {
+      final AS4OutboundQueueItem aItem = m_aMap.get (sID);
+      if (aItem == null)
+        return EChange.UNCHANGED;
+      aItem.incAttemptCount ();
+      return EChange.CHANGED;
+    });
+  }
+
+  @Nonnull
+  public EChange removeItem (@Nullable final String sID)
+  {
+    if (StringHelper.hasNoText (sID))
+      return EChange.UNCHANGED;
+
+    return m_aRWLock.writeLockedGet ( () -> {
+      m_aPayloads.remove (sID);
+      return m_aMap.removeObject (sID);
+    });
+  }
+}
@@ -0,0 +1,382 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.outbound;
+
+import java.util.Comparator;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.CommonsHashSet;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.collection.impl.ICommonsSet;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.concurrent.ExecutorServiceHelper;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * Scheduler that sends the messages of an {@link IAS4OutboundQueueManager}.
+ * Messages to the same destination URL are sent strictly in order, one at a
+ * time, whereas up to "parallelism" destinations are served concurrently.
+ * Retries are scheduled based on the settings of each item, so no thread is
+ * blocked while waiting for the next attempt.<br>
+ * Items are only removed from the queue after they were sent successfully or
+ * after all retries failed, so that pending items of a previous run are
+ * recovered with {@link #start()}. This happens implicitly upon the first
+ * submission.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@ThreadSafe
+public class AS4OutboundQueueScheduler implements AutoCloseable
+{
+  public static final int DEFAULT_PARALLELISM = 4;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4OutboundQueueScheduler.class);
+
+  /**
+   * All pending items of a single destination.
+   */
+  private static final class Lane
+  {
+    private final String m_sKey;
+    private final ICommonsList <String> m_aIDs = new CommonsArrayList <> ();
+
+    Lane (@Nonnull final String sKey)
+    {
+      m_sKey = sKey;
+    }
+  }
+
+  private final IAS4OutboundQueueManager m_aQueueMgr;
+  private final IAS4OutboundQueueSender m_aSender;
+  private final ScheduledExecutorService m_aExecutor;
+  private final SimpleLock m_aLock = new SimpleLock ();
+  // Contains only destinations with pending items
+  @GuardedBy ("m_aLock")
+  private final ICommonsMap <String, Lane> m_aLanes = new CommonsHashMap <> ();
+  // The IDs of all items in all lanes
+  @GuardedBy ("m_aLock")
+  private final ICommonsSet <String> m_aScheduledIDs = new CommonsHashSet <> ();
+  private final AtomicBoolean m_aStarted = new AtomicBoolean (false);
+  private final AtomicLong m_aSentCount = new AtomicLong ();
+  private final AtomicLong m_aFailedAttemptCount = new AtomicLong ();
+  private final AtomicLong m_aGivenUpCount = new AtomicLong ();
+
+  /**
+   * Constructor
+   *
+   * @param aQueueMgr
+   *        The queue manager to use. May not be <code>null</code>.
+   * @param aSender
+   *        The sender that performs the actual transmission. May not be
+   *        <code>null</code>.
+   * @param nParallelism
+   *        The maximum number of destinations that are served concurrently.
+   *        Must be &gt; 0.
+   */
+  public AS4OutboundQueueScheduler (@Nonnull final IAS4OutboundQueueManager aQueueMgr,
+                                    @Nonnull final IAS4OutboundQueueSender aSender,
+                                    @Nonnegative final int nParallelism)
+  {
+    ValueEnforcer.notNull (aQueueMgr, "QueueMgr");
+    ValueEnforcer.notNull (aSender, "Sender");
+    ValueEnforcer.isGT0 (nParallelism, "Parallelism");
+    m_aQueueMgr = aQueueMgr;
+    m_aSender = aSender;
+    final ScheduledThreadPoolExecutor aExecutor = new ScheduledThreadPoolExecutor (nParallelism,
+                                                                                   new BasicThreadFactory.Builder ().namingPattern ("phase4-outbound-%d")
+                                                                                                                    .daemon (true)
+                                                                                                                    .build ());
+    // Don't wait for scheduled retries upon shutdown
+    aExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy (false);
+    m_aExecutor = aExecutor;
+  }
+
+  /**
+   * @return The queue manager as provided in the constructor. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public final IAS4OutboundQueueManager getQueueManager ()
+  {
+    return m_aQueueMgr;
+  }
+
+  /**
+   * @return The number of messages that were sent successfully.
+   */
+  @Nonnegative
+  public final long getSentCount ()
+  {
+    return m_aSentCount.get ();
+  }
+
+  /**
+   * @return The number of failed sending attempts, including the ones that
+   *         were retried later.
+   */
+  @Nonnegative
+  public final long getFailedAttemptCount ()
+  {
+    return m_aFailedAttemptCount.get ();
+  }
+
+  /**
+   * @return The number of messages that could not be sent after all retries.
+   */
+  @Nonnegative
+  public final long getGivenUpCount ()
+  {
+    return m_aGivenUpCount.get ();
+  }
+
+  /**
+   * @return The number of destinations that currently have pending items.
+   */
+  @Nonnegative
+  public int getActiveDestinationCount ()
+  {
+    return m_aLock.lockedGet (m_aLanes::size);
+  }
+
+  private void _schedule (@Nonnull final Lane aLane, final long nDelayMS)
+  {
+    try
+    {
+      m_aExecutor.schedule ( () -> _processLane (aLane), nDelayMS, TimeUnit.MILLISECONDS);
+    }
+    catch (final RejectedExecutionException ex)
+    {
+      // Scheduler was closed - the items remain in the queue
+      LOGGER.warn ("Outbound queue scheduler is shut down. Pending items of '" + aLane.m_sKey + "' remain in the queue");
+    }
+  }
+
+  private void _removeHeadAndContinue (@Nonnull final Lane aLane)
+  {
+    m_aLock.locked ( () -> m_aScheduledIDs.remove (aLane.m_aIDs.removeFirst ()));
+    _schedule (aLane, 0);
+  }
+
+  private void _processLane (@Nonnull final Lane aLane)
+  {
+    final String sID = m_aLock.lockedGet ( () -> {
+      if (aLane.m_aIDs.isEmpty ())
+      {
+        // Nothing more to do for this destination
+        m_aLanes.remove (aLane.m_sKey);
+        return null;
+      }
+      return aLane.m_aIDs.getFirst ();
+    });
+    if (sID == null)
+      return;
+
+    final IAS4OutboundQueueItem aItem = m_aQueueMgr.getItemOfID (sID);
+    final byte [] aPayload = aItem == null ? null : m_aQueueMgr.getPayload (sID);
+    if (aItem == null || aPayload == null)
+    {
+      if (aItem != null)
+        LOGGER.error ("Outbound message '" + sID + "' has no payload and is discarded");
+      m_aQueueMgr.removeItem (sID);
+      _removeHeadAndContinue (aLane);
+      return;
+    }
+
+    try
+    {
+      m_aSender.sendMessage (aItem, aPayload);
+
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Successfully sent outbound message '" + sID + "' to '" + aItem.getTargetURL () + "'");
+      m_aSentCount.incrementAndGet ();
+      m_aQueueMgr.removeItem (sID);
+      _removeHeadAndContinue (aLane);
+    }
+    catch (final Exception ex)
+    {
+      m_aFailedAttemptCount.incrementAndGet ();
+      m_aQueueMgr.onFailedAttempt (sID);
+
+      final IAS4OutboundQueueItem aUpdatedItem = m_aQueueMgr.getItemOfID (sID);
+      if (aUpdatedItem != null && aUpdatedItem.isRetryAllowed ())
+      {
+        LOGGER.warn ("Failed to send outbound message '" +
+                     sID +
+                     "' to '" +
+                     aItem.getTargetURL () +
+                     "' (attempt " +
+                     aUpdatedItem.getAttemptCount () +
+                     "/" +
+                     (aUpdatedItem.getMaxRetries () + 1) +
+                     "). Retrying in " +
+                     aUpdatedItem.getRetryIntervalMS () +
+                     " ms: " +
+                     ex.getMessage ());
+        // Keep the item as the head of the lane to retain the order
+        _schedule (aLane, aUpdatedItem.getRetryIntervalMS ());
+      }
+      else
+      {
+        LOGGER.error ("Finally failed to send outbound message '" + sID + "' to '" + aItem.getTargetURL () + "'", ex);
+        m_aGivenUpCount.incrementAndGet ();
+        m_aQueueMgr.removeItem (sID);
+        _removeHeadAndContinue (aLane);
+      }
+    }
+  }
+
+  /**
+   * Get the key by which messages are ordered. By default this is the target
+   * URL.
+   *
+   * @param aItem
+   *        The item to get the key from. Never <code>null</code>.
+   * @return The key and never <code>null</code>.
+   */
+  @Nonnull
+  protected String getDestinationKey (@Nonnull final IAS4OutboundQueueItem aItem)
+  {
+    return aItem.getTargetURL ();
+  }
+
+  private boolean _submit (@Nonnull final IAS4OutboundQueueItem aItem)
+  {
+    // Each item is scheduled only once
+    if (!m_aLock.lockedBoolean ( () -> m_aScheduledIDs.add (aItem.getID ())))
+      return false;
+
+    final String sKey = getDestinationKey (aItem);
+    final Lane aNewLane = m_aLock.lockedGet ( () -> {
+      Lane aLane = m_aLanes.get (sKey);
+      final boolean bIsNew = aLane == null;
+      if (bIsNew)
+      {
+        aLane = new Lane (sKey);
+        m_aLanes.put (sKey, aLane);
+      }
+      aLane.m_aIDs.add (aItem.getID ());
+      return bIsNew ? aLane : null;
+    });
+
+    // Only start processing for new lanes
+    if (aNewLane != null)
+      _schedule (aNewLane, 0);
+    return true;
+  }
+
+  /**
+   * Schedule the sending of an item that is already contained in the queue
+   * manager. Submitting an item that is already scheduled has no effect.
+   *
+   * @param aItem
+   *        The item to be sent. May not be <code>null</code>.
+   */
+  public void submit (@Nonnull final IAS4OutboundQueueItem aItem)
+  {
+    ValueEnforcer.notNull (aItem, "Item");
+
+    // Items of a previous run are sent first
+    start ();
+    _submit (aItem);
+  }
+
+  /**
+   * Add a new item to the queue manager and schedule it for sending.
+   *
+   * @param aItem
+   *        The item to be sent. May not be <code>null</code>.
+   * @param aPayload
+   *        The payload to be sent. May not be <code>null</code>.
+   */
+  public void enqueue (@Nonnull final AS4OutboundQueueItem aItem, @Nonnull final byte [] aPayload)
+  {
+    if (m_aQueueMgr.addItem (aItem, aPayload).isChanged ())
+      submit (aItem);
+    else
+      LOGGER.warn ("Outbound message '" + aItem.getID () + "' is already queued");
+  }
+
+  /**
+   * Schedule all items of the queue manager that are not yet scheduled, e.g.
+   * after a restart. Items are scheduled in the order of creation.
+   *
+   * @return The number of newly scheduled items. Always &ge; 0.
+   */
+  @Nonnegative
+  public int recoverPendingItems ()
+  {
+    m_aStarted.set (true);
+
+    final ICommonsList <IAS4OutboundQueueItem> aItems = m_aQueueMgr.getAll ();
+    aItems.sort (Comparator.comparing (IAS4OutboundQueueItem::getCreationDateTime));
+    int ret = 0;
+    for (final IAS4OutboundQueueItem aItem : aItems)
+      if (_submit (aItem))
+        ret++;
+    if (ret > 0)
+      LOGGER.info ("Recovered " + ret + " pending outbound messages");
+    return ret;
+  }
+
+  /**
+   * Start the scheduler by recovering all pending items of the queue manager.
+   * Calling this method more than once has no effect.
+   */
+  public void start ()
+  {
+    if (!m_aStarted.get ())
+      recoverPendingItems ();
+  }
+
+  /**
+   * Stop the scheduler. Pending items remain in the queue manager.
+   */
+  public void close ()
+  {
+    ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (m_aExecutor);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("QueueMgr", m_aQueueMgr)
+                                       .append ("Sender", m_aSender)
+                                       .append ("SentCount", getSentCount ())
+                                       .append ("FailedAttemptCount", getFailedAttemptCount ())
+                                       .append ("GivenUpCount", getGivenUpCount ())
+                                       .getToString ();
+  }
+}
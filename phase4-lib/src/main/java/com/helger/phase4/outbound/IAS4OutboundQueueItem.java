@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.outbound;
+
+import java.time.OffsetDateTime;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.id.IHasID;
+
+/**
+ * Read-only interface for a single message waiting in the outbound queue. The
+ * ID of the item is the ID of the AS4 message to be sent.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+public interface IAS4OutboundQueueItem extends IHasID <String>
+{
+  /**
+   * @return The date and time when the item was created. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  OffsetDateTime getCreationDateTime ();
+
+  /**
+   * @return The ID of the AS4 message to be sent. Neither <code>null</code>
+   *         nor empty. Same as {@link #getID()}.
+   */
+  @Nonnull
+  @Nonempty
+  default String getMessageID ()
+  {
+    return getID ();
+  }
+
+  /**
+   * @return The ID of the incoming message this message refers to. May be
+   *         <code>null</code>.
+   */
+  @Nullable
+  String getRefToMessageID ();
+
+  /**
+   * @return The ID of the P-Mode used. May be <code>null</code>.
+   */
+  @Nullable
+  String getPModeID ();
+
+  /**
+   * @return The URL to send the message to. Neither <code>null</code> nor
+   *         empty.
+   */
+  @Nonnull
+  @Nonempty
+  String getTargetURL ();
+
+  /**
+   * @return The HTTP Content-Type of the message payload, including all
+   *         parameters (like the MIME boundary). Neither <code>null</code> nor
+   *         empty.
+   */
+  @Nonnull
+  @Nonempty
+  String getContentType ();
+
+  /**
+   * @return The maximum number of retries after the first attempt. Always
+   *         &ge; 0.
+   */
+  @Nonnegative
+  int getMaxRetries ();
+
+  /**
+   * @return The number of milliseconds to wait between two attempts. Always
+   *         &ge; 0.
+   */
+  @Nonnegative
+  long getRetryIntervalMS ();
+
+  /**
+   * @return The number of failed sending attempts so far. Always &ge; 0.
+   */
+  @Nonnegative
+  int getAttemptCount ();
+
+  /**
+   * @return <code>true</code> if another attempt may be performed,
+   *         <code>false</code> if all retries were used.
+   */
+  default boolean isRetryAllowed ()
+  {
+    return getAttemptCount () <= getMaxRetries ();
+  }
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.outbound;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.state.EChange;
+
+/**
+ * Base interface for the AS4 outbound queue. The queue stores messages that
+ * are sent asynchronously until they are delivered, so that they survive a
+ * restart of the application.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+public interface IAS4OutboundQueueManager
+{
+  /**
+   * @return <code>true</code> if there are no entries contained,
+   *         <code>false</code> otherwise.
+   */
+  boolean isEmpty ();
+
+  /**
+   * @return The number contained entries. Always &ge; 0.
+   */
+  @Nonnegative
+  int size ();
+
+  /**
+   * @return All entries contained in the queue.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  ICommonsList <IAS4OutboundQueueItem> getAll ();
+
+  /**
+   * Get the item with the provided ID.
+   *
+   * @param sID
+   *        The ID to search. May be <code>null</code>.
+   * @return <code>null</code> if no such item is contained.
+   */
+  @Nullable
+  IAS4OutboundQueueItem getItemOfID (@Nullable String sID);
+
+  /**
+   * Add a new item together with its payload.
+   *
+   * @param aItem
+   *        The item to add. May not be <code>null</code>.
+   * @param aPayload
+   *        The bytes to be sent. May not be <code>null</code>.
+   * @return {@link EChange#UNCHANGED} if an item with the same ID is already
+   *         contained.
+   */
+  @Nonnull
+  EChange addItem (@Nonnull AS4OutboundQueueItem aItem, @Nonnull byte [] aPayload);
+
+  /**
+   * Get the payload of the item with the provided ID.
+   *
+   * @param sID
+   *        The ID of the item. May be <code>null</code>.
+   * @return <code>null</code> if no such item is contained or if the payload
+   *         could not be read.
+   */
+  @Nullable
+  byte [] getPayload (@Nullable String sID);
+
+  /**
+   * Remember that a sending attempt for the item with the provided ID failed.
+   *
+   * @param sID
+   *        The ID of the item. May be <code>null</code>.
+   * @return {@link EChange#UNCHANGED} if no such item is contained.
+   */
+  @Nonnull
+  EChange onFailedAttempt (@Nullable String sID);
+
+  /**
+   * Remove the item with the provided ID and its payload.
+   *
+   * @param sID
+   *        The ID of the item. May be <code>null</code>.
+   * @return {@link EChange#UNCHANGED} if no such item is contained.
+   */
+  @Nonnull
+  EChange removeItem (@Nullable String sID);
+}
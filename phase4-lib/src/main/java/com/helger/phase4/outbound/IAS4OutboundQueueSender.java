@@ -0,0 +1,42 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.outbound;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Callback interface to actually transmit a message from the outbound queue.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@FunctionalInterface
+public interface IAS4OutboundQueueSender
+{
+  /**
+   * Try to send the provided message exactly once. Retries are handled by the
+   * caller.
+   *
+   * @param aItem
+   *        The queue item to be sent. Never <code>null</code>.
+   * @param aPayload
+   *        The payload of the item. Never <code>null</code>.
+   * @throws Exception
+   *         If sending failed for whatever reason
+   */
+  void sendMessage (@Nonnull IAS4OutboundQueueItem aItem, @Nonnull byte [] aPayload) throws Exception;
+}
@@ -0,0 +1,407 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.reliability;
+
+import java.security.cert.X509Certificate;
+import java.time.OffsetDateTime;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.datetime.PDTFactory;
+import com.helger.commons.equals.EqualsHelper;
+import com.helger.commons.hashcode.HashCodeGenerator;
+import com.helger.commons.http.HttpHeaderMap;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.model.pmode.IPMode;
+import com.helger.phase4.model.pmode.PModeReceptionAwareness;
+
+/**
+ * This class represents a single sent message that waits for a Receipt. Time
+ * stamps are stored as milliseconds since the epoch, so that they survive a
+ * restart.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+public class AS4OutboundMessage implements IAS4OutboundMessage
+{
+  private final long m_nCreationMillis;
+  private final String m_sMessageID;
+  private final String m_sPModeID;
+  private final String m_sTargetURL;
+  private final String m_sReceiverID;
+  private final String m_sContentType;
+  private final HttpHeaderMap m_aCustomHeaders;
+  private final int m_nMaxRetries;
+  private final long m_nRetryIntervalMS;
+  private final int m_nAttemptCount;
+  private final long m_nNextAttemptMillis;
+
+  /**
+   * Constructor for a message that is about to be sent for the first time.
+   * The first attempt is due after the retry interval.
+   *
+   * @param sMessageID
+   *        AS4 message ID. May neither be <code>null</code> nor empty.
+   * @param sPModeID
+   *        The P-Mode ID used. May be <code>null</code>.
+   * @param sTargetURL
+   *        The URL the message is sent to. May neither be <code>null</code>
+   *        nor empty.
+   * @param sContentType
+   *        The HTTP Content-Type of the payload. May neither be
+   *        <code>null</code> nor empty.
+   * @param aCustomHeaders
+   *        The custom HTTP headers to be sent. May be <code>null</code>.
+   * @param nMaxRetries
+   *        The maximum number of retransmissions. Must be &ge; 0.
+   * @param nRetryIntervalMS
+   *        The number of milliseconds to wait for a Receipt. Must be &ge; 0.
+   */
+  public AS4OutboundMessage (@Nonnull @Nonempty final String sMessageID,
+                             @Nullable final String sPModeID,
+                             @Nonnull @Nonempty final String sTargetURL,
+                             @Nonnull @Nonempty final String sContentType,
+                             @Nullable final HttpHeaderMap aCustomHeaders,
+                             @Nonnegative final int nMaxRetries,
+                             @Nonnegative final long nRetryIntervalMS)
+  {
+    this (sMessageID, sPModeID, sTargetURL, (String) null, sContentType, aCustomHeaders, nMaxRetries, nRetryIntervalMS);
+  }
+
+  /**
+   * Constructor for a message that is about to be sent for the first time.
+   * The first attempt is due after the retry interval.
+   *
+   * @param sMessageID
+   *        AS4 message ID. May neither be <code>null</code> nor empty.
+   * @param sPModeID
+   *        The P-Mode ID used. May be <code>null</code>.
+   * @param sTargetURL
+   *        The URL the message is sent to. May neither be <code>null</code>
+   *        nor empty.
+   * @param sReceiverID
+   *        The ID of the certificate the receiver signs its signals with, as
+   *        created by {@link #getCertificateID(X509Certificate)}. May be
+   *        <code>null</code> if it is unknown.
+   * @param sContentType
+   *        The HTTP Content-Type of the payload. May neither be
+   *        <code>null</code> nor empty.
+   * @param aCustomHeaders
+   *        The custom HTTP headers to be sent. May be <code>null</code>.
+   * @param nMaxRetries
+   *        The maximum number of retransmissions. Must be &ge; 0.
+   * @param nRetryIntervalMS
+   *        The number of milliseconds to wait for a Receipt. Must be &ge; 0.
+   */
+  public AS4OutboundMessage (@Nonnull @Nonempty final String sMessageID,
+                             @Nullable final String sPModeID,
+                             @Nonnull @Nonempty final String sTargetURL,
+                             @Nullable final String sReceiverID,
+                             @Nonnull @Nonempty final String sContentType,
+                             @Nullable final HttpHeaderMap aCustomHeaders,
+                             @Nonnegative final int nMaxRetries,
+                             @Nonnegative final long nRetryIntervalMS)
+  {
+    this (System.currentTimeMillis (),
+          sMessageID,
+          sPModeID,
+          sTargetURL,
+          sReceiverID,
+          sContentType,
+          aCustomHeaders,
+          nMaxRetries,
+          nRetryIntervalMS,
+          0,
+          System.currentTimeMillis () + nRetryIntervalMS);
+  }
+
+  protected AS4OutboundMessage (final long nCreationMillis,
+                                @Nonnull @Nonempty final String sMessageID,
+                                @Nullable final String sPModeID,
+                                @Nonnull @Nonempty final String sTargetURL,
+                                @Nullable final String sReceiverID,
+                                @Nonnull @Nonempty final String sContentType,
+                                @Nullable final HttpHeaderMap aCustomHeaders,
+                                @Nonnegative final int nMaxRetries,
+                                @Nonnegative final long nRetryIntervalMS,
+                                @Nonnegative final int nAttemptCount,
+                                final long nNextAttemptMillis)
+  {
+    m_nCreationMillis = nCreationMillis;
+    m_sMessageID = ValueEnforcer.notEmpty (sMessageID, "MessageID");
+    m_sPModeID = sPModeID;
+    m_sTargetURL = ValueEnforcer.notEmpty (sTargetURL, "TargetURL");
+    m_sReceiverID = sReceiverID;
+    m_sContentType = ValueEnforcer.notEmpty (sContentType, "ContentType");
+    m_aCustomHeaders = aCustomHeaders == null ? new HttpHeaderMap () : new HttpHeaderMap (aCustomHeaders);
+    m_nMaxRetries = ValueEnforcer.isGE0 (nMaxRetries, "MaxRetries");
+    m_nRetryIntervalMS = ValueEnforcer.isGE0 (nRetryIntervalMS, "RetryIntervalMS");
+    m_nAttemptCount = ValueEnforcer.isGE0 (nAttemptCount, "AttemptCount");
+    m_nNextAttemptMillis = nNextAttemptMillis;
+  }
+
+  /**
+   * @return The creation date time as milliseconds since the epoch.
+   */
+  public final long getCreationMillis ()
+  {
+    return m_nCreationMillis;
+  }
+
+  @Nonnull
+  public final OffsetDateTime getCreationDateTime ()
+  {
+    return PDTFactory.createOffsetDateTime (m_nCreationMillis);
+  }
+
+  @Nonnull
+  @Nonempty
+  public final String getID ()
+  {
+    return m_sMessageID;
+  }
+
+  @Nullable
+  public final String getPModeID ()
+  {
+    return m_sPModeID;
+  }
+
+  @Nonnull
+  @Nonempty
+  public final String getTargetURL ()
+  {
+    return m_sTargetURL;
+  }
+
+  @Nullable
+  public final String getReceiverID ()
+  {
+    return m_sReceiverID;
+  }
+
+  @Nonnull
+  @Nonempty
+  public final String getContentType ()
+  {
+    return m_sContentType;
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public final HttpHeaderMap getAllCustomHeaders ()
+  {
+    return new HttpHeaderMap (m_aCustomHeaders);
+  }
+
+  @Nonnegative
+  public final int getMaxRetries ()
+  {
+    return m_nMaxRetries;
+  }
+
+  @Nonnegative
+  public final long getRetryIntervalMS ()
+  {
+    return m_nRetryIntervalMS;
+  }
+
+  @Nonnegative
+  public final int getAttemptCount ()
+  {
+    return m_nAttemptCount;
+  }
+
+  /**
+   * @return The date and time of the next attempt as milliseconds since the
+   *         epoch.
+   */
+  public final long getNextAttemptMillis ()
+  {
+    return m_nNextAttemptMillis;
+  }
+
+  @Nonnull
+  public final OffsetDateTime getNextAttemptDateTime ()
+  {
+    return PDTFactory.createOffsetDateTime (m_nNextAttemptMillis);
+  }
+
+  @Override
+  public boolean equals (final Object o)
+  {
+    if (o == this)
+      return true;
+    if (o == null || !getClass ().equals (o.getClass ()))
+      return false;
+    final AS4OutboundMessage rhs = (AS4OutboundMessage) o;
+    // Time stamps not contained!
+    return m_sMessageID.equals (rhs.m_sMessageID) &&
+           EqualsHelper.equals (m_sPModeID, rhs.m_sPModeID) &&
+           m_sTargetURL.equals (rhs.m_sTargetURL) &&
+           EqualsHelper.equals (m_sReceiverID, rhs.m_sReceiverID) &&
+           m_sContentType.equals (rhs.m_sContentType) &&
+           m_aCustomHeaders.equals (rhs.m_aCustomHeaders) &&
+           m_nMaxRetries == rhs.m_nMaxRetries &&
+           m_nRetryIntervalMS == rhs.m_nRetryIntervalMS &&
+           m_nAttemptCount == rhs.m_nAttemptCount;
+  }
+
+  @Override
+  public int hashCode ()
+  {
+    // Time stamps not contained!
+    return new HashCodeGenerator (this).append (m_sMessageID)
+                                       .append (m_sPModeID)
+                                       .append (m_sTargetURL)
+                                       .append (m_sReceiverID)
+                                       .append (m_sContentType)
+                                       .append (m_aCustomHeaders)
+                                       .append (m_nMaxRetries)
+                                       .append (m_nRetryIntervalMS)
+                                       .append (m_nAttemptCount)
+                                       .getHashCode ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("CreationMillis", m_nCreationMillis)
+                                       .append ("MessageID", m_sMessageID)
+                                       .appendIfNotNull ("PModeID", m_sPModeID)
+                                       .append ("TargetURL", m_sTargetURL)
+                                       .appendIfNotNull ("ReceiverID", m_sReceiverID)
+                                       .append ("ContentType", m_sContentType)
+                                       .append ("CustomHeaders", m_aCustomHeaders)
+                                       .append ("MaxRetries", m_nMaxRetries)
+                                       .append ("RetryIntervalMS", m_nRetryIntervalMS)
+                                       .append ("AttemptCount", m_nAttemptCount)
+                                       .append ("NextAttemptMillis", m_nNextAttemptMillis)
+                                       .getToString ();
+  }
+
+  /**
+   * Create a new message to be tracked, based on the reception awareness
+   * settings of the provided P-Mode. If the P-Mode has no reception awareness
+   * settings, the default values of {@link PModeReceptionAwareness} are used.
+   *
+   * @param sMessageID
+   *        AS4 message ID. May neither be <code>null</code> nor empty.
+   * @param aPMode
+   *        The P-Mode used for sending. May be <code>null</code>.
+   * @param sTargetURL
+   *        The URL the message is sent to. May neither be <code>null</code>
+   *        nor empty.
+   * @param sContentType
+   *        The HTTP Content-Type of the payload. May neither be
+   *        <code>null</code> nor empty.
+   * @param aCustomHeaders
+   *        The custom HTTP headers to be sent. May be <code>null</code>.
+   * @return <code>null</code> if reception awareness is disabled in the
+   *         P-Mode, so that the message should not be tracked.
+   */
+  @Nullable
+  public static AS4OutboundMessage createForPMode (@Nonnull @Nonempty final String sMessageID,
+                                                   @Nullable final IPMode aPMode,
+                                                   @Nonnull @Nonempty final String sTargetURL,
+                                                   @Nonnull @Nonempty final String sContentType,
+                                                   @Nullable final HttpHeaderMap aCustomHeaders)
+  {
+    return createForPMode (sMessageID, aPMode, sTargetURL, (String) null, sContentType, aCustomHeaders);
+  }
+
+  /**
+   * Create a new message to be tracked, based on the reception awareness
+   * settings of the provided P-Mode. If the P-Mode has no reception awareness
+   * settings, the default values of {@link PModeReceptionAwareness} are used.
+   *
+   * @param sMessageID
+   *        AS4 message ID. May neither be <code>null</code> nor empty.
+   * @param aPMode
+   *        The P-Mode used for sending. May be <code>null</code>.
+   * @param sTargetURL
+   *        The URL the message is sent to. May neither be <code>null</code>
+   *        nor empty.
+   * @param sReceiverID
+   *        The ID of the certificate the receiver signs its signals with, as
+   *        created by {@link #getCertificateID(X509Certificate)}. May be
+   *        <code>null</code> if it is unknown.
+   * @param sContentType
+   *        The HTTP Content-Type of the payload. May neither be
+   *        <code>null</code> nor empty.
+   * @param aCustomHeaders
+   *        The custom HTTP headers to be sent. May be <code>null</code>.
+   * @return <code>null</code> if reception awareness is disabled in the
+   *         P-Mode, so that the message should not be tracked.
+   */
+  @Nullable
+  public static AS4OutboundMessage createForPMode (@Nonnull @Nonempty final String sMessageID,
+                                                   @Nullable final IPMode aPMode,
+                                                   @Nonnull @Nonempty final String sTargetURL,
+                                                   @Nullable final String sReceiverID,
+                                                   @Nonnull @Nonempty final String sContentType,
+                                                   @Nullable final HttpHeaderMap aCustomHeaders)
+  {
+    final PModeReceptionAwareness aRA = aPMode == null ? null : aPMode.getReceptionAwareness ();
+    final int nMaxRetries;
+    final long nRetryIntervalMS;
+    if (aRA == null)
+    {
+      nMaxRetries = PModeReceptionAwareness.DEFAULT_MAX_RETRIES;
+      nRetryIntervalMS = PModeReceptionAwareness.DEFAULT_RETRY_INTERVAL_MS;
+    }
+    else
+    {
+      if (!aRA.isReceptionAwareness ())
+        return null;
+      // Without retry, wait one interval for the Receipt
+      nMaxRetries = aRA.isRetry () ? aRA.getMaxRetries () : 0;
+      nRetryIntervalMS = aRA.getRetryIntervalMS ();
+    }
+    return new AS4OutboundMessage (sMessageID,
+                                   aPMode == null ? null : aPMode.getID (),
+                                   sTargetURL,
+                                   sReceiverID,
+                                   sContentType,
+                                   aCustomHeaders,
+                                   nMaxRetries,
+                                   nRetryIntervalMS);
+  }
+
+  /**
+   * Get the ID of a certificate that is used to match the sender of incoming
+   * signal messages.
+   *
+   * @param aCert
+   *        The certificate to use. May not be <code>null</code>.
+   * @return The issuer name and the hex serial number of the certificate.
+   *         Never <code>null</code>.
+   */
+  @Nonnull
+  @Nonempty
+  public static String getCertificateID (@Nonnull final X509Certificate aCert)
+  {
+    ValueEnforcer.notNull (aCert, "Cert");
+    return aCert.getIssuerX500Principal ().getName () + "/" + aCert.getSerialNumber ().toString (16);
+  }
+}
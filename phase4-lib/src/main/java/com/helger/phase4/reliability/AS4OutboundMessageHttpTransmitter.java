@@ -0,0 +1,302 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.reliability;
+
+import java.util.Locale;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.http.CHttpHeader;
+import com.helger.commons.http.HttpHeaderMap;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.commons.wrapper.Wrapper;
+import com.helger.httpclient.response.ResponseHandlerHttpEntity;
+import com.helger.phase4.attachment.IAS4IncomingAttachmentFactory;
+import com.helger.phase4.crypto.IAS4CryptoFactory;
+import com.helger.phase4.dump.IAS4IncomingDumper;
+import com.helger.phase4.dump.IAS4OutgoingDumper;
+import com.helger.phase4.ebms3header.Ebms3Error;
+import com.helger.phase4.ebms3header.Ebms3SignalMessage;
+import com.helger.phase4.error.EEbmsError;
+import com.helger.phase4.http.BasicHttpPoster;
+import com.helger.phase4.http.HttpRetrySettings;
+import com.helger.phase4.messaging.EAS4MessageMode;
+import com.helger.phase4.messaging.domain.MessageHelperMethods;
+import com.helger.phase4.mgr.MetaAS4Manager;
+import com.helger.phase4.model.pmode.IPMode;
+import com.helger.phase4.model.pmode.resolve.DefaultPModeResolver;
+import com.helger.phase4.model.pmode.resolve.IPModeResolver;
+import com.helger.phase4.servlet.AS4IncomingHandler;
+import com.helger.phase4.servlet.AS4IncomingMessageMetadata;
+import com.helger.phase4.servlet.AS4IncomingProfileSelectorFromGlobal;
+import com.helger.phase4.servlet.IAS4IncomingProfileSelector;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+/**
+ * Default implementation of {@link IAS4OutboundMessageTransmitter} that sends
+ * the message via HTTP POST using a {@link BasicHttpPoster} and evaluates the
+ * synchronous response like the original sender does.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+public class AS4OutboundMessageHttpTransmitter implements IAS4OutboundMessageTransmitter
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4OutboundMessageHttpTransmitter.class);
+
+  private final BasicHttpPoster m_aHttpPoster;
+  private final IAS4CryptoFactory m_aCryptoFactory;
+  private final IPModeResolver m_aPModeResolver;
+  private final IAS4IncomingAttachmentFactory m_aIAF;
+  private final IAS4IncomingProfileSelector m_aIncomingProfileSelector;
+  private final Locale m_aLocale;
+  private IAS4OutgoingDumper m_aOutgoingDumper;
+  private IAS4IncomingDumper m_aIncomingDumper;
+
+  /**
+   * Constructor with default settings.
+   *
+   * @param aCryptoFactory
+   *        The crypto factory used to verify the response. May not be
+   *        <code>null</code>.
+   */
+  public AS4OutboundMessageHttpTransmitter (@Nonnull final IAS4CryptoFactory aCryptoFactory)
+  {
+    this (new BasicHttpPoster (),
+          aCryptoFactory,
+          DefaultPModeResolver.DEFAULT_PMODE_RESOLVER,
+          IAS4IncomingAttachmentFactory.DEFAULT_INSTANCE,
+          AS4IncomingProfileSelectorFromGlobal.INSTANCE,
+          Locale.US);
+  }
+
+  public AS4OutboundMessageHttpTransmitter (@Nonnull final BasicHttpPoster aHttpPoster,
+                                            @Nonnull final IAS4CryptoFactory aCryptoFactory,
+                                            @Nonnull final IPModeResolver aPModeResolver,
+                                            @Nonnull final IAS4IncomingAttachmentFactory aIAF,
+                                            @Nonnull final IAS4IncomingProfileSelector aIncomingProfileSelector,
+                                            @Nonnull final Locale aLocale)
+  {
+    ValueEnforcer.notNull (aHttpPoster, "HttpPoster");
+    ValueEnforcer.notNull (aCryptoFactory, "CryptoFactory");
+    ValueEnforcer.notNull (aPModeResolver, "PModeResolver");
+    ValueEnforcer.notNull (aIAF, "IAF");
+    ValueEnforcer.notNull (aIncomingProfileSelector, "IncomingProfileSelector");
+    ValueEnforcer.notNull (aLocale, "Locale");
+    m_aHttpPoster = aHttpPoster;
+    m_aCryptoFactory = aCryptoFactory;
+    m_aPModeResolver = aPModeResolver;
+    m_aIAF = aIAF;
+    m_aIncomingProfileSelector = aIncomingProfileSelector;
+    m_aLocale = aLocale;
+  }
+
+  /**
+   * @return The HTTP poster used. Never <code>null</code>.
+   */
+  @Nonnull
+  public final BasicHttpPoster getHttpPoster ()
+  {
+    return m_aHttpPoster;
+  }
+
+  /**
+   * @return The specific outgoing dumper to be used. May be <code>null</code>
+   *         in which case the global one is used.
+   */
+  @Nullable
+  public final IAS4OutgoingDumper getOutgoingDumper ()
+  {
+    return m_aOutgoingDumper;
+  }
+
+  /**
+   * @param aOutgoingDumper
+   *        The specific outgoing dumper to be used. May be <code>null</code>
+   *        in which case the global one is used.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final AS4OutboundMessageHttpTransmitter setOutgoingDumper (@Nullable final IAS4OutgoingDumper aOutgoingDumper)
+  {
+    m_aOutgoingDumper = aOutgoingDumper;
+    return this;
+  }
+
+  /**
+   * @return The specific incoming dumper to be used. May be <code>null</code>
+   *         in which case the global one is used.
+   */
+  @Nullable
+  public final IAS4IncomingDumper getIncomingDumper ()
+  {
+    return m_aIncomingDumper;
+  }
+
+  /**
+   * @param aIncomingDumper
+   *        The specific incoming dumper to be used. May be <code>null</code>
+   *        in which case the global one is used.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final AS4OutboundMessageHttpTransmitter setIncomingDumper (@Nullable final IAS4IncomingDumper aIncomingDumper)
+  {
+    m_aIncomingDumper = aIncomingDumper;
+    return this;
+  }
+
+  /**
+   * Check if the provided error indicates, that the receiver already received
+   * the message with the provided ID. This is the case, if a previous
+   * transmission was received, but its Receipt got lost. Only the exact
+   * duplicate error of phase4 receivers is considered, as other errors may be
+   * real rejections.
+   *
+   * @param aError
+   *        The error to check. May not be <code>null</code>.
+   * @param sMessageID
+   *        The ID of the sent message. May not be <code>null</code>.
+   * @return <code>true</code> if it is a duplicate error for the message.
+   * @see MessageHelperMethods#getDuplicateMessageErrorText(String)
+   */
+  public static boolean isDuplicateError (@Nonnull final Ebms3Error aError, @Nonnull final String sMessageID)
+  {
+    return EEbmsError.EBMS_OTHER.getErrorCode ().equals (aError.getErrorCode ()) &&
+           sMessageID.equals (aError.getRefToMessageInError ()) &&
+           aError.getDescription () != null &&
+           MessageHelperMethods.getDuplicateMessageErrorText (sMessageID).equals (aError.getDescription ().getValue ());
+  }
+
+  /**
+   * Get the status of a retransmitted message based on the received Signal
+   * Message.
+   *
+   * @param aSignalMsg
+   *        The received Signal Message. May be <code>null</code>.
+   * @param sMessageID
+   *        The ID of the retransmitted message. May not be <code>null</code>.
+   * @return {@link EAS4OutboundMessageStatus#PENDING} if the Signal Message is
+   *         <code>null</code> or contains neither an Error nor a Receipt.
+   *         {@link EAS4OutboundMessageStatus#RECEIPT_RECEIVED} if the receiver
+   *         reports the message as already received, because then only the
+   *         Receipt of an earlier transmission got lost. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public static EAS4OutboundMessageStatus getStatusOfSignalMessage (@Nullable final Ebms3SignalMessage aSignalMsg,
+                                                                    @Nonnull final String sMessageID)
+  {
+    if (aSignalMsg == null)
+      return EAS4OutboundMessageStatus.PENDING;
+    // Errors have precedence over receipts
+    if (aSignalMsg.hasErrorEntries ())
+    {
+      if (aSignalMsg.getError ().stream ().allMatch (x -> isDuplicateError (x, sMessageID)))
+      {
+        LOGGER.info ("The receiver already received message '" +
+                     sMessageID +
+                     "' - treating it as delivered, as only the Receipt of an earlier transmission was lost");
+        return EAS4OutboundMessageStatus.RECEIPT_RECEIVED;
+      }
+      return EAS4OutboundMessageStatus.ERROR_RECEIVED;
+    }
+    if (aSignalMsg.getReceipt () != null)
+      return EAS4OutboundMessageStatus.RECEIPT_RECEIVED;
+    return EAS4OutboundMessageStatus.PENDING;
+  }
+
+  @Nonnull
+  public EAS4OutboundMessageStatus transmit (@Nonnull final IAS4OutboundMessage aMessage, @Nonnull final byte [] aPayload) throws Exception
+  {
+    final HttpHeaderMap aCustomHeaders = aMessage.getAllCustomHeaders ();
+    // For MIME messages the Content-Type is part of the custom headers
+    final ByteArrayEntity aHttpEntity = aCustomHeaders.containsHeaders (CHttpHeader.CONTENT_TYPE) ? new ByteArrayEntity (aPayload)
+                                                                                                 : new ByteArrayEntity (aPayload,
+                                                                                                                        ContentType.parse (aMessage.getContentType ()));
+
+    final Wrapper <HttpResponse> aWrappedResponse = new Wrapper <> ();
+    final ResponseHandler <byte []> aResponseHdl = aHttpResponse -> {
+      // throws an ExtendedHttpResponseException on exception
+      final HttpEntity aEntity = ResponseHandlerHttpEntity.INSTANCE.handleResponse (aHttpResponse);
+      if (aEntity == null)
+        return null;
+      aWrappedResponse.set (aHttpResponse);
+      return EntityUtils.toByteArray (aEntity);
+    };
+
+    // Retries are handled by the retransmitter
+    final byte [] aResponse = m_aHttpPoster.sendGenericMessageWithRetries (aMessage.getTargetURL (),
+                                                                           aCustomHeaders,
+                                                                           aHttpEntity,
+                                                                           aMessage.getMessageID (),
+                                                                           new HttpRetrySettings (),
+                                                                           aResponseHdl,
+                                                                           m_aOutgoingDumper,
+                                                                           null);
+    if (aResponse == null || aResponse.length == 0)
+    {
+      // Receipt may be sent asynchronously
+      return EAS4OutboundMessageStatus.PENDING;
+    }
+
+    final IPMode aPMode = StringHelper.hasText (aMessage.getPModeID ()) ? MetaAS4Manager.getPModeMgr ()
+                                                                                        .getPModeOfID (aMessage.getPModeID ())
+                                                                        : null;
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final Ebms3SignalMessage aSignalMsg = AS4IncomingHandler.parseSignalMessage (m_aCryptoFactory,
+                                                                                   m_aPModeResolver,
+                                                                                   m_aIAF,
+                                                                                   m_aIncomingProfileSelector,
+                                                                                   aResHelper,
+                                                                                   aPMode,
+                                                                                   m_aLocale,
+                                                                                   new AS4IncomingMessageMetadata (EAS4MessageMode.RESPONSE).setRemoteAddr (aMessage.getTargetURL ()),
+                                                                                   aWrappedResponse.get (),
+                                                                                   aResponse,
+                                                                                   m_aIncomingDumper);
+      return getStatusOfSignalMessage (aSignalMsg, aMessage.getMessageID ());
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("HttpPoster", m_aHttpPoster)
+                                       .append ("CryptoFactory", m_aCryptoFactory)
+                                       .append ("PModeResolver", m_aPModeResolver)
+                                       .append ("IAF", m_aIAF)
+                                       .append ("IncomingProfileSelector", m_aIncomingProfileSelector)
+                                       .append ("Locale", m_aLocale)
+                                       .append ("OutgoingDumper", m_aOutgoingDumper)
+                                       .append ("IncomingDumper", m_aIncomingDumper)
+                                       .getToString ();
+  }
+}
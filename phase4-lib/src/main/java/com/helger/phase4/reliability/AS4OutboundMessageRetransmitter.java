@@ -0,0 +1,333 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.reliability;
+
+import java.time.Duration;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.impl.CommonsHashSet;
+import com.helger.commons.collection.impl.ICommonsSet;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.concurrent.ExecutorServiceHelper;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * Retransmits the messages of an {@link IAS4OutboundMessageStore} for which no
+ * Receipt was received within the retry interval of their P-Mode. The store
+ * is polled regularly for due messages, and up to "parallelism" messages are
+ * retransmitted concurrently. A message is given up with status
+ * {@link EAS4OutboundMessageStatus#FAILED}, if the retry interval passed after
+ * the last allowed attempt.<br>
+ * As the store is persistent, this class only needs to be started again after
+ * a restart, to continue with all messages still waiting for a Receipt.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@ThreadSafe
+public class AS4OutboundMessageRetransmitter implements AutoCloseable
+{
+  public static final int DEFAULT_PARALLELISM = 4;
+  public static final Duration DEFAULT_POLL_INTERVAL = Duration.ofSeconds (1);
+  /** The maximum number of messages that are processed concurrently */
+  public static final int MAX_IN_FLIGHT = 1_000;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4OutboundMessageRetransmitter.class);
+
+  private final IAS4OutboundMessageStore m_aStore;
+  private final IAS4OutboundMessageTransmitter m_aTransmitter;
+  private final Duration m_aPollInterval;
+  private final ScheduledExecutorService m_aExecutor;
+  private final SimpleLock m_aLock = new SimpleLock ();
+  @GuardedBy ("m_aLock")
+  private final ICommonsSet <String> m_aInFlight = new CommonsHashSet <> ();
+  @GuardedBy ("m_aLock")
+  private boolean m_bStarted = false;
+  private final AtomicLong m_aRetransmittedCount = new AtomicLong ();
+  private final AtomicLong m_aFailedAttemptCount = new AtomicLong ();
+  private final AtomicLong m_aGivenUpCount = new AtomicLong ();
+
+  /**
+   * Constructor with the default poll interval.
+   *
+   * @param aStore
+   *        The store to use. May not be <code>null</code>.
+   * @param aTransmitter
+   *        The transmitter that performs the actual retransmission. May not be
+   *        <code>null</code>.
+   * @param nParallelism
+   *        The maximum number of messages that are retransmitted concurrently.
+   *        Must be &gt; 0.
+   */
+  public AS4OutboundMessageRetransmitter (@Nonnull final IAS4OutboundMessageStore aStore,
+                                          @Nonnull final IAS4OutboundMessageTransmitter aTransmitter,
+                                          @Nonnegative final int nParallelism)
+  {
+    this (aStore, aTransmitter, nParallelism, DEFAULT_POLL_INTERVAL);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aStore
+   *        The store to use. May not be <code>null</code>.
+   * @param aTransmitter
+   *        The transmitter that performs the actual retransmission. May not be
+   *        <code>null</code>.
+   * @param nParallelism
+   *        The maximum number of messages that are retransmitted concurrently.
+   *        Must be &gt; 0.
+   * @param aPollInterval
+   *        The interval in which the store is checked for due messages. May
+   *        not be <code>null</code> and must be positive.
+   */
+  public AS4OutboundMessageRetransmitter (@Nonnull final IAS4OutboundMessageStore aStore,
+                                          @Nonnull final IAS4OutboundMessageTransmitter aTransmitter,
+                                          @Nonnegative final int nParallelism,
+                                          @Nonnull final Duration aPollInterval)
+  {
+    ValueEnforcer.notNull (aStore, "Store");
+    ValueEnforcer.notNull (aTransmitter, "Transmitter");
+    ValueEnforcer.isGT0 (nParallelism, "Parallelism");
+    ValueEnforcer.notNull (aPollInterval, "PollInterval");
+    ValueEnforcer.isTrue ( () -> !aPollInterval.isNegative () && !aPollInterval.isZero (), "PollInterval must be positive");
+    m_aStore = aStore;
+    m_aTransmitter = aTransmitter;
+    // Asynchronous Receipts must find the store after a restart
+    AS4OutboundMessageStoreRegistry.registerStore (aStore);
+    m_aPollInterval = aPollInterval;
+    final ScheduledThreadPoolExecutor aExecutor = new ScheduledThreadPoolExecutor (nParallelism,
+                                                                                   new BasicThreadFactory.Builder ().namingPattern ("phase4-retransmit-%d")
+                                                                                                                    .daemon (true)
+                                                                                                                    .build ());
+    // Don't wait for the next poll upon shutdown
+    aExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy (false);
+    aExecutor.setContinueExistingPeriodicTasksAfterShutdownPolicy (false);
+    m_aExecutor = aExecutor;
+  }
+
+  /**
+   * @return The store as provided in the constructor. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public final IAS4OutboundMessageStore getStore ()
+  {
+    return m_aStore;
+  }
+
+  /**
+   * @return The number of retransmissions, including the failed ones.
+   */
+  @Nonnegative
+  public final long getRetransmittedCount ()
+  {
+    return m_aRetransmittedCount.get ();
+  }
+
+  /**
+   * @return The number of retransmissions that failed on transport level.
+   */
+  @Nonnegative
+  public final long getFailedAttemptCount ()
+  {
+    return m_aFailedAttemptCount.get ();
+  }
+
+  /**
+   * @return The number of messages for which no Receipt was received after
+   *         all retries.
+   */
+  @Nonnegative
+  public final long getGivenUpCount ()
+  {
+    return m_aGivenUpCount.get ();
+  }
+
+  /**
+   * @return The number of messages that are currently processed.
+   */
+  @Nonnegative
+  public int getInFlightCount ()
+  {
+    return m_aLock.lockedGet (m_aInFlight::size);
+  }
+
+  private void _process (@Nonnull final String sMessageID)
+  {
+    try
+    {
+      final IAS4OutboundMessage aMessage = m_aStore.getMessage (sMessageID);
+      if (aMessage == null)
+      {
+        // Receipt received in the meantime or not readable
+        if (m_aStore.containsMessage (sMessageID))
+        {
+          // Maybe a temporary problem - retried after the retry interval
+          LOGGER.warn ("Failed to read tracked message '" + sMessageID + "' - retrying later");
+          m_aFailedAttemptCount.incrementAndGet ();
+          m_aStore.onFailedAttempt (sMessageID);
+        }
+        return;
+      }
+
+      if (!aMessage.isRetryAllowed ())
+      {
+        m_aGivenUpCount.incrementAndGet ();
+        m_aStore.setFinalStatus (sMessageID, EAS4OutboundMessageStatus.FAILED);
+        return;
+      }
+
+      final byte [] aPayload = m_aStore.getPayload (sMessageID);
+      if (aPayload == null)
+      {
+        // Maybe a temporary problem - retried after the retry interval
+        LOGGER.warn ("Failed to read the payload of tracked message '" + sMessageID + "' - retrying later");
+        m_aFailedAttemptCount.incrementAndGet ();
+        m_aStore.onFailedAttempt (sMessageID);
+        return;
+      }
+
+      LOGGER.info ("Retransmitting message '" +
+                   sMessageID +
+                   "' to '" +
+                   aMessage.getTargetURL () +
+                   "' (attempt " +
+                   (aMessage.getAttemptCount () + 1) +
+                   "/" +
+                   (aMessage.getMaxRetries () + 1) +
+                   ")");
+      m_aRetransmittedCount.incrementAndGet ();
+
+      EAS4OutboundMessageStatus eStatus;
+      try
+      {
+        eStatus = m_aTransmitter.transmit (aMessage, aPayload);
+      }
+      catch (final Exception ex)
+      {
+        LOGGER.warn ("Failed to retransmit message '" + sMessageID + "' to '" + aMessage.getTargetURL () + "': " + ex.getMessage ());
+        m_aFailedAttemptCount.incrementAndGet ();
+        eStatus = EAS4OutboundMessageStatus.PENDING;
+      }
+
+      if (eStatus.isFinal ())
+        m_aStore.setFinalStatus (sMessageID, eStatus);
+      else
+        m_aStore.onFailedAttempt (sMessageID);
+    }
+    catch (final RuntimeException ex)
+    {
+      // Retried with the next poll
+      LOGGER.error ("Error processing tracked message '" + sMessageID + "'", ex);
+    }
+    finally
+    {
+      m_aLock.locked ( () -> m_aInFlight.remove (sMessageID));
+    }
+  }
+
+  /**
+   * Check the store for due messages and schedule their processing. This
+   * method is called regularly after {@link #start()} was called.
+   *
+   * @return The number of scheduled messages. Always &ge; 0.
+   */
+  @Nonnegative
+  public int pollDueMessages ()
+  {
+    final int nFree = MAX_IN_FLIGHT - getInFlightCount ();
+    if (nFree <= 0)
+      return 0;
+
+    int ret = 0;
+    // In-flight messages are still due
+    for (final String sMessageID : m_aStore.getAllDueMessageIDs (System.currentTimeMillis (), MAX_IN_FLIGHT))
+    {
+      if (m_aLock.lockedBoolean ( () -> m_aInFlight.add (sMessageID)))
+      {
+        try
+        {
+          m_aExecutor.execute ( () -> _process (sMessageID));
+        }
+        catch (final RejectedExecutionException ex)
+        {
+          // Retransmitter was closed - the messages remain in the store
+          m_aLock.locked ( () -> m_aInFlight.remove (sMessageID));
+          break;
+        }
+        if (++ret >= nFree)
+          break;
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * Start polling the store for due messages. Calling this method more than
+   * once has no effect.
+   */
+  public void start ()
+  {
+    if (m_aLock.lockedBoolean ( () -> {
+      if (m_bStarted)
+        return false;
+      m_bStarted = true;
+      return true;
+    }))
+    {
+      final long nPollMS = m_aPollInterval.toMillis ();
+      m_aExecutor.scheduleWithFixedDelay (this::pollDueMessages, 0, nPollMS, TimeUnit.MILLISECONDS);
+      if (!m_aStore.isEmpty ())
+        LOGGER.info ("Started retransmitter for " + m_aStore.size () + " messages waiting for a Receipt");
+    }
+  }
+
+  /**
+   * Stop the retransmitter. Pending messages remain in the store.
+   */
+  public void close ()
+  {
+    ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (m_aExecutor);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("Store", m_aStore)
+                                       .append ("Transmitter", m_aTransmitter)
+                                       .append ("PollInterval", m_aPollInterval)
+                                       .append ("RetransmittedCount", getRetransmittedCount ())
+                                       .append ("FailedAttemptCount", getFailedAttemptCount ())
+                                       .append ("GivenUpCount", getGivenUpCount ())
+                                       .getToString ();
+  }
+}
@@ -0,0 +1,549 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.reliability;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.WillNotClose;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.http.HttpHeaderMap;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.state.EChange;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.StringParser;
+import com.helger.phase4.util.AS4IOHelper;
+
+/**
+ * Persistent implementation of {@link IAS4OutboundMessageStore}. Every message
+ * is stored in a separate file, and all status changes are appended to a
+ * journal file. Only the compact index needed for scheduling is kept in
+ * memory - the message details and the payload are read from disk when
+ * needed. On startup the journal is replayed and rewritten with the remaining
+ * entries only, so that all messages waiting for a Receipt survive a restart.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@ThreadSafe
+public class AS4OutboundMessageStore extends AbstractAS4OutboundMessageStore implements AutoCloseable
+{
+  /** The number of obsolete journal records after which it is compacted */
+  public static final int COMPACTION_THRESHOLD = 10_000;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4OutboundMessageStore.class);
+  private static final String JOURNAL_FILENAME = "journal.bin";
+  private static final String JOURNAL_TMP_FILENAME = "journal.tmp";
+  private static final String MESSAGE_DIR = "messages";
+  private static final String MESSAGE_SUFFIX = ".msg";
+  private static final byte RECORD_ADD = '+';
+  private static final byte RECORD_ATTEMPT = 'A';
+  private static final byte RECORD_REMOVE = '-';
+  // Version 2 added the receiver ID
+  private static final int MESSAGE_FORMAT_VERSION = 2;
+
+  private final Path m_aJournalFile;
+  private final File m_aMessageDir;
+  private final boolean m_bSyncWrites;
+
+  private final SimpleLock m_aJournalLock = new SimpleLock ();
+  @GuardedBy ("m_aJournalLock")
+  private FileChannel m_aJournal;
+  @GuardedBy ("m_aJournalLock")
+  private int m_nObsoleteRecords = 0;
+
+  /**
+   * Constructor with default settings. Writes are synced to disk.
+   *
+   * @param aDirectory
+   *        The directory to store the data in. May not be <code>null</code>.
+   * @throws IOException
+   *         If the existing data could not be read
+   */
+  public AS4OutboundMessageStore (@Nonnull final File aDirectory) throws IOException
+  {
+    this (aDirectory, true);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aDirectory
+   *        The directory to store the data in. May not be <code>null</code>.
+   * @param bSyncWrites
+   *        <code>true</code> to sync newly tracked messages to disk before
+   *        {@link #track(AS4OutboundMessage, byte[])} returns. Status changes
+   *        are never synced, as a lost status change only results in an
+   *        additional retransmission.
+   * @throws IOException
+   *         If the existing data could not be read
+   */
+  public AS4OutboundMessageStore (@Nonnull final File aDirectory, final boolean bSyncWrites) throws IOException
+  {
+    ValueEnforcer.notNull (aDirectory, "Directory");
+
+    m_aJournalFile = new File (aDirectory, JOURNAL_FILENAME).toPath ();
+    m_aMessageDir = new File (aDirectory, MESSAGE_DIR);
+    m_bSyncWrites = bSyncWrites;
+    Files.createDirectories (m_aMessageDir.toPath ());
+
+    m_aJournalLock.lockedThrowing ( () -> {
+      _restore ();
+      // Start with a clean journal
+      _compact ();
+    });
+  }
+
+  @Nonnull
+  private File _getMessageFile (final long nSequence)
+  {
+    return new File (m_aMessageDir, Long.toString (nSequence) + MESSAGE_SUFFIX);
+  }
+
+  private static final class JournalRecord
+  {
+    private final long m_nSequence;
+    private final String m_sMessageID;
+    private final int m_nMaxRetries;
+    private final long m_nRetryIntervalMS;
+    private int m_nAttemptCount;
+    private long m_nNextAttemptMillis;
+
+    JournalRecord (final long nSequence,
+                   final String sMessageID,
+                   final int nMaxRetries,
+                   final long nRetryIntervalMS,
+                   final int nAttemptCount,
+                   final long nNextAttemptMillis)
+    {
+      m_nSequence = nSequence;
+      m_sMessageID = sMessageID;
+      m_nMaxRetries = nMaxRetries;
+      m_nRetryIntervalMS = nRetryIntervalMS;
+      m_nAttemptCount = nAttemptCount;
+      m_nNextAttemptMillis = nNextAttemptMillis;
+    }
+  }
+
+  @GuardedBy ("m_aJournalLock")
+  private void _restore () throws IOException
+  {
+    final ICommonsMap <Long, JournalRecord> aRecords = new CommonsHashMap <> ();
+    long nMaxSequence = 0;
+    if (Files.exists (m_aJournalFile))
+    {
+      // Stream the journal, as it may be large
+      try (final DataInputStream aDIS = new DataInputStream (new BufferedInputStream (Files.newInputStream (m_aJournalFile))))
+      {
+        while (true)
+        {
+          final int nType = aDIS.read ();
+          if (nType < 0)
+            break;
+          final long nSequence = aDIS.readLong ();
+          nMaxSequence = Math.max (nMaxSequence, nSequence);
+          if (nType == RECORD_ADD)
+          {
+            final String sMessageID = aDIS.readUTF ();
+            final int nMaxRetries = aDIS.readInt ();
+            final long nRetryIntervalMS = aDIS.readLong ();
+            final int nAttemptCount = aDIS.readInt ();
+            final long nNextAttemptMillis = aDIS.readLong ();
+            aRecords.put (Long.valueOf (nSequence),
+                          new JournalRecord (nSequence, sMessageID, nMaxRetries, nRetryIntervalMS, nAttemptCount, nNextAttemptMillis));
+          }
+          else
+            if (nType == RECORD_ATTEMPT)
+            {
+              final int nAttemptCount = aDIS.readInt ();
+              final long nNextAttemptMillis = aDIS.readLong ();
+              final JournalRecord aRecord = aRecords.get (Long.valueOf (nSequence));
+              if (aRecord != null)
+              {
+                aRecord.m_nAttemptCount = nAttemptCount;
+                aRecord.m_nNextAttemptMillis = nNextAttemptMillis;
+              }
+            }
+            else
+              if (nType == RECORD_REMOVE)
+                aRecords.remove (Long.valueOf (nSequence));
+              else
+                throw new IOException ("Unexpected journal record type " + nType);
+        }
+      }
+      catch (final EOFException ex)
+      {
+        // Incomplete last record, e.g. after a crash - the message was never
+        // confirmed to be tracked
+        LOGGER.warn ("The outbound message journal '" + m_aJournalFile + "' ends with an incomplete record - ignoring it");
+      }
+    }
+
+    // Delete all message files that are not referenced
+    final File [] aMessageFiles = m_aMessageDir.listFiles ();
+    if (aMessageFiles != null)
+      for (final File aFile : aMessageFiles)
+      {
+        final String sName = aFile.getName ();
+        final long nSequence = sName.endsWith (MESSAGE_SUFFIX) ? StringParser.parseLong (StringHelper.trimEnd (sName, MESSAGE_SUFFIX),
+                                                                                          -1)
+                                                               : -1;
+        nMaxSequence = Math.max (nMaxSequence, nSequence);
+        if (!aRecords.containsKey (Long.valueOf (nSequence)))
+          AS4IOHelper.getFileOperationManager ().deleteFileIfExisting (aFile);
+      }
+    ensureNextSequence (nMaxSequence + 1);
+
+    int nRestored = 0;
+    for (final JournalRecord aRecord : aRecords.values ())
+    {
+      if (!_getMessageFile (aRecord.m_nSequence).isFile ())
+      {
+        LOGGER.warn ("The file of tracked message '" + aRecord.m_sMessageID + "' is missing - ignoring it");
+        continue;
+      }
+      if (internalAdd (new TrackingEntry (aRecord.m_nSequence,
+                                          aRecord.m_sMessageID,
+                                          aRecord.m_nMaxRetries,
+                                          aRecord.m_nRetryIntervalMS,
+                                          aRecord.m_nAttemptCount,
+                                          aRecord.m_nNextAttemptMillis,
+                                          null,
+                                          null)).isChanged ())
+        nRestored++;
+    }
+    if (nRestored > 0)
+      LOGGER.info ("Restored " + nRestored + " messages waiting for a Receipt from '" + m_aJournalFile.getParent () + "'");
+  }
+
+  @Nonnull
+  private static byte [] _getAddRecord (final long nSequence,
+                                        @Nonnull final String sMessageID,
+                                        final int nMaxRetries,
+                                        final long nRetryIntervalMS,
+                                        final int nAttemptCount,
+                                        final long nNextAttemptMillis) throws IOException
+  {
+    try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ();
+         final DataOutputStream aDOS = new DataOutputStream (aBAOS))
+    {
+      aDOS.write (RECORD_ADD);
+      aDOS.writeLong (nSequence);
+      aDOS.writeUTF (sMessageID);
+      aDOS.writeInt (nMaxRetries);
+      aDOS.writeLong (nRetryIntervalMS);
+      aDOS.writeInt (nAttemptCount);
+      aDOS.writeLong (nNextAttemptMillis);
+      aDOS.flush ();
+      return aBAOS.toByteArray ();
+    }
+  }
+
+  @Nonnull
+  private static byte [] _getAttemptRecord (final long nSequence, final int nAttemptCount, final long nNextAttemptMillis)
+  {
+    final ByteBuffer aBB = ByteBuffer.allocate (1 + Long.BYTES + Integer.BYTES + Long.BYTES);
+    aBB.put (RECORD_ATTEMPT);
+    aBB.putLong (nSequence);
+    aBB.putInt (nAttemptCount);
+    aBB.putLong (nNextAttemptMillis);
+    return aBB.array ();
+  }
+
+  @Nonnull
+  private static byte [] _getRemoveRecord (final long nSequence)
+  {
+    final ByteBuffer aBB = ByteBuffer.allocate (1 + Long.BYTES);
+    aBB.put (RECORD_REMOVE);
+    aBB.putLong (nSequence);
+    return aBB.array ();
+  }
+
+  private static void _writeFully (@Nonnull final FileChannel aChannel, @Nonnull final byte [] aBytes) throws IOException
+  {
+    final ByteBuffer aBB = ByteBuffer.wrap (aBytes);
+    while (aBB.hasRemaining ())
+      aChannel.write (aBB);
+  }
+
+  @GuardedBy ("m_aJournalLock")
+  private void _appendToJournal (@Nonnull final byte [] aRecord) throws IOException
+  {
+    if (m_aJournal == null)
+      throw new IOException ("The outbound message store '" + m_aJournalFile.getParent () + "' was already closed");
+    _writeFully (m_aJournal, aRecord);
+  }
+
+  /**
+   * Rewrite the journal with the currently tracked entries only.
+   */
+  @GuardedBy ("m_aJournalLock")
+  private void _compact () throws IOException
+  {
+    final Path aTmpFile = m_aJournalFile.resolveSibling (JOURNAL_TMP_FILENAME);
+    try (final FileChannel aTmp = FileChannel.open (aTmpFile,
+                                                    StandardOpenOption.CREATE,
+                                                    StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING))
+    {
+      for (final TrackingEntry aEntry : internalGetAll ())
+        _writeFully (aTmp,
+                     _getAddRecord (aEntry.getSequence (),
+                                    aEntry.getMessageID (),
+                                    aEntry.getMaxRetries (),
+                                    aEntry.getRetryIntervalMS (),
+                                    aEntry.getAttemptCount (),
+                                    aEntry.getNextAttemptMillis ()));
+      aTmp.force (false);
+    }
+
+    if (m_aJournal != null)
+      m_aJournal.close ();
+    Files.move (aTmpFile, m_aJournalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    m_aJournal = FileChannel.open (m_aJournalFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    m_nObsoleteRecords = 0;
+  }
+
+  @GuardedBy ("m_aJournalLock")
+  private void _onObsoleteRecord () throws IOException
+  {
+    m_nObsoleteRecords++;
+    if (m_nObsoleteRecords >= COMPACTION_THRESHOLD && m_nObsoleteRecords >= size ())
+      _compact ();
+  }
+
+  @Nonnull
+  private static byte [] _serializeMessage (@Nonnull final AS4OutboundMessage aMessage, @Nonnull final byte [] aPayload) throws IOException
+  {
+    try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream (aPayload.length + 1024);
+         final DataOutputStream aDOS = new DataOutputStream (aBAOS))
+    {
+      aDOS.writeInt (MESSAGE_FORMAT_VERSION);
+      aDOS.writeLong (aMessage.getCreationMillis ());
+      aDOS.writeUTF (aMessage.getID ());
+      aDOS.writeUTF (StringHelper.getNotNull (aMessage.getPModeID ()));
+      aDOS.writeUTF (aMessage.getTargetURL ());
+      aDOS.writeUTF (StringHelper.getNotNull (aMessage.getReceiverID ()));
+      aDOS.writeUTF (aMessage.getContentType ());
+
+      final ICommonsList <String> aHeaders = new CommonsArrayList <> ();
+      aMessage.getAllCustomHeaders ().forEachSingleHeader ( (k, v) -> {
+        aHeaders.add (k);
+        aHeaders.add (v);
+      }, false);
+      aDOS.writeInt (aHeaders.size () / 2);
+      for (final String s : aHeaders)
+        aDOS.writeUTF (s);
+
+      aDOS.writeInt (aPayload.length);
+      aDOS.write (aPayload);
+      aDOS.flush ();
+      return aBAOS.toByteArray ();
+    }
+  }
+
+  @Nonnull
+  private static AS4OutboundMessage _readMessageHeader (@Nonnull final TrackingEntry aEntry,
+                                                        @Nonnull @WillNotClose final DataInputStream aDIS) throws IOException
+  {
+    final int nVersion = aDIS.readInt ();
+    if (nVersion < 1 || nVersion > MESSAGE_FORMAT_VERSION)
+      throw new IOException ("Unsupported message format version " + nVersion);
+
+    final long nCreationMillis = aDIS.readLong ();
+    final String sMessageID = aDIS.readUTF ();
+    final String sPModeID = aDIS.readUTF ();
+    final String sTargetURL = aDIS.readUTF ();
+    final String sReceiverID = nVersion >= 2 ? aDIS.readUTF () : null;
+    final String sContentType = aDIS.readUTF ();
+    final HttpHeaderMap aCustomHeaders = new HttpHeaderMap ();
+    final int nHeaders = aDIS.readInt ();
+    for (int i = 0; i < nHeaders; ++i)
+    {
+      final String sName = aDIS.readUTF ();
+      final String sValue = aDIS.readUTF ();
+      aCustomHeaders.addHeader (sName, sValue);
+    }
+    return new AS4OutboundMessage (nCreationMillis,
+                                   sMessageID,
+                                   StringHelper.hasText (sPModeID) ? sPModeID : null,
+                                   sTargetURL,
+                                   StringHelper.hasText (sReceiverID) ? sReceiverID : null,
+                                   sContentType,
+                                   aCustomHeaders,
+                                   aEntry.getMaxRetries (),
+                                   aEntry.getRetryIntervalMS (),
+                                   0,
+                                   0);
+  }
+
+  @Override
+  @Nonnull
+  protected EChange internalTrack (@Nonnull final AS4OutboundMessage aMessage, @Nonnull final byte [] aPayload, final long nSequence)
+  {
+    final File aMessageFile = _getMessageFile (nSequence);
+    try
+    {
+      // Write the message first, so that the journal never references a
+      // missing file
+      try (final FileChannel aChannel = FileChannel.open (aMessageFile.toPath (),
+                                                          StandardOpenOption.CREATE_NEW,
+                                                          StandardOpenOption.WRITE))
+      {
+        _writeFully (aChannel, _serializeMessage (aMessage, aPayload));
+        if (m_bSyncWrites)
+          aChannel.force (false);
+      }
+
+      final EChange ret = m_aJournalLock.lockedGetThrowing ( () -> {
+        if (containsMessage (aMessage.getID ()))
+          return EChange.UNCHANGED;
+
+        _appendToJournal (_getAddRecord (nSequence,
+                                         aMessage.getID (),
+                                         aMessage.getMaxRetries (),
+                                         aMessage.getRetryIntervalMS (),
+                                         aMessage.getAttemptCount (),
+                                         aMessage.getNextAttemptMillis ()));
+        if (m_bSyncWrites)
+          m_aJournal.force (false);
+        return internalAdd (new TrackingEntry (nSequence,
+                                               aMessage.getID (),
+                                               aMessage.getMaxRetries (),
+                                               aMessage.getRetryIntervalMS (),
+                                               aMessage.getAttemptCount (),
+                                               aMessage.getNextAttemptMillis (),
+                                               null,
+                                               null));
+      });
+      if (ret.isUnchanged ())
+        AS4IOHelper.getFileOperationManager ().deleteFileIfExisting (aMessageFile);
+      return ret;
+    }
+    catch (final IOException ex)
+    {
+      AS4IOHelper.getFileOperationManager ().deleteFileIfExisting (aMessageFile);
+      throw new UncheckedIOException ("Failed to track message '" + aMessage.getID () + "'", ex);
+    }
+  }
+
+  @Override
+  @Nullable
+  protected AS4OutboundMessage readMessage (@Nonnull final TrackingEntry aEntry)
+  {
+    final File aMessageFile = _getMessageFile (aEntry.getSequence ());
+    // Only read the header - not the payload
+    try (final DataInputStream aDIS = new DataInputStream (new BufferedInputStream (Files.newInputStream (aMessageFile.toPath ()))))
+    {
+      return _readMessageHeader (aEntry, aDIS);
+    }
+    catch (final IOException | RuntimeException ex)
+    {
+      LOGGER.error ("Failed to read tracked message from " + aMessageFile.getAbsolutePath (), ex);
+      return null;
+    }
+  }
+
+  @Override
+  @Nullable
+  protected byte [] readPayload (@Nonnull final TrackingEntry aEntry)
+  {
+    final File aMessageFile = _getMessageFile (aEntry.getSequence ());
+    try (final DataInputStream aDIS = new DataInputStream (new BufferedInputStream (Files.newInputStream (aMessageFile.toPath ()))))
+    {
+      _readMessageHeader (aEntry, aDIS);
+      final byte [] ret = new byte [aDIS.readInt ()];
+      aDIS.readFully (ret);
+      return ret;
+    }
+    catch (final IOException | RuntimeException ex)
+    {
+      LOGGER.error ("Failed to read the payload of tracked message from " + aMessageFile.getAbsolutePath (), ex);
+      return null;
+    }
+  }
+
+  @Override
+  protected void onFailedAttemptRecorded (@Nonnull final TrackingEntry aEntry, final int nAttemptCount, final long nNextAttemptMillis)
+  {
+    try
+    {
+      m_aJournalLock.lockedThrowing ( () -> {
+        _appendToJournal (_getAttemptRecord (aEntry.getSequence (), nAttemptCount, nNextAttemptMillis));
+        _onObsoleteRecord ();
+      });
+    }
+    catch (final IOException ex)
+    {
+      // The message may be retransmitted earlier after a restart
+      LOGGER.error ("Failed to journal the failed attempt of tracked message '" + aEntry.getMessageID () + "'", ex);
+    }
+  }
+
+  @Override
+  protected void onRemoved (@Nonnull final TrackingEntry aEntry)
+  {
+    try
+    {
+      m_aJournalLock.lockedThrowing ( () -> {
+        _appendToJournal (_getRemoveRecord (aEntry.getSequence ()));
+        _onObsoleteRecord ();
+      });
+    }
+    catch (final IOException ex)
+    {
+      // The message may be retransmitted again after a restart
+      LOGGER.error ("Failed to journal the removal of tracked message '" + aEntry.getMessageID () + "'", ex);
+    }
+    AS4IOHelper.getFileOperationManager ().deleteFileIfExisting (_getMessageFile (aEntry.getSequence ()));
+  }
+
+  public void close () throws IOException
+  {
+    m_aJournalLock.lockedThrowing ( () -> {
+      if (m_aJournal != null)
+      {
+        m_aJournal.close ();
+        m_aJournal = null;
+      }
+    });
+  }
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.reliability;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.state.EChange;
+
+/**
+ * In-memory implementation of {@link IAS4OutboundMessageStore}. Tracked
+ * messages are lost when the application is stopped.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@ThreadSafe
+public class AS4OutboundMessageStoreInMemory extends AbstractAS4OutboundMessageStore
+{
+  public AS4OutboundMessageStoreInMemory ()
+  {}
+
+  @Override
+  @Nonnull
+  protected EChange internalTrack (@Nonnull final AS4OutboundMessage aMessage, @Nonnull final byte [] aPayload, final long nSequence)
+  {
+    return internalAdd (new TrackingEntry (nSequence,
+                                           aMessage.getID (),
+                                           aMessage.getMaxRetries (),
+                                           aMessage.getRetryIntervalMS (),
+                                           aMessage.getAttemptCount (),
+                                           aMessage.getNextAttemptMillis (),
+                                           aMessage,
+                                           aPayload.clone ()));
+  }
+
+  @Override
+  @Nullable
+  protected AS4OutboundMessage readMessage (@Nonnull final TrackingEntry aEntry)
+  {
+    return aEntry.getMessage ();
+  }
+
+  @Override
+  @Nullable
+  protected byte [] readPayload (@Nonnull final TrackingEntry aEntry)
+  {
+    return aEntry.getPayload ().clone ();
+  }
+
+  @Override
+  protected void onFailedAttemptRecorded (@Nonnull final TrackingEntry aEntry, final int nAttemptCount, final long nNextAttemptMillis)
+  {
+    // Nothing to persist
+  }
+
+  @Override
+  protected void onRemoved (@Nonnull final TrackingEntry aEntry)
+  {
+    // Nothing to clean up
+  }
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.reliability;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.commons.string.StringHelper;
+import com.helger.phase4.mgr.MetaAS4Manager;
+
+/**
+ * The registry of all {@link IAS4OutboundMessageStore} instances that track
+ * sent messages. It is used to find the store of a message for which an
+ * asynchronous Receipt or Error is received. The global store of
+ * {@link MetaAS4Manager} is always considered. Stores are only weakly
+ * referenced.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@ThreadSafe
+public final class AS4OutboundMessageStoreRegistry
+{
+  private static final SimpleReadWriteLock RW_LOCK = new SimpleReadWriteLock ();
+  @GuardedBy ("RW_LOCK")
+  private static final Set <IAS4OutboundMessageStore> STORES = Collections.newSetFromMap (new WeakHashMap <> ());
+
+  private AS4OutboundMessageStoreRegistry ()
+  {}
+
+  /**
+   * Register a store that tracks sent messages. Registering the same store
+   * more than once has no effect.
+   *
+   * @param aStore
+   *        The store to register. May not be <code>null</code>.
+   */
+  public static void registerStore (@Nonnull final IAS4OutboundMessageStore aStore)
+  {
+    ValueEnforcer.notNull (aStore, "Store");
+    if (RW_LOCK.readLockedBoolean ( () -> STORES.contains (aStore)))
+      return;
+    RW_LOCK.writeLocked ( () -> STORES.add (aStore));
+  }
+
+  /**
+   * @return All registered stores. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public static ICommonsList <IAS4OutboundMessageStore> getAllStores ()
+  {
+    return RW_LOCK.readLockedGet ( () -> new CommonsArrayList <> (STORES));
+  }
+
+  /**
+   * Find the store that tracks the provided message.
+   *
+   * @param sMessageID
+   *        The ID of the sent message. May be <code>null</code>.
+   * @return <code>null</code> if no store tracks the message.
+   */
+  @Nullable
+  public static IAS4OutboundMessageStore getStoreOfMessage (@Nullable final String sMessageID)
+  {
+    if (StringHelper.hasNoText (sMessageID))
+      return null;
+
+    final IAS4OutboundMessageStore aGlobalStore = MetaAS4Manager.getOutboundMessageStore ();
+    if (aGlobalStore.containsMessage (sMessageID))
+      return aGlobalStore;
+
+    for (final IAS4OutboundMessageStore aStore : getAllStores ())
+      if (aStore.containsMessage (sMessageID))
+        return aStore;
+    return null;
+  }
+}
@@ -0,0 +1,516 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.reliability;
+
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.annotation.ReturnsMutableObject;
+import com.helger.commons.callback.CallbackList;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.CommonsTreeSet;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.collection.impl.ICommonsNavigableSet;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.commons.state.EChange;
+import com.helger.commons.string.StringHelper;
+
+/**
+ * Abstract base implementation of {@link IAS4OutboundMessageStore} that keeps
+ * a compact index of all tracked messages in memory. The index only contains
+ * what is needed to schedule the retransmissions - the message details and the
+ * payload are read from the implementation when needed.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@ThreadSafe
+public abstract class AbstractAS4OutboundMessageStore implements IAS4OutboundMessageStore
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (AbstractAS4OutboundMessageStore.class);
+
+  /**
+   * The index entry of a single tracked message.
+   *
+   * @author Philip Helger
+   */
+  protected static final class TrackingEntry
+  {
+    private final long m_nSequence;
+    private final String m_sMessageID;
+    private final int m_nMaxRetries;
+    private final long m_nRetryIntervalMS;
+    private final AS4OutboundMessage m_aMessage;
+    private final byte [] m_aPayload;
+
+    // Status fields - guarded by the lock of the store
+    private int m_nAttemptCount;
+    private long m_nNextAttemptMillis;
+
+    public TrackingEntry (final long nSequence,
+                          @Nonnull @Nonempty final String sMessageID,
+                          @Nonnegative final int nMaxRetries,
+                          @Nonnegative final long nRetryIntervalMS,
+                          @Nonnegative final int nAttemptCount,
+                          final long nNextAttemptMillis,
+                          @Nullable final AS4OutboundMessage aMessage,
+                          @Nullable final byte [] aPayload)
+    {
+      m_nSequence = nSequence;
+      m_sMessageID = sMessageID;
+      m_nMaxRetries = nMaxRetries;
+      m_nRetryIntervalMS = nRetryIntervalMS;
+      m_nAttemptCount = nAttemptCount;
+      m_nNextAttemptMillis = nNextAttemptMillis;
+      m_aMessage = aMessage;
+      m_aPayload = aPayload;
+    }
+
+    /**
+     * @return The unique sequence number of the entry.
+     */
+    public long getSequence ()
+    {
+      return m_nSequence;
+    }
+
+    @Nonnull
+    @Nonempty
+    public String getMessageID ()
+    {
+      return m_sMessageID;
+    }
+
+    @Nonnegative
+    public int getMaxRetries ()
+    {
+      return m_nMaxRetries;
+    }
+
+    @Nonnegative
+    public long getRetryIntervalMS ()
+    {
+      return m_nRetryIntervalMS;
+    }
+
+    /**
+     * @return The number of failed attempts. Only consistent for entries
+     *         returned by {@link AbstractAS4OutboundMessageStore#internalGetAll()}.
+     */
+    @Nonnegative
+    public int getAttemptCount ()
+    {
+      return m_nAttemptCount;
+    }
+
+    /**
+     * @return The next attempt in milliseconds since the epoch. Only
+     *         consistent for entries returned by
+     *         {@link AbstractAS4OutboundMessageStore#internalGetAll()}.
+     */
+    public long getNextAttemptMillis ()
+    {
+      return m_nNextAttemptMillis;
+    }
+
+    /**
+     * @return The message, if the implementation keeps it in memory.
+     *         <code>null</code> otherwise.
+     */
+    @Nullable
+    public AS4OutboundMessage getMessage ()
+    {
+      return m_aMessage;
+    }
+
+    /**
+     * @return The payload, if the implementation keeps it in memory.
+     *         <code>null</code> otherwise.
+     */
+    @Nullable
+    public byte [] getPayload ()
+    {
+      return m_aPayload;
+    }
+
+    @Nonnull
+    TrackingEntry getClone ()
+    {
+      return new TrackingEntry (m_nSequence,
+                                m_sMessageID,
+                                m_nMaxRetries,
+                                m_nRetryIntervalMS,
+                                m_nAttemptCount,
+                                m_nNextAttemptMillis,
+                                m_aMessage,
+                                m_aPayload);
+    }
+  }
+
+  /**
+   * The status of an index entry at a certain point in time.
+   */
+  private static final class EntrySnapshot
+  {
+    private final TrackingEntry m_aEntry;
+    private final int m_nAttemptCount;
+    private final long m_nNextAttemptMillis;
+
+    EntrySnapshot (@Nonnull final TrackingEntry aEntry)
+    {
+      m_aEntry = aEntry;
+      m_nAttemptCount = aEntry.m_nAttemptCount;
+      m_nNextAttemptMillis = aEntry.m_nNextAttemptMillis;
+    }
+  }
+
+  private static final Comparator <TrackingEntry> DUE_ORDER = Comparator.comparingLong ((final TrackingEntry x) -> x.m_nNextAttemptMillis)
+                                                                        .thenComparingLong (x -> x.m_nSequence);
+
+  private final CallbackList <IAS4OutboundMessageStatusCallback> m_aStatusCallbacks = new CallbackList <> ();
+  private final AtomicLong m_aNextSequence = new AtomicLong (1);
+  private final SimpleReadWriteLock m_aRWLock = new SimpleReadWriteLock ();
+  @GuardedBy ("m_aRWLock")
+  private final ICommonsMap <String, TrackingEntry> m_aEntries = new CommonsHashMap <> ();
+  // Ordered by next attempt
+  @GuardedBy ("m_aRWLock")
+  private final ICommonsNavigableSet <TrackingEntry> m_aDue = new CommonsTreeSet <> (DUE_ORDER);
+
+  protected AbstractAS4OutboundMessageStore ()
+  {}
+
+  @Nonnull
+  @ReturnsMutableObject
+  public final CallbackList <IAS4OutboundMessageStatusCallback> statusCallbacks ()
+  {
+    return m_aStatusCallbacks;
+  }
+
+  /**
+   * @return The next unique sequence number to be used.
+   */
+  protected final long getNextSequence ()
+  {
+    return m_aNextSequence.getAndIncrement ();
+  }
+
+  /**
+   * Make sure the next sequence number is at least the provided value. This
+   * is needed when restoring persisted entries.
+   *
+   * @param nMinNextSequence
+   *        The minimum next sequence number.
+   */
+  protected final void ensureNextSequence (final long nMinNextSequence)
+  {
+    m_aNextSequence.accumulateAndGet (nMinNextSequence, Math::max);
+  }
+
+  @Nonnegative
+  public int size ()
+  {
+    return m_aRWLock.readLockedInt (m_aEntries::size);
+  }
+
+  public boolean containsMessage (@Nullable final String sMessageID)
+  {
+    if (StringHelper.hasNoText (sMessageID))
+      return false;
+    return m_aRWLock.readLockedBoolean ( () -> m_aEntries.containsKey (sMessageID));
+  }
+
+  /**
+   * Add an entry to the index.
+   *
+   * @param aEntry
+   *        The entry to add. May not be <code>null</code>.
+   * @return {@link EChange#UNCHANGED} if the message ID is already contained.
+   */
+  @Nonnull
+  protected final EChange internalAdd (@Nonnull final TrackingEntry aEntry)
+  {
+    ValueEnforcer.notNull (aEntry, "Entry");
+    return m_aRWLock.writeLockedGet ( () -> {
+      if (m_aEntries.containsKey (aEntry.m_sMessageID))
+      {
+        LOGGER.warn ("A message with ID '" + aEntry.m_sMessageID + "' is already tracked");
+        return EChange.UNCHANGED;
+      }
+      m_aEntries.put (aEntry.m_sMessageID, aEntry);
+      m_aDue.add (aEntry);
+      return EChange.CHANGED;
+    });
+  }
+
+  /**
+   * @return Copies of all entries of the index with their current status,
+   *         ordered by sequence number. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  protected final ICommonsList <TrackingEntry> internalGetAll ()
+  {
+    final ICommonsList <TrackingEntry> ret = m_aRWLock.readLockedGet ( () -> new CommonsArrayList <> (m_aEntries.values (),
+                                                                                                      TrackingEntry::getClone));
+    ret.sort (Comparator.comparingLong (TrackingEntry::getSequence));
+    return ret;
+  }
+
+  /**
+   * Store a new message and add it to the index via
+   * {@link #internalAdd(TrackingEntry)}.
+   *
+   * @param aMessage
+   *        The message to be tracked. May not be <code>null</code>.
+   * @param aPayload
+   *        The bytes to be sent. May not be <code>null</code>.
+   * @param nSequence
+   *        The sequence number to use.
+   * @return {@link EChange#UNCHANGED} if the message was not tracked.
+   */
+  @Nonnull
+  protected abstract EChange internalTrack (@Nonnull AS4OutboundMessage aMessage, @Nonnull byte [] aPayload, long nSequence);
+
+  /**
+   * Read the details of an index entry. The attempt related fields of the
+   * result are ignored.
+   *
+   * @param aEntry
+   *        The entry to read the message from. May not be <code>null</code>.
+   * @return <code>null</code> if the message could not be read.
+   */
+  @Nullable
+  protected abstract AS4OutboundMessage readMessage (@Nonnull TrackingEntry aEntry);
+
+  /**
+   * Read the payload of an index entry.
+   *
+   * @param aEntry
+   *        The entry to read the payload from. May not be <code>null</code>.
+   * @return <code>null</code> if the payload could not be read.
+   */
+  @Nullable
+  protected abstract byte [] readPayload (@Nonnull TrackingEntry aEntry);
+
+  /**
+   * Called after a failed attempt was recorded in the index.
+   *
+   * @param aEntry
+   *        The updated entry. Never <code>null</code>.
+   * @param nAttemptCount
+   *        The new number of attempts.
+   * @param nNextAttemptMillis
+   *        The new next attempt in milliseconds since the epoch.
+   */
+  protected abstract void onFailedAttemptRecorded (@Nonnull TrackingEntry aEntry, int nAttemptCount, long nNextAttemptMillis);
+
+  /**
+   * Called after an entry was removed from the index, because it reached its
+   * final status.
+   *
+   * @param aEntry
+   *        The removed entry. Never <code>null</code>.
+   */
+  protected abstract void onRemoved (@Nonnull TrackingEntry aEntry);
+
+  @Nullable
+  private IAS4OutboundMessage _readMessage (@Nonnull final EntrySnapshot aSnapshot)
+  {
+    final TrackingEntry aEntry = aSnapshot.m_aEntry;
+    final AS4OutboundMessage aMessage = readMessage (aEntry);
+    if (aMessage == null)
+      return null;
+    return new AS4OutboundMessage (aMessage.getCreationMillis (),
+                                   aEntry.m_sMessageID,
+                                   aMessage.getPModeID (),
+                                   aMessage.getTargetURL (),
+                                   aMessage.getReceiverID (),
+                                   aMessage.getContentType (),
+                                   aMessage.getAllCustomHeaders (),
+                                   aEntry.m_nMaxRetries,
+                                   aEntry.m_nRetryIntervalMS,
+                                   aSnapshot.m_nAttemptCount,
+                                   aSnapshot.m_nNextAttemptMillis);
+  }
+
+  @Nullable
+  public IAS4OutboundMessage getMessage (@Nullable final String sMessageID)
+  {
+    if (StringHelper.hasNoText (sMessageID))
+      return null;
+
+    final EntrySnapshot aSnapshot = m_aRWLock.readLockedGet ( () -> {
+      final TrackingEntry aEntry = m_aEntries.get (sMessageID);
+      return aEntry == null ? null : new EntrySnapshot (aEntry);
+    });
+    return aSnapshot == null ? null : _readMessage (aSnapshot);
+  }
+
+  @Nullable
+  public byte [] getPayload (@Nullable final String sMessageID)
+  {
+    if (StringHelper.hasNoText (sMessageID))
+      return null;
+
+    final TrackingEntry aEntry = m_aRWLock.readLockedGet ( () -> m_aEntries.get (sMessageID));
+    return aEntry == null ? null : readPayload (aEntry);
+  }
+
+  @Nonnull
+  public final EChange track (@Nonnull final AS4OutboundMessage aMessage, @Nonnull final byte [] aPayload)
+  {
+    ValueEnforcer.notNull (aMessage, "Message");
+    ValueEnforcer.notNull (aPayload, "Payload");
+
+    // Fast check to avoid unnecessary work
+    if (containsMessage (aMessage.getID ()))
+      return EChange.UNCHANGED;
+
+    final EChange ret = internalTrack (aMessage, aPayload, getNextSequence ());
+    if (ret.isChanged () && LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Tracking message '" + aMessage.getID () + "' sent to '" + aMessage.getTargetURL () + "'");
+    return ret;
+  }
+
+  @Nonnull
+  public EChange onFailedAttempt (@Nullable final String sMessageID)
+  {
+    if (StringHelper.hasNoText (sMessageID))
+      return EChange.UNCHANGED;
+
+    final long nNowMillis = System.currentTimeMillis ();
+    final EntrySnapshot aSnapshot = m_aRWLock.writeLockedGet ( () -> {
+      final TrackingEntry aEntry = m_aEntries.get (sMessageID);
+      if (aEntry == null)
+        return null;
+      // Re-sort
+      m_aDue.remove (aEntry);
+      aEntry.m_nAttemptCount++;
+      aEntry.m_nNextAttemptMillis = nNowMillis + aEntry.m_nRetryIntervalMS;
+      m_aDue.add (aEntry);
+      return new EntrySnapshot (aEntry);
+    });
+    if (aSnapshot == null)
+      return EChange.UNCHANGED;
+
+    onFailedAttemptRecorded (aSnapshot.m_aEntry, aSnapshot.m_nAttemptCount, aSnapshot.m_nNextAttemptMillis);
+    return EChange.CHANGED;
+  }
+
+  @Nonnull
+  public EChange setFinalStatus (@Nullable final String sMessageID, @Nonnull final EAS4OutboundMessageStatus eStatus)
+  {
+    ValueEnforcer.notNull (eStatus, "Status");
+    ValueEnforcer.isTrue (eStatus.isFinal (), () -> "Status " + eStatus + " is not final");
+
+    if (StringHelper.hasNoText (sMessageID))
+      return EChange.UNCHANGED;
+
+    final EntrySnapshot aSnapshot = m_aRWLock.writeLockedGet ( () -> {
+      final TrackingEntry aEntry = m_aEntries.remove (sMessageID);
+      if (aEntry == null)
+        return null;
+      m_aDue.remove (aEntry);
+      return new EntrySnapshot (aEntry);
+    });
+    if (aSnapshot == null)
+      return EChange.UNCHANGED;
+
+    // Read the details before the entry is cleaned up
+    final IAS4OutboundMessage aMessage = m_aStatusCallbacks.isEmpty () ? null : _readMessage (aSnapshot);
+    onRemoved (aSnapshot.m_aEntry);
+
+    if (eStatus == EAS4OutboundMessageStatus.FAILED)
+      LOGGER.warn ("Giving up on message '" + sMessageID + "' after " + aSnapshot.m_nAttemptCount + " attempts without Receipt");
+    else
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Message '" + sMessageID + "' reached final status " + eStatus);
+
+    if (aMessage != null)
+      m_aStatusCallbacks.forEach (x -> x.onFinalStatus (aMessage, eStatus));
+    return EChange.CHANGED;
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IAS4OutboundMessage> getAllUnacknowledged (@Nonnegative final int nOffset, @Nonnegative final int nMaxCount)
+  {
+    ValueEnforcer.isGE0 (nOffset, "Offset");
+    ValueEnforcer.isGT0 (nMaxCount, "MaxCount");
+
+    final ICommonsList <EntrySnapshot> aSnapshots = m_aRWLock.readLockedGet ( () -> {
+      final ICommonsList <EntrySnapshot> ret = new CommonsArrayList <> ();
+      int nIndex = 0;
+      for (final TrackingEntry aEntry : m_aDue)
+      {
+        if (nIndex++ < nOffset)
+          continue;
+        ret.add (new EntrySnapshot (aEntry));
+        if (ret.size () >= nMaxCount)
+          break;
+      }
+      return ret;
+    });
+
+    // Read the details outside of the lock
+    final ICommonsList <IAS4OutboundMessage> ret = new CommonsArrayList <> (aSnapshots.size ());
+    for (final EntrySnapshot aSnapshot : aSnapshots)
+    {
+      final IAS4OutboundMessage aMessage = _readMessage (aSnapshot);
+      if (aMessage != null)
+        ret.add (aMessage);
+    }
+    return ret;
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <String> getAllDueMessageIDs (final long nNowMillis, @Nonnegative final int nMaxCount)
+  {
+    ValueEnforcer.isGT0 (nMaxCount, "MaxCount");
+
+    return m_aRWLock.readLockedGet ( () -> {
+      final ICommonsList <String> ret = new CommonsArrayList <> ();
+      for (final TrackingEntry aEntry : m_aDue)
+      {
+        if (aEntry.m_nNextAttemptMillis > nNowMillis)
+        {
+          // All others are due later
+          break;
+        }
+        ret.add (aEntry.m_sMessageID);
+        if (ret.size () >= nMaxCount)
+          break;
+      }
+      return ret;
+    });
+  }
+}
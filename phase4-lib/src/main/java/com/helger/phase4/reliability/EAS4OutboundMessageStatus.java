@@ -0,0 +1,75 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.reliability;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.id.IHasID;
+import com.helger.commons.lang.EnumHelper;
+
+/**
+ * The receipt status of a message tracked in an
+ * {@link IAS4OutboundMessageStore}.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+public enum EAS4OutboundMessageStatus implements IHasID <String>
+{
+  /** The message was sent, but no Receipt or Error was received yet */
+  PENDING ("pending"),
+  /**
+   * A Receipt was received for the message, or the receiver reported a
+   * retransmission as already received
+   */
+  RECEIPT_RECEIVED ("receipt"),
+  /** An ebMS Error was received for the message */
+  ERROR_RECEIVED ("error"),
+  /** No Receipt was received after all retries */
+  FAILED ("failed");
+
+  private final String m_sID;
+
+  EAS4OutboundMessageStatus (@Nonnull @Nonempty final String sID)
+  {
+    m_sID = sID;
+  }
+
+  @Nonnull
+  @Nonempty
+  public String getID ()
+  {
+    return m_sID;
+  }
+
+  /**
+   * @return <code>true</code> if no further status change can happen,
+   *         <code>false</code> for {@link #PENDING}.
+   */
+  public boolean isFinal ()
+  {
+    return this != PENDING;
+  }
+
+  @Nullable
+  public static EAS4OutboundMessageStatus getFromIDOrNull (@Nullable final String sID)
+  {
+    return EnumHelper.getFromIDOrNull (EAS4OutboundMessageStatus.class, sID);
+  }
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.reliability;
+
+import java.time.OffsetDateTime;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.http.HttpHeaderMap;
+import com.helger.commons.id.IHasID;
+
+/**
+ * Read-only interface for a single sent message that waits for a Receipt. The
+ * ID of the item is the ID of the AS4 message.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+public interface IAS4OutboundMessage extends IHasID <String>
+{
+  /**
+   * @return The ID of the AS4 message. Neither <code>null</code> nor empty.
+   *         Same as {@link #getID()}.
+   */
+  @Nonnull
+  @Nonempty
+  default String getMessageID ()
+  {
+    return getID ();
+  }
+
+  /**
+   * @return The date and time when the message was first sent. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  OffsetDateTime getCreationDateTime ();
+
+  /**
+   * @return The ID of the P-Mode used. May be <code>null</code>.
+   */
+  @Nullable
+  String getPModeID ();
+
+  /**
+   * @return The URL the message was sent to. Neither <code>null</code> nor
+   *         empty.
+   */
+  @Nonnull
+  @Nonempty
+  String getTargetURL ();
+
+  /**
+   * @return The ID of the certificate the receiver signs its signals with. Only
+   *         Receipts and Errors signed with this certificate are accepted for
+   *         this message. May be <code>null</code> if it is unknown.
+   */
+  @Nullable
+  String getReceiverID ();
+
+  /**
+   * @return The HTTP Content-Type of the message payload, including all
+   *         parameters (like the MIME boundary). Neither <code>null</code> nor
+   *         empty.
+   */
+  @Nonnull
+  @Nonempty
+  String getContentType ();
+
+  /**
+   * @return The custom HTTP headers to be sent together with the payload.
+   *         Never <code>null</code> but maybe empty.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  HttpHeaderMap getAllCustomHeaders ();
+
+  /**
+   * @return The maximum number of retransmissions after the first attempt.
+   *         Always &ge; 0.
+   */
+  @Nonnegative
+  int getMaxRetries ();
+
+  /**
+   * @return The number of milliseconds to wait for a Receipt, before the
+   *         message is retransmitted. Always &ge; 0.
+   */
+  @Nonnegative
+  long getRetryIntervalMS ();
+
+  /**
+   * @return The number of completed sending attempts without Receipt. Always
+   *         &ge; 0.
+   */
+  @Nonnegative
+  int getAttemptCount ();
+
+  /**
+   * @return The date and time after which the next attempt is due, if no
+   *         Receipt was received until then. Never <code>null</code>.
+   */
+  @Nonnull
+  OffsetDateTime getNextAttemptDateTime ();
+
+  /**
+   * @return <code>true</code> if another attempt may be performed,
+   *         <code>false</code> if all retries were used.
+   */
+  default boolean isRetryAllowed ()
+  {
+    return getAttemptCount () <= getMaxRetries ();
+  }
+}
@@ -0,0 +1,43 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.reliability;
+
+import javax.annotation.Nonnull;
+
+import com.helger.commons.callback.ICallback;
+
+/**
+ * Callback interface that is invoked when a tracked message reaches its final
+ * status and is removed from the {@link IAS4OutboundMessageStore}.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@FunctionalInterface
+public interface IAS4OutboundMessageStatusCallback extends ICallback
+{
+  /**
+   * Called after the message was removed from the store.
+   *
+   * @param aMessage
+   *        The message that reached the final status. Never <code>null</code>.
+   * @param eStatus
+   *        The final status. Never <code>null</code> and never
+   *        {@link EAS4OutboundMessageStatus#PENDING}.
+   */
+  void onFinalStatus (@Nonnull IAS4OutboundMessage aMessage, @Nonnull EAS4OutboundMessageStatus eStatus);
+}
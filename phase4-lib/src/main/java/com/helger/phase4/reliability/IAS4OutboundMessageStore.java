@@ -0,0 +1,205 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.reliability;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.annotation.ReturnsMutableObject;
+import com.helger.commons.callback.CallbackList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.state.EChange;
+
+/**
+ * Base interface for the store of sent user messages that wait for a Receipt.
+ * Every message is tracked by its AS4 message ID from the moment before it is
+ * sent for the first time until a Receipt or an Error is received, or until
+ * all retransmissions failed. The sent bytes are kept, so that the message
+ * can be retransmitted unchanged.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+public interface IAS4OutboundMessageStore
+{
+  /**
+   * @return The callbacks that are invoked when a message reaches its final
+   *         status. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableObject
+  CallbackList <IAS4OutboundMessageStatusCallback> statusCallbacks ();
+
+  /**
+   * @return <code>true</code> if no message waits for a Receipt,
+   *         <code>false</code> otherwise.
+   */
+  default boolean isEmpty ()
+  {
+    return size () == 0;
+  }
+
+  /**
+   * @return The number of messages waiting for a Receipt. Always &ge; 0.
+   */
+  @Nonnegative
+  int size ();
+
+  /**
+   * Check if a message with the provided AS4 message ID waits for a Receipt.
+   *
+   * @param sMessageID
+   *        The message ID to check. May be <code>null</code>.
+   * @return <code>true</code> if it is contained, <code>false</code>
+   *         otherwise.
+   */
+  boolean containsMessage (@Nullable String sMessageID);
+
+  /**
+   * Get the receipt status of the provided message ID. Messages are removed
+   * from the store as soon as they reach a final status - use the
+   * {@link #statusCallbacks()} to get notified about it.
+   *
+   * @param sMessageID
+   *        The message ID to check. May be <code>null</code>.
+   * @return {@link EAS4OutboundMessageStatus#PENDING} if the message is
+   *         contained, <code>null</code> otherwise.
+   */
+  @Nullable
+  default EAS4OutboundMessageStatus getStatus (@Nullable final String sMessageID)
+  {
+    return containsMessage (sMessageID) ? EAS4OutboundMessageStatus.PENDING : null;
+  }
+
+  /**
+   * Get the message with the provided ID.
+   *
+   * @param sMessageID
+   *        The message ID to search. May be <code>null</code>.
+   * @return <code>null</code> if no such message is contained or if it could
+   *         not be read.
+   */
+  @Nullable
+  IAS4OutboundMessage getMessage (@Nullable String sMessageID);
+
+  /**
+   * Get the sent bytes of the message with the provided ID.
+   *
+   * @param sMessageID
+   *        The message ID. May be <code>null</code>.
+   * @return <code>null</code> if no such message is contained or if the
+   *         payload could not be read.
+   */
+  @Nullable
+  byte [] getPayload (@Nullable String sMessageID);
+
+  /**
+   * Start tracking a message. This must be called before the message is sent
+   * for the first time, so that it can be retransmitted after a crash.
+   *
+   * @param aMessage
+   *        The message to track. May not be <code>null</code>.
+   * @param aPayload
+   *        The bytes to be sent. May not be <code>null</code>.
+   * @return {@link EChange#UNCHANGED} if a message with the same ID is already
+   *         contained.
+   */
+  @Nonnull
+  EChange track (@Nonnull AS4OutboundMessage aMessage, @Nonnull byte [] aPayload);
+
+  /**
+   * Remember that a sending attempt finished without Receipt. The next attempt
+   * is due after the retry interval of the message.
+   *
+   * @param sMessageID
+   *        The message ID. May be <code>null</code>.
+   * @return {@link EChange#UNCHANGED} if no such message is contained.
+   */
+  @Nonnull
+  EChange onFailedAttempt (@Nullable String sMessageID);
+
+  /**
+   * Set the final status of a message and remove it from the store.
+   *
+   * @param sMessageID
+   *        The message ID. May be <code>null</code>.
+   * @param eStatus
+   *        The final status. May not be <code>null</code> and may not be
+   *        {@link EAS4OutboundMessageStatus#PENDING}.
+   * @return {@link EChange#UNCHANGED} if no such message is contained.
+   */
+  @Nonnull
+  EChange setFinalStatus (@Nullable String sMessageID, @Nonnull EAS4OutboundMessageStatus eStatus);
+
+  /**
+   * Remember that a Receipt was received for a message.
+   *
+   * @param sMessageID
+   *        The message ID the Receipt refers to. May be <code>null</code>.
+   * @return {@link EChange#UNCHANGED} if no such message is contained.
+   */
+  @Nonnull
+  default EChange onReceipt (@Nullable final String sMessageID)
+  {
+    return setFinalStatus (sMessageID, EAS4OutboundMessageStatus.RECEIPT_RECEIVED);
+  }
+
+  /**
+   * Remember that an ebMS Error was received for a message.
+   *
+   * @param sMessageID
+   *        The message ID the Error refers to. May be <code>null</code>.
+   * @return {@link EChange#UNCHANGED} if no such message is contained.
+   */
+  @Nonnull
+  default EChange onError (@Nullable final String sMessageID)
+  {
+    return setFinalStatus (sMessageID, EAS4OutboundMessageStatus.ERROR_RECEIVED);
+  }
+
+  /**
+   * Get a page of the messages waiting for a Receipt, ordered by the date and
+   * time of their next attempt. Only the requested page is read, so this
+   * method may be used to iterate a large store.
+   *
+   * @param nOffset
+   *        The number of messages to skip. Must be &ge; 0.
+   * @param nMaxCount
+   *        The maximum number of messages to return. Must be &gt; 0.
+   * @return The messages of the requested page. Never <code>null</code> but
+   *         maybe empty.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  ICommonsList <IAS4OutboundMessage> getAllUnacknowledged (@Nonnegative int nOffset, @Nonnegative int nMaxCount);
+
+  /**
+   * Get the IDs of all messages that are due for the next attempt, ordered by
+   * the date and time of their next attempt.
+   *
+   * @param nNowMillis
+   *        The current time as milliseconds since the epoch.
+   * @param nMaxCount
+   *        The maximum number of IDs to return. Must be &gt; 0.
+   * @return The message IDs and never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  ICommonsList <String> getAllDueMessageIDs (long nNowMillis, @Nonnegative int nMaxCount);
+}
@@ -0,0 +1,47 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.reliability;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Interface for retransmitting a message of an
+ * {@link IAS4OutboundMessageStore}.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@FunctionalInterface
+public interface IAS4OutboundMessageTransmitter
+{
+  /**
+   * Send the provided message again. Retries are not handled by this method.
+   *
+   * @param aMessage
+   *        The message to be sent. Never <code>null</code>.
+   * @param aPayload
+   *        The bytes to be sent. Never <code>null</code>.
+   * @return The status derived from the synchronous response.
+   *         {@link EAS4OutboundMessageStatus#PENDING} if the response contains
+   *         neither a Receipt nor an Error, e.g. because they are sent
+   *         asynchronously. Never <code>null</code>.
+   * @throws Exception
+   *         In case sending failed. This counts as a failed attempt.
+   */
+  @Nonnull
+  EAS4OutboundMessageStatus transmit (@Nonnull IAS4OutboundMessage aMessage, @Nonnull byte [] aPayload) throws Exception;
+}
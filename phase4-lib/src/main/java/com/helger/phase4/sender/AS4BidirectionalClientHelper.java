@@ -38,6 +38,7 @@ import com.helger.phase4.attachment.WSS4JAttachment;
 import com.helger.phase4.client.AS4ClientPullRequestMessage;
 import com.helger.phase4.client.AS4ClientSentMessage;
 import com.helger.phase4.client.AS4ClientUserMessage;
+import com.helger.phase4.client.AS4ParsingResponseHandler;
 import com.helger.phase4.client.IAS4ClientBuildMessageCallback;
 import com.helger.phase4.client.IAS4RawResponseConsumer;
 import com.helger.phase4.client.IAS4RetryCallback;
@@ -59,6 +60,8 @@ import com.helger.phase4.util.Phase4Exception;
 
 /**
  * Helper class to send and AS4 message and handle an incoming AS4 response.
+ * Unless a raw response consumer is provided, the response is parsed directly
+ * from the HTTP response stream.
  *
  * @author Philip Helger
  */
@@ -119,50 +122,85 @@ public final class AS4BidirectionalClientHelper
       }
     }
 
-    final Wrapper <HttpResponse> aWrappedResponse = new Wrapper <> ();
-    final ResponseHandler <byte []> aResponseHdl = aHttpResponse -> {
-      // throws an ExtendedHttpResponseException on exception
-      final HttpEntity aEntity = ResponseHandlerHttpEntity.INSTANCE.handleResponse (aHttpResponse);
-      if (aEntity == null)
-        return null;
-      aWrappedResponse.set (aHttpResponse);
-      return EntityUtils.toByteArray (aEntity);
-    };
-
-    final AS4ClientSentMessage <byte []> aResponseEntity = aClientUserMsg.sendMessageWithRetries (sURL,
-                                                                                                  aResponseHdl,
-                                                                                                  aBuildMessageCallback,
-                                                                                                  aOutgoingDumper,
-                                                                                                  aRetryCallback);
-    if (LOGGER.isInfoEnabled ())
-      LOGGER.info ("Successfully transmitted AS4 UserMessage with message ID '" + aResponseEntity.getMessageID () + "' to '" + sURL + "'");
-
     if (aResponseConsumer != null)
+    {
+      // The raw response consumer requires the complete response
+      final Wrapper <HttpResponse> aWrappedResponse = new Wrapper <> ();
+      final ResponseHandler <byte []> aResponseHdl = aHttpResponse -> {
+        // throws an ExtendedHttpResponseException on exception
+        final HttpEntity aEntity = ResponseHandlerHttpEntity.INSTANCE.handleResponse (aHttpResponse);
+        if (aEntity == null)
+          return null;
+        aWrappedResponse.set (aHttpResponse);
+        return EntityUtils.toByteArray (aEntity);
+      };
+
+      final AS4ClientSentMessage <byte []> aResponseEntity = aClientUserMsg.sendMessageWithRetries (sURL,
+                                                                                                    aResponseHdl,
+                                                                                                    aBuildMessageCallback,
+                                                                                                    aOutgoingDumper,
+                                                                                                    aRetryCallback);
+      if (LOGGER.isInfoEnabled ())
+        LOGGER.info ("Successfully transmitted AS4 UserMessage with message ID '" + aResponseEntity.getMessageID () + "' to '" + sURL + "'");
+
       aResponseConsumer.handleResponse (aResponseEntity);
 
-    // Try interpret result as SignalMessage
-    if (aResponseEntity.hasResponse () && aResponseEntity.getResponse ().length > 0)
-    {
-      final IAS4IncomingMessageMetadata aMessageMetadata = new AS4IncomingMessageMetadata (EAS4MessageMode.RESPONSE).setRemoteAddr (sURL);
-
-      // Read response as EBMS3 Signal Message
-      // Read it in any case to ensure signature validation etc. happens
-      final Ebms3SignalMessage aSignalMessage = AS4IncomingHandler.parseSignalMessage (aCryptoFactory,
-                                                                                       aPModeResolver,
-                                                                                       aIAF,
-                                                                                       aIncomingProfileSelector,
-                                                                                       aClientUserMsg.getAS4ResourceHelper (),
-                                                                                       aClientUserMsg.getPMode (),
-                                                                                       aLocale,
-                                                                                       aMessageMetadata,
-                                                                                       aWrappedResponse.get (),
-                                                                                       aResponseEntity.getResponse (),
-                                                                                       aIncomingDumper);
-      if (aSignalMessage != null && aSignalMsgConsumer != null)
-        aSignalMsgConsumer.handleSignalMessage (aSignalMessage);
+      // Try interpret result as SignalMessage
+      if (aResponseEntity.hasResponse () && aResponseEntity.getResponse ().length > 0)
+      {
+        final IAS4IncomingMessageMetadata aMessageMetadata = new AS4IncomingMessageMetadata (EAS4MessageMode.RESPONSE).setRemoteAddr (sURL);
+
+        // Read response as EBMS3 Signal Message
+        // Read it in any case to ensure signature validation etc. happens
+        final Ebms3SignalMessage aSignalMessage = AS4IncomingHandler.parseSignalMessage (aCryptoFactory,
+                                                                                         aPModeResolver,
+                                                                                         aIAF,
+                                                                                         aIncomingProfileSelector,
+                                                                                         aClientUserMsg.getAS4ResourceHelper (),
+                                                                                         aClientUserMsg.getPMode (),
+                                                                                         aLocale,
+                                                                                         aMessageMetadata,
+                                                                                         aWrappedResponse.get (),
+                                                                                         aResponseEntity.getResponse (),
+                                                                                         aIncomingDumper);
+        if (aSignalMessage != null && aSignalMsgConsumer != null)
+          aSignalMsgConsumer.handleSignalMessage (aSignalMessage);
+      }
+      else
+        LOGGER.info ("AS4 ResponseEntity is empty");
     }
     else
-      LOGGER.info ("AS4 ResponseEntity is empty");
+    {
+      // Parse the signal message directly from the response stream
+      final AS4ParsingResponseHandler <Ebms3SignalMessage> aResponseHdl = new AS4ParsingResponseHandler <> ( (aHttpResponse,
+                                                                                                              aResponseIS) -> AS4IncomingHandler.parseSignalMessage (aCryptoFactory,
+                                                                                                                                                                     aPModeResolver,
+                                                                                                                                                                     aIAF,
+                                                                                                                                                                     aIncomingProfileSelector,
+                                                                                                                                                                     aClientUserMsg.getAS4ResourceHelper (),
+                                                                                                                                                                     aClientUserMsg.getPMode (),
+                                                                                                                                                                     aLocale,
+                                                                                                                                                                     new AS4IncomingMessageMetadata (EAS4MessageMode.RESPONSE).setRemoteAddr (sURL),
+                                                                                                                                                                     aHttpResponse,
+                                                                                                                                                                     aResponseIS,
+                                                                                                                                                                     aIncomingDumper));
+      final AS4ClientSentMessage <Ebms3SignalMessage> aResponseEntity = aClientUserMsg.sendMessageWithRetries (sURL,
+                                                                                                               aResponseHdl,
+                                                                                                               aBuildMessageCallback,
+                                                                                                               aOutgoingDumper,
+                                                                                                               aRetryCallback);
+      if (LOGGER.isInfoEnabled ())
+        LOGGER.info ("Successfully transmitted AS4 UserMessage with message ID '" + aResponseEntity.getMessageID () + "' to '" + sURL + "'");
+
+      // Propagate errors from parsing
+      aResponseHdl.checkParseException ();
+
+      if (aResponseHdl.isResponseEmpty ())
+        LOGGER.info ("AS4 ResponseEntity is empty");
+      else
+        if (aResponseEntity.hasResponse () && aSignalMsgConsumer != null)
+          aSignalMsgConsumer.handleSignalMessage (aResponseEntity.getResponse ());
+    }
   }
 
   public static void sendAS4PullRequestAndReceiveAS4UserMessage (@Nonnull final IAS4CryptoFactory aCryptoFactory,
@@ -192,48 +230,83 @@ public final class AS4BidirectionalClientHelper
     if (LOGGER.isDebugEnabled ())
       LOGGER.debug ("  MPC = '" + aClientPullRequest.getMPC () + "'");
 
-    final Wrapper <HttpResponse> aWrappedResponse = new Wrapper <> ();
-    final ResponseHandler <byte []> aResponseHdl = aHttpResponse -> {
-      // May throw an ExtendedHttpResponseException
-      final HttpEntity aEntity = ResponseHandlerHttpEntity.INSTANCE.handleResponse (aHttpResponse);
-      if (aEntity == null)
-        return null;
-      aWrappedResponse.set (aHttpResponse);
-      return EntityUtils.toByteArray (aEntity);
-    };
-    final AS4ClientSentMessage <byte []> aResponseEntity = aClientPullRequest.sendMessageWithRetries (sURL,
-                                                                                                      aResponseHdl,
-                                                                                                      aBuildMessageCallback,
-                                                                                                      aOutgoingDumper,
-                                                                                                      aRetryCallback);
-    if (LOGGER.isInfoEnabled ())
-      LOGGER.info ("Successfully transmitted AS4 PullRequest with message ID '" + aResponseEntity.getMessageID () + "' to '" + sURL + "'");
-
     if (aResponseConsumer != null)
+    {
+      // The raw response consumer requires the complete response
+      final Wrapper <HttpResponse> aWrappedResponse = new Wrapper <> ();
+      final ResponseHandler <byte []> aResponseHdl = aHttpResponse -> {
+        // May throw an ExtendedHttpResponseException
+        final HttpEntity aEntity = ResponseHandlerHttpEntity.INSTANCE.handleResponse (aHttpResponse);
+        if (aEntity == null)
+          return null;
+        aWrappedResponse.set (aHttpResponse);
+        return EntityUtils.toByteArray (aEntity);
+      };
+      final AS4ClientSentMessage <byte []> aResponseEntity = aClientPullRequest.sendMessageWithRetries (sURL,
+                                                                                                        aResponseHdl,
+                                                                                                        aBuildMessageCallback,
+                                                                                                        aOutgoingDumper,
+                                                                                                        aRetryCallback);
+      if (LOGGER.isInfoEnabled ())
+        LOGGER.info ("Successfully transmitted AS4 PullRequest with message ID '" + aResponseEntity.getMessageID () + "' to '" + sURL + "'");
+
       aResponseConsumer.handleResponse (aResponseEntity);
 
-    // Try interpret result as SignalMessage
-    if (aResponseEntity.hasResponse () && aResponseEntity.getResponse ().length > 0)
-    {
-      final IAS4IncomingMessageMetadata aMessageMetadata = new AS4IncomingMessageMetadata (EAS4MessageMode.RESPONSE).setRemoteAddr (sURL);
-
-      // Read response as EBMS3 User Message
-      // Read it in any case to ensure signature validation etc. happens
-      final Ebms3UserMessage aUserMessage = AS4IncomingHandler.parseUserMessage (aCryptoFactory,
-                                                                                 aPModeResolver,
-                                                                                 aIAF,
-                                                                                 aIncomingProfileSelector,
-                                                                                 aClientPullRequest.getAS4ResourceHelper (),
-                                                                                 null,
-                                                                                 aLocale,
-                                                                                 aMessageMetadata,
-                                                                                 aWrappedResponse.get (),
-                                                                                 aResponseEntity.getResponse (),
-                                                                                 aIncomingDumper);
-      if (aUserMessage != null && aUserMsgConsumer != null)
-        aUserMsgConsumer.handleUserMessage (aUserMessage);
+      // Try interpret result as SignalMessage
+      if (aResponseEntity.hasResponse () && aResponseEntity.getResponse ().length > 0)
+      {
+        final IAS4IncomingMessageMetadata aMessageMetadata = new AS4IncomingMessageMetadata (EAS4MessageMode.RESPONSE).setRemoteAddr (sURL);
+
+        // Read response as EBMS3 User Message
+        // Read it in any case to ensure signature validation etc. happens
+        final Ebms3UserMessage aUserMessage = AS4IncomingHandler.parseUserMessage (aCryptoFactory,
+                                                                                   aPModeResolver,
+                                                                                   aIAF,
+                                                                                   aIncomingProfileSelector,
+                                                                                   aClientPullRequest.getAS4ResourceHelper (),
+                                                                                   null,
+                                                                                   aLocale,
+                                                                                   aMessageMetadata,
+                                                                                   aWrappedResponse.get (),
+                                                                                   aResponseEntity.getResponse (),
+                                                                                   aIncomingDumper);
+        if (aUserMessage != null && aUserMsgConsumer != null)
+          aUserMsgConsumer.handleUserMessage (aUserMessage);
+      }
+      else
+        LOGGER.info ("AS4 ResponseEntity is empty");
     }
     else
-      LOGGER.info ("AS4 ResponseEntity is empty");
+    {
+      // Parse the user message directly from the response stream
+      final AS4ParsingResponseHandler <Ebms3UserMessage> aResponseHdl = new AS4ParsingResponseHandler <> ( (aHttpResponse,
+                                                                                                            aResponseIS) -> AS4IncomingHandler.parseUserMessage (aCryptoFactory,
+                                                                                                                                                                 aPModeResolver,
+                                                                                                                                                                 aIAF,
+                                                                                                                                                                 aIncomingProfileSelector,
+                                                                                                                                                                 aClientPullRequest.getAS4ResourceHelper (),
+                                                                                                                                                                 null,
+                                                                                                                                                                 aLocale,
+                                                                                                                                                                 new AS4IncomingMessageMetadata (EAS4MessageMode.RESPONSE).setRemoteAddr (sURL),
+                                                                                                                                                                 aHttpResponse,
+                                                                                                                                                                 aResponseIS,
+                                                                                                                                                                 aIncomingDumper));
+      final AS4ClientSentMessage <Ebms3UserMessage> aResponseEntity = aClientPullRequest.sendMessageWithRetries (sURL,
+                                                                                                                 aResponseHdl,
+                                                                                                                 aBuildMessageCallback,
+                                                                                                                 aOutgoingDumper,
+                                                                                                                 aRetryCallback);
+      if (LOGGER.isInfoEnabled ())
+        LOGGER.info ("Successfully transmitted AS4 PullRequest with message ID '" + aResponseEntity.getMessageID () + "' to '" + sURL + "'");
+
+      // Propagate errors from parsing
+      aResponseHdl.checkParseException ();
+
+      if (aResponseHdl.isResponseEmpty ())
+        LOGGER.info ("AS4 ResponseEntity is empty");
+      else
+        if (aResponseEntity.hasResponse () && aUserMsgConsumer != null)
+          aUserMsgConsumer.handleUserMessage (aResponseEntity.getResponse ());
+    }
   }
 }
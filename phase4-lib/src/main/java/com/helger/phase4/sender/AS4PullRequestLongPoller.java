@@ -0,0 +1,306 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.sender;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.client.IAS4UserMessageConsumer;
+import com.helger.phase4.util.Phase4Exception;
+
+/**
+ * Keeps a long polling pull request open for a single MPC of a single
+ * endpoint. Each pull request waits on the server side until a message is
+ * available (see {@link AbstractAS4PullRequestBuilder#pullWait(Duration)}).
+ * After a message was received, the next pull request is sent immediately.
+ * Only one poller per endpoint URL and MPC may be active at a time.<br>
+ * Create instances via
+ * {@link AbstractAS4PullRequestBuilder#startLongPolling()}.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@ThreadSafe
+public final class AS4PullRequestLongPoller implements AutoCloseable
+{
+  /**
+   * The default minimum interval between two pull requests that returned no
+   * message. This avoids flooding servers that don't support long polling.
+   */
+  public static final Duration DEFAULT_MIN_POLL_INTERVAL = Duration.ofSeconds (1);
+  /** The default duration to wait after a failed pull request */
+  public static final Duration DEFAULT_ERROR_BACKOFF = Duration.ofSeconds (10);
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4PullRequestLongPoller.class);
+  private static final ThreadFactory THREAD_FACTORY = new BasicThreadFactory.Builder ().namingPattern ("phase4-longpoll-%d")
+                                                                                       .daemon (true)
+                                                                                       .build ();
+
+  private static final SimpleLock LOCK = new SimpleLock ();
+  @GuardedBy ("LOCK")
+  private static final ICommonsMap <String, AS4PullRequestLongPoller> ACTIVE = new CommonsHashMap <> ();
+
+  private final String m_sKey;
+  private final AbstractAS4PullRequestBuilder <?> m_aBuilder;
+  private final Duration m_aMinPollInterval;
+  private final Duration m_aErrorBackoff;
+  private final AtomicBoolean m_aReceived = new AtomicBoolean (false);
+  private final AtomicLong m_aPollCount = new AtomicLong ();
+  private final AtomicLong m_aMessageCount = new AtomicLong ();
+  private final AtomicLong m_aErrorCount = new AtomicLong ();
+  private final Thread m_aThread;
+  private volatile boolean m_bActive = true;
+
+  private AS4PullRequestLongPoller (@Nonnull @Nonempty final String sKey,
+                                    @Nonnull final AbstractAS4PullRequestBuilder <?> aBuilder,
+                                    @Nonnull final Duration aMinPollInterval,
+                                    @Nonnull final Duration aErrorBackoff)
+  {
+    m_sKey = sKey;
+    m_aBuilder = aBuilder;
+    m_aMinPollInterval = aMinPollInterval;
+    m_aErrorBackoff = aErrorBackoff;
+
+    // Remember if the pull request returned a message
+    final IAS4UserMessageConsumer aOriginalConsumer = aBuilder.m_aUserMsgConsumer;
+    aBuilder.userMsgConsumer (aUserMsg -> {
+      m_aReceived.set (true);
+      if (aOriginalConsumer != null)
+        aOriginalConsumer.handleUserMessage (aUserMsg);
+    });
+    m_aThread = THREAD_FACTORY.newThread (this::_run);
+  }
+
+  @Nonnull
+  private static String _getKey (@Nullable final String sEndpointURL, @Nullable final String sMPC)
+  {
+    return sEndpointURL + "\n" + sMPC;
+  }
+
+  private boolean _sleep (@Nonnull final Duration aDuration)
+  {
+    try
+    {
+      TimeUnit.NANOSECONDS.sleep (aDuration.toNanos ());
+      return true;
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+      return false;
+    }
+  }
+
+  private void _run ()
+  {
+    final String sMPC = m_aBuilder.m_sMPC;
+    LOGGER.info ("Started long polling of MPC '" + sMPC + "' at '" + m_aBuilder.m_sEndpointURL + "'");
+    try
+    {
+      while (m_bActive)
+      {
+        final long nStartNanos = System.nanoTime ();
+        m_aReceived.set (false);
+        m_aPollCount.incrementAndGet ();
+
+        boolean bSuccess;
+        try
+        {
+          bSuccess = m_aBuilder.sendMessage ().isSuccess ();
+        }
+        catch (final Phase4Exception | RuntimeException ex)
+        {
+          // Also covers exceptions of the user message consumer
+          if (m_bActive)
+            LOGGER.warn ("Long polling pull request for MPC '" + sMPC + "' failed", ex);
+          bSuccess = false;
+        }
+
+        if (!m_bActive)
+          break;
+
+        if (!bSuccess)
+        {
+          m_aErrorCount.incrementAndGet ();
+          if (!_sleep (m_aErrorBackoff))
+            break;
+          continue;
+        }
+
+        if (m_aReceived.get ())
+        {
+          // Maybe more messages are waiting - poll again immediately
+          m_aMessageCount.incrementAndGet ();
+          continue;
+        }
+
+        // No message - don't poll too often
+        final Duration aRemaining = m_aMinPollInterval.minusNanos (System.nanoTime () - nStartNanos);
+        if (!aRemaining.isNegative () && !aRemaining.isZero ())
+          if (!_sleep (aRemaining))
+            break;
+      }
+    }
+    finally
+    {
+      // Make sure a terminated thread never stays registered
+      m_bActive = false;
+      LOCK.locked ( () -> ACTIVE.remove (m_sKey, this));
+    }
+    LOGGER.info ("Stopped long polling of MPC '" + sMPC + "' at '" + m_aBuilder.m_sEndpointURL + "'");
+  }
+
+  /**
+   * @return <code>true</code> if this poller was not yet closed.
+   */
+  public boolean isActive ()
+  {
+    return m_bActive;
+  }
+
+  /**
+   * @return The number of pull requests sent so far. Always &ge; 0.
+   */
+  @Nonnegative
+  public long getPollCount ()
+  {
+    return m_aPollCount.get ();
+  }
+
+  /**
+   * @return The number of pull requests that returned a message. Always
+   *         &ge; 0.
+   */
+  @Nonnegative
+  public long getMessageCount ()
+  {
+    return m_aMessageCount.get ();
+  }
+
+  /**
+   * @return The number of failed pull requests. Always &ge; 0.
+   */
+  @Nonnegative
+  public long getErrorCount ()
+  {
+    return m_aErrorCount.get ();
+  }
+
+  /**
+   * Stop polling. A currently open pull request is not aborted, but its result
+   * is still handled.
+   */
+  public void close ()
+  {
+    if (m_bActive)
+    {
+      m_bActive = false;
+      m_aThread.interrupt ();
+      LOCK.locked ( () -> ACTIVE.remove (m_sKey, this));
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("MPC", m_aBuilder.m_sMPC)
+                                       .append ("EndpointURL", m_aBuilder.m_sEndpointURL)
+                                       .append ("Active", m_bActive)
+                                       .append ("PollCount", m_aPollCount.get ())
+                                       .append ("MessageCount", m_aMessageCount.get ())
+                                       .append ("ErrorCount", m_aErrorCount.get ())
+                                       .getToString ();
+  }
+
+  /**
+   * Check if a long poller for the provided endpoint and MPC is active.
+   *
+   * @param sEndpointURL
+   *        The endpoint URL to check. May be <code>null</code>.
+   * @param sMPC
+   *        The MPC to check. May be <code>null</code>.
+   * @return <code>true</code> if a poller is active, <code>false</code> if
+   *         not.
+   */
+  public static boolean isPolling (@Nullable final String sEndpointURL, @Nullable final String sMPC)
+  {
+    return LOCK.lockedGet ( () -> ACTIVE.containsKey (_getKey (sEndpointURL, sMPC))).booleanValue ();
+  }
+
+  /**
+   * Start a new long poller. The builder must not be used elsewhere after this
+   * call.
+   *
+   * @param aBuilder
+   *        The builder with all required fields set. May not be
+   *        <code>null</code>.
+   * @param aMinPollInterval
+   *        The minimum interval between two pull requests that returned no
+   *        message. May not be <code>null</code>.
+   * @param aErrorBackoff
+   *        The duration to wait after a failed pull request. May not be
+   *        <code>null</code>.
+   * @return The started poller. Never <code>null</code>.
+   * @throws IllegalStateException
+   *         If a poller for the same endpoint URL and MPC is already active
+   */
+  @Nonnull
+  static AS4PullRequestLongPoller start (@Nonnull final AbstractAS4PullRequestBuilder <?> aBuilder,
+                                         @Nonnull final Duration aMinPollInterval,
+                                         @Nonnull final Duration aErrorBackoff)
+  {
+    ValueEnforcer.notNull (aBuilder, "Builder");
+    ValueEnforcer.notNull (aMinPollInterval, "MinPollInterval");
+    ValueEnforcer.notNull (aErrorBackoff, "ErrorBackoff");
+
+    final String sKey = _getKey (aBuilder.m_sEndpointURL, aBuilder.m_sMPC);
+    final AS4PullRequestLongPoller ret = LOCK.lockedGet ( () -> {
+      if (ACTIVE.containsKey (sKey))
+        return null;
+      final AS4PullRequestLongPoller aPoller = new AS4PullRequestLongPoller (sKey, aBuilder, aMinPollInterval, aErrorBackoff);
+      ACTIVE.put (sKey, aPoller);
+      return aPoller;
+    });
+    if (ret == null)
+      throw new IllegalStateException ("A long poller for MPC '" +
+                                       aBuilder.m_sMPC +
+                                       "' at '" +
+                                       aBuilder.m_sEndpointURL +
+                                       "' is already active");
+    ret.m_aThread.start ();
+    return ret;
+  }
+}
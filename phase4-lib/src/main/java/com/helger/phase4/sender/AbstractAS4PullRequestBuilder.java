@@ -16,6 +16,8 @@
  */
 package com.helger.phase4.sender;
 
+import java.time.Duration;
+
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.OverridingMethodsMustInvokeSuper;
@@ -24,6 +26,7 @@ import javax.annotation.concurrent.NotThreadSafe;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.helger.commons.ValueEnforcer;
 import com.helger.commons.string.StringHelper;
 import com.helger.phase4.client.AS4ClientPullRequestMessage;
 import com.helger.phase4.client.IAS4UserMessageConsumer;
@@ -47,6 +50,7 @@ public abstract class AbstractAS4PullRequestBuilder <IMPLTYPE extends AbstractAS
   protected String m_sMPC;
   protected String m_sEndpointURL;
   protected IAS4UserMessageConsumer m_aUserMsgConsumer;
+  protected Duration m_aPullWait;
 
   /**
    * Create a new builder, with the following fields already set:<br>
@@ -97,6 +101,27 @@ public abstract class AbstractAS4PullRequestBuilder <IMPLTYPE extends AbstractAS
     return thisAsT ();
   }
 
+  /**
+   * Set the optional duration the server should wait for a message, if none is
+   * available in the MPC (long polling). This requires a phase4 server with
+   * long polling enabled - other servers respond immediately. Make sure the
+   * socket timeout of the used HTTP client factory is longer than this
+   * duration.
+   *
+   * @param aPullWait
+   *        The wait duration. May be <code>null</code> to not wait.
+   * @return this for chaining
+   * @since 1.3.2
+   */
+  @Nonnull
+  public final IMPLTYPE pullWait (@Nullable final Duration aPullWait)
+  {
+    if (aPullWait != null)
+      ValueEnforcer.isFalse (aPullWait.isNegative (), "PullWait may not be negative");
+    m_aPullWait = aPullWait;
+    return thisAsT ();
+  }
+
   @Override
   @OverridingMethodsMustInvokeSuper
   public boolean isEveryRequiredFieldSet ()
@@ -150,6 +175,58 @@ public abstract class AbstractAS4PullRequestBuilder <IMPLTYPE extends AbstractAS
       aPullRequestMsg.setRefToMessageID (m_sRefToMessageID);
 
     aPullRequestMsg.setMPC (m_sMPC);
+    aPullRequestMsg.setPullWait (m_aPullWait);
+  }
+
+  /**
+   * Start a background thread that continuously sends pull requests with this
+   * builder, using {@link AS4PullRequestLongPoller#DEFAULT_MIN_POLL_INTERVAL}
+   * and {@link AS4PullRequestLongPoller#DEFAULT_ERROR_BACKOFF}. See
+   * {@link #startLongPolling(Duration, Duration)} for details.
+   *
+   * @return The started poller. Never <code>null</code>.
+   * @throws IllegalStateException
+   *         If MPC or endpoint URL are not set, or if a poller for the same
+   *         endpoint URL and MPC is already active
+   * @since 1.3.2
+   */
+  @Nonnull
+  public final AS4PullRequestLongPoller startLongPolling ()
+  {
+    return startLongPolling (AS4PullRequestLongPoller.DEFAULT_MIN_POLL_INTERVAL, AS4PullRequestLongPoller.DEFAULT_ERROR_BACKOFF);
+  }
+
+  /**
+   * Start a background thread that continuously sends pull requests with this
+   * builder, so that one pull request per endpoint URL and MPC is always open.
+   * Set {@link #pullWait(Duration)} so that the server holds each request
+   * until a message is available. Received messages are passed to the
+   * {@link #userMsgConsumer(IAS4UserMessageConsumer)}. The message ID must not
+   * be set, so that each pull request gets a new one. The builder must not be
+   * modified after this call. Close the returned poller to stop polling.
+   *
+   * @param aMinPollInterval
+   *        The minimum interval between two pull requests that returned no
+   *        message. May not be <code>null</code>.
+   * @param aErrorBackoff
+   *        The duration to wait after a failed pull request. May not be
+   *        <code>null</code>.
+   * @return The started poller. Never <code>null</code>.
+   * @throws IllegalStateException
+   *         If MPC or endpoint URL are not set, or if a poller for the same
+   *         endpoint URL and MPC is already active
+   * @since 1.3.2
+   */
+  @Nonnull
+  public final AS4PullRequestLongPoller startLongPolling (@Nonnull final Duration aMinPollInterval,
+                                                          @Nonnull final Duration aErrorBackoff)
+  {
+    if (StringHelper.hasText (m_sMessageID))
+      throw new IllegalStateException ("A fixed message ID cannot be used for long polling");
+    if (StringHelper.hasNoText (m_sMPC) || StringHelper.hasNoText (m_sEndpointURL))
+      throw new IllegalStateException ("MPC and endpoint URL must be set for long polling");
+
+    return AS4PullRequestLongPoller.start (this, aMinPollInterval, aErrorBackoff);
   }
 
   @Override
@@ -43,6 +43,7 @@ import com.helger.phase4.ebms3header.Ebms3SignalMessage;
 import com.helger.phase4.messaging.domain.MessageHelperMethods;
 import com.helger.phase4.model.MessageProperty;
 import com.helger.phase4.model.pmode.IPMode;
+import com.helger.phase4.reliability.IAS4OutboundMessageStore;
 import com.helger.phase4.util.Phase4Exception;
 
 /**
@@ -85,6 +86,7 @@ public abstract class AbstractAS4UserMessageBuilder <IMPLTYPE extends AbstractAS
   protected final ICommonsList <Phase4OutgoingAttachment> m_aAttachments = new CommonsArrayList <> ();
 
   protected IAS4SignalMessageConsumer m_aSignalMsgConsumer;
+  protected IAS4OutboundMessageStore m_aOutboundMessageStore;
 
   /**
    * Create a new builder, with the following fields already set:<br>
@@ -490,6 +492,37 @@ public abstract class AbstractAS4UserMessageBuilder <IMPLTYPE extends AbstractAS
     return thisAsT ();
   }
 
+  /**
+   * @return The outbound message store in which the message is tracked until
+   *         a Receipt is received. May be <code>null</code>.
+   * @since 1.3.2
+   */
+  @Nullable
+  public final IAS4OutboundMessageStore outboundMessageStore ()
+  {
+    return m_aOutboundMessageStore;
+  }
+
+  /**
+   * Set an optional outbound message store in which the message is tracked
+   * until a Receipt is received. If the message is not acknowledged by
+   * {@link #sendMessageAndCheckForReceipt()}, it is retransmitted according to
+   * the reception awareness settings of the P-Mode by an
+   * {@link com.helger.phase4.reliability.AS4OutboundMessageRetransmitter}
+   * operating on the same store.
+   *
+   * @param aOutboundMessageStore
+   *        The store to use. May be <code>null</code>.
+   * @return this for chaining
+   * @since 1.3.2
+   */
+  @Nonnull
+  public final IMPLTYPE outboundMessageStore (@Nullable final IAS4OutboundMessageStore aOutboundMessageStore)
+  {
+    m_aOutboundMessageStore = aOutboundMessageStore;
+    return thisAsT ();
+  }
+
   @Override
   @OverridingMethodsMustInvokeSuper
   public boolean isEveryRequiredFieldSet ()
@@ -605,6 +638,8 @@ public abstract class AbstractAS4UserMessageBuilder <IMPLTYPE extends AbstractAS
 
     for (final MessageProperty aItem : m_aMessageProperties)
       aUserMsg.ebms3Properties ().add (aItem.getAsEbms3Property ());
+
+    aUserMsg.setOutboundMessageStore (m_aOutboundMessageStore);
   }
 
   /**
@@ -697,6 +732,46 @@ public abstract class AbstractAS4UserMessageBuilder <IMPLTYPE extends AbstractAS
    */
   @Nonnull
   public final ESimpleUserMessageSendResult sendMessageAndCheckForReceipt (@Nullable final Consumer <? super Phase4Exception> aExceptionConsumer)
+  {
+    final String sOldMessageID = m_sMessageID;
+    if (m_aOutboundMessageStore != null && StringHelper.hasNoText (m_sMessageID))
+    {
+      // The message ID must be known to update the tracking status
+      m_sMessageID = MessageHelperMethods.createRandomMessageID ();
+    }
+    final String sMessageID = m_sMessageID;
+    try
+    {
+      final ESimpleUserMessageSendResult eResult = _sendMessageAndCheckForReceipt (aExceptionConsumer);
+      if (m_aOutboundMessageStore != null && m_aOutboundMessageStore.containsMessage (sMessageID))
+      {
+        switch (eResult)
+        {
+          case SUCCESS:
+            m_aOutboundMessageStore.onReceipt (sMessageID);
+            break;
+          case AS4_ERROR_MESSAGE_RECEIVED:
+            m_aOutboundMessageStore.onError (sMessageID);
+            break;
+          case INVALID_PARAMETERS:
+            // Never tracked
+            break;
+          default:
+            // Retransmission happens after the retry interval
+            m_aOutboundMessageStore.onFailedAttempt (sMessageID);
+            break;
+        }
+      }
+      return eResult;
+    }
+    finally
+    {
+      m_sMessageID = sOldMessageID;
+    }
+  }
+
+  @Nonnull
+  private ESimpleUserMessageSendResult _sendMessageAndCheckForReceipt (@Nullable final Consumer <? super Phase4Exception> aExceptionConsumer)
   {
     final IAS4SignalMessageConsumer aOld = m_aSignalMsgConsumer;
     try
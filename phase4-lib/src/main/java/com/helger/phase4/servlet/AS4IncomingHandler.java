@@ -16,6 +16,7 @@
  */
 package com.helger.phase4.servlet;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -29,6 +30,7 @@ import javax.annotation.WillClose;
 import javax.annotation.WillNotClose;
 import javax.mail.MessagingException;
 import javax.mail.internet.MimeBodyPart;
+import javax.mail.util.SharedFileInputStream;
 import javax.xml.namespace.QName;
 
 import org.apache.http.Header;
@@ -40,16 +42,19 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
+import com.helger.commons.CGlobal;
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.collection.CollectionHelper;
 import com.helger.commons.collection.impl.CommonsArrayList;
 import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.collection.impl.ICommonsOrderedMap;
+import com.helger.commons.equals.EqualsHelper;
 import com.helger.commons.error.IError;
 import com.helger.commons.error.list.ErrorList;
 import com.helger.commons.http.CHttpHeader;
 import com.helger.commons.http.HttpHeaderMap;
 import com.helger.commons.io.IHasInputStream;
+import com.helger.commons.io.file.FileHelper;
 import com.helger.commons.io.stream.HasInputStream;
 import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
 import com.helger.commons.mime.IMimeType;
@@ -103,6 +108,8 @@ import com.helger.xml.serialize.read.DOMReader;
 public class AS4IncomingHandler
 {
   private static final Logger LOGGER = LoggerFactory.getLogger (AS4IncomingHandler.class);
+  /** MIME attachment parts up to this size are kept in memory */
+  private static final int MIME_PART_MEMORY_THRESHOLD = 64 * CGlobal.BYTES_PER_KILOBYTE;
 
   private AS4IncomingHandler ()
   {}
@@ -140,6 +147,52 @@ public class AS4IncomingHandler
                                                                                Phase4Exception;
   }
 
+  /**
+   * Read a MIME attachment part. Small parts are kept in memory, larger parts
+   * are spooled to a temporary file through a bounded buffer, so that the
+   * memory consumption does not depend on the attachment size.
+   *
+   * @param aBodyPartIS
+   *        The stream of the MIME part including its headers. May not be
+   *        <code>null</code>.
+   * @param aResHelper
+   *        The resource helper that owns the temporary file. May not be
+   *        <code>null</code>.
+   * @return The read body part. Never <code>null</code>.
+   */
+  @Nonnull
+  private static MimeBodyPart _readAttachmentBodyPart (@Nonnull @WillNotClose final InputStream aBodyPartIS,
+                                                       @Nonnull @WillNotClose final AS4ResourceHelper aResHelper) throws IOException,
+                                                                                                                  MessagingException
+  {
+    final byte [] aBuffer = new byte [MIME_PART_MEMORY_THRESHOLD];
+    int nLen = 0;
+    int nRead;
+    while (nLen < aBuffer.length && (nRead = aBodyPartIS.read (aBuffer, nLen, aBuffer.length - nLen)) >= 0)
+      nLen += nRead;
+    if (nLen < aBuffer.length)
+    {
+      // Small part
+      return new MimeBodyPart (new NonBlockingByteArrayInputStream (aBuffer, 0, nLen));
+    }
+
+    final File aTempFile = aResHelper.createTempFile ();
+    try (final OutputStream aOS = FileHelper.getBufferedOutputStream (aTempFile))
+    {
+      if (aOS == null)
+        throw new IOException ("Failed to open temporary file " + aTempFile.getAbsolutePath ());
+      aOS.write (aBuffer, 0, nLen);
+      while ((nRead = aBodyPartIS.read (aBuffer)) >= 0)
+        aOS.write (aBuffer, 0, nRead);
+    }
+
+    // The content of a MimeBodyPart created from a SharedInputStream is not
+    // copied into memory
+    final SharedFileInputStream aSFIS = new SharedFileInputStream (aTempFile);
+    aResHelper.addCloseable (aSFIS);
+    return new MimeBodyPart (aSFIS);
+  }
+
   public static void parseAS4Message (@Nonnull final IAS4IncomingAttachmentFactory aIAF,
                                       @Nonnull @WillNotClose final AS4ResourceHelper aResHelper,
                                       @Nonnull final IAS4IncomingMessageMetadata aMessageMetadata,
@@ -211,7 +264,8 @@ public class AS4IncomingHandler
           try (final MultipartItemInputStream aBodyPartIS = aMulti.createInputStream ())
           {
             // Read headers AND content
-            final MimeBodyPart aBodyPart = new MimeBodyPart (aBodyPartIS);
+            // The SOAP part is read into a DOM anyway
+            final MimeBodyPart aBodyPart = nIndex == 0 ? new MimeBodyPart (aBodyPartIS) : _readAttachmentBodyPart (aBodyPartIS, aResHelper);
 
             if (nIndex == 0)
             {
@@ -403,7 +457,12 @@ public class AS4IncomingHandler
           {
             final EEbmsError ePredefinedError = EEbmsError.getFromErrorCodeOrNull (aError.getErrorID ());
             if (ePredefinedError != null)
-              aErrorMessages.add (ePredefinedError.getAsEbms3Error (aLocale, sRefToMessageID));
+            {
+              // Keep a specific error text as the description
+              final String sErrorText = aError.getErrorText (aLocale);
+              final boolean bIsDefaultText = EqualsHelper.equals (sErrorText, ePredefinedError.getAsError (aLocale).getErrorText (aLocale));
+              aErrorMessages.add (ePredefinedError.getAsEbms3Error (aLocale, sRefToMessageID, bIsDefaultText ? null : sErrorText));
+            }
             else
             {
               final Ebms3Error aEbms3Error = new Ebms3Error ();
@@ -687,7 +746,7 @@ public class AS4IncomingHandler
                                                  @Nonnull final Locale aLocale,
                                                  @Nonnull final IAS4IncomingMessageMetadata aMessageMetadata,
                                                  @Nonnull final HttpResponse aHttpResponse,
-                                                 @Nonnull final byte [] aResponsePayload,
+                                                 @Nonnull @WillClose final InputStream aResponseIS,
                                                  @Nullable final IAS4IncomingDumper aIncomingDumper) throws Phase4Exception
   {
     // This wrapper will take the result
@@ -730,10 +789,10 @@ public class AS4IncomingHandler
     for (final Header aHeader : aHttpResponse.getAllHeaders ())
       aHttpHeaders.addHeader (aHeader.getName (), aHeader.getValue ());
 
-    try (final NonBlockingByteArrayInputStream aPayloadIS = new NonBlockingByteArrayInputStream (aResponsePayload))
+    try (final InputStream aIS = aResponseIS)
     {
       // Parse incoming message
-      parseAS4Message (aIAF, aResHelper, aMessageMetadata, aPayloadIS, aHttpHeaders, aCallback, aIncomingDumper);
+      parseAS4Message (aIAF, aResHelper, aMessageMetadata, aIS, aHttpHeaders, aCallback, aIncomingDumper);
     }
     catch (final Phase4Exception ex)
     {
@@ -760,6 +819,67 @@ public class AS4IncomingHandler
                                                        @Nonnull final HttpResponse aHttpResponse,
                                                        @Nonnull final byte [] aResponsePayload,
                                                        @Nullable final IAS4IncomingDumper aIncomingDumper) throws Phase4Exception
+  {
+    return parseSignalMessage (aCryptoFactory,
+                               aPModeResolver,
+                               aIAF,
+                               aAS4ProfileSelector,
+                               aResHelper,
+                               aSendingPMode,
+                               aLocale,
+                               aMessageMetadata,
+                               aHttpResponse,
+                               new NonBlockingByteArrayInputStream (aResponsePayload),
+                               aIncomingDumper);
+  }
+
+  /**
+   * Parse the provided response stream as an AS4 Signal Message. The stream is
+   * read only once, so that no copy of the response is kept in memory.
+   *
+   * @param aCryptoFactory
+   *        Crypto factory for signature verification and decryption. May not
+   *        be <code>null</code>.
+   * @param aPModeResolver
+   *        P-Mode resolver to use. May not be <code>null</code>.
+   * @param aIAF
+   *        Incoming attachment factory. May not be <code>null</code>.
+   * @param aAS4ProfileSelector
+   *        Profile selector to use. May not be <code>null</code>.
+   * @param aResHelper
+   *        Resource helper that keeps track of temporary files. May not be
+   *        <code>null</code>.
+   * @param aSendingPMode
+   *        The P-Mode used for sending. May be <code>null</code>.
+   * @param aLocale
+   *        Locale for error messages. May not be <code>null</code>.
+   * @param aMessageMetadata
+   *        Metadata of the response. May not be <code>null</code>.
+   * @param aHttpResponse
+   *        The HTTP response to take the headers from. May not be
+   *        <code>null</code>.
+   * @param aResponseIS
+   *        The response payload stream. Is closed by this method. May not be
+   *        <code>null</code>.
+   * @param aIncomingDumper
+   *        The incoming dumper to use. May be <code>null</code>.
+   * @return The parsed Ebms3SignalMessage Message or <code>null</code>.
+   * @throws Phase4Exception
+   *         In case of a parsing or processing error
+   * @since 1.3.2
+   */
+  @Nullable
+  public static Ebms3SignalMessage parseSignalMessage (@Nonnull final IAS4CryptoFactory aCryptoFactory,
+                                                       @Nonnull final IPModeResolver aPModeResolver,
+                                                       @Nonnull final IAS4IncomingAttachmentFactory aIAF,
+                                                       @Nonnull final IAS4IncomingProfileSelector aAS4ProfileSelector,
+                                                       @Nonnull @WillNotClose final AS4ResourceHelper aResHelper,
+                                                       @Nullable final IPMode aSendingPMode,
+                                                       @Nonnull final Locale aLocale,
+                                                       @Nonnull final IAS4IncomingMessageMetadata aMessageMetadata,
+                                                       @Nonnull final HttpResponse aHttpResponse,
+                                                       @Nonnull @WillClose final InputStream aResponseIS,
+                                                       @Nullable final IAS4IncomingDumper aIncomingDumper) throws Phase4Exception
   {
     final IAS4MessageState aState = _parseMessage (aCryptoFactory,
                                                    aPModeResolver,
@@ -770,7 +890,7 @@ public class AS4IncomingHandler
                                                    aLocale,
                                                    aMessageMetadata,
                                                    aHttpResponse,
-                                                   aResponsePayload,
+                                                   aResponseIS,
                                                    aIncomingDumper);
     if (aState == null)
     {
@@ -801,6 +921,67 @@ public class AS4IncomingHandler
                                                    @Nonnull final HttpResponse aHttpResponse,
                                                    @Nonnull final byte [] aResponsePayload,
                                                    @Nullable final IAS4IncomingDumper aIncomingDumper) throws Phase4Exception
+  {
+    return parseUserMessage (aCryptoFactory,
+                             aPModeResolver,
+                             aIAF,
+                             aAS4ProfileSelector,
+                             aResHelper,
+                             aSendingPMode,
+                             aLocale,
+                             aMessageMetadata,
+                             aHttpResponse,
+                             new NonBlockingByteArrayInputStream (aResponsePayload),
+                             aIncomingDumper);
+  }
+
+  /**
+   * Parse the provided response stream as an AS4 User Message. The stream is
+   * read only once, so that no copy of the response is kept in memory.
+   *
+   * @param aCryptoFactory
+   *        Crypto factory for signature verification and decryption. May not
+   *        be <code>null</code>.
+   * @param aPModeResolver
+   *        P-Mode resolver to use. May not be <code>null</code>.
+   * @param aIAF
+   *        Incoming attachment factory. May not be <code>null</code>.
+   * @param aAS4ProfileSelector
+   *        Profile selector to use. May not be <code>null</code>.
+   * @param aResHelper
+   *        Resource helper that keeps track of temporary files. May not be
+   *        <code>null</code>.
+   * @param aSendingPMode
+   *        The P-Mode used for sending. May be <code>null</code>.
+   * @param aLocale
+   *        Locale for error messages. May not be <code>null</code>.
+   * @param aMessageMetadata
+   *        Metadata of the response. May not be <code>null</code>.
+   * @param aHttpResponse
+   *        The HTTP response to take the headers from. May not be
+   *        <code>null</code>.
+   * @param aResponseIS
+   *        The response payload stream. Is closed by this method. May not be
+   *        <code>null</code>.
+   * @param aIncomingDumper
+   *        The incoming dumper to use. May be <code>null</code>.
+   * @return The parsed Ebms3UserMessage Message or <code>null</code>.
+   * @throws Phase4Exception
+   *         In case of a parsing or processing error
+   * @since 1.3.2
+   */
+  @Nullable
+  public static Ebms3UserMessage parseUserMessage (@Nonnull final IAS4CryptoFactory aCryptoFactory,
+                                                   @Nonnull final IPModeResolver aPModeResolver,
+                                                   @Nonnull final IAS4IncomingAttachmentFactory aIAF,
+                                                   @Nonnull final IAS4IncomingProfileSelector aAS4ProfileSelector,
+                                                   @Nonnull @WillNotClose final AS4ResourceHelper aResHelper,
+                                                   @Nullable final IPMode aSendingPMode,
+                                                   @Nonnull final Locale aLocale,
+                                                   @Nonnull final IAS4IncomingMessageMetadata aMessageMetadata,
+                                                   @Nonnull final HttpResponse aHttpResponse,
+                                                   @Nonnull @WillClose final InputStream aResponseIS,
+                                                   @Nullable final IAS4IncomingDumper aIncomingDumper) throws Phase4Exception
   {
     final IAS4MessageState aState = _parseMessage (aCryptoFactory,
                                                    aPModeResolver,
@@ -811,7 +992,7 @@ public class AS4IncomingHandler
                                                    aLocale,
                                                    aMessageMetadata,
                                                    aHttpResponse,
-                                                   aResponsePayload,
+                                                   aResponseIS,
                                                    aIncomingDumper);
     if (aState == null)
     {
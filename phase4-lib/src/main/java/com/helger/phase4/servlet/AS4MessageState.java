@@ -45,6 +45,7 @@ import com.helger.phase4.mgr.MetaAS4Manager;
 import com.helger.phase4.model.mpc.IMPC;
 import com.helger.phase4.model.pmode.IPMode;
 import com.helger.phase4.model.pmode.leg.PModeLeg;
+import com.helger.phase4.servlet.soap.Ebms3MessagingSummary;
 import com.helger.phase4.soap.ESoapVersion;
 import com.helger.phase4.util.AS4ResourceHelper;
 
@@ -62,6 +63,7 @@ public final class AS4MessageState extends AttributeContainerAny <String> implem
   private static final Logger LOGGER = LoggerFactory.getLogger (AS4MessageState.class);
 
   private static final String KEY_EBMS3_MESSAGING = "phase4.ebms3.messaging";
+  private static final String KEY_EBMS3_MESSAGING_SUMMARY = "phase4.ebms3.messaging.summary";
   private static final String KEY_PMODE = "phase4.pmode";
   private static final String KEY_MPC = "phase4.mpc";
   private static final String KEY_ORIGINAL_SOAP_DOCUMENT = "phase4.soap.document";
@@ -135,6 +137,24 @@ public final class AS4MessageState extends AttributeContainerAny <String> implem
     putIn (KEY_EBMS3_MESSAGING, aMessaging);
   }
 
+  @Nullable
+  public Ebms3MessagingSummary getMessagingSummary ()
+  {
+    return getCastedValue (KEY_EBMS3_MESSAGING_SUMMARY);
+  }
+
+  /**
+   * Set the early extracted summary of the Messaging header.
+   *
+   * @param aSummary
+   *        The summary to be set. May be <code>null</code>.
+   * @since 1.3.2
+   */
+  public void setMessagingSummary (@Nullable final Ebms3MessagingSummary aSummary)
+  {
+    putIn (KEY_EBMS3_MESSAGING_SUMMARY, aSummary);
+  }
+
   @Nullable
   public IPMode getPMode ()
   {
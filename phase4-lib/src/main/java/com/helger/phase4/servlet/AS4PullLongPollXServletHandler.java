@@ -0,0 +1,308 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.servlet;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.http.EHttpMethod;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.mime.MimeTypeParser;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.StringParser;
+import com.helger.http.EHttpVersion;
+import com.helger.phase4.CAS4;
+import com.helger.phase4.mgr.MetaAS4Manager;
+import com.helger.phase4.servlet.soap.Ebms3MessagingSummary;
+import com.helger.phase4.soap.ESoapVersion;
+import com.helger.servlet.io.AbstractServletInputStream;
+import com.helger.web.scope.IRequestWebScope;
+import com.helger.web.scope.mgr.WebScoped;
+import com.helger.xml.XMLHelper;
+import com.helger.xml.serialize.read.DOMReader;
+import com.helger.xservlet.handler.IXServletHandler;
+import com.helger.xservlet.handler.simple.IXServletSimpleHandler;
+import com.helger.xservlet.handler.simple.XServletHandlerToSimpleHandler;
+
+/**
+ * An {@link IXServletHandler} that supports long polling pull requests. A pull
+ * request that contains the HTTP header {@link CAS4#HTTP_HEADER_PULL_WAIT} is
+ * put into asynchronous mode. If the built-in MPC queue has no message for its
+ * MPC, the request is parked in the waiter list of the MPC without blocking a
+ * thread. It is processed as soon as a message is queued for the MPC, or when
+ * the wait duration passed. All other requests are handled synchronously.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+public class AS4PullLongPollXServletHandler implements IXServletHandler
+{
+  /**
+   * The additional time an asynchronous request may take in addition to the
+   * maximum long poll wait duration.
+   */
+  public static final Duration ASYNC_TIMEOUT_MARGIN = Duration.ofMinutes (1);
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4PullLongPollXServletHandler.class);
+
+  /**
+   * A request that returns the buffered payload as input stream.
+   *
+   * @author Philip Helger
+   */
+  private static final class BufferedRequest extends HttpServletRequestWrapper
+  {
+    private final byte [] m_aPayload;
+
+    BufferedRequest (@Nonnull final HttpServletRequest aRequest, @Nonnull final byte [] aPayload)
+    {
+      super (aRequest);
+      m_aPayload = aPayload;
+    }
+
+    @Override
+    public ServletInputStream getInputStream ()
+    {
+      final NonBlockingByteArrayInputStream aIS = new NonBlockingByteArrayInputStream (m_aPayload);
+      return new AbstractServletInputStream ()
+      {
+        @Override
+        public int read ()
+        {
+          return aIS.read ();
+        }
+
+        @Override
+        public int read (final byte [] aBuf, final int nOfs, final int nLen)
+        {
+          return aIS.read (aBuf, nOfs, nLen);
+        }
+
+        @Override
+        public boolean isFinished ()
+        {
+          return aIS.available () == 0;
+        }
+      };
+    }
+  }
+
+  private final IXServletHandler m_aNestedHandler;
+  private final Duration m_aMaxWait;
+
+  /**
+   * Constructor
+   *
+   * @param aHandler
+   *        The handler to process the requests. Usually an
+   *        {@link AS4XServletHandler}. May not be <code>null</code>.
+   * @param aMaxWait
+   *        The maximum duration a pull request waits for a message of the MPC
+   *        queue. May not be <code>null</code> and must be &gt; 0.
+   */
+  public AS4PullLongPollXServletHandler (@Nonnull final IXServletSimpleHandler aHandler, @Nonnull final Duration aMaxWait)
+  {
+    ValueEnforcer.notNull (aHandler, "Handler");
+    ValueEnforcer.notNull (aMaxWait, "MaxWait");
+    ValueEnforcer.isFalse (aMaxWait.isNegative () || aMaxWait.isZero (), "MaxWait must be > 0");
+    m_aNestedHandler = new XServletHandlerToSimpleHandler (aHandler);
+    m_aMaxWait = aMaxWait;
+  }
+
+  /**
+   * @return The maximum duration a pull request waits for a message of the MPC
+   *         queue. Never <code>null</code>.
+   */
+  @Nonnull
+  public final Duration getMaxWait ()
+  {
+    return m_aMaxWait;
+  }
+
+  @Override
+  public void onServletInit (@Nonnull final ICommonsMap <String, String> aInitParams) throws ServletException
+  {
+    m_aNestedHandler.onServletInit (aInitParams);
+  }
+
+  @Override
+  public void onServletDestroy ()
+  {
+    m_aNestedHandler.onServletDestroy ();
+  }
+
+  /**
+   * Get the duration a pull request should wait for a message, based on the
+   * HTTP header sent by the client and the configured maximum.
+   *
+   * @param sPullWait
+   *        The value of the HTTP header {@link CAS4#HTTP_HEADER_PULL_WAIT}.
+   *        May be <code>null</code>.
+   * @param aMaxWait
+   *        The maximum duration. May not be <code>null</code>.
+   * @return {@link Duration#ZERO} if the pull request should not wait.
+   */
+  @Nonnull
+  static Duration getPullWait (@Nullable final String sPullWait, @Nonnull final Duration aMaxWait)
+  {
+    final long nSeconds = StringParser.parseLong (StringHelper.trim (sPullWait), 0);
+    if (nSeconds <= 0)
+      return Duration.ZERO;
+
+    final Duration aRequested = Duration.ofSeconds (nSeconds);
+    return aRequested.compareTo (aMaxWait) < 0 ? aRequested : aMaxWait;
+  }
+
+  /**
+   * Get the MPC of a plain SOAP pull request. The payload is only parsed, but
+   * not validated - the full processing happens later.
+   *
+   * @param aPayload
+   *        The request payload. May not be <code>null</code>.
+   * @return <code>null</code> if the payload is not a plain SOAP pull request.
+   */
+  @Nullable
+  static String getPullRequestMPC (@Nonnull final byte [] aPayload)
+  {
+    final Document aDoc = DOMReader.readXMLDOM (aPayload);
+    if (aDoc == null)
+      return null;
+
+    final Element aEnvelope = aDoc.getDocumentElement ();
+    final ESoapVersion eSoapVersion = ESoapVersion.getFromNamespaceURIOrNull (aEnvelope.getNamespaceURI ());
+    if (eSoapVersion == null)
+      return null;
+
+    final Element aHeader = XMLHelper.getFirstChildElementOfName (aEnvelope,
+                                                                  eSoapVersion.getNamespaceURI (),
+                                                                  eSoapVersion.getHeaderElementName ());
+    final Element aMessaging = aHeader == null ? null : XMLHelper.getFirstChildElementOfName (aHeader, CAS4.EBMS_NS, "Messaging");
+    if (aMessaging == null)
+      return null;
+
+    final Ebms3MessagingSummary aSummary = Ebms3MessagingSummary.extract (aMessaging);
+    return aSummary.isPullRequest () ? aSummary.getMPC () : null;
+  }
+
+  @Override
+  public void onRequest (@Nonnull final HttpServletRequest aHttpRequest,
+                         @Nonnull final HttpServletResponse aHttpResponse,
+                         @Nonnull final EHttpVersion eHttpVersion,
+                         @Nonnull final EHttpMethod eHttpMethod,
+                         @Nonnull final IRequestWebScope aRequestScope) throws ServletException, IOException
+  {
+    final Duration aPullWait = getPullWait (aHttpRequest.getHeader (CAS4.HTTP_HEADER_PULL_WAIT), m_aMaxWait);
+    if (aPullWait.isZero () || !aHttpRequest.isAsyncSupported ())
+    {
+      // No long polling
+      m_aNestedHandler.onRequest (aHttpRequest, aHttpResponse, eHttpVersion, eHttpMethod, aRequestScope);
+      return;
+    }
+
+    // Pull requests are small - buffer them to find the MPC
+    final byte [] aPayload = StreamHelper.getAllBytes (aHttpRequest.getInputStream ());
+    if (aPayload == null)
+      throw new IOException ("Failed to read the request payload");
+    final HttpServletRequest aBufferedRequest = new BufferedRequest (aHttpRequest, aPayload);
+
+    final AsyncContext aAsyncCtx = aHttpRequest.startAsync (aBufferedRequest, aHttpResponse);
+    aAsyncCtx.setTimeout (aPullWait.plus (ASYNC_TIMEOUT_MARGIN).toMillis ());
+
+    final ICommonsMap <String, Object> aAttrs = aRequestScope.attrs ().getClone ();
+    // Make sure the request is either processed or timed out
+    final AtomicBoolean aHandled = new AtomicBoolean (false);
+    final Runnable aProcess = () -> {
+      if (!aHandled.compareAndSet (false, true))
+        return;
+
+      // Process on a container thread - never on the thread that queued a
+      // message
+      aAsyncCtx.start ( () -> {
+        try (final WebScoped aWebScoped = new WebScoped (aBufferedRequest, aHttpResponse))
+        {
+          aWebScoped.getRequestScope ().attrs ().putAllIn (aAttrs);
+          m_aNestedHandler.onRequest (aBufferedRequest, aHttpResponse, eHttpVersion, eHttpMethod, aWebScoped.getRequestScope ());
+        }
+        catch (final Exception ex)
+        {
+          LOGGER.error ("Failed to process long polling pull request", ex);
+        }
+        finally
+        {
+          aAsyncCtx.complete ();
+        }
+      });
+    };
+    aAsyncCtx.addListener (new AsyncListener ()
+    {
+      public void onTimeout (@Nonnull final AsyncEvent aEvent) throws IOException
+      {
+        if (aHandled.compareAndSet (false, true))
+        {
+          LOGGER.warn ("Long polling pull request timed out before it was processed");
+          aHttpResponse.sendError (HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+          aAsyncCtx.complete ();
+        }
+      }
+
+      public void onStartAsync (@Nonnull final AsyncEvent aEvent)
+      {}
+
+      public void onError (@Nonnull final AsyncEvent aEvent)
+      {}
+
+      public void onComplete (@Nonnull final AsyncEvent aEvent)
+      {}
+    });
+
+    // Only wait for configured MPCs
+    final boolean bIsSoap = ESoapVersion.getFromMimeTypeOrNull (MimeTypeParser.safeParseMimeType (aHttpRequest.getContentType ())) != null;
+    final String sMPCID = bIsSoap ? getPullRequestMPC (aPayload) : null;
+    if (sMPCID != null &&
+        MetaAS4Manager.getMPCMgr ().containsWithID (sMPCID) &&
+        MetaAS4Manager.getMPCQueueMgr ().awaitMessage (sMPCID, aPullWait, aProcess))
+    {
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Pull request waits up to " + aPullWait + " for a message of MPC '" + sMPCID + "'");
+    }
+    else
+    {
+      // A message is available or waiting is not possible
+      aProcess.run ();
+    }
+  }
+}
@@ -20,8 +20,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.Charset;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
 import java.util.Locale;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.Supplier;
 
 import javax.annotation.Nonnull;
@@ -43,7 +46,9 @@ import com.helger.commons.annotation.Nonempty;
 import com.helger.commons.callback.IThrowingRunnable;
 import com.helger.commons.collection.impl.CommonsArrayList;
 import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.datetime.XMLOffsetDateTime;
 import com.helger.commons.http.CHttp;
+import com.helger.commons.http.CHttpHeader;
 import com.helger.commons.http.HttpHeaderMap;
 import com.helger.commons.io.IHasInputStream;
 import com.helger.commons.io.stream.HasInputStream;
@@ -53,12 +58,15 @@ import com.helger.commons.mime.EMimeContentType;
 import com.helger.commons.mime.IMimeType;
 import com.helger.commons.state.ISuccessIndicator;
 import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.StringParser;
 import com.helger.httpclient.response.ResponseHandlerXml;
 import com.helger.phase4.CAS4;
 import com.helger.phase4.attachment.AS4DecompressException;
 import com.helger.phase4.attachment.IAS4IncomingAttachmentFactory;
+import com.helger.phase4.attachment.Phase4OutgoingAttachment;
 import com.helger.phase4.attachment.WSS4JAttachment;
 import com.helger.phase4.client.IAS4RetryCallback;
+import com.helger.phase4.config.AS4Configuration;
 import com.helger.phase4.crypto.AS4CryptParams;
 import com.helger.phase4.crypto.AS4SigningParams;
 import com.helger.phase4.crypto.IAS4CryptoFactory;
@@ -72,6 +80,7 @@ import com.helger.phase4.ebms3header.Ebms3MessageProperties;
 import com.helger.phase4.ebms3header.Ebms3PartyInfo;
 import com.helger.phase4.ebms3header.Ebms3PayloadInfo;
 import com.helger.phase4.ebms3header.Ebms3Property;
+import com.helger.phase4.ebms3header.Ebms3PullRequest;
 import com.helger.phase4.ebms3header.Ebms3SignalMessage;
 import com.helger.phase4.ebms3header.Ebms3UserMessage;
 import com.helger.phase4.error.EEbmsError;
@@ -80,12 +89,15 @@ import com.helger.phase4.http.BasicHttpPoster;
 import com.helger.phase4.http.HttpMimeMessageEntity;
 import com.helger.phase4.http.HttpRetrySettings;
 import com.helger.phase4.http.HttpXMLEntity;
+import com.helger.phase4.jfr.AS4IncomingRequestEvent;
+import com.helger.phase4.jfr.AS4JFR;
 import com.helger.phase4.messaging.EAS4MessageMode;
 import com.helger.phase4.messaging.IAS4IncomingMessageMetadata;
 import com.helger.phase4.messaging.crypto.AS4Encryptor;
 import com.helger.phase4.messaging.crypto.AS4Signer;
 import com.helger.phase4.messaging.domain.AS4ErrorMessage;
 import com.helger.phase4.messaging.domain.AS4ReceiptMessage;
+import com.helger.phase4.messaging.domain.AS4ReceiptTemplate;
 import com.helger.phase4.messaging.domain.AS4UserMessage;
 import com.helger.phase4.messaging.domain.EAS4MessageType;
 import com.helger.phase4.messaging.domain.MessageHelperMethods;
@@ -95,10 +107,22 @@ import com.helger.phase4.mgr.MetaAS4Manager;
 import com.helger.phase4.model.EMEPBinding;
 import com.helger.phase4.model.MEPHelper;
 import com.helger.phase4.model.pmode.IPMode;
+import com.helger.phase4.model.pmode.PModeReceptionAwareness;
 import com.helger.phase4.model.pmode.leg.EPModeSendReceiptReplyPattern;
 import com.helger.phase4.model.pmode.leg.PModeLeg;
 import com.helger.phase4.model.pmode.resolve.IPModeResolver;
+import com.helger.phase4.mpcqueue.AS4MPCQueueLease;
+import com.helger.phase4.mpcqueue.AS4MPCQueueMessage;
+import com.helger.phase4.mpcqueue.IAS4MPCQueueManager;
+import com.helger.phase4.outbound.AS4OutboundQueueItem;
+import com.helger.phase4.outbound.AS4OutboundQueueScheduler;
+import com.helger.phase4.reliability.AS4OutboundMessage;
+import com.helger.phase4.reliability.AS4OutboundMessageStoreRegistry;
+import com.helger.phase4.reliability.IAS4OutboundMessage;
+import com.helger.phase4.reliability.IAS4OutboundMessageStore;
 import com.helger.phase4.servlet.AS4IncomingHandler.IAS4ParsedMessageCallback;
+import com.helger.phase4.servlet.async.AS4AsyncExecutorPhotonWorkerPool;
+import com.helger.phase4.servlet.async.IAS4AsyncExecutor;
 import com.helger.phase4.servlet.mgr.AS4ServletMessageProcessorManager;
 import com.helger.phase4.servlet.soap.SOAPHeaderElementProcessorRegistry;
 import com.helger.phase4.servlet.spi.AS4MessageProcessorResult;
@@ -108,7 +132,6 @@ import com.helger.phase4.soap.ESoapVersion;
 import com.helger.phase4.util.AS4ResourceHelper;
 import com.helger.phase4.util.AS4XMLHelper;
 import com.helger.phase4.util.Phase4Exception;
-import com.helger.photon.app.PhotonWorkerPool;
 import com.helger.web.scope.IRequestWebScopeWithoutResponse;
 import com.helger.xml.serialize.write.XMLWriter;
 
@@ -359,6 +382,9 @@ public class AS4RequestHandler implements AutoCloseable
   private IAS4OutgoingDumper m_aOutgoingDumper;
   private IAS4RetryCallback m_aRetryCallback;
   private ISoapProcessingFinalizedCallback m_aSoapProcessingFinalizedCB;
+  private IAS4AsyncExecutor m_aAsyncExecutor = AS4AsyncExecutorPhotonWorkerPool.INSTANCE;
+  private AS4OutboundQueueScheduler m_aOutboundQueueScheduler;
+  private Duration m_aMPCQueueVisibilityTimeout = IAS4MPCQueueManager.DEFAULT_VISIBILITY_TIMEOUT;
 
   /** By default get all message processors from the global SPI registry */
   private Supplier <? extends ICommonsList <IAS4ServletMessageProcessorSPI>> m_aProcessorSupplier = AS4ServletMessageProcessorManager::getAllProcessors;
@@ -600,6 +626,116 @@ public class AS4RequestHandler implements AutoCloseable
     return this;
   }
 
+  /**
+   * @return The executor used for asynchronous SPI processing. Never
+   *         <code>null</code>. Defaults to
+   *         {@link AS4AsyncExecutorPhotonWorkerPool#INSTANCE}.
+   * @since 1.3.2
+   */
+  @Nonnull
+  public final IAS4AsyncExecutor getAsyncExecutor ()
+  {
+    return m_aAsyncExecutor;
+  }
+
+  /**
+   * Set the executor to be used for asynchronous SPI processing. If the
+   * executor rejects a task, an EBMS error is returned to the sender instead.
+   *
+   * @param aAsyncExecutor
+   *        The executor to be used. May not be <code>null</code>.
+   * @return this for chaining
+   * @since 1.3.2
+   */
+  @Nonnull
+  public final AS4RequestHandler setAsyncExecutor (@Nonnull final IAS4AsyncExecutor aAsyncExecutor)
+  {
+    ValueEnforcer.notNull (aAsyncExecutor, "AsyncExecutor");
+    m_aAsyncExecutor = aAsyncExecutor;
+    return this;
+  }
+
+  /**
+   * @return The outbound queue scheduler used to send asynchronous responses.
+   *         May be <code>null</code>.
+   * @since 1.3.2
+   */
+  @Nullable
+  public final AS4OutboundQueueScheduler getOutboundQueueScheduler ()
+  {
+    return m_aOutboundQueueScheduler;
+  }
+
+  /**
+   * Set the outbound queue scheduler to be used to send asynchronous
+   * responses. If it is set, responses are persisted in its queue and sent
+   * from there, so that they are not lost in case of a restart. If it is not
+   * set, asynchronous responses are sent directly from the asynchronous
+   * processing thread.
+   *
+   * @param aOutboundQueueScheduler
+   *        The scheduler to be used. May be <code>null</code>.
+   * @return this for chaining
+   * @since 1.3.2
+   */
+  @Nonnull
+  public final AS4RequestHandler setOutboundQueueScheduler (@Nullable final AS4OutboundQueueScheduler aOutboundQueueScheduler)
+  {
+    m_aOutboundQueueScheduler = aOutboundQueueScheduler;
+    return this;
+  }
+
+  /**
+   * @return The visibility timeout for messages that are returned from the MPC
+   *         queue on a pull request. Never <code>null</code>.
+   * @since 1.3.2
+   */
+  @Nonnull
+  public final Duration getMPCQueueVisibilityTimeout ()
+  {
+    return m_aMPCQueueVisibilityTimeout;
+  }
+
+  /**
+   * Set the visibility timeout for messages that are returned from the MPC
+   * queue on a pull request. If no receipt for the message was received within
+   * this duration, the message is returned again on a later pull request.
+   *
+   * @param aMPCQueueVisibilityTimeout
+   *        The timeout to use. May not be <code>null</code>.
+   * @return this for chaining
+   * @since 1.3.2
+   */
+  @Nonnull
+  public final AS4RequestHandler setMPCQueueVisibilityTimeout (@Nonnull final Duration aMPCQueueVisibilityTimeout)
+  {
+    ValueEnforcer.notNull (aMPCQueueVisibilityTimeout, "MPCQueueVisibilityTimeout");
+    ValueEnforcer.isFalse (aMPCQueueVisibilityTimeout.isNegative (), "MPCQueueVisibilityTimeout may not be negative");
+    m_aMPCQueueVisibilityTimeout = aMPCQueueVisibilityTimeout;
+    return this;
+  }
+
+  /**
+   * Create the retry settings for sending asynchronous responses based on the
+   * reception awareness of the provided PMode.
+   *
+   * @param aPMode
+   *        The PMode to use. May be <code>null</code>.
+   * @return A new retry settings object and never <code>null</code>.
+   */
+  @Nonnull
+  private static HttpRetrySettings _createAsyncRetrySettings (@Nullable final IPMode aPMode)
+  {
+    final HttpRetrySettings ret = new HttpRetrySettings ();
+    final PModeReceptionAwareness aRA = aPMode == null ? null : aPMode.getReceptionAwareness ();
+    if (aRA != null && aRA.isRetryDefined ())
+    {
+      ret.setMaxRetries (aRA.getMaxRetries ());
+      ret.setDurationBeforeRetry (Duration.ofMillis (aRA.getRetryIntervalMS ()));
+    }
+    return ret;
+  }
+
   /**
    * Invoke custom SPI message processors
    *
@@ -647,6 +783,31 @@ public class AS4RequestHandler implements AutoCloseable
     final String sMessageID = bIsUserMessage ? aEbmsUserMessage.getMessageInfo ().getMessageId ()
                                              : aEbmsSignalMessage.getMessageInfo ().getMessageId ();
 
+    if (!bIsUserMessage)
+    {
+      if (aEbmsSignalMessage.getReceipt () != null)
+      {
+        // Maybe the receipt for a message from the MPC queue - only the party
+        // that leased it may acknowledge it
+        final String sRefToMessageID = aEbmsSignalMessage.getMessageInfo ().getRefToMessageId ();
+        if (MetaAS4Manager.getMPCQueueMgr ().acknowledge (sRefToMessageID, _getPartyID (aState)).isChanged ())
+          LOGGER.info ("Received Receipt for pulled message '" + sRefToMessageID + "'");
+        // Maybe the asynchronous receipt for a pushed message
+        final IAS4OutboundMessageStore aStore = _getOutboundMessageStoreOfSignal (sRefToMessageID, aState);
+        if (aStore != null && aStore.onReceipt (sRefToMessageID).isChanged ())
+          LOGGER.info ("Received Receipt for tracked message '" + sRefToMessageID + "'");
+      }
+      else
+        if (aEbmsSignalMessage.hasErrorEntries ())
+        {
+          // Maybe the asynchronous error for a pushed message
+          final String sRefToMessageID = aEbmsSignalMessage.getMessageInfo ().getRefToMessageId ();
+          final IAS4OutboundMessageStore aStore = _getOutboundMessageStoreOfSignal (sRefToMessageID, aState);
+          if (aStore != null && aStore.onError (sRefToMessageID).isChanged ())
+            LOGGER.info ("Received Error for tracked message '" + sRefToMessageID + "'");
+        }
+    }
+
     // Get all processors
     final ICommonsList <IAS4ServletMessageProcessorSPI> aAllProcessors = m_aProcessorSupplier.get ();
 
@@ -795,22 +956,40 @@ public class AS4RequestHandler implements AutoCloseable
                 // Initial return user msg
                 if (aPullReturnUserMsg == null)
                 {
-                  // No message contained in the MPC
-                  final String sErrorMsg = "Invoked AS4 message processor SPI " +
-                                           aProcessor +
-                                           " on '" +
-                                           sMessageID +
-                                           "' returned a failure: no UserMessage contained in the MPC";
-                  LOGGER.warn (sErrorMsg);
-                  aErrorMessagesTarget.add (EEbmsError.EBMS_EMPTY_MESSAGE_PARTITION_CHANNEL.getAsEbms3Error (m_aLocale,
-                                                                                                             sMessageID,
-                                                                                                             sErrorMsg));
-                  // Stop processing
-                  return;
+                  // The SPI accepted the pull request but has no message of
+                  // its own - try the built-in MPC queue
+                  final Ebms3PullRequest aPullRequest = aEbmsSignalMessage.getPullRequest ();
+                  if (aPullRequest == null ||
+                      !_leaseFromMPCQueue (aPullRequest.getMpc (),
+                                           sMessageID,
+                                           _getPartyID (aState),
+                                           aErrorMessagesTarget,
+                                           aResponseAttachmentsTarget,
+                                           aSPIResult))
+                  {
+                    // No message contained in the MPC
+                    final String sErrorMsg = "Invoked AS4 message processor SPI " +
+                                             aProcessor +
+                                             " on '" +
+                                             sMessageID +
+                                             "' returned a failure: no UserMessage contained in the MPC";
+                    LOGGER.warn (sErrorMsg);
+                    aErrorMessagesTarget.add (EEbmsError.EBMS_EMPTY_MESSAGE_PARTITION_CHANNEL.getAsEbms3Error (m_aLocale,
+                                                                                                               sMessageID,
+                                                                                                               sErrorMsg));
+                  }
+
+                  if (aErrorMessagesTarget.isNotEmpty ())
+                  {
+                    // Stop processing
+                    return;
+                  }
+                }
+                else
+                {
+                  // We have something :)
+                  aSPIResult.setPullReturnUserMsg (aPullReturnUserMsg);
                 }
-
-                // We have something :)
-                aSPIResult.setPullReturnUserMsg (aPullReturnUserMsg);
               }
             }
             else
@@ -847,6 +1026,128 @@ public class AS4RequestHandler implements AutoCloseable
     aSPIResult.setSuccess (true);
   }
 
+  /**
+   * Get the ID of the party that sent the current message. This is based on
+   * the verified signing certificate.
+   *
+   * @param aState
+   *        The current state. May not be <code>null</code>.
+   * @return <code>null</code> if the message was not signed.
+   */
+  @Nullable
+  private static String _getPartyID (@Nonnull final IAS4MessageState aState)
+  {
+    if (!aState.isSoapSignatureChecked ())
+      return null;
+    final X509Certificate aCert = aState.getUsedCertificate ();
+    if (aCert == null)
+      return null;
+    return AS4OutboundMessage.getCertificateID (aCert);
+  }
+
+  /**
+   * Get the outbound message store that tracks the message an asynchronous
+   * Receipt or Error refers to. The signal must be signed by the receiver of
+   * the tracked message.
+   *
+   * @param sRefToMessageID
+   *        The referenced message ID of the signal. May be <code>null</code>.
+   * @param aState
+   *        The current message state. May not be <code>null</code>.
+   * @return <code>null</code> if the message is not tracked or if the signal
+   *         was not sent by the receiver of the message.
+   */
+  @Nullable
+  private static IAS4OutboundMessageStore _getOutboundMessageStoreOfSignal (@Nullable final String sRefToMessageID,
+                                                                            @Nonnull final IAS4MessageState aState)
+  {
+    final IAS4OutboundMessageStore aStore = AS4OutboundMessageStoreRegistry.getStoreOfMessage (sRefToMessageID);
+    if (aStore == null)
+      return null;
+
+    final String sSenderID = _getPartyID (aState);
+    if (sSenderID == null)
+    {
+      LOGGER.warn ("Ignoring unsigned signal for tracked message '" + sRefToMessageID + "'");
+      return null;
+    }
+
+    final IAS4OutboundMessage aMessage = aStore.getMessage (sRefToMessageID);
+    if (aMessage != null && aMessage.getReceiverID () != null && !aMessage.getReceiverID ().equals (sSenderID))
+    {
+      LOGGER.warn ("Ignoring signal for tracked message '" +
+                   sRefToMessageID +
+                   "' from '" +
+                   sSenderID +
+                   "' because it was sent to '" +
+                   aMessage.getReceiverID () +
+                   "'");
+      return null;
+    }
+    return aStore;
+  }
+
+  /**
+   * Try to lease the next message from the MPC queue for a pull request. This
+   * is only called after an SPI accepted the pull request without returning a
+   * message of its own.
+   *
+   * @param sMPCID
+   *        The MPC of the pull request. May be <code>null</code>.
+   * @param sMessageID
+   *        The message ID of the pull request. May not be <code>null</code>.
+   * @param sPartyID
+   *        The ID of the party that sent the pull request. Only this party may
+   *        acknowledge the leased message. May be <code>null</code>.
+   * @param aErrorMessagesTarget
+   *        The list of errors to be filled. May not be <code>null</code>.
+   * @param aResponseAttachmentsTarget
+   *        The list of response attachments to be filled. May not be
+   *        <code>null</code>.
+   * @param aSPIResult
+   *        The result object to be filled. May not be <code>null</code>.
+   * @return <code>true</code> if a message was leased, <code>false</code> if
+   *         the queue of the MPC is empty.
+   */
+  private boolean _leaseFromMPCQueue (@Nullable final String sMPCID,
+                                      @Nonnull final String sMessageID,
+                                      @Nullable final String sPartyID,
+                                      @Nonnull final ICommonsList <Ebms3Error> aErrorMessagesTarget,
+                                      @Nonnull final ICommonsList <WSS4JAttachment> aResponseAttachmentsTarget,
+                                      @Nonnull final SPIInvocationResult aSPIResult)
+  {
+    final IAS4MPCQueueManager aMPCQueueMgr = MetaAS4Manager.getMPCQueueMgr ();
+    final AS4MPCQueueLease aLease = aMPCQueueMgr.lease (sMPCID, sPartyID, m_aMPCQueueVisibilityTimeout);
+    if (aLease == null)
+      return false;
+
+    final AS4MPCQueueMessage aQueueMsg = aLease.getMessage ();
+    try
+    {
+      for (final Phase4OutgoingAttachment aAttachment : aQueueMsg.getAllAttachments ())
+        aResponseAttachmentsTarget.add (WSS4JAttachment.createOutgoingFileAttachment (aAttachment, m_aResHelper));
+    }
+    catch (final IOException ex)
+    {
+      // The message is delivered again after the visibility timeout
+      final String sErrorMsg = "Failed to create the attachments of queued message '" + aQueueMsg.getMessageID () + "'";
+      LOGGER.error (sErrorMsg, ex);
+      aErrorMessagesTarget.add (EEbmsError.EBMS_OTHER.getAsEbms3Error (m_aLocale, sMessageID, sErrorMsg));
+      return true;
+    }
+
+    LOGGER.info ("Returning queued message '" +
+                 aQueueMsg.getMessageID () +
+                 "' of MPC '" +
+                 sMPCID +
+                 "' for pull request '" +
+                 sMessageID +
+                 "'");
+    aSPIResult.setPullReturnUserMsg (aQueueMsg.getUserMessage ());
+    aSPIResult.setSuccess (true);
+    return true;
+  }
+
   private void _invokeSPIsForResponse (@Nonnull final IAS4MessageState aState,
                                        @Nullable final IAS4ResponseFactory aResponseFactory,
                                        @Nullable final HttpEntity aHttpEntity,
@@ -1118,21 +1419,45 @@ public class AS4RequestHandler implements AutoCloseable
                                                              @Nullable final Ebms3UserMessage aUserMessage,
                                                              @Nullable final ICommonsList <WSS4JAttachment> aResponseAttachments) throws WSSecurityException
   {
-    final AS4ReceiptMessage aReceiptMessage = AS4ReceiptMessage.create (eSoapVersion,
-                                                                        sResponseMessageID,
-                                                                        aUserMessage,
-                                                                        aSoapDocument,
-                                                                        _isSendNonRepudiationInformation (aEffectiveLeg))
-                                                               .setMustUnderstand (true);
+    final boolean bSendNonRepudiationInformation = _isSendNonRepudiationInformation (aEffectiveLeg);
+
+    Document aResponseDoc = null;
+    String sMessagingID = null;
+    if (bSendNonRepudiationInformation && AS4Configuration.isOutgoingReceiptTemplate ())
+    {
+      // Fast path without JAXB
+      final ICommonsList <Node> aDSRefs = AS4ReceiptMessage.getAllDSReferences (aSoapDocument);
+      if (aDSRefs.isNotEmpty ())
+      {
+        sMessagingID = MessageHelperMethods.createRandomMessagingID ();
+        aResponseDoc = AS4ReceiptTemplate.getInstance (eSoapVersion)
+                                         .createSoapDocument (sMessagingID,
+                                                              sResponseMessageID,
+                                                              aUserMessage != null ? aUserMessage.getMessageInfo ().getMessageId () : null,
+                                                              XMLOffsetDateTime.of (MetaAS4Manager.getTimestampMgr ().getCurrentDateTime ()),
+                                                              aDSRefs);
+      }
+    }
+
+    if (aResponseDoc == null)
+    {
+      final AS4ReceiptMessage aReceiptMessage = AS4ReceiptMessage.create (eSoapVersion,
+                                                                          sResponseMessageID,
+                                                                          aUserMessage,
+                                                                          aSoapDocument,
+                                                                          bSendNonRepudiationInformation)
+                                                                 .setMustUnderstand (true);
+      aResponseDoc = aReceiptMessage.getAsSoapDocument ();
+      sMessagingID = aReceiptMessage.getMessagingID ();
+    }
 
     // We've got our response
-    final Document aResponseDoc = aReceiptMessage.getAsSoapDocument ();
     final AS4SigningParams aSigningParams = new AS4SigningParams ().setFromPMode (aEffectiveLeg.getSecurity ());
     final Document aSignedDoc = _signResponseIfNeeded (aResponseAttachments,
                                                        aSigningParams,
                                                        aResponseDoc,
                                                        aEffectiveLeg.getProtocol ().getSoapVersion (),
-                                                       aReceiptMessage.getMessagingID ());
+                                                       sMessagingID);
     return new AS4ResponseFactoryXML (m_aMessageMetadata, aState, sResponseMessageID, aSignedDoc, eSoapVersion.getMimeType ());
   }
 
@@ -1239,7 +1564,8 @@ public class AS4RequestHandler implements AutoCloseable
                                                   @Nonnull final Document aSoapDocument,
                                                   @Nonnull final ESoapVersion eSoapVersion,
                                                   @Nonnull final ICommonsList <WSS4JAttachment> aIncomingAttachments,
-                                                  @Nonnull final ICommonsList <Ebms3Error> aErrorMessagesTarget) throws WSSecurityException,
+                                                  @Nonnull final ICommonsList <Ebms3Error> aErrorMessagesTarget,
+                                                  @Nullable final AS4IncomingRequestEvent aEvent) throws WSSecurityException,
                                                                                                                  MessagingException,
                                                                                                                  Phase4Exception
   {
@@ -1264,6 +1590,16 @@ public class AS4RequestHandler implements AutoCloseable
     final Ebms3UserMessage aEbmsUserMessage = aState.getEbmsUserMessage ();
     final Ebms3SignalMessage aEbmsSignalMessage = aState.getEbmsSignalMessage ();
 
+    // Remember for the JFR event
+    if (aEvent != null)
+    {
+      aEvent.m_sMessageID = sMessageID;
+      aEvent.m_sProfileID = aState.getProfileID ();
+      aEvent.m_sPModeID = aPMode == null ? null : aPMode.getID ();
+      aEvent.m_sSoapVersion = eSoapVersion.getVersion ();
+      aEvent.m_nAttachmentCount = aIncomingAttachments.size ();
+    }
+
     if (aState.isSoapHeaderElementProcessingSuccessful ())
     {
       final String sProfileID = aState.getProfileID ();
@@ -1279,9 +1615,7 @@ public class AS4RequestHandler implements AutoCloseable
         LOGGER.error ("Not invoking SPIs, because message with Message ID '" + sMessageID + "' was already handled!");
         aErrorMessagesTarget.add (EEbmsError.EBMS_OTHER.getAsEbms3Error (m_aLocale,
                                                                          sMessageID,
-                                                                         "Another message with the same Message ID '" +
-                                                                                     sMessageID +
-                                                                                     "' was already received!"));
+                                                                         MessageHelperMethods.getDuplicateMessageErrorText (sMessageID)));
       }
       else
       {
@@ -1420,37 +1754,72 @@ public class AS4RequestHandler implements AutoCloseable
           // Use the prebuilt entity for dumping
           _invokeSPIsForResponse (aState, aAsyncResponseFactory, aHttpEntity, eSoapVersion.getMimeType (), sResponseMessageID);
 
-          // invoke client with new document
-          final BasicHttpPoster aSender = new BasicHttpPoster ();
-          final Document aAsyncResponse;
-          if (true)
+          // Retry settings are taken from the PMode
+          final HttpRetrySettings aRetrySettings = _createAsyncRetrySettings (aPMode);
+
+          if (m_aOutboundQueueScheduler != null)
           {
-            final HttpHeaderMap aResponseHttpHeaders = null;
-            // TODO make async send parameters customizable
-            final HttpRetrySettings aRetrySettings = new HttpRetrySettings ();
-            aAsyncResponse = aSender.sendGenericMessageWithRetries (sAsyncResponseURL,
-                                                                    aResponseHttpHeaders,
-                                                                    aHttpEntity,
-                                                                    sMessageID,
-                                                                    aRetrySettings,
-                                                                    new ResponseHandlerXml (),
-                                                                    m_aOutgoingDumper,
-                                                                    m_aRetryCallback);
+            // Persist the response so that it survives a restart
+            final String sContentType = aHttpEntity.getContentType () != null ? aHttpEntity.getContentType ().getValue ()
+                                                                              : eSoapVersion.getMimeType ().getAsString ();
+            final byte [] aPayload;
+            try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ())
+            {
+              aHttpEntity.writeTo (aBAOS);
+              aPayload = aBAOS.getBufferOrCopy ();
+            }
+            final AS4OutboundQueueItem aQueueItem = new AS4OutboundQueueItem (sResponseMessageID,
+                                                                              sMessageID,
+                                                                              aPMode.getID (),
+                                                                              sAsyncResponseURL,
+                                                                              sContentType,
+                                                                              aRetrySettings.getMaxRetries (),
+                                                                              aRetrySettings.getDurationBeforeRetry ().toMillis ());
+            m_aOutboundQueueScheduler.enqueue (aQueueItem, aPayload);
           }
           else
           {
-            aAsyncResponse = aSender.sendGenericMessage (sAsyncResponseURL, null, aHttpEntity, new ResponseHandlerXml ());
+            // invoke client with new document
+            final BasicHttpPoster aSender = new BasicHttpPoster ();
+            final HttpHeaderMap aResponseHttpHeaders = null;
+            final Document aAsyncResponse = aSender.sendGenericMessageWithRetries (sAsyncResponseURL,
+                                                                                   aResponseHttpHeaders,
+                                                                                   aHttpEntity,
+                                                                                   sMessageID,
+                                                                                   aRetrySettings,
+                                                                                   new ResponseHandlerXml (),
+                                                                                   m_aOutgoingDumper,
+                                                                                   m_aRetryCallback);
+            AS4HttpDebug.debug ( () -> "SEND-RESPONSE [async sent] received: " +
+                                       XMLWriter.getNodeAsString (aAsyncResponse, AS4HttpDebug.getDebugXMLWriterSettings ()));
           }
-          AS4HttpDebug.debug ( () -> "SEND-RESPONSE [async sent] received: " +
-                                     XMLWriter.getNodeAsString (aAsyncResponse, AS4HttpDebug.getDebugXMLWriterSettings ()));
         };
-        final CompletableFuture <Void> aFuture = PhotonWorkerPool.getInstance ().runThrowing (CAS4.LIB_NAME + " async processing", r);
+        CompletableFuture <Void> aFuture = null;
+        try
+        {
+          aFuture = m_aAsyncExecutor.execute (aPMode, CAS4.LIB_NAME + " async processing", r);
+        }
+        catch (final RejectedExecutionException ex)
+        {
+          LOGGER.warn ("Asynchronous processing of message '" + sMessageID + "' was rejected: " + ex.getMessage ());
+          aErrorMessagesTarget.add (EEbmsError.EBMS_OTHER.getAsEbms3Error (m_aLocale,
+                                                                          sMessageID,
+                                                                          "The asynchronous processing capacity is exhausted. Please retry later."));
+        }
 
         if (m_aSoapProcessingFinalizedCB != null)
         {
-          // Give the outside world the possibility to get notified when the
-          // processing is done
-          aFuture.thenRun ( () -> m_aSoapProcessingFinalizedCB.onProcessingFinalized (false));
+          if (aFuture != null)
+          {
+            // Give the outside world the possibility to get notified when the
+            // processing is done
+            aFuture.thenRun ( () -> m_aSoapProcessingFinalizedCB.onProcessingFinalized (false));
+          }
+          else
+          {
+            // Rejected - the processing is finalized synchronously
+            m_aSoapProcessingFinalizedCB.onProcessingFinalized (true);
+          }
         }
       }
     }
@@ -1515,15 +1884,16 @@ public class AS4RequestHandler implements AutoCloseable
                 (aPMode.getMEPBinding ().equals (EMEPBinding.PULL_PUSH) && aSPIResult.hasPullReturnUserMsg ()) ||
                 (aPMode.getMEPBinding ().equals (EMEPBinding.PUSH_PULL) && aSPIResult.hasPullReturnUserMsg ()))
             {
-              // TODO would be nice to have attachments here I guess
               final AS4UserMessage aResponseUserMsg = new AS4UserMessage (eSoapVersion, aSPIResult.getPullReturnUserMsg ());
 
               sResponseMessageID = aResponseUserMsg.getEbms3UserMessage ().getMessageInfo ().getMessageId ();
-              ret = new AS4ResponseFactoryXML (m_aMessageMetadata,
-                                               aState,
-                                               sResponseMessageID,
-                                               aResponseUserMsg.getAsSoapDocument (),
-                                               eSoapVersion.getMimeType ());
+              // Neither signed nor encrypted, but with attachments if present
+              ret = _createResponseUserMessage (aState,
+                                                eSoapVersion,
+                                                aResponseUserMsg,
+                                                aResponseAttachments,
+                                                new AS4SigningParams (),
+                                                new AS4CryptParams ());
             }
             else
               if (aEbmsUserMessage != null)
@@ -1604,6 +1974,12 @@ public class AS4RequestHandler implements AutoCloseable
     // Create the HttpEntity on demand
     _invokeSPIsForResponse (aState, ret, null, eSoapVersion.getMimeType (), sResponseMessageID);
 
+    if (aEvent != null)
+    {
+      aEvent.m_nErrorCount = aErrorMessagesTarget.size ();
+      aEvent.m_sResponseMessageID = sResponseMessageID;
+    }
+
     return ret;
   }
 
@@ -1636,6 +2012,10 @@ public class AS4RequestHandler implements AutoCloseable
                                                                                    MessagingException,
                                                                                    WSSecurityException
   {
+    final AS4IncomingRequestEvent aEvent = AS4JFR.isAvailable () ? new AS4IncomingRequestEvent () : null;
+    if (aEvent != null)
+      aEvent.begin ();
+
     final IAS4ParsedMessageCallback aCallback = (aHttpHeaders, aSoapDocument, eSoapVersion, aIncomingAttachments) -> {
       // SOAP document and SOAP version are determined
       // Collect all runtime errors
@@ -1644,7 +2024,8 @@ public class AS4RequestHandler implements AutoCloseable
                                                                  aSoapDocument,
                                                                  eSoapVersion,
                                                                  aIncomingAttachments,
-                                                                 aErrorMessages);
+                                                                 aErrorMessages,
+                                                                 aEvent);
       if (aResponder != null)
       {
         // Response present -> send back
@@ -1658,13 +2039,28 @@ public class AS4RequestHandler implements AutoCloseable
       }
       AS4HttpDebug.debug ( () -> "RECEIVE-END with " + (aResponder != null ? "EBMS message" : "no content"));
     };
-    AS4IncomingHandler.parseAS4Message (m_aIAF,
-                                        m_aResHelper,
-                                        m_aMessageMetadata,
-                                        aServletRequestIS,
-                                        aRequestHttpHeaders,
-                                        aCallback,
-                                        m_aIncomingDumper);
+    try
+    {
+      AS4IncomingHandler.parseAS4Message (m_aIAF,
+                                          m_aResHelper,
+                                          m_aMessageMetadata,
+                                          aServletRequestIS,
+                                          aRequestHttpHeaders,
+                                          aCallback,
+                                          m_aIncomingDumper);
+    }
+    finally
+    {
+      if (aEvent != null)
+      {
+        aEvent.end ();
+        if (aEvent.shouldCommit ())
+        {
+          aEvent.m_nRequestSize = StringParser.parseLong (aRequestHttpHeaders.getFirstHeaderValue (CHttpHeader.CONTENT_LENGTH), -1);
+          aEvent.commit ();
+        }
+      }
+    }
   }
 
   /**
@@ -24,6 +24,7 @@ import org.slf4j.LoggerFactory;
 
 import com.helger.commons.concurrent.SimpleReadWriteLock;
 import com.helger.phase4.config.AS4Configuration;
+import com.helger.phase4.marshaller.Ebms3JAXBPool;
 import com.helger.phase4.mgr.MetaAS4Manager;
 import com.helger.phase4.servlet.mgr.AS4DuplicateCleanupJob;
 import com.helger.quartz.TriggerKey;
@@ -59,6 +60,9 @@ public final class AS4ServerInitializer
     // Ensure all managers are initialized
     MetaAS4Manager.getInstance ();
 
+    // Compile the XML Schemas and create the JAXB contexts upfront
+    Ebms3JAXBPool.warmUp ();
+
     final long nDisposalMinutes = AS4Configuration.getIncomingDuplicateDisposalMinutes ();
     if (LOGGER.isDebugEnabled ())
       LOGGER.debug ("Scheduling AS4DuplicateCleanupJob to dispose incoming metadata that is older than " + nDisposalMinutes + " minutes");
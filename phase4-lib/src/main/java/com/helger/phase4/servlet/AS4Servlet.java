@@ -16,6 +16,10 @@
  */
 package com.helger.phase4.servlet;
 
+import java.time.Duration;
+
+import javax.annotation.Nonnull;
+
 import com.helger.commons.http.EHttpMethod;
 import com.helger.xservlet.AbstractXServlet;
 
@@ -47,4 +51,27 @@ public class AS4Servlet extends AbstractXServlet
     // HTTP POST only
     handlerRegistry ().registerHandler (EHttpMethod.POST, new AS4XServletHandler ());
   }
+
+  /**
+   * Constructor for a servlet that supports long polling pull requests. A
+   * waiting pull request is parked with servlet async support, so that no
+   * thread is blocked while it waits for a message. See
+   * {@link AS4PullLongPollXServletHandler} for details. The servlet must be
+   * declared with <code>&lt;async-supported&gt;true&lt;/async-supported&gt;</code>
+   * - otherwise pull requests don't wait.
+   *
+   * @param aPullLongPollMaxWait
+   *        The maximum duration a pull request waits for a message of the MPC
+   *        queue. May not be <code>null</code> and must be &gt; 0.
+   * @since 1.3.2
+   */
+  public AS4Servlet (@Nonnull final Duration aPullLongPollMaxWait)
+  {
+    // Multipart is handled specifically inside
+    settings ().setMultipartEnabled (false);
+    // HTTP POST only
+    handlerRegistry ().registerHandler (EHttpMethod.POST,
+                                        new AS4PullLongPollXServletHandler (new AS4XServletHandler (), aPullLongPollMaxWait),
+                                        false);
+  }
 }
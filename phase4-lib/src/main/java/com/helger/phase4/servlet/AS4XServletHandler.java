@@ -16,6 +16,7 @@
  */
 package com.helger.phase4.servlet;
 
+import java.time.Duration;
 import java.util.function.Supplier;
 
 import javax.annotation.Nonnull;
@@ -37,6 +38,8 @@ import com.helger.phase4.messaging.EAS4MessageMode;
 import com.helger.phase4.messaging.IAS4IncomingMessageMetadata;
 import com.helger.phase4.model.pmode.resolve.DefaultPModeResolver;
 import com.helger.phase4.model.pmode.resolve.IPModeResolver;
+import com.helger.phase4.outbound.AS4OutboundQueueScheduler;
+import com.helger.phase4.servlet.async.IAS4AsyncExecutor;
 import com.helger.phase4.util.Phase4Exception;
 import com.helger.servlet.response.UnifiedResponse;
 import com.helger.web.scope.IRequestWebScope;
@@ -90,6 +93,9 @@ public class AS4XServletHandler implements IXServletSimpleHandler
   private IPModeResolver m_aPModeResolver;
   private IAS4IncomingAttachmentFactory m_aIAF;
   private IHandlerCustomizer m_aHandlerCustomizer;
+  private IAS4AsyncExecutor m_aAsyncExecutor;
+  private AS4OutboundQueueScheduler m_aOutboundQueueScheduler;
+  private Duration m_aMPCQueueVisibilityTimeout;
 
   /**
    * Default constructor.
@@ -222,6 +228,95 @@ public class AS4XServletHandler implements IXServletSimpleHandler
     return this;
   }
 
+  /**
+   * @return The executor to be used for asynchronous SPI processing. May be
+   *         <code>null</code> in which case the default of
+   *         {@link AS4RequestHandler} is used.
+   * @since 1.3.2
+   */
+  @Nullable
+  public final IAS4AsyncExecutor getAsyncExecutor ()
+  {
+    return m_aAsyncExecutor;
+  }
+
+  /**
+   * Set the executor to be used for asynchronous SPI processing. This is
+   * applied before the handler customizer is invoked.
+   *
+   * @param aAsyncExecutor
+   *        The executor to be used. May be <code>null</code> to use the default
+   *        of {@link AS4RequestHandler}.
+   * @return this for chaining
+   * @since 1.3.2
+   */
+  @Nonnull
+  public final AS4XServletHandler setAsyncExecutor (@Nullable final IAS4AsyncExecutor aAsyncExecutor)
+  {
+    m_aAsyncExecutor = aAsyncExecutor;
+    return this;
+  }
+
+  /**
+   * @return The outbound queue scheduler to be used for asynchronous
+   *         responses. May be <code>null</code>.
+   * @since 1.3.2
+   */
+  @Nullable
+  public final AS4OutboundQueueScheduler getOutboundQueueScheduler ()
+  {
+    return m_aOutboundQueueScheduler;
+  }
+
+  /**
+   * Set the outbound queue scheduler to be used for asynchronous responses.
+   * See {@link AS4RequestHandler#setOutboundQueueScheduler(AS4OutboundQueueScheduler)}
+   * for details. The scheduler is started, so that pending messages of a
+   * previous run are recovered.
+   *
+   * @param aOutboundQueueScheduler
+   *        The scheduler to be used. May be <code>null</code>.
+   * @return this for chaining
+   * @since 1.3.2
+   */
+  @Nonnull
+  public final AS4XServletHandler setOutboundQueueScheduler (@Nullable final AS4OutboundQueueScheduler aOutboundQueueScheduler)
+  {
+    if (aOutboundQueueScheduler != null)
+      aOutboundQueueScheduler.start ();
+    m_aOutboundQueueScheduler = aOutboundQueueScheduler;
+    return this;
+  }
+
+  /**
+   * @return The visibility timeout for messages returned from the MPC queue.
+   *         May be <code>null</code> to use the default of
+   *         {@link AS4RequestHandler}.
+   * @since 1.3.2
+   */
+  @Nullable
+  public final Duration getMPCQueueVisibilityTimeout ()
+  {
+    return m_aMPCQueueVisibilityTimeout;
+  }
+
+  /**
+   * Set the visibility timeout for messages returned from the MPC queue. See
+   * {@link AS4RequestHandler#setMPCQueueVisibilityTimeout(Duration)} for
+   * details.
+   *
+   * @param aMPCQueueVisibilityTimeout
+   *        The timeout to be used. May be <code>null</code> to use the default.
+   * @return this for chaining
+   * @since 1.3.2
+   */
+  @Nonnull
+  public final AS4XServletHandler setMPCQueueVisibilityTimeout (@Nullable final Duration aMPCQueueVisibilityTimeout)
+  {
+    m_aMPCQueueVisibilityTimeout = aMPCQueueVisibilityTimeout;
+    return this;
+  }
+
   @Nonnull
   @Override
   public AS4UnifiedResponse createUnifiedResponse (@Nonnull final EHttpVersion eHTTPVersion,
@@ -295,6 +390,13 @@ public class AS4XServletHandler implements IXServletSimpleHandler
 
     try (final AS4RequestHandler aHandler = new AS4RequestHandler (aCF, aPModeResolver, aIAF, aMessageMetadata))
     {
+      if (m_aAsyncExecutor != null)
+        aHandler.setAsyncExecutor (m_aAsyncExecutor);
+      if (m_aOutboundQueueScheduler != null)
+        aHandler.setOutboundQueueScheduler (m_aOutboundQueueScheduler);
+      if (m_aMPCQueueVisibilityTimeout != null)
+        aHandler.setMPCQueueVisibilityTimeout (m_aMPCQueueVisibilityTimeout);
+
       // Customize before handling
       if (aHandlerCustomizer != null)
       {
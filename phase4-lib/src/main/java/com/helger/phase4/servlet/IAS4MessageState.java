@@ -43,6 +43,7 @@ import com.helger.phase4.ebms3header.Ebms3UserMessage;
 import com.helger.phase4.model.mpc.IMPC;
 import com.helger.phase4.model.pmode.IPMode;
 import com.helger.phase4.model.pmode.leg.PModeLeg;
+import com.helger.phase4.servlet.soap.Ebms3MessagingSummary;
 import com.helger.phase4.soap.ESoapVersion;
 import com.helger.phase4.util.AS4ResourceHelper;
 
@@ -88,6 +89,14 @@ public interface IAS4MessageState
   @Nullable
   Ebms3Messaging getMessaging ();
 
+  /**
+   * @return The summary of the Messaging header that was extracted before the
+   *         full model was unmarshalled. May be <code>null</code>.
+   * @since 1.3.2
+   */
+  @Nullable
+  Ebms3MessagingSummary getMessagingSummary ();
+
   /**
    * @return The EBMS user message. May be <code>null</code>.
    * @since v0.9.7
@@ -0,0 +1,339 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.servlet.async;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.callback.IThrowingRunnable;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.concurrent.ExecutorServiceHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.model.pmode.IPMode;
+
+/**
+ * An {@link IAS4AsyncExecutor} based on a dedicated {@link ExecutorService}
+ * that collects metrics on queue depth and task latency. Use
+ * {@link #createBounded(String, int, int)} for a fixed size pool with a bounded
+ * queue or {@link #createThreadPerTask(String)} for I/O heavy SPIs.<br>
+ * Tasks that cannot be accepted result in a
+ * {@link RejectedExecutionException}, which the {@link com.helger.phase4.servlet.AS4RequestHandler}
+ * turns into an EBMS error.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@ThreadSafe
+public class AS4AsyncExecutor implements IAS4AsyncExecutor, AutoCloseable
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4AsyncExecutor.class);
+
+  private final String m_sName;
+  private final ExecutorService m_aExecutor;
+  private final AtomicLong m_aSubmitted = new AtomicLong ();
+  private final AtomicLong m_aRejected = new AtomicLong ();
+  private final AtomicLong m_aStarted = new AtomicLong ();
+  private final AtomicLong m_aFinished = new AtomicLong ();
+  private final AtomicLong m_aFailed = new AtomicLong ();
+  private final LongAdder m_aTotalQueueWaitNanos = new LongAdder ();
+  private final LongAdder m_aTotalExecutionNanos = new LongAdder ();
+  private final AtomicLong m_aMaxQueueWaitNanos = new AtomicLong ();
+
+  /**
+   * Constructor
+   *
+   * @param sName
+   *        The name of the executor, for logging and metrics. May neither be
+   *        <code>null</code> nor empty.
+   * @param aExecutor
+   *        The executor service to use. It must throw a
+   *        {@link RejectedExecutionException} if a task cannot be accepted. It
+   *        is shut down when this object is closed. May not be
+   *        <code>null</code>.
+   */
+  public AS4AsyncExecutor (@Nonnull @Nonempty final String sName, @Nonnull final ExecutorService aExecutor)
+  {
+    ValueEnforcer.notEmpty (sName, "Name");
+    ValueEnforcer.notNull (aExecutor, "Executor");
+    m_sName = sName;
+    m_aExecutor = aExecutor;
+  }
+
+  /**
+   * @return The name of the executor as provided in the constructor. Neither
+   *         <code>null</code> nor empty.
+   */
+  @Nonnull
+  @Nonempty
+  public final String getName ()
+  {
+    return m_sName;
+  }
+
+  @Nonnull
+  public CompletableFuture <Void> execute (@Nullable final IPMode aPMode,
+                                           @Nonnull @Nonempty final String sDescription,
+                                           @Nonnull final IThrowingRunnable <? extends Exception> aRunnable)
+  {
+    ValueEnforcer.notNull (aRunnable, "Runnable");
+
+    final CompletableFuture <Void> ret = new CompletableFuture <> ();
+    final long nSubmitNanos = System.nanoTime ();
+    m_aSubmitted.incrementAndGet ();
+    try
+    {
+      m_aExecutor.execute ( () -> {
+        final long nStartNanos = System.nanoTime ();
+        final long nQueueWaitNanos = nStartNanos - nSubmitNanos;
+        m_aStarted.incrementAndGet ();
+        m_aTotalQueueWaitNanos.add (nQueueWaitNanos);
+        m_aMaxQueueWaitNanos.accumulateAndGet (nQueueWaitNanos, Math::max);
+        try
+        {
+          aRunnable.run ();
+        }
+        catch (final Exception ex)
+        {
+          m_aFailed.incrementAndGet ();
+          LOGGER.error ("Error running '" + sDescription + "' in executor '" + m_sName + "'", ex);
+        }
+        finally
+        {
+          m_aTotalExecutionNanos.add (System.nanoTime () - nStartNanos);
+          m_aFinished.incrementAndGet ();
+          ret.complete (null);
+        }
+      });
+    }
+    catch (final RejectedExecutionException ex)
+    {
+      m_aRejected.incrementAndGet ();
+      throw ex;
+    }
+    return ret;
+  }
+
+  /**
+   * @return The number of tasks that were submitted, including the rejected
+   *         ones.
+   */
+  @Nonnegative
+  public final long getSubmittedCount ()
+  {
+    return m_aSubmitted.get ();
+  }
+
+  /**
+   * @return The number of tasks that were rejected.
+   */
+  @Nonnegative
+  public final long getRejectedCount ()
+  {
+    return m_aRejected.get ();
+  }
+
+  /**
+   * @return The number of tasks that finished execution, successful or not.
+   */
+  @Nonnegative
+  public final long getFinishedCount ()
+  {
+    return m_aFinished.get ();
+  }
+
+  /**
+   * @return The number of tasks that finished with an exception.
+   */
+  @Nonnegative
+  public final long getFailedCount ()
+  {
+    return m_aFailed.get ();
+  }
+
+  /**
+   * @return The number of accepted tasks that did not yet start execution.
+   */
+  @Nonnegative
+  public final long getQueueDepth ()
+  {
+    // Read "started" first, so that the result is never negative
+    final long nStarted = m_aStarted.get ();
+    return Math.max (0, m_aSubmitted.get () - m_aRejected.get () - nStarted);
+  }
+
+  /**
+   * @return The number of tasks currently executing.
+   */
+  @Nonnegative
+  public final long getActiveCount ()
+  {
+    final long nFinished = m_aFinished.get ();
+    return Math.max (0, m_aStarted.get () - nFinished);
+  }
+
+  /**
+   * @return The average time in nanoseconds tasks waited in the queue before
+   *         execution started. 0 if no task was started yet.
+   */
+  @Nonnegative
+  public final long getAverageQueueWaitNanos ()
+  {
+    final long nStarted = m_aStarted.get ();
+    return nStarted == 0 ? 0 : m_aTotalQueueWaitNanos.sum () / nStarted;
+  }
+
+  /**
+   * @return The maximum time in nanoseconds a task waited in the queue.
+   */
+  @Nonnegative
+  public final long getMaxQueueWaitNanos ()
+  {
+    return m_aMaxQueueWaitNanos.get ();
+  }
+
+  /**
+   * @return The average execution time in nanoseconds of all finished tasks. 0
+   *         if no task finished yet.
+   */
+  @Nonnegative
+  public final long getAverageExecutionNanos ()
+  {
+    final long nFinished = m_aFinished.get ();
+    return nFinished == 0 ? 0 : m_aTotalExecutionNanos.sum () / nFinished;
+  }
+
+  /**
+   * Shutdown the underlying executor and wait until all queued tasks are
+   * finished.
+   */
+  public void close ()
+  {
+    ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (m_aExecutor);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("Name", m_sName)
+                                       .append ("Submitted", getSubmittedCount ())
+                                       .append ("Rejected", getRejectedCount ())
+                                       .append ("Finished", getFinishedCount ())
+                                       .append ("Failed", getFailedCount ())
+                                       .append ("QueueDepth", getQueueDepth ())
+                                       .append ("Active", getActiveCount ())
+                                       .getToString ();
+  }
+
+  @Nonnull
+  private static ThreadFactory _createThreadFactory (@Nonnull @Nonempty final String sName)
+  {
+    return new BasicThreadFactory.Builder ().namingPattern (sName + "-%d").daemon (true).build ();
+  }
+
+  /**
+   * Create a new executor with a fixed number of threads and a bounded queue.
+   * If all threads are busy and the queue is full, new tasks are rejected.
+   *
+   * @param sName
+   *        The name of the executor. Also used as the prefix of the thread
+   *        names. May neither be <code>null</code> nor empty.
+   * @param nThreads
+   *        The maximum number of threads. Must be &gt; 0.
+   * @param nQueueCapacity
+   *        The maximum number of tasks waiting for execution. Must be &gt; 0.
+   * @return The new executor. Never <code>null</code>.
+   */
+  @Nonnull
+  public static AS4AsyncExecutor createBounded (@Nonnull @Nonempty final String sName,
+                                                @Nonnegative final int nThreads,
+                                                @Nonnegative final int nQueueCapacity)
+  {
+    ValueEnforcer.isGT0 (nThreads, "Threads");
+    ValueEnforcer.isGT0 (nQueueCapacity, "QueueCapacity");
+    final ThreadPoolExecutor aTPE = new ThreadPoolExecutor (nThreads,
+                                                            nThreads,
+                                                            60,
+                                                            TimeUnit.SECONDS,
+                                                            new ArrayBlockingQueue <> (nQueueCapacity),
+                                                            _createThreadFactory (sName),
+                                                            new ThreadPoolExecutor.AbortPolicy ());
+    aTPE.allowCoreThreadTimeOut (true);
+    return new AS4AsyncExecutor (sName, aTPE);
+  }
+
+  /**
+   * Try to create the JDK 21+ virtual thread per task executor via reflection,
+   * because phase4 itself is compiled for Java 8.
+   *
+   * @return <code>null</code> if the current JVM does not support virtual
+   *         threads.
+   */
+  @Nullable
+  private static ExecutorService _createVirtualThreadPerTaskExecutor ()
+  {
+    try
+    {
+      final Method aMethod = Executors.class.getMethod ("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) aMethod.invoke (null);
+    }
+    catch (final ReflectiveOperationException | RuntimeException ex)
+    {
+      return null;
+    }
+  }
+
+  /**
+   * Create a new executor that starts a new thread for each task and never
+   * queues. When running on a JVM with virtual thread support (Java 21+)
+   * virtual threads are used, otherwise a cached pool of platform threads is
+   * used. This is meant for SPIs that mainly wait for I/O.
+   *
+   * @param sName
+   *        The name of the executor. May neither be <code>null</code> nor
+   *        empty.
+   * @return The new executor. Never <code>null</code>.
+   */
+  @Nonnull
+  public static AS4AsyncExecutor createThreadPerTask (@Nonnull @Nonempty final String sName)
+  {
+    ExecutorService aES = _createVirtualThreadPerTaskExecutor ();
+    if (aES != null)
+      LOGGER.info ("Using virtual threads for AS4 async executor '" + sName + "'");
+    else
+      aES = Executors.newCachedThreadPool (_createThreadFactory (sName));
+    return new AS4AsyncExecutor (sName, aES);
+  }
+}
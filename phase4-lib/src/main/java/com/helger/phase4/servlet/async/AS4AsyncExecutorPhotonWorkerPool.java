@@ -0,0 +1,53 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.servlet.async;
+
+import java.util.concurrent.CompletableFuture;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.callback.IThrowingRunnable;
+import com.helger.phase4.model.pmode.IPMode;
+import com.helger.photon.app.PhotonWorkerPool;
+
+/**
+ * The default {@link IAS4AsyncExecutor} that uses the global
+ * {@link PhotonWorkerPool}. It is unbounded and shared with all other users of
+ * the pool.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@Immutable
+public final class AS4AsyncExecutorPhotonWorkerPool implements IAS4AsyncExecutor
+{
+  public static final AS4AsyncExecutorPhotonWorkerPool INSTANCE = new AS4AsyncExecutorPhotonWorkerPool ();
+
+  private AS4AsyncExecutorPhotonWorkerPool ()
+  {}
+
+  @Nonnull
+  public CompletableFuture <Void> execute (@Nullable final IPMode aPMode,
+                                           @Nonnull @Nonempty final String sDescription,
+                                           @Nonnull final IThrowingRunnable <? extends Exception> aRunnable)
+  {
+    return PhotonWorkerPool.getInstance ().runThrowing (sDescription, aRunnable);
+  }
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.servlet.async;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.callback.IThrowingRunnable;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.model.pmode.IPMode;
+
+/**
+ * An {@link IAS4AsyncExecutor} that uses a separate executor per P-Mode ID, so
+ * that a slow SPI for one partner cannot starve the processing of all other
+ * partners. The executors are created lazily with the provided factory.
+ * Messages without a P-Mode are handled by the fallback executor.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@ThreadSafe
+public class AS4PerPModeAsyncExecutor implements IAS4AsyncExecutor, AutoCloseable
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4PerPModeAsyncExecutor.class);
+
+  private final Function <String, ? extends IAS4AsyncExecutor> m_aFactory;
+  private final IAS4AsyncExecutor m_aFallback;
+  private final Map <String, IAS4AsyncExecutor> m_aMap = new ConcurrentHashMap <> ();
+
+  /**
+   * Constructor
+   *
+   * @param aFactory
+   *        The factory to create a new executor for a P-Mode ID. It is called
+   *        at most once per P-Mode ID. May not be <code>null</code>.
+   * @param aFallback
+   *        The executor to be used if no P-Mode is present. May not be
+   *        <code>null</code>.
+   */
+  public AS4PerPModeAsyncExecutor (@Nonnull final Function <String, ? extends IAS4AsyncExecutor> aFactory,
+                                   @Nonnull final IAS4AsyncExecutor aFallback)
+  {
+    ValueEnforcer.notNull (aFactory, "Factory");
+    ValueEnforcer.notNull (aFallback, "Fallback");
+    m_aFactory = aFactory;
+    m_aFallback = aFallback;
+  }
+
+  /**
+   * @return The fallback executor as provided in the constructor. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public final IAS4AsyncExecutor getFallbackExecutor ()
+  {
+    return m_aFallback;
+  }
+
+  /**
+   * Get the executor that was created for the provided P-Mode ID.
+   *
+   * @param sPModeID
+   *        The P-Mode ID to query. May be <code>null</code>.
+   * @return <code>null</code> if no executor was created for the P-Mode ID yet.
+   */
+  @Nullable
+  public IAS4AsyncExecutor getExecutorOfPModeID (@Nullable final String sPModeID)
+  {
+    return sPModeID == null ? null : m_aMap.get (sPModeID);
+  }
+
+  @Nonnull
+  private IAS4AsyncExecutor _getExecutor (@Nullable final IPMode aPMode)
+  {
+    if (aPMode == null)
+      return m_aFallback;
+    return m_aMap.computeIfAbsent (aPMode.getID (), sPModeID -> {
+      final IAS4AsyncExecutor ret = m_aFactory.apply (sPModeID);
+      if (ret == null)
+        throw new IllegalStateException ("The factory created no executor for P-Mode ID '" + sPModeID + "'");
+      return ret;
+    });
+  }
+
+  @Nonnull
+  public CompletableFuture <Void> execute (@Nullable final IPMode aPMode,
+                                           @Nonnull @Nonempty final String sDescription,
+                                           @Nonnull final IThrowingRunnable <? extends Exception> aRunnable)
+  {
+    return _getExecutor (aPMode).execute (aPMode, sDescription, aRunnable);
+  }
+
+  /**
+   * Close all created per P-Mode executors that implement
+   * {@link AutoCloseable}. The fallback executor is not closed.
+   */
+  public void close ()
+  {
+    for (final Map.Entry <String, IAS4AsyncExecutor> aEntry : m_aMap.entrySet ())
+      if (aEntry.getValue () instanceof AutoCloseable)
+        try
+        {
+          ((AutoCloseable) aEntry.getValue ()).close ();
+        }
+        catch (final Exception ex)
+        {
+          LOGGER.error ("Failed to close async executor for P-Mode ID '" + aEntry.getKey () + "'", ex);
+        }
+    m_aMap.clear ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("Fallback", m_aFallback).append ("Map", m_aMap).getToString ();
+  }
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.servlet.async;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.callback.IThrowingRunnable;
+import com.helger.phase4.model.pmode.IPMode;
+
+/**
+ * Executor for the asynchronous processing of incoming AS4 messages (e.g. for
+ * the two-way push-and-push MEP). Implementations must log exceptions thrown
+ * by the runnable and complete the returned future normally afterwards.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@FunctionalInterface
+public interface IAS4AsyncExecutor
+{
+  /**
+   * Schedule the provided runnable for asynchronous execution.
+   *
+   * @param aPMode
+   *        The P-Mode of the message to be processed. May be
+   *        <code>null</code>.
+   * @param sDescription
+   *        Description of the task, e.g. for logging. May neither be
+   *        <code>null</code> nor empty.
+   * @param aRunnable
+   *        The runnable to be executed. May not be <code>null</code>.
+   * @return A future that is completed when the runnable finished. Never
+   *         <code>null</code>.
+   * @throws RejectedExecutionException
+   *         If the executor cannot accept the task (e.g. because the queue is
+   *         full). The caller must handle this gracefully.
+   */
+  @Nonnull
+  CompletableFuture <Void> execute (@Nullable IPMode aPMode,
+                                    @Nonnull @Nonempty String sDescription,
+                                    @Nonnull IThrowingRunnable <? extends Exception> aRunnable);
+}
@@ -0,0 +1,376 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.servlet.soap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.xml.bind.annotation.adapters.CollapsedStringAdapter;
+
+import org.w3c.dom.Element;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.jaxb.validation.CollectingValidationEventHandler;
+import com.helger.phase4.CAS4;
+import com.helger.phase4.config.AS4Configuration;
+import com.helger.phase4.ebms3header.Ebms3Messaging;
+import com.helger.phase4.marshaller.Ebms3ReaderBuilder;
+import com.helger.xml.XMLHelper;
+
+/**
+ * A summary of the routing relevant fields of an ebMS 3 Messaging SOAP header
+ * element. The fields are read directly from the DOM element, without creating
+ * the JAXB model, so that duplicates and unknown PModes can be rejected before
+ * the expensive WSS4J and JAXB processing. The full {@link Ebms3Messaging}
+ * model is only unmarshalled on demand via {@link #getMessaging()}.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@NotThreadSafe
+public final class Ebms3MessagingSummary
+{
+  private static final CollapsedStringAdapter TOKEN_ADAPTER = new CollapsedStringAdapter ();
+
+  private final Element m_aElement;
+  private final int m_nUserMessageCount;
+  private final int m_nSignalMessageCount;
+  private final String m_sMessageID;
+  private final String m_sRefToMessageID;
+  private final String m_sPModeID;
+  private final String m_sAgreementRef;
+  private final boolean m_bHasCollaborationInfo;
+  private final String m_sService;
+  private final String m_sAction;
+  private final String m_sMPC;
+  private final ICommonsList <String> m_aFromPartyIDs = new CommonsArrayList <> ();
+  private final ICommonsList <String> m_aToPartyIDs = new CommonsArrayList <> ();
+  private final boolean m_bIsPullRequest;
+  private final boolean m_bIsReceipt;
+  private final boolean m_bIsError;
+
+  // Lazily created full model
+  private boolean m_bMessagingRead = false;
+  private Ebms3Messaging m_aMessaging;
+  private final CollectingValidationEventHandler m_aCVEH = new CollectingValidationEventHandler ();
+
+  @Nullable
+  private static Element _getChild (@Nullable final Element aParent, @Nonnull @Nonempty final String sLocalName)
+  {
+    return aParent == null ? null : XMLHelper.getFirstChildElementOfName (aParent, CAS4.EBMS_NS, sLocalName);
+  }
+
+  @Nullable
+  private static String _getText (@Nullable final Element aElement)
+  {
+    return aElement == null ? null : aElement.getTextContent ();
+  }
+
+  @Nullable
+  private static String _getAttr (@Nullable final Element aElement, @Nonnull @Nonempty final String sAttrName)
+  {
+    // getAttribute returns an empty String for missing attributes
+    return aElement == null || !aElement.hasAttribute (sAttrName) ? null : aElement.getAttribute (sAttrName);
+  }
+
+  private static void _addPartyIDs (@Nullable final Element aParty, @Nonnull final ICommonsList <String> aTarget)
+  {
+    if (aParty != null)
+      for (final Element aPartyID : XMLHelper.getChildElementIteratorNS (aParty, CAS4.EBMS_NS, "PartyId"))
+        aTarget.add (aPartyID.getTextContent ());
+  }
+
+  private Ebms3MessagingSummary (@Nonnull final Element aElement)
+  {
+    m_aElement = aElement;
+    m_nUserMessageCount = XMLHelper.getDirectChildElementCountNS (aElement, CAS4.EBMS_NS, "UserMessage");
+    m_nSignalMessageCount = XMLHelper.getDirectChildElementCountNS (aElement, CAS4.EBMS_NS, "SignalMessage");
+
+    final Element aUserMessage = _getChild (aElement, "UserMessage");
+    final Element aSignalMessage = aUserMessage != null ? null : _getChild (aElement, "SignalMessage");
+    final Element aMessageInfo = _getChild (aUserMessage != null ? aUserMessage : aSignalMessage, "MessageInfo");
+    m_sMessageID = _getText (_getChild (aMessageInfo, "MessageId"));
+    m_sRefToMessageID = _getText (_getChild (aMessageInfo, "RefToMessageId"));
+
+    final Element aPartyInfo = _getChild (aUserMessage, "PartyInfo");
+    _addPartyIDs (_getChild (aPartyInfo, "From"), m_aFromPartyIDs);
+    _addPartyIDs (_getChild (aPartyInfo, "To"), m_aToPartyIDs);
+
+    final Element aCollaborationInfo = _getChild (aUserMessage, "CollaborationInfo");
+    final Element aAgreementRef = _getChild (aCollaborationInfo, "AgreementRef");
+    m_bHasCollaborationInfo = aCollaborationInfo != null;
+    m_sPModeID = _getAttr (aAgreementRef, "pmode");
+    m_sAgreementRef = _getText (aAgreementRef);
+    m_sService = _getText (_getChild (aCollaborationInfo, "Service"));
+    // Action is an xs:token
+    m_sAction = TOKEN_ADAPTER.unmarshal (_getText (_getChild (aCollaborationInfo, "Action")));
+
+    final Element aPullRequest = _getChild (aSignalMessage, "PullRequest");
+    m_sMPC = aUserMessage != null ? _getAttr (aUserMessage, "mpc") : _getAttr (aPullRequest, "mpc");
+    m_bIsPullRequest = aPullRequest != null;
+    m_bIsReceipt = _getChild (aSignalMessage, "Receipt") != null;
+    m_bIsError = _getChild (aSignalMessage, "Error") != null;
+  }
+
+  /**
+   * @return The source element of this summary. Never <code>null</code>.
+   */
+  @Nonnull
+  public Element getElement ()
+  {
+    return m_aElement;
+  }
+
+  /**
+   * @return The number of contained UserMessage elements. Always &ge; 0.
+   */
+  public int getUserMessageCount ()
+  {
+    return m_nUserMessageCount;
+  }
+
+  /**
+   * @return The number of contained SignalMessage elements. Always &ge; 0.
+   */
+  public int getSignalMessageCount ()
+  {
+    return m_nSignalMessageCount;
+  }
+
+  /**
+   * @return <code>true</code> if a UserMessage is contained.
+   */
+  public boolean isUserMessage ()
+  {
+    return m_nUserMessageCount > 0;
+  }
+
+  /**
+   * @return The message ID of the first UserMessage or SignalMessage. May be
+   *         <code>null</code>.
+   */
+  @Nullable
+  public String getMessageID ()
+  {
+    return m_sMessageID;
+  }
+
+  /**
+   * @return The reference to message ID of the first UserMessage or
+   *         SignalMessage. May be <code>null</code>.
+   */
+  @Nullable
+  public String getRefToMessageID ()
+  {
+    return m_sRefToMessageID;
+  }
+
+  /**
+   * @return <code>true</code> if the UserMessage contains a
+   *         CollaborationInfo element.
+   */
+  public boolean hasCollaborationInfo ()
+  {
+    return m_bHasCollaborationInfo;
+  }
+
+  /**
+   * @return The value of the <code>AgreementRef/@pmode</code> attribute of the
+   *         UserMessage. May be <code>null</code>.
+   */
+  @Nullable
+  public String getPModeID ()
+  {
+    return m_sPModeID;
+  }
+
+  /**
+   * @return The value of the <code>AgreementRef</code> element of the
+   *         UserMessage. May be <code>null</code>.
+   */
+  @Nullable
+  public String getAgreementRef ()
+  {
+    return m_sAgreementRef;
+  }
+
+  /**
+   * @return The service value of the UserMessage. May be <code>null</code>.
+   */
+  @Nullable
+  public String getService ()
+  {
+    return m_sService;
+  }
+
+  /**
+   * @return The action of the UserMessage. May be <code>null</code>.
+   */
+  @Nullable
+  public String getAction ()
+  {
+    return m_sAction;
+  }
+
+  /**
+   * @return The MPC of the UserMessage or of the PullRequest. May be
+   *         <code>null</code>.
+   */
+  @Nullable
+  public String getMPC ()
+  {
+    return m_sMPC;
+  }
+
+  /**
+   * @return A copy of all From party IDs of the UserMessage. Never
+   *         <code>null</code> but maybe empty.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <String> getAllFromPartyIDs ()
+  {
+    return m_aFromPartyIDs.getClone ();
+  }
+
+  /**
+   * @return A copy of all To party IDs of the UserMessage. Never
+   *         <code>null</code> but maybe empty.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <String> getAllToPartyIDs ()
+  {
+    return m_aToPartyIDs.getClone ();
+  }
+
+  /**
+   * @return The one and only From party ID or <code>null</code> if none or
+   *         more than one is present.
+   */
+  @Nullable
+  public String getInitiatorID ()
+  {
+    return m_aFromPartyIDs.size () == 1 ? m_aFromPartyIDs.getFirst () : null;
+  }
+
+  /**
+   * @return The one and only To party ID or <code>null</code> if none or more
+   *         than one is present.
+   */
+  @Nullable
+  public String getResponderID ()
+  {
+    return m_aToPartyIDs.size () == 1 ? m_aToPartyIDs.getFirst () : null;
+  }
+
+  /**
+   * @return <code>true</code> if the SignalMessage contains a PullRequest.
+   */
+  public boolean isPullRequest ()
+  {
+    return m_bIsPullRequest;
+  }
+
+  /**
+   * @return <code>true</code> if the SignalMessage contains a Receipt.
+   */
+  public boolean isReceipt ()
+  {
+    return m_bIsReceipt;
+  }
+
+  /**
+   * @return <code>true</code> if the SignalMessage contains at least one
+   *         Error.
+   */
+  public boolean isError ()
+  {
+    return m_bIsError;
+  }
+
+  /**
+   * Get the full JAXB model of the Messaging element. It is unmarshalled upon
+   * the first call and cached afterwards.
+   *
+   * @return <code>null</code> if the element could not be unmarshalled. In that
+   *         case {@link #getMessagingErrorHandler()} contains the details.
+   */
+  @Nullable
+  public Ebms3Messaging getMessaging ()
+  {
+    if (!m_bMessagingRead)
+    {
+      m_aMessaging = Ebms3ReaderBuilder.ebms3Messaging ()
+                                       .setValidationEventHandler (m_aCVEH)
+                                       .setUseSchema (AS4Configuration.isIncomingSchemaValidation ())
+                                       .read (m_aElement);
+      m_bMessagingRead = true;
+    }
+    return m_aMessaging;
+  }
+
+  /**
+   * @return The validation event handler that collected the errors of
+   *         {@link #getMessaging()}. Never <code>null</code>.
+   */
+  @Nonnull
+  public CollectingValidationEventHandler getMessagingErrorHandler ()
+  {
+    return m_aCVEH;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("UserMessageCount", m_nUserMessageCount)
+                                       .append ("SignalMessageCount", m_nSignalMessageCount)
+                                       .append ("MessageID", m_sMessageID)
+                                       .append ("RefToMessageID", m_sRefToMessageID)
+                                       .append ("PModeID", m_sPModeID)
+                                       .append ("AgreementRef", m_sAgreementRef)
+                                       .append ("Service", m_sService)
+                                       .append ("Action", m_sAction)
+                                       .append ("MPC", m_sMPC)
+                                       .append ("FromPartyIDs", m_aFromPartyIDs)
+                                       .append ("ToPartyIDs", m_aToPartyIDs)
+                                       .append ("IsPullRequest", m_bIsPullRequest)
+                                       .append ("IsReceipt", m_bIsReceipt)
+                                       .append ("IsError", m_bIsError)
+                                       .getToString ();
+  }
+
+  /**
+   * Extract the summary from the provided ebMS 3 Messaging element. Only the
+   * DOM is inspected - no validation happens.
+   *
+   * @param aElement
+   *        The Messaging element. May not be <code>null</code>.
+   * @return The new summary and never <code>null</code>.
+   */
+  @Nonnull
+  public static Ebms3MessagingSummary extract (@Nonnull final Element aElement)
+  {
+    ValueEnforcer.notNull (aElement, "Element");
+    return new Ebms3MessagingSummary (aElement);
+  }
+}
@@ -58,7 +58,6 @@ import com.helger.phase4.ebms3header.Ebms3Receipt;
 import com.helger.phase4.ebms3header.Ebms3SignalMessage;
 import com.helger.phase4.ebms3header.Ebms3UserMessage;
 import com.helger.phase4.error.EEbmsError;
-import com.helger.phase4.marshaller.Ebms3ReaderBuilder;
 import com.helger.phase4.messaging.domain.MessageHelperMethods;
 import com.helger.phase4.mgr.MetaAS4Manager;
 import com.helger.phase4.model.mpc.IMPC;
@@ -185,6 +184,90 @@ public class SOAPHeaderElementProcessorExtractEbms3Messaging implements ISOAPHea
     return aBody != null && aBody.hasChildNodes ();
   }
 
+  /**
+   * Check if the PMode of a UserMessage can be resolved based on the fields of
+   * the summary.
+   *
+   * @param aSummary
+   *        The Messaging summary. May not be <code>null</code>.
+   * @return <code>true</code> if the summary contains exactly one UserMessage
+   *         with collaboration info, initiator, responder and service,
+   *         <code>false</code> otherwise.
+   */
+  private static boolean _canResolvePModeEarly (@Nonnull final Ebms3MessagingSummary aSummary)
+  {
+    // Everything else is left to the full check, so that the correct error is
+    // emitted
+    return aSummary.getUserMessageCount () == 1 &&
+           aSummary.hasCollaborationInfo () &&
+           StringHelper.hasText (aSummary.getInitiatorID ()) &&
+           StringHelper.hasText (aSummary.getResponderID ()) &&
+           StringHelper.hasText (aSummary.getService ());
+  }
+
+  @Nullable
+  private IPMode _getEarlyPMode (@Nonnull final Ebms3MessagingSummary aSummary)
+  {
+    if (!_canResolvePModeEarly (aSummary))
+      return null;
+
+    return m_aPModeResolver.getPModeOfID (aSummary.getPModeID (),
+                                          aSummary.getService (),
+                                          aSummary.getAction (),
+                                          aSummary.getInitiatorID (),
+                                          aSummary.getResponderID (),
+                                          aSummary.getAgreementRef (),
+                                          AS4Configuration.getThisEndpointAddress ());
+  }
+
+  /**
+   * Reject already received messages and UserMessages with an unresolvable
+   * PMode, based on the summary only.
+   *
+   * @param aSummary
+   *        The Messaging summary. May not be <code>null</code>.
+   * @param aEarlyPMode
+   *        The PMode resolved from the summary. May be <code>null</code>.
+   * @param aState
+   *        The message state to fill the message ID on error. May not be
+   *        <code>null</code>.
+   * @param aErrorList
+   *        to write errors to if they occur
+   * @return Success if everything is all right, else Failure
+   */
+  @Nonnull
+  private ESuccess _checkEarly (@Nonnull final Ebms3MessagingSummary aSummary,
+                                @Nullable final IPMode aEarlyPMode,
+                                @Nonnull final AS4MessageState aState,
+                                @Nonnull final ErrorList aErrorList)
+  {
+    final Locale aLocale = aState.getLocale ();
+    final String sMessageID = aSummary.getMessageID ();
+    // Only UserMessages are handed to the SPIs and registered as duplicates
+    if (aSummary.isUserMessage () &&
+        StringHelper.hasText (sMessageID) &&
+        MetaAS4Manager.getIncomingDuplicateMgr ().getItemOfMessageID (sMessageID) != null)
+    {
+      LOGGER.error ("Message with Message ID '" + sMessageID + "' was already received - rejecting it before processing");
+      aState.setMessageID (sMessageID);
+      aState.setRefToMessageID (aSummary.getRefToMessageID ());
+      aErrorList.add (SingleError.builder (EEbmsError.EBMS_OTHER.getAsError (aLocale))
+                                 .errorText (MessageHelperMethods.getDuplicateMessageErrorText (sMessageID))
+                                 .build ());
+      return ESuccess.FAILURE;
+    }
+
+    if (aEarlyPMode == null && _canResolvePModeEarly (aSummary))
+    {
+      LOGGER.error ("Failed to resolve PMode '" + aSummary.getPModeID () + "' using resolver " + m_aPModeResolver + " - rejecting it before processing");
+      aState.setMessageID (sMessageID);
+      aState.setRefToMessageID (aSummary.getRefToMessageID ());
+      aErrorList.add (EEbmsError.EBMS_PROCESSING_MODE_MISMATCH.getAsError (aLocale));
+      return ESuccess.FAILURE;
+    }
+    return ESuccess.SUCCESS;
+  }
+
   @Nonnull
   public ESuccess processHeaderElement (@Nonnull final Document aSOAPDoc,
                                         @Nonnull final Element aElement,
@@ -200,9 +283,18 @@ public class SOAPHeaderElementProcessorExtractEbms3Messaging implements ISOAPHea
     String sResponderID = null;
     final Locale aLocale = aState.getLocale ();
 
+    // Cheap extraction of the routing relevant fields, so that duplicates and
+    // unknown PModes are rejected before JAXB and WSS4J are invoked
+    final Ebms3MessagingSummary aSummary = Ebms3MessagingSummary.extract (aElement);
+    aState.setMessagingSummary (aSummary);
+
+    final IPMode aEarlyPMode = _getEarlyPMode (aSummary);
+    if (_checkEarly (aSummary, aEarlyPMode, aState, aErrorList).isFailure ())
+      return ESuccess.FAILURE;
+
     // Parse EBMS3 Messaging object
-    final CollectingValidationEventHandler aCVEH = new CollectingValidationEventHandler ();
-    final Ebms3Messaging aMessaging = Ebms3ReaderBuilder.ebms3Messaging ().setValidationEventHandler (aCVEH).read (aElement);
+    final CollectingValidationEventHandler aCVEH = aSummary.getMessagingErrorHandler ();
+    final Ebms3Messaging aMessaging = aSummary.getMessaging ();
 
     // If the ebms3reader above fails aMessageing will be null => invalid/not
     // wellformed
@@ -295,13 +387,15 @@ public class SOAPHeaderElementProcessorExtractEbms3Messaging implements ISOAPHea
         // Get responder address from properties file (may be null)
         final String sResponderAddress = AS4Configuration.getThisEndpointAddress ();
 
-        aPMode = m_aPModeResolver.getPModeOfID (sPModeID,
-                                                aCollaborationInfo.getService ().getValue (),
-                                                aCollaborationInfo.getAction (),
-                                                sInitiatorID,
-                                                sResponderID,
-                                                sAgreementRef,
-                                                sResponderAddress);
+        // Reuse the PMode resolved in the early stage
+        aPMode = aEarlyPMode != null ? aEarlyPMode
+                                     : m_aPModeResolver.getPModeOfID (sPModeID,
+                                                                      aCollaborationInfo.getService ().getValue (),
+                                                                      aCollaborationInfo.getAction (),
+                                                                      sInitiatorID,
+                                                                      sResponderID,
+                                                                      sAgreementRef,
+                                                                      sResponderAddress);
 
         // Should be screened by the XSD conversion already
         if (aPMode == null)
@@ -564,6 +658,18 @@ public class SOAPHeaderElementProcessorExtractEbms3Messaging implements ISOAPHea
           }
         }
 
+        if (aPMode == null)
+        {
+          // Use the PMode of the messages in the built-in MPC queue
+          final String sPModeID = MetaAS4Manager.getMPCQueueMgr ().getPModeIDOfMPC (sMPC);
+          if (sPModeID != null)
+          {
+            aPMode = MetaAS4Manager.getPModeMgr ().getPModeOfID (sPModeID);
+            if (aPMode != null)
+              LOGGER.info ("Using PMode '" + sPModeID + "' of the MPC queue for MPC '" + sMPC + "'");
+          }
+        }
+
         if (aPMode == null)
         {
           LOGGER.error ("Failed to resolve PMode for PullRequest with MPC '" + sMPC + "'");
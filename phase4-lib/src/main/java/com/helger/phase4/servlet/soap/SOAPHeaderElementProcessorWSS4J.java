@@ -28,6 +28,7 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.xml.namespace.QName;
 
+import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.util.AttachmentUtils;
 import org.apache.wss4j.dom.WSConstants;
@@ -60,6 +61,8 @@ import com.helger.phase4.crypto.ECryptoAlgorithmSignDigest;
 import com.helger.phase4.crypto.IAS4CryptoFactory;
 import com.helger.phase4.ebms3header.Ebms3UserMessage;
 import com.helger.phase4.error.EEbmsError;
+import com.helger.phase4.jfr.AS4JFR;
+import com.helger.phase4.jfr.AS4VerifyDecryptEvent;
 import com.helger.phase4.model.pmode.IPMode;
 import com.helger.phase4.model.pmode.leg.PModeLeg;
 import com.helger.phase4.servlet.AS4MessageState;
@@ -117,8 +120,11 @@ public class SOAPHeaderElementProcessorWSS4J implements ISOAPHeaderElementProces
       aRequestData.setCallbackHandler (aKeyStoreCallback);
       if (aAttachments.isNotEmpty ())
         aRequestData.setAttachmentCallbackHandler (aAttachmentCallbackHandler);
-      aRequestData.setSigVerCrypto (m_aCryptoFactory.getCrypto ());
-      aRequestData.setDecCrypto (m_aCryptoFactory.getCrypto ());
+      // Use the same key material for the whole message, even if it is
+      // reloaded in between
+      final Crypto aCrypto = m_aCryptoFactory.getCrypto ();
+      aRequestData.setSigVerCrypto (aCrypto);
+      aRequestData.setDecCrypto (aCrypto);
       aRequestData.setWssConfig (aWSSConfig);
 
       // Upon success, the SOAP document contains the decrypted content
@@ -394,20 +400,42 @@ public class SOAPHeaderElementProcessorWSS4J implements ISOAPHeaderElementProces
         }
       }
 
-      final ESuccess eSuccess;
-      if (AS4Configuration.isWSS4JSynchronizedSecurity ())
+      final AS4VerifyDecryptEvent aEvent = AS4JFR.isAvailable () ? new AS4VerifyDecryptEvent () : null;
+      if (aEvent != null)
+        aEvent.begin ();
+      ESuccess eSuccess = ESuccess.FAILURE;
+      try
       {
-        // Use static WSSConfig creation
-        eSuccess = WSSSynchronizer.call ( () -> _verifyAndDecrypt (aSOAPDoc,
-                                                                   aAttachments,
-                                                                   aState,
-                                                                   aErrorList,
-                                                                   WSSConfigManager::createStaticWSSConfig));
+        if (AS4Configuration.isWSS4JSynchronizedSecurity ())
+        {
+          // Use static WSSConfig creation
+          eSuccess = WSSSynchronizer.call ( () -> _verifyAndDecrypt (aSOAPDoc,
+                                                                     aAttachments,
+                                                                     aState,
+                                                                     aErrorList,
+                                                                     WSSConfigManager::createStaticWSSConfig));
+        }
+        else
+        {
+          // Use instance WSSConfig creation
+          eSuccess = _verifyAndDecrypt (aSOAPDoc, aAttachments, aState, aErrorList, WSSConfigManager.getInstance ()::createWSSConfig);
+        }
       }
-      else
+      finally
       {
-        // Use instance WSSConfig creation
-        eSuccess = _verifyAndDecrypt (aSOAPDoc, aAttachments, aState, aErrorList, WSSConfigManager.getInstance ()::createWSSConfig);
+        if (aEvent != null)
+        {
+          aEvent.end ();
+          if (aEvent.shouldCommit ())
+          {
+            aEvent.m_sMessageID = aState.getMessageID ();
+            aEvent.m_nAttachmentCount = aAttachments.size ();
+            aEvent.m_bSignatureVerified = aState.isSoapSignatureChecked ();
+            aEvent.m_bDecrypted = aState.isSoapDecrypted ();
+            aEvent.m_bSuccess = eSuccess.isSuccess ();
+            aEvent.commit ();
+          }
+        }
       }
       if (eSuccess.isFailure ())
         return ESuccess.FAILURE;
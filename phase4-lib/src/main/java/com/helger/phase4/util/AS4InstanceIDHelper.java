@@ -0,0 +1,66 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.util;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.concurrent.SimpleLock;
+
+/**
+ * Assigns unique IDs to objects that have no natural identity, e.g. to use
+ * them as part of a cache key. In contrast to
+ * {@link System#identityHashCode(Object)} the IDs are never reused within a
+ * JVM. The objects are only weakly referenced and are compared with
+ * {@link Object#equals(Object)}.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@ThreadSafe
+public final class AS4InstanceIDHelper
+{
+  private static final AtomicLong NEXT_ID = new AtomicLong (1);
+  private static final SimpleLock LOCK = new SimpleLock ();
+  @GuardedBy ("LOCK")
+  private static final Map <Object, Long> IDS = new WeakHashMap <> ();
+
+  private AS4InstanceIDHelper ()
+  {}
+
+  /**
+   * Get the unique ID of the provided object. The same object always gets the
+   * same ID.
+   *
+   * @param aObject
+   *        The object to get the ID of. May not be <code>null</code>.
+   * @return The unique ID. Always &gt; 0.
+   */
+  @Nonnegative
+  public static long getInstanceID (@Nonnull final Object aObject)
+  {
+    ValueEnforcer.notNull (aObject, "Object");
+    return LOCK.lockedGet ( () -> IDS.computeIfAbsent (aObject, k -> Long.valueOf (NEXT_ID.getAndIncrement ()))).longValue ();
+  }
+}
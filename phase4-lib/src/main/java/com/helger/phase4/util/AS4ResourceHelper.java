@@ -40,6 +40,8 @@ import com.helger.commons.io.file.FileHelper;
 import com.helger.commons.io.file.FileIOError;
 import com.helger.commons.io.stream.StreamHelper;
 import com.helger.phase4.CAS4;
+import com.helger.phase4.jfr.AS4JFR;
+import com.helger.phase4.jfr.AS4TempFileEvent;
 
 /**
  * A resource manager that keeps track of temporary files and other closables
@@ -106,10 +108,24 @@ public class AS4ResourceHelper implements Closeable
     if (m_aInClose.get ())
       throw new IllegalStateException ("ResourceManager is already closing/closed!");
 
+    final AS4TempFileEvent aEvent = AS4JFR.isAvailable () ? new AS4TempFileEvent () : null;
+    if (aEvent != null)
+      aEvent.begin ();
+
     // Create
     final File ret = File.createTempFile ("phase4-res-", ".tmp", s_aTempDir);
     // And remember
     m_aRWLock.writeLockedBoolean ( () -> m_aTempFiles.add (ret));
+
+    if (aEvent != null)
+    {
+      aEvent.end ();
+      if (aEvent.shouldCommit ())
+      {
+        aEvent.m_sPath = ret.getAbsolutePath ();
+        aEvent.commit ();
+      }
+    }
     return ret;
   }
 
@@ -223,6 +239,10 @@ public class AS4ResourceHelper implements Closeable
     if (aSrcEntity.isRepeatable ())
       return aSrcEntity;
 
+    final AS4TempFileEvent aEvent = AS4JFR.isAvailable () ? new AS4TempFileEvent () : null;
+    if (aEvent != null)
+      aEvent.begin ();
+
     // First serialize the content once to a file, so that a repeatable entity
     // can be created
     final File aTempFile = createTempFile ();
@@ -234,6 +254,17 @@ public class AS4ResourceHelper implements Closeable
       aSrcEntity.writeTo (aOS);
     }
 
+    if (aEvent != null)
+    {
+      aEvent.end ();
+      if (aEvent.shouldCommit ())
+      {
+        aEvent.m_sPath = aTempFile.getAbsolutePath ();
+        aEvent.m_nSize = aTempFile.length ();
+        aEvent.commit ();
+      }
+    }
+
     // Than use the FileEntity as the basis
     final FileEntity aRepeatableEntity = new FileEntity (aTempFile);
     aRepeatableEntity.setContentType (aSrcEntity.getContentType ());
@@ -0,0 +1,121 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Test;
+
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.phase4.util.Phase4Exception;
+
+/**
+ * Test class for class {@link AS4ParsingResponseHandler}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4ParsingResponseHandlerTest
+{
+  @Nonnull
+  private static HttpResponse _createResponse (final int nStatusCode, @Nullable final String sBody)
+  {
+    final BasicHttpResponse ret = new BasicHttpResponse (HttpVersion.HTTP_1_1, nStatusCode, null);
+    if (sBody != null)
+      ret.setEntity (new ByteArrayEntity (sBody.getBytes (StandardCharsets.UTF_8)));
+    return ret;
+  }
+
+  @Test
+  public void testParse () throws Exception
+  {
+    final AS4ParsingResponseHandler <String> aHdl = new AS4ParsingResponseHandler <> ( (r,
+                                                                                         is) -> StreamHelper.getAllBytesAsString (is,
+                                                                                                                                  StandardCharsets.UTF_8));
+    assertEquals ("<signal/>", aHdl.handleResponse (_createResponse (200, "<signal/>")));
+    assertFalse (aHdl.isResponseEmpty ());
+    assertNull (aHdl.getParseException ());
+    aHdl.checkParseException ();
+
+    // Parser is not invoked for empty responses
+    assertNull (aHdl.handleResponse (_createResponse (200, "")));
+    assertTrue (aHdl.isResponseEmpty ());
+    assertNull (aHdl.handleResponse (_createResponse (204, null)));
+    assertTrue (aHdl.isResponseEmpty ());
+  }
+
+  @Test
+  public void testParseException () throws Exception
+  {
+    final Phase4Exception aEx = new Phase4Exception ("Invalid signal");
+    final AS4ParsingResponseHandler <String> aHdl = new AS4ParsingResponseHandler <> ( (r, is) -> {
+      StreamHelper.close (is);
+      throw aEx;
+    });
+    // Not propagated as IOException, to avoid a retry
+    assertNull (aHdl.handleResponse (_createResponse (200, "<bla/>")));
+    assertFalse (aHdl.isResponseEmpty ());
+    assertSame (aEx, aHdl.getParseException ());
+    try
+    {
+      aHdl.checkParseException ();
+      fail ();
+    }
+    catch (final Phase4Exception ex)
+    {
+      assertSame (aEx, ex);
+    }
+
+    // Reset with the next response
+    assertNull (aHdl.handleResponse (_createResponse (200, null)));
+    assertNull (aHdl.getParseException ());
+  }
+
+  @Test
+  public void testHttpError ()
+  {
+    final AS4ParsingResponseHandler <String> aHdl = new AS4ParsingResponseHandler <> ( (r, is) -> {
+      fail ("Must not be parsed");
+      return null;
+    });
+    try
+    {
+      aHdl.handleResponse (_createResponse (500, "Internal error"));
+      fail ();
+    }
+    catch (final IOException ex)
+    {
+      // Expected - HTTP errors are retried
+      assertNotNull (ex.getMessage ());
+    }
+  }
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.Test;
+
+/**
+ * Test class for class {@link AS4CertificateInternPool}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4CertificateInternPoolTest
+{
+  @Nonnull
+  private static X509Certificate _createCert (@Nonnull final String sCN) throws Exception
+  {
+    final KeyPairGenerator aKPG = KeyPairGenerator.getInstance ("RSA");
+    aKPG.initialize (2048);
+    final KeyPair aKP = aKPG.generateKeyPair ();
+    final long nNow = System.currentTimeMillis ();
+    final X500Name aName = new X500Name ("CN=" + sCN);
+    final JcaX509v3CertificateBuilder aBuilder = new JcaX509v3CertificateBuilder (aName,
+                                                                                  BigInteger.valueOf (nNow),
+                                                                                  new Date (nNow - 60_000),
+                                                                                  new Date (nNow + 3_600_000),
+                                                                                  aName,
+                                                                                  aKP.getPublic ());
+    return new JcaX509CertificateConverter ().getCertificate (aBuilder.build (new JcaContentSignerBuilder ("SHA256withRSA").build (aKP.getPrivate ())));
+  }
+
+  @Test
+  public void testIntern () throws Exception
+  {
+    final AS4CertificateInternPool aPool = new AS4CertificateInternPool (10);
+    assertNull (aPool.intern ((String) null));
+    assertNull (aPool.intern ((byte []) null));
+    assertNull (aPool.intern ((X509Certificate) null));
+
+    final X509Certificate aCert = _createCert ("intern1");
+    final String sCert = Base64.getEncoder ().encodeToString (aCert.getEncoded ());
+
+    final AS4InternedCertificate e1 = aPool.intern (sCert);
+    assertNotNull (e1);
+    assertEquals (aCert, e1.getCertificate ());
+    assertEquals (1, aPool.getMissCount ());
+
+    // Same string, same bytes and same certificate all share one entry
+    assertSame (e1, aPool.intern (sCert));
+    assertSame (e1, aPool.intern (aCert.getEncoded ()));
+    assertSame (e1, aPool.intern (aCert));
+    assertSame (e1, aPool.intern (new String (sCert)));
+    assertEquals (1, aPool.size ());
+    assertEquals (4, aPool.getHitCount ());
+
+    final AS4InternedCertificate e2 = aPool.intern (_createCert ("intern2"));
+    assertNotSame (e1, e2);
+    assertEquals (2, aPool.size ());
+
+    final String sURL = "https://ap.example.org/as4";
+    assertSame (sURL, aPool.internEndpointURL (sURL));
+    assertSame (sURL, aPool.internEndpointURL (new String (sURL)));
+
+    aPool.clear ();
+    assertEquals (0, aPool.size ());
+  }
+
+  @Test
+  public void testCachedCheckResult () throws Exception
+  {
+    final AS4InternedCertificate aEntry = new AS4CertificateInternPool (10).intern (_createCert ("check"));
+    final AtomicInteger aCount = new AtomicInteger ();
+
+    assertEquals ("ok", aEntry.getCachedCheckResult ("a", Duration.ofMinutes (1), () -> aCount.incrementAndGet () > 0 ? "ok" : "x"));
+    assertEquals ("ok", aEntry.getCachedCheckResult ("a", Duration.ofMinutes (1), () -> aCount.incrementAndGet () > 0 ? "ok" : "x"));
+    assertEquals (1, aCount.get ());
+
+    // Non cacheable results are evaluated every time
+    aEntry.getCachedCheckResult ("b", Duration.ofMinutes (1), aCount::incrementAndGet, x -> false);
+    aEntry.getCachedCheckResult ("b", Duration.ofMinutes (1), aCount::incrementAndGet, x -> false);
+    assertEquals (3, aCount.get ());
+
+    // Zero TTL
+    aEntry.getCachedCheckResult ("c", Duration.ZERO, aCount::incrementAndGet);
+    aEntry.getCachedCheckResult ("c", Duration.ZERO, aCount::incrementAndGet);
+    assertEquals (5, aCount.get ());
+  }
+}
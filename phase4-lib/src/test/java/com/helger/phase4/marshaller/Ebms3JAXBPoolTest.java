@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.marshaller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+import org.w3c.dom.Element;
+
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.jaxb.validation.CollectingValidationEventHandler;
+import com.helger.phase4.ebms3header.Ebms3Messaging;
+import com.helger.phase4.soap11.Soap11Envelope;
+
+/**
+ * Test class for class {@link Ebms3JAXBPool}.
+ *
+ * @author Philip Helger
+ */
+public final class Ebms3JAXBPoolTest
+{
+  @Nonnull
+  private static Element _getInvalidMessaging ()
+  {
+    // The Messaging element misses the message ID
+    final Soap11Envelope aEnv = Ebms3ReaderBuilder.soap11 ().read (new ClassPathResource ("/soap11test/MessageInfoIDMissing.xml"));
+    assertNotNull (aEnv);
+    return (Element) aEnv.getHeader ().getAnyAtIndex (0);
+  }
+
+  @Test
+  public void testReadReuse ()
+  {
+    Ebms3JAXBPool.warmUp ();
+    assertTrue (Ebms3JAXBPool.getIdleUnmarshallerCount (EEbms3DocumentType.MESSAGING) > 0);
+    assertTrue (Ebms3JAXBPool.getIdleMarshallerCount (EEbms3DocumentType.MESSAGING) > 0);
+
+    for (int i = 0; i < 3; ++i)
+    {
+      // Invalid message - error must be reported to the current handler only
+      final CollectingValidationEventHandler aCVEH1 = new CollectingValidationEventHandler ();
+      assertNull (Ebms3ReaderBuilder.ebms3Messaging ()
+                                    .setValidationEventHandler (aCVEH1)
+                                    .read (_getInvalidMessaging ()));
+      assertTrue (aCVEH1.getErrorList ().containsAtLeastOneError ());
+      final int nErrors = aCVEH1.getErrorList ().size ();
+
+      final CollectingValidationEventHandler aCVEH2 = new CollectingValidationEventHandler ();
+      final Ebms3Messaging aMessaging = Ebms3ReaderBuilder.ebms3Messaging ()
+                                                          .setValidationEventHandler (aCVEH2)
+                                                          .read (new ClassPathResource ("/soap11test/UserMessage-no-soap.xml"));
+      assertNotNull (aMessaging);
+      assertTrue (aCVEH2.getErrorList ().isEmpty ());
+      assertEquals (nErrors, aCVEH1.getErrorList ().size ());
+    }
+
+    // Only returned if successful
+    assertTrue (Ebms3JAXBPool.getIdleUnmarshallerCount (EEbms3DocumentType.MESSAGING) > 0);
+  }
+
+  @Test
+  public void testReadWithoutSchema ()
+  {
+    // Schema violations are not detected without schema
+    final CollectingValidationEventHandler aCVEH = new CollectingValidationEventHandler ();
+    assertNotNull (Ebms3ReaderBuilder.ebms3Messaging ()
+                                     .setValidationEventHandler (aCVEH)
+                                     .setUseSchema (false)
+                                     .read (_getInvalidMessaging ()));
+    assertTrue (aCVEH.getErrorList ().isEmpty ());
+
+    // And the pooled unmarshaller validates again afterwards
+    assertNull (Ebms3ReaderBuilder.ebms3Messaging ()
+                                  .setValidationEventHandler (aCVEH)
+                                  .read (_getInvalidMessaging ()));
+    assertFalse (aCVEH.getErrorList ().isEmpty ());
+  }
+
+  @Test
+  public void testWriteReuse ()
+  {
+    final Ebms3Messaging aMessaging = Ebms3ReaderBuilder.ebms3Messaging ()
+                                                        .read (new ClassPathResource ("/soap11test/UserMessage-no-soap.xml"));
+    assertNotNull (aMessaging);
+
+    // Properties of the previous use must not leak
+    final String sFormatted = Ebms3WriterBuilder.ebms3Messaging ().setFormattedOutput (true).getAsString (aMessaging);
+    final String sUnformatted = Ebms3WriterBuilder.ebms3Messaging ().getAsString (aMessaging);
+    assertNotNull (sFormatted);
+    assertNotNull (sUnformatted);
+    assertTrue (sFormatted.length () > sUnformatted.length ());
+    assertEquals (sUnformatted, Ebms3WriterBuilder.ebms3Messaging ().setUseSchema (false).getAsString (aMessaging));
+    assertEquals (sFormatted, Ebms3WriterBuilder.ebms3Messaging ().setFormattedOutput (true).getAsString (aMessaging));
+  }
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.messaging.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.phase4.AS4TestRule;
+import com.helger.phase4.CAS4;
+import com.helger.phase4.ebms3header.Ebms3Messaging;
+import com.helger.phase4.ebms3header.Ebms3UserMessage;
+import com.helger.phase4.marshaller.Ebms3ReaderBuilder;
+import com.helger.phase4.soap.ESoapVersion;
+import com.helger.xml.serialize.read.DOMReader;
+import com.helger.xml.serialize.write.XMLWriter;
+
+/**
+ * Test class for class {@link AS4ReceiptTemplate}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4ReceiptTemplateTest
+{
+  @Rule
+  public final TestRule m_aTestRule = new AS4TestRule ();
+
+  @Nonnull
+  private static String _getSource ()
+  {
+    return StreamHelper.getAllBytesAsString (new ClassPathResource ("/soap12test/SignedUserMessage12.xml"), StandardCharsets.UTF_8);
+  }
+
+  private static void _assertEquivalent (@Nonnull final Document aSrc, @Nullable final Ebms3UserMessage aUserMessage)
+  {
+    final ICommonsList <Node> aDSRefs = AS4ReceiptMessage.getAllDSReferences (aSrc);
+    assertEquals (2, aDSRefs.size ());
+
+    for (final ESoapVersion eSoapVersion : ESoapVersion.values ())
+    {
+      // The regular JAXB way
+      final AS4ReceiptMessage aReceipt = AS4ReceiptMessage.create (eSoapVersion, "receipt-id", aUserMessage, aSrc, true)
+                                                          .setMustUnderstand (true);
+      final Document aExpected = aReceipt.getAsSoapDocument ();
+
+      // The template way with the same variable values
+      final Document aActual = AS4ReceiptTemplate.getInstance (eSoapVersion)
+                                                 .createSoapDocument (aReceipt.getMessagingID (),
+                                                                      "receipt-id",
+                                                                      aUserMessage == null ? null
+                                                                                           : aUserMessage.getMessageInfo ()
+                                                                                                         .getMessageId (),
+                                                                      aReceipt.getEbms3SignalMessage ().getMessageInfo ().getTimestamp (),
+                                                                      aDSRefs);
+      assertNotNull (aActual);
+      assertEquals (XMLWriter.getNodeAsString (aExpected), XMLWriter.getNodeAsString (aActual));
+    }
+  }
+
+  @Test
+  public void testEquivalentToJAXB ()
+  {
+    final Document aSrc = DOMReader.readXMLDOM (_getSource ());
+    assertNotNull (aSrc);
+
+    // Without RefToMessageId
+    _assertEquivalent (aSrc, null);
+
+    // With RefToMessageId
+    final Element aMessagingElement = (Element) aSrc.getElementsByTagNameNS (CAS4.EBMS_NS, "Messaging").item (0);
+    final Ebms3Messaging aMessaging = Ebms3ReaderBuilder.ebms3Messaging ().read (aMessagingElement);
+    assertNotNull (aMessaging);
+    _assertEquivalent (aSrc, aMessaging.getUserMessageAtIndex (0));
+  }
+
+  @Test
+  public void testEquivalentToJAXBOtherPrefix ()
+  {
+    // Different prefix and namespace declared on the root only
+    final String sSource = _getSource ().replace (" xmlns:ds=\"" + CAS4.DS_NS + "\"", "")
+                                        .replace (" xmlns:ec=\"http://www.w3.org/2001/10/xml-exc-c14n#\"", "")
+                                        .replace ("<S12:Envelope ",
+                                                  "<S12:Envelope xmlns:sig=\"" +
+                                                                    CAS4.DS_NS +
+                                                                    "\" xmlns:ec=\"http://www.w3.org/2001/10/xml-exc-c14n#\" ")
+                                        .replace ("ds:", "sig:");
+    final Document aSrc = DOMReader.readXMLDOM (sSource);
+    assertNotNull (aSrc);
+    _assertEquivalent (aSrc, null);
+  }
+
+  @Test
+  public void testInvalidReference ()
+  {
+    final String sSource = _getSource ().replace ("<ds:DigestValue>ypeBEsobvcr6wjGzmiPcTaeG7/gUfE5yuYB3ha/uSLs=</ds:DigestValue>", "");
+    final Document aSrc = DOMReader.readXMLDOM (sSource);
+    assertNotNull (aSrc);
+
+    final ICommonsList <Node> aDSRefs = AS4ReceiptMessage.getAllDSReferences (aSrc);
+    assertTrue (aDSRefs.isNotEmpty ());
+    assertNull (AS4ReceiptTemplate.getInstance (ESoapVersion.SOAP_12)
+                                  .createSoapDocument ("messaging-id",
+                                                       "receipt-id",
+                                                       null,
+                                                       MessageHelperMethods.createEbms3MessageInfo ("x").getTimestamp (),
+                                                       aDSRefs));
+  }
+}
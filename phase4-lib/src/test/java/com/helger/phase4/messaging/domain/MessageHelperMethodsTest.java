@@ -28,6 +28,9 @@ import com.helger.commons.collection.impl.CommonsHashSet;
 import com.helger.commons.collection.impl.ICommonsSet;
 import com.helger.commons.string.StringHelper;
 import com.helger.phase4.CAS4;
+import com.helger.phase4.messaging.id.AS4RandomUUIDMessageIDGenerator;
+import com.helger.phase4.messaging.id.AS4TimeOrderedMessageIDGenerator;
+import com.helger.phase4.messaging.id.IAS4MessageIDGeneratorSPI;
 
 /**
  * Test class for class {@link MessageHelperMethods}.
@@ -127,4 +130,24 @@ public final class MessageHelperMethodsTest
     // At the end
     assertNull (MessageHelperMethods.getCustomMessageIDSuffix ());
   }
+
+  @Test
+  public void testMessageIDGenerator ()
+  {
+    final IAS4MessageIDGeneratorSPI aOld = MessageHelperMethods.getMessageIDGenerator ();
+    assertTrue (aOld instanceof AS4RandomUUIDMessageIDGenerator);
+
+    MessageHelperMethods.setMessageIDGenerator (new AS4TimeOrderedMessageIDGenerator ());
+    try
+    {
+      final String sMessageID = MessageHelperMethods.createRandomMessageID ();
+      assertTrue (sMessageID.endsWith ("@" + CAS4.LIB_NAME));
+      // Version 7 UUID
+      assertEquals ('7', sMessageID.charAt (14));
+    }
+    finally
+    {
+      MessageHelperMethods.setMessageIDGenerator (aOld);
+    }
+  }
 }
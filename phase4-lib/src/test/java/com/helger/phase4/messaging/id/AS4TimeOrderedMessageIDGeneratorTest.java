@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.messaging.id;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Test class for class {@link AS4TimeOrderedMessageIDGenerator}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4TimeOrderedMessageIDGeneratorTest
+{
+  @Test
+  public void testLayout ()
+  {
+    final long nBefore = System.currentTimeMillis ();
+    final UUID aUUID = AS4TimeOrderedMessageIDGenerator.createUUID ();
+    assertEquals (7, aUUID.version ());
+    assertEquals (2, aUUID.variant ());
+    // May be ahead of the clock, if the sequence of this thread overflowed
+    final long nMillis = aUUID.getMostSignificantBits () >>> 16;
+    assertTrue (nMillis >= nBefore);
+  }
+
+  @Test
+  public void testMonotonicPerThread ()
+  {
+    // More than the sequence can hold within one millisecond
+    UUID aPrev = AS4TimeOrderedMessageIDGenerator.createUUID ();
+    for (int i = 0; i < 100_000; ++i)
+    {
+      final UUID aCur = AS4TimeOrderedMessageIDGenerator.createUUID ();
+      assertTrue (Long.compareUnsigned (aCur.getMostSignificantBits (), aPrev.getMostSignificantBits ()) > 0);
+      // The string representation is ordered as well
+      assertTrue (aCur.toString ().compareTo (aPrev.toString ()) > 0);
+      aPrev = aCur;
+    }
+  }
+
+  @Test
+  public void testUniqueAcrossThreads () throws InterruptedException
+  {
+    final int nThreads = 8;
+    final int nPerThread = 50_000;
+    final IAS4MessageIDGeneratorSPI aGenerator = new AS4TimeOrderedMessageIDGenerator ();
+    final Set <String> aIDs = ConcurrentHashMap.newKeySet ();
+    final ExecutorService aES = Executors.newFixedThreadPool (nThreads);
+    for (int t = 0; t < nThreads; ++t)
+      aES.submit ( () -> {
+        for (int i = 0; i < nPerThread; ++i)
+          aIDs.add (aGenerator.createUniqueID ());
+      });
+    aES.shutdown ();
+    assertTrue (aES.awaitTermination (1, TimeUnit.MINUTES));
+    assertEquals (nThreads * nPerThread, aIDs.size ());
+  }
+}
@@ -0,0 +1,375 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.mpcqueue;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.concurrent.ThreadHelper;
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.commons.mime.CMimeType;
+import com.helger.phase4.attachment.Phase4OutgoingAttachment;
+import com.helger.phase4.ebms3header.Ebms3UserMessage;
+import com.helger.phase4.messaging.domain.MessageHelperMethods;
+
+/**
+ * Test class for class {@link AS4MPCQueueManager} and
+ * {@link AS4MPCQueueManagerInMemory}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4MPCQueueManagerTest
+{
+  private static final String MPC_A = "urn:mpc:a";
+  private static final String MPC_B = "urn:mpc:b";
+  private static final Duration LONG = Duration.ofMinutes (10);
+
+  @Nonnull
+  private static AS4MPCQueueMessage _createMsg (@Nonnull final String sMPCID,
+                                                @Nonnull final String sMessageID,
+                                                @Nullable final Phase4OutgoingAttachment aAttachment)
+  {
+    final Ebms3UserMessage aUserMsg = new Ebms3UserMessage ();
+    aUserMsg.setMpc (sMPCID);
+    aUserMsg.setMessageInfo (MessageHelperMethods.createEbms3MessageInfo (sMessageID, null));
+    aUserMsg.setPartyInfo (MessageHelperMethods.createEbms3PartyInfo ("role-from", "from", "role-to", "to"));
+    aUserMsg.setCollaborationInfo (MessageHelperMethods.createEbms3CollaborationInfo (null,
+                                                                                      null,
+                                                                                      null,
+                                                                                      "service",
+                                                                                      "action",
+                                                                                      "conversation"));
+    return new AS4MPCQueueMessage (sMPCID, "pmode-" + sMPCID, aUserMsg, aAttachment == null ? null : new CommonsArrayList <> (aAttachment));
+  }
+
+  private static void _testBasic (@Nonnull final IAS4MPCQueueManager aMgr)
+  {
+    assertTrue (aMgr.isEmpty ());
+    assertNull (aMgr.lease (MPC_A, LONG));
+    assertNull (aMgr.getPModeIDOfMPC (MPC_A));
+
+    for (int i = 0; i < 5; ++i)
+    {
+      assertTrue (aMgr.enqueue (_createMsg (MPC_A, "a" + i, null)).isChanged ());
+      assertTrue (aMgr.enqueue (_createMsg (MPC_B, "b" + i, null)).isChanged ());
+    }
+    // Duplicate message ID
+    assertFalse (aMgr.enqueue (_createMsg (MPC_B, "a0", null)).isChanged ());
+    assertEquals (10, aMgr.size ());
+    assertEquals (5, aMgr.getQueuedCount (MPC_A));
+    assertEquals ("pmode-" + MPC_A, aMgr.getPModeIDOfMPC (MPC_A));
+
+    // FIFO per MPC
+    for (int i = 0; i < 5; ++i)
+    {
+      final AS4MPCQueueLease aLease = aMgr.lease (MPC_A, LONG);
+      assertNotNull (aLease);
+      assertEquals ("a" + i, aLease.getMessage ().getMessageID ());
+      assertEquals (MPC_A, aLease.getMessage ().getUserMessage ().getMpc ());
+      assertEquals (1, aLease.getDeliveryCount ());
+    }
+    // All leased
+    assertNull (aMgr.lease (MPC_A, LONG));
+    assertEquals (5, aMgr.getQueuedCount (MPC_A));
+    // PMode is still known
+    assertEquals ("pmode-" + MPC_A, aMgr.getPModeIDOfMPC (MPC_A));
+
+    for (int i = 0; i < 5; ++i)
+      assertTrue (aMgr.acknowledge ("a" + i).isChanged ());
+    assertFalse (aMgr.acknowledge ("a0").isChanged ());
+    assertEquals (0, aMgr.getQueuedCount (MPC_A));
+    assertEquals (5, aMgr.getQueuedCount (MPC_B));
+  }
+
+  private static void _testRedelivery (@Nonnull final IAS4MPCQueueManager aMgr)
+  {
+    aMgr.enqueue (_createMsg (MPC_A, "r1", null));
+    aMgr.enqueue (_createMsg (MPC_A, "r2", null));
+
+    // Lease expires immediately
+    AS4MPCQueueLease aLease = aMgr.lease (MPC_A, Duration.ZERO);
+    assertEquals ("r1", aLease.getMessage ().getMessageID ());
+    assertFalse (aLease.isRedelivery ());
+
+    // Expired leases are returned at their original position
+    aLease = aMgr.lease (MPC_A, LONG);
+    assertEquals ("r1", aLease.getMessage ().getMessageID ());
+    assertEquals (2, aLease.getDeliveryCount ());
+    assertTrue (aLease.isRedelivery ());
+
+    aLease = aMgr.lease (MPC_A, LONG);
+    assertEquals ("r2", aLease.getMessage ().getMessageID ());
+    assertNull (aMgr.lease (MPC_A, LONG));
+
+    // Acknowledging an expired lease works as well
+    assertTrue (aMgr.acknowledge ("r1").isChanged ());
+    assertTrue (aMgr.acknowledge ("r2").isChanged ());
+    assertEquals (0, aMgr.getQueuedCount (MPC_A));
+  }
+
+  @Test
+  public void testInMemory ()
+  {
+    _testBasic (new AS4MPCQueueManagerInMemory ());
+    _testRedelivery (new AS4MPCQueueManagerInMemory ());
+  }
+
+  @Test
+  public void testMaxMessagesPerMPC ()
+  {
+    final AS4MPCQueueManagerInMemory aMgr = new AS4MPCQueueManagerInMemory (2);
+    assertTrue (aMgr.enqueue (_createMsg (MPC_A, "m1", null)).isChanged ());
+    assertTrue (aMgr.enqueue (_createMsg (MPC_A, "m2", null)).isChanged ());
+    assertFalse (aMgr.enqueue (_createMsg (MPC_A, "m3", null)).isChanged ());
+    // Other MPCs are not affected
+    assertTrue (aMgr.enqueue (_createMsg (MPC_B, "m3", null)).isChanged ());
+
+    // Leased messages still count
+    assertNotNull (aMgr.lease (MPC_A));
+    assertFalse (aMgr.enqueue (_createMsg (MPC_A, "m4", null)).isChanged ());
+    aMgr.acknowledge ("m1");
+    assertTrue (aMgr.enqueue (_createMsg (MPC_A, "m4", null)).isChanged ());
+  }
+
+  @Test
+  public void testAcknowledgeByLeaseOwner ()
+  {
+    final AS4MPCQueueManagerInMemory aMgr = new AS4MPCQueueManagerInMemory ();
+    assertTrue (aMgr.enqueue (_createMsg (MPC_A, "o1", null)).isChanged ());
+    assertTrue (aMgr.enqueue (_createMsg (MPC_A, "o2", null)).isChanged ());
+
+    // Never leased
+    assertFalse (aMgr.acknowledge ("o1", "party-a").isChanged ());
+
+    assertEquals ("o1", aMgr.lease (MPC_A, "party-a", Duration.ZERO).getMessage ().getMessageID ());
+    // Another party may not acknowledge it
+    assertFalse (aMgr.acknowledge ("o1", "party-b").isChanged ());
+    assertFalse (aMgr.acknowledge ("o1", null).isChanged ());
+
+    // The expired lease is taken over by another party
+    assertEquals ("o1", aMgr.lease (MPC_A, "party-b", LONG).getMessage ().getMessageID ());
+    assertFalse (aMgr.acknowledge ("o1", "party-a").isChanged ());
+    assertTrue (aMgr.acknowledge ("o1", "party-b").isChanged ());
+    assertFalse (aMgr.acknowledge ("o1", "party-b").isChanged ());
+
+    // Unknown parties match each other
+    assertEquals ("o2", aMgr.lease (MPC_A, LONG).getMessage ().getMessageID ());
+    assertFalse (aMgr.acknowledge ("o2", "party-a").isChanged ());
+    assertTrue (aMgr.acknowledge ("o2", null).isChanged ());
+    assertTrue (aMgr.isEmpty ());
+  }
+
+  @Test
+  public void testPersistent () throws Exception
+  {
+    final File aDir = new File ("target/mpc-queue-test");
+    final FileOperationManager aFOM = new FileOperationManager ();
+    aFOM.deleteDirRecursiveIfExisting (aDir);
+
+    final byte [] aData = "<payload>Hello</payload>".getBytes (StandardCharsets.UTF_8);
+    final Phase4OutgoingAttachment aAttachment = Phase4OutgoingAttachment.builder ()
+                                                                         .data (aData)
+                                                                         .contentID ("cid-1")
+                                                                         .mimeType (CMimeType.APPLICATION_XML)
+                                                                         .compressionGZIP ()
+                                                                         .charset (StandardCharsets.UTF_8)
+                                                                         .build ();
+    try
+    {
+      try (final AS4MPCQueueManager aMgr = new AS4MPCQueueManager (aDir))
+      {
+        _testBasic (aMgr);
+        _testRedelivery (aMgr);
+        assertTrue (aMgr.enqueue (_createMsg (MPC_A, "att", aAttachment)).isChanged ());
+        // Leased but not acknowledged
+        assertNotNull (aMgr.lease (MPC_B));
+      }
+
+      // Restore everything that was not acknowledged
+      try (final AS4MPCQueueManager aMgr = new AS4MPCQueueManager (aDir))
+      {
+        assertEquals (6, aMgr.size ());
+        assertEquals (1, aMgr.getQueuedCount (MPC_A));
+        assertEquals (5, aMgr.getQueuedCount (MPC_B));
+
+        final AS4MPCQueueLease aLease = aMgr.lease (MPC_A);
+        assertNotNull (aLease);
+        final AS4MPCQueueMessage aMsg = aLease.getMessage ();
+        assertEquals ("att", aMsg.getMessageID ());
+        assertEquals ("pmode-" + MPC_A, aMsg.getPModeID ());
+        assertEquals (1, aMsg.getAllAttachments ().size ());
+        final Phase4OutgoingAttachment aRead = aMsg.getAllAttachments ().getFirst ();
+        assertArrayEquals (aData, aRead.getDataBytes ().getAllBytes ());
+        assertEquals ("cid-1", aRead.getContentID ());
+        assertEquals (CMimeType.APPLICATION_XML.getAsString (), aRead.getMimeType ().getAsString ());
+        assertEquals (aAttachment.getCompressionMode (), aRead.getCompressionMode ());
+        assertEquals (StandardCharsets.UTF_8, aRead.getCharset ());
+
+        // The leased message of MPC B is delivered again in order
+        for (int i = 0; i < 5; ++i)
+          assertEquals ("b" + i, aMgr.lease (MPC_B).getMessage ().getMessageID ());
+        assertTrue (aMgr.acknowledge ("att").isChanged ());
+      }
+
+      try (final AS4MPCQueueManager aMgr = new AS4MPCQueueManager (aDir))
+      {
+        assertEquals (5, aMgr.size ());
+        assertEquals (0, aMgr.getQueuedCount (MPC_A));
+      }
+    }
+    finally
+    {
+      aFOM.deleteDirRecursiveIfExisting (aDir);
+    }
+  }
+
+  @Test
+  public void testAwaitMessage () throws Exception
+  {
+    final AS4MPCQueueManagerInMemory aMgr = new AS4MPCQueueManagerInMemory ();
+
+    // Nothing arrives
+    final CountDownLatch aTimedOut = new CountDownLatch (1);
+    final long nStart = System.nanoTime ();
+    assertTrue (aMgr.awaitMessage (MPC_A, Duration.ofMillis (100), aTimedOut::countDown));
+    assertTrue (aTimedOut.await (30, TimeUnit.SECONDS));
+    assertTrue (System.nanoTime () - nStart >= Duration.ofMillis (100).toNanos ());
+    // The channel that was only created for waiting is gone
+    assertEquals (0, aMgr.getChannelCount ());
+
+    // A message arrives while waiting - the callback runs in the enqueuing
+    // thread
+    final AtomicInteger aCalls = new AtomicInteger (0);
+    assertTrue (aMgr.awaitMessage (MPC_A, Duration.ofSeconds (30), aCalls::incrementAndGet));
+    assertTrue (aMgr.awaitMessage (MPC_A, Duration.ofSeconds (30), aCalls::incrementAndGet));
+    assertEquals (0, aCalls.get ());
+    aMgr.enqueue (_createMsg (MPC_A, "a0", null));
+    // Only one waiter per message
+    assertEquals (1, aCalls.get ());
+    aMgr.enqueue (_createMsg (MPC_A, "a1", null));
+    assertEquals (2, aCalls.get ());
+
+    // A message is visible - no need to wait
+    assertFalse (aMgr.awaitMessage (MPC_A, Duration.ofSeconds (30), aCalls::incrementAndGet));
+
+    // The expired lease ends the wait
+    assertEquals ("a0", aMgr.lease (MPC_A, Duration.ofMillis (200)).getMessage ().getMessageID ());
+    assertEquals ("a1", aMgr.lease (MPC_A, LONG).getMessage ().getMessageID ());
+    final CountDownLatch aExpired = new CountDownLatch (1);
+    assertTrue (aMgr.awaitMessage (MPC_A, Duration.ofSeconds (30), aExpired::countDown));
+    assertTrue (aExpired.await (10, TimeUnit.SECONDS));
+    final AS4MPCQueueLease aRedelivery = aMgr.lease (MPC_A, LONG);
+    assertNotNull (aRedelivery);
+    assertTrue (aRedelivery.isRedelivery ());
+    assertEquals (2, aCalls.get ());
+
+    // Waiting disabled
+    aMgr.setMaxWaitingLeases (0);
+    assertFalse (aMgr.awaitMessage (MPC_B, Duration.ofSeconds (30), aCalls::incrementAndGet));
+    assertFalse (aMgr.awaitMessage (MPC_B, Duration.ZERO, aCalls::incrementAndGet));
+  }
+
+  @Test
+  public void testChannelsAreBounded ()
+  {
+    final AS4MPCQueueManagerInMemory aMgr = new AS4MPCQueueManagerInMemory ();
+    aMgr.setMaxWaitingLeases (10);
+
+    // Waiting for arbitrary MPCs does not create unlimited channels
+    for (int i = 0; i < 100; ++i)
+      aMgr.awaitMessage ("urn:mpc:random" + i, Duration.ofMinutes (1), () -> {});
+    assertEquals (10, aMgr.getChannelCount ());
+
+    // Leasing from unknown MPCs creates no channel
+    for (int i = 0; i < 100; ++i)
+      assertNull (aMgr.lease ("urn:mpc:other" + i, LONG));
+    assertEquals (10, aMgr.getChannelCount ());
+  }
+
+  @Test
+  public void testReadErrorKeepsMessage () throws Exception
+  {
+    final File aDir = new File ("target/mpc-queue-read-error-test");
+    final FileOperationManager aFOM = new FileOperationManager ();
+    aFOM.deleteDirRecursiveIfExisting (aDir);
+
+    final AtomicBoolean aFailRead = new AtomicBoolean (true);
+    try
+    {
+      try (final AS4MPCQueueManager aMgr = new AS4MPCQueueManager (aDir)
+      {
+        @Override
+        protected AS4MPCQueueMessage readMessage (@Nonnull final QueueEntry aEntry)
+        {
+          // Simulate a transient read error
+          return aFailRead.get () ? null : super.readMessage (aEntry);
+        }
+      })
+      {
+        aMgr.setReadRetryDelay (Duration.ofMillis (200));
+        assertTrue (aMgr.enqueue (_createMsg (MPC_A, "e1", null)).isChanged ());
+        assertTrue (aMgr.enqueue (_createMsg (MPC_A, "e2", null)).isChanged ());
+
+        // Both messages are hidden for a while, but not discarded
+        assertNull (aMgr.lease (MPC_A, LONG));
+        assertEquals (2, aMgr.getQueuedCount (MPC_A));
+        assertNull (aMgr.lease (MPC_A, LONG));
+
+        // Readable again
+        aFailRead.set (false);
+        ThreadHelper.sleep (300);
+        final AS4MPCQueueLease aLease = aMgr.lease (MPC_A, LONG);
+        assertNotNull (aLease);
+        assertEquals ("e1", aLease.getMessage ().getMessageID ());
+        // It was never delivered before
+        assertFalse (aLease.isRedelivery ());
+        assertTrue (aMgr.acknowledge ("e1").isChanged ());
+      }
+
+      // The other message survived in the persistent store
+      try (final AS4MPCQueueManager aMgr = new AS4MPCQueueManager (aDir))
+      {
+        assertEquals (1, aMgr.getQueuedCount (MPC_A));
+        final AS4MPCQueueLease aLease = aMgr.lease (MPC_A, LONG);
+        assertNotNull (aLease);
+        assertEquals ("e2", aLease.getMessage ().getMessageID ());
+      }
+    }
+    finally
+    {
+      aFOM.deleteDirRecursiveIfExisting (aDir);
+    }
+  }
+}
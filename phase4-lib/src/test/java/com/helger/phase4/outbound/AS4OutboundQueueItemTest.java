@@ -0,0 +1,100 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.outbound;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.helger.phase4.AS4TestRule;
+import com.helger.xml.mock.XMLTestHelper;
+
+/**
+ * Test class for class {@link AS4OutboundQueueItem} and
+ * {@link AS4OutboundQueueManager}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4OutboundQueueItemTest
+{
+  @Rule
+  public final TestRule m_aTestRule = new AS4TestRule ();
+
+  @Test
+  public void testBasic ()
+  {
+    final AS4OutboundQueueItem x = new AS4OutboundQueueItem ("x", "ref", "pmode", "http://localhost/as4", "application/soap+xml", 2, 100);
+    assertEquals ("x", x.getID ());
+    assertEquals ("x", x.getMessageID ());
+    assertEquals ("ref", x.getRefToMessageID ());
+    assertEquals ("pmode", x.getPModeID ());
+    assertEquals ("http://localhost/as4", x.getTargetURL ());
+    assertEquals ("application/soap+xml", x.getContentType ());
+    assertEquals (2, x.getMaxRetries ());
+    assertEquals (100, x.getRetryIntervalMS ());
+    assertEquals (0, x.getAttemptCount ());
+    assertTrue (x.isRetryAllowed ());
+    XMLTestHelper.testMicroTypeConversion (x);
+
+    x.incAttemptCount ();
+    x.incAttemptCount ();
+    assertTrue (x.isRetryAllowed ());
+    x.incAttemptCount ();
+    assertFalse (x.isRetryAllowed ());
+    XMLTestHelper.testMicroTypeConversion (x);
+  }
+
+  @Test
+  public void testPersistentRecovery () throws Exception
+  {
+    final String sFilename = "outbound-queue-test.xml";
+    final String sPayloadDir = "outbound-queue-test";
+    final byte [] aPayload = "<payload/>".getBytes (StandardCharsets.UTF_8);
+
+    final AS4OutboundQueueManager aMgr = new AS4OutboundQueueManager (sFilename, sPayloadDir);
+    try
+    {
+      assertTrue (aMgr.addItem (new AS4OutboundQueueItem ("msg1", null, null, "http://localhost/as4", "text/xml", 1, 10), aPayload)
+                      .isChanged ());
+      assertFalse (aMgr.addItem (new AS4OutboundQueueItem ("msg1", null, null, "http://localhost/as4", "text/xml", 1, 10), aPayload)
+                       .isChanged ());
+      assertTrue (aMgr.onFailedAttempt ("msg1").isChanged ());
+
+      // Simulate a restart by reading the same file again
+      final AS4OutboundQueueManager aMgr2 = new AS4OutboundQueueManager (sFilename, sPayloadDir);
+      final IAS4OutboundQueueItem aItem = aMgr2.getItemOfID ("msg1");
+      assertNotNull (aItem);
+      assertEquals (1, aItem.getAttemptCount ());
+      assertArrayEquals (aPayload, aMgr2.getPayload ("msg1"));
+    }
+    finally
+    {
+      assertTrue (aMgr.removeItem ("msg1").isChanged ());
+      assertNull (aMgr.getPayload ("msg1"));
+      assertTrue (aMgr.isEmpty ());
+    }
+  }
+}
@@ -0,0 +1,178 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.outbound;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsCopyOnWriteArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.phase4.AS4TestRule;
+
+/**
+ * Test class for class {@link AS4OutboundQueueScheduler}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4OutboundQueueSchedulerTest
+{
+  private static final byte [] PAYLOAD = "<x/>".getBytes (StandardCharsets.UTF_8);
+
+  @Rule
+  public final TestRule m_aTestRule = new AS4TestRule ();
+
+  @Nonnull
+  private static AS4OutboundQueueItem _createItem (@Nonnull final String sID, @Nonnull final String sURL, final int nMaxRetries)
+  {
+    return new AS4OutboundQueueItem (sID, null, null, sURL, "text/xml", nMaxRetries, 10);
+  }
+
+  private static void _waitUntilIdle (@Nonnull final AS4OutboundQueueScheduler aScheduler) throws InterruptedException
+  {
+    // The counters are updated after the sender returned
+    final long nMaxWait = System.currentTimeMillis () + 10_000;
+    while (aScheduler.getActiveDestinationCount () > 0 && System.currentTimeMillis () < nMaxWait)
+      Thread.sleep (10);
+    assertEquals (0, aScheduler.getActiveDestinationCount ());
+  }
+
+  @Test
+  public void testOrderPerDestination () throws Exception
+  {
+    final ICommonsList <String> aSentA = new CommonsCopyOnWriteArrayList <> ();
+    final ICommonsList <String> aSentB = new CommonsCopyOnWriteArrayList <> ();
+    final CountDownLatch aLatch = new CountDownLatch (20);
+    final AS4OutboundQueueManagerInMemory aMgr = new AS4OutboundQueueManagerInMemory ();
+    try (final AS4OutboundQueueScheduler aScheduler = new AS4OutboundQueueScheduler (aMgr, (aItem, aPayload) -> {
+      (aItem.getTargetURL ().endsWith ("a") ? aSentA : aSentB).add (aItem.getID ());
+      aLatch.countDown ();
+    }, 4))
+    {
+      final ICommonsList <String> aExpectedA = new CommonsArrayList <> ();
+      final ICommonsList <String> aExpectedB = new CommonsArrayList <> ();
+      for (int i = 0; i < 10; ++i)
+      {
+        aExpectedA.add ("a" + i);
+        aExpectedB.add ("b" + i);
+        aScheduler.enqueue (_createItem ("a" + i, "http://localhost/a", 0), PAYLOAD);
+        aScheduler.enqueue (_createItem ("b" + i, "http://localhost/b", 0), PAYLOAD);
+      }
+      assertTrue (aLatch.await (10, TimeUnit.SECONDS));
+      _waitUntilIdle (aScheduler);
+      assertEquals (aExpectedA, aSentA);
+      assertEquals (aExpectedB, aSentB);
+      assertEquals (20, aScheduler.getSentCount ());
+    }
+    assertTrue (aMgr.isEmpty ());
+  }
+
+  @Test
+  public void testRetry () throws Exception
+  {
+    final AtomicInteger aAttempts = new AtomicInteger ();
+    final ICommonsList <String> aSent = new CommonsCopyOnWriteArrayList <> ();
+    final CountDownLatch aLatch = new CountDownLatch (2);
+    final AS4OutboundQueueManagerInMemory aMgr = new AS4OutboundQueueManagerInMemory ();
+    try (final AS4OutboundQueueScheduler aScheduler = new AS4OutboundQueueScheduler (aMgr, (aItem, aPayload) -> {
+      try
+      {
+        // The first message fails twice, the second one always
+        if (aItem.getID ().equals ("fail") || aAttempts.incrementAndGet () <= 2)
+          throw new IllegalStateException ("Simulated failure");
+        aSent.add (aItem.getID ());
+      }
+      finally
+      {
+        if (aItem.getID ().equals ("ok") && aItem.getAttemptCount () == 2 || aItem.getID ().equals ("fail") && aItem.getAttemptCount () == 1)
+          aLatch.countDown ();
+      }
+    }, 1))
+    {
+      aScheduler.enqueue (_createItem ("ok", "http://localhost/x", 2), PAYLOAD);
+      aScheduler.enqueue (_createItem ("fail", "http://localhost/x", 1), PAYLOAD);
+      assertTrue (aLatch.await (10, TimeUnit.SECONDS));
+      // Wait until the last failure is processed
+      _waitUntilIdle (aScheduler);
+
+      assertEquals (new CommonsArrayList <> ("ok"), aSent);
+      assertEquals (1, aScheduler.getSentCount ());
+      assertEquals (1, aScheduler.getGivenUpCount ());
+      assertEquals (4, aScheduler.getFailedAttemptCount ());
+    }
+    assertTrue (aMgr.isEmpty ());
+  }
+
+  @Test
+  public void testRecovery () throws Exception
+  {
+    final AS4OutboundQueueManagerInMemory aMgr = new AS4OutboundQueueManagerInMemory ();
+    aMgr.addItem (_createItem ("r1", "http://localhost/x", 0), PAYLOAD);
+    aMgr.addItem (_createItem ("r2", "http://localhost/y", 0), PAYLOAD);
+
+    final CountDownLatch aLatch = new CountDownLatch (2);
+    try (final AS4OutboundQueueScheduler aScheduler = new AS4OutboundQueueScheduler (aMgr, (aItem, aPayload) -> aLatch.countDown (), 2))
+    {
+      assertEquals (2, aScheduler.recoverPendingItems ());
+      assertTrue (aLatch.await (10, TimeUnit.SECONDS));
+      _waitUntilIdle (aScheduler);
+      assertEquals (2, aScheduler.getSentCount ());
+    }
+    assertTrue (aMgr.isEmpty ());
+  }
+
+  @Test
+  public void testRecoveryOnFirstSubmit () throws Exception
+  {
+    final AS4OutboundQueueManagerInMemory aMgr = new AS4OutboundQueueManagerInMemory ();
+    aMgr.addItem (_createItem ("r1", "http://localhost/x", 0), PAYLOAD);
+    aMgr.addItem (_createItem ("r2", "http://localhost/x", 0), PAYLOAD);
+
+    final ICommonsList <String> aSent = new CommonsCopyOnWriteArrayList <> ();
+    final CountDownLatch aLatch = new CountDownLatch (3);
+    try (final AS4OutboundQueueScheduler aScheduler = new AS4OutboundQueueScheduler (aMgr, (aItem, aPayload) -> {
+      aSent.add (aItem.getID ());
+      aLatch.countDown ();
+    }, 2))
+    {
+      // Pending items are sent before the new one
+      aScheduler.enqueue (_createItem ("n1", "http://localhost/x", 0), PAYLOAD);
+      assertTrue (aLatch.await (10, TimeUnit.SECONDS));
+      _waitUntilIdle (aScheduler);
+      assertEquals (3, aSent.size ());
+      assertEquals ("n1", aSent.getLast ());
+      assertEquals (3, aScheduler.getSentCount ());
+
+      // Already started
+      aScheduler.start ();
+      assertEquals (0, aScheduler.recoverPendingItems ());
+      assertEquals (3, aScheduler.getSentCount ());
+    }
+    assertTrue (aMgr.isEmpty ());
+  }
+}
@@ -0,0 +1,188 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.reliability;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nullable;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsConcurrentHashMap;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.mutable.MutableInt;
+import com.helger.phase4.ebms3header.Ebms3SignalMessage;
+import com.helger.phase4.error.EEbmsError;
+import com.helger.phase4.messaging.domain.MessageHelperMethods;
+
+/**
+ * Test class for class {@link AS4OutboundMessageRetransmitter}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4OutboundMessageRetransmitterTest
+{
+  private static final byte [] PAYLOAD = "<x/>".getBytes (StandardCharsets.UTF_8);
+
+  @Test
+  public void testRetransmission () throws Exception
+  {
+    final AS4OutboundMessageStoreInMemory aStore = new AS4OutboundMessageStoreInMemory ();
+    final ICommonsMap <String, EAS4OutboundMessageStatus> aFinal = new CommonsConcurrentHashMap <> ();
+    final CountDownLatch aLatch = new CountDownLatch (3);
+    aStore.statusCallbacks ().add ( (m, e) -> {
+      aFinal.put (m.getMessageID (), e);
+      aLatch.countDown ();
+    });
+
+    final ICommonsMap <String, MutableInt> aCalls = new CommonsConcurrentHashMap <> ();
+    final IAS4OutboundMessageTransmitter aTransmitter = (m, p) -> {
+      final int nCall = aCalls.computeIfAbsent (m.getMessageID (), k -> new MutableInt (0)).inc ();
+      switch (m.getMessageID ())
+      {
+        case "ok":
+          // Receipt with the second retransmission
+          return nCall >= 2 ? EAS4OutboundMessageStatus.RECEIPT_RECEIVED : EAS4OutboundMessageStatus.PENDING;
+        case "err":
+          return EAS4OutboundMessageStatus.ERROR_RECEIVED;
+        default:
+          throw new IllegalStateException ("Connection refused");
+      }
+    };
+
+    for (final String sID : new String [] { "ok", "err", "down" })
+      aStore.track (new AS4OutboundMessage (sID, null, "http://localhost/as4", "text/xml", null, 2, 10), PAYLOAD);
+
+    try (final AS4OutboundMessageRetransmitter aRetransmitter = new AS4OutboundMessageRetransmitter (aStore,
+                                                                                                     aTransmitter,
+                                                                                                     2,
+                                                                                                     Duration.ofMillis (5)))
+    {
+      aRetransmitter.start ();
+      assertTrue (aLatch.await (10, TimeUnit.SECONDS));
+
+      assertEquals (EAS4OutboundMessageStatus.RECEIPT_RECEIVED, aFinal.get ("ok"));
+      assertEquals (EAS4OutboundMessageStatus.ERROR_RECEIVED, aFinal.get ("err"));
+      assertEquals (EAS4OutboundMessageStatus.FAILED, aFinal.get ("down"));
+      assertTrue (aStore.isEmpty ());
+
+      assertEquals (2, aCalls.get ("ok").intValue ());
+      assertEquals (1, aCalls.get ("err").intValue ());
+      // One attempt plus the 2 retries
+      assertEquals (3, aCalls.get ("down").intValue ());
+      assertEquals (3, aRetransmitter.getFailedAttemptCount ());
+      assertEquals (1, aRetransmitter.getGivenUpCount ());
+    }
+  }
+
+  @Test
+  public void testFirstReceiptLost () throws Exception
+  {
+    final AS4OutboundMessageStoreInMemory aStore = new AS4OutboundMessageStoreInMemory ();
+    final ICommonsMap <String, EAS4OutboundMessageStatus> aFinal = new CommonsConcurrentHashMap <> ();
+    final CountDownLatch aLatch = new CountDownLatch (3);
+    aStore.statusCallbacks ().add ( (m, e) -> {
+      aFinal.put (m.getMessageID (), e);
+      aLatch.countDown ();
+    });
+
+    // The first transmission was received, but its Receipt got lost - so the
+    // receiver answers the retransmission with a duplicate error
+    final ICommonsMap <String, MutableInt> aCalls = new CommonsConcurrentHashMap <> ();
+    final IAS4OutboundMessageTransmitter aTransmitter = (m, p) -> {
+      aCalls.computeIfAbsent (m.getMessageID (), k -> new MutableInt (0)).inc ();
+      final Ebms3SignalMessage aSignalMsg = new Ebms3SignalMessage ();
+      if (m.getMessageID ().equals ("lost"))
+        aSignalMsg.addError (EEbmsError.EBMS_OTHER.getAsEbms3Error (Locale.US,
+                                                                   m.getMessageID (),
+                                                                   MessageHelperMethods.getDuplicateMessageErrorText (m.getMessageID ())));
+      else
+        if (m.getMessageID ().equals ("payload"))
+          aSignalMsg.addError (EEbmsError.EBMS_OTHER.getAsEbms3Error (Locale.US, m.getMessageID (), "Duplicate payload ID"));
+        else
+          aSignalMsg.addError (EEbmsError.EBMS_OTHER.getAsEbms3Error (Locale.US, m.getMessageID ()));
+      return AS4OutboundMessageHttpTransmitter.getStatusOfSignalMessage (aSignalMsg, m.getMessageID ());
+    };
+
+    for (final String sID : new String [] { "lost", "payload", "err" })
+      aStore.track (new AS4OutboundMessage (sID, null, "http://localhost/as4", "text/xml", null, 2, 10), PAYLOAD);
+
+    try (final AS4OutboundMessageRetransmitter aRetransmitter = new AS4OutboundMessageRetransmitter (aStore,
+                                                                                                     aTransmitter,
+                                                                                                     2,
+                                                                                                     Duration.ofMillis (5)))
+    {
+      aRetransmitter.start ();
+      assertTrue (aLatch.await (10, TimeUnit.SECONDS));
+
+      // Delivered with the first retransmission
+      assertEquals (EAS4OutboundMessageStatus.RECEIPT_RECEIVED, aFinal.get ("lost"));
+      assertEquals (1, aCalls.get ("lost").intValue ());
+      // Other errors are still errors
+      assertEquals (EAS4OutboundMessageStatus.ERROR_RECEIVED, aFinal.get ("payload"));
+      assertEquals (EAS4OutboundMessageStatus.ERROR_RECEIVED, aFinal.get ("err"));
+      assertTrue (aStore.isEmpty ());
+    }
+  }
+
+  @Test
+  public void testUnreadableMessage () throws Exception
+  {
+    // The first read fails
+    final AtomicBoolean aFail = new AtomicBoolean (true);
+    final AS4OutboundMessageStoreInMemory aStore = new AS4OutboundMessageStoreInMemory ()
+    {
+      @Override
+      public IAS4OutboundMessage getMessage (@Nullable final String sMessageID)
+      {
+        return aFail.getAndSet (false) ? null : super.getMessage (sMessageID);
+      }
+    };
+    final ICommonsMap <String, EAS4OutboundMessageStatus> aFinal = new CommonsConcurrentHashMap <> ();
+    final CountDownLatch aLatch = new CountDownLatch (1);
+    aStore.statusCallbacks ().add ( (m, e) -> {
+      aFinal.put (m.getMessageID (), e);
+      aLatch.countDown ();
+    });
+
+    final IAS4OutboundMessageTransmitter aTransmitter = (m, p) -> EAS4OutboundMessageStatus.RECEIPT_RECEIVED;
+    aStore.track (new AS4OutboundMessage ("id", null, "http://localhost/as4", "text/xml", null, 2, 10), PAYLOAD);
+
+    try (final AS4OutboundMessageRetransmitter aRetransmitter = new AS4OutboundMessageRetransmitter (aStore,
+                                                                                                     aTransmitter,
+                                                                                                     1,
+                                                                                                     Duration.ofMillis (5)))
+    {
+      aRetransmitter.start ();
+      assertTrue (aLatch.await (10, TimeUnit.SECONDS));
+
+      // Not given up because of the read error
+      assertEquals (EAS4OutboundMessageStatus.RECEIPT_RECEIVED, aFinal.get ("id"));
+      assertEquals (1, aRetransmitter.getFailedAttemptCount ());
+      assertEquals (1, aRetransmitter.getRetransmittedCount ());
+      assertEquals (0, aRetransmitter.getGivenUpCount ());
+    }
+  }
+}
@@ -0,0 +1,189 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.reliability;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.concurrent.ThreadHelper;
+import com.helger.commons.http.HttpHeaderMap;
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.phase4.model.pmode.PModeReceptionAwareness;
+
+/**
+ * Test class for class {@link AS4OutboundMessageStore} and
+ * {@link AS4OutboundMessageStoreInMemory}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4OutboundMessageStoreTest
+{
+  private static final String URL = "http://localhost:8080/as4";
+  private static final long LONG = 600_000;
+
+  @Nonnull
+  private static AS4OutboundMessage _createMsg (@Nonnull final String sMessageID, final long nRetryIntervalMS)
+  {
+    final HttpHeaderMap aHeaders = new HttpHeaderMap ();
+    aHeaders.addHeader ("Message-Id", "<" + sMessageID + ">");
+    return new AS4OutboundMessage (sMessageID, "pmode", URL, "application/soap+xml", aHeaders, 2, nRetryIntervalMS);
+  }
+
+  @Nonnull
+  private static byte [] _payload (@Nonnull final String sMessageID)
+  {
+    return ("<payload>" + sMessageID + "</payload>").getBytes (StandardCharsets.UTF_8);
+  }
+
+  private static void _testBasic (@Nonnull final IAS4OutboundMessageStore aStore)
+  {
+    assertTrue (aStore.isEmpty ());
+    assertNull (aStore.getStatus ("m0"));
+    assertNull (aStore.getMessage ("m0"));
+
+    for (int i = 0; i < 5; ++i)
+      assertTrue (aStore.track (_createMsg ("m" + i, LONG), _payload ("m" + i)).isChanged ());
+    // Duplicate message ID
+    assertFalse (aStore.track (_createMsg ("m0", LONG), _payload ("other")).isChanged ());
+    assertEquals (5, aStore.size ());
+    assertEquals (EAS4OutboundMessageStatus.PENDING, aStore.getStatus ("m0"));
+
+    final IAS4OutboundMessage aMsg = aStore.getMessage ("m0");
+    assertNotNull (aMsg);
+    assertEquals ("m0", aMsg.getMessageID ());
+    assertEquals ("pmode", aMsg.getPModeID ());
+    assertEquals (URL, aMsg.getTargetURL ());
+    assertEquals ("<m0>", aMsg.getAllCustomHeaders ().getFirstHeaderValue ("Message-Id"));
+    assertEquals (2, aMsg.getMaxRetries ());
+    assertEquals (0, aMsg.getAttemptCount ());
+    assertTrue (aMsg.isRetryAllowed ());
+    assertArrayEquals (_payload ("m0"), aStore.getPayload ("m0"));
+
+    // Nothing is due yet
+    assertTrue (aStore.getAllDueMessageIDs (System.currentTimeMillis (), 100).isEmpty ());
+    assertEquals (5, aStore.getAllDueMessageIDs (System.currentTimeMillis () + 2 * LONG, 100).size ());
+
+    // Paging in the order of the next attempt
+    // Ensure the next attempt of m0 is after the one of the others
+    ThreadHelper.sleep (10);
+    assertTrue (aStore.onFailedAttempt ("m0").isChanged ());
+    assertFalse (aStore.onFailedAttempt ("unknown").isChanged ());
+    ICommonsList <IAS4OutboundMessage> aPage = aStore.getAllUnacknowledged (0, 3);
+    assertEquals (3, aPage.size ());
+    assertEquals ("m1", aPage.getFirst ().getMessageID ());
+    aPage = aStore.getAllUnacknowledged (3, 3);
+    assertEquals (2, aPage.size ());
+    assertEquals ("m0", aPage.getLast ().getMessageID ());
+    assertEquals (1, aPage.getLast ().getAttemptCount ());
+
+    // Final status
+    final ICommonsList <String> aFinal = new CommonsArrayList <> ();
+    aStore.statusCallbacks ().add ( (m, e) -> aFinal.add (m.getMessageID () + "=" + e.getID ()));
+    assertTrue (aStore.onReceipt ("m1").isChanged ());
+    assertFalse (aStore.onReceipt ("m1").isChanged ());
+    assertTrue (aStore.onError ("m2").isChanged ());
+    assertTrue (aStore.setFinalStatus ("m3", EAS4OutboundMessageStatus.FAILED).isChanged ());
+    assertEquals (new CommonsArrayList <> ("m1=receipt", "m2=error", "m3=failed"), aFinal);
+    assertNull (aStore.getStatus ("m1"));
+    assertNull (aStore.getPayload ("m1"));
+    assertEquals (2, aStore.size ());
+  }
+
+  @Test
+  public void testInMemory ()
+  {
+    _testBasic (new AS4OutboundMessageStoreInMemory ());
+  }
+
+  @Test
+  public void testPersistent () throws Exception
+  {
+    final File aDir = new File ("target/outbound-message-store-test");
+    final FileOperationManager aFOM = new FileOperationManager ();
+    aFOM.deleteDirRecursiveIfExisting (aDir);
+    try
+    {
+      try (final AS4OutboundMessageStore aStore = new AS4OutboundMessageStore (aDir))
+      {
+        _testBasic (aStore);
+        assertTrue (aStore.track (new AS4OutboundMessage ("due", "pmode", URL, "CN=AP/1a", "application/soap+xml", null, 2, 0),
+                                  _payload ("due")).isChanged ());
+      }
+
+      // Restore everything that was not acknowledged
+      try (final AS4OutboundMessageStore aStore = new AS4OutboundMessageStore (aDir))
+      {
+        assertEquals (3, aStore.size ());
+        assertTrue (aStore.containsMessage ("m0"));
+        assertTrue (aStore.containsMessage ("m4"));
+        assertFalse (aStore.containsMessage ("m1"));
+
+        final IAS4OutboundMessage aMsg = aStore.getMessage ("m0");
+        assertNotNull (aMsg);
+        assertEquals (1, aMsg.getAttemptCount ());
+        assertEquals ("<m0>", aMsg.getAllCustomHeaders ().getFirstHeaderValue ("Message-Id"));
+        assertArrayEquals (_payload ("m0"), aStore.getPayload ("m0"));
+        assertNull (aMsg.getReceiverID ());
+        assertEquals ("CN=AP/1a", aStore.getMessage ("due").getReceiverID ());
+
+        assertEquals (new CommonsArrayList <> ("due"), aStore.getAllDueMessageIDs (System.currentTimeMillis (), 100));
+
+        // New messages don't reuse the files of restored ones
+        assertTrue (aStore.track (_createMsg ("new", LONG), _payload ("new")).isChanged ());
+        assertArrayEquals (_payload ("m4"), aStore.getPayload ("m4"));
+        assertArrayEquals (_payload ("new"), aStore.getPayload ("new"));
+        assertTrue (aStore.onReceipt ("m4").isChanged ());
+      }
+
+      try (final AS4OutboundMessageStore aStore = new AS4OutboundMessageStore (aDir))
+      {
+        assertEquals (3, aStore.size ());
+        assertFalse (aStore.containsMessage ("m4"));
+        assertTrue (aStore.containsMessage ("new"));
+        // Only the files of the pending messages are kept
+        assertEquals (3, new File (aDir, "messages").listFiles ().length);
+      }
+    }
+    finally
+    {
+      aFOM.deleteDirRecursiveIfExisting (aDir);
+    }
+  }
+
+  @Test
+  public void testCreateForPMode ()
+  {
+    // Default reception awareness
+    final AS4OutboundMessage aMsg = AS4OutboundMessage.createForPMode ("id", null, URL, "text/xml", null);
+    assertNotNull (aMsg);
+    assertEquals (PModeReceptionAwareness.DEFAULT_MAX_RETRIES, aMsg.getMaxRetries ());
+    assertEquals (PModeReceptionAwareness.DEFAULT_RETRY_INTERVAL_MS, aMsg.getRetryIntervalMS ());
+  }
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.time.Duration;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.commons.io.stream.StreamHelper;
+
+/**
+ * Test class for class {@link AS4PullLongPollXServletHandler}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4PullLongPollXServletHandlerTest
+{
+  @Nonnull
+  private static byte [] _read (@Nonnull final String sPath)
+  {
+    return StreamHelper.getAllBytes (new ClassPathResource (sPath));
+  }
+
+  @Test
+  public void testGetPullWait ()
+  {
+    final Duration aMax = Duration.ofSeconds (60);
+    assertEquals (Duration.ZERO, AS4PullLongPollXServletHandler.getPullWait (null, aMax));
+    assertEquals (Duration.ZERO, AS4PullLongPollXServletHandler.getPullWait ("", aMax));
+    assertEquals (Duration.ZERO, AS4PullLongPollXServletHandler.getPullWait ("abc", aMax));
+    assertEquals (Duration.ZERO, AS4PullLongPollXServletHandler.getPullWait ("-5", aMax));
+    assertEquals (Duration.ofSeconds (20), AS4PullLongPollXServletHandler.getPullWait (" 20 ", aMax));
+    // Capped at the maximum
+    assertEquals (aMax, AS4PullLongPollXServletHandler.getPullWait ("3600", aMax));
+  }
+
+  @Test
+  public void testGetPullRequestMPC ()
+  {
+    assertEquals ("http://msh.example.com/mpc123", AS4PullLongPollXServletHandler.getPullRequestMPC (_read ("/soap11test/PullRequest.xml")));
+    assertEquals ("http://as4.bigco.example.com/queues/q_456",
+                  AS4PullLongPollXServletHandler.getPullRequestMPC (_read ("/soap12test/PullRequest12.xml")));
+
+    // No pull requests
+    assertNull (AS4PullLongPollXServletHandler.getPullRequestMPC (_read ("/soap11test/UserMessage.xml")));
+    assertNull (AS4PullLongPollXServletHandler.getPullRequestMPC (_read ("/soap11test/NoMessaging.xml")));
+    assertNull (AS4PullLongPollXServletHandler.getPullRequestMPC (_read ("/SOAPBodyPayload.xml")));
+  }
+}
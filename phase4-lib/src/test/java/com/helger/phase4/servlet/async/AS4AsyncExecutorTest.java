@@ -0,0 +1,150 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.servlet.async;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.helger.phase4.AS4TestRule;
+import com.helger.phase4.model.EMEP;
+import com.helger.phase4.model.EMEPBinding;
+import com.helger.phase4.model.pmode.PMode;
+
+/**
+ * Test class for class {@link AS4AsyncExecutor} and
+ * {@link AS4PerPModeAsyncExecutor}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4AsyncExecutorTest
+{
+  @Rule
+  public final TestRule m_aTestRule = new AS4TestRule ();
+
+  @Nonnull
+  private static PMode _createPMode (@Nonnull final String sID)
+  {
+    return new PMode (sID, null, null, "Agreement", EMEP.ONE_WAY, EMEPBinding.PUSH, null, null, null, null);
+  }
+
+  @Test
+  public void testBoundedRejects () throws Exception
+  {
+    final CountDownLatch aBlock = new CountDownLatch (1);
+    try (final AS4AsyncExecutor aExecutor = AS4AsyncExecutor.createBounded ("test-bounded", 1, 1))
+    {
+      final CountDownLatch aStarted = new CountDownLatch (1);
+      final CompletableFuture <Void> f1 = aExecutor.execute (null, "first", () -> {
+        aStarted.countDown ();
+        aBlock.await ();
+      });
+      assertTrue (aStarted.await (10, TimeUnit.SECONDS));
+
+      // Goes to the queue
+      final CompletableFuture <Void> f2 = aExecutor.execute (null, "second", () -> {
+        throw new IllegalStateException ("Expected failure");
+      });
+      assertEquals (1, aExecutor.getQueueDepth ());
+      assertEquals (1, aExecutor.getActiveCount ());
+
+      // Queue is full
+      try
+      {
+        aExecutor.execute (null, "third", () -> {});
+        fail ();
+      }
+      catch (final RejectedExecutionException ex)
+      {
+        // expected
+      }
+      assertEquals (3, aExecutor.getSubmittedCount ());
+      assertEquals (1, aExecutor.getRejectedCount ());
+
+      aBlock.countDown ();
+      // Exceptions complete the future normally
+      f1.get (10, TimeUnit.SECONDS);
+      f2.get (10, TimeUnit.SECONDS);
+
+      assertEquals (2, aExecutor.getFinishedCount ());
+      assertEquals (1, aExecutor.getFailedCount ());
+      assertEquals (0, aExecutor.getQueueDepth ());
+      assertEquals (0, aExecutor.getActiveCount ());
+      assertTrue (aExecutor.getMaxQueueWaitNanos () > 0);
+      assertTrue (aExecutor.getAverageExecutionNanos () > 0);
+    }
+  }
+
+  @Test
+  public void testThreadPerTask () throws Exception
+  {
+    try (final AS4AsyncExecutor aExecutor = AS4AsyncExecutor.createThreadPerTask ("test-tpt"))
+    {
+      final AtomicInteger aCount = new AtomicInteger ();
+      final CompletableFuture <?> [] aFutures = new CompletableFuture <?> [20];
+      for (int i = 0; i < aFutures.length; ++i)
+        aFutures[i] = aExecutor.execute (null, "task", aCount::incrementAndGet);
+      CompletableFuture.allOf (aFutures).get (10, TimeUnit.SECONDS);
+      assertEquals (aFutures.length, aCount.get ());
+      assertEquals (0, aExecutor.getRejectedCount ());
+      assertEquals (aFutures.length, aExecutor.getFinishedCount ());
+    }
+  }
+
+  @Test
+  public void testPerPMode () throws Exception
+  {
+    final AtomicInteger aCreated = new AtomicInteger ();
+    try (final AS4AsyncExecutor aFallback = AS4AsyncExecutor.createBounded ("test-fallback", 1, 10);
+         final AS4PerPModeAsyncExecutor aExecutor = new AS4PerPModeAsyncExecutor (sPModeID -> {
+           aCreated.incrementAndGet ();
+           return AS4AsyncExecutor.createBounded ("test-" + sPModeID, 1, 10);
+         }, aFallback))
+    {
+      assertNull (aExecutor.getExecutorOfPModeID ("pm1"));
+
+      aExecutor.execute (_createPMode ("pm1"), "a", () -> {}).get (10, TimeUnit.SECONDS);
+      aExecutor.execute (_createPMode ("pm1"), "b", () -> {}).get (10, TimeUnit.SECONDS);
+      aExecutor.execute (_createPMode ("pm2"), "c", () -> {}).get (10, TimeUnit.SECONDS);
+      aExecutor.execute (null, "d", () -> {}).get (10, TimeUnit.SECONDS);
+      assertEquals (2, aCreated.get ());
+
+      final IAS4AsyncExecutor aPM1 = aExecutor.getExecutorOfPModeID ("pm1");
+      assertNotNull (aPM1);
+      assertNotSame (aPM1, aExecutor.getExecutorOfPModeID ("pm2"));
+      assertEquals (2, ((AS4AsyncExecutor) aPM1).getFinishedCount ());
+      assertSame (aFallback, aExecutor.getFallbackExecutor ());
+      assertEquals (1, aFallback.getFinishedCount ());
+    }
+  }
+}
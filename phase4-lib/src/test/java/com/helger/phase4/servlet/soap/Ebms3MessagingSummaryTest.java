@@ -0,0 +1,121 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.servlet.soap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.phase4.CAS4;
+import com.helger.phase4.ebms3header.Ebms3Messaging;
+import com.helger.phase4.ebms3header.Ebms3UserMessage;
+import com.helger.xml.serialize.read.DOMReader;
+
+/**
+ * Test class for class {@link Ebms3MessagingSummary}.
+ *
+ * @author Philip Helger
+ */
+public final class Ebms3MessagingSummaryTest
+{
+  @Nonnull
+  private static Element _getMessaging (@Nonnull final String sPath)
+  {
+    final Document aDoc = DOMReader.readXMLDOM (new ClassPathResource (sPath));
+    assertNotNull (aDoc);
+    final Element ret = (Element) aDoc.getElementsByTagNameNS (CAS4.EBMS_NS, "Messaging").item (0);
+    assertNotNull (ret);
+    return ret;
+  }
+
+  @Test
+  public void testUserMessage ()
+  {
+    final Ebms3MessagingSummary aSummary = Ebms3MessagingSummary.extract (_getMessaging ("/soap11test/UserMessage-no-soap.xml"));
+    assertEquals (1, aSummary.getUserMessageCount ());
+    assertEquals (0, aSummary.getSignalMessageCount ());
+    assertTrue (aSummary.isUserMessage ());
+    assertEquals ("UUID-1@requester.example.com", aSummary.getMessageID ());
+    assertNull (aSummary.getRefToMessageID ());
+    assertNull (aSummary.getPModeID ());
+    assertTrue (aSummary.hasCollaborationInfo ());
+    assertEquals ("QuoteToCollect", aSummary.getService ());
+    assertEquals ("NewPurchaseOrder", aSummary.getAction ());
+    assertEquals ("uri:requester.example.com", aSummary.getInitiatorID ());
+    assertEquals ("QRS543", aSummary.getResponderID ());
+    assertFalse (aSummary.isPullRequest ());
+    assertFalse (aSummary.isReceipt ());
+    assertFalse (aSummary.isError ());
+
+    // The summary must match the full model
+    final Ebms3Messaging aMessaging = aSummary.getMessaging ();
+    assertNotNull (aMessaging);
+    assertTrue (aSummary.getMessagingErrorHandler ().getErrorList ().isEmpty ());
+    final Ebms3UserMessage aUserMsg = aMessaging.getUserMessageAtIndex (0);
+    assertEquals (aUserMsg.getMessageInfo ().getMessageId (), aSummary.getMessageID ());
+    assertEquals (aUserMsg.getCollaborationInfo ().getAgreementRef ().getValue (), aSummary.getAgreementRef ());
+    assertEquals (aUserMsg.getCollaborationInfo ().getService ().getValue (), aSummary.getService ());
+    assertEquals (aUserMsg.getCollaborationInfo ().getAction (), aSummary.getAction ());
+    assertEquals (aUserMsg.getMpc (), aSummary.getMPC ());
+
+    // Read only once
+    assertSame (aMessaging, aSummary.getMessaging ());
+  }
+
+  @Test
+  public void testPullRequest ()
+  {
+    final Ebms3MessagingSummary aSummary = Ebms3MessagingSummary.extract (_getMessaging ("/soap11test/PullRequest.xml"));
+    assertEquals (0, aSummary.getUserMessageCount ());
+    assertEquals (1, aSummary.getSignalMessageCount ());
+    assertFalse (aSummary.isUserMessage ());
+    assertNotNull (aSummary.getMessageID ());
+    assertTrue (aSummary.isPullRequest ());
+    assertEquals ("http://msh.example.com/mpc123", aSummary.getMPC ());
+    assertNull (aSummary.getService ());
+    assertTrue (aSummary.getAllFromPartyIDs ().isEmpty ());
+  }
+
+  @Test
+  public void testReceipt ()
+  {
+    final Ebms3MessagingSummary aSummary = Ebms3MessagingSummary.extract (_getMessaging ("/soap11test/ReceiptMessage.xml"));
+    assertEquals (1, aSummary.getSignalMessageCount ());
+    assertTrue (aSummary.isReceipt ());
+    assertNotNull (aSummary.getRefToMessageID ());
+  }
+
+  @Test
+  public void testInvalid ()
+  {
+    // The summary can be extracted, but the full model is invalid
+    final Ebms3MessagingSummary aSummary = Ebms3MessagingSummary.extract (_getMessaging ("/soap11test/MessageInfoIDMissing.xml"));
+    assertNull (aSummary.getMessageID ());
+    assertNull (aSummary.getMessaging ());
+    assertTrue (aSummary.getMessagingErrorHandler ().getErrorList ().containsAtLeastOneError ());
+  }
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol;
+
+import java.util.function.Consumer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import org.w3c.dom.Element;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.peppolid.IDocumentTypeIdentifier;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.peppolid.IProcessIdentifier;
+
+/**
+ * A single document to be sent via the {@link Phase4PeppolBatchSender}.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@Immutable
+public final class Phase4PeppolBatchItem
+{
+  private final String m_sItemID;
+  private final IParticipantIdentifier m_aReceiverID;
+  private final IDocumentTypeIdentifier m_aDocTypeID;
+  private final IProcessIdentifier m_aProcessID;
+  private final Element m_aPayloadElement;
+  private final Consumer <? super Phase4PeppolSender.Builder> m_aCustomizer;
+
+  /**
+   * Constructor
+   *
+   * @param sItemID
+   *        The ID of the item, as used in the results. May neither be
+   *        <code>null</code> nor empty.
+   * @param aReceiverID
+   *        The receiver participant ID. May not be <code>null</code>.
+   * @param aDocTypeID
+   *        The document type ID. May not be <code>null</code>.
+   * @param aProcessID
+   *        The process ID. May not be <code>null</code>.
+   * @param aPayloadElement
+   *        The business document to be sent. May not be <code>null</code>.
+   * @param aCustomizer
+   *        An optional customizer for the builder of this item only, invoked
+   *        after the common customizer of the batch sender. May be
+   *        <code>null</code>.
+   */
+  public Phase4PeppolBatchItem (@Nonnull @Nonempty final String sItemID,
+                                @Nonnull final IParticipantIdentifier aReceiverID,
+                                @Nonnull final IDocumentTypeIdentifier aDocTypeID,
+                                @Nonnull final IProcessIdentifier aProcessID,
+                                @Nonnull final Element aPayloadElement,
+                                @Nullable final Consumer <? super Phase4PeppolSender.Builder> aCustomizer)
+  {
+    ValueEnforcer.notEmpty (sItemID, "ItemID");
+    ValueEnforcer.notNull (aReceiverID, "ReceiverID");
+    ValueEnforcer.notNull (aDocTypeID, "DocTypeID");
+    ValueEnforcer.notNull (aProcessID, "ProcessID");
+    ValueEnforcer.notNull (aPayloadElement, "PayloadElement");
+    m_sItemID = sItemID;
+    m_aReceiverID = aReceiverID;
+    m_aDocTypeID = aDocTypeID;
+    m_aProcessID = aProcessID;
+    m_aPayloadElement = aPayloadElement;
+    m_aCustomizer = aCustomizer;
+  }
+
+  @Nonnull
+  @Nonempty
+  public String getItemID ()
+  {
+    return m_sItemID;
+  }
+
+  @Nonnull
+  public IParticipantIdentifier getReceiverID ()
+  {
+    return m_aReceiverID;
+  }
+
+  @Nonnull
+  public IDocumentTypeIdentifier getDocTypeID ()
+  {
+    return m_aDocTypeID;
+  }
+
+  @Nonnull
+  public IProcessIdentifier getProcessID ()
+  {
+    return m_aProcessID;
+  }
+
+  @Nonnull
+  public Element getPayloadElement ()
+  {
+    return m_aPayloadElement;
+  }
+
+  @Nullable
+  public Consumer <? super Phase4PeppolSender.Builder> getCustomizer ()
+  {
+    return m_aCustomizer;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("ItemID", m_sItemID)
+                                       .append ("ReceiverID", m_aReceiverID)
+                                       .append ("DocTypeID", m_aDocTypeID)
+                                       .append ("ProcessID", m_aProcessID)
+                                       .appendIfNotNull ("Customizer", m_aCustomizer)
+                                       .getToString ();
+  }
+}
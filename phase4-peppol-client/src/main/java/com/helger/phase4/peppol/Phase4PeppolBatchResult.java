@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.state.ISuccessIndicator;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.sender.AbstractAS4UserMessageBuilder.ESimpleUserMessageSendResult;
+
+/**
+ * The result of sending a single {@link Phase4PeppolBatchItem}.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@Immutable
+public final class Phase4PeppolBatchResult implements ISuccessIndicator
+{
+  private final Phase4PeppolBatchItem m_aItem;
+  private final ESimpleUserMessageSendResult m_eSendResult;
+  private final Exception m_aException;
+  private final long m_nDurationMillis;
+
+  public Phase4PeppolBatchResult (@Nonnull final Phase4PeppolBatchItem aItem,
+                                  @Nonnull final ESimpleUserMessageSendResult eSendResult,
+                                  @Nullable final Exception aException,
+                                  @Nonnegative final long nDurationMillis)
+  {
+    ValueEnforcer.notNull (aItem, "Item");
+    ValueEnforcer.notNull (eSendResult, "SendResult");
+    ValueEnforcer.isGE0 (nDurationMillis, "DurationMillis");
+    m_aItem = aItem;
+    m_eSendResult = eSendResult;
+    m_aException = aException;
+    m_nDurationMillis = nDurationMillis;
+  }
+
+  /**
+   * @return The item that was sent. Never <code>null</code>.
+   */
+  @Nonnull
+  public Phase4PeppolBatchItem getItem ()
+  {
+    return m_aItem;
+  }
+
+  /**
+   * @return The send result. Never <code>null</code>.
+   */
+  @Nonnull
+  public ESimpleUserMessageSendResult getSendResult ()
+  {
+    return m_eSendResult;
+  }
+
+  /**
+   * @return The exception that occurred while sending. May be
+   *         <code>null</code>.
+   */
+  @Nullable
+  public Exception getException ()
+  {
+    return m_aException;
+  }
+
+  /**
+   * @return The time it took to send this item in milliseconds.
+   */
+  @Nonnegative
+  public long getDurationMillis ()
+  {
+    return m_nDurationMillis;
+  }
+
+  public boolean isSuccess ()
+  {
+    return m_eSendResult.isSuccess ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("Item", m_aItem)
+                                       .append ("SendResult", m_eSendResult)
+                                       .appendIfNotNull ("Exception", m_aException)
+                                       .append ("DurationMillis", m_nDurationMillis)
+                                       .getToString ();
+  }
+}
@@ -0,0 +1,497 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.commons.timing.StopWatch;
+import com.helger.commons.wrapper.Wrapper;
+import com.helger.httpclient.HttpClientSettings;
+import com.helger.phase4.dynamicdiscovery.AS4EndpointDetailProviderPeppol;
+import com.helger.phase4.http.AS4PooledHttpClientFactory;
+import com.helger.phase4.sender.AbstractAS4UserMessageBuilder.ESimpleUserMessageSendResult;
+import com.helger.phase4.util.Phase4Exception;
+
+/**
+ * Send many Peppol documents with a limited concurrency. The documents are
+ * queued per receiver, so that the first document of each receiver performs
+ * the SMP lookup and the following documents of the same receiver reuse it
+ * from the shared endpoint cache of {@link AS4EndpointDetailProviderPeppol}.
+ * All documents share a single HTTP connection pool.<br>
+ * The number of documents sent in parallel is limited overall and per
+ * receiver, so that a slow receiver only occupies the threads of its own
+ * documents. The number of documents read from the stream but not yet
+ * finished is limited by the window size. The results of the documents are
+ * reported as they finish.<br>
+ * If the builder customizer sets an {@link AS4EndpointDetailProviderPeppol},
+ * every document uses a copy of it that uses the shared endpoint cache if no
+ * cache is set. Subclasses of it are used as they are.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@ThreadSafe
+public class Phase4PeppolBatchSender implements AutoCloseable
+{
+  public static final int DEFAULT_MAX_CONCURRENCY = 8;
+  public static final int DEFAULT_MAX_CONCURRENCY_PER_RECEIVER = 2;
+  public static final int DEFAULT_WINDOW_SIZE = 1_000;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (Phase4PeppolBatchSender.class);
+
+  private final Consumer <? super Phase4PeppolSender.Builder> m_aBuilderCustomizer;
+  private final int m_nMaxConcurrency;
+  private final int m_nMaxConcurrencyPerReceiver;
+  private final int m_nWindowSize;
+  private final AS4PooledHttpClientFactory m_aHttpClientFactory;
+  // Byte-identical output, so it is always used
+  private final Phase4PeppolSBDHTemplateCache m_aSBDHTemplateCache = new Phase4PeppolSBDHTemplateCache ();
+
+  /**
+   * Constructor with default settings.
+   *
+   * @param aBuilderCustomizer
+   *        The customizer for the settings that are common to all documents
+   *        (e.g. sender participant ID, sender party ID, SMP client, crypto
+   *        factory). May not be <code>null</code>.
+   */
+  public Phase4PeppolBatchSender (@Nonnull final Consumer <? super Phase4PeppolSender.Builder> aBuilderCustomizer)
+  {
+    this (aBuilderCustomizer, new HttpClientSettings (), DEFAULT_MAX_CONCURRENCY, DEFAULT_MAX_CONCURRENCY_PER_RECEIVER);
+  }
+
+  /**
+   * Constructor with the default window size.
+   *
+   * @param aBuilderCustomizer
+   *        The customizer for the settings that are common to all documents
+   *        (e.g. sender participant ID, sender party ID, SMP client, crypto
+   *        factory). May not be <code>null</code>.
+   * @param aHttpClientSettings
+   *        The HTTP client settings for the shared connection pool. May not be
+   *        <code>null</code>.
+   * @param nMaxConcurrency
+   *        The maximum number of documents sent in parallel. Must be &gt; 0.
+   * @param nMaxConcurrencyPerReceiver
+   *        The maximum number of documents sent in parallel to the same
+   *        receiver. Must be &gt; 0.
+   */
+  public Phase4PeppolBatchSender (@Nonnull final Consumer <? super Phase4PeppolSender.Builder> aBuilderCustomizer,
+                                  @Nonnull final HttpClientSettings aHttpClientSettings,
+                                  @Nonnegative final int nMaxConcurrency,
+                                  @Nonnegative final int nMaxConcurrencyPerReceiver)
+  {
+    this (aBuilderCustomizer, aHttpClientSettings, nMaxConcurrency, nMaxConcurrencyPerReceiver, DEFAULT_WINDOW_SIZE);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aBuilderCustomizer
+   *        The customizer for the settings that are common to all documents
+   *        (e.g. sender participant ID, sender party ID, SMP client, crypto
+   *        factory). May not be <code>null</code>.
+   * @param aHttpClientSettings
+   *        The HTTP client settings for the shared connection pool. May not be
+   *        <code>null</code>.
+   * @param nMaxConcurrency
+   *        The maximum number of documents sent in parallel. Must be &gt; 0.
+   * @param nMaxConcurrencyPerReceiver
+   *        The maximum number of documents sent in parallel to the same
+   *        receiver. Must be &gt; 0.
+   * @param nWindowSize
+   *        The maximum number of documents that are read from the stream but
+   *        not yet finished. Must be &gt; 0.
+   */
+  public Phase4PeppolBatchSender (@Nonnull final Consumer <? super Phase4PeppolSender.Builder> aBuilderCustomizer,
+                                  @Nonnull final HttpClientSettings aHttpClientSettings,
+                                  @Nonnegative final int nMaxConcurrency,
+                                  @Nonnegative final int nMaxConcurrencyPerReceiver,
+                                  @Nonnegative final int nWindowSize)
+  {
+    ValueEnforcer.notNull (aBuilderCustomizer, "BuilderCustomizer");
+    ValueEnforcer.notNull (aHttpClientSettings, "HttpClientSettings");
+    ValueEnforcer.isGT0 (nMaxConcurrency, "MaxConcurrency");
+    ValueEnforcer.isGT0 (nMaxConcurrencyPerReceiver, "MaxConcurrencyPerReceiver");
+    ValueEnforcer.isGT0 (nWindowSize, "WindowSize");
+    m_aBuilderCustomizer = aBuilderCustomizer;
+    m_nMaxConcurrency = nMaxConcurrency;
+    m_nMaxConcurrencyPerReceiver = nMaxConcurrencyPerReceiver;
+    m_nWindowSize = nWindowSize;
+    // Different receivers may use the same AP
+    m_aHttpClientFactory = new AS4PooledHttpClientFactory (aHttpClientSettings, nMaxConcurrency, nMaxConcurrency);
+  }
+
+  /**
+   * @return The maximum number of documents sent in parallel.
+   */
+  @Nonnegative
+  public final int getMaxConcurrency ()
+  {
+    return m_nMaxConcurrency;
+  }
+
+  /**
+   * @return The maximum number of documents sent in parallel to the same
+   *         receiver.
+   */
+  @Nonnegative
+  public final int getMaxConcurrencyPerReceiver ()
+  {
+    return m_nMaxConcurrencyPerReceiver;
+  }
+
+  /**
+   * @return The maximum number of documents that are read from the stream but
+   *         not yet finished.
+   */
+  @Nonnegative
+  public final int getWindowSize ()
+  {
+    return m_nWindowSize;
+  }
+
+  /**
+   * Send a single document. Package-private so that tests can replace the
+   * actual sending.
+   *
+   * @param aItem
+   *        The document to be sent. May not be <code>null</code>.
+   * @return The result of sending. Never <code>null</code>.
+   */
+  @Nonnull
+  Phase4PeppolBatchResult sendDocument (@Nonnull final Phase4PeppolBatchItem aItem)
+  {
+    final StopWatch aSW = StopWatch.createdStarted ();
+    final Wrapper <Exception> aException = new Wrapper <> ();
+    ESimpleUserMessageSendResult eResult;
+    try
+    {
+      final Phase4PeppolSender.Builder aBuilder = Phase4PeppolSender.builder ()
+                                                                    .httpClientFactory (m_aHttpClientFactory)
+                                                                    .sbdhTemplateCache (m_aSBDHTemplateCache);
+      m_aBuilderCustomizer.accept (aBuilder);
+      aBuilder.receiverParticipantID (aItem.getReceiverID ())
+              .documentTypeID (aItem.getDocTypeID ())
+              .processID (aItem.getProcessID ())
+              .payload (aItem.getPayloadElement ());
+      if (aItem.getCustomizer () != null)
+        aItem.getCustomizer ().accept (aBuilder);
+
+      // Share the SMP lookup results between all documents. The provider
+      // stores the endpoint of its last lookup, so every document needs its
+      // own copy. The provider of the customizer is not modified.
+      if (aBuilder.m_aEndpointDetailProvider != null &&
+          aBuilder.m_aEndpointDetailProvider.getClass () == AS4EndpointDetailProviderPeppol.class)
+      {
+        final AS4EndpointDetailProviderPeppol aEDP = (AS4EndpointDetailProviderPeppol) aBuilder.m_aEndpointDetailProvider;
+        final AS4EndpointDetailProviderPeppol aCopy = new AS4EndpointDetailProviderPeppol (aEDP.getServiceMetadataProvider ());
+        aCopy.setTransportProfile (aEDP.getTransportProfile ());
+        aCopy.setEndpointCache (aEDP.getEndpointCache () != null ? aEDP.getEndpointCache ()
+                                                                 : AS4EndpointDetailProviderPeppol.getSharedEndpointCache ());
+        aBuilder.endpointDetailProvider (aCopy);
+      }
+
+      final Consumer <Phase4Exception> aExceptionConsumer = aException::set;
+      eResult = aBuilder.sendMessageAndCheckForReceipt (aExceptionConsumer);
+    }
+    catch (final RuntimeException ex)
+    {
+      aException.set (ex);
+      eResult = ESimpleUserMessageSendResult.TRANSPORT_ERROR;
+    }
+    return new Phase4PeppolBatchResult (aItem, eResult, aException.get (), aSW.stopAndGetMillis ());
+  }
+
+  /**
+   * The documents of a single receiver that are waiting to be sent.
+   */
+  private static final class ReceiverQueue
+  {
+    private final String m_sKey;
+    private final Queue <Phase4PeppolBatchItem> m_aItems = new ArrayDeque <> ();
+    // The number of threads currently sending documents of this receiver
+    private int m_nLanes = 0;
+    private boolean m_bLookupDone = false;
+    private boolean m_bFailed = false;
+
+    ReceiverQueue (@Nonnull final String sKey)
+    {
+      m_sKey = sKey;
+    }
+  }
+
+  /**
+   * The state of a single {@link Phase4PeppolBatchSender#sendAll(Stream, Consumer)}
+   * call. Each receiver has its own queue, so that a slow receiver only blocks
+   * the threads of its own lanes.
+   */
+  private final class BatchRun
+  {
+    private final ExecutorService m_aExecutor;
+    private final Consumer <Phase4PeppolBatchResult> m_aResultHandler;
+    // One permit per document that may be read but is not yet finished
+    private final Semaphore m_aPending = new Semaphore (m_nWindowSize);
+    private final SimpleLock m_aLock = new SimpleLock ();
+    @GuardedBy ("m_aLock")
+    private final ICommonsMap <String, ReceiverQueue> m_aReceivers = new CommonsHashMap <> ();
+
+    BatchRun (@Nonnull final ExecutorService aExecutor, @Nonnull final Consumer <Phase4PeppolBatchResult> aResultHandler)
+    {
+      m_aExecutor = aExecutor;
+      m_aResultHandler = aResultHandler;
+    }
+
+    /**
+     * Start new lanes for the queued documents of the provided receiver. Until
+     * the first document performed the SMP lookup, only a single lane is used.
+     */
+    @GuardedBy ("m_aLock")
+    private void _startLanes (@Nonnull final ReceiverQueue aQueue)
+    {
+      final int nMaxLanes = aQueue.m_bLookupDone ? m_nMaxConcurrencyPerReceiver : 1;
+      while (aQueue.m_nLanes < nMaxLanes && !aQueue.m_aItems.isEmpty ())
+      {
+        final Phase4PeppolBatchItem aFirstItem = aQueue.m_aItems.poll ();
+        aQueue.m_nLanes++;
+        m_aExecutor.execute ( () -> _runLane (aQueue, aFirstItem));
+      }
+    }
+
+    @GuardedBy ("m_aLock")
+    private void _skipAll (@Nonnull final ReceiverQueue aQueue)
+    {
+      Phase4PeppolBatchItem aItem;
+      while ((aItem = aQueue.m_aItems.poll ()) != null)
+      {
+        LOGGER.error ("Skipping item '" + aItem.getItemID () + "' because of a previous fatal error");
+        m_aPending.release ();
+      }
+    }
+
+    /**
+     * Send the documents of a single receiver until its queue is empty. If the
+     * lane is terminated by an unexpected error, all remaining documents of the
+     * receiver are skipped, so that the batch does not wait for them forever.
+     */
+    private void _runLane (@Nonnull final ReceiverQueue aQueue, @Nonnull final Phase4PeppolBatchItem aFirstItem)
+    {
+      Phase4PeppolBatchItem aItem = aFirstItem;
+      boolean bCompleted = false;
+      try
+      {
+        while (aItem != null)
+        {
+          try
+          {
+            m_aResultHandler.accept (sendDocument (aItem));
+          }
+          finally
+          {
+            m_aPending.release ();
+          }
+
+          aItem = m_aLock.lockedGet ( () -> {
+            if (!aQueue.m_bLookupDone)
+            {
+              // The endpoint is cached now - use all lanes
+              aQueue.m_bLookupDone = true;
+              _startLanes (aQueue);
+            }
+            final Phase4PeppolBatchItem aNextItem = aQueue.m_aItems.poll ();
+            if (aNextItem == null)
+            {
+              aQueue.m_nLanes--;
+              if (aQueue.m_nLanes == 0 && !aQueue.m_bFailed)
+                m_aReceivers.remove (aQueue.m_sKey);
+            }
+            return aNextItem;
+          });
+        }
+        bCompleted = true;
+      }
+      finally
+      {
+        if (!bCompleted)
+          m_aLock.locked ( () -> {
+            // Keep the receiver, so that later documents are skipped as well
+            aQueue.m_bFailed = true;
+            aQueue.m_nLanes--;
+            _skipAll (aQueue);
+          });
+      }
+    }
+
+    private void _add (@Nonnull final Phase4PeppolBatchItem aItem)
+    {
+      final String sKey = aItem.getReceiverID ().getURIEncoded ();
+      m_aLock.locked ( () -> {
+        final ReceiverQueue aQueue = m_aReceivers.computeIfAbsent (sKey, ReceiverQueue::new);
+        aQueue.m_aItems.add (aItem);
+        if (aQueue.m_bFailed)
+          _skipAll (aQueue);
+        else
+          _startLanes (aQueue);
+      });
+    }
+
+    /**
+     * Queue all documents and wait until all of them are finished.
+     *
+     * @return <code>false</code> if waiting was interrupted.
+     */
+    boolean sendAll (@Nonnull final Iterator <Phase4PeppolBatchItem> aIter)
+    {
+      try
+      {
+        while (true)
+        {
+          // Only read the next document if there is room for it
+          m_aPending.acquire ();
+          if (!aIter.hasNext ())
+          {
+            m_aPending.release ();
+            break;
+          }
+          _add (aIter.next ());
+        }
+
+        // All permits are back when all documents are finished
+        m_aPending.acquire (m_nWindowSize);
+        return true;
+      }
+      catch (final InterruptedException ex)
+      {
+        Thread.currentThread ().interrupt ();
+        return false;
+      }
+    }
+  }
+
+  /**
+   * Send all provided documents and wait until all of them are finished. At
+   * most {@link #getWindowSize()} documents are read from the stream but not
+   * yet finished. The next document is read as soon as any document is
+   * finished.
+   *
+   * @param aItems
+   *        The documents to be sent. May not be <code>null</code>.
+   * @param aResultConsumer
+   *        An optional consumer that is invoked for each document as soon as it
+   *        is finished. It is invoked from multiple threads in parallel. May be
+   *        <code>null</code>.
+   * @return The results of all documents in the order they finished. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <Phase4PeppolBatchResult> sendAll (@Nonnull final Stream <Phase4PeppolBatchItem> aItems,
+                                                         @Nullable final Consumer <? super Phase4PeppolBatchResult> aResultConsumer)
+  {
+    ValueEnforcer.notNull (aItems, "Items");
+
+    final StopWatch aSW = StopWatch.createdStarted ();
+    final SimpleLock aResultLock = new SimpleLock ();
+    final ICommonsList <Phase4PeppolBatchResult> ret = new CommonsArrayList <> ();
+    final Consumer <Phase4PeppolBatchResult> aResultHandler = aResult -> {
+      aResultLock.locked ( () -> ret.add (aResult));
+      try
+      {
+        if (aResultConsumer != null)
+          aResultConsumer.accept (aResult);
+      }
+      catch (final RuntimeException ex)
+      {
+        LOGGER.error ("Error in batch result consumer for item '" + aResult.getItem ().getItemID () + "'", ex);
+      }
+    };
+
+    final Iterator <Phase4PeppolBatchItem> aIter = aItems.iterator ();
+    if (!aIter.hasNext ())
+      return ret;
+
+    final ExecutorService aExecutor = Executors.newFixedThreadPool (m_nMaxConcurrency,
+                                                                    new BasicThreadFactory.Builder ().namingPattern ("phase4-peppol-batch-%d")
+                                                                                                     .daemon (true)
+                                                                                                     .build ());
+    try
+    {
+      if (!new BatchRun (aExecutor, aResultHandler).sendAll (aIter))
+        LOGGER.warn ("Interrupted while waiting for the batch to finish - returning partial results");
+    }
+    finally
+    {
+      aExecutor.shutdownNow ();
+    }
+
+    final long nMillis = aSW.stopAndGetMillis ();
+    final ICommonsList <Phase4PeppolBatchResult> aResults = aResultLock.lockedGet (ret::getClone);
+    final long nFailures = aResults.stream ().filter (Phase4PeppolBatchResult::isFailure).count ();
+    LOGGER.info ("Sent " +
+                 aResults.size () +
+                 " documents in " +
+                 nMillis +
+                 " ms (" +
+                 (nMillis == 0 ? aResults.size () : aResults.size () * 1000L / nMillis) +
+                 " documents/s) - " +
+                 nFailures +
+                 " failed");
+    return aResults;
+  }
+
+  /**
+   * Close the shared HTTP connections.
+   */
+  public void close ()
+  {
+    m_aHttpClientFactory.close ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("MaxConcurrency", m_nMaxConcurrency)
+                                       .append ("MaxConcurrencyPerReceiver", m_nMaxConcurrencyPerReceiver)
+                                       .append ("WindowSize", m_nWindowSize)
+                                       .getToString ();
+  }
+}
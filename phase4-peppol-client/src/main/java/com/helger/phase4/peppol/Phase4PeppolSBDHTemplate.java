@@ -0,0 +1,557 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLStreamException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.collection.ArrayHelper;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.datetime.XMLOffsetDateTime;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.jaxb.adapter.AdapterXMLOffsetDateTime;
+import com.helger.peppol.sbdh.PeppolSBDHDocument;
+import com.helger.peppol.sbdh.write.PeppolSBDHDocumentWriter;
+import com.helger.peppolid.IDocumentTypeIdentifier;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.peppolid.IProcessIdentifier;
+import com.helger.sbdh.CSBDH;
+import com.helger.sbdh.builder.SBDHWriter;
+import com.helger.xml.XMLFactory;
+import com.helger.xml.serialize.write.IXMLWriterSettings;
+import com.helger.xml.serialize.write.SafeXMLStreamWriter;
+import com.helger.xml.serialize.write.XMLEmitter;
+
+/**
+ * A pre-serialized Standard Business Document Header for a fixed combination
+ * of sender, receiver, document type, process and payload root element. Only
+ * the instance identifier, the creation date time and the payload vary between
+ * messages. These are streamed into the constant byte parts, so that no JAXB
+ * marshalling of the whole document is needed per message.<br>
+ * The created bytes are identical to the ones created by
+ * {@link SBDHWriter#standardBusinessDocument()} for the same document. Payloads
+ * that cannot be serialized identically (e.g. elements without a namespace or
+ * with undeclared namespace prefixes) are rejected, and the caller needs to
+ * fall back to the regular way.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@Immutable
+public final class Phase4PeppolSBDHTemplate
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (Phase4PeppolSBDHTemplate.class);
+
+  private static final String PLACEHOLDER_INSTANCE_IDENTIFIER = "phase4-sbdh-template-instance-identifier";
+  private static final XMLOffsetDateTime PLACEHOLDER_CREATION_DT = XMLOffsetDateTime.of (LocalDateTime.of (2000, 1, 1, 0, 0, 0),
+                                                                                         ZoneOffset.UTC);
+  private static final String PLACEHOLDER_PAYLOAD_NS = "urn:phase4:sbdh-template:payload";
+  private static final String PLACEHOLDER_PAYLOAD_LOCAL_NAME = "phase4SBDHTemplatePayload";
+
+  /**
+   * Internal exception, if a payload cannot be serialized identical to the
+   * JAXB serialization.
+   *
+   * @author Philip Helger
+   */
+  private static final class UnsupportedPayloadException extends Exception
+  {
+    UnsupportedPayloadException (@Nonnull final String sMsg)
+    {
+      super (sMsg, null, false, false);
+    }
+  }
+
+  /**
+   * Writes a DOM element to an {@link SafeXMLStreamWriter} with the same
+   * namespace handling, as JAXB does it for "xs:any" content.
+   *
+   * @author Philip Helger
+   */
+  private static final class PayloadStreamer
+  {
+    private final SafeXMLStreamWriter m_aXSW;
+    private final ICommonsList <String> m_aPrefixes = new CommonsArrayList <> ();
+    private final ICommonsList <String> m_aNamespaceURIs = new CommonsArrayList <> ();
+    private final StringBuilder m_aText = new StringBuilder ();
+
+    PayloadStreamer (@Nonnull final SafeXMLStreamWriter aXSW)
+    {
+      m_aXSW = aXSW;
+      // Always in scope
+      m_aPrefixes.add (XMLConstants.XML_NS_PREFIX);
+      m_aNamespaceURIs.add (XMLConstants.XML_NS_URI);
+    }
+
+    @Nullable
+    private String _getNamespaceURIOfPrefix (@Nonnull final String sPrefix)
+    {
+      for (int i = m_aPrefixes.size () - 1; i >= 0; --i)
+        if (m_aPrefixes.get (i).equals (sPrefix))
+          return m_aNamespaceURIs.get (i);
+      return null;
+    }
+
+    private void _force (@Nonnull final String sNamespaceURI, @Nonnull final String sPrefix)
+    {
+      if (!sNamespaceURI.equals (_getNamespaceURIOfPrefix (sPrefix)))
+      {
+        m_aPrefixes.add (sPrefix);
+        m_aNamespaceURIs.add (sNamespaceURI);
+      }
+    }
+
+    @Nonnull
+    private String _getExistingPrefix (@Nonnull final String sNamespaceURI) throws UnsupportedPayloadException
+    {
+      String ret = null;
+      for (int i = m_aNamespaceURIs.size () - 1; i >= 0; --i)
+        if (m_aNamespaceURIs.get (i).equals (sNamespaceURI))
+        {
+          final String sPrefix = m_aPrefixes.get (i);
+          if (!sNamespaceURI.equals (_getNamespaceURIOfPrefix (sPrefix)))
+            throw new UnsupportedPayloadException ("The prefix '" + sPrefix + "' is overridden");
+          if (ret == null)
+            ret = sPrefix;
+          else
+            if (!ret.equals (sPrefix))
+              throw new UnsupportedPayloadException ("The namespace URI '" + sNamespaceURI + "' is bound to multiple prefixes");
+        }
+      if (ret == null)
+        throw new UnsupportedPayloadException ("The namespace URI '" + sNamespaceURI + "' is not declared");
+      return ret;
+    }
+
+    @Nonnull
+    private static String _getNamespaceURI (@Nonnull final Node aNode) throws UnsupportedPayloadException
+    {
+      if (aNode.getLocalName () == null)
+        throw new UnsupportedPayloadException ("The DOM node was not created namespace aware");
+      return StringHelper.getNotNull (aNode.getNamespaceURI ());
+    }
+
+    private void _flushText () throws XMLStreamException
+    {
+      if (m_aText.length () > 0)
+      {
+        m_aXSW.writeCharacters (m_aText.toString ());
+        m_aText.setLength (0);
+      }
+    }
+
+    void writeElement (@Nonnull final Element aElement) throws XMLStreamException, UnsupportedPayloadException
+    {
+      final String sNamespaceURI = _getNamespaceURI (aElement);
+      if (sNamespaceURI.length () == 0)
+        throw new UnsupportedPayloadException ("Elements without a namespace URI are not supported");
+      if (sNamespaceURI.equals (CSBDH.SBDH_NS))
+        throw new UnsupportedPayloadException ("Elements in the SBDH namespace are not supported");
+      final String sDOMPrefix = StringHelper.getNotNull (aElement.getPrefix ());
+
+      // Split attributes into namespace declarations and regular attributes
+      final NamedNodeMap aAttrs = aElement.getAttributes ();
+      final int nAttrCount = aAttrs.getLength ();
+      final ICommonsList <String> aDeclPrefixes = new CommonsArrayList <> ();
+      final ICommonsList <String> aDeclNamespaceURIs = new CommonsArrayList <> ();
+      final ICommonsList <Attr> aRegularAttrs = new CommonsArrayList <> (nAttrCount);
+      for (int i = 0; i < nAttrCount; ++i)
+      {
+        final Attr aAttr = (Attr) aAttrs.item (i);
+        final String sAttrNamespaceURI = _getNamespaceURI (aAttr);
+        if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals (sAttrNamespaceURI))
+        {
+          final String sValue = aAttr.getValue ();
+          if (StringHelper.hasNoText (sValue))
+            throw new UnsupportedPayloadException ("Undeclaring namespaces is not supported");
+          if (sValue.equals (CSBDH.SBDH_NS))
+            throw new UnsupportedPayloadException ("Declaring the SBDH namespace is not supported");
+          aDeclPrefixes.add (XMLConstants.XMLNS_ATTRIBUTE.equals (aAttr.getName ()) ? "" : aAttr.getLocalName ());
+          aDeclNamespaceURIs.add (sValue);
+        }
+        else
+        {
+          if (aAttr.getName ().startsWith (XMLConstants.XMLNS_ATTRIBUTE))
+            throw new UnsupportedPayloadException ("Attribute name '" + aAttr.getName () + "' is not supported");
+          aRegularAttrs.add (aAttr);
+        }
+      }
+
+      final int nScopeStart = m_aPrefixes.size ();
+      _flushText ();
+
+      // Element namespace first
+      boolean bForce = false;
+      for (int i = 0; i < aDeclPrefixes.size (); ++i)
+        if (aDeclPrefixes.get (i).equals (sDOMPrefix) && aDeclNamespaceURIs.get (i).equals (sNamespaceURI))
+        {
+          bForce = true;
+          break;
+        }
+      final String sPrefix;
+      if (bForce)
+      {
+        _force (sNamespaceURI, sDOMPrefix);
+        sPrefix = sDOMPrefix;
+      }
+      else
+        sPrefix = null;
+
+      // All declarations of this element
+      for (int i = 0; i < aDeclPrefixes.size (); ++i)
+        _force (aDeclNamespaceURIs.get (i), aDeclPrefixes.get (i));
+
+      final String sRealPrefix = sPrefix != null ? sPrefix : _getExistingPrefix (sNamespaceURI);
+
+      // Resolve attribute prefixes before writing anything
+      final String [] aAttrPrefixes = new String [aRegularAttrs.size ()];
+      for (int i = 0; i < aRegularAttrs.size (); ++i)
+      {
+        final String sAttrNamespaceURI = _getNamespaceURI (aRegularAttrs.get (i));
+        if (sAttrNamespaceURI.length () > 0)
+        {
+          if (sAttrNamespaceURI.equals (CSBDH.SBDH_NS))
+            throw new UnsupportedPayloadException ("Attributes in the SBDH namespace are not supported");
+          final String sAttrPrefix = _getExistingPrefix (sAttrNamespaceURI);
+          if (sAttrPrefix.length () == 0)
+            throw new UnsupportedPayloadException ("Attribute namespace '" + sAttrNamespaceURI + "' is only bound to the default prefix");
+          aAttrPrefixes[i] = sAttrPrefix;
+        }
+      }
+
+      m_aXSW.writeStartElement (sRealPrefix, aElement.getLocalName (), sNamespaceURI);
+      // The namespace declarations of an element are emitted in reverse order
+      for (int i = m_aPrefixes.size () - 1; i >= nScopeStart; --i)
+        m_aXSW.writeNamespace (m_aPrefixes.get (i), m_aNamespaceURIs.get (i));
+      for (int i = 0; i < aRegularAttrs.size (); ++i)
+      {
+        final Attr aAttr = aRegularAttrs.get (i);
+        if (aAttrPrefixes[i] == null)
+          m_aXSW.writeAttribute (aAttr.getLocalName (), aAttr.getValue ());
+        else
+          m_aXSW.writeAttribute (aAttrPrefixes[i], aAttr.getNamespaceURI (), aAttr.getLocalName (), aAttr.getValue ());
+      }
+
+      // Children
+      for (Node aChild = aElement.getFirstChild (); aChild != null; aChild = aChild.getNextSibling ())
+        switch (aChild.getNodeType ())
+        {
+          case Node.ELEMENT_NODE:
+            writeElement ((Element) aChild);
+            break;
+          case Node.TEXT_NODE:
+          case Node.CDATA_SECTION_NODE:
+            m_aText.append (aChild.getNodeValue ());
+            break;
+          case Node.COMMENT_NODE:
+          case Node.PROCESSING_INSTRUCTION_NODE:
+            // Not emitted by JAXB
+            break;
+          default:
+            throw new UnsupportedPayloadException ("Unsupported DOM node type " + aChild.getNodeType ());
+        }
+
+      _flushText ();
+      m_aXSW.writeEndElement ();
+
+      // Leave the scope
+      while (m_aPrefixes.size () > nScopeStart)
+      {
+        m_aPrefixes.removeLast ();
+        m_aNamespaceURIs.removeLast ();
+      }
+    }
+  }
+
+  private final IXMLWriterSettings m_aXWS;
+  private final String m_sPayloadNamespaceURI;
+  private final String m_sPayloadLocalName;
+  // Up to the instance identifier
+  private final byte [] m_aPart1;
+  // Up to the creation date time
+  private final byte [] m_aPart2;
+  // Up to the payload
+  private final byte [] m_aPart3;
+  // The rest
+  private final byte [] m_aPart4;
+
+  private Phase4PeppolSBDHTemplate (@Nonnull final IXMLWriterSettings aXWS,
+                                    @Nonnull final String sPayloadNamespaceURI,
+                                    @Nonnull final String sPayloadLocalName,
+                                    @Nonnull final byte [] aPart1,
+                                    @Nonnull final byte [] aPart2,
+                                    @Nonnull final byte [] aPart3,
+                                    @Nonnull final byte [] aPart4)
+  {
+    m_aXWS = aXWS;
+    m_sPayloadNamespaceURI = sPayloadNamespaceURI;
+    m_sPayloadLocalName = sPayloadLocalName;
+    m_aPart1 = aPart1;
+    m_aPart2 = aPart2;
+    m_aPart3 = aPart3;
+    m_aPart4 = aPart4;
+  }
+
+  /**
+   * @return The namespace URI of the payload root element, this template was
+   *         created for. Never <code>null</code>.
+   */
+  @Nonnull
+  public String getPayloadNamespaceURI ()
+  {
+    return m_sPayloadNamespaceURI;
+  }
+
+  /**
+   * @return The local name of the payload root element, this template was
+   *         created for. Never <code>null</code>.
+   */
+  @Nonnull
+  public String getPayloadLocalName ()
+  {
+    return m_sPayloadLocalName;
+  }
+
+  @Nonnull
+  private SafeXMLStreamWriter _createWriter (@Nonnull final OutputStream aOS)
+  {
+    return SafeXMLStreamWriter.create (aOS, m_aXWS);
+  }
+
+  private void _writeText (@Nonnull final OutputStream aOS, @Nonnull final String sText) throws IOException
+  {
+    // Text outside of an element cannot be written with a stream writer
+    final XMLEmitter aEmitter = new XMLEmitter (new OutputStreamWriter (aOS, m_aXWS.getCharset ()), m_aXWS);
+    aEmitter.onText (sText);
+    aEmitter.flush ();
+  }
+
+  /**
+   * Create the complete Standard Business Document from this template.
+   *
+   * @param sInstanceIdentifier
+   *        The SBDH instance identifier to use. May neither be
+   *        <code>null</code> nor empty.
+   * @param aCreationDateTime
+   *        The SBDH creation date time to use. May not be <code>null</code>.
+   * @param aPayloadElement
+   *        The payload element. Must have the namespace URI and local name
+   *        this template was created for. May not be <code>null</code>.
+   * @return <code>null</code> if the payload cannot be serialized with a
+   *         template (see class description).
+   */
+  @Nullable
+  public byte [] getAsBytes (@Nonnull @Nonempty final String sInstanceIdentifier,
+                             @Nonnull final XMLOffsetDateTime aCreationDateTime,
+                             @Nonnull final Element aPayloadElement)
+  {
+    ValueEnforcer.notEmpty (sInstanceIdentifier, "InstanceIdentifier");
+    ValueEnforcer.notNull (aCreationDateTime, "CreationDateTime");
+    ValueEnforcer.notNull (aPayloadElement, "PayloadElement");
+    ValueEnforcer.isTrue (m_sPayloadNamespaceURI.equals (aPayloadElement.getNamespaceURI ()) &&
+                          m_sPayloadLocalName.equals (aPayloadElement.getLocalName ()),
+                          "The payload element doesn't match the template");
+
+    try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream (m_aPart1.length +
+                                                                                                 m_aPart2.length +
+                                                                                                 m_aPart3.length +
+                                                                                                 m_aPart4.length +
+                                                                                                 16 * 1024))
+    {
+      aBAOS.write (m_aPart1);
+      _writeText (aBAOS, sInstanceIdentifier);
+      aBAOS.write (m_aPart2);
+      _writeText (aBAOS, new AdapterXMLOffsetDateTime ().marshal (aCreationDateTime));
+      aBAOS.write (m_aPart3);
+      final SafeXMLStreamWriter aXSW = _createWriter (aBAOS);
+      new PayloadStreamer (aXSW).writeElement (aPayloadElement);
+      aXSW.flush ();
+      aBAOS.write (m_aPart4);
+      return aBAOS.toByteArray ();
+    }
+    catch (final UnsupportedPayloadException ex)
+    {
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("The payload cannot be serialized using the SBDH template: " + ex.getMessage ());
+      return null;
+    }
+    catch (final IOException | XMLStreamException ex)
+    {
+      throw new IllegalStateException ("Failed to serialize SBDH from template", ex);
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("PayloadNamespaceURI", m_sPayloadNamespaceURI)
+                                       .append ("PayloadLocalName", m_sPayloadLocalName)
+                                       .getToString ();
+  }
+
+  private static boolean _matches (@Nonnull final byte [] aHaystack, @Nonnull final byte [] aNeedle, final int nIndex)
+  {
+    if (nIndex < 0 || nIndex + aNeedle.length > aHaystack.length)
+      return false;
+    for (int i = 0; i < aNeedle.length; ++i)
+      if (aHaystack[nIndex + i] != aNeedle[i])
+        return false;
+    return true;
+  }
+
+  private static int _indexOf (@Nonnull final byte [] aHaystack, @Nonnull final byte [] aNeedle, final int nFromIndex)
+  {
+    for (int i = Math.max (nFromIndex, 0); i <= aHaystack.length - aNeedle.length; ++i)
+      if (_matches (aHaystack, aNeedle, i))
+        return i;
+    return -1;
+  }
+
+  private static int _lastIndexOf (@Nonnull final byte [] aHaystack, @Nonnull final byte [] aNeedle, final int nFromIndex)
+  {
+    for (int i = Math.min (nFromIndex, aHaystack.length - aNeedle.length); i >= 0; --i)
+      if (_matches (aHaystack, aNeedle, i))
+        return i;
+    return -1;
+  }
+
+  /**
+   * Create a new template, by serializing a Standard Business Document with
+   * placeholders.
+   *
+   * @param aSenderID
+   *        Sender participant ID. May not be <code>null</code>.
+   * @param aReceiverID
+   *        Receiver participant ID. May not be <code>null</code>.
+   * @param aDocTypeID
+   *        Document type ID. May not be <code>null</code>.
+   * @param aProcID
+   *        Process ID. May not be <code>null</code>.
+   * @param sTypeVersion
+   *        SBDH syntax version ID. May neither be <code>null</code> nor empty.
+   * @param sPayloadNamespaceURI
+   *        The namespace URI of the payload root element. May neither be
+   *        <code>null</code> nor empty.
+   * @param sPayloadLocalName
+   *        The local name of the payload root element. May neither be
+   *        <code>null</code> nor empty.
+   * @return <code>null</code> if no template can be created for the provided
+   *         values.
+   */
+  @Nullable
+  public static Phase4PeppolSBDHTemplate create (@Nonnull final IParticipantIdentifier aSenderID,
+                                                 @Nonnull final IParticipantIdentifier aReceiverID,
+                                                 @Nonnull final IDocumentTypeIdentifier aDocTypeID,
+                                                 @Nonnull final IProcessIdentifier aProcID,
+                                                 @Nonnull @Nonempty final String sTypeVersion,
+                                                 @Nonnull @Nonempty final String sPayloadNamespaceURI,
+                                                 @Nonnull @Nonempty final String sPayloadLocalName)
+  {
+    ValueEnforcer.notEmpty (sTypeVersion, "TypeVersion");
+    ValueEnforcer.notEmpty (sPayloadNamespaceURI, "PayloadNamespaceURI");
+    ValueEnforcer.notEmpty (sPayloadLocalName, "PayloadLocalName");
+
+    final SBDHWriter aWriter = SBDHWriter.standardBusinessDocument ();
+    final IXMLWriterSettings aXWS = aWriter.getXMLWriterSettings ();
+    if (aXWS.getIndent ().isIndent ())
+    {
+      // The streamed parts would need to know the indentation level
+      LOGGER.warn ("SBDH templates cannot be used with indenting XML writer settings");
+      return null;
+    }
+
+    final Document aDoc = XMLFactory.newDocument ();
+    final Element aPlaceholder = (Element) aDoc.appendChild (aDoc.createElementNS (PLACEHOLDER_PAYLOAD_NS,
+                                                                                    PLACEHOLDER_PAYLOAD_LOCAL_NAME));
+    aPlaceholder.setAttributeNS (XMLConstants.XMLNS_ATTRIBUTE_NS_URI, XMLConstants.XMLNS_ATTRIBUTE, PLACEHOLDER_PAYLOAD_NS);
+
+    final PeppolSBDHDocument aData = Phase4PeppolSender.createSBDHData (aSenderID,
+                                                                        aReceiverID,
+                                                                        aDocTypeID,
+                                                                        aProcID,
+                                                                        sPayloadNamespaceURI,
+                                                                        sTypeVersion,
+                                                                        sPayloadLocalName,
+                                                                        PLACEHOLDER_INSTANCE_IDENTIFIER,
+                                                                        PLACEHOLDER_CREATION_DT,
+                                                                        aPlaceholder);
+    final byte [] aBytes = aWriter.getAsBytes (new PeppolSBDHDocumentWriter ().createStandardBusinessDocument (aData));
+    if (aBytes == null)
+    {
+      LOGGER.warn ("Failed to serialize the SBDH template");
+      return null;
+    }
+
+    final Charset aCharset = aXWS.getCharset ();
+    final byte [] aInstanceIDBytes = ('>' + PLACEHOLDER_INSTANCE_IDENTIFIER + '<').getBytes (aCharset);
+    final byte [] aCreationDTBytes = ('>' + new AdapterXMLOffsetDateTime ().marshal (PLACEHOLDER_CREATION_DT) + '<').getBytes (aCharset);
+    final byte [] aPayloadNSBytes = PLACEHOLDER_PAYLOAD_NS.getBytes (aCharset);
+
+    final int nInstanceID = _indexOf (aBytes, aInstanceIDBytes, 0);
+    final int nCreationDT = nInstanceID < 0 ? -1 : _indexOf (aBytes, aCreationDTBytes, nInstanceID);
+    final int nPayloadNS = nCreationDT < 0 ? -1 : _indexOf (aBytes, aPayloadNSBytes, nCreationDT);
+    if (nPayloadNS < 0 ||
+        _indexOf (aBytes, aInstanceIDBytes, nInstanceID + 1) >= 0 ||
+        _indexOf (aBytes, aCreationDTBytes, nCreationDT + 1) >= 0)
+    {
+      LOGGER.warn ("Failed to find the unique placeholders in the SBDH template");
+      return null;
+    }
+
+    // The payload starts at the opening bracket before the placeholder
+    // namespace URI and ends with the closing tag of the root element
+    final int nPayloadStart = _lastIndexOf (aBytes, "<".getBytes (aCharset), nPayloadNS);
+    final int nPayloadEnd = _lastIndexOf (aBytes, "</".getBytes (aCharset), aBytes.length);
+    if (nPayloadStart <= nCreationDT || nPayloadEnd <= nPayloadNS)
+    {
+      LOGGER.warn ("Failed to find the payload in the SBDH template");
+      return null;
+    }
+
+    final int nPart2Start = nInstanceID + aInstanceIDBytes.length - 1;
+    final int nPart3Start = nCreationDT + aCreationDTBytes.length - 1;
+    return new Phase4PeppolSBDHTemplate (aXWS,
+                                         sPayloadNamespaceURI,
+                                         sPayloadLocalName,
+                                         ArrayHelper.getCopy (aBytes, 0, nInstanceID + 1),
+                                         ArrayHelper.getCopy (aBytes, nPart2Start, nCreationDT + 1 - nPart2Start),
+                                         ArrayHelper.getCopy (aBytes, nPart3Start, nPayloadStart - nPart3Start),
+                                         ArrayHelper.getCopy (aBytes, nPayloadEnd, aBytes.length - nPayloadEnd));
+  }
+}
@@ -0,0 +1,178 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol;
+
+import java.util.Optional;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.collection.map.LRUMap;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.peppolid.IDocumentTypeIdentifier;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.peppolid.IProcessIdentifier;
+
+/**
+ * A size limited cache for {@link Phase4PeppolSBDHTemplate} objects, keyed by
+ * sender, receiver, document type, process, type version and payload root
+ * element. One instance can be shared by all senders.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@ThreadSafe
+public class Phase4PeppolSBDHTemplateCache
+{
+  public static final int DEFAULT_MAX_SIZE = 1_000;
+
+  private static final char SEPARATOR = '\u0000';
+
+  private final SimpleLock m_aLock = new SimpleLock ();
+  // Empty optional, if no template can be created for a key
+  @GuardedBy ("m_aLock")
+  private final LRUMap <String, Optional <Phase4PeppolSBDHTemplate>> m_aMap;
+
+  /**
+   * Constructor with the default maximum size.
+   */
+  public Phase4PeppolSBDHTemplateCache ()
+  {
+    this (DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param nMaxSize
+   *        The maximum number of templates to keep. Must be &gt; 0.
+   */
+  public Phase4PeppolSBDHTemplateCache (@Nonnegative final int nMaxSize)
+  {
+    ValueEnforcer.isGT0 (nMaxSize, "MaxSize");
+    m_aMap = new LRUMap <> (nMaxSize);
+  }
+
+  @Nonnull
+  private static String _getKey (@Nonnull final IParticipantIdentifier aSenderID,
+                                 @Nonnull final IParticipantIdentifier aReceiverID,
+                                 @Nonnull final IDocumentTypeIdentifier aDocTypeID,
+                                 @Nonnull final IProcessIdentifier aProcID,
+                                 @Nonnull final String sTypeVersion,
+                                 @Nonnull final String sPayloadNamespaceURI,
+                                 @Nonnull final String sPayloadLocalName)
+  {
+    return new StringBuilder ().append (aSenderID.getURIEncoded ())
+                               .append (SEPARATOR)
+                               .append (aReceiverID.getURIEncoded ())
+                               .append (SEPARATOR)
+                               .append (aDocTypeID.getURIEncoded ())
+                               .append (SEPARATOR)
+                               .append (aProcID.getURIEncoded ())
+                               .append (SEPARATOR)
+                               .append (sTypeVersion)
+                               .append (SEPARATOR)
+                               .append (sPayloadNamespaceURI)
+                               .append (SEPARATOR)
+                               .append (sPayloadLocalName)
+                               .toString ();
+  }
+
+  /**
+   * Get the cached template or create a new one.
+   *
+   * @param aSenderID
+   *        Sender participant ID. May not be <code>null</code>.
+   * @param aReceiverID
+   *        Receiver participant ID. May not be <code>null</code>.
+   * @param aDocTypeID
+   *        Document type ID. May not be <code>null</code>.
+   * @param aProcID
+   *        Process ID. May not be <code>null</code>.
+   * @param sTypeVersion
+   *        SBDH syntax version ID. May neither be <code>null</code> nor empty.
+   * @param sPayloadNamespaceURI
+   *        The namespace URI of the payload root element. May neither be
+   *        <code>null</code> nor empty.
+   * @param sPayloadLocalName
+   *        The local name of the payload root element. May neither be
+   *        <code>null</code> nor empty.
+   * @return <code>null</code> if no template can be created for the provided
+   *         values.
+   */
+  @Nullable
+  public Phase4PeppolSBDHTemplate getTemplate (@Nonnull final IParticipantIdentifier aSenderID,
+                                               @Nonnull final IParticipantIdentifier aReceiverID,
+                                               @Nonnull final IDocumentTypeIdentifier aDocTypeID,
+                                               @Nonnull final IProcessIdentifier aProcID,
+                                               @Nonnull @Nonempty final String sTypeVersion,
+                                               @Nonnull @Nonempty final String sPayloadNamespaceURI,
+                                               @Nonnull @Nonempty final String sPayloadLocalName)
+  {
+    final String sKey = _getKey (aSenderID,
+                                 aReceiverID,
+                                 aDocTypeID,
+                                 aProcID,
+                                 sTypeVersion,
+                                 sPayloadNamespaceURI,
+                                 sPayloadLocalName);
+    Optional <Phase4PeppolSBDHTemplate> aTemplate = m_aLock.lockedGet ( () -> m_aMap.get (sKey));
+    if (aTemplate == null)
+    {
+      // Creation happens outside of the lock - worst case it is created twice
+      aTemplate = Optional.ofNullable (Phase4PeppolSBDHTemplate.create (aSenderID,
+                                                                        aReceiverID,
+                                                                        aDocTypeID,
+                                                                        aProcID,
+                                                                        sTypeVersion,
+                                                                        sPayloadNamespaceURI,
+                                                                        sPayloadLocalName));
+      final Optional <Phase4PeppolSBDHTemplate> aFinalTemplate = aTemplate;
+      m_aLock.locked ( () -> m_aMap.put (sKey, aFinalTemplate));
+    }
+    return aTemplate.orElse (null);
+  }
+
+  /**
+   * @return The number of cached templates.
+   */
+  @Nonnegative
+  public int size ()
+  {
+    return m_aLock.lockedInt (m_aMap::size);
+  }
+
+  /**
+   * Remove all cached templates.
+   */
+  public void clear ()
+  {
+    m_aLock.locked (m_aMap::clear);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("Size", size ()).getToString ();
+  }
+}
@@ -17,10 +17,17 @@
 package com.helger.phase4.peppol;
 
 import java.nio.charset.Charset;
+import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
+import java.time.Duration;
 import java.time.OffsetDateTime;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -59,6 +66,8 @@ import com.helger.peppolid.peppol.doctype.PeppolDocumentTypeIdentifierParts;
 import com.helger.phase4.CAS4;
 import com.helger.phase4.attachment.EAS4CompressionMode;
 import com.helger.phase4.attachment.Phase4OutgoingAttachment;
+import com.helger.phase4.crypto.AS4CertificateInternPool;
+import com.helger.phase4.crypto.AS4InternedCertificate;
 import com.helger.phase4.dynamicdiscovery.AS4EndpointDetailProviderConstant;
 import com.helger.phase4.dynamicdiscovery.AS4EndpointDetailProviderPeppol;
 import com.helger.phase4.dynamicdiscovery.IAS4EndpointDetailProvider;
@@ -69,12 +78,14 @@ import com.helger.phase4.sender.AbstractAS4UserMessageBuilderMIMEPayload;
 import com.helger.phase4.util.Phase4Exception;
 import com.helger.phive.api.executorset.IValidationExecutorSetRegistry;
 import com.helger.phive.api.executorset.VESID;
+import com.helger.phive.api.result.ValidationResultList;
 import com.helger.phive.engine.source.IValidationSourceXML;
 import com.helger.sbdh.SBDMarshaller;
 import com.helger.sbdh.builder.SBDHWriter;
 import com.helger.smpclient.peppol.ISMPServiceMetadataProvider;
 import com.helger.smpclient.url.IPeppolURLProvider;
 import com.helger.smpclient.url.PeppolURLProvider;
+import com.helger.xml.XMLFactory;
 import com.helger.xml.serialize.read.DOMReader;
 
 /**
@@ -90,7 +101,16 @@ public final class Phase4PeppolSender
   public static final PeppolIdentifierFactory IF = PeppolIdentifierFactory.INSTANCE;
   public static final IPeppolURLProvider URL_PROVIDER = PeppolURLProvider.INSTANCE;
 
+  /**
+   * The duration for which a successful receiver AP certificate check is
+   * cached per certificate.
+   *
+   * @since 1.3.2
+   */
+  public static final Duration RECEIVER_CERT_CHECK_CACHE_DURATION = Duration.ofMinutes (5);
+
   private static final Logger LOGGER = LoggerFactory.getLogger (Phase4PeppolSender.class);
+  private static final String RECEIVER_CERT_CHECK_ID = "peppol-ap";
 
   private Phase4PeppolSender ()
   {}
@@ -124,12 +144,39 @@ public final class Phase4PeppolSender
                                                      @Nullable final String sTypeVersion,
                                                      @Nonnull final Element aPayloadElement)
   {
-    final PeppolSBDHDocument aData = new PeppolSBDHDocument (IF);
-    aData.setSender (aSenderID.getScheme (), aSenderID.getValue ());
-    aData.setReceiver (aReceiverID.getScheme (), aReceiverID.getValue ());
-    aData.setDocumentType (aDocTypeID.getScheme (), aDocTypeID.getValue ());
-    aData.setProcess (aProcID.getScheme (), aProcID.getValue ());
+    final String sRealTypeVersion = getSBDHTypeVersion (aDocTypeID, sTypeVersion);
+    if (sRealTypeVersion == null)
+    {
+      // A log message was already provided
+      return null;
+    }
 
+    final PeppolSBDHDocument aData = createSBDHData (aSenderID,
+                                                     aReceiverID,
+                                                     aDocTypeID,
+                                                     aProcID,
+                                                     aPayloadElement.getNamespaceURI (),
+                                                     sRealTypeVersion,
+                                                     aPayloadElement.getLocalName (),
+                                                     getSBDHInstanceIdentifier (sInstanceIdentifier),
+                                                     XMLOffsetDateTime.of (MetaAS4Manager.getTimestampMgr ().getCurrentDateTime ()),
+                                                     aPayloadElement);
+    return new PeppolSBDHDocumentWriter ().createStandardBusinessDocument (aData);
+  }
+
+  /**
+   * Determine the SBDH document identification type version to use.
+   *
+   * @param aDocTypeID
+   *        Document type ID. May not be <code>null</code>.
+   * @param sTypeVersion
+   *        The explicitly provided type version. May be <code>null</code> to
+   *        deduce it from the document type identifier.
+   * @return <code>null</code> if none was provided and none could be deduced.
+   */
+  @Nullable
+  static String getSBDHTypeVersion (@Nonnull final IDocumentTypeIdentifier aDocTypeID, @Nullable final String sTypeVersion)
+  {
     String sRealTypeVersion = sTypeVersion;
     if (StringHelper.hasNoText (sRealTypeVersion))
     {
@@ -151,7 +198,20 @@ public final class Phase4PeppolSender
                    "'");
       return null;
     }
+    return sRealTypeVersion;
+  }
 
+  /**
+   * @param sInstanceIdentifier
+   *        The explicitly provided SBDH instance identifier. May be
+   *        <code>null</code>.
+   * @return The provided instance identifier or a random one. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  @Nonempty
+  static String getSBDHInstanceIdentifier (@Nullable final String sInstanceIdentifier)
+  {
     String sRealInstanceIdentifier = sInstanceIdentifier;
     if (StringHelper.hasNoText (sRealInstanceIdentifier))
     {
@@ -159,14 +219,29 @@ public final class Phase4PeppolSender
       if (LOGGER.isDebugEnabled ())
         LOGGER.debug ("As no SBDH InstanceIdentifier was provided, a random one was created: '" + sRealInstanceIdentifier + "'");
     }
+    return sRealInstanceIdentifier;
+  }
 
-    aData.setDocumentIdentification (aPayloadElement.getNamespaceURI (),
-                                     sRealTypeVersion,
-                                     aPayloadElement.getLocalName (),
-                                     sRealInstanceIdentifier,
-                                     XMLOffsetDateTime.of (MetaAS4Manager.getTimestampMgr ().getCurrentDateTime ()));
+  @Nonnull
+  static PeppolSBDHDocument createSBDHData (@Nonnull final IParticipantIdentifier aSenderID,
+                                            @Nonnull final IParticipantIdentifier aReceiverID,
+                                            @Nonnull final IDocumentTypeIdentifier aDocTypeID,
+                                            @Nonnull final IProcessIdentifier aProcID,
+                                            @Nonnull final String sStandard,
+                                            @Nonnull final String sTypeVersion,
+                                            @Nonnull final String sType,
+                                            @Nonnull final String sInstanceIdentifier,
+                                            @Nonnull final XMLOffsetDateTime aCreationDateTime,
+                                            @Nonnull final Element aPayloadElement)
+  {
+    final PeppolSBDHDocument aData = new PeppolSBDHDocument (IF);
+    aData.setSender (aSenderID.getScheme (), aSenderID.getValue ());
+    aData.setReceiver (aReceiverID.getScheme (), aReceiverID.getValue ());
+    aData.setDocumentType (aDocTypeID.getScheme (), aDocTypeID.getValue ());
+    aData.setProcess (aProcID.getScheme (), aProcID.getValue ());
+    aData.setDocumentIdentification (sStandard, sTypeVersion, sType, sInstanceIdentifier, aCreationDateTime);
     aData.setBusinessMessage (aPayloadElement);
-    return new PeppolSBDHDocumentWriter ().createStandardBusinessDocument (aData);
+    return aData;
   }
 
   /**
@@ -179,29 +254,28 @@ public final class Phase4PeppolSender
    *        The VESID to validate against. May be <code>null</code>.
    * @param aValidationResultHandler
    *        The validation result handler to be used. May be <code>null</code>.
+   * @param aValidationResultCache
+   *        The validation result cache to be used. May be <code>null</code>.
    * @throws Phase4PeppolException
    *         If the validation result handler decides to do so....
    */
   private static void _validatePayload (@Nonnull final Element aPayloadElement,
                                         @Nullable final IValidationExecutorSetRegistry <IValidationSourceXML> aRegistry,
                                         @Nullable final VESID aVESID,
-                                        @Nullable final IPhase4PeppolValidatonResultHandler aValidationResultHandler) throws Phase4PeppolException
+                                        @Nullable final IPhase4PeppolValidatonResultHandler aValidationResultHandler,
+                                        @Nullable final Phase4PeppolValidationResultCache aValidationResultCache) throws Phase4PeppolException
   {
     // Client side validation
     if (aVESID != null)
     {
       if (aValidationResultHandler != null)
       {
-        if (aRegistry == null)
-        {
-          // Default registry
-          Phase4PeppolValidation.validateOutgoingBusinessDocument (aPayloadElement, aVESID, aValidationResultHandler);
-        }
-        else
-        {
-          // Custom registry
-          Phase4PeppolValidation.validateOutgoingBusinessDocument (aPayloadElement, aRegistry, aVESID, aValidationResultHandler);
-        }
+        // Use the default registry if none is provided
+        Phase4PeppolValidation.validateOutgoingBusinessDocument (aPayloadElement,
+                                                                 aRegistry != null ? aRegistry : Phase4PeppolValidation.getDefaultRegistry (),
+                                                                 aVESID,
+                                                                 aValidationResultHandler,
+                                                                 aValidationResultCache);
       }
       else
         LOGGER.warn ("A VES ID is present but no ValidationResultHandler - therefore no validation is performed");
@@ -233,10 +307,27 @@ public final class Phase4PeppolSender
       LOGGER.debug ("Using the following receiver AP certificate from the SMP: " + aReceiverCert);
 
     final OffsetDateTime aNow = MetaAS4Manager.getTimestampMgr ().getCurrentDateTime ();
-    final EPeppolCertificateCheckResult eCertCheckResult = PeppolCertificateChecker.checkPeppolAPCertificate (aReceiverCert,
-                                                                                                              aNow,
-                                                                                                              ETriState.UNDEFINED,
-                                                                                                              null);
+    final Supplier <EPeppolCertificateCheckResult> aCheck = () -> PeppolCertificateChecker.checkPeppolAPCertificate (aReceiverCert,
+                                                                                                                     aNow,
+                                                                                                                     ETriState.UNDEFINED,
+                                                                                                                     null);
+    AS4InternedCertificate aInterned = null;
+    try
+    {
+      aInterned = AS4CertificateInternPool.getDefaultInstance ().intern (aReceiverCert);
+    }
+    catch (final CertificateEncodingException ex)
+    {
+      LOGGER.warn ("Failed to encode the receiver AP certificate - not caching the check result", ex);
+    }
+
+    // Only positive results are cached, so that the reason of a failure is
+    // always current
+    final EPeppolCertificateCheckResult eCertCheckResult = aInterned == null ? aCheck.get ()
+                                                                             : aInterned.getCachedCheckResult (RECEIVER_CERT_CHECK_ID,
+                                                                                                               RECEIVER_CERT_CHECK_CACHE_DURATION,
+                                                                                                               aCheck,
+                                                                                                               EPeppolCertificateCheckResult::isValid);
 
     // Interested in the certificate?
     if (aCertificateConsumer != null)
@@ -654,16 +745,30 @@ public final class Phase4PeppolSender
   @NotThreadSafe
   public static class Builder extends AbstractPeppolUserMessageBuilder <Builder>
   {
+    /**
+     * By default validation happens before the SMP lookup.
+     *
+     * @since 1.3.2
+     */
+    public static final boolean DEFAULT_VALIDATION_IN_PARALLEL = false;
+
     private String m_sSBDHInstanceIdentifier;
     private String m_sSBDHTypeVersion;
     private Element m_aPayloadElement;
     private byte [] m_aPayloadBytes;
     private Consumer <? super StandardBusinessDocument> m_aSBDDocumentConsumer;
     private Consumer <byte []> m_aSBDBytesConsumer;
+    private Phase4PeppolSBDHTemplateCache m_aSBDHTemplateCache;
 
     private IValidationExecutorSetRegistry <IValidationSourceXML> m_aVESRegistry;
     private VESID m_aVESID;
     private IPhase4PeppolValidatonResultHandler m_aValidationResultHandler;
+    private Phase4PeppolValidationResultCache m_aValidationResultCache;
+    private boolean m_bValidationInParallel = DEFAULT_VALIDATION_IN_PARALLEL;
+    private Executor m_aValidationExecutor;
+
+    // Status var
+    private CompletableFuture <ValidationResultList> m_aPendingValidation;
 
     /**
      * Create a new builder, with the defaults from
@@ -704,6 +809,29 @@ public final class Phase4PeppolSender
       return this;
     }
 
+    /**
+     * Set the SBDH template cache to be used. If a cache is present, the
+     * constant parts of the Standard Business Document are serialized only
+     * once per sender, receiver, document type, process and payload root
+     * element combination, and only the variable parts and the payload are
+     * written per message. The created bytes are identical to the ones
+     * created without a template. If a
+     * {@link #sbdDocumentConsumer(Consumer)} is set, or if the payload cannot
+     * be handled by a template, the regular way is used.
+     *
+     * @param aSBDHTemplateCache
+     *        The cache to be used. May be <code>null</code> to not use
+     *        templates (the default).
+     * @return this for chaining
+     * @since 1.3.2
+     */
+    @Nonnull
+    public Builder sbdhTemplateCache (@Nullable final Phase4PeppolSBDHTemplateCache aSBDHTemplateCache)
+    {
+      m_aSBDHTemplateCache = aSBDHTemplateCache;
+      return this;
+    }
+
     /**
      * Set the payload element to be used, if it is available as a parsed DOM
      * element. If this method is called, it overwrites any other explicitly set
@@ -896,8 +1024,115 @@ public final class Phase4PeppolSender
       return this;
     }
 
+    /**
+     * Set the validation result cache to be used. If the same business
+     * document is sent multiple times (e.g. on retry), the validation result
+     * of the first run is reused. By default no cache is used.
+     *
+     * @param aValidationResultCache
+     *        The cache to be used. May be <code>null</code> to disable caching.
+     * @return this for chaining
+     * @since 1.3.2
+     */
+    @Nonnull
+    public Builder validationResultCache (@Nullable final Phase4PeppolValidationResultCache aValidationResultCache)
+    {
+      m_aValidationResultCache = aValidationResultCache;
+      return this;
+    }
+
+    /**
+     * Define whether the client side validation should run in parallel to the
+     * SMP lookup and the SBDH creation. The validation result is evaluated
+     * before the message is signed and sent, so an invalid document is still
+     * never sent.
+     *
+     * @param bValidationInParallel
+     *        <code>true</code> to validate in parallel, <code>false</code> to
+     *        validate upfront.
+     * @return this for chaining
+     * @see #validationExecutor(Executor)
+     * @since 1.3.2
+     */
+    @Nonnull
+    public Builder validationInParallel (final boolean bValidationInParallel)
+    {
+      m_bValidationInParallel = bValidationInParallel;
+      return this;
+    }
+
+    /**
+     * Set the executor to run the parallel validation in. Only used if
+     * {@link #validationInParallel(boolean)} is enabled.
+     *
+     * @param aValidationExecutor
+     *        The executor to be used. May be <code>null</code> to use the
+     *        common fork join pool.
+     * @return this for chaining
+     * @since 1.3.2
+     */
+    @Nonnull
+    public Builder validationExecutor (@Nullable final Executor aValidationExecutor)
+    {
+      m_aValidationExecutor = aValidationExecutor;
+      return this;
+    }
+
+    private void _startParallelValidation (@Nonnull final Element aPayloadElement)
+    {
+      // DOM is not thread-safe - validate a copy
+      final Document aDocCopy = XMLFactory.newDocument ();
+      aDocCopy.appendChild (aDocCopy.importNode (aPayloadElement, true));
+      final Element aElementCopy = aDocCopy.getDocumentElement ();
+
+      final IValidationExecutorSetRegistry <IValidationSourceXML> aRegistry = m_aVESRegistry != null ? m_aVESRegistry
+                                                                                                    : Phase4PeppolValidation.getDefaultRegistry ();
+      final VESID aVESID = m_aVESID;
+      final Phase4PeppolValidationResultCache aCache = m_aValidationResultCache;
+      final Supplier <ValidationResultList> aSupplier = () -> {
+        try
+        {
+          return Phase4PeppolValidation.executeValidation (aElementCopy, aRegistry, aVESID, aCache);
+        }
+        catch (final Phase4PeppolException ex)
+        {
+          throw new CompletionException (ex);
+        }
+      };
+      m_aPendingValidation = m_aValidationExecutor != null ? CompletableFuture.supplyAsync (aSupplier, m_aValidationExecutor)
+                                                           : CompletableFuture.supplyAsync (aSupplier);
+    }
+
+    private void _cancelPendingValidation ()
+    {
+      if (m_aPendingValidation != null)
+      {
+        m_aPendingValidation.cancel (false);
+        m_aPendingValidation = null;
+      }
+    }
+
     @Override
     protected ESuccess finishFields () throws Phase4Exception
+    {
+      // Leftover from a previous failed run
+      _cancelPendingValidation ();
+
+      boolean bSuccess = false;
+      try
+      {
+        bSuccess = _finishFields ().isSuccess ();
+      }
+      finally
+      {
+        if (!bSuccess)
+          _cancelPendingValidation ();
+      }
+      return ESuccess.valueOf (bSuccess);
+    }
+
+    @Nonnull
+    private ESuccess _finishFields () throws Phase4Exception
     {
       // Ensure a DOM element is present
       final Element aPayloadElement;
@@ -918,7 +1153,13 @@ public final class Phase4PeppolSender
           throw new IllegalStateException ("Unexpected - neither element nor bytes are present");
 
       // Optional payload validation
-      _validatePayload (aPayloadElement, m_aVESRegistry, m_aVESID, m_aValidationResultHandler);
+      if (m_bValidationInParallel && m_aVESID != null && m_aValidationResultHandler != null)
+      {
+        // Result is evaluated in customizeBeforeSending
+        _startParallelValidation (aPayloadElement);
+      }
+      else
+        _validatePayload (aPayloadElement, m_aVESRegistry, m_aVESID, m_aValidationResultHandler, m_aValidationResultCache);
 
       // Perform SMP lookup
       if (super.finishFields ().isFailure ())
@@ -928,23 +1169,30 @@ public final class Phase4PeppolSender
       if (LOGGER.isDebugEnabled ())
         LOGGER.debug ("Start creating SBDH for AS4 message");
 
-      final StandardBusinessDocument aSBD = createSBDH (m_aSenderID,
-                                                        m_aReceiverID,
-                                                        m_aDocTypeID,
-                                                        m_aProcessID,
-                                                        m_sSBDHInstanceIdentifier,
-                                                        m_sSBDHTypeVersion,
-                                                        aPayloadElement);
-      if (aSBD == null)
+      byte [] aSBDBytes = null;
+      if (m_aSBDHTemplateCache != null && m_aSBDDocumentConsumer == null)
+        aSBDBytes = _createSBDBytesFromTemplate (aPayloadElement);
+
+      if (aSBDBytes == null)
       {
-        // A log message was already provided
-        return ESuccess.FAILURE;
-      }
+        final StandardBusinessDocument aSBD = createSBDH (m_aSenderID,
+                                                          m_aReceiverID,
+                                                          m_aDocTypeID,
+                                                          m_aProcessID,
+                                                          m_sSBDHInstanceIdentifier,
+                                                          m_sSBDHTypeVersion,
+                                                          aPayloadElement);
+        if (aSBD == null)
+        {
+          // A log message was already provided
+          return ESuccess.FAILURE;
+        }
 
-      if (m_aSBDDocumentConsumer != null)
-        m_aSBDDocumentConsumer.accept (aSBD);
+        if (m_aSBDDocumentConsumer != null)
+          m_aSBDDocumentConsumer.accept (aSBD);
 
-      final byte [] aSBDBytes = SBDHWriter.standardBusinessDocument ().getAsBytes (aSBD);
+        aSBDBytes = SBDHWriter.standardBusinessDocument ().getAsBytes (aSBD);
+      }
       if (m_aSBDBytesConsumer != null)
         m_aSBDBytesConsumer.accept (aSBDBytes);
 
@@ -957,6 +1205,65 @@ public final class Phase4PeppolSender
 
       return ESuccess.SUCCESS;
     }
+
+    @Nullable
+    private byte [] _createSBDBytesFromTemplate (@Nonnull final Element aPayloadElement)
+    {
+      final String sTypeVersion = getSBDHTypeVersion (m_aDocTypeID, m_sSBDHTypeVersion);
+      if (sTypeVersion == null)
+      {
+        // Let the regular way handle the error
+        return null;
+      }
+
+      final Phase4PeppolSBDHTemplate aTemplate = m_aSBDHTemplateCache.getTemplate (m_aSenderID,
+                                                                                   m_aReceiverID,
+                                                                                   m_aDocTypeID,
+                                                                                   m_aProcessID,
+                                                                                   sTypeVersion,
+                                                                                   aPayloadElement.getNamespaceURI (),
+                                                                                   aPayloadElement.getLocalName ());
+      if (aTemplate == null)
+        return null;
+
+      return aTemplate.getAsBytes (getSBDHInstanceIdentifier (m_sSBDHInstanceIdentifier),
+                                   XMLOffsetDateTime.of (MetaAS4Manager.getTimestampMgr ().getCurrentDateTime ()),
+                                   aPayloadElement);
+    }
+
+    @Override
+    protected void customizeBeforeSending () throws Phase4Exception
+    {
+      super.customizeBeforeSending ();
+
+      if (m_aPendingValidation != null)
+      {
+        // Wait for the parallel validation to finish
+        final CompletableFuture <ValidationResultList> aPendingValidation = m_aPendingValidation;
+        m_aPendingValidation = null;
+
+        final ValidationResultList aValidationResult;
+        try
+        {
+          aValidationResult = aPendingValidation.get ();
+        }
+        catch (final InterruptedException ex)
+        {
+          Thread.currentThread ().interrupt ();
+          throw new Phase4PeppolException ("Interrupted while waiting for the validation result", ex);
+        }
+        catch (final ExecutionException ex)
+        {
+          final Throwable aCause = ex.getCause ();
+          if (aCause instanceof Phase4PeppolException)
+            throw (Phase4PeppolException) aCause;
+          throw new Phase4PeppolException ("Failed to validate the business document", aCause);
+        }
+
+        // May throw an exception and therefore prevent sending
+        Phase4PeppolValidation.handleValidationResult (aValidationResult, m_aValidationResultHandler);
+      }
+    }
   }
 
   /**
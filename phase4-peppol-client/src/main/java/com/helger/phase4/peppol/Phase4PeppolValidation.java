@@ -16,7 +16,9 @@
  */
 package com.helger.phase4.peppol;
 
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,6 +27,8 @@ import org.w3c.dom.Element;
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.annotation.ReturnsMutableObject;
+import com.helger.commons.timing.StopWatch;
+import com.helger.phive.api.execute.IValidationExecutor;
 import com.helger.phive.api.execute.ValidationExecutionManager;
 import com.helger.phive.api.executorset.IValidationExecutorSet;
 import com.helger.phive.api.executorset.IValidationExecutorSetRegistry;
@@ -126,18 +130,98 @@ public final class Phase4PeppolValidation
                                                        @Nonnull final IValidationExecutorSetRegistry <IValidationSourceXML> aVESRegistry,
                                                        @Nonnull final VESID aVESID,
                                                        @Nonnull final IPhase4PeppolValidatonResultHandler aValidationResultHandler) throws Phase4PeppolException
+  {
+    validateOutgoingBusinessDocument (aXML, aVESRegistry, aVESID, aValidationResultHandler, null);
+  }
+
+  /**
+   * Validate the passed DOM element using the provided VESID using the provided
+   * registry and an optional result cache.
+   *
+   * @param aXML
+   *        The XML element to be validated. May not be <code>null</code>.
+   * @param aVESRegistry
+   *        The VES registry the VESID is looked up in.
+   * @param aVESID
+   *        The {@link VESID} to be used. Must be contained in the provided
+   *        registry. May not be <code>null</code>.
+   * @param aValidationResultHandler
+   *        The validation result handler to be used. May not be
+   *        <code>null</code>.
+   * @param aCache
+   *        The validation result cache to be used. May be <code>null</code>.
+   * @throws Phase4PeppolException
+   *         In case e.g. the validation failed. This usually implies, that the
+   *         document will NOT be send out.
+   * @since 1.3.2
+   */
+  public static void validateOutgoingBusinessDocument (@Nonnull final Element aXML,
+                                                       @Nonnull final IValidationExecutorSetRegistry <IValidationSourceXML> aVESRegistry,
+                                                       @Nonnull final VESID aVESID,
+                                                       @Nonnull final IPhase4PeppolValidatonResultHandler aValidationResultHandler,
+                                                       @Nullable final Phase4PeppolValidationResultCache aCache) throws Phase4PeppolException
+  {
+    ValueEnforcer.notNull (aValidationResultHandler, "ValidationResultHandler");
+
+    final ValidationResultList aValidationResult = executeValidation (aXML, aVESRegistry, aVESID, aCache);
+    handleValidationResult (aValidationResult, aValidationResultHandler);
+  }
+
+  /**
+   * Only run the validation of the passed DOM element, without invoking a
+   * result handler.
+   *
+   * @param aXML
+   *        The XML element to be validated. May not be <code>null</code>.
+   * @param aVESRegistry
+   *        The VES registry the VESID is looked up in.
+   * @param aVESID
+   *        The {@link VESID} to be used. Must be contained in the provided
+   *        registry. May not be <code>null</code>.
+   * @param aCache
+   *        The validation result cache to be used. May be <code>null</code>.
+   * @return The validation result. Never <code>null</code>.
+   * @throws Phase4PeppolException
+   *         If the VESID is unknown
+   * @since 1.3.2
+   */
+  @Nonnull
+  public static ValidationResultList executeValidation (@Nonnull final Element aXML,
+                                                        @Nonnull final IValidationExecutorSetRegistry <IValidationSourceXML> aVESRegistry,
+                                                        @Nonnull final VESID aVESID,
+                                                        @Nullable final Phase4PeppolValidationResultCache aCache) throws Phase4PeppolException
   {
     ValueEnforcer.notNull (aXML, "XMLElement");
     ValueEnforcer.notNull (aVESRegistry, "VESRegistry");
     ValueEnforcer.notNull (aVESID, "VESID");
-    ValueEnforcer.notNull (aValidationResultHandler, "ValidationResultHandler");
 
     final IValidationExecutorSet <IValidationSourceXML> aVES = aVESRegistry.getOfID (aVESID);
     if (aVES == null)
       throw new Phase4PeppolException ("The validation executor set ID " + aVESID.getAsSingleID () + " is unknown!");
 
-    final ValidationResultList aValidationResult = ValidationExecutionManager.executeValidation (aVES,
-                                                                                                 ValidationSourceXML.create (null, aXML));
+    if (aCache == null)
+      return ValidationExecutionManager.executeValidation (aVES, ValidationSourceXML.create (null, aXML));
+    return aCache.getOrValidate (aXML, aVESID, () -> ValidationExecutionManager.executeValidation (aVES, ValidationSourceXML.create (null, aXML)));
+  }
+
+  /**
+   * Pass the validation result to the provided handler.
+   *
+   * @param aValidationResult
+   *        The validation result to handle. May not be <code>null</code>.
+   * @param aValidationResultHandler
+   *        The validation result handler to be used. May not be
+   *        <code>null</code>.
+   * @throws Phase4PeppolException
+   *         If the handler decides that the document must not be sent.
+   * @since 1.3.2
+   */
+  public static void handleValidationResult (@Nonnull final ValidationResultList aValidationResult,
+                                             @Nonnull final IPhase4PeppolValidatonResultHandler aValidationResultHandler) throws Phase4PeppolException
+  {
+    ValueEnforcer.notNull (aValidationResult, "ValidationResult");
+    ValueEnforcer.notNull (aValidationResultHandler, "ValidationResultHandler");
+
     if (aValidationResult.containsAtLeastOneError ())
     {
       aValidationResultHandler.onValidationErrors (aValidationResult);
@@ -146,4 +230,32 @@ public final class Phase4PeppolValidation
     else
       aValidationResultHandler.onValidationSuccess (aValidationResult);
   }
+
+  /**
+   * Ensure that all validation artefacts (e.g. the compiled Schematrons) of the
+   * provided registry are loaded into the respective caches. Call this at
+   * application startup to avoid a slow first validation.
+   *
+   * @param aVESRegistry
+   *        The registry to warm up. May not be <code>null</code>.
+   * @return The number of cacheable artefacts that were touched.
+   * @since 1.3.2
+   */
+  @Nonnegative
+  public static int warmUp (@Nonnull final IValidationExecutorSetRegistry <IValidationSourceXML> aVESRegistry)
+  {
+    ValueEnforcer.notNull (aVESRegistry, "VESRegistry");
+
+    final StopWatch aSW = StopWatch.createdStarted ();
+    int ret = 0;
+    for (final IValidationExecutorSet <IValidationSourceXML> aVES : aVESRegistry.getAll ())
+      for (final IValidationExecutor <IValidationSourceXML> aExecutor : aVES)
+        if (aExecutor instanceof IValidationExecutor.ICacheSupport)
+        {
+          ((IValidationExecutor.ICacheSupport) aExecutor).ensureItemIsInCache ();
+          ret++;
+        }
+    LOGGER.info ("Warmed up " + ret + " validation artefacts in " + aSW.stopAndGetMillis () + " ms");
+    return ret;
+  }
 }
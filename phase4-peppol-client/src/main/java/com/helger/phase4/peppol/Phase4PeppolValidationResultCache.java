@@ -0,0 +1,181 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol;
+
+import java.security.MessageDigest;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.w3c.dom.Node;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.map.LRUMap;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phive.api.executorset.VESID;
+import com.helger.phive.api.result.ValidationResultList;
+import com.helger.security.messagedigest.EMessageDigestAlgorithm;
+import com.helger.xml.serialize.write.XMLWriter;
+
+/**
+ * A size bounded cache for validation results of outgoing business documents.
+ * The key is the VESID plus the SHA-256 hash of the serialized document, so
+ * resending the same document (or sending the same document to multiple
+ * receivers) does not require a new validation. Both positive and negative
+ * results are cached, because validation is deterministic.<br>
+ * A cache instance should only be used with a single validation executor set
+ * registry. The cached {@link ValidationResultList} objects are shared and
+ * must not be modified.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@ThreadSafe
+public class Phase4PeppolValidationResultCache
+{
+  public static final int DEFAULT_MAX_SIZE = 1_000;
+
+  private final SimpleLock m_aLock = new SimpleLock ();
+  @GuardedBy ("m_aLock")
+  private final LRUMap <String, ValidationResultList> m_aMap;
+  private final AtomicLong m_aHitCount = new AtomicLong ();
+  private final AtomicLong m_aMissCount = new AtomicLong ();
+
+  /**
+   * Constructor with the default maximum size.
+   */
+  public Phase4PeppolValidationResultCache ()
+  {
+    this (DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param nMaxSize
+   *        The maximum number of cached results. Must be &gt; 0.
+   */
+  public Phase4PeppolValidationResultCache (@Nonnegative final int nMaxSize)
+  {
+    ValueEnforcer.isGT0 (nMaxSize, "MaxSize");
+    m_aMap = new LRUMap <> (nMaxSize);
+  }
+
+  /**
+   * Create the cache key for the provided document and VESID.
+   *
+   * @param aXML
+   *        The document to be validated. May not be <code>null</code>.
+   * @param aVESID
+   *        The VESID to validate against. May not be <code>null</code>.
+   * @return The cache key. Never <code>null</code>.
+   */
+  @Nonnull
+  public static String getCacheKey (@Nonnull final Node aXML, @Nonnull final VESID aVESID)
+  {
+    ValueEnforcer.notNull (aXML, "XML");
+    ValueEnforcer.notNull (aVESID, "VESID");
+
+    final byte [] aBytes = XMLWriter.getNodeAsBytes (aXML);
+    if (aBytes == null)
+      throw new IllegalStateException ("Failed to serialize XML node");
+    final MessageDigest aMD = EMessageDigestAlgorithm.SHA_256.createMessageDigest ();
+    return aVESID.getAsSingleID () + ":" + StringHelper.getHexEncoded (aMD.digest (aBytes));
+  }
+
+  /**
+   * Get the cached validation result, or validate and cache the result.
+   *
+   * @param aXML
+   *        The document to be validated. May not be <code>null</code>.
+   * @param aVESID
+   *        The VESID to validate against. May not be <code>null</code>.
+   * @param aValidator
+   *        The validator to invoke on a cache miss. May not be
+   *        <code>null</code>.
+   * @return The validation result and never <code>null</code>.
+   */
+  @Nonnull
+  public ValidationResultList getOrValidate (@Nonnull final Node aXML,
+                                             @Nonnull final VESID aVESID,
+                                             @Nonnull final Supplier <? extends ValidationResultList> aValidator)
+  {
+    ValueEnforcer.notNull (aValidator, "Validator");
+
+    final String sKey = getCacheKey (aXML, aVESID);
+    final ValidationResultList aCached = m_aLock.lockedGet ( () -> m_aMap.get (sKey));
+    if (aCached != null)
+    {
+      m_aHitCount.incrementAndGet ();
+      return aCached;
+    }
+
+    m_aMissCount.incrementAndGet ();
+    final ValidationResultList ret = aValidator.get ();
+    if (ret == null)
+      throw new IllegalStateException ("Validator returned no result");
+    m_aLock.locked ( () -> m_aMap.put (sKey, ret));
+    return ret;
+  }
+
+  /**
+   * Remove all entries.
+   */
+  public void clear ()
+  {
+    m_aLock.locked (m_aMap::clear);
+  }
+
+  /**
+   * @return The number of cached results.
+   */
+  @Nonnegative
+  public int size ()
+  {
+    return m_aLock.lockedInt (m_aMap::size);
+  }
+
+  /**
+   * @return The number of validations answered from the cache.
+   */
+  @Nonnegative
+  public final long getHitCount ()
+  {
+    return m_aHitCount.get ();
+  }
+
+  /**
+   * @return The number of validations that were executed.
+   */
+  @Nonnegative
+  public final long getMissCount ()
+  {
+    return m_aMissCount.get ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("Hits", getHitCount ()).append ("Misses", getMissCount ()).getToString ();
+  }
+}
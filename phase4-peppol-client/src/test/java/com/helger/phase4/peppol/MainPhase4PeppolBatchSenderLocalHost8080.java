@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol;
+
+import java.io.File;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Element;
+
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.peppolid.IDocumentTypeIdentifier;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.peppolid.IProcessIdentifier;
+import com.helger.phase4.crypto.AS4CryptoFactoryProperties;
+import com.helger.servlet.mock.MockServletContext;
+import com.helger.web.scope.mgr.WebScopeManager;
+import com.helger.xml.serialize.read.DOMReader;
+
+/**
+ * Measure the throughput of the {@link Phase4PeppolBatchSender} against a local
+ * AP (e.g. phase4-peppol-server-webapp) running on port 8080. The local AP
+ * uses the same key store as this client.
+ *
+ * @author Philip Helger
+ */
+public final class MainPhase4PeppolBatchSenderLocalHost8080
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (MainPhase4PeppolBatchSenderLocalHost8080.class);
+
+  private static final int DOCUMENT_COUNT = 1000;
+  private static final int RECEIVER_COUNT = 10;
+
+  public static void main (final String [] args)
+  {
+    WebScopeManager.onGlobalBegin (MockServletContext.create ());
+
+    try
+    {
+      final Element aPayloadElement = DOMReader.readXMLDOM (new File ("src/test/resources/examples/base-example.xml"))
+                                               .getDocumentElement ();
+      if (aPayloadElement == null)
+        throw new IllegalStateException ("Failed to read XML file to be send");
+
+      final X509Certificate aCert = (X509Certificate) AS4CryptoFactoryProperties.getDefaultInstance ()
+                                                                                .getPrivateKeyEntry ()
+                                                                                .getCertificate ();
+      final IDocumentTypeIdentifier aDocTypeID = Phase4PeppolSender.IF.createDocumentTypeIdentifierWithDefaultScheme ("urn:oasis:names:specification:ubl:schema:xsd:Invoice-2::Invoice##urn:cen.eu:en16931:2017#compliant#urn:fdc:peppol.eu:2017:poacc:billing:3.0::2.1");
+      final IProcessIdentifier aProcessID = Phase4PeppolSender.IF.createProcessIdentifierWithDefaultScheme ("urn:fdc:peppol.eu:2017:poacc:billing:01:1.0");
+
+      final Stream <Phase4PeppolBatchItem> aItems = IntStream.range (0, DOCUMENT_COUNT).mapToObj (i -> {
+        final IParticipantIdentifier aReceiverID = Phase4PeppolSender.IF.createParticipantIdentifierWithDefaultScheme ("9915:receiver-" +
+                                                                                                                    (i % RECEIVER_COUNT));
+        return new Phase4PeppolBatchItem ("doc-" + i, aReceiverID, aDocTypeID, aProcessID, (Element) aPayloadElement.cloneNode (true), null);
+      });
+
+      final AtomicInteger aFinished = new AtomicInteger ();
+      final Consumer <Phase4PeppolBatchResult> aResultConsumer = x -> {
+        final int n = aFinished.incrementAndGet ();
+        if (x.isFailure ())
+          LOGGER.warn ("Failed to send " + x);
+        else
+          if (n % 100 == 0)
+            LOGGER.info (n + " documents finished");
+      };
+
+      try (final Phase4PeppolBatchSender aBatchSender = new Phase4PeppolBatchSender (x -> x.senderParticipantID (Phase4PeppolSender.IF.createParticipantIdentifierWithDefaultScheme ("9915:phase4-test-sender"))
+                                                                                           .senderPartyID ("POP000306")
+                                                                                           .receiverEndpointDetails (aCert,
+                                                                                                                     "http://localhost:8080/as4")))
+      {
+        final ICommonsList <Phase4PeppolBatchResult> aResults = aBatchSender.sendAll (aItems, aResultConsumer);
+        final long nTotalMillis = aResults.stream ().mapToLong (Phase4PeppolBatchResult::getDurationMillis).sum ();
+        LOGGER.info ("Average time per document: " + (nTotalMillis / Math.max (1, aResults.size ())) + " ms");
+      }
+    }
+    catch (final Exception ex)
+    {
+      LOGGER.error ("Error sending Peppol messages via AS4", ex);
+    }
+    finally
+    {
+      WebScopeManager.onGlobalEnd ();
+    }
+  }
+}
@@ -0,0 +1,372 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.util.Base64;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import javax.annotation.Nonnull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Element;
+
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.concurrent.ThreadHelper;
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.string.StringHelper;
+import com.helger.httpclient.HttpClientSettings;
+import com.helger.peppolid.IDocumentTypeIdentifier;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.peppolid.IProcessIdentifier;
+import com.helger.phase4.sender.AbstractAS4UserMessageBuilder.ESimpleUserMessageSendResult;
+import com.helger.smpclient.peppol.SMPClientReadOnly;
+import com.helger.web.scope.mock.WebScopeTestRule;
+import com.helger.xml.serialize.read.DOMReader;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Test class for class {@link Phase4PeppolBatchSender} using a mock SMP
+ * server. The test certificate is no Peppol AP certificate, so all documents
+ * fail after the SMP lookup. The throughput is measured against a mock AP
+ * that only accepts the HTTP requests.
+ *
+ * @author Philip Helger
+ */
+public final class Phase4PeppolBatchSenderTest
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (Phase4PeppolBatchSenderTest.class);
+  private static final IDocumentTypeIdentifier DOCTYPE_ID = Phase4PeppolSender.IF.createDocumentTypeIdentifierWithDefaultScheme ("urn:oasis:names:specification:ubl:schema:xsd:Invoice-2::Invoice##urn:cen.eu:en16931:2017#compliant#urn:fdc:peppol.eu:2017:poacc:billing:3.0::2.1");
+  private static final IProcessIdentifier PROCESS_ID = Phase4PeppolSender.IF.createProcessIdentifierWithDefaultScheme ("urn:fdc:peppol.eu:2017:poacc:billing:01:1.0");
+
+  @Rule
+  public final TestRule m_aTestRule = new WebScopeTestRule ();
+
+  private HttpServer m_aSMPServer;
+  private final AtomicInteger m_aSMPRequests = new AtomicInteger ();
+  private String m_sCertificate;
+  private String m_sReceiverPrefix;
+
+  @Nonnull
+  private static String _decode (@Nonnull final String s) throws Exception
+  {
+    return URLDecoder.decode (s, StandardCharsets.UTF_8.name ());
+  }
+
+  @Nonnull
+  private static String _getSchemeAndValue (@Nonnull final String sURIEncoded, final boolean bScheme)
+  {
+    final int nIndex = sURIEncoded.indexOf ("::");
+    return bScheme ? sURIEncoded.substring (0, nIndex) : sURIEncoded.substring (nIndex + 2);
+  }
+
+  @Before
+  public void before () throws Exception
+  {
+    final KeyStore aTrustStore = KeyStore.getInstance ("JKS");
+    try (final InputStream aIS = ClassPathResource.getInputStream ("complete-truststore.jks"))
+    {
+      aTrustStore.load (aIS, "peppol".toCharArray ());
+    }
+    final Certificate aCert = aTrustStore.getCertificate (aTrustStore.aliases ().nextElement ());
+    m_sCertificate = Base64.getEncoder ().encodeToString (aCert.getEncoded ());
+    // The endpoint cache is shared - use new receivers for every test
+    m_sReceiverPrefix = "9915:batch-" + System.nanoTime () + "-";
+
+    // Answers all service metadata requests with the same endpoint
+    m_aSMPServer = HttpServer.create (new InetSocketAddress ("localhost", 0), 0);
+    m_aSMPServer.createContext ("/", aExchange -> {
+      m_aSMPRequests.incrementAndGet ();
+      // Path: /{participant}/services/{doctype}
+      final String [] aPath = StringHelper.getExplodedArray ('/', aExchange.getRequestURI ().getRawPath ().substring (1));
+      String sResponse;
+      try
+      {
+        final String sParticipant = _decode (aPath[0]);
+        final String sDocType = _decode (aPath[2]);
+        sResponse = "<SignedServiceMetadata xmlns='http://busdox.org/serviceMetadata/publishing/1.0/'" +
+                    " xmlns:ids='http://busdox.org/transport/identifiers/1.0/'" +
+                    " xmlns:wsa='http://www.w3.org/2005/08/addressing'>" +
+                    "<ServiceMetadata><ServiceInformation>" +
+                    "<ids:ParticipantIdentifier scheme='" +
+                    _getSchemeAndValue (sParticipant, true) +
+                    "'>" +
+                    _getSchemeAndValue (sParticipant, false) +
+                    "</ids:ParticipantIdentifier>" +
+                    "<ids:DocumentIdentifier scheme='" +
+                    _getSchemeAndValue (sDocType, true) +
+                    "'>" +
+                    _getSchemeAndValue (sDocType, false) +
+                    "</ids:DocumentIdentifier>" +
+                    "<ProcessList><Process>" +
+                    "<ids:ProcessIdentifier scheme='" +
+                    PROCESS_ID.getScheme () +
+                    "'>" +
+                    PROCESS_ID.getValue () +
+                    "</ids:ProcessIdentifier>" +
+                    "<ServiceEndpointList><Endpoint transportProfile='peppol-transport-as4-v2_0'>" +
+                    "<wsa:EndpointReference><wsa:Address>http://localhost:1/as4</wsa:Address></wsa:EndpointReference>" +
+                    "<RequireBusinessLevelSignature>false</RequireBusinessLevelSignature>" +
+                    "<Certificate>" +
+                    m_sCertificate +
+                    "</Certificate>" +
+                    "<ServiceDescription>mock</ServiceDescription>" +
+                    "<TechnicalContactUrl>mock</TechnicalContactUrl>" +
+                    "</Endpoint></ServiceEndpointList>" +
+                    "</Process></ProcessList>" +
+                    "</ServiceInformation></ServiceMetadata></SignedServiceMetadata>";
+      }
+      catch (final Exception ex)
+      {
+        sResponse = null;
+      }
+
+      if (sResponse == null)
+        aExchange.sendResponseHeaders (404, -1);
+      else
+      {
+        final byte [] aBytes = sResponse.getBytes (StandardCharsets.UTF_8);
+        aExchange.getResponseHeaders ().add ("Content-Type", "text/xml");
+        aExchange.sendResponseHeaders (200, aBytes.length);
+        try (final OutputStream aOS = aExchange.getResponseBody ())
+        {
+          aOS.write (aBytes);
+        }
+      }
+      aExchange.close ();
+    });
+    m_aSMPServer.start ();
+  }
+
+  @After
+  public void after ()
+  {
+    if (m_aSMPServer != null)
+      m_aSMPServer.stop (0);
+  }
+
+  @Nonnull
+  private Phase4PeppolBatchSender _createBatchSender (final int nMaxConcurrency, final int nMaxConcurrencyPerReceiver, final int nWindowSize)
+  {
+    final URI aSMPURI = URI.create ("http://localhost:" + m_aSMPServer.getAddress ().getPort () + "/");
+    return new Phase4PeppolBatchSender (x -> x.senderParticipantID (Phase4PeppolSender.IF.createParticipantIdentifierWithDefaultScheme ("9915:phase4-test-sender"))
+                                              .senderPartyID ("POP000306")
+                                              .smpClient (new SMPClientReadOnly (aSMPURI).setVerifySignature (false)
+                                                                                         .setXMLSchemaValidation (false)),
+                                        new HttpClientSettings (),
+                                        nMaxConcurrency,
+                                        nMaxConcurrencyPerReceiver,
+                                        nWindowSize);
+  }
+
+  @Nonnull
+  private Stream <Phase4PeppolBatchItem> _createItems (final int nCount,
+                                                       final int nReceivers,
+                                                       @Nonnull final AtomicInteger aPulled,
+                                                       final int nFatalIndex)
+  {
+    final Element aPayload = DOMReader.readXMLDOM (new ClassPathResource ("examples/base-example.xml")).getDocumentElement ();
+    return IntStream.range (0, nCount).mapToObj (i -> {
+      aPulled.incrementAndGet ();
+      final IParticipantIdentifier aReceiverID = Phase4PeppolSender.IF.createParticipantIdentifierWithDefaultScheme (m_sReceiverPrefix +
+                                                                                                                    (i % nReceivers));
+      return new Phase4PeppolBatchItem ("doc-" + i, aReceiverID, DOCTYPE_ID, PROCESS_ID, (Element) aPayload.cloneNode (true), i == nFatalIndex ? b -> {
+        throw new LinkageError ("Simulated fatal error");
+      } : null);
+    });
+  }
+
+  @Test
+  public void testSharedEndpointCacheAndWindow ()
+  {
+    final int nCount = 30;
+    final int nReceivers = 3;
+    final int nWindowSize = 7;
+    final AtomicInteger aPulled = new AtomicInteger ();
+    final AtomicInteger aFinished = new AtomicInteger ();
+    final AtomicInteger aWindowViolations = new AtomicInteger ();
+    try (final Phase4PeppolBatchSender aBatchSender = _createBatchSender (4, 2, nWindowSize))
+    {
+      final ICommonsList <Phase4PeppolBatchResult> aResults = aBatchSender.sendAll (_createItems (nCount, nReceivers, aPulled, -1), x -> {
+        // The current document is not yet counted as finished
+        final int nFinished = aFinished.incrementAndGet ();
+        final int nMaxPulled = nFinished - 1 + nWindowSize;
+        if (aPulled.get () > nMaxPulled)
+          aWindowViolations.incrementAndGet ();
+      });
+      assertEquals (nCount, aResults.size ());
+      assertEquals (nCount, aFinished.get ());
+      assertEquals (0, aWindowViolations.get ());
+
+      // The mock SMP only returns a test certificate
+      for (final Phase4PeppolBatchResult aResult : aResults)
+      {
+        assertTrue (aResult.isFailure ());
+        assertNotNull (aResult.getException ());
+        assertTrue (aResult.getException ().getMessage (), aResult.getException ().getMessage ().contains ("receiver AP certificate"));
+      }
+
+      // One SMP lookup per receiver, although the documents of each receiver
+      // are read at different times
+      assertEquals (nReceivers, m_aSMPRequests.get ());
+    }
+  }
+
+  @Test (timeout = 60_000)
+  public void testFatalErrorDoesNotBlock ()
+  {
+    final int nCount = 10;
+    final AtomicInteger aPulled = new AtomicInteger ();
+    try (final Phase4PeppolBatchSender aBatchSender = _createBatchSender (2, 1, 100))
+    {
+      // The first document of the only receiver fails fatally
+      final ICommonsList <Phase4PeppolBatchResult> aResults = aBatchSender.sendAll (_createItems (nCount, 1, aPulled, 0), null);
+      // All other documents of the same receiver are skipped
+      assertEquals (0, aResults.size ());
+      assertEquals (nCount, aPulled.get ());
+    }
+  }
+
+  @Test (timeout = 60_000)
+  public void testFatalErrorLaterDocument ()
+  {
+    final int nCount = 10;
+    final AtomicInteger aPulled = new AtomicInteger ();
+    try (final Phase4PeppolBatchSender aBatchSender = _createBatchSender (4, 1, 100))
+    {
+      // Receiver 0 fails with document 4 - documents 0 and 2 are done before
+      final ICommonsList <Phase4PeppolBatchResult> aResults = aBatchSender.sendAll (_createItems (nCount, 2, aPulled, 4), null);
+      assertEquals (7, aResults.size ());
+    }
+  }
+
+  @Test (timeout = 60_000)
+  public void testThroughputWithSlowReceiver () throws Exception
+  {
+    final int nCount = 200;
+    final int nReceivers = 10;
+    final int nSlowMillis = 200;
+
+    // The mock AP answers slowly for receiver 0 only
+    final HttpServer aAPServer = HttpServer.create (new InetSocketAddress ("localhost", 0), 0);
+    final ExecutorService aAPExecutor = Executors.newCachedThreadPool ();
+    aAPServer.setExecutor (aAPExecutor);
+    aAPServer.createContext ("/", aExchange -> {
+      try (final InputStream aIS = aExchange.getRequestBody ())
+      {
+        StreamHelper.getAllBytes (aIS);
+      }
+      if (aExchange.getRequestURI ().getPath ().endsWith ("/slow"))
+        ThreadHelper.sleep (nSlowMillis);
+      aExchange.sendResponseHeaders (200, -1);
+      aExchange.close ();
+    });
+    aAPServer.start ();
+
+    final String sSlowReceiver = m_sReceiverPrefix + "0";
+    final String sAPURL = "http://localhost:" + aAPServer.getAddress ().getPort () + "/as4/";
+    final AtomicInteger aFinishedSlow = new AtomicInteger ();
+    final AtomicInteger aFinishedSlowAtLastFast = new AtomicInteger (-1);
+    final AtomicInteger aFinishedFast = new AtomicInteger ();
+    try (final Phase4PeppolBatchSender aBatchSender = new Phase4PeppolBatchSender (x -> {}, new HttpClientSettings (), 4, 2, 50)
+    {
+      @Override
+      Phase4PeppolBatchResult sendDocument (@Nonnull final Phase4PeppolBatchItem aItem)
+      {
+        // Only the HTTP transmission - the test has no Peppol AP certificate
+        final boolean bSlow = aItem.getReceiverID ().getValue ().equals (sSlowReceiver);
+        final long nStart = System.currentTimeMillis ();
+        ESimpleUserMessageSendResult eResult;
+        try
+        {
+          final HttpURLConnection aConn = (HttpURLConnection) new URL (sAPURL + (bSlow ? "slow" : "fast")).openConnection ();
+          aConn.setDoOutput (true);
+          try (final OutputStream aOS = aConn.getOutputStream ())
+          {
+            aOS.write (aItem.getItemID ().getBytes (StandardCharsets.UTF_8));
+          }
+          eResult = aConn.getResponseCode () == 200 ? ESimpleUserMessageSendResult.SUCCESS
+                                                    : ESimpleUserMessageSendResult.TRANSPORT_ERROR;
+        }
+        catch (final IOException ex)
+        {
+          eResult = ESimpleUserMessageSendResult.TRANSPORT_ERROR;
+        }
+        return new Phase4PeppolBatchResult (aItem, eResult, null, System.currentTimeMillis () - nStart);
+      }
+    })
+    {
+      final int nFastCount = nCount - nCount / nReceivers;
+      final Consumer <Phase4PeppolBatchResult> aResultConsumer = x -> {
+        if (x.getItem ().getReceiverID ().getValue ().equals (sSlowReceiver))
+          aFinishedSlow.incrementAndGet ();
+        else
+          if (aFinishedFast.incrementAndGet () == nFastCount)
+            aFinishedSlowAtLastFast.set (aFinishedSlow.get ());
+      };
+
+      final long nStart = System.nanoTime ();
+      final ICommonsList <Phase4PeppolBatchResult> aResults = aBatchSender.sendAll (_createItems (nCount, nReceivers, new AtomicInteger (), -1),
+                                                                                    aResultConsumer);
+      final long nMillis = (System.nanoTime () - nStart) / 1_000_000;
+      LOGGER.info ("Sent " +
+                   aResults.size () +
+                   " documents to the mock AP in " +
+                   nMillis +
+                   " ms (" +
+                   aResults.size () * 1000L / Math.max (1, nMillis) +
+                   " documents/s)");
+
+      assertEquals (nCount, aResults.size ());
+      assertTrue (aResults.stream ().allMatch (Phase4PeppolBatchResult::isSuccess));
+      // The slow receiver does not hold back the others
+      assertTrue ("Slow documents finished before the last fast one: " + aFinishedSlowAtLastFast.get (),
+                  aFinishedSlowAtLastFast.get () < nCount / nReceivers);
+    }
+    finally
+    {
+      aAPServer.stop (0);
+      aAPExecutor.shutdownNow ();
+    }
+  }
+}
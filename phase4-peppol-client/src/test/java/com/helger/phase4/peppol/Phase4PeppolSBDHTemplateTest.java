@@ -0,0 +1,152 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.helger.commons.datetime.XMLOffsetDateTime;
+import com.helger.commons.io.file.FileSystemRecursiveIterator;
+import com.helger.commons.io.file.IFileFilter;
+import com.helger.commons.io.resource.FileSystemResource;
+import com.helger.peppol.sbdh.payload.PeppolSBDHPayloadWriter;
+import com.helger.peppol.sbdh.spec12.BinaryContentType;
+import com.helger.peppol.sbdh.write.PeppolSBDHDocumentWriter;
+import com.helger.peppolid.IDocumentTypeIdentifier;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.peppolid.IProcessIdentifier;
+import com.helger.sbdh.builder.SBDHWriter;
+import com.helger.xml.serialize.read.DOMReader;
+
+/**
+ * Test class for class {@link Phase4PeppolSBDHTemplate}.
+ *
+ * @author Philip Helger
+ */
+public final class Phase4PeppolSBDHTemplateTest
+{
+  private static final IParticipantIdentifier SENDER = Phase4PeppolSender.IF.createParticipantIdentifierWithDefaultScheme ("9915:phase4-test-sender");
+  private static final IParticipantIdentifier RECEIVER = Phase4PeppolSender.IF.createParticipantIdentifierWithDefaultScheme ("9915:helger");
+  private static final IDocumentTypeIdentifier DOCTYPE = Phase4PeppolSender.IF.createDocumentTypeIdentifierWithDefaultScheme ("urn:oasis:names:specification:ubl:schema:xsd:Invoice-2::Invoice##urn:cen.eu:en16931:2017#compliant#urn:fdc:peppol.eu:2017:poacc:billing:3.0::2.1");
+  private static final IProcessIdentifier PROCESS = Phase4PeppolSender.IF.createProcessIdentifierWithDefaultScheme ("urn:fdc:peppol.eu:2017:poacc:billing:01:1.0");
+  private static final XMLOffsetDateTime DT = XMLOffsetDateTime.of (OffsetDateTime.of (2021, 6, 1, 13, 14, 15, 123_000_000, ZoneOffset.ofHours (2)));
+
+  @Nonnull
+  private static byte [] _getClassic (@Nonnull final String sInstanceID, @Nonnull final Element aPayload)
+  {
+    return SBDHWriter.standardBusinessDocument ()
+                     .getAsBytes (new PeppolSBDHDocumentWriter ().createStandardBusinessDocument (Phase4PeppolSender.createSBDHData (SENDER,
+                                                                                                                                     RECEIVER,
+                                                                                                                                     DOCTYPE,
+                                                                                                                                     PROCESS,
+                                                                                                                                     aPayload.getNamespaceURI (),
+                                                                                                                                     "2.1",
+                                                                                                                                     aPayload.getLocalName (),
+                                                                                                                                     sInstanceID,
+                                                                                                                                     DT,
+                                                                                                                                     aPayload)));
+  }
+
+  private static byte [] _getTemplate (@Nonnull final String sInstanceID, @Nonnull final Element aPayload)
+  {
+    final Phase4PeppolSBDHTemplate aTemplate = Phase4PeppolSBDHTemplate.create (SENDER,
+                                                                                RECEIVER,
+                                                                                DOCTYPE,
+                                                                                PROCESS,
+                                                                                "2.1",
+                                                                                aPayload.getNamespaceURI (),
+                                                                                aPayload.getLocalName ());
+    assertNotNull (aTemplate);
+    return aTemplate.getAsBytes (sInstanceID, DT, aPayload);
+  }
+
+  private static void _assertSame (@Nonnull final String sInstanceID, @Nonnull final Element aPayload)
+  {
+    final byte [] aClassic = _getClassic (sInstanceID, aPayload);
+    final byte [] aTemplate = _getTemplate (sInstanceID, aPayload);
+    assertNotNull (aTemplate);
+    assertArrayEquals (new String (aClassic, StandardCharsets.UTF_8), aClassic, aTemplate);
+  }
+
+  @Test
+  public void testExampleFiles ()
+  {
+    for (final File f : new FileSystemRecursiveIterator (new File ("src/test/resources/examples")).withFilter (IFileFilter.filenameEndsWith (".xml")))
+    {
+      final Document aDoc = DOMReader.readXMLDOM (new FileSystemResource (f));
+      assertNotNull (f.getName (), aDoc);
+      _assertSame ("instance-" + f.getName (), aDoc.getDocumentElement ());
+    }
+  }
+
+  @Test
+  public void testSpecialContent ()
+  {
+    final String [] aPayloads = { "<a:root xmlns:a='urn:a'/>",
+                                  "<root xmlns='urn:a' xmlns:b='urn:b' b:x='1' y='&lt;&amp;&quot;&gt;'>text &amp; &lt;more&gt;</root>",
+                                  "<root xmlns='urn:a' xml:lang='de'><!-- comment -->x<?pi data?>y<![CDATA[<z>]]></root>",
+                                  "<root xmlns='urn:a'><b:child xmlns:b='urn:b'><b:child xmlns:b='urn:c'/></b:child><child xmlns='urn:a'/></root>",
+                                  "<root xmlns='urn:a' xmlns:xsi='http://www.w3.org/2001/XMLSchema-instance' xsi:schemaLocation='urn:a a.xsd'>ä€😀</root>" };
+    for (final String sPayload : aPayloads)
+    {
+      final Document aDoc = DOMReader.readXMLDOM (sPayload);
+      assertNotNull (sPayload, aDoc);
+      _assertSame ("special & <instance>", aDoc.getDocumentElement ());
+    }
+  }
+
+  @Test
+  public void testBinaryContent ()
+  {
+    final BinaryContentType aBC = new BinaryContentType ();
+    aBC.setValue ("Dummy PDF".getBytes (StandardCharsets.ISO_8859_1));
+    aBC.setMimeType ("application/pdf");
+    final Document aDoc = PeppolSBDHPayloadWriter.binaryContent ().getAsDocument (aBC);
+    assertNotNull (aDoc);
+    _assertSame ("binary", aDoc.getDocumentElement ());
+  }
+
+  @Test
+  public void testUnsupported ()
+  {
+    final Phase4PeppolSBDHTemplate aTemplate = Phase4PeppolSBDHTemplate.create (SENDER, RECEIVER, DOCTYPE, PROCESS, "2.1", "urn:a", "root");
+    final String [] aPayloads = { // No namespace on a child element
+                                  "<a:root xmlns:a='urn:a'><child/></a:root>",
+                                  // Namespace bound to multiple prefixes
+                                  "<a:root xmlns:a='urn:a' xmlns='urn:a'><child/><a:child/></a:root>",
+                                  // SBDH namespace
+                                  "<root xmlns='urn:a'><sh:x xmlns:sh='http://www.unece.org/cefact/namespaces/StandardBusinessDocumentHeader'/></root>" };
+    for (final String sPayload : aPayloads)
+    {
+      final Document aDoc = DOMReader.readXMLDOM (sPayload);
+      assertNotNull (sPayload, aDoc);
+      assertNull (aTemplate.getAsBytes ("id", DT, aDoc.getDocumentElement ()));
+    }
+  }
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+import com.helger.phive.api.executorset.VESID;
+import com.helger.phive.api.result.ValidationResultList;
+import com.helger.xml.serialize.read.DOMReader;
+
+/**
+ * Test class for class {@link Phase4PeppolValidationResultCache}.
+ *
+ * @author Philip Helger
+ */
+public final class Phase4PeppolValidationResultCacheTest
+{
+  private static final VESID VESID1 = new VESID ("com.example", "test", "1.0");
+  private static final VESID VESID2 = new VESID ("com.example", "test", "2.0");
+
+  @Test
+  public void testHitAndMiss ()
+  {
+    final Document aDoc1 = DOMReader.readXMLDOM ("<root xmlns='urn:test'><a>1</a></root>");
+    final Document aDoc1b = DOMReader.readXMLDOM ("<root xmlns='urn:test'><a>1</a></root>");
+    final Document aDoc2 = DOMReader.readXMLDOM ("<root xmlns='urn:test'><a>2</a></root>");
+
+    final Phase4PeppolValidationResultCache aCache = new Phase4PeppolValidationResultCache (10);
+    final ValidationResultList aRes1 = aCache.getOrValidate (aDoc1.getDocumentElement (), VESID1, ValidationResultList::new);
+    assertEquals (0, aCache.getHitCount ());
+    assertEquals (1, aCache.getMissCount ());
+
+    // Same content, different DOM instance
+    assertSame (aRes1, aCache.getOrValidate (aDoc1b.getDocumentElement (), VESID1, ValidationResultList::new));
+    assertEquals (1, aCache.getHitCount ());
+
+    // Different content
+    assertNotEquals (Phase4PeppolValidationResultCache.getCacheKey (aDoc1.getDocumentElement (), VESID1),
+                     Phase4PeppolValidationResultCache.getCacheKey (aDoc2.getDocumentElement (), VESID1));
+    aCache.getOrValidate (aDoc2.getDocumentElement (), VESID1, ValidationResultList::new);
+    // Different VESID
+    aCache.getOrValidate (aDoc1.getDocumentElement (), VESID2, ValidationResultList::new);
+    assertEquals (1, aCache.getHitCount ());
+    assertEquals (3, aCache.getMissCount ());
+    assertEquals (3, aCache.size ());
+
+    aCache.clear ();
+    assertEquals (0, aCache.size ());
+  }
+
+  @Test
+  public void testMaxSize ()
+  {
+    final Phase4PeppolValidationResultCache aCache = new Phase4PeppolValidationResultCache (2);
+    for (int i = 0; i < 5; ++i)
+      aCache.getOrValidate (DOMReader.readXMLDOM ("<root xmlns='urn:test'>" + i + "</root>").getDocumentElement (),
+                            VESID1,
+                            ValidationResultList::new);
+    assertEquals (2, aCache.size ());
+  }
+}
@@ -17,6 +17,7 @@
 package com.helger.phase4.peppol.server.servlet;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.security.KeyStore;
 import java.security.KeyStore.PrivateKeyEntry;
@@ -55,6 +56,7 @@ import com.helger.phase4.dump.AS4OutgoingDumperFileBased;
 import com.helger.phase4.messaging.AS4MessagingHelper;
 import com.helger.phase4.messaging.IAS4IncomingMessageMetadata;
 import com.helger.phase4.mgr.MetaAS4Manager;
+import com.helger.phase4.peppol.server.storage.ESBDStorageDurability;
 import com.helger.phase4.peppol.server.storage.StorageHelper;
 import com.helger.phase4.peppol.servlet.Phase4PeppolServletConfiguration;
 import com.helger.phase4.profile.peppol.AS4PeppolProfileRegistarSPI;
@@ -231,16 +233,32 @@ public final class Phase4PeppolWebAppListener extends WebAppListener
     }
   }
 
+  private static void _initSBDStorage ()
+  {
+    final String sDurability = AS4Configuration.getConfig ().getAsString ("peppol.sbd.storage.durability");
+    final ESBDStorageDurability eDurability = ESBDStorageDurability.getFromIDOrDefault (sDurability, ESBDStorageDurability.FSYNC);
+    try
+    {
+      StorageHelper.initSBDStorage (eDurability);
+    }
+    catch (final IOException ex)
+    {
+      throw new InitializationException ("Failed to initialize the SBD storage", ex);
+    }
+  }
+
   @Override
   protected void initManagers ()
   {
     _initAS4 ();
     _initPeppolAS4 ();
+    _initSBDStorage ();
   }
 
   @Override
   protected void beforeContextDestroyed (@Nonnull final ServletContext aSC)
   {
+    StorageHelper.shutdownSBDStorage ();
     AS4ServerInitializer.shutdownAS4Server ();
   }
 }
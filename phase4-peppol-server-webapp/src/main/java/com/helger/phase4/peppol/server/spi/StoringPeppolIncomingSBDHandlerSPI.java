@@ -16,7 +16,10 @@
  */
 package com.helger.phase4.peppol.server.spi;
 
-import java.io.File;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
 
@@ -26,22 +29,28 @@ import org.unece.cefact.namespaces.sbdh.StandardBusinessDocument;
 
 import com.helger.commons.annotation.IsSPIImplementation;
 import com.helger.commons.http.HttpHeaderMap;
-import com.helger.commons.io.file.SimpleFileIO;
 import com.helger.peppol.sbdh.PeppolSBDHDocument;
 import com.helger.phase4.ebms3header.Ebms3UserMessage;
 import com.helger.phase4.messaging.IAS4IncomingMessageMetadata;
+import com.helger.phase4.peppol.server.storage.SBDStorageEntry;
+import com.helger.phase4.peppol.server.storage.SBDStorageWriter;
 import com.helger.phase4.peppol.server.storage.StorageHelper;
 import com.helger.phase4.peppol.servlet.IPhase4PeppolIncomingSBDHandlerSPI;
 import com.helger.phase4.servlet.IAS4MessageState;
 
 /**
- * Logging implementation of {@link IPhase4PeppolIncomingSBDHandlerSPI}.
+ * Storing implementation of {@link IPhase4PeppolIncomingSBDHandlerSPI}. The
+ * SBDs are stored in the {@link SBDStorageWriter} and depending on the
+ * durability level, this method waits until the SBD is stored.
  *
  * @author Philip Helger
  */
 @IsSPIImplementation
 public class StoringPeppolIncomingSBDHandlerSPI implements IPhase4PeppolIncomingSBDHandlerSPI
 {
+  /** The maximum time to wait for the storage */
+  public static final Duration STORAGE_TIMEOUT = Duration.ofSeconds (30);
+
   private static final Logger LOGGER = LoggerFactory.getLogger (StoringPeppolIncomingSBDHandlerSPI.class);
 
   public void handleIncomingSBD (@Nonnull final IAS4IncomingMessageMetadata aMessageMetadata,
@@ -52,10 +61,31 @@ public class StoringPeppolIncomingSBDHandlerSPI implements IPhase4PeppolIncoming
                                  @Nonnull final PeppolSBDHDocument aPeppolSBD,
                                  @Nonnull final IAS4MessageState aState) throws Exception
   {
-    final File aFile = StorageHelper.getStorageFile (aMessageMetadata, ".sbd");
-    if (SimpleFileIO.writeFile (aFile, aSBDBytes).isFailure ())
-      throw new IllegalStateException ("Failed to write SBD to '" + aFile.getAbsolutePath () + "'");
-
-    LOGGER.info ("Wrote SBD to '" + aFile.getAbsolutePath () + "'");
+    final String sMessageID = aUserMessage.getMessageInfo ().getMessageId ();
+    final SBDStorageWriter aStorage = StorageHelper.getSBDStorage ();
+    final CompletableFuture <SBDStorageEntry> aFuture = aStorage.append (sMessageID, aSBDBytes);
+    if (aStorage.getDurability ().isWaitForStorage ())
+    {
+      // The receipt is only sent after this method returned
+      final SBDStorageEntry aEntry;
+      try
+      {
+        aEntry = aFuture.get (STORAGE_TIMEOUT.toMillis (), TimeUnit.MILLISECONDS);
+      }
+      catch (final ExecutionException ex)
+      {
+        throw new IllegalStateException ("Failed to store SBD of message '" + sMessageID + "'", ex.getCause ());
+      }
+      LOGGER.info ("Stored SBD of message '" + sMessageID + "' as " + aEntry.getStorageID ());
+    }
+    else
+    {
+      aFuture.whenComplete ( (aEntry, aEx) -> {
+        if (aEx != null)
+          LOGGER.error ("Failed to store SBD of message '" + sMessageID + "'", aEx);
+        else
+          LOGGER.info ("Stored SBD of message '" + sMessageID + "' as " + aEntry.getStorageID ());
+      });
+    }
   }
 }
@@ -0,0 +1,94 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol.server.storage;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.id.IHasID;
+import com.helger.commons.lang.EnumHelper;
+
+/**
+ * Defines when an incoming SBD is considered stored, and therefore when the
+ * AS4 receipt may be sent.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+public enum ESBDStorageDurability implements IHasID <String>
+{
+  /**
+   * The receipt is sent immediately, the SBD is stored in the background.
+   * Data may be lost on a crash.
+   */
+  ASYNC ("async"),
+  /**
+   * The receipt is sent after the SBD was handed over to the operating system.
+   * Data may be lost if the machine crashes.
+   */
+  WRITTEN ("written"),
+  /**
+   * The receipt is sent after the SBD was synced to disk. Multiple concurrent
+   * messages share a single sync.
+   */
+  FSYNC ("fsync");
+
+  private final String m_sID;
+
+  ESBDStorageDurability (@Nonnull @Nonempty final String sID)
+  {
+    m_sID = sID;
+  }
+
+  @Nonnull
+  @Nonempty
+  public String getID ()
+  {
+    return m_sID;
+  }
+
+  /**
+   * @return <code>true</code> if the request thread needs to wait for the
+   *         storage, <code>false</code> if not.
+   */
+  public boolean isWaitForStorage ()
+  {
+    return this != ASYNC;
+  }
+
+  /**
+   * @return <code>true</code> if the data must be synced to disk before the
+   *         storage is considered complete.
+   */
+  public boolean isSyncToDisk ()
+  {
+    return this == FSYNC;
+  }
+
+  @Nullable
+  public static ESBDStorageDurability getFromIDOrNull (@Nullable final String sID)
+  {
+    return EnumHelper.getFromIDOrNull (ESBDStorageDurability.class, sID);
+  }
+
+  @Nullable
+  public static ESBDStorageDurability getFromIDOrDefault (@Nullable final String sID, @Nullable final ESBDStorageDurability eDefault)
+  {
+    return EnumHelper.getFromIDOrDefault (ESBDStorageDurability.class, sID, eDefault);
+  }
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol.server.storage;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.StringParser;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * The location of a single SBD in the {@link SBDStorageWriter}.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@Immutable
+public final class SBDStorageEntry
+{
+  private static final char SEP = '\t';
+
+  private final String m_sMessageID;
+  private final int m_nSegment;
+  private final long m_nOffset;
+  private final int m_nLength;
+
+  public SBDStorageEntry (@Nonnull @Nonempty final String sMessageID,
+                          @Nonnegative final int nSegment,
+                          @Nonnegative final long nOffset,
+                          @Nonnegative final int nLength)
+  {
+    ValueEnforcer.notEmpty (sMessageID, "MessageID");
+    ValueEnforcer.isGE0 (nSegment, "Segment");
+    ValueEnforcer.isGE0 (nOffset, "Offset");
+    ValueEnforcer.isGE0 (nLength, "Length");
+    m_sMessageID = sMessageID;
+    m_nSegment = nSegment;
+    m_nOffset = nOffset;
+    m_nLength = nLength;
+  }
+
+  /**
+   * @return The AS4 message ID of the message containing the SBD.
+   */
+  @Nonnull
+  @Nonempty
+  public String getMessageID ()
+  {
+    return m_sMessageID;
+  }
+
+  /**
+   * @return The number of the segment file the SBD is contained in.
+   */
+  @Nonnegative
+  public int getSegment ()
+  {
+    return m_nSegment;
+  }
+
+  /**
+   * @return The offset of the SBD bytes in the segment file.
+   */
+  @Nonnegative
+  public long getOffset ()
+  {
+    return m_nOffset;
+  }
+
+  /**
+   * @return The number of bytes of the SBD.
+   */
+  @Nonnegative
+  public int getLength ()
+  {
+    return m_nLength;
+  }
+
+  /**
+   * @return The unique storage ID. Unique across restarts, because each start
+   *         uses a new segment.
+   */
+  @Nonnull
+  @Nonempty
+  public String getStorageID ()
+  {
+    return m_nSegment + "-" + m_nOffset;
+  }
+
+  @Nonnull
+  String getAsIndexLine ()
+  {
+    return m_sMessageID + SEP + m_nSegment + SEP + m_nOffset + SEP + m_nLength + '\n';
+  }
+
+  @Nullable
+  static SBDStorageEntry createFromIndexLine (@Nullable final String sLine)
+  {
+    final String [] aParts = StringHelper.getExplodedArray (SEP, sLine);
+    if (aParts.length != 4 || StringHelper.hasNoText (aParts[0]))
+      return null;
+
+    final int nSegment = StringParser.parseInt (aParts[1], -1);
+    final long nOffset = StringParser.parseLong (aParts[2], -1);
+    final int nLength = StringParser.parseInt (aParts[3], -1);
+    if (nSegment < 0 || nOffset < 0 || nLength < 0)
+      return null;
+    return new SBDStorageEntry (aParts[0], nSegment, nOffset, nLength);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("MessageID", m_sMessageID)
+                                       .append ("Segment", m_nSegment)
+                                       .append ("Offset", m_nOffset)
+                                       .append ("Length", m_nLength)
+                                       .getToString ();
+  }
+}
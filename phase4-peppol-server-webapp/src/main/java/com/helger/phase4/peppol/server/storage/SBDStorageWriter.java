@@ -0,0 +1,516 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol.server.storage;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.StringParser;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * An append-only storage for incoming SBDs. All SBDs are appended to segment
+ * files by a single background thread. All messages that are queued at the
+ * same time are written together and share a single sync to disk ("group
+ * commit"). After the data is written, the location is appended to an index
+ * file, so that an SBD can be found by its AS4 message ID.<br>
+ * Every start uses a new segment file, so storage IDs never collide after a
+ * restart. The index only ever points to completely written data. An
+ * incomplete last index line, e.g. after a crash, is removed on startup.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@ThreadSafe
+public class SBDStorageWriter implements AutoCloseable
+{
+  public static final long DEFAULT_MAX_SEGMENT_SIZE = 256L * 1024 * 1024;
+  public static final int DEFAULT_MAX_BATCH_SIZE = 256;
+  public static final int DEFAULT_MAX_QUEUE_SIZE = 10_000;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (SBDStorageWriter.class);
+  private static final String SEGMENT_PREFIX = "segment-";
+  private static final String SEGMENT_SUFFIX = ".sbd";
+  private static final String INDEX_FILENAME = "index.txt";
+  private static final int RECORD_HEADER_SIZE = 4;
+
+  private static final class PendingWrite
+  {
+    private final String m_sMessageID;
+    private final byte [] m_aBytes;
+    private final CompletableFuture <SBDStorageEntry> m_aFuture = new CompletableFuture <> ();
+
+    PendingWrite (@Nullable final String sMessageID, @Nullable final byte [] aBytes)
+    {
+      m_sMessageID = sMessageID;
+      m_aBytes = aBytes;
+    }
+  }
+
+  // Marker to stop the writer thread
+  private static final PendingWrite STOP = new PendingWrite (null, null);
+
+  private final Path m_aDirectory;
+  private final ESBDStorageDurability m_eDurability;
+  private final long m_nMaxSegmentSize;
+  private final int m_nMaxBatchSize;
+  private final BlockingQueue <PendingWrite> m_aQueue;
+  private final Map <String, SBDStorageEntry> m_aIndex = new ConcurrentHashMap <> ();
+  private final AtomicBoolean m_aClosed = new AtomicBoolean (false);
+  private final Thread m_aWriterThread;
+
+  // Only accessed by the writer thread (and the constructor)
+  private final FileChannel m_aIndexChannel;
+  private int m_nSegment;
+  // null if the next segment could not be opened
+  private FileChannel m_aSegmentChannel;
+
+  /**
+   * Constructor with default settings.
+   *
+   * @param aDirectory
+   *        The directory to store the data in. May not be <code>null</code>.
+   * @param eDurability
+   *        The durability level to use. May not be <code>null</code>.
+   * @throws IOException
+   *         If the directory or the files could not be opened
+   */
+  public SBDStorageWriter (@Nonnull final File aDirectory, @Nonnull final ESBDStorageDurability eDurability) throws IOException
+  {
+    this (aDirectory, eDurability, DEFAULT_MAX_SEGMENT_SIZE, DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_QUEUE_SIZE);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aDirectory
+   *        The directory to store the data in. May not be <code>null</code>.
+   * @param eDurability
+   *        The durability level to use. May not be <code>null</code>.
+   * @param nMaxSegmentSize
+   *        The maximum size of a segment file in bytes, after which a new
+   *        segment is started. Must be &gt; 0.
+   * @param nMaxBatchSize
+   *        The maximum number of SBDs that are written with a single sync.
+   *        Must be &gt; 0.
+   * @param nMaxQueueSize
+   *        The maximum number of SBDs waiting to be written. If the queue is
+   *        full, callers block. Must be &gt; 0.
+   * @throws IOException
+   *         If the directory or the files could not be opened
+   */
+  public SBDStorageWriter (@Nonnull final File aDirectory,
+                           @Nonnull final ESBDStorageDurability eDurability,
+                           @Nonnegative final long nMaxSegmentSize,
+                           @Nonnegative final int nMaxBatchSize,
+                           @Nonnegative final int nMaxQueueSize) throws IOException
+  {
+    ValueEnforcer.notNull (aDirectory, "Directory");
+    ValueEnforcer.notNull (eDurability, "Durability");
+    ValueEnforcer.isGT0 (nMaxSegmentSize, "MaxSegmentSize");
+    ValueEnforcer.isGT0 (nMaxBatchSize, "MaxBatchSize");
+    ValueEnforcer.isGT0 (nMaxQueueSize, "MaxQueueSize");
+
+    m_aDirectory = aDirectory.toPath ();
+    m_eDurability = eDurability;
+    m_nMaxSegmentSize = nMaxSegmentSize;
+    m_nMaxBatchSize = nMaxBatchSize;
+    m_aQueue = new LinkedBlockingQueue <> (nMaxQueueSize);
+
+    Files.createDirectories (m_aDirectory);
+    final Path aIndexFile = m_aDirectory.resolve (INDEX_FILENAME);
+    _truncateIncompleteLastLine (aIndexFile);
+    _readIndex (aIndexFile);
+    m_aIndexChannel = FileChannel.open (aIndexFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+
+    // Always start a new segment
+    m_nSegment = _getHighestSegment () + 1;
+    m_aSegmentChannel = _openSegment (m_nSegment);
+
+    m_aWriterThread = new Thread (this::_run, "phase4-sbd-storage-writer");
+    m_aWriterThread.setDaemon (true);
+    m_aWriterThread.start ();
+
+    LOGGER.info ("Started SBD storage in '" +
+                 m_aDirectory +
+                 "' with segment " +
+                 m_nSegment +
+                 ", " +
+                 m_aIndex.size () +
+                 " indexed SBDs and durability " +
+                 eDurability);
+  }
+
+  /**
+   * @return The position directly after the last newline in the provided
+   *         channel or 0 if there is none.
+   */
+  @Nonnegative
+  private static long _getPositionAfterLastNewline (@Nonnull final FileChannel aChannel) throws IOException
+  {
+    final ByteBuffer aBuffer = ByteBuffer.allocate (4096);
+    long nEnd = aChannel.size ();
+    while (nEnd > 0)
+    {
+      final long nStart = Math.max (0, nEnd - aBuffer.capacity ());
+      // Cast to Buffer to stay compatible with the Java 8 runtime
+      ((Buffer) aBuffer).clear ();
+      ((Buffer) aBuffer).limit ((int) (nEnd - nStart));
+      while (aBuffer.hasRemaining ())
+        if (aChannel.read (aBuffer, nStart + aBuffer.position ()) < 0)
+          throw new IOException ("Unexpected end of index file");
+      for (int i = aBuffer.limit () - 1; i >= 0; --i)
+        if (aBuffer.get (i) == '\n')
+          return nStart + i + 1;
+      nEnd = nStart;
+    }
+    return 0;
+  }
+
+  /**
+   * An incomplete last line may be present after a crash. It must be removed,
+   * because otherwise the next appended line would be merged with it.
+   */
+  private static void _truncateIncompleteLastLine (@Nonnull final Path aIndexFile) throws IOException
+  {
+    if (Files.isRegularFile (aIndexFile))
+      try (final FileChannel aChannel = FileChannel.open (aIndexFile, StandardOpenOption.READ, StandardOpenOption.WRITE))
+      {
+        final long nSize = aChannel.size ();
+        final long nNewSize = _getPositionAfterLastNewline (aChannel);
+        if (nNewSize < nSize)
+        {
+          LOGGER.warn ("Removing incomplete last line of " + (nSize - nNewSize) + " bytes from SBD storage index '" + aIndexFile + "'");
+          aChannel.truncate (nNewSize);
+          aChannel.force (false);
+        }
+      }
+  }
+
+  private void _readIndex (@Nonnull final Path aIndexFile) throws IOException
+  {
+    if (Files.isRegularFile (aIndexFile))
+      try (final BufferedReader aReader = Files.newBufferedReader (aIndexFile, StandardCharsets.UTF_8))
+      {
+        String sLine;
+        while ((sLine = aReader.readLine ()) != null)
+        {
+          // Ignore lines that cannot be parsed
+          final SBDStorageEntry aEntry = SBDStorageEntry.createFromIndexLine (sLine);
+          if (aEntry != null)
+            m_aIndex.put (aEntry.getMessageID (), aEntry);
+        }
+      }
+  }
+
+  private int _getHighestSegment () throws IOException
+  {
+    int ret = -1;
+    try (final DirectoryStream <Path> aStream = Files.newDirectoryStream (m_aDirectory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX))
+    {
+      for (final Path aCur : aStream)
+      {
+        final String sName = aCur.getFileName ().toString ();
+        final String sNumber = sName.substring (SEGMENT_PREFIX.length (), sName.length () - SEGMENT_SUFFIX.length ());
+        ret = Math.max (ret, StringParser.parseInt (sNumber, -1));
+      }
+    }
+    return ret;
+  }
+
+  @Nonnull
+  private Path _getSegmentPath (@Nonnegative final int nSegment)
+  {
+    return m_aDirectory.resolve (SEGMENT_PREFIX + StringHelper.getLeadingZero (nSegment, 8) + SEGMENT_SUFFIX);
+  }
+
+  @Nonnull
+  private FileChannel _openSegment (@Nonnegative final int nSegment) throws IOException
+  {
+    return FileChannel.open (_getSegmentPath (nSegment), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+  }
+
+  private void _run ()
+  {
+    final ICommonsList <PendingWrite> aBatch = new CommonsArrayList <> (m_nMaxBatchSize);
+    boolean bStop = false;
+    while (!bStop)
+    {
+      try
+      {
+        aBatch.add (m_aQueue.take ());
+      }
+      catch (final InterruptedException ex)
+      {
+        Thread.currentThread ().interrupt ();
+        break;
+      }
+      // Take everything else that is already waiting
+      m_aQueue.drainTo (aBatch, m_nMaxBatchSize - 1);
+      bStop = aBatch.removeObject (STOP).isChanged ();
+      if (aBatch.isNotEmpty ())
+        _writeBatch (aBatch);
+      aBatch.clear ();
+    }
+
+    // Fail everything that was queued concurrently to closing
+    m_aQueue.drainTo (aBatch);
+    for (final PendingWrite aWrite : aBatch)
+      if (aWrite != STOP)
+        aWrite.m_aFuture.completeExceptionally (new IllegalStateException ("The SBD storage was closed"));
+  }
+
+  private void _writeBatch (@Nonnull final ICommonsList <PendingWrite> aBatch)
+  {
+    final ICommonsList <SBDStorageEntry> aEntries = new CommonsArrayList <> (aBatch.size ());
+    try
+    {
+      final StringBuilder aIndexLines = new StringBuilder ();
+      for (final PendingWrite aWrite : aBatch)
+      {
+        if (m_aSegmentChannel != null &&
+            m_aSegmentChannel.position () > 0 &&
+            m_aSegmentChannel.position () + aWrite.m_aBytes.length > m_nMaxSegmentSize)
+        {
+          // The old segment must be complete on disk
+          final FileChannel aOldChannel = m_aSegmentChannel;
+          m_aSegmentChannel = null;
+          try
+          {
+            aOldChannel.force (false);
+          }
+          finally
+          {
+            aOldChannel.close ();
+          }
+        }
+        if (m_aSegmentChannel == null)
+        {
+          // Start a new segment - also if opening it failed for a previous
+          // batch
+          m_nSegment++;
+          m_aSegmentChannel = _openSegment (m_nSegment);
+        }
+
+        final ByteBuffer aHeader = ByteBuffer.allocate (RECORD_HEADER_SIZE).putInt (0, aWrite.m_aBytes.length);
+        final ByteBuffer aData = ByteBuffer.wrap (aWrite.m_aBytes);
+        final long nOffset = m_aSegmentChannel.position () + RECORD_HEADER_SIZE;
+        while (aHeader.hasRemaining () || aData.hasRemaining ())
+          m_aSegmentChannel.write (new ByteBuffer [] { aHeader, aData });
+
+        final SBDStorageEntry aEntry = new SBDStorageEntry (aWrite.m_sMessageID, m_nSegment, nOffset, aWrite.m_aBytes.length);
+        aEntries.add (aEntry);
+        aIndexLines.append (aEntry.getAsIndexLine ());
+      }
+
+      // One sync for the whole batch - data before index
+      if (m_eDurability.isSyncToDisk ())
+        m_aSegmentChannel.force (false);
+
+      final ByteBuffer aIndexBuffer = ByteBuffer.wrap (aIndexLines.toString ().getBytes (StandardCharsets.UTF_8));
+      while (aIndexBuffer.hasRemaining ())
+        m_aIndexChannel.write (aIndexBuffer);
+      if (m_eDurability.isSyncToDisk ())
+        m_aIndexChannel.force (false);
+    }
+    catch (final IOException | RuntimeException ex)
+    {
+      LOGGER.error ("Failed to store " + aBatch.size () + " SBDs", ex);
+      for (final PendingWrite aWrite : aBatch)
+        aWrite.m_aFuture.completeExceptionally (ex);
+      return;
+    }
+
+    for (int i = 0; i < aEntries.size (); ++i)
+    {
+      final SBDStorageEntry aEntry = aEntries.get (i);
+      m_aIndex.put (aEntry.getMessageID (), aEntry);
+      aBatch.get (i).m_aFuture.complete (aEntry);
+    }
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Stored " + aEntries.size () + " SBDs in segment " + m_nSegment);
+  }
+
+  /**
+   * @return The durability level of this storage. Never <code>null</code>.
+   */
+  @Nonnull
+  public final ESBDStorageDurability getDurability ()
+  {
+    return m_eDurability;
+  }
+
+  /**
+   * Queue the provided SBD for storage. The call only blocks if the queue is
+   * full.
+   *
+   * @param sMessageID
+   *        The AS4 message ID of the message containing the SBD. May neither
+   *        be <code>null</code> nor empty.
+   * @param aSBDBytes
+   *        The SBD bytes to store. May not be <code>null</code>.
+   * @return A future that is completed, when the data is stored according to
+   *         the durability level of this storage. Never <code>null</code>.
+   */
+  @Nonnull
+  public CompletableFuture <SBDStorageEntry> append (@Nonnull @Nonempty final String sMessageID, @Nonnull final byte [] aSBDBytes)
+  {
+    ValueEnforcer.notEmpty (sMessageID, "MessageID");
+    ValueEnforcer.notNull (aSBDBytes, "SBDBytes");
+    if (m_aClosed.get ())
+      throw new IllegalStateException ("The SBD storage is already closed");
+
+    final PendingWrite aWrite = new PendingWrite (sMessageID, aSBDBytes);
+    try
+    {
+      m_aQueue.put (aWrite);
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+      aWrite.m_aFuture.completeExceptionally (ex);
+    }
+    return aWrite.m_aFuture;
+  }
+
+  /**
+   * Find the storage entry of the provided message ID.
+   *
+   * @param sMessageID
+   *        The AS4 message ID to search. May be <code>null</code>.
+   * @return <code>null</code> if no such SBD is stored.
+   */
+  @Nullable
+  public SBDStorageEntry getEntryOfMessageID (@Nullable final String sMessageID)
+  {
+    return sMessageID == null ? null : m_aIndex.get (sMessageID);
+  }
+
+  /**
+   * Read the SBD bytes of the provided message ID.
+   *
+   * @param sMessageID
+   *        The AS4 message ID to search. May be <code>null</code>.
+   * @return <code>null</code> if no such SBD is stored.
+   * @throws IOException
+   *         In case reading fails
+   */
+  @Nullable
+  public byte [] readSBD (@Nullable final String sMessageID) throws IOException
+  {
+    final SBDStorageEntry aEntry = getEntryOfMessageID (sMessageID);
+    if (aEntry == null)
+      return null;
+
+    try (final FileChannel aChannel = FileChannel.open (_getSegmentPath (aEntry.getSegment ()), StandardOpenOption.READ))
+    {
+      final ByteBuffer aBuffer = ByteBuffer.allocate (aEntry.getLength ());
+      long nPos = aEntry.getOffset ();
+      while (aBuffer.hasRemaining ())
+      {
+        final int nRead = aChannel.read (aBuffer, nPos);
+        if (nRead < 0)
+          throw new IOException ("Unexpected end of segment " + aEntry.getSegment () + " for " + aEntry);
+        nPos += nRead;
+      }
+      return aBuffer.array ();
+    }
+  }
+
+  /**
+   * @return The number of indexed SBDs.
+   */
+  @Nonnegative
+  public int getIndexedCount ()
+  {
+    return m_aIndex.size ();
+  }
+
+  /**
+   * Stop accepting new SBDs, write all pending SBDs and close all files.
+   */
+  public void close ()
+  {
+    if (m_aClosed.getAndSet (true))
+      return;
+
+    try
+    {
+      m_aQueue.put (STOP);
+      m_aWriterThread.join ();
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+      LOGGER.warn ("Interrupted while waiting for the SBD storage writer to finish");
+    }
+
+    try
+    {
+      if (m_aSegmentChannel != null)
+      {
+        m_aSegmentChannel.force (false);
+        m_aSegmentChannel.close ();
+      }
+      m_aIndexChannel.force (false);
+      m_aIndexChannel.close ();
+    }
+    catch (final IOException ex)
+    {
+      LOGGER.error ("Failed to close SBD storage", ex);
+    }
+    LOGGER.info ("Closed SBD storage in '" + m_aDirectory + "'");
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("Directory", m_aDirectory)
+                                       .append ("Durability", m_eDurability)
+                                       .append ("MaxSegmentSize", m_nMaxSegmentSize)
+                                       .append ("MaxBatchSize", m_nMaxBatchSize)
+                                       .getToString ();
+  }
+}
@@ -17,12 +17,16 @@
 package com.helger.phase4.peppol.server.storage;
 
 import java.io.File;
+import java.io.IOException;
 import java.time.OffsetDateTime;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
-import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.Nonempty;
@@ -38,11 +42,16 @@ import com.helger.photon.app.io.WebFileIO;
  *
  * @author Philip Helger
  */
-@Immutable
+@ThreadSafe
 public final class StorageHelper
 {
+  // Unique per start, so that file names don't collide after a restart
+  private static final String START_ID = Long.toString (System.currentTimeMillis (), Character.MAX_RADIX);
   // In memory counter
   private static final AtomicInteger FILE_SEQ_COUNTER = new AtomicInteger (0);
+  private static final Logger LOGGER = LoggerFactory.getLogger (StorageHelper.class);
+
+  private static volatile SBDStorageWriter s_aSBDStorageWriter;
 
   private StorageHelper ()
   {}
@@ -54,6 +63,8 @@ public final class StorageHelper
     final String sMonth = StringHelper.getLeadingZero (aLDT.getMonthValue (), 2);
     final String sDay = StringHelper.getLeadingZero (aLDT.getDayOfMonth (), 2);
     final String sFilename = FilenameHelper.getAsSecureValidFilename (PDTIOHelper.getTimeForFilename (aLDT.toLocalTime ()) +
+                                                                      "-" +
+                                                                      START_ID +
                                                                       "-" +
                                                                       FILE_SEQ_COUNTER.incrementAndGet () +
                                                                       "-" +
@@ -80,4 +91,50 @@ public final class StorageHelper
 
     return _getStorageFile (MetaAS4Manager.getTimestampMgr ().getCurrentDateTime (), sMessageID + "-" + nTry + sExt);
   }
+
+  /**
+   * Start the storage for incoming SBDs.
+   *
+   * @param eDurability
+   *        The durability level to use. May not be <code>null</code>.
+   * @throws IOException
+   *         If the storage could not be opened
+   * @since 1.3.2
+   */
+  public static void initSBDStorage (@Nonnull final ESBDStorageDurability eDurability) throws IOException
+  {
+    if (s_aSBDStorageWriter != null)
+      throw new IllegalStateException ("SBD storage is already initialized");
+    s_aSBDStorageWriter = new SBDStorageWriter (WebFileIO.getDataIO ().getFile ("sbd-store"), eDurability);
+  }
+
+  /**
+   * @return The storage for incoming SBDs. Never <code>null</code>.
+   * @throws IllegalStateException
+   *         If the storage was not initialized
+   * @since 1.3.2
+   */
+  @Nonnull
+  public static SBDStorageWriter getSBDStorage ()
+  {
+    final SBDStorageWriter ret = s_aSBDStorageWriter;
+    if (ret == null)
+      throw new IllegalStateException ("SBD storage is not initialized");
+    return ret;
+  }
+
+  /**
+   * Write all pending SBDs and close the storage.
+   *
+   * @since 1.3.2
+   */
+  public static void shutdownSBDStorage ()
+  {
+    if (s_aSBDStorageWriter != null)
+    {
+      s_aSBDStorageWriter.close ();
+      s_aSBDStorageWriter = null;
+      LOGGER.info ("Successfully shutdown SBD storage");
+    }
+  }
 }
@@ -0,0 +1,60 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol.server.storage;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.helger.commons.string.StringHelper;
+
+/**
+ * Test class for class {@link ESBDStorageDurability}.
+ *
+ * @author Philip Helger
+ */
+public final class ESBDStorageDurabilityTest
+{
+  @Test
+  public void testBasic ()
+  {
+    for (final ESBDStorageDurability e : ESBDStorageDurability.values ())
+    {
+      assertTrue (StringHelper.hasText (e.getID ()));
+      assertSame (e, ESBDStorageDurability.getFromIDOrNull (e.getID ()));
+      assertSame (e, ESBDStorageDurability.getFromIDOrDefault (e.getID (), null));
+    }
+    assertNull (ESBDStorageDurability.getFromIDOrNull ("bla"));
+    assertSame (ESBDStorageDurability.FSYNC, ESBDStorageDurability.getFromIDOrDefault ("bla", ESBDStorageDurability.FSYNC));
+  }
+
+  @Test
+  public void testModes ()
+  {
+    assertFalse (ESBDStorageDurability.ASYNC.isWaitForStorage ());
+    assertFalse (ESBDStorageDurability.ASYNC.isSyncToDisk ());
+
+    assertTrue (ESBDStorageDurability.WRITTEN.isWaitForStorage ());
+    assertFalse (ESBDStorageDurability.WRITTEN.isSyncToDisk ());
+
+    assertTrue (ESBDStorageDurability.FSYNC.isWaitForStorage ());
+    assertTrue (ESBDStorageDurability.FSYNC.isSyncToDisk ());
+  }
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol.server.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * Test class for class {@link SBDStorageEntry}.
+ *
+ * @author Philip Helger
+ */
+public final class SBDStorageEntryTest
+{
+  @Test
+  public void testIndexLine ()
+  {
+    final SBDStorageEntry aEntry = new SBDStorageEntry ("msg@phase4", 3, 1234567890123L, 42);
+    assertEquals ("3-1234567890123", aEntry.getStorageID ());
+
+    final String sLine = aEntry.getAsIndexLine ();
+    assertEquals ("msg@phase4\t3\t1234567890123\t42\n", sLine);
+
+    // Without the trailing newline, as returned by readLine
+    final SBDStorageEntry aRead = SBDStorageEntry.createFromIndexLine (sLine.substring (0, sLine.length () - 1));
+    assertNotNull (aRead);
+    assertEquals ("msg@phase4", aRead.getMessageID ());
+    assertEquals (3, aRead.getSegment ());
+    assertEquals (1234567890123L, aRead.getOffset ());
+    assertEquals (42, aRead.getLength ());
+  }
+
+  @Test
+  public void testInvalidIndexLine ()
+  {
+    assertNull (SBDStorageEntry.createFromIndexLine (null));
+    assertNull (SBDStorageEntry.createFromIndexLine (""));
+    assertNull (SBDStorageEntry.createFromIndexLine ("msg"));
+    assertNull (SBDStorageEntry.createFromIndexLine ("msg\t1\t2"));
+    assertNull (SBDStorageEntry.createFromIndexLine ("msg\t1\t2\t3\t4"));
+    assertNull (SBDStorageEntry.createFromIndexLine ("\t1\t2\t3"));
+    assertNull (SBDStorageEntry.createFromIndexLine ("msg\tx\t2\t3"));
+    assertNull (SBDStorageEntry.createFromIndexLine ("msg\t1\t-2\t3"));
+    assertNull (SBDStorageEntry.createFromIndexLine ("msg\t1\t2\t"));
+  }
+
+  @Test (expected = IllegalArgumentException.class)
+  public void testInvalidConstructor ()
+  {
+    new SBDStorageEntry ("msg", -1, 0, 0);
+  }
+}
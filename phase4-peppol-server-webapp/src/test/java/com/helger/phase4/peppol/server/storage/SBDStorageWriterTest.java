@@ -0,0 +1,261 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol.server.storage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.string.StringHelper;
+
+/**
+ * Test class for class {@link SBDStorageWriter}.
+ *
+ * @author Philip Helger
+ */
+public final class SBDStorageWriterTest
+{
+  @Rule
+  public final TemporaryFolder m_aTempFolder = new TemporaryFolder ();
+
+  @Nonnull
+  private static byte [] _getBytes (@Nonnull final String s)
+  {
+    return s.getBytes (StandardCharsets.UTF_8);
+  }
+
+  @Nonnull
+  private static SBDStorageEntry _append (@Nonnull final SBDStorageWriter aWriter,
+                                          @Nonnull final String sMessageID,
+                                          @Nonnull final String sContent) throws Exception
+  {
+    return aWriter.append (sMessageID, _getBytes (sContent)).get (10, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void testWriteAndRead () throws Exception
+  {
+    final File aDir = m_aTempFolder.newFolder ();
+    try (final SBDStorageWriter aWriter = new SBDStorageWriter (aDir, ESBDStorageDurability.FSYNC))
+    {
+      assertEquals (0, aWriter.getIndexedCount ());
+      assertNull (aWriter.readSBD ("msg1"));
+
+      final SBDStorageEntry aEntry1 = _append (aWriter, "msg1", "<sbd1/>");
+      final SBDStorageEntry aEntry2 = _append (aWriter, "msg2", "<sbd22/>");
+      assertEquals ("msg1", aEntry1.getMessageID ());
+      assertEquals (7, aEntry1.getLength ());
+      assertEquals (aEntry1.getSegment (), aEntry2.getSegment ());
+      assertTrue (aEntry2.getOffset () > aEntry1.getOffset ());
+      assertTrue (!aEntry1.getStorageID ().equals (aEntry2.getStorageID ()));
+
+      assertEquals (2, aWriter.getIndexedCount ());
+      assertArrayEquals (_getBytes ("<sbd1/>"), aWriter.readSBD ("msg1"));
+      assertArrayEquals (_getBytes ("<sbd22/>"), aWriter.readSBD ("msg2"));
+      assertNull (aWriter.readSBD ("msg3"));
+      assertNull (aWriter.readSBD (null));
+    }
+  }
+
+  @Test
+  public void testManyConcurrent () throws Exception
+  {
+    final File aDir = m_aTempFolder.newFolder ();
+    final int nCount = 500;
+    // Small segments to force segment changes
+    try (final SBDStorageWriter aWriter = new SBDStorageWriter (aDir, ESBDStorageDurability.WRITTEN, 1024, 16, 100))
+    {
+      final ICommonsList <CompletableFuture <SBDStorageEntry>> aFutures = new CommonsArrayList <> ();
+      for (int i = 0; i < nCount; ++i)
+        aFutures.add (aWriter.append ("msg" + i, _getBytes ("<sbd" + i + "/>")));
+      for (final CompletableFuture <SBDStorageEntry> aFuture : aFutures)
+        assertNotNull (aFuture.get (10, TimeUnit.SECONDS));
+      assertTrue (aFutures.getLast ().get ().getSegment () > aFutures.getFirst ().get ().getSegment ());
+
+      for (int i = 0; i < nCount; ++i)
+        assertArrayEquals (_getBytes ("<sbd" + i + "/>"), aWriter.readSBD ("msg" + i));
+    }
+  }
+
+  @Test
+  public void testAllDurabilities () throws Exception
+  {
+    for (final ESBDStorageDurability eDurability : ESBDStorageDurability.values ())
+    {
+      final File aDir = m_aTempFolder.newFolder (eDurability.getID ());
+      try (final SBDStorageWriter aWriter = new SBDStorageWriter (aDir, eDurability))
+      {
+        assertEquals (eDurability, aWriter.getDurability ());
+        final SBDStorageEntry aEntry = _append (aWriter, "msg", "<sbd/>");
+        assertNotNull (aEntry);
+        assertArrayEquals (_getBytes ("<sbd/>"), aWriter.readSBD ("msg"));
+      }
+
+      // Everything is on disk after close
+      try (final SBDStorageWriter aWriter = new SBDStorageWriter (aDir, eDurability))
+      {
+        assertEquals (1, aWriter.getIndexedCount ());
+        assertArrayEquals (_getBytes ("<sbd/>"), aWriter.readSBD ("msg"));
+      }
+    }
+  }
+
+  @Test
+  public void testRestart () throws Exception
+  {
+    final File aDir = m_aTempFolder.newFolder ();
+    final SBDStorageEntry aEntry1;
+    try (final SBDStorageWriter aWriter = new SBDStorageWriter (aDir, ESBDStorageDurability.FSYNC))
+    {
+      aEntry1 = _append (aWriter, "msg1", "<sbd1/>");
+    }
+
+    try (final SBDStorageWriter aWriter = new SBDStorageWriter (aDir, ESBDStorageDurability.FSYNC))
+    {
+      assertEquals (1, aWriter.getIndexedCount ());
+      assertArrayEquals (_getBytes ("<sbd1/>"), aWriter.readSBD ("msg1"));
+
+      // Each start uses a new segment
+      final SBDStorageEntry aEntry2 = _append (aWriter, "msg2", "<sbd2/>");
+      assertTrue (aEntry2.getSegment () > aEntry1.getSegment ());
+      assertTrue (!aEntry1.getStorageID ().equals (aEntry2.getStorageID ()));
+    }
+  }
+
+  @Test
+  public void testRestartWithTornIndex () throws Exception
+  {
+    final File aDir = m_aTempFolder.newFolder ();
+    try (final SBDStorageWriter aWriter = new SBDStorageWriter (aDir, ESBDStorageDurability.FSYNC))
+    {
+      _append (aWriter, "msg1", "<sbd1/>");
+      _append (aWriter, "msg2", "<sbd2/>");
+    }
+
+    // Simulate a crash while writing an index line
+    final Path aIndexFile = aDir.toPath ().resolve ("index.txt");
+    final long nSizeBefore = Files.size (aIndexFile);
+    Files.write (aIndexFile, _getBytes ("msg3\t0\t123"), StandardOpenOption.APPEND);
+
+    try (final SBDStorageWriter aWriter = new SBDStorageWriter (aDir, ESBDStorageDurability.FSYNC))
+    {
+      // The torn line was removed
+      assertEquals (nSizeBefore, Files.size (aIndexFile));
+      assertEquals (2, aWriter.getIndexedCount ());
+      assertNull (aWriter.getEntryOfMessageID ("msg3"));
+
+      _append (aWriter, "msg4", "<sbd4/>");
+    }
+
+    // The line appended after the recovery must be readable
+    try (final SBDStorageWriter aWriter = new SBDStorageWriter (aDir, ESBDStorageDurability.FSYNC))
+    {
+      assertEquals (3, aWriter.getIndexedCount ());
+      assertArrayEquals (_getBytes ("<sbd1/>"), aWriter.readSBD ("msg1"));
+      assertArrayEquals (_getBytes ("<sbd2/>"), aWriter.readSBD ("msg2"));
+      assertArrayEquals (_getBytes ("<sbd4/>"), aWriter.readSBD ("msg4"));
+    }
+  }
+
+  @Test
+  public void testRestartWithOnlyTornIndexLine () throws Exception
+  {
+    final File aDir = m_aTempFolder.newFolder ();
+    final Path aIndexFile = aDir.toPath ().resolve ("index.txt");
+    Files.write (aIndexFile, _getBytes ("msg1\t0\t4\t1"));
+
+    try (final SBDStorageWriter aWriter = new SBDStorageWriter (aDir, ESBDStorageDurability.FSYNC))
+    {
+      assertEquals (0, Files.size (aIndexFile));
+      assertEquals (0, aWriter.getIndexedCount ());
+      _append (aWriter, "msg2", "<sbd2/>");
+    }
+
+    try (final SBDStorageWriter aWriter = new SBDStorageWriter (aDir, ESBDStorageDurability.FSYNC))
+    {
+      assertEquals (1, aWriter.getIndexedCount ());
+      assertArrayEquals (_getBytes ("<sbd2/>"), aWriter.readSBD ("msg2"));
+    }
+  }
+
+  @Test
+  public void testFailedSegmentChange () throws Exception
+  {
+    final File aDir = m_aTempFolder.newFolder ();
+    // Segments only take a single SBD
+    try (final SBDStorageWriter aWriter = new SBDStorageWriter (aDir, ESBDStorageDurability.WRITTEN, 8, 16, 1))
+    {
+      final SBDStorageEntry aEntry1 = _append (aWriter, "msg1", "<sbd1/>");
+
+      // Block the next segment, so that opening it fails
+      final int nBlocked = aEntry1.getSegment () + 1;
+      Files.createFile (aDir.toPath ().resolve ("segment-" + StringHelper.getLeadingZero (nBlocked, 8) + ".sbd"));
+      try
+      {
+        _append (aWriter, "msg2", "<sbd2/>");
+        fail ();
+      }
+      catch (final ExecutionException ex)
+      {
+        // expected
+      }
+
+      // The next batch opens another segment
+      final SBDStorageEntry aEntry3 = _append (aWriter, "msg3", "<sbd3/>");
+      assertTrue (aEntry3.getSegment () > nBlocked);
+      assertArrayEquals (_getBytes ("<sbd1/>"), aWriter.readSBD ("msg1"));
+      assertNull (aWriter.readSBD ("msg2"));
+      assertArrayEquals (_getBytes ("<sbd3/>"), aWriter.readSBD ("msg3"));
+    }
+  }
+
+  @Test
+  public void testAppendAfterClose () throws Exception
+  {
+    final SBDStorageWriter aWriter = new SBDStorageWriter (m_aTempFolder.newFolder (), ESBDStorageDurability.WRITTEN);
+    aWriter.close ();
+    try
+    {
+      aWriter.append ("msg", _getBytes ("<sbd/>"));
+      fail ();
+    }
+    catch (final IllegalStateException ex)
+    {
+      // expected
+    }
+  }
+}
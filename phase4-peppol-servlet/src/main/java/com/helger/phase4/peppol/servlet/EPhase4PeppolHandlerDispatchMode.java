@@ -0,0 +1,50 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol.servlet;
+
+/**
+ * Defines how {@link Phase4PeppolServletMessageProcessorSPI} invokes the
+ * registered {@link IPhase4PeppolIncomingSBDHandlerSPI} instances.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+public enum EPhase4PeppolHandlerDispatchMode
+{
+  /**
+   * All handlers are invoked one after another in the request thread. This is
+   * the default.
+   */
+  SEQUENTIAL,
+  /**
+   * All handlers are invoked in parallel on an executor and the request thread
+   * waits until all of them finished or the timeout elapsed. Exceptions are
+   * handled like in {@link #SEQUENTIAL} mode.
+   */
+  PARALLEL,
+  /**
+   * All handlers are invoked in parallel on an executor and the response is
+   * sent without waiting for them. Exceptions of the handlers can only be
+   * logged and never result in an AS4 error.
+   */
+  ASYNCHRONOUS;
+
+  public boolean isUseExecutor ()
+  {
+    return this != SEQUENTIAL;
+  }
+}
@@ -43,10 +43,11 @@ public interface IPhase4PeppolIncomingSBDHandlerSPI
    *        Message metadata. Includes data when and from whom it was received.
    *        Never <code>null</code>. Since v0.9.8.
    * @param aHeaders
-   *        The (HTTP) headers of the incoming request. Never <code>null</code>.
+   *        The (HTTP) headers of the incoming request. Each handler gets its
+   *        own copy. Never <code>null</code>.
    * @param aUserMessage
-   *        The received EBMS user message. Never <code>null</code>. Since
-   *        v0.9.8.
+   *        The received EBMS user message. Each handler gets its own copy.
+   *        Never <code>null</code>. Since v0.9.8.
    * @param aSBDBytes
    *        The raw SBD bytes. Never <code>null</code>.
    * @param aSBD
@@ -0,0 +1,100 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol.servlet;
+
+import javax.annotation.Nonnull;
+
+import org.unece.cefact.namespaces.sbdh.StandardBusinessDocument;
+
+import com.helger.commons.http.HttpHeaderMap;
+import com.helger.commons.io.IHasInputStream;
+import com.helger.commons.io.stream.HasInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.peppol.sbdh.PeppolSBDHDocument;
+import com.helger.phase4.ebms3header.Ebms3UserMessage;
+import com.helger.phase4.messaging.IAS4IncomingMessageMetadata;
+import com.helger.phase4.servlet.IAS4MessageState;
+
+/**
+ * Extended version of {@link IPhase4PeppolIncomingSBDHandlerSPI} that receives
+ * the SBD as a re-readable stream instead of a byte array and a DOM. If all
+ * registered handlers implement this interface,
+ * {@link Phase4PeppolServletMessageProcessorSPI} only reads the SBDH envelope
+ * via StAX and never keeps the complete payload in memory.<br>
+ * Implementations are registered as {@link IPhase4PeppolIncomingSBDHandlerSPI}
+ * SPI implementations.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+public interface IPhase4PeppolIncomingSBDStreamHandlerSPI extends IPhase4PeppolIncomingSBDHandlerSPI
+{
+  /**
+   * Handle the provided incoming StandardBusinessDocument as a stream.
+   *
+   * @param aMessageMetadata
+   *        Message metadata. Includes data when and from whom it was received.
+   *        Never <code>null</code>.
+   * @param aHeaders
+   *        The (HTTP) headers of the incoming request. Each handler gets its
+   *        own copy. Never <code>null</code>.
+   * @param aUserMessage
+   *        The received EBMS user message. Each handler gets its own copy.
+   *        Never <code>null</code>.
+   * @param aSBDStream
+   *        The provider for the complete SBD, including the SBDH. It can be
+   *        read multiple times, but only while this method is executed. Each
+   *        opened stream must be closed by the caller. Never
+   *        <code>null</code>.
+   * @param aPeppolSBD
+   *        The pre-parsed Peppol Standard Business Document. The contained
+   *        business message element only contains the root element without
+   *        children and attributes. Never <code>null</code>.
+   * @param aState
+   *        The message state. Never <code>null</code>.
+   * @throws Exception
+   *         In case it cannot be processed.
+   */
+  void handleIncomingSBDStream (@Nonnull IAS4IncomingMessageMetadata aMessageMetadata,
+                                @Nonnull HttpHeaderMap aHeaders,
+                                @Nonnull Ebms3UserMessage aUserMessage,
+                                @Nonnull IHasInputStream aSBDStream,
+                                @Nonnull PeppolSBDHDocument aPeppolSBD,
+                                @Nonnull IAS4MessageState aState) throws Exception;
+
+  /**
+   * Bridge to
+   * {@link #handleIncomingSBDStream(IAS4IncomingMessageMetadata, HttpHeaderMap, Ebms3UserMessage, IHasInputStream, PeppolSBDHDocument, IAS4MessageState)}
+   * in case the SBD was already read into memory.
+   */
+  @Override
+  default void handleIncomingSBD (@Nonnull final IAS4IncomingMessageMetadata aMessageMetadata,
+                                  @Nonnull final HttpHeaderMap aHeaders,
+                                  @Nonnull final Ebms3UserMessage aUserMessage,
+                                  @Nonnull final byte [] aSBDBytes,
+                                  @Nonnull final StandardBusinessDocument aSBD,
+                                  @Nonnull final PeppolSBDHDocument aPeppolSBD,
+                                  @Nonnull final IAS4MessageState aState) throws Exception
+  {
+    handleIncomingSBDStream (aMessageMetadata,
+                             aHeaders,
+                             aUserMessage,
+                             HasInputStream.multiple ( () -> new NonBlockingByteArrayInputStream (aSBDBytes)),
+                             aPeppolSBD,
+                             aState);
+  }
+}
@@ -0,0 +1,53 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol.servlet;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.functional.IThrowingSupplier;
+
+/**
+ * Pluggable cache for the SMP based receiver checks performed by
+ * {@link Phase4PeppolServletMessageProcessorSPI}. Implementations must be
+ * thread-safe.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ * @see Phase4PeppolReceiverCheckCache
+ */
+public interface IPhase4PeppolReceiverCheckCache
+{
+  /**
+   * Get the cached resolved endpoint for the provided key, or resolve it with
+   * the provided resolver.
+   *
+   * @param sKey
+   *        The cache key, consisting of receiver ID, document type ID, process
+   *        ID and transport profile. May neither be <code>null</code> nor
+   *        empty.
+   * @param aResolver
+   *        The resolver that queries the SMP. May not be <code>null</code>.
+   * @return The resolved endpoint or <code>null</code> if the SMP contains no
+   *         matching endpoint.
+   * @throws Phase4PeppolServletException
+   *         If the resolver failed
+   */
+  @Nullable
+  Phase4PeppolResolvedEndpoint getOrResolve (@Nonnull String sKey,
+                                             @Nonnull IThrowingSupplier <? extends Phase4PeppolResolvedEndpoint, Phase4PeppolServletException> aResolver) throws Phase4PeppolServletException;
+}
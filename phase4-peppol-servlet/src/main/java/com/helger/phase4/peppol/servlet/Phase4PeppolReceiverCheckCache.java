@@ -0,0 +1,307 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol.servlet;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.collection.map.LRUMap;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.functional.IThrowingSupplier;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * Default implementation of {@link IPhase4PeppolReceiverCheckCache}. Features:
+ * <ul>
+ * <li>The number of entries is limited - the least recently used entry is
+ * evicted.</li>
+ * <li>Results with a parsed certificate are cached for a configurable
+ * time.</li>
+ * <li>Negative results (no endpoint or no valid certificate) are cached for a
+ * shorter time.</li>
+ * <li>Concurrent lookups of the same key are coalesced, so that a burst of
+ * messages for the same receiver only triggers a single SMP query.</li>
+ * </ul>
+ * Resolver exceptions (e.g. an unreachable SMP) are never cached, but are
+ * passed to all coalesced callers.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@ThreadSafe
+public class Phase4PeppolReceiverCheckCache implements IPhase4PeppolReceiverCheckCache
+{
+  public static final int DEFAULT_MAX_SIZE = 10_000;
+  public static final Duration DEFAULT_TTL = Duration.ofHours (1);
+  public static final Duration DEFAULT_NEGATIVE_TTL = Duration.ofMinutes (1);
+
+  private static final class CacheEntry
+  {
+    private final Phase4PeppolResolvedEndpoint m_aValue;
+    private final long m_nExpiresMS;
+
+    CacheEntry (@Nullable final Phase4PeppolResolvedEndpoint aValue, final long nExpiresMS)
+    {
+      m_aValue = aValue;
+      m_nExpiresMS = nExpiresMS;
+    }
+  }
+
+  private final int m_nMaxSize;
+  private final Duration m_aTTL;
+  private final Duration m_aNegativeTTL;
+  private final SimpleLock m_aLock = new SimpleLock ();
+  @GuardedBy ("m_aLock")
+  private final LRUMap <String, CacheEntry> m_aMap;
+  private final ConcurrentHashMap <String, CompletableFuture <Phase4PeppolResolvedEndpoint>> m_aInFlight = new ConcurrentHashMap <> ();
+  private final AtomicLong m_aHitCount = new AtomicLong ();
+  private final AtomicLong m_aMissCount = new AtomicLong ();
+  private final AtomicLong m_aCoalescedCount = new AtomicLong ();
+
+  /**
+   * Constructor with default settings.
+   */
+  public Phase4PeppolReceiverCheckCache ()
+  {
+    this (DEFAULT_MAX_SIZE, DEFAULT_TTL, DEFAULT_NEGATIVE_TTL);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param nMaxSize
+   *        The maximum number of entries in the cache. Must be &gt; 0.
+   * @param aTTL
+   *        The time to live of positive results. May not be <code>null</code>.
+   * @param aNegativeTTL
+   *        The time to live of negative results. May not be <code>null</code>.
+   */
+  public Phase4PeppolReceiverCheckCache (@Nonnegative final int nMaxSize,
+                                         @Nonnull final Duration aTTL,
+                                         @Nonnull final Duration aNegativeTTL)
+  {
+    ValueEnforcer.isGT0 (nMaxSize, "MaxSize");
+    ValueEnforcer.notNull (aTTL, "TTL");
+    ValueEnforcer.isFalse (aTTL.isNegative (), "TTL may not be negative");
+    ValueEnforcer.notNull (aNegativeTTL, "NegativeTTL");
+    ValueEnforcer.isFalse (aNegativeTTL.isNegative (), "NegativeTTL may not be negative");
+    m_nMaxSize = nMaxSize;
+    m_aTTL = aTTL;
+    m_aNegativeTTL = aNegativeTTL;
+    m_aMap = new LRUMap <> (nMaxSize);
+  }
+
+  /**
+   * @return The maximum number of entries. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getMaxSize ()
+  {
+    return m_nMaxSize;
+  }
+
+  /**
+   * @return The time to live of positive results. Never <code>null</code>.
+   */
+  @Nonnull
+  public final Duration getTTL ()
+  {
+    return m_aTTL;
+  }
+
+  /**
+   * @return The time to live of negative results. Never <code>null</code>.
+   */
+  @Nonnull
+  public final Duration getNegativeTTL ()
+  {
+    return m_aNegativeTTL;
+  }
+
+  /**
+   * @return The current time in milliseconds. Overridable for testing.
+   */
+  protected long getCurrentTimeMillis ()
+  {
+    return System.currentTimeMillis ();
+  }
+
+  @Nullable
+  private CacheEntry _getValidEntry (@Nonnull final String sKey)
+  {
+    final CacheEntry aEntry = m_aLock.lockedGet ( () -> m_aMap.get (sKey));
+    return aEntry != null && getCurrentTimeMillis () < aEntry.m_nExpiresMS ? aEntry : null;
+  }
+
+  @Nullable
+  private static Phase4PeppolResolvedEndpoint _await (@Nonnull final String sKey,
+                                                      @Nonnull final CompletableFuture <Phase4PeppolResolvedEndpoint> aFuture) throws Phase4PeppolServletException
+  {
+    try
+    {
+      return aFuture.get ();
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+      throw new Phase4PeppolServletException ("Interrupted while waiting for the SMP lookup of " + sKey, ex);
+    }
+    catch (final ExecutionException ex)
+    {
+      final Throwable aCause = ex.getCause ();
+      if (aCause instanceof RuntimeException)
+        throw (RuntimeException) aCause;
+      if (aCause instanceof Error)
+        throw (Error) aCause;
+      throw new Phase4PeppolServletException (aCause != null ? aCause.getMessage () : "SMP lookup of " + sKey + " failed",
+                                              aCause);
+    }
+  }
+
+  @Nullable
+  public Phase4PeppolResolvedEndpoint getOrResolve (@Nonnull @Nonempty final String sKey,
+                                                    @Nonnull final IThrowingSupplier <? extends Phase4PeppolResolvedEndpoint, Phase4PeppolServletException> aResolver) throws Phase4PeppolServletException
+  {
+    ValueEnforcer.notEmpty (sKey, "Key");
+    ValueEnforcer.notNull (aResolver, "Resolver");
+
+    CacheEntry aEntry = _getValidEntry (sKey);
+    if (aEntry != null)
+    {
+      m_aHitCount.incrementAndGet ();
+      return aEntry.m_aValue;
+    }
+
+    final CompletableFuture <Phase4PeppolResolvedEndpoint> aOwnFuture = new CompletableFuture <> ();
+    final CompletableFuture <Phase4PeppolResolvedEndpoint> aRunningFuture = m_aInFlight.putIfAbsent (sKey, aOwnFuture);
+    if (aRunningFuture != null)
+    {
+      // Another thread is already querying the SMP for this key
+      m_aCoalescedCount.incrementAndGet ();
+      return _await (sKey, aRunningFuture);
+    }
+
+    try
+    {
+      // Another thread may have finished in the meantime
+      aEntry = _getValidEntry (sKey);
+      if (aEntry != null)
+      {
+        m_aHitCount.incrementAndGet ();
+        aOwnFuture.complete (aEntry.m_aValue);
+        return aEntry.m_aValue;
+      }
+
+      m_aMissCount.incrementAndGet ();
+      final Phase4PeppolResolvedEndpoint aValue = aResolver.get ();
+      final boolean bPositive = aValue != null && aValue.hasCertificate ();
+      final long nExpiresMS = getCurrentTimeMillis () + (bPositive ? m_aTTL : m_aNegativeTTL).toMillis ();
+      final CacheEntry aNewEntry = new CacheEntry (aValue, nExpiresMS);
+      m_aLock.locked ( () -> m_aMap.put (sKey, aNewEntry));
+      aOwnFuture.complete (aValue);
+      return aValue;
+    }
+    catch (final Throwable t)
+    {
+      // Waiting threads must never block forever, so also pass on errors
+      aOwnFuture.completeExceptionally (t);
+      throw t;
+    }
+    finally
+    {
+      m_aInFlight.remove (sKey, aOwnFuture);
+    }
+  }
+
+  /**
+   * Remove the entry with the provided key.
+   *
+   * @param sKey
+   *        The key to remove. May be <code>null</code>.
+   */
+  public void remove (@Nullable final String sKey)
+  {
+    if (sKey != null)
+      m_aLock.locked ( () -> m_aMap.remove (sKey));
+  }
+
+  /**
+   * Remove all entries.
+   */
+  public void clear ()
+  {
+    m_aLock.locked (m_aMap::clear);
+  }
+
+  /**
+   * @return The number of entries currently in the cache, including expired
+   *         ones.
+   */
+  @Nonnegative
+  public int size ()
+  {
+    return m_aLock.lockedInt (m_aMap::size);
+  }
+
+  /**
+   * @return The number of lookups answered from the cache.
+   */
+  @Nonnegative
+  public final long getHitCount ()
+  {
+    return m_aHitCount.get ();
+  }
+
+  /**
+   * @return The number of lookups that required an SMP query.
+   */
+  @Nonnegative
+  public final long getMissCount ()
+  {
+    return m_aMissCount.get ();
+  }
+
+  /**
+   * @return The number of lookups that waited for an SMP query of another
+   *         thread.
+   */
+  @Nonnegative
+  public final long getCoalescedCount ()
+  {
+    return m_aCoalescedCount.get ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("MaxSize", m_nMaxSize)
+                                       .append ("TTL", m_aTTL)
+                                       .append ("NegativeTTL", m_aNegativeTTL)
+                                       .getToString ();
+  }
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol.servlet;
+
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.crypto.AS4CertificateInternPool;
+import com.helger.phase4.crypto.AS4InternedCertificate;
+import com.helger.smpclient.peppol.SMPClientReadOnly;
+import com.helger.xsds.peppol.smp1.EndpointType;
+
+/**
+ * The result of resolving the endpoint of a receiver in the SMP, including
+ * the already parsed endpoint certificate. This is the object that is kept in
+ * an {@link IPhase4PeppolReceiverCheckCache}, so that neither the SMP query
+ * nor the certificate parsing needs to be repeated for every incoming message.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@Immutable
+public class Phase4PeppolResolvedEndpoint
+{
+  private final String m_sEndpointURL;
+  private final String m_sCertificateString;
+  private final X509Certificate m_aCertificate;
+  private final CertificateException m_aCertificateException;
+
+  protected Phase4PeppolResolvedEndpoint (@Nullable final String sEndpointURL,
+                                          @Nullable final String sCertificateString,
+                                          @Nullable final X509Certificate aCertificate,
+                                          @Nullable final CertificateException aCertificateException)
+  {
+    m_sEndpointURL = sEndpointURL;
+    m_sCertificateString = sCertificateString;
+    m_aCertificate = aCertificate;
+    m_aCertificateException = aCertificateException;
+  }
+
+  /**
+   * @return The endpoint URL as retrieved from the SMP. May be
+   *         <code>null</code>.
+   */
+  @Nullable
+  public final String getEndpointURL ()
+  {
+    return m_sEndpointURL;
+  }
+
+  /**
+   * @return The endpoint certificate string as retrieved from the SMP. May be
+   *         <code>null</code>.
+   */
+  @Nullable
+  public final String getCertificateString ()
+  {
+    return m_sCertificateString;
+  }
+
+  /**
+   * @return The parsed endpoint certificate. May be <code>null</code> if the
+   *         SMP contained no certificate or if parsing failed.
+   */
+  @Nullable
+  public final X509Certificate getCertificate ()
+  {
+    return m_aCertificate;
+  }
+
+  /**
+   * @return <code>true</code> if a parsed certificate is present,
+   *         <code>false</code> if not.
+   */
+  public final boolean hasCertificate ()
+  {
+    return m_aCertificate != null;
+  }
+
+  /**
+   * @return The exception that occurred when parsing the certificate string.
+   *         May be <code>null</code>.
+   */
+  @Nullable
+  public final CertificateException getCertificateException ()
+  {
+    return m_aCertificateException;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("EndpointURL", m_sEndpointURL)
+                                       .append ("Certificate", m_aCertificate)
+                                       .appendIfNotNull ("CertificateException", m_aCertificateException)
+                                       .getToString ();
+  }
+
+  /**
+   * Create a new resolved endpoint from the SMP endpoint. The certificate is
+   * parsed at most once per distinct certificate, using the
+   * {@link AS4CertificateInternPool}.
+   *
+   * @param aEndpoint
+   *        The endpoint retrieved from the SMP. May not be <code>null</code>.
+   * @return The new object and never <code>null</code>.
+   */
+  @Nonnull
+  public static Phase4PeppolResolvedEndpoint create (@Nonnull final EndpointType aEndpoint)
+  {
+    ValueEnforcer.notNull (aEndpoint, "Endpoint");
+
+    final String sCertificateString = aEndpoint.getCertificate ();
+    X509Certificate aCertificate = null;
+    CertificateException aCertificateException = null;
+    try
+    {
+      // Identical certificates of different endpoints share the same instance
+      final AS4InternedCertificate aInterned = AS4CertificateInternPool.getDefaultInstance ().intern (sCertificateString);
+      if (aInterned != null)
+        aCertificate = aInterned.getCertificate ();
+    }
+    catch (final CertificateException ex)
+    {
+      aCertificateException = ex;
+    }
+    final String sEndpointURL = AS4CertificateInternPool.getDefaultInstance ()
+                                                        .internEndpointURL (SMPClientReadOnly.getEndpointAddress (aEndpoint));
+    return new Phase4PeppolResolvedEndpoint (sEndpointURL,
+                                             sCertificateString,
+                                             aCertificate,
+                                             aCertificateException);
+  }
+}
@@ -0,0 +1,195 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol.servlet;
+
+import java.io.InputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.WillClose;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.xml.XMLConstants;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.unece.cefact.namespaces.sbdh.StandardBusinessDocument;
+import org.unece.cefact.namespaces.sbdh.StandardBusinessDocumentHeader;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.string.StringHelper;
+import com.helger.jaxb.JAXBContextCache;
+import com.helger.peppol.sbdh.PeppolSBDHDocument;
+import com.helger.peppol.sbdh.read.EPeppolSBDHDocumentReadError;
+import com.helger.peppol.sbdh.read.PeppolSBDHDocumentReadException;
+import com.helger.peppol.sbdh.read.PeppolSBDHDocumentReader;
+import com.helger.sbdh.CSBDH;
+import com.helger.xml.XMLFactory;
+import com.helger.xml.schema.XMLSchemaCache;
+
+/**
+ * StAX based reader for the Peppol SBDH envelope. Only the
+ * StandardBusinessDocumentHeader is unmarshalled and validated against the
+ * SBDH XML Schema and reading stops at the start of the business payload, so that the memory consumption is
+ * independent of the payload size. The extracted data is checked with the
+ * provided {@link PeppolSBDHDocumentReader}, so the same rules apply as for a
+ * fully parsed document.<br>
+ * The business message of the returned {@link PeppolSBDHDocument} is a stub
+ * element that only has the namespace URI and the name of the real payload
+ * root element.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@ThreadSafe
+public class Phase4PeppolSBDHEnvelopeReader
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (Phase4PeppolSBDHEnvelopeReader.class);
+  private static final XMLInputFactory XML_INPUT_FACTORY;
+  static
+  {
+    XML_INPUT_FACTORY = XMLInputFactory.newInstance ();
+    // No DTDs and no external entities
+    XML_INPUT_FACTORY.setProperty (XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    XML_INPUT_FACTORY.setProperty (XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    XML_INPUT_FACTORY.setProperty (XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+  }
+
+  private final PeppolSBDHDocumentReader m_aReader;
+
+  /**
+   * Constructor
+   *
+   * @param aReader
+   *        The Peppol SBDH reader to be used to check the extracted envelope.
+   *        May not be <code>null</code>.
+   */
+  public Phase4PeppolSBDHEnvelopeReader (@Nonnull final PeppolSBDHDocumentReader aReader)
+  {
+    ValueEnforcer.notNull (aReader, "Reader");
+    m_aReader = aReader;
+  }
+
+  /**
+   * @return The Peppol SBDH reader used to check the extracted envelope. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public final PeppolSBDHDocumentReader getReader ()
+  {
+    return m_aReader;
+  }
+
+  private static boolean _isSBDHElement (@Nonnull final XMLStreamReader aXSR, @Nonnull final String sLocalName)
+  {
+    return CSBDH.SBDH_NS.equals (aXSR.getNamespaceURI ()) && sLocalName.equals (aXSR.getLocalName ());
+  }
+
+  @Nonnull
+  private static Element _createBusinessMessageStub (@Nonnull final XMLStreamReader aXSR)
+  {
+    final String sNamespaceURI = StringHelper.getNotEmpty (aXSR.getNamespaceURI (), XMLConstants.NULL_NS_URI);
+    final String sPrefix = aXSR.getPrefix ();
+    final String sQName = StringHelper.hasText (sPrefix) ? sPrefix + ":" + aXSR.getLocalName () : aXSR.getLocalName ();
+    final Document aDoc = XMLFactory.newDocument ();
+    final Element ret = sNamespaceURI.length () == 0 ? aDoc.createElement (sQName) : aDoc.createElementNS (sNamespaceURI, sQName);
+    aDoc.appendChild (ret);
+    return ret;
+  }
+
+  /**
+   * Extract the Peppol SBDH data from the provided stream. Only the envelope
+   * is read.
+   *
+   * @param aIS
+   *        The input stream to read from. Is closed afterwards. May not be
+   *        <code>null</code>.
+   * @return The extracted Peppol data and never <code>null</code>.
+   * @throws PeppolSBDHDocumentReadException
+   *         In case the envelope is not valid
+   */
+  @Nonnull
+  public PeppolSBDHDocument extractData (@Nonnull @WillClose final InputStream aIS) throws PeppolSBDHDocumentReadException
+  {
+    ValueEnforcer.notNull (aIS, "InputStream");
+
+    XMLStreamReader aXSR = null;
+    try
+    {
+      aXSR = XML_INPUT_FACTORY.createXMLStreamReader (aIS);
+
+      // Root element
+      aXSR.nextTag ();
+      if (!_isSBDHElement (aXSR, "StandardBusinessDocument"))
+        throw new PeppolSBDHDocumentReadException (EPeppolSBDHDocumentReadError.INVALID_SBD_XML);
+
+      // Header element
+      if (aXSR.nextTag () != XMLStreamConstants.START_ELEMENT || !_isSBDHElement (aXSR, "StandardBusinessDocumentHeader"))
+        throw new PeppolSBDHDocumentReadException (EPeppolSBDHDocumentReadError.MISSING_SBDH);
+
+      // Unmarshal only the header - the reader is positioned after the end
+      // element afterwards. The header is validated like a fully parsed SBD.
+      final Unmarshaller aUnmarshaller = JAXBContextCache.getInstance ()
+                                                         .getFromCache (StandardBusinessDocument.class)
+                                                         .createUnmarshaller ();
+      aUnmarshaller.setSchema (XMLSchemaCache.getInstance ().getSchema (CSBDH.SBDH_XSDS));
+      final JAXBElement <StandardBusinessDocumentHeader> aHeader = aUnmarshaller.unmarshal (aXSR,
+                                                                                           StandardBusinessDocumentHeader.class);
+
+      // Skip whitespaces and comments until the business payload
+      int nEvent = aXSR.getEventType ();
+      while (nEvent != XMLStreamConstants.START_ELEMENT && nEvent != XMLStreamConstants.END_ELEMENT && aXSR.hasNext ())
+        nEvent = aXSR.next ();
+      if (nEvent != XMLStreamConstants.START_ELEMENT)
+        throw new PeppolSBDHDocumentReadException (EPeppolSBDHDocumentReadError.INVALID_BUSINESS_MESSAGE);
+
+      final StandardBusinessDocument aSBD = new StandardBusinessDocument ();
+      aSBD.setStandardBusinessDocumentHeader (aHeader.getValue ());
+      aSBD.setAny (_createBusinessMessageStub (aXSR));
+
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Read SBDH envelope with business message root {" + aXSR.getNamespaceURI () + "}" + aXSR.getLocalName ());
+
+      return m_aReader.extractData (aSBD);
+    }
+    catch (final XMLStreamException | JAXBException ex)
+    {
+      throw new PeppolSBDHDocumentReadException (EPeppolSBDHDocumentReadError.INVALID_SBD_XML, ex.getMessage ());
+    }
+    finally
+    {
+      if (aXSR != null)
+        try
+        {
+          aXSR.close ();
+        }
+        catch (final XMLStreamException ex)
+        {
+          // Ignore
+        }
+      StreamHelper.close (aIS);
+    }
+  }
+}
@@ -47,6 +47,7 @@ public final class Phase4PeppolServletConfiguration
   private static String s_sAS4EndpointURL;
   private static X509Certificate s_aAPCertificate;
   private static boolean s_bPerformSBDHValueChecks = PeppolSBDHDocumentReader.DEFAULT_PERFORM_VALUE_CHECKS;
+  private static IPhase4PeppolReceiverCheckCache s_aReceiverCheckCache;
 
   private Phase4PeppolServletConfiguration ()
   {}
@@ -198,4 +199,29 @@ public final class Phase4PeppolServletConfiguration
         LOGGER.warn (CAS4.LIB_NAME + " Peppol SBDH value checks are now disabled");
     }
   }
+
+  /**
+   * @return The cache to be used for the receiver checks. May be
+   *         <code>null</code>. By default no cache is used.
+   * @since 1.3.2
+   */
+  @Nullable
+  public static IPhase4PeppolReceiverCheckCache getReceiverCheckCache ()
+  {
+    return s_aReceiverCheckCache;
+  }
+
+  /**
+   * Set the cache to be used for the receiver checks. If set, the SMP is not
+   * queried for every incoming message.
+   *
+   * @param aReceiverCheckCache
+   *        The cache to be used. May be <code>null</code> to disable caching.
+   * @since 1.3.2
+   * @see Phase4PeppolReceiverCheckCache
+   */
+  public static void setReceiverCheckCache (@Nullable final IPhase4PeppolReceiverCheckCache aReceiverCheckCache)
+  {
+    s_aReceiverCheckCache = aReceiverCheckCache;
+  }
 }
@@ -16,12 +16,20 @@
  */
 package com.helger.phase4.peppol.servlet;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.Charset;
-import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.time.Duration;
 import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -38,11 +46,16 @@ import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.annotation.ReturnsMutableObject;
 import com.helger.commons.annotation.UnsupportedOperation;
 import com.helger.commons.annotation.UsedViaReflection;
+import com.helger.commons.callback.IThrowingRunnable;
 import com.helger.commons.collection.impl.CommonsArrayList;
 import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.concurrent.SimpleLock;
 import com.helger.commons.error.IError;
 import com.helger.commons.error.list.ErrorList;
 import com.helger.commons.http.HttpHeaderMap;
+import com.helger.commons.io.IHasInputStream;
+import com.helger.commons.io.file.FileHelper;
+import com.helger.commons.io.stream.HasInputStream;
 import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
 import com.helger.commons.io.stream.StreamHelper;
 import com.helger.commons.lang.ServiceLoaderHelper;
@@ -59,7 +72,6 @@ import com.helger.peppolid.IProcessIdentifier;
 import com.helger.peppolid.factory.SimpleIdentifierFactory;
 import com.helger.phase4.attachment.AS4DecompressException;
 import com.helger.phase4.attachment.EAS4CompressionMode;
-import com.helger.phase4.attachment.IAS4Attachment;
 import com.helger.phase4.attachment.WSS4JAttachment;
 import com.helger.phase4.ebms3header.Ebms3Error;
 import com.helger.phase4.ebms3header.Ebms3Property;
@@ -69,14 +81,17 @@ import com.helger.phase4.error.EEbmsError;
 import com.helger.phase4.messaging.IAS4IncomingMessageMetadata;
 import com.helger.phase4.model.pmode.IPMode;
 import com.helger.phase4.servlet.IAS4MessageState;
+import com.helger.phase4.servlet.async.AS4AsyncExecutor;
+import com.helger.phase4.servlet.async.IAS4AsyncExecutor;
 import com.helger.phase4.servlet.spi.AS4MessageProcessorResult;
 import com.helger.phase4.servlet.spi.AS4SignalMessageProcessorResult;
 import com.helger.phase4.servlet.spi.IAS4ServletMessageProcessorSPI;
+import com.helger.phase4.util.AS4InstanceIDHelper;
+import com.helger.phase4.util.AS4ResourceHelper;
 import com.helger.phase4.util.Phase4Exception;
 import com.helger.sbdh.builder.SBDHReader;
-import com.helger.security.certificate.CertificateHelper;
+import com.helger.smpclient.httpclient.AbstractGenericSMPClient;
 import com.helger.smpclient.peppol.ISMPServiceMetadataProvider;
-import com.helger.smpclient.peppol.SMPClientReadOnly;
 import com.helger.xml.serialize.write.XMLWriter;
 import com.helger.xsds.peppol.smp1.EndpointType;
 
@@ -99,6 +114,7 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4ServletMessag
     private EAS4CompressionMode m_eCompressionMode;
     private byte [] m_aPayloadBytes;
     private StandardBusinessDocument m_aSBDH;
+    private IHasInputStream m_aPayloadProvider;
 
     private ReadAttachment ()
     {}
@@ -146,14 +162,37 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4ServletMessag
     {
       return m_aSBDH;
     }
+
+    @Nonnull
+    public IHasInputStream getPayloadProvider ()
+    {
+      return m_aPayloadProvider;
+    }
   }
 
   public static final ESMPTransportProfile DEFAULT_TRANSPORT_PROFILE = ESMPTransportProfile.TRANSPORT_PROFILE_PEPPOL_AS4_V2;
+  public static final EPhase4PeppolHandlerDispatchMode DEFAULT_HANDLER_DISPATCH_MODE = EPhase4PeppolHandlerDispatchMode.SEQUENTIAL;
+  public static final Duration DEFAULT_HANDLER_TIMEOUT = Duration.ofMinutes (1);
   private static final Logger LOGGER = LoggerFactory.getLogger (Phase4PeppolServletMessageProcessorSPI.class);
 
   private ICommonsList <IPhase4PeppolIncomingSBDHandlerSPI> m_aHandlers;
   private ISMPTransportProfile m_aTransportProfile = DEFAULT_TRANSPORT_PROFILE;
   private Phase4PeppolReceiverCheckData m_aReceiverCheckData;
+  private IPhase4PeppolReceiverCheckCache m_aReceiverCheckCache;
+  private EPhase4PeppolHandlerDispatchMode m_eHandlerDispatchMode = DEFAULT_HANDLER_DISPATCH_MODE;
+  private IAS4AsyncExecutor m_aHandlerExecutor;
+  private Duration m_aHandlerTimeout = DEFAULT_HANDLER_TIMEOUT;
+
+  /**
+   * The default executor for parallel and asynchronous handler dispatch. Only
+   * created on demand.
+   */
+  private static final class DefaultHandlerExecutorHolder
+  {
+    static final AS4AsyncExecutor INSTANCE = AS4AsyncExecutor.createBounded ("phase4-peppol-handler",
+                                                                             Math.max (4, Runtime.getRuntime ().availableProcessors () * 2),
+                                                                             1_000);
+  }
 
   /**
    * Constructor. Uses all SPI implementations of
@@ -247,6 +286,137 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4ServletMessag
     return this;
   }
 
+  /**
+   * @return The receiver check cache to be used. <code>null</code> by default.
+   * @since 1.3.2
+   */
+  @Nullable
+  public final IPhase4PeppolReceiverCheckCache getReceiverCheckCache ()
+  {
+    return m_aReceiverCheckCache;
+  }
+
+  /**
+   * Set the receiver check cache to be used. If set, it overrides the global
+   * one defined by {@link Phase4PeppolServletConfiguration}.
+   *
+   * @param aReceiverCheckCache
+   *        The custom receiver check cache to use. May be <code>null</code>.
+   * @return this for chaining
+   * @since 1.3.2
+   */
+  @Nonnull
+  public final Phase4PeppolServletMessageProcessorSPI setReceiverCheckCache (@Nullable final IPhase4PeppolReceiverCheckCache aReceiverCheckCache)
+  {
+    m_aReceiverCheckCache = aReceiverCheckCache;
+    return this;
+  }
+
+  /**
+   * @return The mode how the handlers are invoked. Never <code>null</code>.
+   *         Defaults to {@link #DEFAULT_HANDLER_DISPATCH_MODE}.
+   * @since 1.3.2
+   */
+  @Nonnull
+  public final EPhase4PeppolHandlerDispatchMode getHandlerDispatchMode ()
+  {
+    return m_eHandlerDispatchMode;
+  }
+
+  /**
+   * Set the mode how the handlers are invoked.
+   *
+   * @param eHandlerDispatchMode
+   *        The dispatch mode to use. May not be <code>null</code>.
+   * @return this for chaining
+   * @since 1.3.2
+   */
+  @Nonnull
+  public final Phase4PeppolServletMessageProcessorSPI setHandlerDispatchMode (@Nonnull final EPhase4PeppolHandlerDispatchMode eHandlerDispatchMode)
+  {
+    ValueEnforcer.notNull (eHandlerDispatchMode, "HandlerDispatchMode");
+    m_eHandlerDispatchMode = eHandlerDispatchMode;
+    if (eHandlerDispatchMode == EPhase4PeppolHandlerDispatchMode.ASYNCHRONOUS &&
+        m_aHandlers.containsAny (IPhase4PeppolIncomingSBDHandlerSPI::exceptionTranslatesToAS4Error))
+      LOGGER.warn ("At least one Peppol handler wants exceptions to be translated to AS4 errors, which is not possible in asynchronous dispatch mode");
+    return this;
+  }
+
+  /**
+   * @return The executor for parallel and asynchronous handler dispatch. May
+   *         be <code>null</code> in which case a shared default executor is
+   *         used.
+   * @since 1.3.2
+   */
+  @Nullable
+  public final IAS4AsyncExecutor getHandlerExecutor ()
+  {
+    return m_aHandlerExecutor;
+  }
+
+  /**
+   * @return The executor for parallel and asynchronous handler dispatch,
+   *         falling back to the shared default executor. Never
+   *         <code>null</code>.
+   * @since 1.3.2
+   */
+  @Nonnull
+  public final IAS4AsyncExecutor getHandlerExecutorOrDefault ()
+  {
+    final IAS4AsyncExecutor ret = m_aHandlerExecutor;
+    return ret != null ? ret : DefaultHandlerExecutorHolder.INSTANCE;
+  }
+
+  /**
+   * Set the executor for parallel and asynchronous handler dispatch. It should
+   * be bounded - rejected executions are treated like handler exceptions.
+   *
+   * @param aHandlerExecutor
+   *        The executor to use. May be <code>null</code> to use the shared
+   *        default executor.
+   * @return this for chaining
+   * @since 1.3.2
+   * @see AS4AsyncExecutor#createBounded(String, int, int)
+   */
+  @Nonnull
+  public final Phase4PeppolServletMessageProcessorSPI setHandlerExecutor (@Nullable final IAS4AsyncExecutor aHandlerExecutor)
+  {
+    m_aHandlerExecutor = aHandlerExecutor;
+    return this;
+  }
+
+  /**
+   * @return The maximum time each handler may take in parallel dispatch mode.
+   *         Never <code>null</code>. Defaults to
+   *         {@link #DEFAULT_HANDLER_TIMEOUT}.
+   * @since 1.3.2
+   */
+  @Nonnull
+  public final Duration getHandlerTimeout ()
+  {
+    return m_aHandlerTimeout;
+  }
+
+  /**
+   * Set the maximum time each handler may take in parallel dispatch mode. A
+   * timeout is treated like a handler exception. The handler thread is
+   * interrupted, and a handler that was not yet started is skipped.
+   *
+   * @param aHandlerTimeout
+   *        The timeout to use. May not be <code>null</code> and must be
+   *        positive.
+   * @return this for chaining
+   * @since 1.3.2
+   */
+  @Nonnull
+  public final Phase4PeppolServletMessageProcessorSPI setHandlerTimeout (@Nonnull final Duration aHandlerTimeout)
+  {
+    ValueEnforcer.notNull (aHandlerTimeout, "HandlerTimeout");
+    ValueEnforcer.isFalse (aHandlerTimeout.isNegative () || aHandlerTimeout.isZero (), "HandlerTimeout must be positive");
+    m_aHandlerTimeout = aHandlerTimeout;
+    return this;
+  }
+
   @Nullable
   private EndpointType _getReceiverEndpoint (@Nonnull final String sLogPrefix,
                                              @Nonnull final ISMPServiceMetadataProvider aSMPClient,
@@ -293,14 +463,59 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4ServletMessag
     }
   }
 
+  /**
+   * Get the identity of the SMP client for the cache key. Clients using a
+   * fixed SMP are identified by their SMP URL, all other clients by a unique
+   * ID per instance, so that different SMPs never share results.
+   */
+  @Nonnull
+  private static String _getSMPID (@Nonnull final ISMPServiceMetadataProvider aSMPClient)
+  {
+    if (aSMPClient instanceof AbstractGenericSMPClient <?>)
+      return "smp:" + ((AbstractGenericSMPClient <?>) aSMPClient).getSMPHostURI ();
+    return "instance:" + AS4InstanceIDHelper.getInstanceID (aSMPClient);
+  }
+
+  @Nullable
+  private Phase4PeppolResolvedEndpoint _getResolvedReceiverEndpoint (@Nonnull final String sLogPrefix,
+                                                                     @Nonnull final ISMPServiceMetadataProvider aSMPClient,
+                                                                     @Nullable final IParticipantIdentifier aRecipientID,
+                                                                     @Nullable final IDocumentTypeIdentifier aDocTypeID,
+                                                                     @Nullable final IProcessIdentifier aProcessID,
+                                                                     @Nullable final IPhase4PeppolReceiverCheckCache aCache) throws Phase4PeppolServletException
+  {
+    if (aRecipientID == null || aDocTypeID == null || aProcessID == null)
+      return null;
+
+    if (aCache == null)
+    {
+      final EndpointType aEndpoint = _getReceiverEndpoint (sLogPrefix, aSMPClient, aRecipientID, aDocTypeID, aProcessID);
+      return aEndpoint == null ? null : Phase4PeppolResolvedEndpoint.create (aEndpoint);
+    }
+
+    final String sKey = _getSMPID (aSMPClient) +
+                        "|" +
+                        aRecipientID.getURIEncoded () +
+                        "|" +
+                        aDocTypeID.getURIEncoded () +
+                        "|" +
+                        aProcessID.getURIEncoded () +
+                        "|" +
+                        m_aTransportProfile.getID ();
+    return aCache.getOrResolve (sKey, () -> {
+      final EndpointType aEndpoint = _getReceiverEndpoint (sLogPrefix, aSMPClient, aRecipientID, aDocTypeID, aProcessID);
+      return aEndpoint == null ? null : Phase4PeppolResolvedEndpoint.create (aEndpoint);
+    });
+  }
+
   private static void _checkIfReceiverEndpointURLMatches (@Nonnull final String sLogPrefix,
                                                           @Nonnull @Nonempty final String sOwnAPUrl,
-                                                          @Nonnull final EndpointType aRecipientEndpoint) throws Phase4PeppolServletException
+                                                          @Nonnull final Phase4PeppolResolvedEndpoint aRecipientEndpoint) throws Phase4PeppolServletException
   {
     if (LOGGER.isDebugEnabled ())
       LOGGER.debug (sLogPrefix + "Our AP URL is " + sOwnAPUrl);
 
-    final String sRecipientAPUrl = SMPClientReadOnly.getEndpointAddress (aRecipientEndpoint);
+    final String sRecipientAPUrl = aRecipientEndpoint.getEndpointURL ();
     if (LOGGER.isDebugEnabled ())
       LOGGER.debug (sLogPrefix + "Recipient AP URL from SMP is " + sRecipientAPUrl);
 
@@ -320,23 +535,19 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4ServletMessag
 
   private static void _checkIfEndpointCertificateMatches (@Nonnull final String sLogPrefix,
                                                           @Nonnull final X509Certificate aOurCert,
-                                                          @Nonnull final EndpointType aRecipientEndpoint) throws Phase4PeppolServletException
+                                                          @Nonnull final Phase4PeppolResolvedEndpoint aRecipientEndpoint) throws Phase4PeppolServletException
   {
-    final String sRecipientCertString = aRecipientEndpoint.getCertificate ();
-    X509Certificate aRecipientCert = null;
-    try
-    {
-      aRecipientCert = CertificateHelper.convertStringToCertficate (sRecipientCertString);
-    }
-    catch (final CertificateException t)
+    if (aRecipientEndpoint.getCertificateException () != null)
     {
       throw new Phase4PeppolServletException (sLogPrefix +
                                               "Internal error: Failed to convert looked up endpoint certificate string '" +
-                                              sRecipientCertString +
+                                              aRecipientEndpoint.getCertificateString () +
                                               "' to an X.509 certificate!",
-                                              t);
+                                              aRecipientEndpoint.getCertificateException ());
     }
 
+    final X509Certificate aRecipientCert = aRecipientEndpoint.getCertificate ();
+
     if (aRecipientCert == null)
     {
       // No certificate found - most likely because of invalid SMP entry
@@ -365,6 +576,324 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4ServletMessag
       LOGGER.debug (sLogPrefix + "The certificate of the SMP lookup matches our certificate");
   }
 
+  /**
+   * @return <code>true</code> if at least one handler is present and all
+   *         handlers can handle a streamed SBD and the dispatch mode is not
+   *         {@link EPhase4PeppolHandlerDispatchMode#ASYNCHRONOUS}. In that case
+   *         the SBD is not read into memory, but only the SBDH envelope is
+   *         parsed.
+   * @since 1.3.2
+   */
+  public boolean isStreamingMode ()
+  {
+    // The spooled payload is deleted when the request is finished
+    return m_eHandlerDispatchMode != EPhase4PeppolHandlerDispatchMode.ASYNCHRONOUS &&
+           m_aHandlers.isNotEmpty () &&
+           m_aHandlers.containsNone (x -> !(x instanceof IPhase4PeppolIncomingSBDStreamHandlerSPI));
+  }
+
+  /**
+   * Log the exception of a handler and determine the error message.
+   *
+   * @return The error message if the exception should be translated to an AS4
+   *         error, <code>null</code> otherwise.
+   */
+  @Nullable
+  private static String _onHandlerException (@Nonnull final String sLogPrefix,
+                                             @Nonnull final IPhase4PeppolIncomingSBDHandlerSPI aHandler,
+                                             @Nonnull final Exception ex)
+  {
+    LOGGER.error (sLogPrefix + "Error invoking Peppol handler " + aHandler, ex);
+    if (!aHandler.exceptionTranslatesToAS4Error ())
+      return null;
+
+    final String sMsg = "The incoming Peppol message could not be processed. Technical details: " +
+                        ex.getClass ().getName () +
+                        " - " +
+                        ex.getMessage ();
+    LOGGER.error (sLogPrefix + sMsg);
+    return sMsg;
+  }
+
+  /**
+   * Invokes a single handler with its own copies of the HTTP headers and the
+   * user message.
+   */
+  @FunctionalInterface
+  interface IHandlerInvoker
+  {
+    void invoke (@Nonnull IPhase4PeppolIncomingSBDHandlerSPI aHandler,
+                 @Nonnull HttpHeaderMap aHandlerHeaders,
+                 @Nonnull Ebms3UserMessage aHandlerUserMessage) throws Exception;
+  }
+
+  /**
+   * Creates the invocation of a single handler. Called in the request thread
+   * before the handler is dispatched.
+   */
+  @FunctionalInterface
+  interface IHandlerCallFactory
+  {
+    @Nonnull
+    IThrowingRunnable <Exception> createCall (@Nonnull IPhase4PeppolIncomingSBDHandlerSPI aHandler);
+  }
+
+  /**
+   * Controls the execution of a single handler in parallel dispatch mode, so
+   * that a handler that timed out can be interrupted, or is not started at all
+   * if it is still queued.
+   */
+  private static final class HandlerRun
+  {
+    private final SimpleLock m_aLock = new SimpleLock ();
+    private Thread m_aThread;
+    private boolean m_bCancelled = false;
+
+    boolean start ()
+    {
+      return m_aLock.lockedGet ( () -> {
+        if (m_bCancelled)
+          return false;
+        m_aThread = Thread.currentThread ();
+        return true;
+      });
+    }
+
+    void finish ()
+    {
+      m_aLock.locked ( () -> {
+        m_aThread = null;
+        // Don't leak an interrupt caused by cancel into the executor thread
+        Thread.interrupted ();
+      });
+    }
+
+    void cancel ()
+    {
+      m_aLock.locked ( () -> {
+        m_bCancelled = true;
+        if (m_aThread != null)
+          m_aThread.interrupt ();
+      });
+    }
+  }
+
+  @Nullable
+  private String _dispatchSequential (@Nonnull final String sLogPrefix, @Nonnull final IHandlerCallFactory aCallFactory)
+  {
+    for (final IPhase4PeppolIncomingSBDHandlerSPI aHandler : m_aHandlers)
+    {
+      try
+      {
+        aCallFactory.createCall (aHandler).run ();
+      }
+      catch (final Exception ex)
+      {
+        final String sMsg = _onHandlerException (sLogPrefix, aHandler, ex);
+        if (sMsg != null)
+          return sMsg;
+      }
+    }
+    return null;
+  }
+
+  @Nullable
+  private String _dispatchParallel (@Nonnull final String sLogPrefix,
+                                    @Nullable final IPMode aSrcPMode,
+                                    @Nonnull final IHandlerCallFactory aCallFactory)
+  {
+    final IAS4AsyncExecutor aExecutor = getHandlerExecutorOrDefault ();
+    final int nHandlers = m_aHandlers.size ();
+    final AtomicReferenceArray <Exception> aExceptions = new AtomicReferenceArray <> (nHandlers);
+    final ICommonsList <CompletableFuture <Void>> aFutures = new CommonsArrayList <> (nHandlers);
+    final ICommonsList <HandlerRun> aRuns = new CommonsArrayList <> (nHandlers);
+    for (int i = 0; i < nHandlers; ++i)
+    {
+      final int nIndex = i;
+      final IPhase4PeppolIncomingSBDHandlerSPI aHandler = m_aHandlers.get (i);
+      final IThrowingRunnable <Exception> aCall = aCallFactory.createCall (aHandler);
+      final HandlerRun aRun = new HandlerRun ();
+      aRuns.add (aRun);
+      try
+      {
+        aFutures.add (aExecutor.execute (aSrcPMode, sLogPrefix + "Peppol handler " + aHandler, () -> {
+          if (!aRun.start ())
+            return;
+          try
+          {
+            aCall.run ();
+          }
+          catch (final Exception ex)
+          {
+            aExceptions.compareAndSet (nIndex, null, ex);
+          }
+          finally
+          {
+            aRun.finish ();
+          }
+        }));
+      }
+      catch (final RejectedExecutionException ex)
+      {
+        aExceptions.set (nIndex, ex);
+        aFutures.add (CompletableFuture.completedFuture (null));
+      }
+    }
+
+    // Each handler has the same time budget, starting now
+    final long nDeadlineNanos = System.nanoTime () + m_aHandlerTimeout.toNanos ();
+    for (int i = 0; i < nHandlers; ++i)
+    {
+      try
+      {
+        aFutures.get (i).get (Math.max (0, nDeadlineNanos - System.nanoTime ()), TimeUnit.NANOSECONDS);
+      }
+      catch (final TimeoutException ex)
+      {
+        // Interrupt the handler, or prevent it from starting if still queued
+        aExceptions.compareAndSet (i,
+                                   null,
+                                   new TimeoutException ("Peppol handler did not finish within " + m_aHandlerTimeout.toMillis () + " ms"));
+        aRuns.get (i).cancel ();
+        aFutures.get (i).cancel (true);
+      }
+      catch (final InterruptedException ex)
+      {
+        Thread.currentThread ().interrupt ();
+        aExceptions.compareAndSet (i, null, ex);
+        aRuns.get (i).cancel ();
+      }
+      catch (final ExecutionException ex)
+      {
+        aExceptions.compareAndSet (i, null, ex);
+      }
+    }
+
+    // Report all errors in handler order - the first relevant one wins
+    String ret = null;
+    for (int i = 0; i < nHandlers; ++i)
+    {
+      final Exception ex = aExceptions.get (i);
+      if (ex != null)
+      {
+        final String sMsg = _onHandlerException (sLogPrefix, m_aHandlers.get (i), ex);
+        if (ret == null)
+          ret = sMsg;
+      }
+    }
+    return ret;
+  }
+
+  @Nullable
+  private String _dispatchAsynchronous (@Nonnull final String sLogPrefix,
+                                        @Nullable final IPMode aSrcPMode,
+                                        @Nonnull final IHandlerCallFactory aCallFactory)
+  {
+    final IAS4AsyncExecutor aExecutor = getHandlerExecutorOrDefault ();
+    String ret = null;
+    for (final IPhase4PeppolIncomingSBDHandlerSPI aHandler : m_aHandlers)
+    {
+      final IThrowingRunnable <Exception> aCall = aCallFactory.createCall (aHandler);
+      try
+      {
+        aExecutor.execute (aSrcPMode, sLogPrefix + "Peppol handler " + aHandler, () -> {
+          try
+          {
+            aCall.run ();
+          }
+          catch (final Exception ex)
+          {
+            // Too late for an AS4 error
+            _onHandlerException (sLogPrefix, aHandler, ex);
+          }
+        });
+      }
+      catch (final RejectedExecutionException ex)
+      {
+        // The only error that can be reported synchronously
+        final String sMsg = _onHandlerException (sLogPrefix, aHandler, ex);
+        if (ret == null)
+          ret = sMsg;
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * Invoke all handlers according to the configured dispatch mode. Each
+   * handler gets its own copy of the HTTP headers and of the user message.
+   *
+   * @param sLogPrefix
+   *        Log prefix. May not be <code>null</code>.
+   * @param aSrcPMode
+   *        Source PMode. May be <code>null</code>.
+   * @param aHttpHeaders
+   *        The HTTP headers to be copied per handler. May not be
+   *        <code>null</code>.
+   * @param aUserMessage
+   *        The user message to be copied per handler. May not be
+   *        <code>null</code>.
+   * @param aInvoker
+   *        The invoker that calls a single handler with its copies. May not be
+   *        <code>null</code>.
+   * @return <code>null</code> on success or the error message to be returned
+   *         as an AS4 error.
+   */
+  @Nullable
+  String invokeHandlers (@Nonnull final String sLogPrefix,
+                         @Nullable final IPMode aSrcPMode,
+                         @Nonnull final HttpHeaderMap aHttpHeaders,
+                         @Nonnull final Ebms3UserMessage aUserMessage,
+                         @Nonnull final IHandlerInvoker aInvoker)
+  {
+    final IHandlerCallFactory aCallFactory = aHandler -> {
+      // Neither the header map nor the JAXB user message offer a read-only
+      // view, so each handler gets its own copy to stay isolated from the
+      // others. getClone shares the value lists, so copy header by header
+      final HttpHeaderMap aHandlerHeaders = new HttpHeaderMap ();
+      aHandlerHeaders.addAllHeaders (aHttpHeaders);
+      final Ebms3UserMessage aHandlerUserMessage = aUserMessage.clone ();
+      return () -> {
+        if (LOGGER.isDebugEnabled ())
+          LOGGER.debug (sLogPrefix + "Invoking Peppol handler " + aHandler);
+        aInvoker.invoke (aHandler, aHandlerHeaders, aHandlerUserMessage);
+      };
+    };
+
+    switch (m_eHandlerDispatchMode)
+    {
+      case PARALLEL:
+        return _dispatchParallel (sLogPrefix, aSrcPMode, aCallFactory);
+      case ASYNCHRONOUS:
+        return _dispatchAsynchronous (sLogPrefix, aSrcPMode, aCallFactory);
+      default:
+        return _dispatchSequential (sLogPrefix, aCallFactory);
+    }
+  }
+
+  @Nonnull
+  private static IHasInputStream _getRepeatablePayload (@Nonnull final WSS4JAttachment aAttachment,
+                                                        @Nonnull final AS4ResourceHelper aResHelper) throws IOException
+  {
+    final IHasInputStream aISP = aAttachment.getInputStreamProvider ();
+    if (aISP != null && aISP.isReadMultiple ())
+    {
+      // Already repeatable (in memory or temporary file) - opened streams are
+      // closed with the resource helper
+      return HasInputStream.multiple ( () -> aAttachment.getSourceStream (aResHelper));
+    }
+
+    // Spool to a temporary file that is deleted with the resource helper
+    final File aTempFile = aResHelper.createTempFile ();
+    try (final InputStream aIS = aAttachment.getSourceStream (aResHelper);
+         final OutputStream aOS = FileHelper.getBufferedOutputStream (aTempFile))
+    {
+      if (aOS == null || StreamHelper.copyInputStreamToOutputStream (aIS, aOS).isFailure ())
+        throw new IOException ("Failed to spool attachment '" + aAttachment.getId () + "' to " + aTempFile.getAbsolutePath ());
+    }
+    return HasInputStream.multiple ( () -> FileHelper.getBufferedInputStream (aTempFile));
+  }
+
   @Nonnull
   public AS4MessageProcessorResult processAS4UserMessage (@Nonnull final IAS4IncomingMessageMetadata aMessageMetadata,
                                                           @Nonnull final HttpHeaderMap aHttpHeaders,
@@ -414,11 +943,12 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4ServletMessag
     }
 
     // Read all attachments
+    final boolean bStreamingMode = isStreamingMode ();
     final ICommonsList <ReadAttachment> aReadAttachments = new CommonsArrayList <> ();
     if (aIncomingAttachments != null)
     {
       int nAttachmentIndex = 0;
-      for (final IAS4Attachment aIncomingAttachment : aIncomingAttachments)
+      for (final WSS4JAttachment aIncomingAttachment : aIncomingAttachments)
       {
         final ReadAttachment a = new ReadAttachment ();
         a.m_sID = aIncomingAttachment.getId ();
@@ -426,6 +956,29 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4ServletMessag
         a.m_sUncompressedMimeType = aIncomingAttachment.getUncompressedMimeType ();
         a.m_aCharset = aIncomingAttachment.getCharset ();
         a.m_eCompressionMode = aIncomingAttachment.getCompressionMode ();
+
+        if (bStreamingMode)
+        {
+          // Only make the payload re-readable - the SBDH envelope is read
+          // below
+          try
+          {
+            a.m_aPayloadProvider = _getRepeatablePayload (aIncomingAttachment, aState.getResourceHelper ());
+          }
+          catch (final IOException | AS4DecompressException ex)
+          {
+            LOGGER.error (sLogPrefix + "Failed to decompress the payload", ex);
+            aProcessingErrorMessages.add (EEbmsError.EBMS_DECOMPRESSION_FAILURE.getAsEbms3Error (aDisplayLocale, aState.getMessageID ()));
+            return AS4MessageProcessorResult.createFailure (null);
+          }
+          aReadAttachments.add (a);
+
+          if (LOGGER.isDebugEnabled ())
+            LOGGER.debug (sLogPrefix + "AS4 Attachment " + nAttachmentIndex + " with ID [" + a.m_sID + "] is streamed");
+          nAttachmentIndex++;
+          continue;
+        }
+
         try (final InputStream aSIS = aIncomingAttachment.getSourceStream ())
         {
           final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ();
@@ -513,8 +1066,15 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4ServletMessag
         LOGGER.debug (sLogPrefix + "Now evaluating the SBDH against Peppol rules");
 
       final boolean bPerformValueChecks = Phase4PeppolServletConfiguration.isPerformSBDHValueChecks ();
-      aPeppolSBD = new PeppolSBDHDocumentReader (SimpleIdentifierFactory.INSTANCE).setPerformValueChecks (bPerformValueChecks)
-                                                                                  .extractData (aReadAttachment.standardBusinessDocument ());
+      final PeppolSBDHDocumentReader aReader = new PeppolSBDHDocumentReader (SimpleIdentifierFactory.INSTANCE).setPerformValueChecks (bPerformValueChecks);
+      if (bStreamingMode)
+      {
+        // Read only the envelope
+        aPeppolSBD = new Phase4PeppolSBDHEnvelopeReader (aReader).extractData (aReadAttachment.getPayloadProvider ()
+                                                                                              .getInputStream ());
+      }
+      else
+        aPeppolSBD = aReader.extractData (aReadAttachment.standardBusinessDocument ());
 
       if (LOGGER.isDebugEnabled ())
         LOGGER.debug (sLogPrefix +
@@ -530,6 +1090,13 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4ServletMessag
       LOGGER.error (sLogPrefix + sMsg);
       return AS4MessageProcessorResult.createFailure (sMsg);
     }
+    catch (final AS4DecompressException ex)
+    {
+      // Only in streaming mode
+      LOGGER.error (sLogPrefix + "Failed to decompress the payload", ex);
+      aProcessingErrorMessages.add (EEbmsError.EBMS_DECOMPRESSION_FAILURE.getAsEbms3Error (aDisplayLocale, aState.getMessageID ()));
+      return AS4MessageProcessorResult.createFailure (null);
+    }
 
     if (m_aHandlers.isEmpty ())
     {
@@ -552,11 +1119,14 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4ServletMessag
           final IParticipantIdentifier aReceiverID = aPeppolSBD.getReceiverAsIdentifier ();
           final IDocumentTypeIdentifier aDocTypeID = aPeppolSBD.getDocumentTypeAsIdentifier ();
           final IProcessIdentifier aProcessID = aPeppolSBD.getProcessAsIdentifier ();
-          final EndpointType aReceiverEndpoint = _getReceiverEndpoint (sLogPrefix,
-                                                                       aReceiverCheckData.getSMPClient (),
-                                                                       aReceiverID,
-                                                                       aDocTypeID,
-                                                                       aProcessID);
+          final IPhase4PeppolReceiverCheckCache aReceiverCheckCache = m_aReceiverCheckCache != null ? m_aReceiverCheckCache
+                                                                                                    : Phase4PeppolServletConfiguration.getReceiverCheckCache ();
+          final Phase4PeppolResolvedEndpoint aReceiverEndpoint = _getResolvedReceiverEndpoint (sLogPrefix,
+                                                                                               aReceiverCheckData.getSMPClient (),
+                                                                                               aReceiverID,
+                                                                                               aDocTypeID,
+                                                                                               aProcessID,
+                                                                                               aReceiverCheckCache);
           if (aReceiverEndpoint == null)
           {
             final String sMsg = "Failed to resolve SMP endpoint for provided receiver ID (" +
@@ -593,34 +1163,26 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4ServletMessag
         LOGGER.info (sLogPrefix + "Endpoint checks for incoming AS4 messages are disabled");
       }
 
-      for (final IPhase4PeppolIncomingSBDHandlerSPI aHandler : m_aHandlers)
-      {
-        try
-        {
-          if (LOGGER.isDebugEnabled ())
-            LOGGER.debug (sLogPrefix + "Invoking Peppol handler " + aHandler);
+      final IHandlerInvoker aInvoker = (aHandler, aHandlerHeaders, aHandlerUserMessage) -> {
+        if (bStreamingMode)
+          ((IPhase4PeppolIncomingSBDStreamHandlerSPI) aHandler).handleIncomingSBDStream (aMessageMetadata,
+                                                                                         aHandlerHeaders,
+                                                                                         aHandlerUserMessage,
+                                                                                         aReadAttachment.getPayloadProvider (),
+                                                                                         aPeppolSBD,
+                                                                                         aState);
+        else
           aHandler.handleIncomingSBD (aMessageMetadata,
-                                      aHttpHeaders.getClone (),
-                                      aUserMessage.clone (),
+                                      aHandlerHeaders,
+                                      aHandlerUserMessage,
                                       aReadAttachment.payloadBytes (),
                                       aReadAttachment.standardBusinessDocument (),
                                       aPeppolSBD,
                                       aState);
-        }
-        catch (final Exception ex)
-        {
-          LOGGER.error (sLogPrefix + "Error invoking Peppol handler " + aHandler, ex);
-          if (aHandler.exceptionTranslatesToAS4Error ())
-          {
-            final String sMsg = "The incoming Peppol message could not be processed. Technical details: " +
-                                ex.getClass ().getName () +
-                                " - " +
-                                ex.getMessage ();
-            LOGGER.error (sLogPrefix + sMsg);
-            return AS4MessageProcessorResult.createFailure (sMsg);
-          }
-        }
-      }
+      };
+      final String sHandlerErrorMsg = invokeHandlers (sLogPrefix, aSrcPMode, aHttpHeaders, aUserMessage, aInvoker);
+      if (sHandlerErrorMsg != null)
+        return AS4MessageProcessorResult.createFailure (sHandlerErrorMsg);
     }
 
     return AS4MessageProcessorResult.createSuccess ();
@@ -0,0 +1,195 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.xsds.peppol.smp1.EndpointType;
+
+/**
+ * Test class for class {@link Phase4PeppolReceiverCheckCache}.
+ *
+ * @author Philip Helger
+ */
+public final class Phase4PeppolReceiverCheckCacheTest
+{
+  private static final class TestCache extends Phase4PeppolReceiverCheckCache
+  {
+    private long m_nNowMS = 1_000_000;
+
+    TestCache ()
+    {
+      super (10, Duration.ofMinutes (10), Duration.ofMinutes (1));
+    }
+
+    @Override
+    protected long getCurrentTimeMillis ()
+    {
+      return m_nNowMS;
+    }
+  }
+
+  @Test
+  public void testNegativeResultExpires () throws Exception
+  {
+    final TestCache aCache = new TestCache ();
+    final AtomicInteger aCalls = new AtomicInteger ();
+    for (int i = 0; i < 3; ++i)
+      assertNull (aCache.getOrResolve ("key", () -> {
+        aCalls.incrementAndGet ();
+        return null;
+      }));
+    assertEquals (1, aCalls.get ());
+    assertEquals (2, aCache.getHitCount ());
+
+    // Endpoint without certificate is also negative
+    aCache.m_nNowMS += Duration.ofMinutes (1).toMillis ();
+    final Phase4PeppolResolvedEndpoint aEP = Phase4PeppolResolvedEndpoint.create (new EndpointType ());
+    assertSame (aEP, aCache.getOrResolve ("key", () -> {
+      aCalls.incrementAndGet ();
+      return aEP;
+    }));
+    assertEquals (2, aCalls.get ());
+    assertEquals (2, aCache.getMissCount ());
+  }
+
+  @Test
+  public void testExceptionIsNotCached () throws Exception
+  {
+    final TestCache aCache = new TestCache ();
+    final AtomicInteger aCalls = new AtomicInteger ();
+    for (int i = 0; i < 2; ++i)
+      try
+      {
+        aCache.getOrResolve ("key", () -> {
+          aCalls.incrementAndGet ();
+          throw new Phase4PeppolServletException ("SMP down");
+        });
+        fail ();
+      }
+      catch (final Phase4PeppolServletException ex)
+      {
+        // expected
+      }
+    assertEquals (2, aCalls.get ());
+    assertEquals (0, aCache.size ());
+  }
+
+  @Test
+  public void testConcurrentLookupsAreCoalesced () throws Exception
+  {
+    final Phase4PeppolReceiverCheckCache aCache = new Phase4PeppolReceiverCheckCache ();
+    final AtomicInteger aCalls = new AtomicInteger ();
+    final CountDownLatch aRelease = new CountDownLatch (1);
+    final int nThreads = 8;
+    final ExecutorService aES = Executors.newFixedThreadPool (nThreads);
+    try
+    {
+      final ICommonsList <Future <Phase4PeppolResolvedEndpoint>> aFutures = new CommonsArrayList <> ();
+      for (int i = 0; i < nThreads; ++i)
+        aFutures.add (aES.submit ( () -> aCache.getOrResolve ("key", () -> {
+          aCalls.incrementAndGet ();
+          try
+          {
+            aRelease.await ();
+          }
+          catch (final InterruptedException ex)
+          {
+            throw new Phase4PeppolServletException (ex);
+          }
+          return null;
+        })));
+
+      // Wait until all threads are either resolving or waiting
+      while (aCache.getMissCount () + aCache.getCoalescedCount () < nThreads)
+        Thread.sleep (5);
+      aRelease.countDown ();
+
+      for (final Future <Phase4PeppolResolvedEndpoint> aFuture : aFutures)
+        assertNull (aFuture.get (10, TimeUnit.SECONDS));
+    }
+    finally
+    {
+      aES.shutdownNow ();
+    }
+    assertEquals (1, aCalls.get ());
+    assertEquals (1, aCache.getMissCount ());
+    assertEquals (nThreads - 1, aCache.getCoalescedCount ());
+  }
+
+  @Test
+  public void testErrorIsPassedToWaiters () throws Exception
+  {
+    final Phase4PeppolReceiverCheckCache aCache = new Phase4PeppolReceiverCheckCache ();
+    final CountDownLatch aRelease = new CountDownLatch (1);
+    final ExecutorService aES = Executors.newFixedThreadPool (2);
+    try
+    {
+      final ICommonsList <Future <Phase4PeppolResolvedEndpoint>> aFutures = new CommonsArrayList <> ();
+      for (int i = 0; i < 2; ++i)
+        aFutures.add (aES.submit ( () -> aCache.getOrResolve ("key", () -> {
+          try
+          {
+            aRelease.await ();
+          }
+          catch (final InterruptedException ex)
+          {
+            throw new Phase4PeppolServletException (ex);
+          }
+          throw new AssertionError ("Out of resources");
+        })));
+
+      while (aCache.getMissCount () + aCache.getCoalescedCount () < 2)
+        Thread.sleep (5);
+      aRelease.countDown ();
+
+      // Both the resolving and the waiting thread get the error
+      for (final Future <Phase4PeppolResolvedEndpoint> aFuture : aFutures)
+        try
+        {
+          aFuture.get (10, TimeUnit.SECONDS);
+          fail ();
+        }
+        catch (final ExecutionException ex)
+        {
+          assertTrue (ex.getCause () instanceof AssertionError);
+        }
+    }
+    finally
+    {
+      aES.shutdownNow ();
+    }
+    assertEquals (0, aCache.size ());
+  }
+}
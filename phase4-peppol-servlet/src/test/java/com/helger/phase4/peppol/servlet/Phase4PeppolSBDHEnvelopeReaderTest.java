@@ -0,0 +1,127 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.helger.commons.datetime.PDTFactory;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.peppol.sbdh.PeppolSBDHDocument;
+import com.helger.peppol.sbdh.read.EPeppolSBDHDocumentReadError;
+import com.helger.peppol.sbdh.read.PeppolSBDHDocumentReadException;
+import com.helger.peppol.sbdh.read.PeppolSBDHDocumentReader;
+import com.helger.peppol.sbdh.write.PeppolSBDHDocumentWriter;
+import com.helger.peppolid.factory.SimpleIdentifierFactory;
+import com.helger.sbdh.builder.SBDHWriter;
+import com.helger.xml.XMLFactory;
+
+/**
+ * Test class for class {@link Phase4PeppolSBDHEnvelopeReader}.
+ *
+ * @author Philip Helger
+ */
+public final class Phase4PeppolSBDHEnvelopeReaderTest
+{
+  private static final String NS_INVOICE = "urn:oasis:names:specification:ubl:schema:xsd:Invoice-2";
+
+  @Test
+  public void testReadEnvelope () throws Exception
+  {
+    final Document aDoc = XMLFactory.newDocument ();
+    final Element eInvoice = (Element) aDoc.appendChild (aDoc.createElementNS (NS_INVOICE, "Invoice"));
+    for (int i = 0; i < 1000; ++i)
+      eInvoice.appendChild (aDoc.createElementNS (NS_INVOICE, "Line")).appendChild (aDoc.createTextNode ("Line " + i));
+
+    final PeppolSBDHDocument aSrc = PeppolSBDHDocument.createUBL21 (eInvoice, SimpleIdentifierFactory.INSTANCE);
+    aSrc.setSenderWithDefaultScheme ("9915:sender");
+    aSrc.setReceiverWithDefaultScheme ("9915:receiver");
+    aSrc.setDocumentTypeWithBusdoxDocidQns (NS_INVOICE +
+                                            "::Invoice##urn:cen.eu:en16931:2017#compliant#urn:fdc:peppol.eu:2017:poacc:billing:3.0::2.1");
+    aSrc.setProcessWithDefaultScheme ("urn:fdc:peppol.eu:2017:poacc:billing:01:1.0");
+    aSrc.setInstanceIdentifier ("instance-1");
+    aSrc.setCreationDateAndTime (PDTFactory.getCurrentXMLOffsetDateTimeMillisOnlyUTC ());
+    final byte [] aBytes = SBDHWriter.standardBusinessDocument ()
+                                     .getAsBytes (new PeppolSBDHDocumentWriter ().createStandardBusinessDocument (aSrc));
+    assertNotNull (aBytes);
+
+    final PeppolSBDHDocumentReader aReader = new PeppolSBDHDocumentReader (SimpleIdentifierFactory.INSTANCE);
+    final PeppolSBDHDocument aFull = aReader.extractData (new NonBlockingByteArrayInputStream (aBytes));
+    final PeppolSBDHDocument aEnvelope = new Phase4PeppolSBDHEnvelopeReader (aReader).extractData (new NonBlockingByteArrayInputStream (aBytes));
+
+    assertEquals (aFull.getSenderAsIdentifier (), aEnvelope.getSenderAsIdentifier ());
+    assertEquals (aFull.getReceiverAsIdentifier (), aEnvelope.getReceiverAsIdentifier ());
+    assertEquals (aFull.getDocumentTypeAsIdentifier (), aEnvelope.getDocumentTypeAsIdentifier ());
+    assertEquals (aFull.getProcessAsIdentifier (), aEnvelope.getProcessAsIdentifier ());
+    assertEquals (aFull.getInstanceIdentifier (), aEnvelope.getInstanceIdentifier ());
+    assertEquals (aFull.getCreationDateAndTime (), aEnvelope.getCreationDateAndTime ());
+    assertEquals (aFull.getStandard (), aEnvelope.getStandard ());
+    assertEquals (aFull.getType (), aEnvelope.getType ());
+
+    // Only the root element of the business message is present
+    final Element eStub = aEnvelope.getBusinessMessageNoClone ();
+    assertEquals (NS_INVOICE, eStub.getNamespaceURI ());
+    assertEquals ("Invoice", eStub.getLocalName ());
+    assertEquals (0, eStub.getChildNodes ().getLength ());
+  }
+
+  @Test
+  public void testInvalid () throws Exception
+  {
+    final Phase4PeppolSBDHEnvelopeReader aReader = new Phase4PeppolSBDHEnvelopeReader (new PeppolSBDHDocumentReader (SimpleIdentifierFactory.INSTANCE));
+    try
+    {
+      aReader.extractData (new NonBlockingByteArrayInputStream ("<Invoice xmlns='urn:any'/>".getBytes (StandardCharsets.UTF_8)));
+      fail ();
+    }
+    catch (final PeppolSBDHDocumentReadException ex)
+    {
+      assertEquals (EPeppolSBDHDocumentReadError.INVALID_SBD_XML, ex.getErrorCode ());
+    }
+
+    try
+    {
+      aReader.extractData (new NonBlockingByteArrayInputStream ("<StandardBusinessDocument xmlns='http://www.unece.org/cefact/namespaces/StandardBusinessDocumentHeader'/>".getBytes (StandardCharsets.UTF_8)));
+      fail ();
+    }
+    catch (final PeppolSBDHDocumentReadException ex)
+    {
+      assertEquals (EPeppolSBDHDocumentReadError.MISSING_SBDH, ex.getErrorCode ());
+    }
+
+    // Header not valid according to the XML Schema
+    try
+    {
+      aReader.extractData (new NonBlockingByteArrayInputStream (("<StandardBusinessDocument xmlns='http://www.unece.org/cefact/namespaces/StandardBusinessDocumentHeader'>" +
+                                                                 "<StandardBusinessDocumentHeader><HeaderVersion>1.0</HeaderVersion><Unknown/></StandardBusinessDocumentHeader>" +
+                                                                 "<Invoice xmlns='urn:any'/>" +
+                                                                 "</StandardBusinessDocument>").getBytes (StandardCharsets.UTF_8)));
+      fail ();
+    }
+    catch (final PeppolSBDHDocumentReadException ex)
+    {
+      assertEquals (EPeppolSBDHDocumentReadError.INVALID_SBD_XML, ex.getErrorCode ());
+    }
+  }
+}
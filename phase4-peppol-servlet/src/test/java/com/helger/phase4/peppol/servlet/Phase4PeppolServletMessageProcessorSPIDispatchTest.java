@@ -0,0 +1,254 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+import org.unece.cefact.namespaces.sbdh.StandardBusinessDocument;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsVector;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.concurrent.ExecutorServiceHelper;
+import com.helger.commons.http.HttpHeaderMap;
+import com.helger.peppol.sbdh.PeppolSBDHDocument;
+import com.helger.phase4.ebms3header.Ebms3UserMessage;
+import com.helger.phase4.messaging.IAS4IncomingMessageMetadata;
+import com.helger.phase4.servlet.IAS4MessageState;
+import com.helger.phase4.servlet.async.AS4AsyncExecutor;
+
+/**
+ * Test class for the handler dispatching of class
+ * {@link Phase4PeppolServletMessageProcessorSPI}.
+ *
+ * @author Philip Helger
+ */
+public final class Phase4PeppolServletMessageProcessorSPIDispatchTest
+{
+  private static final String LOG_PREFIX = "[test] ";
+
+  private static final class MockHandler implements IPhase4PeppolIncomingSBDHandlerSPI
+  {
+    private final String m_sName;
+
+    MockHandler (@Nonnull final String sName)
+    {
+      m_sName = sName;
+    }
+
+    public void handleIncomingSBD (@Nonnull final IAS4IncomingMessageMetadata aMessageMetadata,
+                                   @Nonnull final HttpHeaderMap aHeaders,
+                                   @Nonnull final Ebms3UserMessage aUserMessage,
+                                   @Nonnull final byte [] aSBDBytes,
+                                   @Nonnull final StandardBusinessDocument aSBD,
+                                   @Nonnull final PeppolSBDHDocument aPeppolSBD,
+                                   @Nonnull final IAS4MessageState aState) throws Exception
+    {
+      throw new UnsupportedOperationException ();
+    }
+
+    @Override
+    public boolean exceptionTranslatesToAS4Error ()
+    {
+      return true;
+    }
+
+    @Override
+    public String toString ()
+    {
+      return m_sName;
+    }
+  }
+
+  @Nonnull
+  private static ICommonsList <IPhase4PeppolIncomingSBDHandlerSPI> _createHandlers (final int nCount)
+  {
+    final ICommonsList <IPhase4PeppolIncomingSBDHandlerSPI> ret = new CommonsArrayList <> ();
+    for (int i = 0; i < nCount; ++i)
+      ret.add (new MockHandler ("h" + i));
+    return ret;
+  }
+
+  @Nonnull
+  private static Ebms3UserMessage _createUserMessage ()
+  {
+    final Ebms3UserMessage ret = new Ebms3UserMessage ();
+    ret.setMpc ("original");
+    return ret;
+  }
+
+  @Test
+  public void testSequential ()
+  {
+    final Phase4PeppolServletMessageProcessorSPI aSPI = new Phase4PeppolServletMessageProcessorSPI ();
+    aSPI.setAllHandler (_createHandlers (3));
+    assertEquals (EPhase4PeppolHandlerDispatchMode.SEQUENTIAL, aSPI.getHandlerDispatchMode ());
+
+    final HttpHeaderMap aHeaders = new HttpHeaderMap ();
+    aHeaders.addHeader ("X-Test", "original");
+    final Ebms3UserMessage aUserMessage = _createUserMessage ();
+    final ICommonsList <String> aOrder = new CommonsVector <> ();
+    final ICommonsList <Thread> aThreads = new CommonsVector <> ();
+    final String sError = aSPI.invokeHandlers (LOG_PREFIX, null, aHeaders, aUserMessage, (aHandler, aHandlerHeaders, aHandlerUserMessage) -> {
+      // Each handler must see the unmodified original
+      assertEquals (1, aHandlerHeaders.getAllHeaderValues ("X-Test").size ());
+      assertEquals ("original", aHandlerUserMessage.getMpc ());
+      aHandlerHeaders.addHeader ("X-Test", aHandler.toString ());
+      aHandlerUserMessage.setMpc (aHandler.toString ());
+      aOrder.add (aHandler.toString ());
+      aThreads.add (Thread.currentThread ());
+    });
+    assertNull (sError);
+    assertEquals (new CommonsArrayList <> ("h0", "h1", "h2"), aOrder);
+    assertTrue (aThreads.containsOnly (x -> x == Thread.currentThread ()));
+
+    // Originals untouched
+    assertEquals (1, aHeaders.getAllHeaderValues ("X-Test").size ());
+    assertEquals ("original", aUserMessage.getMpc ());
+  }
+
+  @Test
+  public void testSequentialException ()
+  {
+    final Phase4PeppolServletMessageProcessorSPI aSPI = new Phase4PeppolServletMessageProcessorSPI ();
+    aSPI.setAllHandler (_createHandlers (3));
+
+    final ICommonsList <String> aOrder = new CommonsVector <> ();
+    final String sError = aSPI.invokeHandlers (LOG_PREFIX,
+                                               null,
+                                               new HttpHeaderMap (),
+                                               _createUserMessage (),
+                                               (aHandler, aHandlerHeaders, aHandlerUserMessage) -> {
+                                                 aOrder.add (aHandler.toString ());
+                                                 if (aHandler.toString ().equals ("h1"))
+                                                   throw new IllegalStateException ("failed");
+                                               });
+    assertNotNull (sError);
+    assertTrue (sError.contains ("failed"));
+    // The first failing handler stops the processing
+    assertEquals (new CommonsArrayList <> ("h0", "h1"), aOrder);
+  }
+
+  @Test
+  public void testParallel () throws Exception
+  {
+    final int nHandlers = 4;
+    final ExecutorService aES = Executors.newFixedThreadPool (nHandlers);
+    try (final AS4AsyncExecutor aExecutor = new AS4AsyncExecutor ("test", aES))
+    {
+      final Phase4PeppolServletMessageProcessorSPI aSPI = new Phase4PeppolServletMessageProcessorSPI ();
+      aSPI.setAllHandler (_createHandlers (nHandlers));
+      aSPI.setHandlerDispatchMode (EPhase4PeppolHandlerDispatchMode.PARALLEL);
+      aSPI.setHandlerExecutor (aExecutor);
+
+      final HttpHeaderMap aHeaders = new HttpHeaderMap ();
+      aHeaders.addHeader ("X-Test", "original");
+      final Ebms3UserMessage aUserMessage = _createUserMessage ();
+      // All handlers must be running at the same time to pass the latch
+      final CountDownLatch aAllStarted = new CountDownLatch (nHandlers);
+      final AtomicBoolean aAllConcurrent = new AtomicBoolean (true);
+      final ICommonsList <Object> aSeenHeaders = new CommonsVector <> ();
+      final String sError = aSPI.invokeHandlers (LOG_PREFIX,
+                                                 null,
+                                                 aHeaders,
+                                                 aUserMessage,
+                                                 (aHandler, aHandlerHeaders, aHandlerUserMessage) -> {
+                                                   aHandlerHeaders.addHeader ("X-Test", aHandler.toString ());
+                                                   aHandlerUserMessage.setMpc (aHandler.toString ());
+                                                   aSeenHeaders.add (aHandlerHeaders);
+                                                   aAllStarted.countDown ();
+                                                   if (!aAllStarted.await (10, TimeUnit.SECONDS))
+                                                     aAllConcurrent.set (false);
+                                                   assertEquals (2, aHandlerHeaders.getAllHeaderValues ("X-Test").size ());
+                                                   assertEquals (aHandler.toString (), aHandlerUserMessage.getMpc ());
+                                                 });
+      assertNull (sError);
+      assertTrue (aAllConcurrent.get ());
+      assertEquals (nHandlers, aSeenHeaders.size ());
+      // Each handler got its own copy
+      for (int i = 0; i < nHandlers; ++i)
+        for (int j = i + 1; j < nHandlers; ++j)
+          assertTrue (aSeenHeaders.get (i) != aSeenHeaders.get (j));
+      assertEquals (1, aHeaders.getAllHeaderValues ("X-Test").size ());
+      assertEquals ("original", aUserMessage.getMpc ());
+    }
+    finally
+    {
+      ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (aES);
+    }
+  }
+
+  @Test
+  public void testParallelTimeout () throws Exception
+  {
+    final ExecutorService aES = Executors.newFixedThreadPool (2);
+    try (final AS4AsyncExecutor aExecutor = new AS4AsyncExecutor ("test", aES))
+    {
+      final Phase4PeppolServletMessageProcessorSPI aSPI = new Phase4PeppolServletMessageProcessorSPI ();
+      aSPI.setAllHandler (_createHandlers (2));
+      aSPI.setHandlerDispatchMode (EPhase4PeppolHandlerDispatchMode.PARALLEL);
+      aSPI.setHandlerExecutor (aExecutor);
+      aSPI.setHandlerTimeout (Duration.ofMillis (200));
+
+      final CountDownLatch aInterrupted = new CountDownLatch (1);
+      final long nStart = System.nanoTime ();
+      final String sError = aSPI.invokeHandlers (LOG_PREFIX,
+                                                 null,
+                                                 new HttpHeaderMap (),
+                                                 _createUserMessage (),
+                                                 (aHandler, aHandlerHeaders, aHandlerUserMessage) -> {
+                                                   if (aHandler.toString ().equals ("h1"))
+                                                   {
+                                                     try
+                                                     {
+                                                       // Much longer than the timeout
+                                                       Thread.sleep (60_000);
+                                                     }
+                                                     catch (final InterruptedException ex)
+                                                     {
+                                                       aInterrupted.countDown ();
+                                                       throw ex;
+                                                     }
+                                                   }
+                                                 });
+      final long nDurationMS = TimeUnit.NANOSECONDS.toMillis (System.nanoTime () - nStart);
+      assertNotNull (sError);
+      assertTrue (sError, sError.contains ("TimeoutException"));
+      assertTrue ("Took " + nDurationMS + " ms", nDurationMS < 10_000);
+
+      // The hanging handler must have been interrupted
+      assertTrue (aInterrupted.await (10, TimeUnit.SECONDS));
+    }
+    finally
+    {
+      ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (aES);
+    }
+  }
+}
@@ -18,26 +18,54 @@ package com.helger.phase4.server.servlet;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.KeyStore;
 import java.security.cert.X509Certificate;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.unece.cefact.namespaces.sbdh.StandardBusinessDocument;
 
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.map.LRUMap;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.concurrent.ExecutorServiceHelper;
+import com.helger.commons.concurrent.SimpleLock;
 import com.helger.commons.io.file.FilenameHelper;
 import com.helger.commons.io.file.SimpleFileIO;
 import com.helger.commons.io.stream.StreamHelper;
 import com.helger.commons.io.watchdir.EWatchDirAction;
 import com.helger.commons.io.watchdir.IWatchDirCallback;
 import com.helger.commons.io.watchdir.WatchDir;
+import com.helger.commons.string.StringHelper;
 import com.helger.commons.timing.StopWatch;
 import com.helger.config.IConfig;
 import com.helger.httpclient.response.ResponseHandlerByteArray;
@@ -46,6 +74,7 @@ import com.helger.peppol.sbdh.read.PeppolSBDHDocumentReader;
 import com.helger.peppol.sml.ESML;
 import com.helger.peppol.smp.ESMPTransportProfile;
 import com.helger.peppol.utils.PeppolCertificateHelper;
+import com.helger.peppolid.IParticipantIdentifier;
 import com.helger.peppolid.factory.IIdentifierFactory;
 import com.helger.peppolid.factory.PeppolIdentifierFactory;
 import com.helger.phase4.CAS4;
@@ -58,145 +87,622 @@ import com.helger.phase4.crypto.ECryptoAlgorithmSign;
 import com.helger.phase4.crypto.ECryptoAlgorithmSignDigest;
 import com.helger.phase4.crypto.IAS4CryptoFactory;
 import com.helger.phase4.dump.IAS4OutgoingDumper;
+import com.helger.phase4.dynamicdiscovery.AS4EndpointDetailProviderPeppol;
+import com.helger.phase4.dynamicdiscovery.AS4EndpointLookupKey;
 import com.helger.phase4.messaging.domain.MessageHelperMethods;
 import com.helger.phase4.soap.ESoapVersion;
 import com.helger.phase4.util.AS4ResourceHelper;
 import com.helger.sbdh.builder.SBDHReader;
 import com.helger.sbdh.builder.SBDHWriter;
 import com.helger.security.certificate.CertificateHelper;
-import com.helger.smpclient.peppol.ISMPServiceMetadataProvider;
 import com.helger.smpclient.peppol.SMPClient;
 import com.helger.smpclient.peppol.utils.W3CEndpointReferenceHelper;
 import com.helger.smpclient.url.IPeppolURLProvider;
 import com.helger.smpclient.url.PeppolURLProvider;
 import com.helger.xsds.peppol.smp1.EndpointType;
 
+/**
+ * Watches the outgoing directory and sends all contained SBD files. The files
+ * are processed by a pool of workers with an optional rate limit per
+ * receiver. Files of receivers that reached their rate limit are left in the
+ * directory for a later scan.<br>
+ * Before a file is sent, it is atomically moved to the "in progress"
+ * directory and the AS4 message ID to be used is persisted next to it. After
+ * a restart, files found in the "in progress" directory are resent with the
+ * same message ID, so that the duplicate detection of the receiving AS4
+ * gateway ignores them if they were already transmitted.
+ *
+ * @author Philip Helger
+ */
 public final class DropFolderUserMessage
 {
+  /** The default number of worker threads */
+  public static final int DEFAULT_WORKER_COUNT = 4;
+  /** The default maximum number of files handled per directory scan batch */
+  public static final int DEFAULT_SCAN_BATCH_SIZE = 500;
+  /** The default directory rescan interval in seconds */
+  public static final int DEFAULT_SCAN_INTERVAL_SECONDS = 60;
+  /** The default maximum number of messages per second per receiver */
+  public static final int DEFAULT_MAX_MESSAGES_PER_SECOND_PER_RECEIVER = 0;
+  /** The maximum number of cached SMP clients */
+  public static final int MAX_SMP_CLIENTS = 1_000;
+  /**
+   * The maximum time a rate limited file may wait for its slot. Files with a
+   * later slot are left in the directory for the next scan.
+   */
+  public static final long MAX_RATE_LIMIT_WAIT_MILLIS = 1_000;
+
   private static final IIdentifierFactory IF = PeppolIdentifierFactory.INSTANCE;
   private static final IPeppolURLProvider UP = PeppolURLProvider.INSTANCE;
+  private static final ESML SML = ESML.DIGIT_TEST;
   private static final String PATH_DONE = "done";
   private static final String PATH_ERROR = "error";
+  private static final String PATH_IN_PROGRESS = "inprogress";
+  private static final String MESSAGE_ID_SUFFIX = ".msgid";
   private static final Logger LOGGER = LoggerFactory.getLogger (DropFolderUserMessage.class);
+
+  // Shared between all workers - bounded, as the number of SMPs is unlimited
+  private static final SimpleLock SMP_CLIENTS_LOCK = new SimpleLock ();
+  @GuardedBy ("SMP_CLIENTS_LOCK")
+  private static final LRUMap <URI, SMPClient> SMP_CLIENTS = new LRUMap <> (MAX_SMP_CLIENTS);
+  // Files that are scheduled for sending - contains both the original and the
+  // "in progress" path
+  private static final Set <Path> QUEUED = ConcurrentHashMap.newKeySet ();
+  private static final AtomicBoolean RESCAN_REQUESTED = new AtomicBoolean (false);
+
   private static WatchDir s_aWatch;
+  private static ThreadPoolExecutor s_aWorkers;
+  private static ScheduledExecutorService s_aScheduler;
+  private static ReceiverRateLimiter s_aRateLimiter;
+  private static Runnable s_aRescan;
+
+  /**
+   * A simple rate limiter that spreads the messages for a single receiver
+   * evenly over time.
+   *
+   * @author Philip Helger
+   */
+  @ThreadSafe
+  static final class ReceiverRateLimiter
+  {
+    private final long m_nIntervalNanos;
+    private final SimpleLock m_aLock = new SimpleLock ();
+    @GuardedBy ("m_aLock")
+    private final LRUMap <String, Long> m_aNextSlot = new LRUMap <> (10_000);
+
+    ReceiverRateLimiter (@Nonnegative final int nMaxPerSecond)
+    {
+      m_nIntervalNanos = TimeUnit.SECONDS.toNanos (1) / nMaxPerSecond;
+    }
+
+    /**
+     * Reserve the next slot for the provided receiver.
+     *
+     * @param sReceiverID
+     *        Receiver ID. May not be <code>null</code>.
+     * @return The number of nanoseconds to wait until the reserved slot is
+     *         reached. Always &ge; 0.
+     */
+    @Nonnegative
+    long reserve (@Nonnull final String sReceiverID)
+    {
+      return reserve (sReceiverID, Long.MAX_VALUE);
+    }
+
+    /**
+     * Reserve the next slot for the provided receiver, if it is not too far
+     * in the future.
+     *
+     * @param sReceiverID
+     *        Receiver ID. May not be <code>null</code>.
+     * @param nMaxWaitNanos
+     *        The maximum number of nanoseconds to wait. Must be &ge; 0.
+     * @return The number of nanoseconds to wait until the reserved slot is
+     *         reached or -1 if the next free slot is too far in the future. In
+     *         the latter case nothing is reserved.
+     */
+    long reserve (@Nonnull final String sReceiverID, @Nonnegative final long nMaxWaitNanos)
+    {
+      final long nNow = System.nanoTime ();
+      return m_aLock.lockedGet ( () -> {
+        final Long aNext = m_aNextSlot.get (sReceiverID);
+        final long nSlot = aNext == null ? nNow : Math.max (nNow, aNext.longValue ());
+        if (nSlot - nNow > nMaxWaitNanos)
+          return Long.valueOf (-1);
+        m_aNextSlot.put (sReceiverID, Long.valueOf (nSlot + m_nIntervalNanos));
+        return Long.valueOf (nSlot - nNow);
+      }).longValue ();
+    }
+  }
 
   private DropFolderUserMessage ()
   {}
 
-  private static void _send (@Nonnull final IAS4CryptoFactory aCF, final Path aSendFile, final Path aIncomingDir)
+  @Nonnull
+  private static EndpointType _getEndpoint (@Nonnull final PeppolSBDHDocument aSBDH) throws Exception
+  {
+    final IParticipantIdentifier aReceiverID = aSBDH.getReceiverAsIdentifier ();
+    // The SMP is determined via the SML
+    final AS4EndpointLookupKey aKey = AS4EndpointLookupKey.create ("sml:" + SML.getDNSZone (),
+                                                                   aReceiverID,
+                                                                   aSBDH.getDocumentTypeAsIdentifier (),
+                                                                   aSBDH.getProcessAsIdentifier (),
+                                                                   ESMPTransportProfile.TRANSPORT_PROFILE_BDXR_AS4);
+    final EndpointType aEndpoint = AS4EndpointDetailProviderPeppol.getSharedEndpointCache ().getOrLoad (aKey, () -> {
+      // Reuse the SMP clients
+      final URI aSMPURI = UP.getSMPURIOfParticipant (aReceiverID, SML);
+      final SMPClient aSMPClient = SMP_CLIENTS_LOCK.lockedGet ( () -> SMP_CLIENTS.computeIfAbsent (aSMPURI, SMPClient::new));
+      return aSMPClient.getEndpoint (aReceiverID,
+                                     aSBDH.getDocumentTypeAsIdentifier (),
+                                     aSBDH.getProcessAsIdentifier (),
+                                     ESMPTransportProfile.TRANSPORT_PROFILE_BDXR_AS4);
+    });
+    if (aEndpoint == null)
+      throw new IllegalStateException ("Found no endpoint for:\n  Receiver ID: " +
+                                       aReceiverID.getURIEncoded () +
+                                       "\n  Document type ID: " +
+                                       aSBDH.getDocumentTypeAsIdentifier ().getURIEncoded () +
+                                       "\n  Process ID: " +
+                                       aSBDH.getProcessAsIdentifier ().getURIEncoded ());
+    return aEndpoint;
+  }
+
+  @Nonnull
+  private static Path _getMessageIDFile (@Nonnull final Path aInProgressFile)
+  {
+    return aInProgressFile.resolveSibling (aInProgressFile.getFileName ().toString () + MESSAGE_ID_SUFFIX);
+  }
+
+  /**
+   * Get the persisted message ID of a previous attempt or create and persist
+   * a new one.
+   */
+  @Nonnull
+  static String getOrCreateMessageID (@Nonnull final Path aInProgressFile) throws IOException
+  {
+    final Path aMessageIDFile = _getMessageIDFile (aInProgressFile);
+    if (Files.isRegularFile (aMessageIDFile))
+    {
+      final String sMessageID = new String (Files.readAllBytes (aMessageIDFile), StandardCharsets.UTF_8).trim ();
+      if (StringHelper.hasText (sMessageID))
+      {
+        LOGGER.warn ("Resending '" + aInProgressFile + "' with the message ID '" + sMessageID + "' of an interrupted previous attempt");
+        return sMessageID;
+      }
+    }
+
+    final String sMessageID = MessageHelperMethods.createRandomMessageID ();
+    // Must be on disk before the message is sent
+    Files.write (aMessageIDFile,
+                 sMessageID.getBytes (StandardCharsets.UTF_8),
+                 StandardOpenOption.CREATE,
+                 StandardOpenOption.TRUNCATE_EXISTING,
+                 StandardOpenOption.WRITE,
+                 StandardOpenOption.SYNC);
+    return sMessageID;
+  }
+
+  private static void _send (@Nonnull final IAS4CryptoFactory aCF,
+                             @Nonnull final Path aInProgressFile,
+                             @Nonnull final StandardBusinessDocument aSBD,
+                             @Nonnull final PeppolSBDHDocument aSBDH,
+                             @Nonnull final EndpointType aEndpoint,
+                             @Nonnull final Path aIncomingDir) throws Exception
   {
     final StopWatch aSW = StopWatch.createdStarted ();
-    boolean bSuccess = false;
-    LOGGER.info ("Trying to send " + aSendFile.toString ());
     try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final KeyStore.PrivateKeyEntry aOurCert = aCF.getPrivateKeyEntry ();
+      final X509Certificate aTheirCert = CertificateHelper.convertStringToCertficate (aEndpoint.getCertificate ());
+
+      final AS4ClientUserMessage aClient = new AS4ClientUserMessage (aResHelper);
+      aClient.setSoapVersion (ESoapVersion.SOAP_12);
+
+      // Keystore data
+      aClient.setAS4CryptoFactory (aCF);
+
+      aClient.signingParams ().setAlgorithmSign (ECryptoAlgorithmSign.RSA_SHA_512);
+      aClient.signingParams ().setAlgorithmSignDigest (ECryptoAlgorithmSignDigest.DIGEST_SHA_512);
+
+      // FIXME Action, Service etc. are missing
+      aClient.setAction ("xxx");
+      aClient.setServiceType ("xxx");
+      aClient.setServiceValue ("xxx");
+      aClient.setConversationID (MessageHelperMethods.createRandomConversationID ());
+      aClient.setAgreementRefValue ("xxx");
+
+      aClient.setFromRole (CAS4.DEFAULT_ROLE);
+      aClient.setFromPartyID (PeppolCertificateHelper.getSubjectCN ((X509Certificate) aOurCert.getCertificate ()));
+      aClient.setToRole (CAS4.DEFAULT_ROLE);
+      aClient.setToPartyID (PeppolCertificateHelper.getSubjectCN (aTheirCert));
+      aClient.ebms3Properties ()
+             .setAll (MessageHelperMethods.createEbms3Property (CAS4.ORIGINAL_SENDER, aSBDH.getSenderScheme (), aSBDH.getSenderValue ()),
+                      MessageHelperMethods.createEbms3Property (CAS4.FINAL_RECIPIENT,
+                                                                aSBDH.getReceiverScheme (),
+                                                                aSBDH.getReceiverValue ()));
+      aClient.setPayload (SBDHWriter.standardBusinessDocument ().getAsDocument (aSBD));
+
+      // Use a stable message ID across restarts
+      aClient.setMessageID (getOrCreateMessageID (aInProgressFile));
+
+      final IAS4ClientBuildMessageCallback aCallback = null;
+      final IAS4OutgoingDumper aOutgoingDumper = null;
+      final IAS4RetryCallback aRetryCallback = null;
+      final String sURL = W3CEndpointReferenceHelper.getAddress (aEndpoint.getEndpointReference ());
+      final AS4ClientSentMessage <byte []> aResponseEntity = aClient.sendMessageWithRetries (sURL,
+                                                                                             new ResponseHandlerByteArray (),
+                                                                                             aCallback,
+                                                                                             aOutgoingDumper,
+                                                                                             aRetryCallback);
+      LOGGER.info ("Successfully transmitted document with message ID '" +
+                   aResponseEntity.getMessageID () +
+                   "' for '" +
+                   aSBDH.getReceiverAsIdentifier ().getURIEncoded () +
+                   "' to '" +
+                   sURL +
+                   "' in " +
+                   aSW.stopAndGetMillis () +
+                   " ms");
+
+      if (aResponseEntity.hasResponse ())
+      {
+        final String sMessageID = aResponseEntity.getMessageID ();
+        final String sFilename = FilenameHelper.getAsSecureValidASCIIFilename (sMessageID) + "-response.xml";
+        final File aResponseFile = aIncomingDir.resolve (sFilename).toFile ();
+        if (SimpleFileIO.writeFile (aResponseFile, aResponseEntity.getResponse ()).isSuccess ())
+          LOGGER.info ("Response file was written to '" + aResponseFile.getAbsolutePath () + "'");
+        else
+          LOGGER.error ("Error writing response file to '" + aResponseFile.getAbsolutePath () + "'");
+      }
+    }
+  }
+
+  private static void _finish (@Nonnull final Path aInProgressFile, final boolean bSuccess)
+  {
+    // Move to done or error directory?
+    final Path aOutgoingDir = aInProgressFile.getParent ().getParent ();
+    final Path aDest = aOutgoingDir.resolve (bSuccess ? PATH_DONE : PATH_ERROR).resolve (aInProgressFile.getFileName ());
+    try
+    {
+      // A file with the same name may have been sent before
+      Files.move (aInProgressFile, aDest, StandardCopyOption.REPLACE_EXISTING);
+      // Only delete the message ID after the file was moved
+      Files.deleteIfExists (_getMessageIDFile (aInProgressFile));
+    }
+    catch (final IOException ex)
+    {
+      LOGGER.error ("Error moving from '" + aInProgressFile.toString () + "' to '" + aDest + "'", ex);
+    }
+  }
+
+  /**
+   * Handle a single file. Files that are not yet in the "in progress"
+   * directory are only claimed, if the rate limit of the receiver admits
+   * them. Otherwise they are left for the next scan.
+   */
+  private static void _process (@Nonnull final IAS4CryptoFactory aCF,
+                                @Nonnull final Path aFile,
+                                @Nonnull final Path aInProgressDir,
+                                @Nonnull final Path aIncomingDir,
+                                final boolean bAlreadyClaimed)
+  {
+    final Path aInProgressFile = bAlreadyClaimed ? aFile : aInProgressDir.resolve (aFile.getFileName ());
+    if (!bAlreadyClaimed && !QUEUED.add (aInProgressFile))
+    {
+      // A file with the same name is currently in progress
+      QUEUED.remove (aFile);
+      return;
+    }
+    final Runnable aRelease = () -> {
+      QUEUED.remove (aFile);
+      QUEUED.remove (aInProgressFile);
+    };
+
+    boolean bHandedOver = false;
+    boolean bClaimed = bAlreadyClaimed;
+    try
     {
       // Read generic SBD
-      final StandardBusinessDocument aSBD = SBDHReader.standardBusinessDocument ().read (Files.newInputStream (aSendFile));
+      final StandardBusinessDocument aSBD;
+      try (final InputStream aIS = Files.newInputStream (aFile))
+      {
+        aSBD = SBDHReader.standardBusinessDocument ().read (aIS);
+      }
       if (aSBD == null)
+        throw new IllegalStateException ("Failed to read " + aFile.toString () + " as SBDH document!");
+
+      // Extract Peppol specific data
+      final PeppolSBDHDocument aSBDH = new PeppolSBDHDocumentReader (IF).extractData (aSBD);
+
+      final long nWaitNanos = s_aRateLimiter == null ? 0
+                                                     : s_aRateLimiter.reserve (aSBDH.getReceiverAsIdentifier ().getURIEncoded (),
+                                                                               TimeUnit.MILLISECONDS.toNanos (MAX_RATE_LIMIT_WAIT_MILLIS));
+      if (nWaitNanos < 0)
       {
-        LOGGER.error ("Failed to read " + aSendFile.toString () + " as SBDH document!");
+        // Too many messages for this receiver - don't keep it in memory
+        if (LOGGER.isDebugEnabled ())
+          LOGGER.debug ("Rate limit reached - leaving '" + aFile + "' for the next scan");
+        _requestRescan ();
+        return;
       }
-      else
+
+      if (!bAlreadyClaimed)
       {
-        // Extract Peppol specific data
-        final PeppolSBDHDocument aSBDH = new PeppolSBDHDocumentReader (IF).extractData (aSBD);
-        final ISMPServiceMetadataProvider aSMPClient = new SMPClient (UP, aSBDH.getReceiverAsIdentifier (), ESML.DIGIT_TEST);
-        final EndpointType aEndpoint = aSMPClient.getEndpoint (aSBDH.getReceiverAsIdentifier (),
-                                                               aSBDH.getDocumentTypeAsIdentifier (),
-                                                               aSBDH.getProcessAsIdentifier (),
-                                                               ESMPTransportProfile.TRANSPORT_PROFILE_BDXR_AS4);
-        if (aEndpoint == null)
-        {
-          LOGGER.error ("Found no endpoint for:\n  Receiver ID: " +
-                        aSBDH.getReceiverAsIdentifier ().getURIEncoded () +
-                        "\n  Document type ID: " +
-                        aSBDH.getDocumentTypeAsIdentifier ().getURIEncoded () +
-                        "\n  Process ID: " +
-                        aSBDH.getProcessAsIdentifier ().getURIEncoded ());
-        }
-        else
+        if (claim (aFile, aInProgressDir) == null)
+          return;
+        bClaimed = true;
+      }
+      LOGGER.info ("Trying to send " + aInProgressFile.toString ());
+
+      final EndpointType aEndpoint = _getEndpoint (aSBDH);
+      final Runnable aSend = () -> {
+        try
         {
-          final KeyStore.PrivateKeyEntry aOurCert = aCF.getPrivateKeyEntry ();
-          final X509Certificate aTheirCert = CertificateHelper.convertStringToCertficate (aEndpoint.getCertificate ());
-
-          final AS4ClientUserMessage aClient = new AS4ClientUserMessage (aResHelper);
-          aClient.setSoapVersion (ESoapVersion.SOAP_12);
-
-          // Keystore data
-          aClient.setAS4CryptoFactory (aCF);
-
-          aClient.signingParams ().setAlgorithmSign (ECryptoAlgorithmSign.RSA_SHA_512);
-          aClient.signingParams ().setAlgorithmSignDigest (ECryptoAlgorithmSignDigest.DIGEST_SHA_512);
-
-          // FIXME Action, Service etc. are missing
-          aClient.setAction ("xxx");
-          aClient.setServiceType ("xxx");
-          aClient.setServiceValue ("xxx");
-          aClient.setConversationID (MessageHelperMethods.createRandomConversationID ());
-          aClient.setAgreementRefValue ("xxx");
-
-          aClient.setFromRole (CAS4.DEFAULT_ROLE);
-          aClient.setFromPartyID (PeppolCertificateHelper.getSubjectCN ((X509Certificate) aOurCert.getCertificate ()));
-          aClient.setToRole (CAS4.DEFAULT_ROLE);
-          aClient.setToPartyID (PeppolCertificateHelper.getSubjectCN (aTheirCert));
-          aClient.ebms3Properties ()
-                 .setAll (MessageHelperMethods.createEbms3Property (CAS4.ORIGINAL_SENDER,
-                                                                    aSBDH.getSenderScheme (),
-                                                                    aSBDH.getSenderValue ()),
-                          MessageHelperMethods.createEbms3Property (CAS4.FINAL_RECIPIENT,
-                                                                    aSBDH.getReceiverScheme (),
-                                                                    aSBDH.getReceiverValue ()));
-          aClient.setPayload (SBDHWriter.standardBusinessDocument ().getAsDocument (aSBD));
-
-          final IAS4ClientBuildMessageCallback aCallback = null;
-          final IAS4OutgoingDumper aOutgoingDumper = null;
-          final IAS4RetryCallback aRetryCallback = null;
-          final AS4ClientSentMessage <byte []> aResponseEntity = aClient.sendMessageWithRetries (W3CEndpointReferenceHelper.getAddress (aEndpoint.getEndpointReference ()),
-                                                                                                 new ResponseHandlerByteArray (),
-                                                                                                 aCallback,
-                                                                                                 aOutgoingDumper,
-                                                                                                 aRetryCallback);
-          LOGGER.info ("Successfully transmitted document with message ID '" +
-                       aResponseEntity.getMessageID () +
-                       "' for '" +
-                       aSBDH.getReceiverAsIdentifier ().getURIEncoded () +
-                       "' to '" +
-                       W3CEndpointReferenceHelper.getAddress (aEndpoint.getEndpointReference ()) +
-                       "' in " +
-                       aSW.stopAndGetMillis () +
-                       " ms");
-
-          if (aResponseEntity.hasResponse ())
+          boolean bSuccess = false;
+          try
           {
-            final String sMessageID = aResponseEntity.getMessageID ();
-            final String sFilename = FilenameHelper.getAsSecureValidASCIIFilename (sMessageID) + "-response.xml";
-            final File aResponseFile = aIncomingDir.resolve (sFilename).toFile ();
-            if (SimpleFileIO.writeFile (aResponseFile, aResponseEntity.getResponse ()).isSuccess ())
-              LOGGER.info ("Response file was written to '" + aResponseFile.getAbsolutePath () + "'");
-            else
-              LOGGER.error ("Error writing response file to '" + aResponseFile.getAbsolutePath () + "'");
+            _send (aCF, aInProgressFile, aSBD, aSBDH, aEndpoint, aIncomingDir);
+            bSuccess = true;
           }
-
-          bSuccess = true;
+          catch (final Exception ex)
+          {
+            LOGGER.error ("Error sending " + aInProgressFile.toString (), ex);
+          }
+          _finish (aInProgressFile, bSuccess);
         }
+        finally
+        {
+          aRelease.run ();
+        }
+      };
+
+      bHandedOver = true;
+      if (nWaitNanos > 0)
+      {
+        // Don't block the worker while waiting for the slot of this receiver
+        _scheduleSend (aSend, aRelease, nWaitNanos, aInProgressFile);
       }
+      else
+        aSend.run ();
+    }
+    catch (final NoSuchFileException ex)
+    {
+      // Claimed by someone else in the meantime
     }
     catch (final Exception ex)
     {
-      LOGGER.error ("Error sending " + aSendFile.toString (), ex);
+      LOGGER.error ("Error preparing " + aFile.toString (), ex);
+      if (!bClaimed && claim (aFile, aInProgressDir) != null)
+        bClaimed = true;
+      if (bClaimed)
+        _finish (aInProgressFile, false);
     }
+    finally
+    {
+      if (!bHandedOver)
+        aRelease.run ();
+    }
+  }
+
+  /**
+   * Send a claimed file after the provided delay on a worker thread. The send
+   * is never executed on the scheduler thread.
+   */
+  private static void _scheduleSend (@Nonnull final Runnable aSend,
+                                     @Nonnull final Runnable aRelease,
+                                     @Nonnegative final long nDelayNanos,
+                                     @Nonnull final Path aInProgressFile)
+  {
+    final ScheduledExecutorService aScheduler = s_aScheduler;
+    try
+    {
+      if (aScheduler == null)
+        throw new RejectedExecutionException ("Scheduler is shut down");
+      aScheduler.schedule ( () -> {
+        if (!_execute (aSend, aInProgressFile))
+        {
+          if (s_aWorkers.isShutdown ())
+            aRelease.run ();
+          else
+          {
+            // All workers are busy - try again shortly
+            _scheduleSend (aSend, aRelease, TimeUnit.MILLISECONDS.toNanos (100), aInProgressFile);
+          }
+        }
+      }, nDelayNanos, TimeUnit.NANOSECONDS);
+    }
+    catch (final RejectedExecutionException ex)
+    {
+      // Happens on shutdown - the file is picked up again on restart
+      LOGGER.warn ("Failed to schedule '" + aInProgressFile + "' for sending - shutting down");
+      aRelease.run ();
+    }
+  }
+
+  /**
+   * @return <code>true</code> if the runnable was scheduled, <code>false</code>
+   *         if all workers are busy or if the workers are shut down.
+   */
+  private static boolean _execute (@Nonnull final Runnable aRunnable, @Nonnull final Path aFile)
+  {
+    try
+    {
+      s_aWorkers.execute (aRunnable);
+      return true;
+    }
+    catch (final RejectedExecutionException ex)
+    {
+      if (s_aWorkers.isShutdown ())
+      {
+        // Happens on shutdown - the file is picked up again on restart
+        LOGGER.warn ("Failed to schedule '" + aFile + "' for sending - shutting down");
+      }
+      return false;
+    }
+  }
 
-    // After the exception handler!
+  /**
+   * Scan the directories again shortly, e.g. because files were left because
+   * of the rate limit or because all workers were busy. Multiple requests are
+   * combined.
+   */
+  private static void _requestRescan ()
+  {
+    final ScheduledExecutorService aScheduler = s_aScheduler;
+    final Runnable aRescan = s_aRescan;
+    if (aScheduler != null && aRescan != null && RESCAN_REQUESTED.compareAndSet (false, true))
     {
-      // Move to done or error directory?
-      final Path aDest = aSendFile.resolveSibling (bSuccess ? PATH_DONE : PATH_ERROR).resolve (aSendFile.getFileName ());
       try
       {
-        Files.move (aSendFile, aDest);
+        aScheduler.schedule ( () -> {
+          RESCAN_REQUESTED.set (false);
+          aRescan.run ();
+        }, MAX_RATE_LIMIT_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+      }
+      catch (final RejectedExecutionException ex)
+      {
+        // Shutting down
+        RESCAN_REQUESTED.set (false);
+      }
+    }
+  }
+
+  /**
+   * Atomically move the file to the "in progress" directory, so that it is
+   * sent exactly once, no matter how often it was queued.
+   *
+   * @return The new path or <code>null</code> if the file was not claimed.
+   */
+  @Nullable
+  static Path claim (@Nonnull final Path aFile, @Nonnull final Path aInProgressDir)
+  {
+    final Path aDest = aInProgressDir.resolve (aFile.getFileName ());
+    if (Files.exists (aDest))
+    {
+      LOGGER.error ("A file named '" + aFile.getFileName () + "' is already in progress - ignoring '" + aFile + "' for now");
+      return null;
+    }
+
+    try
+    {
+      return Files.move (aFile, aDest, StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch (final NoSuchFileException | FileAlreadyExistsException ex)
+    {
+      // Already claimed by someone else
+      return null;
+    }
+    catch (final IOException ex)
+    {
+      LOGGER.error ("Error moving from '" + aFile.toString () + "' to '" + aDest + "'", ex);
+      return null;
+    }
+  }
+
+  /**
+   * @return <code>false</code> if the file could not be queued, because all
+   *         workers are busy or shut down.
+   */
+  private static boolean _enqueue (@Nonnull final IAS4CryptoFactory aCF,
+                                   @Nonnull final Path aFile,
+                                   @Nonnull final Path aInProgressDir,
+                                   @Nonnull final Path aIncomingDir,
+                                   final boolean bAlreadyClaimed)
+  {
+    // Avoid queuing the same file multiple times
+    if (!QUEUED.add (aFile))
+      return true;
+
+    if (!_execute ( () -> _process (aCF, aFile, aInProgressDir, aIncomingDir, bAlreadyClaimed), aFile))
+    {
+      // All workers are busy - the file is left for the next scan
+      QUEUED.remove (aFile);
+      if (!s_aWorkers.isShutdown ())
+        _requestRescan ();
+      return false;
+    }
+    return true;
+  }
+
+  private static boolean _isXMLFile (@Nonnull final Path aFile)
+  {
+    return aFile.getFileName () != null && aFile.getFileName ().toString ().endsWith (".xml") && aFile.toFile ().isFile ();
+  }
+
+  private static boolean _enqueueBatch (@Nonnull final IAS4CryptoFactory aCF,
+                                        @Nonnull final ICommonsList <Path> aBatch,
+                                        @Nonnull final Path aInProgressDir,
+                                        @Nonnull final Path aIncomingDir,
+                                        final boolean bAlreadyClaimed)
+  {
+    aBatch.sort (Comparator.naturalOrder ());
+    for (final Path aCur : aBatch)
+      if (!_enqueue (aCF, aCur, aInProgressDir, aIncomingDir, bAlreadyClaimed))
+        return false;
+    return true;
+  }
+
+  /**
+   * Scan the directory in batches, to avoid reading the names of all files at
+   * once. Within each batch, files are sent in alphabetical order. The scan
+   * stops if all workers are busy - the remaining files are left for the next
+   * scan.
+   *
+   * @return <code>true</code> if all files were queued, <code>false</code> if
+   *         the scan was stopped.
+   */
+  private static boolean _scanDirectory (@Nonnull final IAS4CryptoFactory aCF,
+                                         @Nonnull final Path aDir,
+                                         @Nonnull final Path aInProgressDir,
+                                         @Nonnull final Path aIncomingDir,
+                                         @Nonnegative final int nBatchSize,
+                                         final boolean bAlreadyClaimed)
+  {
+    int nCount = 0;
+    boolean bComplete = true;
+    try (final DirectoryStream <Path> aStream = Files.newDirectoryStream (aDir, DropFolderUserMessage::_isXMLFile))
+    {
+      final ICommonsList <Path> aBatch = new CommonsArrayList <> (nBatchSize);
+      for (final Path aCur : aStream)
+      {
+        aBatch.add (aCur);
+        if (aBatch.size () >= nBatchSize)
+        {
+          bComplete = _enqueueBatch (aCF, aBatch, aInProgressDir, aIncomingDir, bAlreadyClaimed);
+          nCount += aBatch.size ();
+          aBatch.clear ();
+          if (!bComplete)
+            break;
+        }
+      }
+      if (bComplete)
+      {
+        bComplete = _enqueueBatch (aCF, aBatch, aInProgressDir, aIncomingDir, bAlreadyClaimed);
+        nCount += aBatch.size ();
       }
-      catch (final IOException ex)
+    }
+    catch (final IOException ex)
+    {
+      LOGGER.error ("Error scanning directory '" + aDir + "'", ex);
+    }
+    if (nCount > 0)
+      LOGGER.info ("Found " + nCount + " files to send in '" + aDir + "'");
+    return bComplete;
+  }
+
+  /**
+   * Remove the message ID files of completed messages, e.g. if the server
+   * crashed between moving the file and deleting the message ID file.
+   */
+  static void removeOrphanedMessageIDFiles (@Nonnull final Path aInProgressDir) throws IOException
+  {
+    try (final DirectoryStream <Path> aStream = Files.newDirectoryStream (aInProgressDir, "*" + MESSAGE_ID_SUFFIX))
+    {
+      for (final Path aCur : aStream)
       {
-        LOGGER.error ("Error moving from '" + aSendFile.toString () + "' to '" + aDest + "'", ex);
+        final String sName = aCur.getFileName ().toString ();
+        if (!Files.exists (aCur.resolveSibling (StringHelper.trimEnd (sName, MESSAGE_ID_SUFFIX))))
+          Files.deleteIfExists (aCur);
       }
     }
   }
@@ -209,37 +715,58 @@ public final class DropFolderUserMessage
     final IConfig aConfig = AS4Configuration.getConfig ();
     final Path aOutgoingDir = Paths.get (aConfig.getAsString ("server.directory.outgoing", "out"));
     final Path aIncomingDir = Paths.get (aConfig.getAsString ("server.directory.incoming", "in"));
+    final Path aInProgressDir = aOutgoingDir.resolve (PATH_IN_PROGRESS);
+    final int nWorkerCount = Math.max (1, aConfig.getAsInt ("server.directory.outgoing.workers", DEFAULT_WORKER_COUNT));
+    final int nBatchSize = Math.max (1, aConfig.getAsInt ("server.directory.outgoing.scan.batchsize", DEFAULT_SCAN_BATCH_SIZE));
+    final int nScanIntervalSecs = aConfig.getAsInt ("server.directory.outgoing.scan.interval", DEFAULT_SCAN_INTERVAL_SECONDS);
+    final int nMaxPerSecond = aConfig.getAsInt ("server.directory.outgoing.ratelimit", DEFAULT_MAX_MESSAGES_PER_SECOND_PER_RECEIVER);
+
+    // Bounded queue - if it is full, the files are left for the next scan.
+    // Never send on the scanning thread, as it also triggers the rate limited
+    // sends.
+    s_aWorkers = new ThreadPoolExecutor (nWorkerCount,
+                                         nWorkerCount,
+                                         60,
+                                         TimeUnit.SECONDS,
+                                         new LinkedBlockingQueue <> (nBatchSize),
+                                         new BasicThreadFactory.Builder ().namingPattern ("phase4-dropfolder-%d").daemon (true).build (),
+                                         new ThreadPoolExecutor.AbortPolicy ());
+    s_aScheduler = Executors.newSingleThreadScheduledExecutor (new BasicThreadFactory.Builder ().namingPattern ("phase4-dropfolder-scan-%d")
+                                                                                                 .daemon (true)
+                                                                                                 .build ());
+    s_aRateLimiter = nMaxPerSecond > 0 ? new ReceiverRateLimiter (nMaxPerSecond) : null;
+    // First the files that were left in progress (e.g. on shutdown or because
+    // of the rate limit), then the new files
+    s_aRescan = () -> {
+      if (_scanDirectory (aCryptoFactory, aInProgressDir, aInProgressDir, aIncomingDir, nBatchSize, true))
+        _scanDirectory (aCryptoFactory, aOutgoingDir, aInProgressDir, aIncomingDir, nBatchSize, false);
+    };
 
     try
     {
       // Ensure directories are present
       Files.createDirectories (aOutgoingDir.resolve (PATH_DONE));
       Files.createDirectories (aOutgoingDir.resolve (PATH_ERROR));
+      Files.createDirectories (aInProgressDir);
       Files.createDirectories (aIncomingDir);
 
+      removeOrphanedMessageIDFiles (aInProgressDir);
+
       // Start watching directory for changes
       final IWatchDirCallback aCB = (eAction, aCurFile) -> {
         if (LOGGER.isDebugEnabled ())
           LOGGER.debug ("WatchEvent " + eAction + " - " + aCurFile);
-        if (!eAction.equals (EWatchDirAction.DELETE) &&
-            aCurFile.toFile ().isFile () &&
-            aCurFile.getFileName () != null &&
-            aCurFile.getFileName ().toString ().endsWith (".xml"))
-        {
-          _send (aCryptoFactory, aCurFile, aIncomingDir);
-        }
+        if (!eAction.equals (EWatchDirAction.DELETE) && _isXMLFile (aCurFile))
+          _enqueue (aCryptoFactory, aCurFile, aInProgressDir, aIncomingDir, false);
       };
       s_aWatch = WatchDir.createAsyncRunningWatchDir (aOutgoingDir, false, aCB);
 
-      // Send initially for all existing files
-      try (final DirectoryStream <Path> aStream = Files.newDirectoryStream (aOutgoingDir,
-                                                                            x -> x.toFile ().isFile () &&
-                                                                                 x.getFileName () != null &&
-                                                                                 x.getFileName ().toString ().endsWith (".xml")))
-      {
-        for (final Path aCur : aStream)
-          _send (aCryptoFactory, aCur, aIncomingDir);
-      }
+      // Send all existing files
+      s_aScheduler.execute (s_aRescan);
+
+      // Periodically rescan in case watch events got lost
+      if (nScanIntervalSecs > 0)
+        s_aScheduler.scheduleWithFixedDelay (s_aRescan, nScanIntervalSecs, nScanIntervalSecs, TimeUnit.SECONDS);
     }
     catch (final IOException ex)
     {
@@ -256,5 +783,25 @@ public final class DropFolderUserMessage
       s_aWatch = null;
       LOGGER.info ("Successfully shutdown WatchDir");
     }
+    if (s_aScheduler != null)
+    {
+      // Delayed sends are dropped - the files stay "in progress"
+      s_aScheduler.shutdownNow ();
+      s_aScheduler = null;
+    }
+    if (s_aWorkers != null)
+    {
+      // Queued files were not yet claimed or are still in progress
+      final int nDropped = s_aWorkers.shutdownNow ().size ();
+      if (nDropped > 0)
+        LOGGER.info ("Dropped " + nDropped + " queued files - they are sent after the next start");
+      ExecutorServiceHelper.waitUntilAllTasksAreFinished (s_aWorkers);
+      s_aWorkers = null;
+      LOGGER.info ("Successfully shutdown drop folder workers");
+    }
+    QUEUED.clear ();
+    RESCAN_REQUESTED.set (false);
+    s_aRateLimiter = null;
+    s_aRescan = null;
   }
 }
@@ -0,0 +1,127 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.server.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test class for class {@link DropFolderUserMessage}.
+ *
+ * @author Philip Helger
+ */
+public final class DropFolderUserMessageTest
+{
+  @Rule
+  public final TemporaryFolder m_aTempFolder = new TemporaryFolder ();
+
+  @Test
+  public void testClaim () throws Exception
+  {
+    final Path aOutgoingDir = m_aTempFolder.newFolder ("out").toPath ();
+    final Path aInProgressDir = Files.createDirectory (aOutgoingDir.resolve ("inprogress"));
+    final Path aFile = Files.write (aOutgoingDir.resolve ("a.xml"), "<a/>".getBytes (StandardCharsets.UTF_8));
+
+    final Path aClaimed = DropFolderUserMessage.claim (aFile, aInProgressDir);
+    assertNotNull (aClaimed);
+    assertEquals (aInProgressDir.resolve ("a.xml"), aClaimed);
+    assertTrue (Files.exists (aClaimed));
+    assertFalse (Files.exists (aFile));
+
+    // Claiming the same file twice fails
+    assertNull (DropFolderUserMessage.claim (aFile, aInProgressDir));
+
+    // A file with the same name is already in progress - leave it alone
+    Files.write (aFile, "<b/>".getBytes (StandardCharsets.UTF_8));
+    assertNull (DropFolderUserMessage.claim (aFile, aInProgressDir));
+    assertTrue (Files.exists (aFile));
+    assertEquals ("<a/>", new String (Files.readAllBytes (aClaimed), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testCrashRecovery () throws Exception
+  {
+    final Path aInProgressDir = m_aTempFolder.newFolder ("inprogress").toPath ();
+    final Path aFile = Files.write (aInProgressDir.resolve ("a.xml"), "<a/>".getBytes (StandardCharsets.UTF_8));
+
+    // First attempt persists the message ID
+    final String sMessageID = DropFolderUserMessage.getOrCreateMessageID (aFile);
+    assertNotNull (sMessageID);
+    final Path aMessageIDFile = aInProgressDir.resolve ("a.xml.msgid");
+    assertTrue (Files.exists (aMessageIDFile));
+
+    // After a crash the same message ID is reused
+    DropFolderUserMessage.removeOrphanedMessageIDFiles (aInProgressDir);
+    assertTrue (Files.exists (aMessageIDFile));
+    assertEquals (sMessageID, DropFolderUserMessage.getOrCreateMessageID (aFile));
+
+    // Another file gets another message ID
+    final Path aFile2 = Files.write (aInProgressDir.resolve ("b.xml"), "<b/>".getBytes (StandardCharsets.UTF_8));
+    assertNotEquals (sMessageID, DropFolderUserMessage.getOrCreateMessageID (aFile2));
+
+    // Crash after the file was moved to "done" but before the message ID file
+    // was deleted
+    Files.delete (aFile);
+    DropFolderUserMessage.removeOrphanedMessageIDFiles (aInProgressDir);
+    assertFalse (Files.exists (aMessageIDFile));
+    assertTrue (Files.exists (aInProgressDir.resolve ("b.xml.msgid")));
+
+    // A new file with the old name gets a new message ID
+    Files.write (aFile, "<a/>".getBytes (StandardCharsets.UTF_8));
+    assertNotEquals (sMessageID, DropFolderUserMessage.getOrCreateMessageID (aFile));
+  }
+
+  @Test
+  public void testRateLimit ()
+  {
+    final long nIntervalNanos = TimeUnit.MILLISECONDS.toNanos (100);
+    final DropFolderUserMessage.ReceiverRateLimiter aRL = new DropFolderUserMessage.ReceiverRateLimiter (10);
+
+    // The first message of each receiver is sent immediately
+    assertEquals (0, aRL.reserve ("r1"));
+    assertEquals (0, aRL.reserve ("r2"));
+
+    // Subsequent messages of the same receiver are spread evenly
+    final long nWait1 = aRL.reserve ("r1");
+    assertTrue (Long.toString (nWait1), nWait1 > 0 && nWait1 <= nIntervalNanos);
+    final long nWait2 = aRL.reserve ("r1");
+    assertTrue (Long.toString (nWait2), nWait2 > nIntervalNanos && nWait2 <= 2 * nIntervalNanos);
+
+    // Other receivers are not affected
+    final long nWait3 = aRL.reserve ("r2");
+    assertTrue (Long.toString (nWait3), nWait3 <= nIntervalNanos);
+
+    // Slots too far in the future are not reserved
+    assertEquals (-1, aRL.reserve ("r1", nIntervalNanos));
+    assertEquals (-1, aRL.reserve ("r1", nIntervalNanos));
+    final long nWait4 = aRL.reserve ("r1", 3 * nIntervalNanos);
+    assertTrue (Long.toString (nWait4), nWait4 > 2 * nIntervalNanos && nWait4 <= 3 * nIntervalNanos);
+  }
+}
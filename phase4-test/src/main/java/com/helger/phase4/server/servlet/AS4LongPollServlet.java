@@ -0,0 +1,37 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.server.servlet;
+
+import java.time.Duration;
+
+import com.helger.phase4.servlet.AS4Servlet;
+
+/**
+ * Test servlet that supports long polling pull requests.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+public final class AS4LongPollServlet extends AS4Servlet
+{
+  public static final Duration MAX_WAIT = Duration.ofSeconds (30);
+
+  public AS4LongPollServlet ()
+  {
+    super (MAX_WAIT);
+  }
+}
@@ -16,8 +16,12 @@
  */
 package com.helger.phase4.client;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
 
+import java.time.Duration;
+
 import javax.annotation.Nonnull;
 import javax.annotation.WillNotClose;
 
@@ -26,6 +30,7 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 
 import com.helger.phase4.AS4TestConstants;
+import com.helger.phase4.CAS4;
 import com.helger.phase4.server.AbstractAS4TestSetUp;
 import com.helger.phase4.server.MockJettySetup;
 import com.helger.phase4.soap.ESoapVersion;
@@ -90,4 +95,16 @@ public final class AS4ClientPullRequestMessageTest extends AbstractAS4TestSetUp
     aClient.setMPC (AS4TestConstants.DEFAULT_MPC);
     _ensureValidState (aClient);
   }
+
+  @Test
+  public void testPullWaitHeader () throws Exception
+  {
+    final AS4ClientPullRequestMessage aClient = new AS4ClientPullRequestMessage (s_aResMgr);
+    aClient.setSoapVersion (ESoapVersion.AS4_DEFAULT);
+    aClient.setMPC (AS4TestConstants.DEFAULT_MPC);
+    assertNull (aClient.buildMessage ("bla", null).getCustomHeaders ());
+
+    aClient.setPullWait (Duration.ofSeconds (30));
+    assertEquals ("30", aClient.buildMessage ("bla", null).getCustomHeaders ().getFirstHeaderValue (CAS4.HTTP_HEADER_PULL_WAIT));
+  }
 }
@@ -0,0 +1,212 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.crypto;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.CallbackHandler;
+
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.CryptoType;
+import org.apache.wss4j.common.ext.WSPasswordCallback;
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.concurrent.ThreadHelper;
+import com.helger.security.keystore.EKeyStoreType;
+
+/**
+ * Test class for class {@link AS4CryptoFactoryProperties}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4CryptoFactoryPropertiesTest
+{
+  private static final String KEY_ALIAS = "ph-as4";
+  private static final String KEY_PASSWORD = "test";
+  private static final int THREADS = 16;
+
+  /**
+   * Counts the number of key store loads
+   */
+  private static final class CountingCryptoFactory extends AS4CryptoFactoryProperties
+  {
+    private final AtomicInteger m_aKeyStoreLoads = new AtomicInteger (0);
+
+    CountingCryptoFactory ()
+    {
+      super (_createCryptoProps ());
+    }
+
+    @Override
+    protected KeyStore loadKeyStore ()
+    {
+      m_aKeyStoreLoads.incrementAndGet ();
+      // Widen the window for concurrent loads
+      ThreadHelper.sleep (50);
+      return super.loadKeyStore ();
+    }
+  }
+
+  @Nonnull
+  private static AS4CryptoProperties _createCryptoProps ()
+  {
+    return new AS4CryptoProperties ().setKeyStoreType (EKeyStoreType.JKS)
+                                     .setKeyStorePath ("keys/dummy-pw-test.jks")
+                                     .setKeyStorePassword ("test")
+                                     .setKeyAlias (KEY_ALIAS)
+                                     .setKeyPassword (KEY_PASSWORD);
+  }
+
+  private static void _runConcurrently (@Nonnull final Runnable aRunnable) throws InterruptedException
+  {
+    final ExecutorService aES = Executors.newFixedThreadPool (THREADS);
+    final CountDownLatch aStart = new CountDownLatch (1);
+    final AtomicInteger aErrors = new AtomicInteger (0);
+    for (int i = 0; i < THREADS; ++i)
+      aES.submit ( () -> {
+        try
+        {
+          aStart.await ();
+          aRunnable.run ();
+        }
+        catch (final Exception ex)
+        {
+          aErrors.incrementAndGet ();
+        }
+      });
+    aStart.countDown ();
+    aES.shutdown ();
+    assertTrue (aES.awaitTermination (30, TimeUnit.SECONDS));
+    assertEquals (0, aErrors.get ());
+  }
+
+  @Test
+  public void testColdStartKeyStoreLoadedOnce () throws InterruptedException
+  {
+    final CountingCryptoFactory aCF = new CountingCryptoFactory ();
+    final ICommonsList <Crypto> aCryptos = new CommonsArrayList <> ();
+    final ICommonsList <KeyStore.PrivateKeyEntry> aPKs = new CommonsArrayList <> ();
+    _runConcurrently ( () -> {
+      final Crypto aCrypto = aCF.getCrypto ();
+      final KeyStore.PrivateKeyEntry aPK = aCF.getPrivateKeyEntry ();
+      synchronized (aCryptos)
+      {
+        aCryptos.add (aCrypto);
+        aPKs.add (aPK);
+      }
+    });
+
+    // Loaded exactly once, also shared with the Crypto
+    assertEquals (1, aCF.m_aKeyStoreLoads.get ());
+    assertEquals (THREADS, aCryptos.size ());
+    for (final Crypto aCrypto : aCryptos)
+      assertSame (aCryptos.getFirst (), aCrypto);
+    for (final KeyStore.PrivateKeyEntry aPK : aPKs)
+      assertSame (aPKs.getFirst (), aPK);
+    assertTrue (aCryptos.getFirst () instanceof AS4CachingMerlin);
+    assertSame (aCF.getKeyStore (), ((AS4CachingMerlin) aCryptos.getFirst ()).getKeyStore ());
+  }
+
+  @Test
+  public void testColdStartWarmUp () throws InterruptedException
+  {
+    final CountingCryptoFactory aCF = new CountingCryptoFactory ();
+    _runConcurrently (aCF::warmUp);
+    assertEquals (1, aCF.m_aKeyStoreLoads.get ());
+    assertNotNull (aCF.getCertificate ());
+  }
+
+  @Test
+  public void testCachedKeyMaterial () throws WSSecurityException
+  {
+    final CountingCryptoFactory aCF = new CountingCryptoFactory ();
+    aCF.warmUp ();
+    final Crypto aCrypto = aCF.getCrypto ();
+
+    // Private key per alias
+    final PrivateKey aKey = aCrypto.getPrivateKey (KEY_ALIAS, KEY_PASSWORD);
+    assertNotNull (aKey);
+    assertSame (aKey, aCrypto.getPrivateKey (KEY_ALIAS, KEY_PASSWORD));
+
+    // Certificate chain per alias
+    final CryptoType aCryptoType = new CryptoType (CryptoType.TYPE.ALIAS);
+    aCryptoType.setAlias (KEY_ALIAS);
+    final X509Certificate [] aChain = aCrypto.getX509Certificates (aCryptoType);
+    assertNotNull (aChain);
+    assertEquals (aCF.getCertificate (), aChain[0]);
+    final X509Certificate [] aChain2 = aCrypto.getX509Certificates (aCryptoType);
+    assertNotSame (aChain, aChain2);
+    assertArrayEquals (aChain, aChain2);
+
+    // Private key per certificate, used for decryption
+    final AtomicInteger aCallbacks = new AtomicInteger (0);
+    final CallbackHandler aCH = aCallbackArray -> {
+      aCallbacks.incrementAndGet ();
+      for (final Callback aCallback : aCallbackArray)
+        if (aCallback instanceof WSPasswordCallback)
+          ((WSPasswordCallback) aCallback).setPassword (KEY_PASSWORD);
+    };
+    final PrivateKey aKey2 = aCrypto.getPrivateKey (aChain[0], aCH);
+    assertNotNull (aKey2);
+    assertSame (aKey2, aCrypto.getPrivateKey (aChain[0], aCH));
+    // The password is resolved every time, the key is cached per password
+    assertEquals (2, aCallbacks.get ());
+    assertSame (aKey, aKey2);
+
+    // Without a configured private key password, a wrong password must not
+    // return the cached key
+    final AS4CachingMerlin aMerlin = new AS4CachingMerlin (false, null);
+    aMerlin.setKeyStore (aCF.getKeyStore ());
+    assertNotNull (aMerlin.getPrivateKey (aChain[0], aCH));
+    final CallbackHandler aWrongCH = aCallbackArray -> {
+      for (final Callback aCallback : aCallbackArray)
+        if (aCallback instanceof WSPasswordCallback)
+          ((WSPasswordCallback) aCallback).setPassword ("wrong");
+    };
+    try
+    {
+      aMerlin.getPrivateKey (aChain[0], aWrongCH);
+      fail ();
+    }
+    catch (final WSSecurityException ex)
+    {
+      // expected
+    }
+
+    assertEquals (1, aCF.m_aKeyStoreLoads.get ());
+  }
+}
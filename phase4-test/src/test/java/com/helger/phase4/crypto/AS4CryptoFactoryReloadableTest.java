@@ -0,0 +1,290 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.Date;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.CryptoType;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.helger.commons.concurrent.ThreadHelper;
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.commons.io.file.SimpleFileIO;
+import com.helger.security.keystore.EKeyStoreType;
+
+/**
+ * Test class for class {@link AS4CryptoFactoryReloadable}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4CryptoFactoryReloadableTest
+{
+  private static final String KEY_ALIAS = "ph-as4";
+  private static final String PASSWORD = "test";
+
+  private File m_aDir;
+  private File m_aKeyStoreFile;
+  private File m_aTrustStoreFile;
+
+  @Before
+  public void before ()
+  {
+    m_aDir = new File ("target/keystore-reload-test").getAbsoluteFile ();
+    FileOperationManager.INSTANCE.deleteDirRecursiveIfExisting (m_aDir);
+    FileOperationManager.INSTANCE.createDirRecursive (m_aDir);
+    m_aKeyStoreFile = new File (m_aDir, "keystore.p12");
+    m_aTrustStoreFile = new File (m_aDir, "truststore.p12");
+  }
+
+  @After
+  public void after ()
+  {
+    FileOperationManager.INSTANCE.deleteDirRecursiveIfExisting (m_aDir);
+  }
+
+  @Nonnull
+  private static X509Certificate _createCertificate (@Nonnull final KeyPair aKeyPair, @Nonnull final String sCN) throws Exception
+  {
+    final X500Name aName = new X500Name ("CN=" + sCN);
+    final long nNow = System.currentTimeMillis ();
+    final JcaX509v3CertificateBuilder aBuilder = new JcaX509v3CertificateBuilder (aName,
+                                                                                  BigInteger.valueOf (nNow),
+                                                                                  new Date (nNow - 60_000),
+                                                                                  new Date (nNow + 86_400_000),
+                                                                                  aName,
+                                                                                  aKeyPair.getPublic ());
+    return new JcaX509CertificateConverter ().getCertificate (aBuilder.build (new JcaContentSignerBuilder ("SHA256withRSA").build (aKeyPair.getPrivate ())));
+  }
+
+  private static void _store (@Nonnull final KeyStore aKeyStore, @Nonnull final File aTarget) throws Exception
+  {
+    // Rotate atomically like a deployment would do
+    final File aTmp = new File (aTarget.getParentFile (), aTarget.getName () + ".tmp");
+    try (final OutputStream aOS = Files.newOutputStream (aTmp.toPath ()))
+    {
+      aKeyStore.store (aOS, PASSWORD.toCharArray ());
+    }
+    Files.move (aTmp.toPath (), aTarget.toPath (), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Write a new key store with a new key pair and return its certificate.
+   */
+  @Nonnull
+  private X509Certificate _rotateKeyStore (@Nonnull final String sCN) throws Exception
+  {
+    final KeyPairGenerator aKPG = KeyPairGenerator.getInstance ("RSA");
+    aKPG.initialize (2048);
+    final KeyPair aKeyPair = aKPG.generateKeyPair ();
+    final X509Certificate aCert = _createCertificate (aKeyPair, sCN);
+
+    final KeyStore aKeyStore = KeyStore.getInstance ("PKCS12");
+    aKeyStore.load (null, null);
+    aKeyStore.setKeyEntry (KEY_ALIAS, aKeyPair.getPrivate (), PASSWORD.toCharArray (), new Certificate [] { aCert });
+    _store (aKeyStore, m_aKeyStoreFile);
+    return aCert;
+  }
+
+  private void _rotateTrustStore (@Nonnull final X509Certificate aCert) throws Exception
+  {
+    final KeyStore aTrustStore = KeyStore.getInstance ("PKCS12");
+    aTrustStore.load (null, null);
+    aTrustStore.setCertificateEntry ("partner", aCert);
+    _store (aTrustStore, m_aTrustStoreFile);
+  }
+
+  @Nonnull
+  private AS4CryptoProperties _createCryptoProps ()
+  {
+    return new AS4CryptoProperties ().setKeyStoreType (EKeyStoreType.PKCS12)
+                                     .setKeyStorePath (m_aKeyStoreFile.getAbsolutePath ())
+                                     .setKeyStorePassword (PASSWORD)
+                                     .setKeyAlias (KEY_ALIAS)
+                                     .setKeyPassword (PASSWORD);
+  }
+
+  @Test
+  public void testRotateKeyStore () throws Exception
+  {
+    final X509Certificate aCert1 = _rotateKeyStore ("first");
+    try (final AS4CryptoFactoryReloadable aCF = new AS4CryptoFactoryReloadable (_createCryptoProps ()))
+    {
+      final AtomicInteger aReloads = new AtomicInteger (0);
+      aCF.reloadCallbacks ().add (x -> aReloads.incrementAndGet ());
+
+      assertEquals (aCert1, aCF.getCertificate ());
+      final Crypto aCrypto1 = aCF.getCrypto ();
+      final PrivateKey aKey1 = aCrypto1.getPrivateKey (KEY_ALIAS, PASSWORD);
+      assertNotNull (aKey1);
+      assertFalse (aCF.checkForChanges ());
+
+      final X509Certificate aCert2 = _rotateKeyStore ("second");
+      assertTrue (aCF.checkForChanges ());
+      assertEquals (1, aCF.getReloadCount ());
+      assertEquals (1, aReloads.get ());
+      assertEquals (aCert2, aCF.getCertificate ());
+      assertNotSame (aCrypto1, aCF.getCrypto ());
+      assertNotEquals (aKey1, aCF.getCrypto ().getPrivateKey (KEY_ALIAS, PASSWORD));
+
+      // In-flight operations continue with the previous key material
+      assertSame (aKey1, aCrypto1.getPrivateKey (KEY_ALIAS, PASSWORD));
+      assertFalse (aCF.checkForChanges ());
+    }
+  }
+
+  @Test
+  public void testBrokenRotationKeepsKeyMaterial () throws Exception
+  {
+    final X509Certificate aCert1 = _rotateKeyStore ("first");
+    try (final AS4CryptoFactoryReloadable aCF = new AS4CryptoFactoryReloadable (_createCryptoProps ()))
+    {
+      final Crypto aCrypto1 = aCF.getCrypto ();
+
+      // E.g. a partially written file
+      SimpleFileIO.writeFile (m_aKeyStoreFile, "garbage".getBytes (StandardCharsets.ISO_8859_1));
+      assertFalse (aCF.checkForChanges ());
+      assertEquals (0, aCF.getReloadCount ());
+      assertEquals (aCert1, aCF.getCertificate ());
+      assertSame (aCrypto1, aCF.getCrypto ());
+
+      final X509Certificate aCert2 = _rotateKeyStore ("second");
+      assertTrue (aCF.checkForChanges ());
+      assertEquals (aCert2, aCF.getCertificate ());
+    }
+  }
+
+  @Test
+  public void testRotateTrustStore () throws Exception
+  {
+    final X509Certificate aCert1 = _rotateKeyStore ("first");
+    _rotateTrustStore (aCert1);
+    try (final AS4CryptoFactoryReloadable aCF = new AS4CryptoFactoryReloadable (_createCryptoProps ().setTrustStoreType (EKeyStoreType.PKCS12)
+                                                                                                      .setTrustStorePath (m_aTrustStoreFile.getAbsolutePath ())
+                                                                                                      .setTrustStorePassword (PASSWORD)))
+    {
+      assertEquals (aCert1, aCF.getTrustStore ().getCertificate ("partner"));
+
+      final X509Certificate aCert2 = _createCertificate (KeyPairGenerator.getInstance ("RSA").generateKeyPair (), "partner");
+      _rotateTrustStore (aCert2);
+      assertTrue (aCF.checkForChanges ());
+      assertEquals (aCert2, aCF.getTrustStore ().getCertificate ("partner"));
+      assertSame (aCF.getTrustStore (), ((AS4CachingMerlin) aCF.getCrypto ()).getTrustStore ());
+      // The key store was reloaded as well
+      assertEquals (aCert1, aCF.getCertificate ());
+    }
+  }
+
+  @Test
+  public void testRotateUnderLoad () throws Exception
+  {
+    final int nRotations = 3;
+    _rotateKeyStore ("initial");
+    try (final AS4CryptoFactoryReloadable aCF = new AS4CryptoFactoryReloadable (_createCryptoProps (), Duration.ofMillis (20)))
+    {
+      aCF.start ();
+
+      final AtomicBoolean aRunning = new AtomicBoolean (true);
+      final AtomicLong aOperations = new AtomicLong (0);
+      final AtomicInteger aErrors = new AtomicInteger (0);
+      final ExecutorService aES = Executors.newFixedThreadPool (4);
+      for (int i = 0; i < 4; ++i)
+        aES.submit ( () -> {
+          final byte [] aData = "phase4".getBytes (StandardCharsets.ISO_8859_1);
+          while (aRunning.get ())
+          {
+            try
+            {
+              // Sign and verify with a consistent key material version
+              final Crypto aCrypto = aCF.getCrypto ();
+              final CryptoType aCryptoType = new CryptoType (CryptoType.TYPE.ALIAS);
+              aCryptoType.setAlias (KEY_ALIAS);
+              final X509Certificate aCert = aCrypto.getX509Certificates (aCryptoType)[0];
+
+              final Signature aSigner = Signature.getInstance ("SHA256withRSA");
+              aSigner.initSign (aCrypto.getPrivateKey (KEY_ALIAS, PASSWORD));
+              aSigner.update (aData);
+              final byte [] aSignature = aSigner.sign ();
+
+              final Signature aVerifier = Signature.getInstance ("SHA256withRSA");
+              aVerifier.initVerify (aCert);
+              aVerifier.update (aData);
+              if (!aVerifier.verify (aSignature))
+                aErrors.incrementAndGet ();
+              aOperations.incrementAndGet ();
+            }
+            catch (final Exception ex)
+            {
+              aErrors.incrementAndGet ();
+            }
+          }
+        });
+
+      for (int i = 0; i < nRotations; ++i)
+      {
+        final X509Certificate aCert = _rotateKeyStore ("rotation-" + i);
+        final long nMaxWait = System.currentTimeMillis () + 10_000;
+        while (!aCert.equals (aCF.getCertificate ()) && System.currentTimeMillis () < nMaxWait)
+          ThreadHelper.sleep (10);
+        assertEquals (aCert, aCF.getCertificate ());
+      }
+
+      aRunning.set (false);
+      aES.shutdown ();
+      assertTrue (aES.awaitTermination (30, TimeUnit.SECONDS));
+      assertEquals (0, aErrors.get ());
+      assertTrue (aOperations.get () > 0);
+      assertEquals (nRotations, aCF.getReloadCount ());
+    }
+  }
+}
@@ -0,0 +1,304 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.server.load;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.io.file.FileHelper;
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.commons.mime.CMimeType;
+import com.helger.phase4.AS4TestConstants;
+import com.helger.phase4.CAS4;
+import com.helger.phase4.client.AS4ClientUserMessage;
+import com.helger.phase4.crypto.AS4CryptoFactoryProperties;
+import com.helger.phase4.crypto.AS4CryptoProperties;
+import com.helger.phase4.crypto.ECryptoAlgorithmCrypt;
+import com.helger.phase4.crypto.ECryptoAlgorithmSign;
+import com.helger.phase4.crypto.ECryptoAlgorithmSignDigest;
+import com.helger.phase4.messaging.domain.MessageHelperMethods;
+import com.helger.phase4.server.load.AS4LoadTestSettings.Payload;
+import com.helger.phase4.soap.ESoapVersion;
+import com.helger.phase4.util.AS4ResourceHelper;
+import com.helger.security.keystore.EKeyStoreType;
+import com.helger.xml.microdom.IMicroDocument;
+import com.helger.xml.microdom.IMicroElement;
+import com.helger.xml.serialize.read.DOMReader;
+
+/**
+ * A simple load generator that drives a configurable number of concurrent
+ * {@link AS4ClientUserMessage} senders against an AS4 endpoint (usually the
+ * local one started via <code>MockJettySetup</code>) and measures throughput,
+ * latency percentiles and the allocation rate of the whole JVM.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@Immutable
+public final class AS4LoadGenerator
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4LoadGenerator.class);
+  private static final File ATTACHMENT_DIR = new File ("target/load-test").getAbsoluteFile ();
+
+  private AS4LoadGenerator ()
+  {}
+
+  /**
+   * @return The number of bytes allocated by all live threads of this JVM or
+   *         -1 if this is not supported by the JVM.
+   */
+  private static long _getAllocatedBytes ()
+  {
+    final ThreadMXBean aMXBean = ManagementFactory.getThreadMXBean ();
+    if (aMXBean instanceof com.sun.management.ThreadMXBean)
+    {
+      final com.sun.management.ThreadMXBean aSunMXBean = (com.sun.management.ThreadMXBean) aMXBean;
+      if (aSunMXBean.isThreadAllocatedMemorySupported () && aSunMXBean.isThreadAllocatedMemoryEnabled ())
+      {
+        long ret = 0;
+        for (final long nBytes : aSunMXBean.getThreadAllocatedBytes (aSunMXBean.getAllThreadIds ()))
+          if (nBytes > 0)
+            ret += nBytes;
+        return ret;
+      }
+    }
+    return -1;
+  }
+
+  @Nonnull
+  private static ICommonsList <File> _createAttachments (@Nonnull final Payload aPayload) throws IOException
+  {
+    final ICommonsList <File> ret = new CommonsArrayList <> (aPayload.getAttachmentCount ());
+    final byte [] aBuf = new byte [aPayload.getAttachmentSize ()];
+    for (int i = 0; i < aBuf.length; ++i)
+      aBuf[i] = (byte) ('a' + i % 26);
+    for (int i = 0; i < aPayload.getAttachmentCount (); ++i)
+    {
+      final File aFile = new File (ATTACHMENT_DIR, "attachment-" + aPayload.getAttachmentSize () + "-" + i + ".bin");
+      try (final OutputStream aOS = FileHelper.getOutputStream (aFile))
+      {
+        if (aOS == null)
+          throw new IOException ("Failed to open '" + aFile.getAbsolutePath () + "' for writing");
+        aOS.write (aBuf);
+      }
+      ret.add (aFile);
+    }
+    return ret;
+  }
+
+  @Nonnull
+  private static AS4ClientUserMessage _createClient (@Nonnull final AS4LoadTestSettings aSettings,
+                                                     @Nonnull final AS4ResourceHelper aResHelper,
+                                                     @Nonnull final AS4CryptoFactoryProperties aCF,
+                                                     @Nonnull final Document aBodyPayload,
+                                                     @Nonnull final ICommonsList <File> aAttachments) throws IOException
+  {
+    final AS4ClientUserMessage aClient = new AS4ClientUserMessage (aResHelper);
+    aClient.setSoapVersion (ESoapVersion.SOAP_12);
+    aClient.setAction ("AnAction");
+    aClient.setServiceType ("MyServiceType");
+    aClient.setServiceValue ("OrderPaper");
+    aClient.setConversationID (MessageHelperMethods.createRandomConversationID ());
+    aClient.setAgreementRefValue ("urn:as4:agreements:so-that-we-have-a-non-empty-value");
+    aClient.setFromRole (CAS4.DEFAULT_ROLE);
+    aClient.setFromPartyID ("MyPartyIDforSending");
+    aClient.setToRole (CAS4.DEFAULT_ROLE);
+    aClient.setToPartyID ("MyPartyIDforReceving");
+    aClient.ebms3Properties ().setAll (AS4TestConstants.getEBMSProperties ());
+
+    if (aAttachments.isEmpty ())
+      aClient.setPayload (aBodyPayload);
+    else
+      for (final File aFile : aAttachments)
+        aClient.addAttachment (aFile, CMimeType.APPLICATION_OCTET_STREAM, null);
+
+    aClient.setAS4CryptoFactory (aCF);
+    if (aSettings.isSign ())
+      aClient.signingParams ()
+             .setAlgorithmSign (ECryptoAlgorithmSign.RSA_SHA_256)
+             .setAlgorithmSignDigest (ECryptoAlgorithmSignDigest.DIGEST_SHA_256);
+    if (aSettings.isEncrypt ())
+      aClient.cryptParams ().setAlgorithmCrypt (ECryptoAlgorithmCrypt.AES_128_GCM).setAlias (aCF.cryptoProperties ().getKeyAlias ());
+    return aClient;
+  }
+
+  @Nonnull
+  private static AS4CryptoFactoryProperties _createCryptoFactory ()
+  {
+    final AS4CryptoProperties aCP = new AS4CryptoProperties ().setKeyStoreType (EKeyStoreType.JKS)
+                                                              .setKeyStorePath ("keys/dummy-pw-test.jks")
+                                                              .setKeyStorePassword ("test")
+                                                              .setKeyAlias ("ph-as4")
+                                                              .setKeyPassword ("test");
+    return new AS4CryptoFactoryProperties (aCP);
+  }
+
+  private static boolean _containsElement (@Nullable final IMicroDocument aDoc, @Nonnull final String sLocalName)
+  {
+    return aDoc != null &&
+           aDoc.getAllChildrenRecursive ()
+               .containsAny (x -> x instanceof IMicroElement && sLocalName.equals (((IMicroElement) x).getLocalName ()));
+  }
+
+  /**
+   * Run the load test with the provided settings. This method blocks until all
+   * messages were sent.
+   *
+   * @param aSettings
+   *        The settings to use. May not be <code>null</code>.
+   * @return The measurement result. Never <code>null</code>.
+   * @throws Exception
+   *         In case of an unexpected error
+   */
+  @Nonnull
+  public static AS4LoadTestResult run (@Nonnull final AS4LoadTestSettings aSettings) throws Exception
+  {
+    LOGGER.info ("Starting AS4 load test with " + aSettings);
+
+    // Prepare payloads
+    FileOperationManager.INSTANCE.createDirRecursiveIfNotExisting (ATTACHMENT_DIR);
+    final ICommonsList <Payload> aPayloads = aSettings.payloads ().getClone ();
+    if (aPayloads.isEmpty ())
+      aPayloads.add (new Payload (0, 0, 1));
+    final ICommonsList <ICommonsList <File>> aPayloadFiles = new CommonsArrayList <> ();
+    int nTotalWeight = 0;
+    for (final Payload aPayload : aPayloads)
+    {
+      aPayloadFiles.add (_createAttachments (aPayload));
+      nTotalWeight += aPayload.getWeight ();
+    }
+    final int [] aWeights = new int [aPayloads.size ()];
+    for (int i = 0; i < aWeights.length; ++i)
+      aWeights[i] = aPayloads.get (i).getWeight ();
+    final int nFinalTotalWeight = nTotalWeight;
+
+    final int nThreads = aSettings.getSenderThreads ();
+    final int nMessages = aSettings.getMessagesPerThread ();
+    final long [] aLatencies = new long [nThreads * nMessages];
+    final AtomicLong aSuccess = new AtomicLong ();
+    final AtomicLong aFailure = new AtomicLong ();
+    final AtomicBoolean aFailureLogged = new AtomicBoolean (false);
+    final long [] aStart = new long [2];
+    final long [] aEnd = new long [2];
+    // Taken when all senders are done with the warmup resp. the measurement
+    final CyclicBarrier aStartBarrier = new CyclicBarrier (nThreads, () -> {
+      aStart[0] = System.nanoTime ();
+      aStart[1] = _getAllocatedBytes ();
+    });
+    final CyclicBarrier aEndBarrier = new CyclicBarrier (nThreads, () -> {
+      aEnd[0] = System.nanoTime ();
+      aEnd[1] = _getAllocatedBytes ();
+    });
+
+    final ExecutorService aES = Executors.newFixedThreadPool (nThreads);
+    try
+    {
+      final ICommonsList <Future <?>> aFutures = new CommonsArrayList <> (nThreads);
+      for (int nThread = 0; nThread < nThreads; ++nThread)
+      {
+        final int nThreadIndex = nThread;
+        aFutures.add (aES.submit ( () -> {
+          // Separate objects per thread, as they are not meant to be shared
+          final AS4CryptoFactoryProperties aCF = _createCryptoFactory ();
+          final Document aBodyPayload = DOMReader.readXMLDOM (new ClassPathResource (AS4TestConstants.TEST_PAYLOAD_XML));
+          final int nWarmup = aSettings.getWarmupMessagesPerThread ();
+          for (int i = 0; i < nWarmup + nMessages; ++i)
+          {
+            if (i == nWarmup)
+              aStartBarrier.await ();
+
+            // Choose payload
+            int nRandom = ThreadLocalRandom.current ().nextInt (nFinalTotalWeight);
+            int nPayloadIndex = 0;
+            while (nRandom >= aWeights[nPayloadIndex])
+            {
+              nRandom -= aWeights[nPayloadIndex];
+              nPayloadIndex++;
+            }
+
+            final long nStart = System.nanoTime ();
+            boolean bSuccess;
+            try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+            {
+              final AS4ClientUserMessage aClient = _createClient (aSettings,
+                                                                  aResHelper,
+                                                                  aCF,
+                                                                  aBodyPayload,
+                                                                  aPayloadFiles.get (nPayloadIndex));
+              final IMicroDocument aResponse = aClient.sendMessageAndGetMicroDocument (aSettings.getServerURL ());
+              bSuccess = !aSettings.isCheckReceipt () ||
+                         (_containsElement (aResponse, "Receipt") && !_containsElement (aResponse, "Error"));
+              if (!bSuccess && aFailureLogged.compareAndSet (false, true))
+                LOGGER.warn ("Received no receipt");
+            }
+            catch (final Exception ex)
+            {
+              bSuccess = false;
+              if (aFailureLogged.compareAndSet (false, true))
+                LOGGER.warn ("Failed to send AS4 message", ex);
+            }
+            final long nLatency = System.nanoTime () - nStart;
+
+            if (i >= nWarmup)
+            {
+              aLatencies[nThreadIndex * nMessages + i - nWarmup] = nLatency;
+              (bSuccess ? aSuccess : aFailure).incrementAndGet ();
+            }
+          }
+          aEndBarrier.await ();
+          return null;
+        }));
+      }
+      for (final Future <?> aFuture : aFutures)
+        aFuture.get ();
+    }
+    finally
+    {
+      aES.shutdownNow ();
+    }
+
+    final long nAllocated = aStart[1] < 0 || aEnd[1] < 0 ? -1 : aEnd[1] - aStart[1];
+    final AS4LoadTestResult ret = new AS4LoadTestResult (aSuccess.intValue (),
+                                                         aFailure.intValue (),
+                                                         aEnd[0] - aStart[0],
+                                                         aLatencies,
+                                                         nAllocated);
+    LOGGER.info ("AS4 load test result: " + ret.getAsSummary ());
+    return ret;
+  }
+}
@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.server.load;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.helger.phase4.mgr.MetaAS4Manager;
+import com.helger.phase4.profile.cef.AS4CEFProfileRegistarSPI;
+import com.helger.phase4.server.AbstractAS4TestSetUp;
+import com.helger.phase4.server.MockJettySetup;
+
+/**
+ * Test class for class {@link AS4LoadGenerator}. Only runs a tiny load to
+ * ensure the harness keeps working - use {@link MainAS4LoadTest} for real
+ * measurements.
+ *
+ * @author Philip Helger
+ */
+public final class AS4LoadGeneratorTest extends AbstractAS4TestSetUp
+{
+  @BeforeClass
+  public static void beforeClass () throws Exception
+  {
+    MockJettySetup.startServer ();
+    MetaAS4Manager.getProfileMgr ().setDefaultProfileID (AS4CEFProfileRegistarSPI.AS4_PROFILE_ID);
+  }
+
+  @AfterClass
+  public static void afterClass () throws Exception
+  {
+    MockJettySetup.shutDownServer ();
+  }
+
+  @Test
+  public void testSmallLoad () throws Exception
+  {
+    final AS4LoadTestSettings aSettings = new AS4LoadTestSettings ().setSenderThreads (2)
+                                                                    .setWarmupMessagesPerThread (1)
+                                                                    .setMessagesPerThread (5)
+                                                                    .addPayload (0, 0, 2)
+                                                                    .addPayload (2, 1024, 1);
+    final AS4LoadTestResult aResult = AS4LoadGenerator.run (aSettings);
+    assertEquals (10, aResult.getTotalCount ());
+    assertEquals (0, aResult.getFailureCount ());
+    assertTrue (aResult.getMessagesPerSecond () > 0);
+    assertTrue (aResult.getLatencyPercentileNanos (50) > 0);
+    assertTrue (aResult.getLatencyPercentileNanos (50) <= aResult.getLatencyPercentileNanos (99.9));
+  }
+}
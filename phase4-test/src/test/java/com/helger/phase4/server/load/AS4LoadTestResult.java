@@ -0,0 +1,187 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.server.load;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * The result of a single {@link AS4LoadGenerator} run.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@Immutable
+public final class AS4LoadTestResult
+{
+  private final int m_nSuccessCount;
+  private final int m_nFailureCount;
+  private final long m_nDurationNanos;
+  private final long [] m_aSortedLatenciesNanos;
+  private final long m_nAllocatedBytes;
+
+  /**
+   * Constructor
+   *
+   * @param nSuccessCount
+   *        Number of successfully sent messages.
+   * @param nFailureCount
+   *        Number of failed messages.
+   * @param nDurationNanos
+   *        Wall clock duration of the measurement phase.
+   * @param aLatenciesNanos
+   *        The latencies of all messages (successful and failed). The array is
+   *        sorted in place.
+   * @param nAllocatedBytes
+   *        The number of bytes allocated during the measurement phase or -1 if
+   *        unknown.
+   */
+  public AS4LoadTestResult (@Nonnegative final int nSuccessCount,
+                            @Nonnegative final int nFailureCount,
+                            @Nonnegative final long nDurationNanos,
+                            @Nonnull final long [] aLatenciesNanos,
+                            final long nAllocatedBytes)
+  {
+    ValueEnforcer.notNull (aLatenciesNanos, "LatenciesNanos");
+    m_nSuccessCount = nSuccessCount;
+    m_nFailureCount = nFailureCount;
+    m_nDurationNanos = nDurationNanos;
+    Arrays.sort (aLatenciesNanos);
+    m_aSortedLatenciesNanos = aLatenciesNanos;
+    m_nAllocatedBytes = nAllocatedBytes;
+  }
+
+  @Nonnegative
+  public int getSuccessCount ()
+  {
+    return m_nSuccessCount;
+  }
+
+  @Nonnegative
+  public int getFailureCount ()
+  {
+    return m_nFailureCount;
+  }
+
+  @Nonnegative
+  public int getTotalCount ()
+  {
+    return m_nSuccessCount + m_nFailureCount;
+  }
+
+  @Nonnegative
+  public long getDurationNanos ()
+  {
+    return m_nDurationNanos;
+  }
+
+  /**
+   * @return The number of messages (successful and failed) per second.
+   */
+  public double getMessagesPerSecond ()
+  {
+    return m_nDurationNanos == 0 ? 0 : getTotalCount () * 1_000_000_000d / m_nDurationNanos;
+  }
+
+  /**
+   * Get the latency of the provided percentile using the nearest-rank method.
+   *
+   * @param dPercentile
+   *        The percentile to query. Must be &gt; 0 and &le; 100.
+   * @return The latency in nanoseconds or 0 if no message was sent.
+   */
+  public long getLatencyPercentileNanos (final double dPercentile)
+  {
+    ValueEnforcer.isTrue (dPercentile > 0 && dPercentile <= 100, "Percentile must be in (0, 100]");
+    if (m_aSortedLatenciesNanos.length == 0)
+      return 0;
+    final int nRank = (int) Math.ceil (dPercentile / 100 * m_aSortedLatenciesNanos.length);
+    return m_aSortedLatenciesNanos[Math.max (nRank, 1) - 1];
+  }
+
+  /**
+   * @return The number of bytes allocated by all threads of this JVM during
+   *         the measurement phase, or -1 if the JVM does not support
+   *         allocation measurement.
+   */
+  public long getAllocatedBytes ()
+  {
+    return m_nAllocatedBytes;
+  }
+
+  /**
+   * @return The allocation rate in bytes per second or -1 if unknown.
+   */
+  public double getAllocatedBytesPerSecond ()
+  {
+    if (m_nAllocatedBytes < 0 || m_nDurationNanos == 0)
+      return -1;
+    return m_nAllocatedBytes * 1_000_000_000d / m_nDurationNanos;
+  }
+
+  /**
+   * @return The allocated bytes per message or -1 if unknown.
+   */
+  public double getAllocatedBytesPerMessage ()
+  {
+    if (m_nAllocatedBytes < 0 || getTotalCount () == 0)
+      return -1;
+    return m_nAllocatedBytes / (double) getTotalCount ();
+  }
+
+  private static double _ms (final long nNanos)
+  {
+    return nNanos / 1_000_000d;
+  }
+
+  /**
+   * @return A human readable single line summary.
+   */
+  @Nonnull
+  public String getAsSummary ()
+  {
+    return String.format (Locale.ROOT,
+                          "%d messages (%d failed) in %.1f ms: %.1f msg/s; latency p50=%.2f ms, p99=%.2f ms, p999=%.2f ms, max=%.2f ms; allocation %.1f MB/s (%.1f KB/msg)",
+                          Integer.valueOf (getTotalCount ()),
+                          Integer.valueOf (m_nFailureCount),
+                          Double.valueOf (_ms (m_nDurationNanos)),
+                          Double.valueOf (getMessagesPerSecond ()),
+                          Double.valueOf (_ms (getLatencyPercentileNanos (50))),
+                          Double.valueOf (_ms (getLatencyPercentileNanos (99))),
+                          Double.valueOf (_ms (getLatencyPercentileNanos (99.9))),
+                          Double.valueOf (_ms (getLatencyPercentileNanos (100))),
+                          Double.valueOf (getAllocatedBytesPerSecond () / (1024 * 1024)),
+                          Double.valueOf (getAllocatedBytesPerMessage () / 1024));
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("SuccessCount", m_nSuccessCount)
+                                       .append ("FailureCount", m_nFailureCount)
+                                       .append ("DurationNanos", m_nDurationNanos)
+                                       .append ("AllocatedBytes", m_nAllocatedBytes)
+                                       .getToString ();
+  }
+}
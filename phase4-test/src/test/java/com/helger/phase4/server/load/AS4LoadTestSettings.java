@@ -0,0 +1,245 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.server.load;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableObject;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.AS4TestConstants;
+
+/**
+ * Settings for the {@link AS4LoadGenerator}.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@NotThreadSafe
+public class AS4LoadTestSettings
+{
+  /**
+   * A single entry of the payload mix.
+   *
+   * @author Philip Helger
+   */
+  public static final class Payload
+  {
+    private final int m_nAttachmentCount;
+    private final int m_nAttachmentSize;
+    private final int m_nWeight;
+
+    public Payload (@Nonnegative final int nAttachmentCount,
+                    @Nonnegative final int nAttachmentSize,
+                    @Nonnegative final int nWeight)
+    {
+      ValueEnforcer.isGE0 (nAttachmentCount, "AttachmentCount");
+      ValueEnforcer.isGE0 (nAttachmentSize, "AttachmentSize");
+      ValueEnforcer.isGT0 (nWeight, "Weight");
+      m_nAttachmentCount = nAttachmentCount;
+      m_nAttachmentSize = nAttachmentSize;
+      m_nWeight = nWeight;
+    }
+
+    /**
+     * @return The number of attachments. If 0, the SOAP body payload is used.
+     */
+    @Nonnegative
+    public int getAttachmentCount ()
+    {
+      return m_nAttachmentCount;
+    }
+
+    /**
+     * @return The size of each attachment in bytes.
+     */
+    @Nonnegative
+    public int getAttachmentSize ()
+    {
+      return m_nAttachmentSize;
+    }
+
+    /**
+     * @return The relative weight of this payload in the mix. Always &gt; 0.
+     */
+    @Nonnegative
+    public int getWeight ()
+    {
+      return m_nWeight;
+    }
+
+    @Override
+    public String toString ()
+    {
+      return new ToStringGenerator (null).append ("AttachmentCount", m_nAttachmentCount)
+                                         .append ("AttachmentSize", m_nAttachmentSize)
+                                         .append ("Weight", m_nWeight)
+                                         .getToString ();
+    }
+  }
+
+  public static final int DEFAULT_SENDER_THREADS = 4;
+  public static final int DEFAULT_WARMUP_MESSAGES_PER_THREAD = 20;
+  public static final int DEFAULT_MESSAGES_PER_THREAD = 100;
+  public static final boolean DEFAULT_SIGN = true;
+  public static final boolean DEFAULT_ENCRYPT = true;
+  public static final boolean DEFAULT_CHECK_RECEIPT = true;
+
+  private String m_sServerURL = AS4TestConstants.DEFAULT_SERVER_ADDRESS;
+  private int m_nSenderThreads = DEFAULT_SENDER_THREADS;
+  private int m_nWarmupMessagesPerThread = DEFAULT_WARMUP_MESSAGES_PER_THREAD;
+  private int m_nMessagesPerThread = DEFAULT_MESSAGES_PER_THREAD;
+  private boolean m_bSign = DEFAULT_SIGN;
+  private boolean m_bEncrypt = DEFAULT_ENCRYPT;
+  private boolean m_bCheckReceipt = DEFAULT_CHECK_RECEIPT;
+  private final ICommonsList <Payload> m_aPayloads = new CommonsArrayList <> ();
+
+  public AS4LoadTestSettings ()
+  {}
+
+  @Nonnull
+  @Nonempty
+  public final String getServerURL ()
+  {
+    return m_sServerURL;
+  }
+
+  @Nonnull
+  public final AS4LoadTestSettings setServerURL (@Nonnull @Nonempty final String sServerURL)
+  {
+    ValueEnforcer.notEmpty (sServerURL, "ServerURL");
+    m_sServerURL = sServerURL;
+    return this;
+  }
+
+  @Nonnegative
+  public final int getSenderThreads ()
+  {
+    return m_nSenderThreads;
+  }
+
+  @Nonnull
+  public final AS4LoadTestSettings setSenderThreads (@Nonnegative final int nSenderThreads)
+  {
+    ValueEnforcer.isGT0 (nSenderThreads, "SenderThreads");
+    m_nSenderThreads = nSenderThreads;
+    return this;
+  }
+
+  @Nonnegative
+  public final int getWarmupMessagesPerThread ()
+  {
+    return m_nWarmupMessagesPerThread;
+  }
+
+  @Nonnull
+  public final AS4LoadTestSettings setWarmupMessagesPerThread (@Nonnegative final int nWarmupMessagesPerThread)
+  {
+    ValueEnforcer.isGE0 (nWarmupMessagesPerThread, "WarmupMessagesPerThread");
+    m_nWarmupMessagesPerThread = nWarmupMessagesPerThread;
+    return this;
+  }
+
+  @Nonnegative
+  public final int getMessagesPerThread ()
+  {
+    return m_nMessagesPerThread;
+  }
+
+  @Nonnull
+  public final AS4LoadTestSettings setMessagesPerThread (@Nonnegative final int nMessagesPerThread)
+  {
+    ValueEnforcer.isGT0 (nMessagesPerThread, "MessagesPerThread");
+    m_nMessagesPerThread = nMessagesPerThread;
+    return this;
+  }
+
+  public final boolean isSign ()
+  {
+    return m_bSign;
+  }
+
+  @Nonnull
+  public final AS4LoadTestSettings setSign (final boolean bSign)
+  {
+    m_bSign = bSign;
+    return this;
+  }
+
+  public final boolean isEncrypt ()
+  {
+    return m_bEncrypt;
+  }
+
+  @Nonnull
+  public final AS4LoadTestSettings setEncrypt (final boolean bEncrypt)
+  {
+    m_bEncrypt = bEncrypt;
+    return this;
+  }
+
+  public final boolean isCheckReceipt ()
+  {
+    return m_bCheckReceipt;
+  }
+
+  @Nonnull
+  public final AS4LoadTestSettings setCheckReceipt (final boolean bCheckReceipt)
+  {
+    m_bCheckReceipt = bCheckReceipt;
+    return this;
+  }
+
+  /**
+   * @return The mutable payload mix. If empty, only SOAP body payloads are
+   *         sent.
+   */
+  @Nonnull
+  @ReturnsMutableObject
+  public final ICommonsList <Payload> payloads ()
+  {
+    return m_aPayloads;
+  }
+
+  @Nonnull
+  public final AS4LoadTestSettings addPayload (@Nonnegative final int nAttachmentCount,
+                                               @Nonnegative final int nAttachmentSize,
+                                               @Nonnegative final int nWeight)
+  {
+    m_aPayloads.add (new Payload (nAttachmentCount, nAttachmentSize, nWeight));
+    return this;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("ServerURL", m_sServerURL)
+                                       .append ("SenderThreads", m_nSenderThreads)
+                                       .append ("WarmupMessagesPerThread", m_nWarmupMessagesPerThread)
+                                       .append ("MessagesPerThread", m_nMessagesPerThread)
+                                       .append ("Sign", m_bSign)
+                                       .append ("Encrypt", m_bEncrypt)
+                                       .append ("CheckReceipt", m_bCheckReceipt)
+                                       .append ("Payloads", m_aPayloads)
+                                       .getToString ();
+  }
+}
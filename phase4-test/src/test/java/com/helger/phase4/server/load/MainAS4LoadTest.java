@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.server.load;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.string.StringParser;
+import com.helger.commons.system.SystemProperties;
+import com.helger.phase4.ScopedConfig;
+import com.helger.phase4.mgr.MetaAS4Manager;
+import com.helger.phase4.profile.cef.AS4CEFProfileRegistarSPI;
+import com.helger.phase4.server.MockJettySetup;
+import com.helger.phase4.server.MockPModeGenerator;
+
+/**
+ * Run a load test against the local AS4 test server. The most important
+ * settings can be changed via system properties:
+ * <ul>
+ * <li><code>phase4.loadtest.threads</code> - number of concurrent senders</li>
+ * <li><code>phase4.loadtest.warmup</code> - warmup messages per sender</li>
+ * <li><code>phase4.loadtest.messages</code> - measured messages per
+ * sender</li>
+ * <li><code>phase4.loadtest.sign</code> - sign messages?</li>
+ * <li><code>phase4.loadtest.encrypt</code> - encrypt messages?</li>
+ * </ul>
+ *
+ * @author Philip Helger
+ */
+public final class MainAS4LoadTest
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (MainAS4LoadTest.class);
+
+  private static int _getInt (final String sName, final int nDefault)
+  {
+    return StringParser.parseInt (SystemProperties.getPropertyValueOrNull ("phase4.loadtest." + sName), nDefault);
+  }
+
+  private static boolean _getBool (final String sName, final boolean bDefault)
+  {
+    return StringParser.parseBool (SystemProperties.getPropertyValueOrNull ("phase4.loadtest." + sName), bDefault);
+  }
+
+  public static void main (final String [] args) throws Exception
+  {
+    final AS4LoadTestSettings aSettings = new AS4LoadTestSettings ().setSenderThreads (_getInt ("threads",
+                                                                                               AS4LoadTestSettings.DEFAULT_SENDER_THREADS))
+                                                                    .setWarmupMessagesPerThread (_getInt ("warmup",
+                                                                                                          AS4LoadTestSettings.DEFAULT_WARMUP_MESSAGES_PER_THREAD))
+                                                                    .setMessagesPerThread (_getInt ("messages",
+                                                                                                    AS4LoadTestSettings.DEFAULT_MESSAGES_PER_THREAD))
+                                                                    .setSign (_getBool ("sign", AS4LoadTestSettings.DEFAULT_SIGN))
+                                                                    .setEncrypt (_getBool ("encrypt", AS4LoadTestSettings.DEFAULT_ENCRYPT))
+                                                                    // 60% SOAP body payload
+                                                                    .addPayload (0, 0, 6)
+                                                                    // 30% one 10 KB attachment
+                                                                    .addPayload (1, 10 * 1024, 3)
+                                                                    // 10% five 1 MB attachments
+                                                                    .addPayload (5, 1024 * 1024, 1);
+
+    try (final ScopedConfig aSC = ScopedConfig.createTestConfig ())
+    {
+      MockJettySetup.startServer ();
+      try
+      {
+        MetaAS4Manager.getProfileMgr ().setDefaultProfileID (AS4CEFProfileRegistarSPI.AS4_PROFILE_ID);
+        MockPModeGenerator.ensureMockPModesArePresent ();
+
+        final AS4LoadTestResult aResult = AS4LoadGenerator.run (aSettings);
+        LOGGER.info (aResult.getAsSummary ());
+      }
+      finally
+      {
+        MockJettySetup.shutDownServer ();
+      }
+    }
+  }
+}
@@ -47,6 +47,7 @@ import org.slf4j.LoggerFactory;
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.collection.ArrayHelper;
 import com.helger.commons.concurrent.ThreadHelper;
+import com.helger.commons.http.HttpHeaderMap;
 import com.helger.commons.io.stream.StreamHelper;
 import com.helger.commons.lang.StackTraceHelper;
 import com.helger.config.IConfig;
@@ -132,10 +133,11 @@ public abstract class AbstractUserMessageTestSetUp extends AbstractAS4TestSetUp
   }
 
   @Nonnull
-  private HttpPost _createPost ()
+  private HttpPost _createPost (@Nonnull final String sPathSuffix)
   {
     final IConfig aConfig = AS4Configuration.getConfig ();
-    final String sURL = aConfig.getAsString (MockJettySetup.SETTINGS_SERVER_ADDRESS, AS4TestConstants.DEFAULT_SERVER_ADDRESS);
+    final String sURL = aConfig.getAsString (MockJettySetup.SETTINGS_SERVER_ADDRESS, AS4TestConstants.DEFAULT_SERVER_ADDRESS) +
+                        sPathSuffix;
 
     LOGGER.info ("The following test case will only work if there is a local AS4 server running @ " + sURL);
     final HttpPost aPost = new HttpPost (sURL);
@@ -228,7 +230,7 @@ public abstract class AbstractUserMessageTestSetUp extends AbstractAS4TestSetUp
                                           final boolean bExpectSuccess,
                                           @Nullable final String sExpectedErrorCode) throws IOException, MessagingException
   {
-    final HttpPost aPost = _createPost ();
+    final HttpPost aPost = _createPost ("");
     MessageHelperMethods.forEachHeaderAndRemoveAfterwards (aHttpEntity.getMimeMessage (), aPost::addHeader, true);
     return _sendPlainMessage (aPost, aHttpEntity, bExpectSuccess, sExpectedErrorCode);
   }
@@ -250,7 +252,38 @@ public abstract class AbstractUserMessageTestSetUp extends AbstractAS4TestSetUp
                                            final boolean bExpectSuccess,
                                            @Nullable final String sExpectedErrorCode) throws IOException
   {
-    final HttpPost aPost = _createPost ();
+    final HttpPost aPost = _createPost ("");
+    return _sendPlainMessage (aPost, aHttpEntity, bExpectSuccess, sExpectedErrorCode);
+  }
+
+  /**
+   * Send a message to another servlet of the test server.
+   *
+   * @param sPathSuffix
+   *        The suffix to be appended to the configured server address. May not
+   *        be <code>null</code>.
+   * @param aHeaders
+   *        Additional HTTP headers to be sent. May not be <code>null</code>.
+   * @param aHttpEntity
+   *        the entity to send to the server
+   * @param bExpectSuccess
+   *        specifies if the test case expects a positive or negative response
+   *        from the server
+   * @param sExpectedErrorCode
+   *        if you expect a negative response, you must give the expected error
+   *        code as it will get searched for in the response.
+   * @return Response as String
+   * @throws IOException
+   */
+  @Nonnull
+  protected final String sendPlainMessage (@Nonnull final String sPathSuffix,
+                                           @Nonnull final HttpHeaderMap aHeaders,
+                                           @Nonnull final HttpEntity aHttpEntity,
+                                           final boolean bExpectSuccess,
+                                           @Nullable final String sExpectedErrorCode) throws IOException
+  {
+    final HttpPost aPost = _createPost (sPathSuffix);
+    aHeaders.forEachSingleHeader (aPost::addHeader, true);
     return _sendPlainMessage (aPost, aHttpEntity, bExpectSuccess, sExpectedErrorCode);
   }
 
@@ -16,17 +16,29 @@
  */
 package com.helger.phase4.server.servlet;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import java.time.Duration;
+
+import javax.annotation.Nonnull;
+
 import org.apache.http.HttpEntity;
 import org.junit.Test;
 import org.w3c.dom.Document;
 
 import com.helger.commons.collection.impl.CommonsArrayList;
 import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.concurrent.ThreadHelper;
+import com.helger.commons.http.HttpHeaderMap;
 import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.commons.timing.StopWatch;
+import com.helger.phase4.CAS4;
 import com.helger.phase4.AS4TestConstants;
 import com.helger.phase4.crypto.AS4SigningParams;
+import com.helger.phase4.ebms3header.Ebms3UserMessage;
 import com.helger.phase4.error.EEbmsError;
 import com.helger.phase4.http.HttpXMLEntity;
 import com.helger.phase4.messaging.crypto.AS4Signer;
@@ -34,6 +46,9 @@ import com.helger.phase4.messaging.domain.AS4PullRequestMessage;
 import com.helger.phase4.messaging.domain.MessageHelperMethods;
 import com.helger.phase4.mgr.MetaAS4Manager;
 import com.helger.phase4.model.mpc.MPC;
+import com.helger.phase4.mpcqueue.AS4MPCQueueLease;
+import com.helger.phase4.mpcqueue.AS4MPCQueueMessage;
+import com.helger.phase4.mpcqueue.IAS4MPCQueueManager;
 import com.helger.phase4.server.spi.MockMessageProcessorSPI;
 import com.helger.phase4.soap.ESoapVersion;
 import com.helger.xml.serialize.read.DOMReader;
@@ -162,4 +177,130 @@ public final class PullRequestTest extends AbstractUserMessageTestSetUpExt
     final HttpEntity aEntity = new HttpXMLEntity (aDoc, m_eSoapVersion.getMimeType ());
     sendPlainMessageAndWait (aEntity, false, EEbmsError.EBMS_VALUE_NOT_RECOGNIZED.getErrorCode ());
   }
+
+  @Nonnull
+  private static AS4MPCQueueMessage _createQueueMessage (@Nonnull final String sMPC, @Nonnull final String sQueuedMessageID)
+  {
+    final Ebms3UserMessage aUserMsg = new Ebms3UserMessage ();
+    aUserMsg.setMpc (sMPC);
+    aUserMsg.setMessageInfo (MessageHelperMethods.createEbms3MessageInfo (sQueuedMessageID, null));
+    aUserMsg.setPartyInfo (MessageHelperMethods.createEbms3PartyInfo ("pullresponder", "from", "pullinitiator", "to"));
+    aUserMsg.setCollaborationInfo (MessageHelperMethods.createEbms3CollaborationInfo (null,
+                                                                                      null,
+                                                                                      null,
+                                                                                      AS4TestConstants.TEST_SERVICE,
+                                                                                      AS4TestConstants.TEST_ACTION,
+                                                                                      "conversation"));
+    return new AS4MPCQueueMessage (sMPC, null, aUserMsg, null);
+  }
+
+  @Test
+  public void testSendPullRequestFromMPCQueue () throws Exception
+  {
+    // The SPI accepts the pull request without returning a message
+    final String sMPC = MockMessageProcessorSPI.MPC_EMPTY;
+    if (MetaAS4Manager.getMPCMgr ().getMPCOfID (sMPC) == null)
+      MetaAS4Manager.getMPCMgr ().createMPC (new MPC (sMPC));
+
+    final String sQueuedMessageID = MessageHelperMethods.createRandomMessageID ();
+    final IAS4MPCQueueManager aQueueMgr = MetaAS4Manager.getMPCQueueMgr ();
+    assertTrue (aQueueMgr.enqueue (_createQueueMessage (sMPC, sQueuedMessageID)).isChanged ());
+    try
+    {
+      final Document aDoc = AS4PullRequestMessage.create (m_eSoapVersion, MessageHelperMethods.createEbms3MessageInfo (), sMPC, null)
+                                                 .getAsSoapDocument ();
+      final HttpEntity aEntity = new HttpXMLEntity (aDoc, m_eSoapVersion.getMimeType ());
+      final String sResponse = sendPlainMessageAndWait (aEntity, true, null);
+
+      assertTrue (sResponse.contains (sQueuedMessageID));
+      // Still queued until the receipt is received
+      assertEquals (1, aQueueMgr.getQueuedCount (sMPC));
+    }
+    finally
+    {
+      aQueueMgr.acknowledge (sQueuedMessageID);
+    }
+  }
+
+  @Test
+  public void testSendPullRequestFromMPCQueueRejectedBySPI () throws Exception
+  {
+    // The SPI rejects the pull request
+    final String sMPC = MockMessageProcessorSPI.MPC_FAILURE;
+    if (MetaAS4Manager.getMPCMgr ().getMPCOfID (sMPC) == null)
+      MetaAS4Manager.getMPCMgr ().createMPC (new MPC (sMPC));
+
+    final String sQueuedMessageID = MessageHelperMethods.createRandomMessageID ();
+    final IAS4MPCQueueManager aQueueMgr = MetaAS4Manager.getMPCQueueMgr ();
+    assertTrue (aQueueMgr.enqueue (_createQueueMessage (sMPC, sQueuedMessageID)).isChanged ());
+    try
+    {
+      final Document aDoc = AS4PullRequestMessage.create (m_eSoapVersion, MessageHelperMethods.createEbms3MessageInfo (), sMPC, null)
+                                                 .getAsSoapDocument ();
+      final HttpEntity aEntity = new HttpXMLEntity (aDoc, m_eSoapVersion.getMimeType ());
+      sendPlainMessageAndWait (aEntity, false, EEbmsError.EBMS_OTHER.getErrorCode ());
+
+      // The queued message was not leased
+      final AS4MPCQueueLease aLease = aQueueMgr.lease (sMPC, Duration.ZERO);
+      assertNotNull (aLease);
+      assertEquals (sQueuedMessageID, aLease.getMessage ().getMessageID ());
+      assertFalse (aLease.isRedelivery ());
+    }
+    finally
+    {
+      aQueueMgr.acknowledge (sQueuedMessageID);
+    }
+  }
+
+  @Test
+  public void testSendLongPollPullRequestWokenByEnqueue () throws Exception
+  {
+    final String sMPC = MockMessageProcessorSPI.MPC_EMPTY;
+    if (MetaAS4Manager.getMPCMgr ().getMPCOfID (sMPC) == null)
+      MetaAS4Manager.getMPCMgr ().createMPC (new MPC (sMPC));
+
+    final String sQueuedMessageID = MessageHelperMethods.createRandomMessageID ();
+    final IAS4MPCQueueManager aQueueMgr = MetaAS4Manager.getMPCQueueMgr ();
+    assertEquals (0, aQueueMgr.getQueuedCount (sMPC));
+
+    // Enqueue while the pull request is waiting
+    final Thread aEnqueuer = new Thread ( () -> {
+      ThreadHelper.sleep (1_000);
+      aQueueMgr.enqueue (_createQueueMessage (sMPC, sQueuedMessageID));
+    }, "test-enqueuer");
+    aEnqueuer.start ();
+    try
+    {
+      final Document aDoc = AS4PullRequestMessage.create (m_eSoapVersion, MessageHelperMethods.createEbms3MessageInfo (), sMPC, null)
+                                                 .getAsSoapDocument ();
+      final HttpEntity aEntity = new HttpXMLEntity (aDoc, m_eSoapVersion.getMimeType ());
+      final HttpHeaderMap aHeaders = new HttpHeaderMap ();
+      aHeaders.setHeader (CAS4.HTTP_HEADER_PULL_WAIT, "20");
+      final String sResponse = sendPlainMessage ("-longpoll", aHeaders, aEntity, true, null);
+
+      assertTrue (sResponse.contains (sQueuedMessageID));
+    }
+    finally
+    {
+      aEnqueuer.join ();
+      aQueueMgr.acknowledge (sQueuedMessageID);
+    }
+  }
+
+  @Test
+  public void testSendLongPollPullRequestTimeout () throws Exception
+  {
+    final String sMPC = MockMessageProcessorSPI.MPC_EMPTY;
+    if (MetaAS4Manager.getMPCMgr ().getMPCOfID (sMPC) == null)
+      MetaAS4Manager.getMPCMgr ().createMPC (new MPC (sMPC));
+
+    final Document aDoc = AS4PullRequestMessage.create (m_eSoapVersion, MessageHelperMethods.createEbms3MessageInfo (), sMPC, null)
+                                               .getAsSoapDocument ();
+    final HttpEntity aEntity = new HttpXMLEntity (aDoc, m_eSoapVersion.getMimeType ());
+    final HttpHeaderMap aHeaders = new HttpHeaderMap ();
+    aHeaders.setHeader (CAS4.HTTP_HEADER_PULL_WAIT, "1");
+    final StopWatch aSW = StopWatch.createdStarted ();
+    sendPlainMessage ("-longpoll", aHeaders, aEntity, false, EEbmsError.EBMS_EMPTY_MESSAGE_PARTITION_CHANNEL.getErrorCode ());
+    assertTrue (aSW.stopAndGetMillis () >= 1_000);
+  }
 }
@@ -56,7 +56,8 @@ public final class UserMessageDuplicateTest extends AbstractUserMessageTestSetUp
     sendPlainMessageAndWait (aEntity, true, null);
 
     // Send again
-    sendPlainMessageAndWait (aEntity, false, EEbmsError.EBMS_OTHER.getErrorCode ());
+    final String sResponse = sendPlainMessageAndWait (aEntity, false, EEbmsError.EBMS_OTHER.getErrorCode ());
+    assertTrue (sResponse.contains ("' was already received!"));
   }
 
   @Test